@@ -34,6 +34,7 @@ import java.util.concurrent.atomic.AtomicReference;
 
 import org.helios.apmrouter.destination.BaseDestination;
 import org.helios.apmrouter.metric.IMetric;
+import org.helios.apmrouter.server.MetricCounter;
 import org.helios.apmrouter.util.RepeatingEventHandler;
 import org.helios.apmrouter.wsclient.WebSocketClient;
 import org.helios.apmrouter.wsclient.WebSocketEventListener;
@@ -53,6 +54,8 @@ import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
  * <p><code>org.helios.apmrouter.destination.cube.CubeDestination</code></p>
  */
 public class CubeDestination extends BaseDestination implements WebSocketEventListener, Runnable  {
+	/** The forwarded metrics counter */
+	protected final MetricCounter metricsForwarded = counter("MetricsForwarded");
 	/** The Cube URI, e.g. <code>ws://localhost:1080/1.0/event/put</code> */
 	protected URI cubeUri = null;
 	/** The WebSocketClient */
@@ -121,7 +124,7 @@ public class CubeDestination extends BaseDestination implements WebSocketEventLi
 	protected void doAcceptRoute(IMetric routable) {
 		if(connected.get()) {
 			writeToCube(routable.getUnmapped());
-			incr("MetricsForwarded");
+			metricsForwarded.increment();
 		} else {
 			incr("MetricsDropped");
 		}
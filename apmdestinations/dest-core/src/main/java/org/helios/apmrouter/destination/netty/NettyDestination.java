@@ -42,6 +42,7 @@ import java.util.concurrent.atomic.AtomicInteger;
 
 import org.helios.apmrouter.destination.BaseDestination;
 import org.helios.apmrouter.metric.IMetric;
+import org.helios.apmrouter.server.MetricCounter;
 import org.jboss.netty.bootstrap.Bootstrap;
 import org.jboss.netty.channel.Channel;
 import org.jboss.netty.channel.ChannelFactory;
@@ -73,6 +74,8 @@ import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
  */
 
 public abstract class NettyDestination extends BaseDestination implements ChannelPipelineFactory {
+	/** The forwarded metrics counter */
+	protected final MetricCounter metricsForwarded = counter("MetricsForwarded");
 	/** The nety worker pool */
 	protected ExecutorService workerPool;
 	/** The client bootstrap */
@@ -343,7 +346,7 @@ public abstract class NettyDestination extends BaseDestination implements Channe
 				@Override
 				public void operationComplete(ChannelFuture f) throws Exception {
 					if(f.isSuccess()) {
-						incr("MetricsForwarded");
+						metricsForwarded.increment();
 					} else {
 						incr("MetricForwardFailures");
 					}
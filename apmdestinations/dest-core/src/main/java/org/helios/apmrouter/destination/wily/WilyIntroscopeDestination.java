@@ -34,6 +34,7 @@ import java.util.concurrent.ConcurrentHashMap;
 
 import org.helios.apmrouter.destination.BaseDestination;
 import org.helios.apmrouter.metric.IMetric;
+import org.helios.apmrouter.server.MetricCounter;
 import org.springframework.jmx.export.annotation.ManagedAttribute;
 import org.springframework.jmx.export.annotation.ManagedMetric;
 import org.springframework.jmx.support.MetricType;
@@ -47,6 +48,8 @@ import org.springframework.jmx.support.MetricType;
  */
 
 public class WilyIntroscopeDestination extends BaseDestination {
+	/** The forwarded metrics counter */
+	protected final MetricCounter metricsForwarded = counter("MetricsForwarded");
 	/** The file name of the Introscope <code>agent.jar</code> */
 	protected String wilyAgentLib = null;
 	/** The file name of the Introscope agent configuration properties */
@@ -117,21 +120,21 @@ public class WilyIntroscopeDestination extends BaseDestination {
 				break;
 			case DELTA_COUNTER:
 				wilyTracer.recordCurrentValue(metric.getLongValue(), getWilyMetricName(metric));
-				incr("MetricsForwarded");
+				metricsForwarded.increment();
 				break;
 			case DELTA_GAUGE:
 				wilyTracer.recordCurrentValue(metric.getLongValue(), getWilyMetricName(metric));
-				incr("MetricsForwarded");			
+				metricsForwarded.increment();			
 				break;
 			case ERROR:
 				break;
 			case LONG_COUNTER:
 				wilyTracer.recordCurrentValue(metric.getLongValue(), getWilyMetricName(metric));
-				incr("MetricsForwarded");			
+				metricsForwarded.increment();			
 				break;
 			case LONG_GAUGE:
 				wilyTracer.recordCurrentValue(metric.getLongValue(), getWilyMetricName(metric));
-				incr("MetricsForwarded");						
+				metricsForwarded.increment();						
 				break;
 			case PDU:
 				incr("MetricsDropped");
@@ -139,7 +142,7 @@ public class WilyIntroscopeDestination extends BaseDestination {
 			case STRING:
 				wilyTracer.recordDataPoint(metric.getValue().toString(), getWilyMetricName(metric));
 				info("Traced String value: [" + metric.getValue().toString() + "]");
-				incr("MetricsForwarded");									
+				metricsForwarded.increment();									
 				break;
 			default:
 				incr("MetricsDropped");
@@ -83,6 +83,29 @@ public class SNMPDestination extends BaseDestination {
 		}
 	}
 	
+	/**
+	 * {@inheritDoc}
+	 * <p>PDUs are forwarded per item, so batches are handled by {@link #acceptRoute(IMetric)}.
+	 * @see org.helios.apmrouter.destination.BaseDestination#acceptRoutes(java.util.Collection)
+	 */
+	@Override
+	public void acceptRoutes(Collection<IMetric> routables) {
+		if(routables==null) return;
+		for(IMetric routable: routables) {
+			acceptRoute(routable);
+		}
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * <p>PDUs are always routed to this destination, regardless of the match patterns.
+	 * @see org.helios.apmrouter.destination.BaseDestination#matches(org.helios.apmrouter.metric.IMetric)
+	 */
+	@Override
+	public boolean matches(IMetric routable) {
+		return "PDU".equals(routable.getType().name()) || super.matches(routable);
+	}
+	
 	@Override
 	public void acceptRoute(IMetric routable) {		
 		super.acceptRoute(routable);
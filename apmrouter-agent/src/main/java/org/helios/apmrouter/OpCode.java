@@ -94,7 +94,15 @@ public enum OpCode {
 	/** Stops a SubDestination subscription */
 	STOP_SUB_DEST,
 	/** Stops a SubDestination subscription */
-	STOP_SUB_DEST_CONFIRM(STOP_SUB_DEST);
+	STOP_SUB_DEST_CONFIRM(STOP_SUB_DEST),
+	/** A sequenced metric batch sent over a stream transport */
+	SEND_BATCH,
+	/** The server's acknowledgement of a sequenced metric batch */
+	BATCH_ACK(SEND_BATCH),
+	/** An asynch send of a metric payload in the compact wire format, used once the server's HELLO_CONFIRM advertises it */
+	SEND_METRIC_COMPACT,
+	/** Directive from the server to start a new FQN segment dictionary epoch, without resetting the agent's metric tokens */
+	SEGMENT_RESYNC;
 	
 	
 	
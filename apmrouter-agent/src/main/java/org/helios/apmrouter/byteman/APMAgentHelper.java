@@ -30,6 +30,7 @@ import org.helios.apmrouter.jmx.JMXHelper;
 import org.helios.apmrouter.metric.ICEMetric;
 import org.helios.apmrouter.metric.MetricType;
 import org.helios.apmrouter.trace.ITracer;
+import org.helios.apmrouter.trace.MetricHandle;
 import org.helios.apmrouter.trace.TracerFactory;
 import org.helios.apmrouter.util.SimpleLogger;
 import org.jboss.byteman.agent.RuleScript;
@@ -325,6 +326,51 @@ public class APMAgentHelper extends Helper implements ITracer {
 		return itracer.getSentMetrics();
 	}
 
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.apmrouter.trace.ITracer#handle(org.helios.apmrouter.metric.MetricType, java.lang.CharSequence, java.lang.CharSequence[])
+	 */
+	@Override
+	public MetricHandle handle(MetricType type, CharSequence name, CharSequence... namespace) {
+		return itracer.handle(type, name, namespace);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.apmrouter.trace.ITracer#gaugeHandle(java.lang.CharSequence, java.lang.CharSequence[])
+	 */
+	@Override
+	public MetricHandle gaugeHandle(CharSequence name, CharSequence... namespace) {
+		return itracer.gaugeHandle(name, namespace);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.apmrouter.trace.ITracer#counterHandle(java.lang.CharSequence, java.lang.CharSequence[])
+	 */
+	@Override
+	public MetricHandle counterHandle(CharSequence name, CharSequence... namespace) {
+		return itracer.counterHandle(name, namespace);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.apmrouter.trace.ITracer#deltaGaugeHandle(java.lang.CharSequence, java.lang.CharSequence[])
+	 */
+	@Override
+	public MetricHandle deltaGaugeHandle(CharSequence name, CharSequence... namespace) {
+		return itracer.deltaGaugeHandle(name, namespace);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.apmrouter.trace.ITracer#deltaCounterHandle(java.lang.CharSequence, java.lang.CharSequence[])
+	 */
+	@Override
+	public MetricHandle deltaCounterHandle(CharSequence name, CharSequence... namespace) {
+		return itracer.deltaCounterHandle(name, namespace);
+	}
+
 	/**
 	 * {@inheritDoc}
 	 * @see org.helios.apmrouter.trace.ITracer#getDroppedMetrics()
@@ -0,0 +1,382 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.apmrouter.collections;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <p>Title: LatencyHistogram</p>
+ * <p>Description: A striped, log-linear bucketed histogram of elapsed times for instrumenting hot paths. 
+ * Each octave of values is split into {@link #SUB_BUCKETS} linear buckets, so a reported percentile is within about 3% of the recorded value.
+ * {@link #record(long)} picks a stripe by thread id and bumps it with a few atomic operations: it never locks and never allocates.
+ * Percentiles are reported from the last completed interval, which rolls lazily when a reader asks for a {@link Snapshot}.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.apmrouter.collections.LatencyHistogram</code></p>
+ */
+
+public class LatencyHistogram {
+	/** The stripes that recorders write to */
+	protected final Stripe[] stripes;
+	/** The mask applied to a thread id to get its stripe */
+	protected final int stripeMask;
+	/** The interval length in ms. */
+	protected final long intervalMs;
+	/** The most recently recorded value */
+	protected final AtomicLong last = new AtomicLong(-1L);
+	/** The cumulative bucket counts as of the last roll */
+	protected final long[] rolledCounts = new long[BUCKET_COUNT];
+	/** The cumulative sum as of the last roll */
+	protected long rolledSum = 0L;
+	/** The time of the last roll */
+	protected long rolledAt = System.currentTimeMillis();
+	/** The last completed interval, or null if no interval has completed */
+	protected volatile Snapshot completed = null;
+	
+	/** The number of bits of a value kept by its bucket */
+	public static final int SUB_BUCKET_BITS = 6;
+	/** The number of linear sub buckets each octave is split into */
+	public static final int SUB_BUCKETS = 1 << (SUB_BUCKET_BITS-1);
+	/** The number of buckets, enough for any non-negative long */
+	public static final int BUCKET_COUNT = bucketFor(Long.MAX_VALUE) + 1;
+	/** The default interval length in ms. */
+	public static final long DEFAULT_INTERVAL_MS = 15000L;
+	/** The default number of stripes */
+	public static final int DEFAULT_STRIPES = Math.min(4, Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors())));
+	
+	/**
+	 * Creates a new LatencyHistogram with the default interval and stripe count
+	 */
+	public LatencyHistogram() {
+		this(DEFAULT_INTERVAL_MS, DEFAULT_STRIPES);
+	}
+	
+	/**
+	 * Creates a new LatencyHistogram with the default stripe count
+	 * @param intervalMs The interval length in ms.
+	 */
+	public LatencyHistogram(long intervalMs) {
+		this(intervalMs, DEFAULT_STRIPES);
+	}
+	
+	/**
+	 * Creates a new LatencyHistogram
+	 * @param intervalMs The interval length in ms.
+	 * @param stripeCount The number of stripes, rounded up to the next power of two
+	 */
+	public LatencyHistogram(long intervalMs, int stripeCount) {
+		if(intervalMs<1) throw new IllegalArgumentException("Invalid interval [" + intervalMs + "]", new Throwable());
+		if(stripeCount<1) throw new IllegalArgumentException("Invalid stripe count [" + stripeCount + "]", new Throwable());
+		this.intervalMs = intervalMs;
+		int count = 1;
+		while(count < stripeCount) count <<= 1;
+		stripeMask = count-1;
+		stripes = new Stripe[count];
+		for(int i = 0; i < count; i++) stripes[i] = new Stripe();
+	}
+	
+	/**
+	 * Returns the bucket index for the passed value. Values below <b><code>2 * SUB_BUCKETS</code></b> get their own bucket. 
+	 * Larger values are bucketed by their top {@link #SUB_BUCKET_BITS} bits.
+	 * @param value The value, negative values are treated as zero
+	 * @return the bucket index
+	 */
+	public static int bucketFor(long value) {
+		if(value < (SUB_BUCKETS << 1)) return value<0 ? 0 : (int)value;
+		int shift = 63 - Long.numberOfLeadingZeros(value) - (SUB_BUCKET_BITS-1);
+		return (shift * SUB_BUCKETS) + (int)(value >>> shift);
+	}
+	
+	/**
+	 * Returns the highest value that falls into the passed bucket
+	 * @param bucket The bucket index
+	 * @return the highest value of the bucket
+	 */
+	public static long highestValueOf(int bucket) {
+		if(bucket < (SUB_BUCKETS << 1)) return bucket;
+		int shift = (bucket / SUB_BUCKETS) - 1;
+		long sub = bucket - (shift * SUB_BUCKETS);
+		long high = ((sub+1) << shift) - 1;
+		return high<0 ? Long.MAX_VALUE : high;
+	}
+	
+	/**
+	 * Records a value
+	 * @param value The value to record, negative values are recorded as zero
+	 */
+	public void record(long value) {
+		if(value<0) value = 0;
+		Stripe stripe = stripes[(int)Thread.currentThread().getId() & stripeMask];
+		stripe.counts.incrementAndGet(bucketFor(value));
+		stripe.sum.addAndGet(value);
+		long max = stripe.max.get();
+		while(value > max) {
+			if(stripe.max.compareAndSet(max, value)) break;
+			max = stripe.max.get();
+		}
+		last.lazySet(value);
+	}
+	
+	/**
+	 * Records the time elapsed since the passed start time
+	 * @param startNs The start time from {@link System#nanoTime()}
+	 * @return the elapsed time in ns.
+	 */
+	public long recordSince(long startNs) {
+		long elapsed = System.nanoTime() - startNs;
+		record(elapsed);
+		return elapsed;
+	}
+	
+	/**
+	 * Returns the most recently recorded value
+	 * @return the most recently recorded value or -1 if nothing has been recorded
+	 */
+	public long getLast() {
+		return last.get();
+	}
+	
+	/**
+	 * Returns the snapshot of the last completed interval, rolling the interval first if it has elapsed.
+	 * Until the first interval completes, returns the values recorded so far.
+	 * @return a snapshot
+	 */
+	public Snapshot getSnapshot() {
+		Snapshot snap = completed;
+		if(snap!=null && System.currentTimeMillis() - rolledAt < intervalMs) return snap;
+		synchronized(rolledCounts) {
+			long now = System.currentTimeMillis();
+			if(now - rolledAt >= intervalMs) {
+				completed = collect(true);
+				rolledAt = now;
+				return completed;
+			}
+			return completed!=null ? completed : collect(false);
+		}
+	}
+	
+	/**
+	 * Sums the stripes into a snapshot of the values recorded since the last roll. Must be called holding the roll lock.
+	 * @param roll true to start a new interval, false to peek at the current one
+	 * @return the snapshot
+	 */
+	protected Snapshot collect(boolean roll) {
+		long[] counts = new long[BUCKET_COUNT];
+		long sum = 0, max = 0;
+		for(Stripe stripe: stripes) {
+			for(int i = 0; i < BUCKET_COUNT; i++) counts[i] += stripe.counts.get(i);
+			sum += stripe.sum.get();
+			max = Math.max(max, roll ? stripe.max.getAndSet(0) : stripe.max.get());
+		}
+		long cumulativeSum = sum;
+		sum -= rolledSum;
+		for(int i = 0; i < BUCKET_COUNT; i++) {
+			long cumulative = counts[i];
+			counts[i] -= rolledCounts[i];
+			if(roll) rolledCounts[i] = cumulative;
+		}
+		if(roll) rolledSum = cumulativeSum;
+		return new Snapshot(counts, sum, max);
+	}
+	
+	/**
+	 * Returns the mean of the last completed interval
+	 * @return the mean or -1 if the interval was empty
+	 */
+	public long getMean() {
+		return getSnapshot().getMean();
+	}
+	
+	/**
+	 * Returns the median of the last completed interval
+	 * @return the median or -1 if the interval was empty
+	 */
+	public long getP50() {
+		return getSnapshot().getPercentile(50D);
+	}
+	
+	/**
+	 * Returns the 99th percentile of the last completed interval
+	 * @return the 99th percentile or -1 if the interval was empty
+	 */
+	public long getP99() {
+		return getSnapshot().getPercentile(99D);
+	}
+	
+	/**
+	 * Returns the 99.9th percentile of the last completed interval
+	 * @return the 99.9th percentile or -1 if the interval was empty
+	 */
+	public long getP999() {
+		return getSnapshot().getPercentile(99.9D);
+	}
+	
+	/**
+	 * Returns the maximum of the last completed interval
+	 * @return the maximum or -1 if the interval was empty
+	 */
+	public long getMax() {
+		return getSnapshot().getMax();
+	}
+	
+	/**
+	 * Discards all recorded values
+	 */
+	public void clear() {
+		synchronized(rolledCounts) {
+			collect(true);
+			completed = null;
+			rolledAt = System.currentTimeMillis();
+			last.set(-1L);
+		}
+	}
+	
+	/**
+	 * Returns the interval length in ms.
+	 * @return the interval length in ms.
+	 */
+	public long getIntervalMs() {
+		return intervalMs;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return getSnapshot().toString();
+	}
+	
+	/**
+	 * <p>Title: Snapshot</p>
+	 * <p>Description: The bucket counts, sum and maximum of one interval of a {@link LatencyHistogram}</p> 
+	 * <p>Company: Helios Development Group LLC</p>
+	 * @author Whitehead (nwhitehead AT heliosdev DOT org)
+	 * <p><code>org.helios.apmrouter.collections.LatencyHistogram.Snapshot</code></p>
+	 */
+	public static class Snapshot {
+		/** The interval bucket counts */
+		protected final long[] counts;
+		/** The number of values recorded in the interval */
+		protected final long count;
+		/** The sum of the values recorded in the interval */
+		protected final long sum;
+		/** The maximum value recorded in the interval */
+		protected final long max;
+		
+		/**
+		 * Creates a new Snapshot
+		 * @param counts The interval bucket counts
+		 * @param sum The sum of the values recorded in the interval
+		 * @param max The maximum value recorded in the interval
+		 */
+		protected Snapshot(long[] counts, long sum, long max) {
+			this.counts = counts;
+			this.sum = sum;
+			this.max = max;
+			long c = 0;
+			for(long n: counts) c += n;
+			count = c;
+		}
+		
+		/**
+		 * Returns the value at the passed percentile. Reports the highest value of the bucket the percentile falls into, capped at the interval maximum.
+		 * @param percentile The percentile, from 0 to 100
+		 * @return the value at the passed percentile or -1 if the interval was empty
+		 */
+		public long getPercentile(double percentile) {
+			if(count==0) return -1L;
+			long rank = (long)Math.ceil((Math.min(100D, Math.max(0D, percentile)) / 100D) * count);
+			if(rank<1) rank = 1;
+			long seen = 0;
+			for(int i = 0; i < counts.length; i++) {
+				seen += counts[i];
+				if(seen >= rank) return Math.min(highestValueOf(i), max);
+			}
+			return max;
+		}
+		
+		/**
+		 * Returns the number of values recorded in the interval
+		 * @return the number of values recorded in the interval
+		 */
+		public long getCount() {
+			return count;
+		}
+		
+		/**
+		 * Returns the mean of the values recorded in the interval
+		 * @return the mean or -1 if the interval was empty
+		 */
+		public long getMean() {
+			return count==0 ? -1L : sum/count;
+		}
+		
+		/**
+		 * Returns the maximum value recorded in the interval
+		 * @return the maximum or -1 if the interval was empty
+		 */
+		public long getMax() {
+			return count==0 ? -1L : max;
+		}
+		
+		/**
+		 * {@inheritDoc}
+		 * @see java.lang.Object#toString()
+		 */
+		@Override
+		public String toString() {
+			return "LatencyHistogram.Snapshot [count:" + count + ", mean:" + getMean() + ", p50:" + getPercentile(50D) + ", p99:" + getPercentile(99D) + ", p999:" + getPercentile(99.9D) + ", max:" + getMax() + "]";
+		}
+	}
+	
+	/**
+	 * <p>Title: Stripe</p>
+	 * <p>Description: The counts, sum and maximum written by the threads that hash to one stripe</p> 
+	 * <p>Company: Helios Development Group LLC</p>
+	 * @author Whitehead (nwhitehead AT heliosdev DOT org)
+	 * <p><code>org.helios.apmrouter.collections.LatencyHistogram.Stripe</code></p>
+	 */
+	protected static class Stripe {
+		/** The cumulative bucket counts */
+		protected final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+		/** The cumulative sum of recorded values */
+		protected final AtomicLong sum = new AtomicLong(0L);
+		/** The maximum value recorded since the last roll */
+		protected final AtomicLong max = new AtomicLong(0L);
+	}
+	
+	/**
+	 * Converts the passed ns. value to ms., passing through the -1 empty marker
+	 * @param ns The value in ns.
+	 * @return the value in ms.
+	 */
+	public static long toMs(long ns) {
+		return ns<0 ? ns : TimeUnit.MILLISECONDS.convert(ns, TimeUnit.NANOSECONDS);
+	}
+}
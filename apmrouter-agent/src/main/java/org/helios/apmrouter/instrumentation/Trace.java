@@ -65,4 +65,13 @@ public @interface Trace {
 	 */
 	public String accessible() default "";
 	
+	/**
+	 * Specifies that the collected data points are accumulated off heap and traced once per flush period
+	 * rather than traced on every invocation. Invocations that throw are measured and counted along with those that return.
+	 * <p>Note that measuring any of the wait or block counts or times costs two {@link java.lang.management.ThreadMXBean#getThreadInfo(long)}
+	 * calls on every invocation, which builds a snapshot of the thread's state and is far more expensive than the elapsed and cpu time
+	 * measurements, so they should be reserved for coarse grained methods.</p>
+	 */
+	public boolean interval() default false;
+	
 }
@@ -26,6 +26,7 @@ package org.helios.apmrouter.instrumentation;
 
 
 import javassist.*;
+import org.helios.apmrouter.instrumentation.interceptors.InvocationInterceptor;
 import org.helios.apmrouter.trace.ITracer;
 
 import java.lang.instrument.ClassFileTransformer;
@@ -150,10 +151,20 @@ public class TraceClassFileTransformer implements ClassFileTransformer {
 				namespaceInit.append("};");
 				clazz.addField(namespaceField, namespaceInit.toString());
 				log("Added field [" + namespaceFieldName + "] with init of [" + namespaceInit + "]");
+				final boolean interval = ti.isInterval();
+				final String interceptorFieldName = namespaceFieldName + "_interceptor";
+				if(interval) {
+					CtField interceptorField = new CtField(cp.get(InvocationInterceptor.class.getName()), interceptorFieldName, clazz);
+					interceptorField.setModifiers(tracerField.getModifiers() | Modifier.STATIC | Modifier.FINAL);
+					String interceptorInit = "new " + InvocationInterceptor.class.getName() + "(" + TraceCollection.TRACER_FIELD + ", \"" + ti.getName() + "\", (short)" + TraceCollection.getIntervalMask(ti.getCollections()) + ", " + namespaceFieldName + ");";
+					clazz.addField(interceptorField, interceptorInit);
+					log("Added field [" + interceptorFieldName + "] with init of [" + interceptorInit + "]");
+				}
 				
 				final StringBuilder body = new StringBuilder("{"); 
 				// ======================  Do Pre Inv ==========================
 				for(TraceCollection tc: entry.getValue().getCollections()) {
+					if(interval && tc.getIntervalResource()!=null) continue;
 					try {
 						tc.addPreInvoke(clazz, method, wrapperMethod, ti, body);
 					} catch (Exception e) {
@@ -161,14 +172,35 @@ public class TraceClassFileTransformer implements ClassFileTransformer {
 						return null;
 					}
 				}
+				if(interval) {
+					body.append("long _$_start = System.nanoTime();\n");
+					body.append("long _$_cpu = ").append(interceptorFieldName).append(".cpuTime();\n");
+					body.append("java.lang.management.ThreadInfo _$_ti = ").append(interceptorFieldName).append(".threadInfo();\n");
+				}
 				// ======================  Add Dispatch ==========================
 			    String type = method.getReturnType().getName();	        
-		        if (!"void".equals(type)) {
-		            body.append(type + " result = ");
-		        }
-		        body.append("\n").append(newName + "($$);\n");
+				if(interval) {
+					// The interval exit is recorded in a finally so invocations that throw are counted too
+					if (!"void".equals(type)) {
+						body.append(type).append(" result = ").append(defaultValue(method.getReturnType())).append(";\n");
+					}
+					body.append("try {\n");
+					if (!"void".equals(type)) {
+						body.append("result = ");
+					}
+					body.append(newName + "($$);\n");
+					body.append("} finally {\n");
+					body.append(interceptorFieldName).append(".exit(_$_start, _$_cpu, _$_ti);\n");
+					body.append("}\n");
+				} else {
+			        if (!"void".equals(type)) {
+			            body.append(type + " result = ");
+			        }
+			        body.append("\n").append(newName + "($$);\n");
+				}
 				// ======================  Do Posty Inv ==========================
 				for(TraceCollection tc: entry.getValue().getCollections()) {
+					if(interval && tc.getIntervalResource()!=null) continue;
 					try {
 						tc.addPostInvoke(clazz, method, wrapperMethod, ti, body);
 					} catch (Exception e) {
@@ -176,6 +208,9 @@ public class TraceClassFileTransformer implements ClassFileTransformer {
 						return null;
 					}
 				}
+		        if (!"void".equals(type)) {
+		            body.append("return result;\n");
+		        }
 				body.append("}");
 				log(body);
 				wrapperMethod.setBody(body.toString());
@@ -189,5 +224,16 @@ public class TraceClassFileTransformer implements ClassFileTransformer {
 			return null;
 		}
 	}
+	
+	/**
+	 * Returns the source of the default value for the passed type, used to initialize a wrapper's result before the dispatch
+	 * @param type The type to get the default value for
+	 * @return the default value source
+	 */
+	protected static String defaultValue(CtClass type) {
+		if(!type.isPrimitive()) return "null";
+		if(CtClass.booleanType.equals(type)) return "false";
+		return "(" + type.getName() + ")0";
+	}
 
 }
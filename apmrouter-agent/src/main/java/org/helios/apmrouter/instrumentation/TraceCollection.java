@@ -25,6 +25,7 @@
 package org.helios.apmrouter.instrumentation;
 
 import javassist.*;
+import org.helios.apmrouter.instrumentation.interceptors.ThreadResource;
 
 import java.lang.management.ManagementFactory;
 import java.lang.management.ThreadMXBean;
@@ -42,34 +43,34 @@ import java.util.concurrent.atomic.AtomicInteger;
 
 public enum TraceCollection {
 	/** Rolls the TXContext */
-	TXROLL(new TXRoll()),
+	TXROLL(new TXRoll(), null),
 	/** Rolls the TXContext */
-	TXCLEAR(new TXClear()),
+	TXCLEAR(new TXClear(), null),
 	
 	/** The elapsed time in ns. */
-	TIMENS(new TimeNsInstrumentor()),
+	TIMENS(new TimeNsInstrumentor(), ThreadResource.TIME_NS),
 	/** The elapsed time in ms. */
-	TIME(new TimeInstrumentor()),
+	TIME(new TimeInstrumentor(), ThreadResource.TIME_MS),
 	/** The number of times the thread was blocked */
-	BLOCKS(new TimeInstrumentor()),
+	BLOCKS(new TimeInstrumentor(), ThreadResource.BLOCK_COUNT),
 	/** The amount of time the thread was blocked in ms. */
-	BLOCKTIME(new TimeInstrumentor()),
+	BLOCKTIME(new TimeInstrumentor(), ThreadResource.BLOCK_TIME),
 	/** The number of times the thread waited */
-	WAITS(new TimeInstrumentor()),	
+	WAITS(new TimeInstrumentor(), ThreadResource.WAIT_COUNT),	
 	/** The amount of time the thread waited in ms. */
-	WAITTIME(new TimeInstrumentor()),
+	WAITTIME(new TimeInstrumentor(), ThreadResource.WAIT_TIME),
 	/** The amount of CPU time the thread consumed in ns. */
-	CPU(new TimeInstrumentor()),	
-	/** THe number of threads concurrently executing through the instrumented method */
-	CONCURRENCY(new TimeInstrumentor()),
+	CPU(new TimeInstrumentor(), ThreadResource.CPU),	
+	/** THe number of threads concurrently executing through the instrumented method. Not accumulated, so always traced per invocation. */
+	CONCURRENCY(new TimeInstrumentor(), null),
 	/** The number of times the method has been invoked */
-	INVOCATIONS(new TimeInstrumentor()),
-	/** The number of times the method returned successfully */
-	RETURNS(new TimeInstrumentor()),
+	INVOCATIONS(new TimeInstrumentor(), ThreadResource.COUNT),
+	/** The number of times the method returned successfully. Not accumulated, so always traced per invocation. */
+	RETURNS(new TimeInstrumentor(), null),
 	/** The number of times the method invocation resulted in a thrown exception */
-	EXCEPTIONS(new TimeInstrumentor()),
+	EXCEPTIONS(new TimeInstrumentor(), null),
 	/** Traces the exception stack trace */
-	EXCEPTIONSTRACE(new TimeInstrumentor());
+	EXCEPTIONSTRACE(new TimeInstrumentor(), null);
 	
 	/** The name of the created tracer field */
 	public static final String TRACER_FIELD = "_$_tracer";
@@ -82,11 +83,35 @@ public enum TraceCollection {
 	/** Indicates if thread cpu time is supported */
 	public static final boolean THREAD_CPU_SUPPORTED = threadMXBean.isThreadCpuTimeSupported();
 	
-	private TraceCollection(Instrumentor instrumentor) {
+	private TraceCollection(Instrumentor instrumentor, ThreadResource intervalResource) {
 		this.instrumentor = instrumentor;
+		this.intervalResource = intervalResource;
 	}
 	
 	private final Instrumentor instrumentor;
+	/** The thread resource accumulated for this data point in interval mode, null if it is always traced per invocation */
+	private final ThreadResource intervalResource;
+	
+	/**
+	 * Returns the thread resource accumulated for this data point when the trace is in interval mode
+	 * @return the accumulated thread resource or null if this data point is always instrumented per invocation
+	 */
+	public ThreadResource getIntervalResource() {
+		return intervalResource;
+	}
+	
+	/**
+	 * Computes the {@link ThreadResource} mask of the interval accumulated data points in the passed collections
+	 * @param collections The trace collections
+	 * @return the thread resource mask, which always includes {@link ThreadResource#COUNT}
+	 */
+	public static short getIntervalMask(TraceCollection...collections) {
+		short mask = ThreadResource.COUNT.getMask();
+		for(TraceCollection tc: collections) {
+			if(tc.intervalResource!=null) mask = tc.intervalResource.enable(mask);
+		}
+		return mask;
+	}
 	
 	/**
 	 * Adds the pre-invocation instrumentation byte code to the wrapping method in the passed class
@@ -46,6 +46,8 @@ public class TraceImpl {
 	private final String[] namespace;
 	/** the runtime performance data points that will be measured on an intercepted method */
 	private final TraceCollection[] collections;
+	/** Indicates if the data points are accumulated per interval */
+	private final boolean interval;
 	
 	
 
@@ -64,6 +66,17 @@ public class TraceImpl {
 		name = getName(trace);
 		namespace = getNamespace(trace);
 		collections = getTraceCollections(trace);
+		interval = isInterval(trace);
+	}
+	
+	/**
+	 * Extracts the interval flag from the passed opaque annotation
+	 * @param trace the class transformer located opaque annotation
+	 * @return the annotation's interval flag
+	 */
+	protected boolean isInterval(Annotation trace) {
+		BooleanMemberValue mv = (BooleanMemberValue)trace.getMemberValue("interval");
+		return mv==null ? false : mv.getValue();
 	}
 	
 	/**
@@ -126,6 +139,14 @@ public class TraceImpl {
 	public TraceCollection[] getCollections() {
 		return collections;
 	}
+	
+	/**
+	 * Indicates if the data points are accumulated per interval rather than traced on every invocation
+	 * @return true if the data points are accumulated per interval
+	 */
+	public boolean isInterval() {
+		return interval;
+	}
 
 	/**
 	 * Returns 
@@ -166,6 +187,8 @@ public class TraceImpl {
 		builder.append(Arrays.toString(namespace));
 		builder.append(", collections=");
 		builder.append(Arrays.toString(collections));		
+		builder.append(", interval=");
+		builder.append(interval);
 		builder.append("]");
 		return builder.toString();
 	}
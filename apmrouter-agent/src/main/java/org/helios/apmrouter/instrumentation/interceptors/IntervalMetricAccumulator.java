@@ -24,31 +24,381 @@
  */
 package org.helios.apmrouter.instrumentation.interceptors;
 
-/*import io.netty.buffer.CompositeByteBuf;
-import io.netty.buffer.DefaultCompositeByteBuf;
-import io.netty.buffer.UnpooledByteBufAllocator;
-*/
+import org.helios.apmrouter.jmx.ConfigurationHelper;
+import org.helios.apmrouter.jmx.ScheduledThreadPoolFactory;
+import org.helios.apmrouter.trace.ITracer;
+import org.helios.apmrouter.trace.MetricHandle;
+import org.helios.apmrouter.unsafe.UnsafeAdapter;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLongArray;
+
 /**
  * <p>Title: IntervalMetricAccumulator</p>
- * <p>Description: An off heap metric accumulator for accumulating metrics during an interval</p> 
+ * <p>Description: An off heap metric accumulator for accumulating metrics during an interval.
+ * Each accumulator owns one native memory block divided into cache line padded stripes, one of which is selected
+ * by the recording thread's id, so concurrent invocations of a hot method rarely contend on the same words.
+ * A shared background flusher drains all registered accumulators once per period and emits one aggregated set of
+ * metrics per accumulator instead of one metric per invocation.</p> 
+ * <p>A closed accumulator's native memory is freed by the flusher thread once no thread holds a reference on any stripe. 
+ * The reference counts are kept on heap so a thread racing a close never touches freed memory.</p>
  * <p>Company: Helios Development Group LLC</p>
  * @author Whitehead (nwhitehead AT heliosdev DOT org)
  * <p><code>org.helios.apmrouter.instrumentation.interceptors.IntervalMetricAccumulator</code></p>
  */
 
 public class IntervalMetricAccumulator {
-/*	*//** The unpooled bytebuff allocator *//*
-	protected static final UnpooledByteBufAllocator BUFF_ALLOCATOR = UnpooledByteBufAllocator.DIRECT_BY_DEFAULT;
-	*//** The master container for individual metric sub-buffers *//*
-	protected final CompositeByteBuf metricBuffer = new DefaultCompositeByteBuf(BUFF_ALLOCATOR, true, MAX_METRIC_BUFFERS);
-*/	
-	/** The maximum number of metric sub-buffers */
-	public static final int MAX_METRIC_BUFFERS = 1024;
-	/**
-	 * Creates a new IntervalMetricAccumulator
-	 */
-	public IntervalMetricAccumulator() {
-		//ICEMetricCatalog.getInstance().get(host, agent, name, type, namespace)
+	/** The system property or env variable name for the flush period in ms. */
+	public static final String FLUSH_PERIOD_PROP = "org.helios.apmrouter.interval.period";
+	/** The default flush period in ms. */
+	public static final long DEFAULT_FLUSH_PERIOD = 15000L;
+	/** The maximum number of stripes per accumulator */
+	public static final int MAX_STRIPES = 64;
+	/** The number of bytes allocated per stripe (two cache lines) */
+	public static final int STRIPE_SIZE = 128;
+	/** The shift applied to a stripe index to get its offset */
+	protected static final int STRIPE_SHIFT = 7;
+	/** The shift applied to a stripe index to get the index of its padded reference count */
+	protected static final int REF_SHIFT = 3;
+	
+	/** The offset of the invocation count in a stripe */
+	protected static final int COUNT = 0;
+	/** The offset of the total elapsed time in ns. in a stripe */
+	protected static final int TOTAL = 8;
+	/** The offset of the minimum elapsed time in ns. in a stripe */
+	protected static final int MIN = 16;
+	/** The offset of the maximum elapsed time in ns. in a stripe */
+	protected static final int MAX = 24;
+	/** The offset of the total cpu time in ns. in a stripe */
+	protected static final int CPU = 32;
+	/** The offset of the total wait count in a stripe */
+	protected static final int WAIT_COUNT = 40;
+	/** The offset of the total wait time in ms. in a stripe */
+	protected static final int WAIT_TIME = 48;
+	/** The offset of the total block count in a stripe */
+	protected static final int BLOCK_COUNT = 56;
+	/** The offset of the total block time in ms. in a stripe */
+	protected static final int BLOCK_TIME = 64;
+	
+	/** The number of stripes allocated for each accumulator */
+	protected static final int STRIPES;
+	/** The mask applied to a thread id to select a stripe */
+	protected static final int STRIPE_MASK;
+	/** The flush period in ms. */
+	protected static final long FLUSH_PERIOD = ConfigurationHelper.getLongSystemThenEnvProperty(FLUSH_PERIOD_PROP, DEFAULT_FLUSH_PERIOD);
+	/** All the open accumulators */
+	protected static final Set<IntervalMetricAccumulator> accumulators = new CopyOnWriteArraySet<IntervalMetricAccumulator>();
+	/** The closed accumulators waiting for their native memory to be freed */
+	protected static final ConcurrentLinkedQueue<IntervalMetricAccumulator> closing = new ConcurrentLinkedQueue<IntervalMetricAccumulator>();
+	/** The scheduler that flushes the accumulators */
+	protected static final ScheduledThreadPoolExecutor scheduler = ScheduledThreadPoolFactory.newScheduler("IntervalAccumulator");
+	
+	static {
+		int stripes = 1;
+		int target = Math.min(Runtime.getRuntime().availableProcessors(), MAX_STRIPES);
+		while(stripes < target) stripes <<= 1;
+		STRIPES = stripes;
+		STRIPE_MASK = stripes-1;
+		scheduler.scheduleAtFixedRate(new Runnable(){
+			@Override
+			public void run() {
+				flushAll();
+			}
+		}, FLUSH_PERIOD, FLUSH_PERIOD, TimeUnit.MILLISECONDS);
+		Runtime.getRuntime().addShutdownHook(new Thread(){
+			@Override
+			public void run() {
+				scheduler.shutdownNow();
+			}
+		});
+	}
+	
+	/** The base address of the stripes */
+	protected final long address;
+	/** The thread resources accumulated */
+	protected final short mask;
+	/** Indicates if the accumulator has been closed */
+	protected final AtomicBoolean closed = new AtomicBoolean(false);
+	/** Indicates if the accumulator's native memory has been freed */
+	protected boolean freed = false;
+	/** The per stripe counts of threads using the native memory, padded to a cache line apart */
+	protected final AtomicLongArray refs = new AtomicLongArray(STRIPES << REF_SHIFT);
+	/** Indicates if elapsed times are reported in ns. rather than ms. */
+	protected final boolean nanos;
+	/** The invocation count handle */
+	protected final MetricHandle countHandle;
+	/** The average elapsed time handle, null if elapsed time is not collected */
+	protected final MetricHandle avgHandle;
+	/** The minimum elapsed time handle, null if elapsed time is not collected */
+	protected final MetricHandle minHandle;
+	/** The maximum elapsed time handle, null if elapsed time is not collected */
+	protected final MetricHandle maxHandle;
+	/** The average cpu time handle, null if cpu time is not collected */
+	protected final MetricHandle cpuHandle;
+	/** The wait count handle, null if wait counts are not collected */
+	protected final MetricHandle waitCountHandle;
+	/** The wait time handle, null if wait time is not collected */
+	protected final MetricHandle waitTimeHandle;
+	/** The block count handle, null if block counts are not collected */
+	protected final MetricHandle blockCountHandle;
+	/** The block time handle, null if block time is not collected */
+	protected final MetricHandle blockTimeHandle;
+	
+	/**
+	 * Creates a new IntervalMetricAccumulator and registers it with the flusher
+	 * @param tracer The tracer the aggregated metrics are traced through
+	 * @param mask The {@link ThreadResource} mask of the resources to accumulate
+	 * @param namespace The namespace of the accumulated metrics
+	 */
+	public IntervalMetricAccumulator(ITracer tracer, short mask, String...namespace) {
+		if(tracer==null) throw new IllegalArgumentException("The passed tracer was null", new Throwable());
+		this.mask = mask;
+		nanos = ThreadResource.TIME_NS.isEnabled(mask);
+		boolean elapsed = nanos || ThreadResource.TIME_MS.isEnabled(mask);
+		String unit = nanos ? "Ns" : "Ms";
+		countHandle = tracer.gaugeHandle("InvocationCount", namespace);
+		avgHandle = elapsed ? tracer.gaugeHandle("AvgElapsedTime" + unit, namespace) : null;
+		minHandle = elapsed ? tracer.gaugeHandle("MinElapsedTime" + unit, namespace) : null;
+		maxHandle = elapsed ? tracer.gaugeHandle("MaxElapsedTime" + unit, namespace) : null;
+		cpuHandle = ThreadResource.CPU.isEnabled(mask) ? tracer.gaugeHandle("AvgCpuTimeNs", namespace) : null;
+		waitCountHandle = ThreadResource.WAIT_COUNT.isEnabled(mask) ? tracer.gaugeHandle("WaitCount", namespace) : null;
+		waitTimeHandle = ThreadResource.WAIT_TIME.isEnabled(mask) ? tracer.gaugeHandle("WaitTimeMs", namespace) : null;
+		blockCountHandle = ThreadResource.BLOCK_COUNT.isEnabled(mask) ? tracer.gaugeHandle("BlockCount", namespace) : null;
+		blockTimeHandle = ThreadResource.BLOCK_TIME.isEnabled(mask) ? tracer.gaugeHandle("BlockTimeMs", namespace) : null;
+		address = UnsafeAdapter.allocateMemory(STRIPES << STRIPE_SHIFT);
+		for(int i = 0; i < STRIPES; i++) {
+			long stripe = address + (i << STRIPE_SHIFT);
+			for(int offset = COUNT; offset <= BLOCK_TIME; offset += 8) {
+				UnsafeAdapter.putLong(stripe + offset, 0L);
+			}
+			UnsafeAdapter.putLong(stripe + MIN, Long.MAX_VALUE);
+			UnsafeAdapter.putLong(stripe + MAX, Long.MIN_VALUE);
+		}
+		accumulators.add(this);
+	}
+	
+	/**
+	 * Records one invocation into the calling thread's stripe
+	 * @param elapsedNs The elapsed time of the invocation in ns.
+	 * @param cpuNs The cpu time consumed by the invocation in ns.
+	 * @param waitCount The number of times the thread waited during the invocation
+	 * @param waitTime The time the thread waited during the invocation in ms.
+	 * @param blockCount The number of times the thread blocked during the invocation
+	 * @param blockTime The time the thread blocked during the invocation in ms.
+	 */
+	public void record(long elapsedNs, long cpuNs, long waitCount, long waitTime, long blockCount, long blockTime) {
+		if(closed.get()) return;
+		final int index = (int)(Thread.currentThread().getId() & STRIPE_MASK);
+		if(!acquire(index)) return;
+		try {
+			long stripe = address + (index << STRIPE_SHIFT);
+			add(stripe + COUNT, 1L);
+			add(stripe + TOTAL, elapsedNs);
+			min(stripe + MIN, elapsedNs);
+			max(stripe + MAX, elapsedNs);
+			if(cpuNs!=0) add(stripe + CPU, cpuNs);
+			if(waitCount!=0) add(stripe + WAIT_COUNT, waitCount);
+			if(waitTime!=0) add(stripe + WAIT_TIME, waitTime);
+			if(blockCount!=0) add(stripe + BLOCK_COUNT, blockCount);
+			if(blockTime!=0) add(stripe + BLOCK_TIME, blockTime);
+		} finally {
+			release(index);
+		}
+	}
+	
+	/**
+	 * Takes a reference on the indexed stripe so the native memory cannot be freed until it is released
+	 * @param index The stripe index
+	 * @return true if the reference was taken, false if the accumulator is closed
+	 */
+	protected boolean acquire(int index) {
+		refs.incrementAndGet(index << REF_SHIFT);
+		if(closed.get()) {
+			refs.decrementAndGet(index << REF_SHIFT);
+			return false;
+		}
+		return true;
+	}
+	
+	/**
+	 * Releases a reference on the indexed stripe
+	 * @param index The stripe index
+	 */
+	protected void release(int index) {
+		refs.decrementAndGet(index << REF_SHIFT);
+	}
+	
+	/**
+	 * Drains and resets all the stripes and traces the aggregated values for the elapsed interval.
+	 * Invocations recorded while a stripe is being drained may be split across two intervals. 
+	 */
+	public void flush() {
+		if(!acquire(0)) return;
+		try {
+			drain();
+		} finally {
+			release(0);
+		}
+	}
+	
+	/**
+	 * Drains the stripes and traces the aggregated values. The caller must hold a stripe reference.
+	 */
+	protected void drain() {
+		long count = 0, total = 0, min = Long.MAX_VALUE, max = Long.MIN_VALUE, cpu = 0, waitCount = 0, waitTime = 0, blockCount = 0, blockTime = 0;
+		for(int i = 0; i < STRIPES; i++) {
+			long stripe = address + (i << STRIPE_SHIFT);
+			count += getAndSet(stripe + COUNT, 0L);
+			total += getAndSet(stripe + TOTAL, 0L);
+			min = Math.min(min, getAndSet(stripe + MIN, Long.MAX_VALUE));
+			max = Math.max(max, getAndSet(stripe + MAX, Long.MIN_VALUE));
+			cpu += getAndSet(stripe + CPU, 0L);
+			waitCount += getAndSet(stripe + WAIT_COUNT, 0L);
+			waitTime += getAndSet(stripe + WAIT_TIME, 0L);
+			blockCount += getAndSet(stripe + BLOCK_COUNT, 0L);
+			blockTime += getAndSet(stripe + BLOCK_TIME, 0L);
+		}
+		countHandle.trace(count);
+		if(count<1) return;
+		if(avgHandle!=null) {
+			avgHandle.trace(toUnit(total/count));
+			minHandle.trace(toUnit(min));
+			maxHandle.trace(toUnit(max));
+		}
+		if(cpuHandle!=null) cpuHandle.trace(cpu/count);
+		if(waitCountHandle!=null) waitCountHandle.trace(waitCount);
+		if(waitTimeHandle!=null) waitTimeHandle.trace(waitTime);
+		if(blockCountHandle!=null) blockCountHandle.trace(blockCount);
+		if(blockTimeHandle!=null) blockTimeHandle.trace(blockTime);
+	}
+	
+	/**
+	 * Unregisters this accumulator. The native memory is freed by the flusher thread once 
+	 * no recording or flushing thread still holds a reference on it.
+	 */
+	public void close() {
+		if(closed.compareAndSet(false, true)) {
+			accumulators.remove(this);
+			closing.add(this);
+		}
+	}
+	
+	/**
+	 * Frees the native memory if the accumulator is closed and no thread holds a reference on any stripe.
+	 * Only called from the flusher thread.
+	 * @return true if the memory has been freed
+	 */
+	protected boolean free() {
+		if(freed) return true;
+		if(!closed.get()) return false;
+		for(int i = 0; i < STRIPES; i++) {
+			if(refs.get(i << REF_SHIFT)!=0) return false;
+		}
+		// a thread arriving after this point sees closed in acquire and backs out without touching the memory
+		UnsafeAdapter.freeMemory(address);
+		freed = true;
+		return true;
+	}
+	
+	/**
+	 * Flushes all the registered accumulators and frees the closed accumulators that are no longer referenced
+	 */
+	protected static void flushAll() {
+		for(IntervalMetricAccumulator accumulator: accumulators) {
+			try {
+				accumulator.flush();
+			} catch (Exception ex) {
+				ex.printStackTrace(System.err);
+			}
+		}
+		int pending = closing.size();
+		for(int i = 0; i < pending; i++) {
+			IntervalMetricAccumulator accumulator = closing.poll();
+			if(accumulator==null) break;
+			if(!accumulator.free()) closing.add(accumulator);
+		}
+	}
+	
+	/**
+	 * Returns the number of registered accumulators
+	 * @return the number of registered accumulators
+	 */
+	public static int getAccumulatorCount() {
+		return accumulators.size();
+	}
+	
+	/**
+	 * Returns the {@link ThreadResource} mask of the resources accumulated
+	 * @return the {@link ThreadResource} mask
+	 */
+	public short getMask() {
+		return mask;
+	}
+	
+	/**
+	 * Converts the passed elapsed ns. to the reporting unit
+	 * @param ns The elapsed time in ns.
+	 * @return the elapsed time in the reporting unit
+	 */
+	protected long toUnit(long ns) {
+		return nanos ? ns : TimeUnit.NANOSECONDS.toMillis(ns);
+	}
+	
+	/**
+	 * Atomically adds the passed delta to the long at the passed address
+	 * @param address The address of the long
+	 * @param delta The delta to add
+	 */
+	protected static void add(long address, long delta) {
+		long current;
+		do {
+			current = UnsafeAdapter.getLongVolatile(address);
+		} while(!UnsafeAdapter.compareAndSwapLong(address, current, current + delta));
+	}
+	
+	/**
+	 * Atomically lowers the long at the passed address to the passed value if it is lower
+	 * @param address The address of the long
+	 * @param value The candidate minimum
+	 */
+	protected static void min(long address, long value) {
+		long current;
+		do {
+			current = UnsafeAdapter.getLongVolatile(address);
+			if(value >= current) return;
+		} while(!UnsafeAdapter.compareAndSwapLong(address, current, value));
+	}
+	
+	/**
+	 * Atomically raises the long at the passed address to the passed value if it is higher
+	 * @param address The address of the long
+	 * @param value The candidate maximum
+	 */
+	protected static void max(long address, long value) {
+		long current;
+		do {
+			current = UnsafeAdapter.getLongVolatile(address);
+			if(value <= current) return;
+		} while(!UnsafeAdapter.compareAndSwapLong(address, current, value));
+	}
+	
+	/**
+	 * Atomically sets the long at the passed address and returns the prior value
+	 * @param address The address of the long
+	 * @param value The new value
+	 * @return the prior value
+	 */
+	protected static long getAndSet(long address, long value) {
+		long current;
+		do {
+			current = UnsafeAdapter.getLongVolatile(address);
+		} while(!UnsafeAdapter.compareAndSwapLong(address, current, value));
+		return current;
 	}
 
 }
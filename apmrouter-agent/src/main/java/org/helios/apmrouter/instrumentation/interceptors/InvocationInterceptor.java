@@ -24,7 +24,11 @@
  */
 package org.helios.apmrouter.instrumentation.interceptors;
 
-import org.cliffc.high_scale_lib.Counter;
+import org.helios.apmrouter.trace.ITracer;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
 
 /**
  * <p>Title: InvocationInterceptor</p>
@@ -37,13 +41,87 @@ import org.cliffc.high_scale_lib.Counter;
  */
 
 public class InvocationInterceptor {
-	/** The number of metrics currently in the buffer */
-	protected final Counter metricCount = new Counter();
+	/** The thread MX bean */
+	protected static final ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+	/** The accumulator invocations are recorded into */
+	protected final IntervalMetricAccumulator accumulator;
+	/** Indicates if cpu time is measured */
+	protected final boolean cpu;
+	/** Indicates if wait or block counts or times are measured */
+	protected final boolean threadInfo;
+	
 	/**
 	 * Creates a new InvocationInterceptor
+	 * @param tracer The tracer the aggregated metrics are traced through
+	 * @param name The optional metric name which is appended to the namespace if not empty
+	 * @param mask The {@link ThreadResource} mask of the resources to measure
+	 * @param namespace The namespace of the instrumented method's metrics
+	 */
+	public InvocationInterceptor(ITracer tracer, String name, short mask, String[] namespace) {
+		String[] ns = namespace==null ? new String[0] : namespace;
+		if(name!=null && !name.isEmpty()) {
+			String[] named = new String[ns.length+1];
+			System.arraycopy(ns, 0, named, 0, ns.length);
+			named[ns.length] = name;
+			ns = named;
+		}
+		cpu = ThreadResource.CPU.isEnabled(mask) && threadMXBean.isCurrentThreadCpuTimeSupported();
+		threadInfo = ThreadResource.WAIT_COUNT.isEnabled(mask) || ThreadResource.WAIT_TIME.isEnabled(mask) 
+				|| ThreadResource.BLOCK_COUNT.isEnabled(mask) || ThreadResource.BLOCK_TIME.isEnabled(mask);
+		if((ThreadResource.WAIT_TIME.isEnabled(mask) || ThreadResource.BLOCK_TIME.isEnabled(mask)) 
+				&& threadMXBean.isThreadContentionMonitoringSupported() && !threadMXBean.isThreadContentionMonitoringEnabled()) {
+			threadMXBean.setThreadContentionMonitoringEnabled(true);
+		}
+		if(cpu && !threadMXBean.isThreadCpuTimeEnabled()) {
+			threadMXBean.setThreadCpuTimeEnabled(true);
+		}
+		accumulator = new IntervalMetricAccumulator(tracer, mask, ns);
+	}
+	
+	/**
+	 * Captures the current thread's cpu time at method entry
+	 * @return the current thread's cpu time in ns. or 0 if cpu time is not measured
+	 */
+	public long cpuTime() {
+		return cpu ? threadMXBean.getCurrentThreadCpuTime() : 0L;
+	}
+	
+	/**
+	 * Captures the current thread's info at method entry
+	 * @return the current thread's info or null if wait and block stats are not measured
+	 */
+	public ThreadInfo threadInfo() {
+		return threadInfo ? threadMXBean.getThreadInfo(Thread.currentThread().getId()) : null;
+	}
+	
+	/**
+	 * Records a completed invocation
+	 * @param startNs The {@link System#nanoTime()} at method entry
+	 * @param startCpu The value returned by {@link #cpuTime()} at method entry
+	 * @param startInfo The value returned by {@link #threadInfo()} at method entry
+	 */
+	public void exit(long startNs, long startCpu, ThreadInfo startInfo) {
+		long elapsed = System.nanoTime() - startNs;
+		long cpuTime = cpu ? threadMXBean.getCurrentThreadCpuTime() - startCpu : 0L;
+		long waitCount = 0, waitTime = 0, blockCount = 0, blockTime = 0;
+		if(startInfo!=null) {
+			ThreadInfo endInfo = threadMXBean.getThreadInfo(Thread.currentThread().getId());
+			waitCount = endInfo.getWaitedCount() - startInfo.getWaitedCount();
+			blockCount = endInfo.getBlockedCount() - startInfo.getBlockedCount();
+			if(startInfo.getWaitedTime()!=-1L) {
+				waitTime = endInfo.getWaitedTime() - startInfo.getWaitedTime();
+				blockTime = endInfo.getBlockedTime() - startInfo.getBlockedTime();
+			}
+		}
+		accumulator.record(elapsed, cpuTime, waitCount, waitTime, blockCount, blockTime);
+	}
+	
+	/**
+	 * Returns the accumulator invocations are recorded into
+	 * @return the accumulator
 	 */
-	public InvocationInterceptor() {
-		
+	public IntervalMetricAccumulator getAccumulator() {
+		return accumulator;
 	}
 
 }
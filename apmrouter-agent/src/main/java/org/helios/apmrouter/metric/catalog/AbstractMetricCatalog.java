@@ -24,6 +24,7 @@
  */
 package org.helios.apmrouter.metric.catalog;
 
+import org.helios.apmrouter.jmx.ConfigurationHelper;
 import org.helios.apmrouter.metric.IMetric;
 import org.helios.apmrouter.metric.MetricType;
 
@@ -48,8 +49,14 @@ import static org.helios.apmrouter.util.Methods.nvl;
 public abstract class AbstractMetricCatalog<K, V> implements IMetricCatalog {
 	/** The name cache of metrics */
 	protected final Map<K, V> namecache;
-	/** The delta cache for metrics */
-	protected final Map<K, Long> deltacache;
+	/** The system property or env variable name for the number of delta state table entries */
+	public static final String DELTA_CAPACITY_PROP = "org.helios.apmrouter.catalog.delta.capacity";
+	/** The FNV-1a 64 bit offset basis */
+	protected static final long FNV_OFFSET = 0xcbf29ce484222325L;
+	/** The FNV-1a 64 bit prime */
+	protected static final long FNV_PRIME = 0x100000001b3L;
+	/** The delta state for delta metrics */
+	protected final DeltaStateTable deltaTable;
 	/** The metric token map */
 	protected final Map<Long, IDelegateMetric> tokencache;
 	/** The token ID factory */
@@ -61,7 +68,7 @@ public abstract class AbstractMetricCatalog<K, V> implements IMetricCatalog {
 	 */
 	protected AbstractMetricCatalog() {
 		namecache = new ConcurrentHashMap<K, V>(1024, 0.5f, 16);
-		deltacache = new ConcurrentHashMap<K, Long>(128, 0.5f, 16);
+		deltaTable = new DeltaStateTable(ConfigurationHelper.getIntSystemThenEnvProperty(DELTA_CAPACITY_PROP, DeltaStateTable.DEFAULT_CAPACITY));
 		tokencache = new ConcurrentHashMap<Long, IDelegateMetric>(1024, 0.5f, 16);
 	}
 	
@@ -172,10 +179,90 @@ public abstract class AbstractMetricCatalog<K, V> implements IMetricCatalog {
 	}
 	
 	protected Long _getDelta(long value, String host, String agent, CharSequence name, CharSequence... namespace) {
-		K key = createKey(getFQN(host, agent, name, namespace));
-		Long state = deltacache.put(key, value);
-		if(state==null || value < state) return null;		
-		return value-state;
+		long delta = getDeltaValue(value, host, agent, name, namespace);
+		return delta==DeltaStateTable.NO_DELTA ? null : delta;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.apmrouter.metric.catalog.IMetricCatalog#getDeltaValue(long, java.lang.String, java.lang.String, java.lang.CharSequence, java.lang.CharSequence[])
+	 */
+	@Override
+	public long getDeltaValue(long value, String host, String agent, CharSequence name, CharSequence... namespace) {
+		return deltaTable.delta(getDeltaKey(host, agent, name, namespace), value);
+	}
+	
+	/**
+	 * Returns the delta for the passed value and pre-computed delta key
+	 * @param deltaKey The key returned by {@link #getDeltaKey(String, String, CharSequence, CharSequence...)}
+	 * @param value The long value to get the delta for
+	 * @return the delta value or {@link DeltaStateTable#NO_DELTA} if this was the first call for the metric
+	 */
+	public long getDeltaValue(long deltaKey, long value) {
+		return deltaTable.delta(deltaKey, value);
+	}
+	
+	/**
+	 * Returns the number of metrics with delta state
+	 * @return the number of metrics with delta state
+	 */
+	public int getDeltaStateCount() {
+		return deltaTable.size();
+	}
+	
+	/**
+	 * Computes the delta state key for the passed metric id by hashing the characters of the FQN 
+	 * {@link #getFQN(String, String, CharSequence, CharSequence...)} would build, without building it.
+	 * @param host The host name
+ 	 * @param agent The agent name
+	 * @param name The metric name
+	 * @param namespace The namespace
+	 * @return the delta state key
+	 */
+	public static long getDeltaKey(String host, String agent, CharSequence name, CharSequence... namespace) {
+		long h = hash(FNV_OFFSET, nvl(host, "Host Name"));
+		h = hash(h, NSDELIM);
+		h = hash(h, nvl(agent, "Agent Name"));
+		if(namespace!=null) {
+			for(int i = 0; i < namespace.length; i++) {
+				CharSequence segment = namespace[i];
+				if(segment==null) continue;
+				int start = 0, end = segment.length();
+				while(start < end && segment.charAt(start) <= ' ') start++;
+				while(end > start && segment.charAt(end-1) <= ' ') end--;
+				if(start==end) continue;
+				h = hash(h, NSDELIM);
+				h = hash(h, segment, start, end);
+			}
+		}
+		h = hash(h, NADELIM);
+		return hash(h, nvl(name, "Metric Name"));
+	}
+	
+	/**
+	 * Folds the characters of the passed sequence into the passed FNV-1a hash
+	 * @param h The hash so far
+	 * @param cs The characters to fold in
+	 * @return the updated hash
+	 */
+	protected static long hash(long h, CharSequence cs) {
+		return hash(h, cs, 0, cs.length());
+	}
+	
+	/**
+	 * Folds a range of the characters of the passed sequence into the passed FNV-1a hash
+	 * @param h The hash so far
+	 * @param cs The characters to fold in
+	 * @param start The first index to fold in
+	 * @param end The index after the last index to fold in
+	 * @return the updated hash
+	 */
+	protected static long hash(long h, CharSequence cs, int start, int end) {
+		for(int i = start; i < end; i++) {
+			h ^= cs.charAt(i);
+			h *= FNV_PRIME;
+		}
+		return h;
 	}
 	
 	
@@ -310,7 +397,7 @@ public abstract class AbstractMetricCatalog<K, V> implements IMetricCatalog {
 	@Override
 	public void dispose() {
 		namecache.clear();
-		deltacache.clear();
+		deltaTable.free();
 		tokencache.clear();
 	}
 	
@@ -0,0 +1,217 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.apmrouter.metric.catalog;
+
+import org.helios.apmrouter.unsafe.UnsafeAdapter;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>Title: DeltaStateTable</p>
+ * <p>Description: A primitive, open addressed, off heap table of the last raw value traced for each delta metric, keyed by a long metric key.
+ * Each entry is a 16 byte key/value pair in a single native memory block. Keys are claimed and values swapped with CAS so
+ * concurrent tracers never lock and the steady state path does not allocate. The table does not grow: a key whose first
+ * {@link #MAX_PROBES} slots are claimed by other keys, or that arrives once every slot has been claimed, spills into a boxed overflow map.
+ * The native block is released by {@link #free()}.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.apmrouter.metric.catalog.DeltaStateTable</code></p>
+ */
+
+public class DeltaStateTable {
+	/** The value returned by {@link #delta(long, long)} when there is no prior sample to compute a delta from */
+	public static final long NO_DELTA = Long.MIN_VALUE;
+	/** The default number of entries */
+	public static final int DEFAULT_CAPACITY = 131072;
+	/** The key of an unclaimed slot */
+	protected static final long EMPTY_KEY = 0L;
+	/** The value of a claimed slot that has not had a sample written yet */
+	protected static final long NO_STATE = Long.MIN_VALUE;
+	/** The shift applied to a slot index to get its offset */
+	protected static final int ENTRY_SHIFT = 4;
+	/** The maximum number of slots probed for a key before it is sent to the overflow map */
+	public static final int MAX_PROBES = 32;
+	
+	/** The base address of the table */
+	protected final long address;
+	/** The number of slots in the table */
+	protected final int capacity;
+	/** The mask applied to a hashed key to get its home slot */
+	protected final int mask;
+	/** The number of claimed slots */
+	protected final AtomicInteger entries = new AtomicInteger(0);
+	/** The delta state for keys that did not fit in the table */
+	protected final Map<Long, Long> overflow = new ConcurrentHashMap<Long, Long>(128, 0.5f, 16);
+	/** The number of delta computations served from the overflow map */
+	protected final AtomicLong overflowHits = new AtomicLong(0);
+	/** Indicates if the native block has been freed */
+	protected final AtomicBoolean freed = new AtomicBoolean(false);
+	
+	/**
+	 * Creates a new DeltaStateTable
+	 * @param capacity The number of entries, rounded up to the next power of two
+	 */
+	public DeltaStateTable(int capacity) {
+		if(capacity<1) throw new IllegalArgumentException("Invalid capacity [" + capacity + "]", new Throwable());
+		int size = 1;
+		while(size < capacity) size <<= 1;
+		this.capacity = size;
+		mask = size-1;
+		address = UnsafeAdapter.allocateMemory(((long)size) << ENTRY_SHIFT);
+		clear();
+	}
+	
+	/**
+	 * Records the passed raw value for the passed key and returns the delta from the prior raw value
+	 * @param key The metric key
+	 * @param value The raw value
+	 * @return the delta, or {@link #NO_DELTA} if this was the first sample for the key or the value went backwards
+	 */
+	public long delta(long key, long value) {
+		long k = key==EMPTY_KEY ? 1L : key;
+		long slot = slot(k);
+		long prior;
+		if(slot==-1L) {
+			overflowHits.incrementAndGet();
+			Long state = overflow.put(k, value);
+			prior = state==null ? NO_STATE : state.longValue();
+		} else {
+			long valueAddress = slot + 8;
+			do {
+				prior = UnsafeAdapter.getLongVolatile(valueAddress);
+			} while(!UnsafeAdapter.compareAndSwapLong(valueAddress, prior, value));
+		}
+		if(prior==NO_STATE || value < prior) return NO_DELTA;
+		return value - prior;
+	}
+	
+	/**
+	 * Removes all entries
+	 * <p><b>Not safe to call while other threads are computing deltas.</b>
+	 */
+	public void clear() {
+		if(!freed.get()) {
+			for(int i = 0; i < capacity; i++) {
+				long slot = address + (((long)i) << ENTRY_SHIFT);
+				UnsafeAdapter.putLong(slot, EMPTY_KEY);
+				UnsafeAdapter.putLong(slot + 8, NO_STATE);
+			}
+		}
+		entries.set(0);
+		overflow.clear();
+	}
+	
+	/**
+	 * Clears all entries and frees the native block. Deltas computed after this call are kept in the overflow map.
+	 * Subsequent calls are a no-op.
+	 * <p><b>Not safe to call while other threads are computing deltas.</b>
+	 */
+	public void free() {
+		if(!freed.compareAndSet(false, true)) return;
+		entries.set(0);
+		overflow.clear();
+		UnsafeAdapter.freeMemory(address);
+	}
+	
+	/**
+	 * Indicates if the native block has been freed
+	 * @return true if the native block has been freed
+	 */
+	public boolean isFreed() {
+		return freed.get();
+	}
+	
+	/**
+	 * Returns the number of keys with delta state
+	 * @return the number of keys with delta state
+	 */
+	public int size() {
+		return entries.get() + overflow.size();
+	}
+	
+	/**
+	 * Returns the number of slots in the table
+	 * @return the number of slots in the table
+	 */
+	public int getCapacity() {
+		return capacity;
+	}
+	
+	/**
+	 * Returns the number of delta computations served from the overflow map
+	 * @return the number of overflow delta computations
+	 */
+	public long getOverflowHits() {
+		return overflowHits.get();
+	}
+	
+	/**
+	 * Finds or claims the slot for the passed key. At most {@link #MAX_PROBES} slots are examined and, once every slot
+	 * has been claimed, keys already in the overflow map go straight to it without probing.
+	 * @param key The non-empty key
+	 * @return the slot address or -1 if the key is not in the table and cannot be claimed a slot
+	 */
+	protected long slot(long key) {
+		if(freed.get()) return -1L;
+		if(entries.get() >= capacity && overflow.containsKey(key)) return -1L;
+		int index = mix(key) & mask;
+		int maxProbes = Math.min(capacity, MAX_PROBES);
+		for(int probes = 0; probes < maxProbes; probes++) {
+			long slot = address + (((long)index) << ENTRY_SHIFT);
+			long current = UnsafeAdapter.getLongVolatile(slot);
+			if(current==key) return slot;
+			if(current==EMPTY_KEY) {
+				if(UnsafeAdapter.compareAndSwapLong(slot, EMPTY_KEY, key)) {
+					entries.incrementAndGet();
+					return slot;
+				}
+				// lost the claim race, so re-examine the same slot since the winner may have claimed it for this key
+				if(UnsafeAdapter.getLongVolatile(slot)==key) return slot;
+			}
+			index = (index + 1) & mask;
+		}
+		return -1L;
+	}
+	
+	/**
+	 * Spreads the bits of the passed key so sequential and low entropy keys disperse across the table
+	 * @param key The key
+	 * @return the mixed hash
+	 */
+	protected static int mix(long key) {
+		long h = key;
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return (int)h;
+	}
+
+}
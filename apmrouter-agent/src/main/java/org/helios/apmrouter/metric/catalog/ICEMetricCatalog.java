@@ -208,6 +208,20 @@ public class ICEMetricCatalog implements IMetricCatalog {
 		return instance.actualCatalog.getDelta(value, host, agent, name, namespace);
 	}
 	
+	/**
+	 * Returns the delta for the passed value and metricId key as a primitive, without allocating
+	 * @param value The long value to get the delta for
+	 * @param host The host name
+ 	 * @param agent The agent name
+	 * @param name The metric name
+	 * @param namespace The namespace
+	 * @return the delta value or {@link DeltaStateTable#NO_DELTA} if this was the first call for the metric
+	 */
+	@Override
+	public long getDeltaValue(long value, String host, String agent, CharSequence name, CharSequence... namespace) {
+		return instance.actualCatalog.getDeltaValue(value, host, agent, name, namespace);
+	}
+	
 	/**
 	 * Returns the class name of the current catalog in use
 	 * @return the class name of the current catalog in use
@@ -161,6 +161,17 @@ public interface IMetricCatalog {
 	 */
 	public Long getDelta(long value, String host, String agent, CharSequence name, CharSequence... namespace);
 	
+	/**
+	 * Returns the delta for the passed value and metricId key as a primitive, without allocating
+	 * @param value The long value to get the delta for
+	 * @param host The host name
+ 	 * @param agent The agent name
+	 * @param name The metric name
+	 * @param namespace The namespace
+	 * @return the delta value or {@link DeltaStateTable#NO_DELTA} if this was the first call for the metric
+	 */
+	public long getDeltaValue(long value, String host, String agent, CharSequence name, CharSequence... namespace);
+	
 	/**
 	 * Returns the number of entries in the metric catalog
 	 * @return the number of entries in the metric catalog
@@ -27,6 +27,7 @@ package org.helios.apmrouter.monitor;
 import org.helios.apmrouter.jmx.ConfigurationHelper;
 import org.helios.apmrouter.jmx.ScheduledThreadPoolFactory;
 import org.helios.apmrouter.trace.ITracer;
+import org.helios.apmrouter.trace.MetricHandle;
 import org.helios.apmrouter.trace.TracerFactory;
 import org.helios.apmrouter.util.SystemClock;
 import org.helios.apmrouter.util.SystemClock.ElapsedTime;
@@ -50,6 +51,8 @@ public abstract class AbstractMonitor implements Monitor, Runnable, AbstractMoni
 	protected static final ScheduledThreadPoolExecutor scheduler = ScheduledThreadPoolFactory.newScheduler("Monitor");
 	/** The tracer instance */
 	protected final ITracer tracer = TracerFactory.getTracer();
+	/** The handle for the collection elapsed time */
+	protected final MetricHandle elapsedTimeHandle = tracer.gaugeHandle("ElpasedTimeMs", "Monitors", getClass().getSimpleName());
 	/** The scheduler handle for this monitor */
 	protected ScheduledFuture<?> scheduleHandle = null;
 	/** The collection period in ms. */
@@ -82,7 +85,7 @@ public abstract class AbstractMonitor implements Monitor, Runnable, AbstractMoni
 		doCollect(collectionSweep);
 		ElapsedTime et = SystemClock.endTimer();
 		collectionSweep++;
-		tracer.traceGauge(et.elapsedMs, "ElpasedTimeMs", "Monitors", getClass().getSimpleName());
+		elapsedTimeHandle.trace(et.elapsedMs);
 	}
 	
 	/**
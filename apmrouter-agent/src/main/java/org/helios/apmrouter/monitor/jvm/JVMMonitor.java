@@ -26,6 +26,7 @@ package org.helios.apmrouter.monitor.jvm;
 
 import org.helios.apmrouter.jmx.JMXHelper;
 import org.helios.apmrouter.monitor.AbstractMonitor;
+import org.helios.apmrouter.trace.MetricHandle;
 import org.helios.apmrouter.util.SystemClock;
 
 import javax.management.Attribute;
@@ -94,6 +95,49 @@ public class JVMMonitor extends AbstractMonitor {
 	/** The attribute names we want to retrieve for the NIO mxbeans */
 	protected static final String[] NIO_ATTR_NAMES = new String[]{"Count", "MemoryUsed", "TotalCapacity"};
 	
+	/** The PID handle */
+	protected final MetricHandle pidHandle = tracer.counterHandle("PID");
+	/** The thread count handle */
+	protected final MetricHandle threadCountHandle = tracer.gaugeHandle("ThreadCount", "platform=JVM", "category=Threads");
+	/** The daemon thread count handle */
+	protected final MetricHandle daemonThreadCountHandle = tracer.gaugeHandle("DaemonThreadCount", "platform=JVM", "category=Threads");
+	/** The non-daemon thread count handle */
+	protected final MetricHandle nonDaemonThreadCountHandle = tracer.gaugeHandle("NonDaemonThreadCount", "platform=JVM", "category=Threads");
+	/** The peak thread count handle */
+	protected final MetricHandle peakThreadCountHandle = tracer.gaugeHandle("PeakThreadCount", "platform=JVM", "category=Threads");
+	/** The deadlocked thread count handle */
+	protected final MetricHandle deadlockedThreadCountHandle = tracer.gaugeHandle("DeadlockedThreadCount", "platform=JVM", "category=Threads");
+	/** The thread state count handles */
+	protected final EnumMap<Thread.State, MetricHandle> threadStateHandles = new EnumMap<Thread.State, MetricHandle>(Thread.State.class);
+	/** The compilation time handle, null if the JVM has no compiler */
+	protected final MetricHandle compilationTimeHandle = compilationMXBean==null ? null : tracer.deltaGaugeHandle("CompilationTime", "platform=JVM", "category=Compilation", "compiler=" + compilationMXBean.getName().replace(" ", ""));
+	/** The pending finalization count handle */
+	protected final MetricHandle pendingFinalizationHandle = tracer.gaugeHandle("PendingFinalization", "platform=JVM", "category=Memory");
+	/** The heap memory handles */
+	protected final MemoryHandles heapHandles = new MemoryHandles("platform=JVM", "category=Memory", "type=Heap");
+	/** The non-heap memory handles */
+	protected final MemoryHandles nonHeapHandles = new MemoryHandles("platform=JVM", "category=Memory", "type=NonHeap");
+	/** The memory pool handles keyed by pool name */
+	protected final Map<String, MemoryHandles> poolHandles = new HashMap<String, MemoryHandles>(memoryPoolMXBeans.size());
+	/** The garbage collector handles keyed by collector name */
+	protected final Map<String, GcHandles> gcHandles = new HashMap<String, GcHandles>(gcMXBeans.size());
+	/** The NIO buffer pool handles, in {@link #NIO_ATTR_NAMES} order, keyed by buffer pool name */
+	protected final Map<String, MetricHandle[]> nioHandles = new HashMap<String, MetricHandle[]>();
+	/** The total loaded class count handle */
+	protected final MetricHandle totalLoadedClassesHandle = tracer.gaugeHandle("TotalLoadedClasses", "platform=JVM", "category=ClassLoading");
+	/** The class load rate handle */
+	protected final MetricHandle classLoadRateHandle = tracer.deltaGaugeHandle("ClassLoadRate", "platform=JVM", "category=ClassLoading");
+	/** The unloaded class count handle */
+	protected final MetricHandle unloadedClassCountHandle = tracer.gaugeHandle("UnloadedClassCount", "platform=JVM", "category=ClassLoading");
+	/** The class unload rate handle */
+	protected final MetricHandle classUnloadRateHandle = tracer.deltaGaugeHandle("ClassUnloadRate", "platform=JVM", "category=ClassLoading");
+	/** The current class count handle */
+	protected final MetricHandle currentClassCountHandle = tracer.gaugeHandle("CurrentClassCount", "platform=JVM", "category=ClassLoading");
+	/** The JVM start time handle */
+	protected final MetricHandle startTimeHandle = tracer.gaugeHandle("StartTime", "platform=JVM", "category=Runtime");
+	/** The JVM up time handle */
+	protected final MetricHandle upTimeHandle = tracer.gaugeHandle("UpTime", "platform=JVM", "category=Runtime");
+	
 
 	
 	/**
@@ -108,6 +152,76 @@ public class JVMMonitor extends AbstractMonitor {
 			tmp = false;			
 		}
 		isJava7 = tmp;
+		for(Thread.State ts: Thread.State.values()) {
+			threadStateHandles.put(ts, tracer.gaugeHandle(ts.name(), "platform=JVM", "category=Threads", "type=State"));
+		}
+		for(MemoryPoolMXBean pool: memoryPoolMXBeans) {
+			poolHandles.put(pool.getName(), new MemoryHandles("platform=JVM", "category=MemoryPools", "type=" + pool.getType().name(), "pool=" + pool.getName().replace(" ", "")));
+		}
+		for(GarbageCollectorMXBean gc: gcMXBeans) {
+			gcHandles.put(gc.getName(), new GcHandles(gc.getName().replace(" ", "")));
+		}
+	}
+	
+	/**
+	 * <p>Title: MemoryHandles</p>
+	 * <p>Description: The handles for the usage metrics of the heap, non-heap or one memory pool</p> 
+	 * <p>Company: Helios Development Group LLC</p>
+	 * @author Whitehead (nwhitehead AT heliosdev DOT org)
+	 * <p><code>org.helios.apmrouter.monitor.jvm.JVMMonitor.MemoryHandles</code></p>
+	 */
+	protected class MemoryHandles {
+		/** The initial size handle */
+		final MetricHandle initial;
+		/** The maximum size handle */
+		final MetricHandle maximum;
+		/** The committed size handle */
+		final MetricHandle committed;
+		/** The used size handle */
+		final MetricHandle used;
+		/** The used percentage of committed handle */
+		final MetricHandle percentUsed;
+		/** The used percentage of maximum handle */
+		final MetricHandle percentCapacity;
+		
+		/**
+		 * Creates a new MemoryHandles
+		 * @param namespace The namespace of the memory metrics
+		 */
+		MemoryHandles(CharSequence...namespace) {
+			initial = tracer.gaugeHandle("Initial", namespace);
+			maximum = tracer.gaugeHandle("Maximum", namespace);
+			committed = tracer.gaugeHandle("Committed", namespace);
+			used = tracer.gaugeHandle("Used", namespace);
+			percentUsed = tracer.gaugeHandle("PercentUsed", namespace);
+			percentCapacity = tracer.gaugeHandle("PercentCapacity", namespace);
+		}
+	}
+	
+	/**
+	 * <p>Title: GcHandles</p>
+	 * <p>Description: The handles for the metrics of one garbage collector</p> 
+	 * <p>Company: Helios Development Group LLC</p>
+	 * @author Whitehead (nwhitehead AT heliosdev DOT org)
+	 * <p><code>org.helios.apmrouter.monitor.jvm.JVMMonitor.GcHandles</code></p>
+	 */
+	protected class GcHandles {
+		/** The collection count handle */
+		final MetricHandle collectionCount;
+		/** The collection time handle */
+		final MetricHandle collectionTime;
+		/** The percentage of time in collection handle */
+		final MetricHandle percentTimeInCollect;
+		
+		/**
+		 * Creates a new GcHandles
+		 * @param collector The collector name with spaces removed
+		 */
+		GcHandles(String collector) {
+			collectionCount = tracer.deltaGaugeHandle("CollectionCount", "platform=JVM", "category=GarbageCollection", "collector=" + collector);
+			collectionTime = tracer.deltaGaugeHandle("CollectionTime", "platform=JVM", "category=GarbageCollection", "collector=" + collector);
+			percentTimeInCollect = tracer.gaugeHandle("PercentTimeInCollect", "platform=JVM", "category=GarbageCollection", "collector=" + collector);
+		}
 	}
 	
 
@@ -125,7 +239,7 @@ public class JVMMonitor extends AbstractMonitor {
 			resetLoop = false;
 		}
 		lastCollectTime = SystemClock.time();
-		tracer.traceCounter(Integer.parseInt(runtimeMXBean.getName().split("@")[0]), "PID");
+		pidHandle.trace(Integer.parseInt(runtimeMXBean.getName().split("@")[0]));
 		try { collectGc(); } catch (Exception e) {}
 		try { collectThreads();  } catch (Exception e) {}
 		try { collectCompilation(); } catch (Exception e) {}
@@ -147,7 +261,13 @@ public class JVMMonitor extends AbstractMonitor {
 	protected void collectNioBuffers() {
 		if(nioObjectNames.isEmpty()) {
 			for(ObjectName on: ManagementFactory.getPlatformMBeanServer().queryNames(NIO_MXBEAN_PATTERN, null)) {
-				nioObjectNames.put(on.getKeyProperty("name"), on);
+				String name = on.getKeyProperty("name");
+				nioObjectNames.put(name, on);
+				MetricHandle[] handles = new MetricHandle[NIO_ATTR_NAMES.length];
+				for(int i = 0; i < NIO_ATTR_NAMES.length; i++) {
+					handles[i] = tracer.gaugeHandle(NIO_ATTR_NAMES[i], "platform=JVM", "category=NIOBufferPools", "type=" + name);
+				}
+				nioHandles.put(name, handles);
 			}
 		}
 		for(Map.Entry<String, ObjectName> entry: nioObjectNames.entrySet()) {
@@ -157,16 +277,12 @@ public class JVMMonitor extends AbstractMonitor {
 					nioAttrValues.put(attr.getName(), (Long)attr.getValue());
 				}
 				Long value = null;
-				
-				if((value=nioAttrValues.get("Count")) != null) {
-					tracer.traceGauge(value, "Count", "platform=JVM", "category=NIOBufferPools", "type=" + entry.getKey());
-				}
-				if((value=nioAttrValues.get("MemoryUsed")) != null) {
-					tracer.traceGauge(value, "MemoryUsed", "platform=JVM", "category=NIOBufferPools", "type=" + entry.getKey());
+				MetricHandle[] handles = nioHandles.get(entry.getKey());
+				for(int i = 0; i < NIO_ATTR_NAMES.length; i++) {
+					if((value=nioAttrValues.get(NIO_ATTR_NAMES[i])) != null) {
+						handles[i].trace(value);
+					}
 				}
-				if((value=nioAttrValues.get("TotalCapacity")) != null) {
-					tracer.traceGauge(value, "TotalCapacity", "platform=JVM", "category=NIOBufferPools", "type=" + entry.getKey());
-				}				
 			} catch (Exception e) {
 			}
 		}
@@ -180,14 +296,15 @@ public class JVMMonitor extends AbstractMonitor {
 		for(GarbageCollectorMXBean gc: gcMXBeans) {
 			long currentTime = SystemClock.time();
 			String name = gc.getName();
-			tracer.traceDeltaGauge(gc.getCollectionCount(), "CollectionCount", "platform=JVM", "category=GarbageCollection", "collector=" + name.replace(" ", ""));
+			GcHandles handles = gcHandles.get(name);
+			handles.collectionCount.trace(gc.getCollectionCount());
 			long time = gc.getCollectionTime();
-			tracer.traceDeltaGauge(time, "CollectionTime", "platform=JVM", "category=GarbageCollection", "collector=" + name.replace(" ", ""));
+			handles.collectionTime.trace(time);
 			Long prior = lastGCTime.put(name, time);
 			if(prior!=null) {
 				long gcTime = time-prior;
 				long elapsedTime = lastGCCollectTime.put(name, currentTime)*PROCESSOR_COUNT;
-				tracer.traceGauge(percent(elapsedTime, gcTime), "PercentTimeInCollect", "platform=JVM", "category=GarbageCollection", "collector=" + name.replace(" ", ""));
+				handles.percentTimeInCollect.trace(percent(elapsedTime, gcTime));
 			} else {
 				lastGCCollectTime.put(name, currentTime);
 			}
@@ -201,16 +318,16 @@ public class JVMMonitor extends AbstractMonitor {
 		int tc = threadMXBean.getThreadCount();
 		int dtc = threadMXBean.getDaemonThreadCount();
 		int ndtc = tc-dtc;
-		tracer.traceGauge(tc, "ThreadCount", "platform=JVM", "category=Threads");
-		tracer.traceGauge(dtc, "DaemonThreadCount", "platform=JVM", "category=Threads");
-		tracer.traceGauge(ndtc, "NonDaemonThreadCount", "platform=JVM", "category=Threads");
-		tracer.traceGauge(threadMXBean.getPeakThreadCount(), "PeakThreadCount", "platform=JVM", "category=Threads");
+		threadCountHandle.trace(tc);
+		daemonThreadCountHandle.trace(dtc);
+		nonDaemonThreadCountHandle.trace(ndtc);
+		peakThreadCountHandle.trace(threadMXBean.getPeakThreadCount());
 		for(Map.Entry<Thread.State, AtomicInteger> entry: getThreadStates().entrySet()) {
-			tracer.traceGauge(entry.getValue().intValue(), entry.getKey().name(), "platform=JVM", "category=Threads", "type=State");
+			threadStateHandles.get(entry.getKey()).trace(entry.getValue().intValue());
 		}
 		if(resetLoop) threadMXBean.resetPeakThreadCount();
 		long[] deadlocked = threadMXBean.findMonitorDeadlockedThreads();
-		tracer.traceGauge(deadlocked==null ? 0 : deadlocked.length, "DeadlockedThreadCount", "platform=JVM", "category=Threads");
+		deadlockedThreadCountHandle.trace(deadlocked==null ? 0 : deadlocked.length);
 		if(deadlocked != null && deadlocked.length>0) {
 			StringBuilder dlockInfo = new StringBuilder();
 			ThreadInfo[] tis = threadMXBean.getThreadInfo(deadlocked, maxStackDepth);
@@ -248,7 +365,7 @@ public class JVMMonitor extends AbstractMonitor {
 	 * Collects compilation time 
 	 */
 	protected void collectCompilation() {
-		tracer.traceDeltaGauge(compilationMXBean.getTotalCompilationTime(), "CompilationTime", "platform=JVM", "category=Compilation", "compiler=" + compilationMXBean.getName().replace(" ", ""));
+		compilationTimeHandle.trace(compilationMXBean.getTotalCompilationTime());
 	}
 	
 	/**
@@ -257,8 +374,9 @@ public class JVMMonitor extends AbstractMonitor {
 	protected void collectInitialMemoryPools() {
 		for(MemoryPoolMXBean pool: memoryPoolMXBeans) {
 			MemoryUsage usage = pool.getUsage();
-			tracer.traceGauge(usage.getInit(), "Initial", "platform=JVM", "category=MemoryPools", "type=" + pool.getType().name(), "pool=" + pool.getName().replace(" ", ""));
-			tracer.traceGauge(usage.getMax(), "Maximum", "platform=JVM", "category=MemoryPools", "type=" + pool.getType().name(), "pool=" + pool.getName().replace(" ", ""));
+			MemoryHandles handles = poolHandles.get(pool.getName());
+			handles.initial.trace(usage.getInit());
+			handles.maximum.trace(usage.getMax());
 			maxPoolSize.put(pool.getName(), usage.getMax());
 		}
 	}
@@ -269,10 +387,11 @@ public class JVMMonitor extends AbstractMonitor {
 	protected void collectMemoryPools() {
 		for(MemoryPoolMXBean pool: memoryPoolMXBeans) {
 			MemoryUsage usage = pool.getUsage();
-			tracer.traceGauge(usage.getCommitted(), "Committed", "platform=JVM", "category=MemoryPools", "type=" + pool.getType().name(), "pool=" + pool.getName().replace(" ", ""));
-			tracer.traceGauge(usage.getUsed(), "Used", "platform=JVM", "category=MemoryPools", "type=" + pool.getType().name(), "pool=" + pool.getName().replace(" ", ""));
-			tracer.traceGauge(percent(usage.getCommitted(), usage.getUsed()), "PercentUsed", "platform=JVM", "category=MemoryPools", "type=" + pool.getType().name(), "pool=" + pool.getName().replace(" ", ""));
-			tracer.traceGauge(percent(maxPoolSize.get(pool.getName()), usage.getUsed()), "PercentCapacity", "platform=JVM", "category=MemoryPools", "type=" + pool.getType().name(), "pool=" + pool.getName().replace(" ", ""));
+			MemoryHandles handles = poolHandles.get(pool.getName());
+			handles.committed.trace(usage.getCommitted());
+			handles.used.trace(usage.getUsed());
+			handles.percentUsed.trace(percent(usage.getCommitted(), usage.getUsed()));
+			handles.percentCapacity.trace(percent(maxPoolSize.get(pool.getName()), usage.getUsed()));
 		}
 	}
 	
@@ -281,12 +400,12 @@ public class JVMMonitor extends AbstractMonitor {
 	 */
 	protected void collectInitialMemory() {
 			MemoryUsage usage = memoryMXBean.getHeapMemoryUsage();
-			tracer.traceGauge(usage.getInit(), "Initial", "platform=JVM", "category=Memory", "type=Heap");
-			tracer.traceGauge(usage.getMax(), "Maximum", "platform=JVM", "category=Memory", "type=Heap");
+			heapHandles.initial.trace(usage.getInit());
+			heapHandles.maximum.trace(usage.getMax());
 			maxPoolSize.put("Heap", usage.getMax());
 			usage = memoryMXBean.getNonHeapMemoryUsage();
-			tracer.traceGauge(usage.getInit(), "Initial", "platform=JVM", "category=Memory", "type=NonHeap");
-			tracer.traceGauge(usage.getMax(), "Maximum", "platform=JVM", "category=Memory", "type=NonHeap");
+			nonHeapHandles.initial.trace(usage.getInit());
+			nonHeapHandles.maximum.trace(usage.getMax());
 			maxPoolSize.put("NonHeap", usage.getMax());
 	}
 	
@@ -295,17 +414,17 @@ public class JVMMonitor extends AbstractMonitor {
 	 */
 	protected void collectMemory() {
 		MemoryUsage usage = memoryMXBean.getHeapMemoryUsage();
-		tracer.traceGauge(memoryMXBean.getObjectPendingFinalizationCount(), "PendingFinalization", "platform=JVM", "category=Memory");
-		tracer.traceGauge(usage.getCommitted(), "Committed", "platform=JVM", "category=Memory", "type=Heap");
-		tracer.traceGauge(usage.getUsed(), "Used", "platform=JVM", "category=Memory", "type=Heap");
-		tracer.traceGauge(percent(usage.getCommitted(), usage.getUsed()), "PercentUsed", "platform=JVM", "category=Memory", "type=Heap");
-		tracer.traceGauge(percent(maxPoolSize.get("Heap"), usage.getUsed()), "PercentCapacity", "platform=JVM", "category=Memory", "type=Heap");
+		pendingFinalizationHandle.trace(memoryMXBean.getObjectPendingFinalizationCount());
+		heapHandles.committed.trace(usage.getCommitted());
+		heapHandles.used.trace(usage.getUsed());
+		heapHandles.percentUsed.trace(percent(usage.getCommitted(), usage.getUsed()));
+		heapHandles.percentCapacity.trace(percent(maxPoolSize.get("Heap"), usage.getUsed()));
 		
 		usage = memoryMXBean.getNonHeapMemoryUsage();
-		tracer.traceGauge(usage.getCommitted(), "Committed", "platform=JVM", "category=Memory", "type=NonHeap");
-		tracer.traceGauge(usage.getUsed(), "Used", "platform=JVM", "category=Memory", "type=NonHeap");
-		tracer.traceGauge(percent(usage.getCommitted(), usage.getUsed()), "PercentUsed", "platform=JVM", "category=Memory", "type=NonHeap");
-		tracer.traceGauge(percent(maxPoolSize.get("NonHeap"), usage.getUsed()), "PercentCapacity", "platform=JVM", "category=Memory", "type=NonHeap");
+		nonHeapHandles.committed.trace(usage.getCommitted());
+		nonHeapHandles.used.trace(usage.getUsed());
+		nonHeapHandles.percentUsed.trace(percent(usage.getCommitted(), usage.getUsed()));
+		nonHeapHandles.percentCapacity.trace(percent(maxPoolSize.get("NonHeap"), usage.getUsed()));
 	}
 	
 	/**
@@ -313,11 +432,11 @@ public class JVMMonitor extends AbstractMonitor {
 	 * FIXME: TotalLoadedClasses needs traceLongLast
 	 */
 	protected void collectClassLoading() {
-		tracer.traceGauge(classLoadingMXBean.getTotalLoadedClassCount(), "TotalLoadedClasses", "platform=JVM", "category=ClassLoading");
-		tracer.traceDeltaGauge(classLoadingMXBean.getTotalLoadedClassCount(), "ClassLoadRate", "platform=JVM", "category=ClassLoading");
-		tracer.traceGauge(classLoadingMXBean.getUnloadedClassCount(), "UnloadedClassCount", "platform=JVM", "category=ClassLoading");
-		tracer.traceDeltaGauge(classLoadingMXBean.getUnloadedClassCount(), "ClassUnloadRate", "platform=JVM", "category=ClassLoading");
-		tracer.traceGauge(classLoadingMXBean.getLoadedClassCount(), "CurrentClassCount", "platform=JVM", "category=ClassLoading");				
+		totalLoadedClassesHandle.trace(classLoadingMXBean.getTotalLoadedClassCount());
+		classLoadRateHandle.trace(classLoadingMXBean.getTotalLoadedClassCount());
+		unloadedClassCountHandle.trace(classLoadingMXBean.getUnloadedClassCount());
+		classUnloadRateHandle.trace(classLoadingMXBean.getUnloadedClassCount());
+		currentClassCountHandle.trace(classLoadingMXBean.getLoadedClassCount());
 	}
 	
 	
@@ -325,7 +444,7 @@ public class JVMMonitor extends AbstractMonitor {
 	 * Collects static runtime info 
 	 */
 	protected void collectInitialRuntime() {
-		tracer.traceGauge(runtimeMXBean.getStartTime(), "StartTime", "platform=JVM", "category=Runtime");
+		startTimeHandle.trace(runtimeMXBean.getStartTime());
 		tracer.traceString(runtimeMXBean.getVmName(), "VmName", "platform=JVM", "category=Runtime");
 		tracer.traceString(runtimeMXBean.getVmVendor(), "VmVendor", "platform=JVM", "category=Runtime");
 		tracer.traceString(runtimeMXBean.getVmVersion(), "VmVersion", "platform=JVM", "category=Runtime");
@@ -339,7 +458,7 @@ public class JVMMonitor extends AbstractMonitor {
 	 * FIXME: Uptime needs long last
 	 */
 	protected void collectRuntime() {
-		tracer.traceGauge(runtimeMXBean.getUptime(), "UpTime", "platform=JVM", "category=Runtime");
+		upTimeHandle.trace(runtimeMXBean.getUptime());
 	}
 	
 	
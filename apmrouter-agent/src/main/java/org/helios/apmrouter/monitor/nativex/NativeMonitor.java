@@ -27,6 +27,7 @@ package org.helios.apmrouter.monitor.nativex;
 import org.helios.apmrouter.jmx.ConfigurationHelper;
 import org.helios.apmrouter.monitor.AbstractMonitor;
 import org.helios.apmrouter.nativex.APMSigar;
+import org.helios.apmrouter.trace.MetricHandle;
 import org.helios.apmrouter.util.SystemClock;
 import org.hyperic.sigar.*;
 
@@ -126,6 +127,133 @@ public class NativeMonitor extends AbstractMonitor {
 	/** The default configuration for detailed localStats on each cpu should be traced */
 	public static final boolean DEFAULT_CPU_ALL = false;
 	
+	/** The process stat Idle handle */
+	protected final MetricHandle psIdleHandle = tracer.gaugeHandle("Idle", PLAT, PS_RESOURCE);
+	/** The process stat Running handle */
+	protected final MetricHandle psRunningHandle = tracer.gaugeHandle("Running", PLAT, PS_RESOURCE);
+	/** The process stat Sleeping handle */
+	protected final MetricHandle psSleepingHandle = tracer.gaugeHandle("Sleeping", PLAT, PS_RESOURCE);
+	/** The process stat Stopped handle */
+	protected final MetricHandle psStoppedHandle = tracer.gaugeHandle("Stopped", PLAT, PS_RESOURCE);
+	/** The process stat Threads handle */
+	protected final MetricHandle psThreadsHandle = tracer.gaugeHandle("Threads", PLAT, PS_RESOURCE);
+	/** The process stat Total handle */
+	protected final MetricHandle psTotalHandle = tracer.gaugeHandle("Total", PLAT, PS_RESOURCE);
+	/** The process stat Zombie handle */
+	protected final MetricHandle psZombieHandle = tracer.gaugeHandle("Zombie", PLAT, PS_RESOURCE);
+	/** The netstat Inbound handle */
+	protected final MetricHandle netInboundHandle = tracer.deltaGaugeHandle("Inbound", PLAT, NET_RESOURCE);
+	/** The netstat Outbound handle */
+	protected final MetricHandle netOutboundHandle = tracer.deltaGaugeHandle("Outbound", PLAT, NET_RESOURCE);
+	/** The netstat TcpBound handle */
+	protected final MetricHandle netTcpBoundHandle = tracer.counterHandle("TcpBound", PLAT, NET_RESOURCE);
+	/** The netstat TcpClose handle */
+	protected final MetricHandle netTcpCloseHandle = tracer.counterHandle("TcpClose", PLAT, NET_RESOURCE);
+	/** The netstat TcpCloseWait handle */
+	protected final MetricHandle netTcpCloseWaitHandle = tracer.counterHandle("TcpCloseWait", PLAT, NET_RESOURCE);
+	/** The netstat TcpClosing handle */
+	protected final MetricHandle netTcpClosingHandle = tracer.counterHandle("TcpClosing", PLAT, NET_RESOURCE);
+	/** The netstat TcpEstablished handle */
+	protected final MetricHandle netTcpEstablishedHandle = tracer.counterHandle("TcpEstablished", PLAT, NET_RESOURCE);
+	/** The netstat TcpFinWait1 handle */
+	protected final MetricHandle netTcpFinWait1Handle = tracer.counterHandle("TcpFinWait1", PLAT, NET_RESOURCE);
+	/** The netstat TcpFinWait2 handle */
+	protected final MetricHandle netTcpFinWait2Handle = tracer.counterHandle("TcpFinWait2", PLAT, NET_RESOURCE);
+	/** The netstat TcpIdle handle */
+	protected final MetricHandle netTcpIdleHandle = tracer.counterHandle("TcpIdle", PLAT, NET_RESOURCE);
+	/** The netstat TcpInbound handle */
+	protected final MetricHandle netTcpInboundHandle = tracer.counterHandle("TcpInbound", PLAT, NET_RESOURCE);
+	/** The netstat TcpOutbound handle */
+	protected final MetricHandle netTcpOutboundHandle = tracer.counterHandle("TcpOutbound", PLAT, NET_RESOURCE);
+	/** The netstat TcpLastAck handle */
+	protected final MetricHandle netTcpLastAckHandle = tracer.counterHandle("TcpLastAck", PLAT, NET_RESOURCE);
+	/** The netstat TcpListen handle */
+	protected final MetricHandle netTcpListenHandle = tracer.counterHandle("TcpListen", PLAT, NET_RESOURCE);
+	/** The netstat TcpSynRecv handle */
+	protected final MetricHandle netTcpSynRecvHandle = tracer.counterHandle("TcpSynRecv", PLAT, NET_RESOURCE);
+	/** The netstat TcpSynSent handle */
+	protected final MetricHandle netTcpSynSentHandle = tracer.counterHandle("TcpSynSent", PLAT, NET_RESOURCE);
+	/** The netstat TcpTimeWait handle */
+	protected final MetricHandle netTcpTimeWaitHandle = tracer.counterHandle("TcpTimeWait", PLAT, NET_RESOURCE);
+	/** The process cpu System handle */
+	protected final MetricHandle meCpuSystemHandle = tracer.gaugeHandle("System", "platform=JVM", "category=cpu");
+	/** The process cpu Total handle */
+	protected final MetricHandle meCpuTotalHandle = tracer.gaugeHandle("Total", "platform=JVM", "category=cpu");
+	/** The process cpu User handle */
+	protected final MetricHandle meCpuUserHandle = tracer.gaugeHandle("User", "platform=JVM", "category=cpu");
+	/** The process cpu PercentUsage handle */
+	protected final MetricHandle meCpuPercentUsageHandle = tracer.gaugeHandle("PercentUsage", "platform=JVM", "category=cpu");
+	/** The process memory MajorFaults handle */
+	protected final MetricHandle meMajorFaultsHandle = tracer.gaugeHandle("MajorFaults", "platform=JVM", "category=processMemory");
+	/** The process memory MinorFaults handle */
+	protected final MetricHandle meMinorFaultsHandle = tracer.gaugeHandle("MinorFaults", "platform=JVM", "category=processMemory");
+	/** The process memory PageFaults handle */
+	protected final MetricHandle mePageFaultsHandle = tracer.gaugeHandle("PageFaults", "platform=JVM", "category=processMemory");
+	/** The process memory Resident handle */
+	protected final MetricHandle meResidentHandle = tracer.gaugeHandle("Resident", "platform=JVM", "category=processMemory");
+	/** The process memory Shared handle */
+	protected final MetricHandle meSharedHandle = tracer.gaugeHandle("Shared", "platform=JVM", "category=processMemory");
+	/** The process memory Size handle */
+	protected final MetricHandle meSizeHandle = tracer.gaugeHandle("Size", "platform=JVM", "category=processMemory");
+	/** The process file descriptor OpenFileDescriptors handle */
+	protected final MetricHandle meOpenFileDescriptorsHandle = tracer.gaugeHandle("OpenFileDescriptors", "platform=JVM", "category=fd");
+	/** The tcp Opens handle */
+	protected final MetricHandle tcpOpensHandle = tracer.deltaGaugeHandle("Opens", PLAT, TCP_RESOURCE);
+	/** The tcp Fails handle */
+	protected final MetricHandle tcpFailsHandle = tracer.deltaGaugeHandle("Fails", PLAT, TCP_RESOURCE);
+	/** The tcp Established handle */
+	protected final MetricHandle tcpEstablishedHandle = tracer.gaugeHandle("Established", PLAT, TCP_RESOURCE);
+	/** The tcp Resets handle */
+	protected final MetricHandle tcpResetsHandle = tracer.deltaGaugeHandle("Resets", PLAT, TCP_RESOURCE);
+	/** The tcp InErrors handle */
+	protected final MetricHandle tcpInErrorsHandle = tracer.deltaGaugeHandle("InErrors", PLAT, TCP_RESOURCE);
+	/** The tcp InSegs handle */
+	protected final MetricHandle tcpInSegsHandle = tracer.deltaGaugeHandle("InSegs", PLAT, TCP_RESOURCE);
+	/** The tcp OutResets handle */
+	protected final MetricHandle tcpOutResetsHandle = tracer.deltaGaugeHandle("OutResets", PLAT, TCP_RESOURCE);
+	/** The tcp OutSegs handle */
+	protected final MetricHandle tcpOutSegsHandle = tracer.deltaGaugeHandle("OutSegs", PLAT, TCP_RESOURCE);
+	/** The tcp PassiveOpens handle */
+	protected final MetricHandle tcpPassiveOpensHandle = tracer.deltaGaugeHandle("PassiveOpens", PLAT, TCP_RESOURCE);
+	/** The tcp RetransSegs handle */
+	protected final MetricHandle tcpRetransSegsHandle = tracer.deltaGaugeHandle("RetransSegs", PLAT, TCP_RESOURCE);
+	/** The swap Total handle */
+	protected final MetricHandle swapTotalHandle = tracer.counterHandle("Total", PLAT, SWAP_RESOURCE);
+	/** The swap Free handle */
+	protected final MetricHandle swapFreeHandle = tracer.counterHandle("Free", PLAT, SWAP_RESOURCE);
+	/** The swap Used handle */
+	protected final MetricHandle swapUsedHandle = tracer.counterHandle("Used", PLAT, SWAP_RESOURCE);
+	/** The swap FreePercent handle */
+	protected final MetricHandle swapFreePercentHandle = tracer.counterHandle("FreePercent", PLAT, SWAP_RESOURCE);
+	/** The swap UsedPercent handle */
+	protected final MetricHandle swapUsedPercentHandle = tracer.counterHandle("UsedPercent", PLAT, SWAP_RESOURCE);
+	/** The swap PageIn handle */
+	protected final MetricHandle swapPageInHandle = tracer.counterHandle("PageIn", PLAT, SWAP_RESOURCE);
+	/** The swap PageOut handle */
+	protected final MetricHandle swapPageOutHandle = tracer.counterHandle("PageOut", PLAT, SWAP_RESOURCE);
+	/** The system memory TotalMemMB handle */
+	protected final MetricHandle memTotalMemMBHandle = tracer.counterHandle("TotalMemMB", PLAT, SYSMEM_RESOURCE);
+	/** The system memory ActualFree handle */
+	protected final MetricHandle memActualFreeHandle = tracer.counterHandle("ActualFree", PLAT, SYSMEM_RESOURCE);
+	/** The system memory ActualUsed handle */
+	protected final MetricHandle memActualUsedHandle = tracer.counterHandle("ActualUsed", PLAT, SYSMEM_RESOURCE);
+	/** The system memory Free handle */
+	protected final MetricHandle memFreeHandle = tracer.counterHandle("Free", PLAT, SYSMEM_RESOURCE);
+	/** The system memory Used handle */
+	protected final MetricHandle memUsedHandle = tracer.counterHandle("Used", PLAT, SYSMEM_RESOURCE);
+	/** The system memory FreePercent handle */
+	protected final MetricHandle memFreePercentHandle = tracer.counterHandle("FreePercent", PLAT, SYSMEM_RESOURCE);
+	/** The system memory UsedPercent handle */
+	protected final MetricHandle memUsedPercentHandle = tracer.counterHandle("UsedPercent", PLAT, SYSMEM_RESOURCE);
+	/** The handles for the combined cpu */
+	protected final CpuHandles allCpuHandles = new CpuHandles(String.format(CPU_NAME, "all"));
+	/** The handles for each cpu, created when all cpus are first traced */
+	protected CpuHandles[] cpuHandles = null;
+	/** The file system handles keyed by file system directory name */
+	protected final Map<String, FsHandles> fsHandles = new HashMap<String, FsHandles>();
+	/** The NIC handles keyed by NIC name */
+	protected final Map<String, NicHandles> nicHandles = new HashMap<String, NicHandles>();
+	
 	/**
 	 * Creates a new NativeMonitor
 	 */
@@ -133,6 +261,156 @@ public class NativeMonitor extends AbstractMonitor {
 		// TODO Auto-generated constructor stub
 	}
 	
+	/**
+	 * <p>Title: CpuHandles</p>
+	 * <p>Description: The handles for the metrics of one cpu</p> 
+	 * <p>Company: Helios Development Group LLC</p>
+	 * @author Whitehead (nwhitehead AT heliosdev DOT org)
+	 * <p><code>org.helios.apmrouter.monitor.nativex.NativeMonitor.CpuHandles</code></p>
+	 */
+	protected class CpuHandles {
+		/** The Combined handle */
+		final MetricHandle combined;
+		/** The Idle handle */
+		final MetricHandle idle;
+		/** The Irq handle */
+		final MetricHandle irq;
+		/** The Nice handle */
+		final MetricHandle nice;
+		/** The SoftIrq handle */
+		final MetricHandle softIrq;
+		/** The Stolen handle */
+		final MetricHandle stolen;
+		/** The Sys handle */
+		final MetricHandle sys;
+		/** The User handle */
+		final MetricHandle user;
+		/** The Wait handle */
+		final MetricHandle wait;
+		
+		/**
+		 * Creates a new CpuHandles
+		 * @param cpuName The cpu name tag
+		 */
+		CpuHandles(String cpuName) {
+			combined = tracer.gaugeHandle("Combined", PLAT, CPU_RESOURCE, cpuName);
+			idle = tracer.gaugeHandle("Idle", PLAT, CPU_RESOURCE, cpuName);
+			irq = tracer.gaugeHandle("Irq", PLAT, CPU_RESOURCE, cpuName);
+			nice = tracer.gaugeHandle("Nice", PLAT, CPU_RESOURCE, cpuName);
+			softIrq = tracer.gaugeHandle("SoftIrq", PLAT, CPU_RESOURCE, cpuName);
+			stolen = tracer.gaugeHandle("Stolen", PLAT, CPU_RESOURCE, cpuName);
+			sys = tracer.gaugeHandle("Sys", PLAT, CPU_RESOURCE, cpuName);
+			user = tracer.gaugeHandle("User", PLAT, CPU_RESOURCE, cpuName);
+			wait = tracer.gaugeHandle("Wait", PLAT, CPU_RESOURCE, cpuName);
+		}
+	}
+	
+	/**
+	 * <p>Title: FsHandles</p>
+	 * <p>Description: The handles for the metrics of one file system</p> 
+	 * <p>Company: Helios Development Group LLC</p>
+	 * @author Whitehead (nwhitehead AT heliosdev DOT org)
+	 * <p><code>org.helios.apmrouter.monitor.nativex.NativeMonitor.FsHandles</code></p>
+	 */
+	protected class FsHandles {
+		/** The SecondsToFull handle */
+		final MetricHandle secondsToFull;
+		/** The AvailableKb handle */
+		final MetricHandle availableKb;
+		/** The DiskReadBytes handle */
+		final MetricHandle diskReadBytes;
+		/** The DiskWriteBytes handle */
+		final MetricHandle diskWriteBytes;
+		/** The DiskReads handle */
+		final MetricHandle diskReads;
+		/** The DiskWrites handle */
+		final MetricHandle diskWrites;
+		/** The FreeKb handle */
+		final MetricHandle freeKb;
+		/** The TotalKb handle */
+		final MetricHandle totalKb;
+		/** The UsedKb handle */
+		final MetricHandle usedKb;
+		/** The DiskQueue handle */
+		final MetricHandle diskQueue;
+		/** The DiskServiceTime handle */
+		final MetricHandle diskServiceTime;
+		
+		/**
+		 * Creates a new FsHandles
+		 * @param fsName The file system name tag
+		 */
+		FsHandles(String fsName) {
+			secondsToFull = tracer.gaugeHandle("SecondsToFull", PLAT, FS_RESOURCE, fsName);
+			availableKb = tracer.gaugeHandle("AvailableKb", PLAT, FS_RESOURCE, fsName);
+			diskReadBytes = tracer.deltaGaugeHandle("DiskReadBytes", PLAT, FS_RESOURCE, fsName);
+			diskWriteBytes = tracer.deltaGaugeHandle("DiskWriteBytes", PLAT, FS_RESOURCE, fsName);
+			diskReads = tracer.deltaGaugeHandle("DiskReads", PLAT, FS_RESOURCE, fsName);
+			diskWrites = tracer.deltaGaugeHandle("DiskWrites", PLAT, FS_RESOURCE, fsName);
+			freeKb = tracer.gaugeHandle("FreeKb", PLAT, FS_RESOURCE, fsName);
+			totalKb = tracer.gaugeHandle("TotalKb", PLAT, FS_RESOURCE, fsName);
+			usedKb = tracer.gaugeHandle("UsedKb", PLAT, FS_RESOURCE, fsName);
+			diskQueue = tracer.gaugeHandle("DiskQueue", PLAT, FS_RESOURCE, fsName);
+			diskServiceTime = tracer.gaugeHandle("DiskServiceTime", PLAT, FS_RESOURCE, fsName);
+		}
+	}
+	
+	/**
+	 * <p>Title: NicHandles</p>
+	 * <p>Description: The handles for the metrics of one NIC</p> 
+	 * <p>Company: Helios Development Group LLC</p>
+	 * @author Whitehead (nwhitehead AT heliosdev DOT org)
+	 * <p><code>org.helios.apmrouter.monitor.nativex.NativeMonitor.NicHandles</code></p>
+	 */
+	protected class NicHandles {
+		/** The RXBytes handle */
+		final MetricHandle rxBytes;
+		/** The TXBytes handle */
+		final MetricHandle txBytes;
+		/** The RXDropped handle */
+		final MetricHandle rxDropped;
+		/** The TXDropped handle */
+		final MetricHandle txDropped;
+		/** The RXErrors handle */
+		final MetricHandle rxErrors;
+		/** The TXErrors handle */
+		final MetricHandle txErrors;
+		/** The RXPackets handle */
+		final MetricHandle rxPackets;
+		/** The TXPackets handle */
+		final MetricHandle txPackets;
+		/** The RXOverruns handle */
+		final MetricHandle rxOverruns;
+		/** The TXOverruns handle */
+		final MetricHandle txOverruns;
+		/** The TXCollisions handle */
+		final MetricHandle txCollisions;
+		/** The TxCarrier handle */
+		final MetricHandle txCarrier;
+		/** The Speed handle */
+		final MetricHandle speed;
+		
+		/**
+		 * Creates a new NicHandles
+		 * @param nicName The NIC name tag
+		 */
+		NicHandles(String nicName) {
+			rxBytes = tracer.deltaGaugeHandle("RXBytes", PLAT, NIC_RESOURCE, nicName);
+			txBytes = tracer.deltaGaugeHandle("TXBytes", PLAT, NIC_RESOURCE, nicName);
+			rxDropped = tracer.deltaGaugeHandle("RXDropped", PLAT, NIC_RESOURCE, nicName);
+			txDropped = tracer.deltaGaugeHandle("TXDropped", PLAT, NIC_RESOURCE, nicName);
+			rxErrors = tracer.deltaGaugeHandle("RXErrors", PLAT, NIC_RESOURCE, nicName);
+			txErrors = tracer.deltaGaugeHandle("TXErrors", PLAT, NIC_RESOURCE, nicName);
+			rxPackets = tracer.deltaGaugeHandle("RXPackets", PLAT, NIC_RESOURCE, nicName);
+			txPackets = tracer.deltaGaugeHandle("TXPackets", PLAT, NIC_RESOURCE, nicName);
+			rxOverruns = tracer.deltaGaugeHandle("RXOverruns", PLAT, NIC_RESOURCE, nicName);
+			txOverruns = tracer.deltaGaugeHandle("TXOverruns", PLAT, NIC_RESOURCE, nicName);
+			txCollisions = tracer.deltaGaugeHandle("TXCollisions", PLAT, NIC_RESOURCE, nicName);
+			txCarrier = tracer.deltaGaugeHandle("TxCarrier", PLAT, NIC_RESOURCE, nicName);
+			speed = tracer.deltaGaugeHandle("Speed", PLAT, NIC_RESOURCE, nicName);
+		}
+	}
+	
 	/**
 	 * {@inheritDoc}
 	 * @see org.helios.apmrouter.monitor.AbstractMonitor#setProperties(java.util.Properties)
@@ -168,13 +446,13 @@ public class NativeMonitor extends AbstractMonitor {
 	 */
 	protected void traceProcessStats() {
 		ProcStat ps = hsigar.getProcStat();
-		tracer.traceGauge(ps.getIdle(), "Idle", PLAT, PS_RESOURCE);
-		tracer.traceGauge(ps.getRunning(), "Running", PLAT, PS_RESOURCE);
-		tracer.traceGauge(ps.getSleeping(), "Sleeping", PLAT, PS_RESOURCE);
-		tracer.traceGauge(ps.getStopped(), "Stopped", PLAT, PS_RESOURCE);
-		tracer.traceGauge(ps.getThreads(), "Threads", PLAT, PS_RESOURCE);
-		tracer.traceGauge(ps.getTotal(), "Total", PLAT, PS_RESOURCE);
-		tracer.traceGauge(ps.getZombie(), "Zombie", PLAT, PS_RESOURCE);
+		psIdleHandle.trace(ps.getIdle());
+		psRunningHandle.trace(ps.getRunning());
+		psSleepingHandle.trace(ps.getSleeping());
+		psStoppedHandle.trace(ps.getStopped());
+		psThreadsHandle.trace(ps.getThreads());
+		psTotalHandle.trace(ps.getTotal());
+		psZombieHandle.trace(ps.getZombie());
 	}
 	
 	/**
@@ -182,23 +460,23 @@ public class NativeMonitor extends AbstractMonitor {
 	 */
 	protected void traceNetstat() {
 		NetStat net = hsigar.getNetStat();
-		tracer.traceDeltaGauge(net.getAllInboundTotal(), "Inbound", PLAT, NET_RESOURCE);
-		tracer.traceDeltaGauge(net.getAllOutboundTotal(), "Outbound", PLAT, NET_RESOURCE);
-		tracer.traceCounter(net.getTcpBound(), "TcpBound", PLAT, NET_RESOURCE);
-		tracer.traceCounter(net.getTcpClose(), "TcpClose", PLAT, NET_RESOURCE);
-		tracer.traceCounter(net.getTcpCloseWait(), "TcpCloseWait", PLAT, NET_RESOURCE);
-		tracer.traceCounter(net.getTcpClosing(), "TcpClosing", PLAT, NET_RESOURCE);
-		tracer.traceCounter(net.getTcpEstablished(), "TcpEstablished", PLAT, NET_RESOURCE);
-		tracer.traceCounter(net.getTcpFinWait1(), "TcpFinWait1", PLAT, NET_RESOURCE);
-		tracer.traceCounter(net.getTcpFinWait2(), "TcpFinWait2", PLAT, NET_RESOURCE);
-		tracer.traceCounter(net.getTcpIdle(), "TcpIdle", PLAT, NET_RESOURCE);
-		tracer.traceCounter(net.getTcpInboundTotal(), "TcpInbound", PLAT, NET_RESOURCE);
-		tracer.traceCounter(net.getTcpOutboundTotal(), "TcpOutbound", PLAT, NET_RESOURCE);
-		tracer.traceCounter(net.getTcpLastAck(), "TcpLastAck", PLAT, NET_RESOURCE);
-		tracer.traceCounter(net.getTcpListen(), "TcpListen", PLAT, NET_RESOURCE);
-		tracer.traceCounter(net.getTcpSynRecv(), "TcpSynRecv", PLAT, NET_RESOURCE);
-		tracer.traceCounter(net.getTcpSynSent(), "TcpSynSent", PLAT, NET_RESOURCE);
-		tracer.traceCounter(net.getTcpTimeWait(), "TcpTimeWait", PLAT, NET_RESOURCE);		
+		netInboundHandle.trace(net.getAllInboundTotal());
+		netOutboundHandle.trace(net.getAllOutboundTotal());
+		netTcpBoundHandle.trace(net.getTcpBound());
+		netTcpCloseHandle.trace(net.getTcpClose());
+		netTcpCloseWaitHandle.trace(net.getTcpCloseWait());
+		netTcpClosingHandle.trace(net.getTcpClosing());
+		netTcpEstablishedHandle.trace(net.getTcpEstablished());
+		netTcpFinWait1Handle.trace(net.getTcpFinWait1());
+		netTcpFinWait2Handle.trace(net.getTcpFinWait2());
+		netTcpIdleHandle.trace(net.getTcpIdle());
+		netTcpInboundHandle.trace(net.getTcpInboundTotal());
+		netTcpOutboundHandle.trace(net.getTcpOutboundTotal());
+		netTcpLastAckHandle.trace(net.getTcpLastAck());
+		netTcpListenHandle.trace(net.getTcpListen());
+		netTcpSynRecvHandle.trace(net.getTcpSynRecv());
+		netTcpSynSentHandle.trace(net.getTcpSynSent());
+		netTcpTimeWaitHandle.trace(net.getTcpTimeWait());		
 	}
 	
 	/**
@@ -206,18 +484,18 @@ public class NativeMonitor extends AbstractMonitor {
 	 */
 	protected void traceMe() {
 		ProcCpu procCpu = hsigar.getProcCpu(hsigar.pid);
-		tracer.traceGauge(procCpu.getSys(), "System", "platform=JVM", "category=cpu");
-		tracer.traceGauge(procCpu.getTotal(), "Total", "platform=JVM", "category=cpu");
-		tracer.traceGauge(procCpu.getUser(), "User", "platform=JVM", "category=cpu");
-		tracer.traceGauge( dbl2longPerc(procCpu.getPercent()), "PercentUsage", "platform=JVM", "category=cpu");
+		meCpuSystemHandle.trace(procCpu.getSys());
+		meCpuTotalHandle.trace(procCpu.getTotal());
+		meCpuUserHandle.trace(procCpu.getUser());
+		meCpuPercentUsageHandle.trace(dbl2longPerc(procCpu.getPercent()));
 		ProcMem pmem = hsigar.getProcMem(hsigar.pid);
-		tracer.traceGauge(pmem.getMajorFaults(), "MajorFaults", "platform=JVM", "category=processMemory");
-		tracer.traceGauge(pmem.getMinorFaults(), "MinorFaults", "platform=JVM", "category=processMemory");
-		tracer.traceGauge(pmem.getPageFaults(), "PageFaults", "platform=JVM", "category=processMemory");
-		tracer.traceGauge(pmem.getResident(), "Resident", "platform=JVM", "category=processMemory");
-		if(!isWindows) tracer.traceGauge(pmem.getShare(), "Shared", "platform=JVM", "category=processMemory");
-		tracer.traceGauge(pmem.getSize(), "Size", "platform=JVM", "category=processMemory");
-		tracer.traceGauge(hsigar.getProcFd(hsigar.pid).getTotal(), "OpenFileDescriptors", "platform=JVM", "category=fd");
+		meMajorFaultsHandle.trace(pmem.getMajorFaults());
+		meMinorFaultsHandle.trace(pmem.getMinorFaults());
+		mePageFaultsHandle.trace(pmem.getPageFaults());
+		meResidentHandle.trace(pmem.getResident());
+		if(!isWindows) meSharedHandle.trace(pmem.getShare());
+		meSizeHandle.trace(pmem.getSize());
+		meOpenFileDescriptorsHandle.trace(hsigar.getProcFd(hsigar.pid).getTotal());
 		
 	}
 	
@@ -226,16 +504,16 @@ public class NativeMonitor extends AbstractMonitor {
 	 */
 	protected void traceTCP() {
 		Tcp tcp = hsigar.getTcp();
-		tracer.traceDeltaGauge(tcp.getActiveOpens(), "Opens", PLAT, TCP_RESOURCE);
-		tracer.traceDeltaGauge(tcp.getAttemptFails(), "Fails", PLAT, TCP_RESOURCE);
-		tracer.traceGauge(tcp.getCurrEstab(), "Established", PLAT, TCP_RESOURCE);
-		tracer.traceDeltaGauge(tcp.getEstabResets(), "Resets", PLAT, TCP_RESOURCE);
-		tracer.traceDeltaGauge(tcp.getInErrs(), "InErrors", PLAT, TCP_RESOURCE);
-		tracer.traceDeltaGauge(tcp.getInSegs(), "InSegs", PLAT, TCP_RESOURCE);
-		tracer.traceDeltaGauge(tcp.getOutRsts(), "OutResets", PLAT, TCP_RESOURCE);
-		tracer.traceDeltaGauge(tcp.getOutSegs(), "OutSegs", PLAT, TCP_RESOURCE);
-		tracer.traceDeltaGauge(tcp.getPassiveOpens(), "PassiveOpens", PLAT, TCP_RESOURCE);
-		tracer.traceDeltaGauge(tcp.getRetransSegs(), "RetransSegs", PLAT, TCP_RESOURCE);		
+		tcpOpensHandle.trace(tcp.getActiveOpens());
+		tcpFailsHandle.trace(tcp.getAttemptFails());
+		tcpEstablishedHandle.trace(tcp.getCurrEstab());
+		tcpResetsHandle.trace(tcp.getEstabResets());
+		tcpInErrorsHandle.trace(tcp.getInErrs());
+		tcpInSegsHandle.trace(tcp.getInSegs());
+		tcpOutResetsHandle.trace(tcp.getOutRsts());
+		tcpOutSegsHandle.trace(tcp.getOutSegs());
+		tcpPassiveOpensHandle.trace(tcp.getPassiveOpens());
+		tcpRetransSegsHandle.trace(tcp.getRetransSegs());		
 	}
 	
 	/**
@@ -245,16 +523,16 @@ public class NativeMonitor extends AbstractMonitor {
 		Swap swap = hsigar.getSwap();
 		long total = swap.getTotal();
 		if((collectionSweep==0 || collectionSweep%fsRescanCollectionSweep==0)) {
-			tracer.traceCounter(total, "Total", PLAT, SWAP_RESOURCE);			
+			swapTotalHandle.trace(total);			
 		}
 		long free = swap.getFree();
 		long used = swap.getUsed();
-		tracer.traceCounter(free, "Free", PLAT, SWAP_RESOURCE);
-		tracer.traceCounter(used, "Used", PLAT, SWAP_RESOURCE);
-		tracer.traceCounter(percent(total,free), "FreePercent", PLAT, SWAP_RESOURCE);
-		tracer.traceCounter(percent(total,used), "UsedPercent", PLAT, SWAP_RESOURCE);
-		tracer.traceCounter(swap.getPageIn(), "PageIn", PLAT, SWAP_RESOURCE);
-		tracer.traceCounter(swap.getPageOut(), "PageOut", PLAT, SWAP_RESOURCE);
+		swapFreeHandle.trace(free);
+		swapUsedHandle.trace(used);
+		swapFreePercentHandle.trace(percent(total,free));
+		swapUsedPercentHandle.trace(percent(total,used));
+		swapPageInHandle.trace(swap.getPageIn());
+		swapPageOutHandle.trace(swap.getPageOut());
 	}
 	
 	private static long percent(double total, double part) {
@@ -269,15 +547,15 @@ public class NativeMonitor extends AbstractMonitor {
 	protected void traceSystemMem() {
 		Mem mem = hsigar.getMem();
 		if((collectionSweep==0 || collectionSweep%fsRescanCollectionSweep==0)) {
-			tracer.traceCounter(mem.getRam(), "TotalMemMB", PLAT, SYSMEM_RESOURCE);
+			memTotalMemMBHandle.trace(mem.getRam());
 		}
-		tracer.traceCounter(mem.getActualFree(), "ActualFree", PLAT, SYSMEM_RESOURCE);
-		tracer.traceCounter(mem.getActualUsed(), "ActualUsed", PLAT, SYSMEM_RESOURCE);
-		tracer.traceCounter(mem.getFree(), "Free", PLAT, SYSMEM_RESOURCE);
-		tracer.traceCounter(mem.getUsed(), "Used", PLAT, SYSMEM_RESOURCE);
+		memActualFreeHandle.trace(mem.getActualFree());
+		memActualUsedHandle.trace(mem.getActualUsed());
+		memFreeHandle.trace(mem.getFree());
+		memUsedHandle.trace(mem.getUsed());
 		
-		tracer.traceCounter(dbl2longPerc(mem.getFreePercent()), "FreePercent", PLAT, SYSMEM_RESOURCE);
-		tracer.traceCounter(dbl2longPerc(mem.getUsedPercent()), "UsedPercent", PLAT, SYSMEM_RESOURCE);
+		memFreePercentHandle.trace(dbl2longPerc(mem.getFreePercent()));
+		memUsedPercentHandle.trace(dbl2longPerc(mem.getUsedPercent()));
 	}
 	
 	/**
@@ -299,21 +577,26 @@ public class NativeMonitor extends AbstractMonitor {
 				b.append("\n\t").append(nic).append("/").append(config.getName()).append("\t(").append(config.getDescription()).append(")");
 			}
 			NetInterfaceStat nicStat = hsigar.getNetInterfaceStat(nic);
-			tracer.traceDeltaGauge(nicStat.getRxBytes(), "RXBytes", PLAT, NIC_RESOURCE, String.format(NIC_NAME, nic));
-			tracer.traceDeltaGauge(nicStat.getTxBytes(), "TXBytes", PLAT, NIC_RESOURCE, String.format(NIC_NAME, nic));
-			tracer.traceDeltaGauge(nicStat.getRxDropped(), "RXDropped", PLAT, NIC_RESOURCE, String.format(NIC_NAME, nic));
-			tracer.traceDeltaGauge(nicStat.getTxDropped(), "TXDropped", PLAT, NIC_RESOURCE, String.format(NIC_NAME, nic));
-			tracer.traceDeltaGauge(nicStat.getRxErrors(), "RXErrors", PLAT, NIC_RESOURCE, String.format(NIC_NAME, nic));
-			tracer.traceDeltaGauge(nicStat.getTxErrors(), "TXErrors", PLAT, NIC_RESOURCE, String.format(NIC_NAME, nic));
-			tracer.traceDeltaGauge(nicStat.getRxPackets(), "RXPackets", PLAT, NIC_RESOURCE, String.format(NIC_NAME, nic));
-			tracer.traceDeltaGauge(nicStat.getTxPackets(), "TXPackets", PLAT, NIC_RESOURCE, String.format(NIC_NAME, nic));
-			tracer.traceDeltaGauge(nicStat.getRxOverruns(), "RXOverruns", PLAT, NIC_RESOURCE, String.format(NIC_NAME, nic));
-			tracer.traceDeltaGauge(nicStat.getTxOverruns(), "TXOverruns", PLAT, NIC_RESOURCE, String.format(NIC_NAME, nic));
+			NicHandles handles = nicHandles.get(nic);
+			if(handles==null) {
+				handles = new NicHandles(String.format(NIC_NAME, nic));
+				nicHandles.put(nic, handles);
+			}
+			handles.rxBytes.trace(nicStat.getRxBytes());
+			handles.txBytes.trace(nicStat.getTxBytes());
+			handles.rxDropped.trace(nicStat.getRxDropped());
+			handles.txDropped.trace(nicStat.getTxDropped());
+			handles.rxErrors.trace(nicStat.getRxErrors());
+			handles.txErrors.trace(nicStat.getTxErrors());
+			handles.rxPackets.trace(nicStat.getRxPackets());
+			handles.txPackets.trace(nicStat.getTxPackets());
+			handles.rxOverruns.trace(nicStat.getRxOverruns());
+			handles.txOverruns.trace(nicStat.getTxOverruns());
 			
-			tracer.traceDeltaGauge(nicStat.getTxCollisions(), "TXCollisions", PLAT, NIC_RESOURCE, String.format(NIC_NAME, nic));
-			tracer.traceDeltaGauge(nicStat.getTxCarrier(), "TxCarrier", PLAT, NIC_RESOURCE, String.format(NIC_NAME, nic));
+			handles.txCollisions.trace(nicStat.getTxCollisions());
+			handles.txCarrier.trace(nicStat.getTxCarrier());
 			
-			tracer.traceDeltaGauge(nicStat.getSpeed(), "Speed", PLAT, NIC_RESOURCE, String.format(NIC_NAME, nic));
+			handles.speed.trace(nicStat.getSpeed());
 			if((collectionSweep==0 || collectionSweep%fsRescanCollectionSweep==0) && traceMeta) {
 				NetInterfaceConfig config = hsigar.getNetInterfaceConfig(nic);
 				
@@ -342,14 +625,19 @@ public class NativeMonitor extends AbstractMonitor {
 	 * Collects individual and aggregate CPU percentage utilization localStats.
 	 */
 	protected void traceCpus() {
-		int cid = 0;
 		if(traceAllCpus) {
-			for(CpuPerc c : hsigar.getCpuPercList()) {
-				traceCpuPerc(c, String.format(CPU_NAME, cid));
-				cid++;
+			CpuPerc[] percs = hsigar.getCpuPercList();
+			if(cpuHandles==null || cpuHandles.length!=percs.length) {
+				cpuHandles = new CpuHandles[percs.length];
+				for(int cid = 0; cid < percs.length; cid++) {
+					cpuHandles[cid] = new CpuHandles(String.format(CPU_NAME, cid));
+				}
+			}
+			for(int cid = 0; cid < percs.length; cid++) {
+				traceCpuPerc(percs[cid], cpuHandles[cid]);
 			}
 		}
-		traceCpuPerc(hsigar.getCpuPerc(), String.format(CPU_NAME, "all")); 
+		traceCpuPerc(hsigar.getCpuPerc(), allCpuHandles); 
 		if((collectionSweep==0 || collectionSweep%fsRescanCollectionSweep==0) && traceMeta && traceAllCpus) {
 			CpuInfo[] infos = hsigar.getCpuInfoList();
 			tracer.traceCounter(infos[0].getTotalCores(),"TotalCores", PLAT, CPU_RESOURCE, META_TAG);
@@ -368,18 +656,18 @@ public class NativeMonitor extends AbstractMonitor {
 	/**
 	 * Traces the passed PCU percentage localStats
 	 * @param c The CPU percentage localStats
-	 * @param cpuName The cpu name
+	 * @param handles The handles for the cpu
 	 */
-	private void traceCpuPerc(CpuPerc c, String cpuName) {
-		tracer.traceGauge(dbl2longPerc(c.getCombined()), "Combined", PLAT, CPU_RESOURCE, cpuName);
-		tracer.traceGauge(dbl2longPerc(c.getIdle()), "Idle", PLAT, CPU_RESOURCE, cpuName);
-		tracer.traceGauge(dbl2longPerc(c.getIrq()), "Irq", PLAT, CPU_RESOURCE, cpuName);
-		tracer.traceGauge(dbl2longPerc(c.getNice()), "Nice", PLAT, CPU_RESOURCE, cpuName);
-		tracer.traceGauge(dbl2longPerc(c.getSoftIrq()), "SoftIrq", PLAT, CPU_RESOURCE, cpuName);
-		tracer.traceGauge(dbl2longPerc(c.getStolen()), "Stolen", PLAT, CPU_RESOURCE, cpuName);
-		tracer.traceGauge(dbl2longPerc(c.getSys()), "Sys", PLAT, CPU_RESOURCE, cpuName);
-		tracer.traceGauge(dbl2longPerc(c.getUser()), "User", PLAT, CPU_RESOURCE, cpuName);
-		tracer.traceGauge(dbl2longPerc(c.getWait()), "Wait", PLAT, CPU_RESOURCE, cpuName);					
+	private void traceCpuPerc(CpuPerc c, CpuHandles handles) {
+		handles.combined.trace(dbl2longPerc(c.getCombined()));
+		handles.idle.trace(dbl2longPerc(c.getIdle()));
+		handles.irq.trace(dbl2longPerc(c.getIrq()));
+		handles.nice.trace(dbl2longPerc(c.getNice()));
+		handles.softIrq.trace(dbl2longPerc(c.getSoftIrq()));
+		handles.stolen.trace(dbl2longPerc(c.getStolen()));
+		handles.sys.trace(dbl2longPerc(c.getSys()));
+		handles.user.trace(dbl2longPerc(c.getUser()));
+		handles.wait.trace(dbl2longPerc(c.getWait()));					
 	}
 	
 
@@ -410,6 +698,11 @@ public class NativeMonitor extends AbstractMonitor {
 				tracer.traceString(msg, "FileSystemEvents", PLAT, FS_RESOURCE);
 				continue;
 			}
+			FsHandles handles = fsHandles.get(dirName);
+			if(handles==null) {
+				handles = new FsHandles(String.format(FS_NAME, dirName.replace(":\\", "")));
+				fsHandles.put(dirName, handles);
+			}
 			
 			long used = fsu.getUsed();
 			long total = fsu.getTotal();
@@ -417,24 +710,24 @@ public class NativeMonitor extends AbstractMonitor {
 			if(collectionSweep==0 || collectionSweep%fsTimeToFullCollectionSweep==0) {
 				if(fsState[FS_STATE_TS]!=0L) {
 					long secondsUntilFull = timeUntilFull(total, used, now, fsState);
-					tracer.traceGauge(secondsUntilFull, "SecondsToFull", PLAT, FS_RESOURCE, String.format(FS_NAME, dirName.replace(":\\", "")));	
+					handles.secondsToFull.trace(secondsUntilFull);	
 				}
 				fsState[FS_STATE_USED] = used;
 				fsState[FS_STATE_TOTAL] = total;
 				fsState[FS_STATE_TS] = now;
 			}
-			tracer.traceGauge(fsu.getAvail(), "AvailableKb", PLAT, FS_RESOURCE, String.format(FS_NAME, dirName.replace(":\\", "")));
-			tracer.traceDeltaGauge(fsu.getDiskReadBytes(), "DiskReadBytes", PLAT, FS_RESOURCE, String.format(FS_NAME, dirName.replace(":\\", "")));
-			tracer.traceDeltaGauge(fsu.getDiskWriteBytes(), "DiskWriteBytes", PLAT, FS_RESOURCE, String.format(FS_NAME, dirName.replace(":\\", "")));
-			tracer.traceDeltaGauge(fsu.getDiskReads(), "DiskReads", PLAT, FS_RESOURCE, String.format(FS_NAME, dirName.replace(":\\", "")));
-			tracer.traceDeltaGauge(fsu.getDiskWrites(), "DiskWrites", PLAT, FS_RESOURCE, String.format(FS_NAME, dirName.replace(":\\", "")));
+			handles.availableKb.trace(fsu.getAvail());
+			handles.diskReadBytes.trace(fsu.getDiskReadBytes());
+			handles.diskWriteBytes.trace(fsu.getDiskWriteBytes());
+			handles.diskReads.trace(fsu.getDiskReads());
+			handles.diskWrites.trace(fsu.getDiskWrites());
 			
-			tracer.traceGauge(fsu.getFree(), "FreeKb", PLAT, FS_RESOURCE, String.format(FS_NAME, dirName.replace(":\\", "")));
-			tracer.traceGauge(fsu.getTotal(), "TotalKb", PLAT, FS_RESOURCE, String.format(FS_NAME, dirName.replace(":\\", "")));
-			tracer.traceGauge(fsu.getUsed(), "UsedKb", PLAT, FS_RESOURCE, String.format(FS_NAME, dirName.replace(":\\", "")));
-			tracer.traceGauge((long)fsu.getDiskQueue(), "DiskQueue", PLAT, FS_RESOURCE, String.format(FS_NAME, dirName.replace(":\\", "")));
+			handles.freeKb.trace(fsu.getFree());
+			handles.totalKb.trace(fsu.getTotal());
+			handles.usedKb.trace(fsu.getUsed());
+			handles.diskQueue.trace((long)fsu.getDiskQueue());
 			// No impl. for Win
-			tracer.traceGauge((long)fsu.getDiskServiceTime(), "DiskServiceTime", PLAT, FS_RESOURCE, String.format(FS_NAME, dirName.replace(":\\", "")));
+			handles.diskServiceTime.trace((long)fsu.getDiskServiceTime());
 			
 			
 		}
@@ -528,6 +821,7 @@ public class NativeMonitor extends AbstractMonitor {
 		if(!removed.isEmpty()) {
 			for(String removedFs : removed) {
 				fileSystemState.remove(removedFs);
+				fsHandles.remove(removedFs);
 				String msg = "Detected unmounted filesystem [" + removedFs + "]";
 				log(msg);
 				tracer.traceString(msg, "FileSystemEvents", PLAT, FS_RESOURCE);
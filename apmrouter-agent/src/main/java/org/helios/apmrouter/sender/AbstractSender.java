@@ -47,6 +47,7 @@ import org.helios.apmrouter.collections.ConcurrentLongSlidingWindow;
 import org.helios.apmrouter.collections.ILongSlidingWindow;
 import org.helios.apmrouter.jmx.ConfigurationHelper;
 import org.helios.apmrouter.jmx.JMXHelper;
+import org.helios.apmrouter.jmx.mbeanserver.AgentMBeanServerConnectionFactory;
 import org.helios.apmrouter.jmx.ScheduledThreadPoolFactory;
 import org.helios.apmrouter.jmx.ThreadPoolFactory;
 import org.helios.apmrouter.jmx.threadinfo.ExtendedThreadManager;
@@ -60,6 +61,8 @@ import org.helios.apmrouter.sender.netty.handler.ChannelStateListener;
 import org.helios.apmrouter.subscription.MetricURIEvent;
 import org.helios.apmrouter.subscription.MetricURISubscriptionEventListener;
 import org.helios.apmrouter.trace.DirectMetricCollection;
+import org.helios.apmrouter.trace.FQNSegmentDictionary;
+import org.helios.apmrouter.trace.MetricHandle;
 import org.helios.apmrouter.util.RepeatingEventHandler;
 import org.helios.apmrouter.util.SimpleLogger;
 import org.jboss.netty.buffer.ChannelBuffer;
@@ -149,6 +152,12 @@ public abstract class AbstractSender implements AbstractSenderMXBean, ISender,
 	protected final AtomicLong consecutiveTimeouts = new AtomicLong(0);
 	/** The number of tokens received and applied to the catalog */
 	protected final AtomicLong processedTokens = new AtomicLong(0);
+	/** Indicates if the compact metric wire format is enabled for this sender */
+	protected final boolean compactWireEnabled;
+	/** The highest compact wire format version advertised by the server in its last HELLO_CONFIRM, 0 if none */
+	protected volatile int serverCompactVersion = 0;
+	/** The FQN segment dictionary for compact sends on this sender's connection */
+	protected final FQNSegmentDictionary segmentDictionary = new FQNSegmentDictionary();
 
 	/** The metric catalog for token updates */
 	protected final IMetricCatalog metricCatalog;
@@ -193,6 +202,8 @@ public abstract class AbstractSender implements AbstractSenderMXBean, ISender,
 				HBEAT_TO_PROP, DEFAULT_HBEAT_TO);
 		metricUriOpTimeout = ConfigurationHelper.getLongSystemThenEnvProperty(
 				METRIC_URI_TO_PROP, DEFAULT_METRIC_URI_TO);
+		compactWireEnabled = ConfigurationHelper.getBooleanSystemThenEnvProperty(
+				COMPACT_WIRE_PROP, DEFAULT_COMPACT_WIRE);
 		resetPingSchedule();
 		metricCatalog = ICEMetricCatalog.getInstance();
 		final String threadPrefix = "Worker/" + serverURI.getHost() + "/"
@@ -511,6 +522,13 @@ public abstract class AbstractSender implements AbstractSenderMXBean, ISender,
 					listener.onMetricData(jsonResponse);
 				}
 				break;
+			case DATA_BATCH:
+				for (JSONObject data : MetricURIEvent.unbatch(jsonResponse)) {
+					for (MetricURISubscriptionEventListener listener : subListeners) {
+						listener.onMetricData(data);
+					}
+				}
+				break;
 			case NEW_METRIC:
 				for (MetricURISubscriptionEventListener listener : subListeners) {
 					listener.onNewMetric(jsonResponse);
@@ -541,6 +559,87 @@ public abstract class AbstractSender implements AbstractSenderMXBean, ISender,
 		}
 	}
 
+	/**
+	 * Handles an op received from the server. Called by the concrete sender's listener handler once the op code has been read.
+	 * @param opCode The op code of the received op
+	 * @param buff The channel buffer positioned after the op code
+	 * @param channel The channel the op was received on
+	 * @param remoteAddress The remote address of the server
+	 */
+	protected void onServerOp(OpCode opCode, ChannelBuffer buff, Channel channel, SocketAddress remoteAddress) {
+		switch (opCode) {
+			case JMX_REQUEST:
+				AgentMBeanServerConnectionFactory.handleJMXRequest(channel, remoteAddress, buff);
+				break;
+			case JMX_MBS_INQUIRY:
+				AgentMBeanServerConnectionFactory.sendMBeanServerDomains(channel, remoteAddress);
+				break;
+			case RESET:
+				metricCatalog.resetTokens();
+				segmentDictionary.reset();
+				ChannelBuffer rsetConfirm = ChannelBuffers.buffer(1);
+				rsetConfirm.writeByte(OpCode.RESET_CONFIRM.op());
+				senderChannel.write(rsetConfirm, remoteAddress);
+				break;
+			case SEGMENT_RESYNC:
+				// the server missed segment definitions, so start a new epoch. Tokens are still valid.
+				segmentDictionary.reset();
+				break;
+			case CONFIRM_METRIC:
+				int keyLength = buff.readInt();
+				byte[] keyBytes = new byte[keyLength];
+				buff.readBytes(keyBytes);
+				String key = new String(keyBytes);
+				SynchOpSupport.cancelLatch(key);
+				break;
+			case PING_RESPONSE:
+				decodePing(buff);
+				break;
+			case PING:
+				long pingKey = buff.readLong();
+				ChannelBuffer ping = ChannelBuffers.buffer(1+8);
+				ping.writeByte(OpCode.PING_RESPONSE.op());
+				ping.writeLong(pingKey);
+				senderChannel.write(ping, remoteAddress);
+				break;
+			case HELLO_CONFIRM:
+				// servers that decode the compact format append the highest version they accept, older servers send the op code alone
+				serverCompactVersion = buff.readable() ? buff.readByte() : 0;
+				segmentDictionary.reset();
+				SynchOpSupport.cancelLatch("Hello");
+				break;
+			case WHO:
+				byte[] hostBytes = AgentIdentity.ID.getHostName().getBytes();
+				byte[] agentBytes = AgentIdentity.ID.getAgentName().getBytes();
+				ChannelBuffer cb = ChannelBuffers.directBuffer(1 + 4 + 4 + hostBytes.length + agentBytes.length);
+				cb.writeByte(OpCode.WHO_RESPONSE.op());
+				cb.writeInt(hostBytes.length);
+				cb.writeBytes(hostBytes);
+				cb.writeInt(agentBytes.length);
+				cb.writeBytes(agentBytes);
+				log("Sending WHO Response to [" + remoteAddress + "]");
+				channel.write(cb, remoteAddress);
+				break;
+			case SEND_METRIC_TOKEN:
+				int fqnLength = buff.readInt();
+				byte[] bytes = new byte[fqnLength];
+				buff.readBytes(bytes);
+				String fqn = new String(bytes);
+				long token = buff.readLong();
+				metricCatalog.setToken(fqn, token);
+				processedTokens.incrementAndGet();
+				break;
+			case ON_METRIC_URI_EVENT:
+				onMetricURIEvent(buff);
+				break;
+			case METRIC_URI_SUB_CONFIRM:
+			case METRIC_URI_UNSUB_CONFIRM:
+				onMetricURIOpResponse(buff);
+			default:
+				break;
+		}
+	}
+
 	/*
 	 * { "t":"req", "svc":"sub", "op":"start",
 	 * "args":{"es":"jmx","esn":"service:jmx:local://DefaultDomain",
@@ -767,6 +866,24 @@ public abstract class AbstractSender implements AbstractSenderMXBean, ISender,
 	public long getProcessedTokens() {
 		return processedTokens.longValue();
 	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.apmrouter.sender.AbstractSenderMXBean#isCompactWire()
+	 */
+	@Override
+	public boolean isCompactWire() {
+		return compactWireEnabled && serverCompactVersion>=DirectMetricCollection.COMPACT_VERSION;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.apmrouter.sender.AbstractSenderMXBean#getSegmentDictionarySize()
+	 */
+	@Override
+	public int getSegmentDictionarySize() {
+		return segmentDictionary.size();
+	}
 
 	/**
 	 * {@inheritDoc}
@@ -920,6 +1037,16 @@ public abstract class AbstractSender implements AbstractSenderMXBean, ISender,
 		send(DirectMetricCollection.newDirectMetricCollection(metrics));
 	}
 
+	/**
+	 * {@inheritDoc}
+	 * <p>Handle traces submitted directly to a sender are sent as a single metric.</p>
+	 * @see org.helios.apmrouter.trace.MetricSubmitter#submit(org.helios.apmrouter.trace.MetricHandle, long, long)
+	 */
+	@Override
+	public void submit(MetricHandle handle, long time, long value) {
+		submit(handle.newMetric(time, value));
+	}
+
 	/**
 	 * {@inheritDoc}
 	 * 
@@ -930,6 +1057,17 @@ public abstract class AbstractSender implements AbstractSenderMXBean, ISender,
 
 	}
 
+	/**
+	 * {@inheritDoc}
+	 * <p>Returns false by default, for senders that do not track unacknowledged sends.
+	 * 
+	 * @see org.helios.apmrouter.sender.ISender#isSaturated()
+	 */
+	@Override
+	public boolean isSaturated() {
+		return false;
+	}
+
 	/**
 	 * {@inheritDoc}
 	 * 
@@ -53,6 +53,10 @@ public interface AbstractSenderMXBean  {
 	public static final String HBEAT_DISC_PROP = "org.helios.apmrouter.heartbeat.disconnect";
 	/** The default number of consecutive ping failures to trigger a disconnect state */
 	public static final long DEFAULT_HBEAT_DISC = 2;
+	/** The system property name to enable the compact metric wire format when the server supports it */
+	public static final String COMPACT_WIRE_PROP = "org.helios.apmrouter.sender.compact";
+	/** The default compact metric wire format enablement */
+	public static final boolean DEFAULT_COMPACT_WIRE = true;
 
 	/**
 	 * @return
@@ -166,6 +170,18 @@ public interface AbstractSenderMXBean  {
 	 */
 	public long getProcessedTokens();
 	
+	/**
+	 * Indicates if metrics are being sent in the compact wire format
+	 * @return true if compact sends are enabled and the server advertised support for them
+	 */
+	public boolean isCompactWire();
+	
+	/**
+	 * Returns the number of FQN segments in this sender's compact wire dictionary
+	 * @return the number of FQN segments
+	 */
+	public int getSegmentDictionarySize();
+	
 
 
 }
\ No newline at end of file
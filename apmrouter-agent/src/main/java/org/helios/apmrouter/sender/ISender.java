@@ -83,6 +83,13 @@ public interface ISender extends MetricSubmitter {
 	 */
 	public void sendHello();	
 	
+	/**
+	 * Indicates if this sender's window of unacknowledged sends is full, in which case
+	 * further sends will block or be dropped until the server catches up
+	 * @return true if this sender is saturated, false otherwise
+	 */
+	public boolean isSaturated();
+	
 
 	
 	/**
@@ -25,6 +25,7 @@
 package org.helios.apmrouter.sender;
 
 import org.helios.apmrouter.jmx.ConfigurationHelper;
+import org.helios.apmrouter.sender.netty.TCPSender;
 import org.helios.apmrouter.sender.netty.UDPSender;
 
 import java.net.URI;
@@ -96,7 +97,7 @@ public class SenderFactory {
 			}
 		}
 		for(URI uri: endpoints) {
-			senders.put(uri, UDPSender.getInstance(uri));
+			senders.put(uri, "tcp".equalsIgnoreCase(uri.getScheme()) ? TCPSender.getInstance(uri) : UDPSender.getInstance(uri));
 		}
 	}
 	
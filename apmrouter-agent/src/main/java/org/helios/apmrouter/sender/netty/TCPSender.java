@@ -24,35 +24,232 @@
  */
 package org.helios.apmrouter.sender.netty;
 
+import static org.helios.apmrouter.util.Methods.nvl;
+
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.URI;
+import java.nio.channels.ClosedChannelException;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.helios.apmrouter.OpCode;
+import org.helios.apmrouter.collections.ConcurrentLongSlidingWindow;
+import org.helios.apmrouter.collections.ILongSlidingWindow;
+import org.helios.apmrouter.jmx.ConfigurationHelper;
 import org.helios.apmrouter.sender.AbstractSender;
+import org.helios.apmrouter.sender.netty.codec.IMetricEncoder;
 import org.helios.apmrouter.trace.DirectMetricCollection;
+import org.jboss.netty.bootstrap.ClientBootstrap;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelFuture;
+import org.jboss.netty.channel.ChannelFutureListener;
+import org.jboss.netty.channel.ChannelHandlerContext;
 import org.jboss.netty.channel.ChannelPipeline;
 import org.jboss.netty.channel.ChannelState;
 import org.jboss.netty.channel.ChannelStateEvent;
-
-import java.net.URI;
+import org.jboss.netty.channel.Channels;
+import org.jboss.netty.channel.ExceptionEvent;
+import org.jboss.netty.channel.MessageEvent;
+import org.jboss.netty.channel.SimpleChannelUpstreamHandler;
+import org.jboss.netty.channel.socket.nio.NioClientSocketChannelFactory;
+import org.jboss.netty.handler.codec.frame.LengthFieldBasedFrameDecoder;
+import org.jboss.netty.handler.codec.frame.LengthFieldPrepender;
 
 /**
  * <p>Title: TCPSender</p>
- * <p>Description: A Netty TCP sender implementation</p> 
+ * <p>Description: A Netty TCP sender implementation. Every frame on the connection is prefixed with its length.
+ * Metric batches are sent as {@link OpCode#SEND_BATCH} frames carrying a sequence number and are held until the server
+ * returns a {@link OpCode#BATCH_ACK} for that sequence. The number and byte size of unacknowledged batches is bounded,
+ * so a slow or unreachable server blocks senders for up to {@link #getSendTimeout()} and then drops the batch, and
+ * {@link #isSaturated()} tells the collection funnel to hold metrics back. When the connection is lost, the sender
+ * reconnects and resends every unacknowledged batch, so delivery is at-least-once.</p> 
  * <p>Company: Helios Development Group LLC</p>
  * @author Whitehead (nwhitehead AT heliosdev DOT org)
  * <p><code>org.helios.apmrouter.sender.netty.TCPSender</code></p>
  */
 
-public class TCPSender extends AbstractSender {
+public class TCPSender extends AbstractSender implements TCPSenderMXBean {
+	/** The maximum size of a frame received from the server */
+	public static final int MAX_FRAME_SIZE = 10485760;
+	/** The size of the batch header (op code and sequence) */
+	public static final int BATCH_HEADER_SIZE = 1 + 8;
 	
-	public void doSendHello() {
-		
+	/** The netty bootstrap */
+	protected final ClientBootstrap bstrap;
+	/** The unresolved server address to connect to */
+	protected final InetSocketAddress serverAddress;
+	/** The frame length prepender */
+	protected final LengthFieldPrepender framePrepender = new LengthFieldPrepender(4);
+	/** The connected channel, or null if the sender is not connected */
+	protected volatile Channel tcpChannel = null;
+	/** Indicates that a connect is in progress */
+	protected final AtomicBoolean connecting = new AtomicBoolean(false);
+	
+	/** The unacknowledged batches keyed by sequence. Also the monitor senders wait on for the window to open. */
+	protected final ConcurrentSkipListMap<Long, Batch> inFlight = new ConcurrentSkipListMap<Long, Batch>();
+	/** The batch sequence */
+	protected final AtomicLong sequence = new AtomicLong(0L);
+	/** The number of bytes in unacknowledged batches */
+	protected final AtomicLong inFlightBytes = new AtomicLong(0L);
+	/** The maximum number of unacknowledged batches */
+	protected volatile int maxInFlightBatches;
+	/** The maximum number of unacknowledged bytes */
+	protected volatile long maxInFlightBytes;
+	/** The time in ms. a send waits for the window to open */
+	protected volatile long sendTimeout;
+	/** The reconnect period in ms. */
+	protected final long reconnectPeriod;
+	
+	/** Sliding window of batch round trip times in ns. */
+	protected final ILongSlidingWindow roundTrips = new ConcurrentLongSlidingWindow(64);
+	/** The number of acknowledged batches */
+	protected final AtomicLong ackedBatches = new AtomicLong(0L);
+	/** The number of resent batches */
+	protected final AtomicLong resentBatches = new AtomicLong(0L);
+	/** The number of sends that timed out waiting for the window */
+	protected final AtomicLong windowTimeouts = new AtomicLong(0L);
+	/** The number of connects */
+	protected final AtomicLong connects = new AtomicLong(0L);
+	
+	/** The listener handle to handle requests/responses from the server */
+	protected final SimpleChannelUpstreamHandler listenerHandler = new SimpleChannelUpstreamHandler() {
+		@Override
+		public void exceptionCaught(ChannelHandlerContext ctx, ExceptionEvent e) throws Exception {
+			log("[Listener] Caught exception event [" + e.getCause() + "]");
+			if(!(e.getCause() instanceof ClosedChannelException)) {
+				e.getCause().printStackTrace(System.err);
+			}
+			e.getChannel().close();
+		}
+		@Override
+		public void channelClosed(ChannelHandlerContext ctx, ChannelStateEvent e) throws Exception {
+			processDisconnect(e.getChannel());
+			super.channelClosed(ctx, e);
+		}
+		@Override
+		public void messageReceived(ChannelHandlerContext ctx, MessageEvent e) throws Exception {
+			Object msg = e.getMessage();
+			if(msg instanceof ChannelBuffer) {
+				ChannelBuffer buff = (ChannelBuffer)msg;
+				OpCode opCode = OpCode.valueOf(buff.readByte());
+				if(opCode==OpCode.BATCH_ACK) {
+					onAck(buff.readLong());
+				} else {
+					onServerOp(opCode, buff, e.getChannel(), e.getRemoteAddress());
+				}
+			}
+		}
+	};
+	
+	/**
+	 * Returns a built instance of a TCPSender for the passed URI
+	 * @param serverURI The host/port to send to in the form of a URI. e.g. <b><code>tcp://myhostname:2094</code></b>.
+	 * @return a TCPSender
+	 */
+	public static TCPSender getInstance(URI serverURI) {
+		TCPSender sender = (TCPSender) senders.get(nvl(serverURI, "Server URI"));
+		if(sender==null) {
+			synchronized(senders) {
+				sender = (TCPSender) senders.get(serverURI);
+				if(sender==null) {
+					sender = new TCPSender(serverURI);
+					senders.put(serverURI, sender);
+				}
+			}
+		}
+		return sender;
 	}
 
 	/**
 	 * Creates a new TCPSender
 	 * @param serverURI The URI of the server to connect to
 	 */
-	public TCPSender(URI serverURI) {
+	protected TCPSender(URI serverURI) {
 		super(serverURI);
-		// TODO Auto-generated constructor stub
+		serverAddress = socketAddress;
+		maxInFlightBatches = ConfigurationHelper.getIntSystemThenEnvProperty(MAX_INFLIGHT_BATCHES_PROP, DEFAULT_MAX_INFLIGHT_BATCHES);
+		maxInFlightBytes = ConfigurationHelper.getLongSystemThenEnvProperty(MAX_INFLIGHT_BYTES_PROP, DEFAULT_MAX_INFLIGHT_BYTES);
+		sendTimeout = ConfigurationHelper.getLongSystemThenEnvProperty(SEND_TIMEOUT_PROP, DEFAULT_SEND_TIMEOUT);
+		reconnectPeriod = ConfigurationHelper.getLongSystemThenEnvProperty(RECONNECT_PERIOD_PROP, DEFAULT_RECONNECT_PERIOD);
+		channelStateListener.addChannelStateAware(this);
+		channelFactory = new NioClientSocketChannelFactory(workerPool, workerPool);
+		bstrap = new ClientBootstrap(channelFactory);
+		bstrap.setPipelineFactory(this);
+		bstrap.setOption("tcpNoDelay", true);
+		bstrap.setOption("keepAlive", true);
+		connect();
+	}
+	
+	/**
+	 * Starts a connect to the server unless one is already in progress. A failed connect schedules a retry.
+	 */
+	protected void connect() {
+		if(shutdown.get() || tcpChannel!=null) return;
+		if(!connecting.compareAndSet(false, true)) return;
+		bstrap.connect(serverAddress).addListener(new ChannelFutureListener() {
+			@Override
+			public void operationComplete(ChannelFuture future) throws Exception {
+				connecting.set(false);
+				if(future.isSuccess()) {
+					onConnect(future.getChannel());
+				} else {
+					log("Failed to connect to [" + serverAddress + "]:" + future.getCause());
+					scheduleReconnect();
+				}
+			}
+		});
+	}
+	
+	/**
+	 * Schedules a reconnect after the reconnect period
+	 */
+	protected void scheduleReconnect() {
+		if(shutdown.get()) return;
+		scheduler.schedule(new Runnable() {
+			@Override
+			public void run() {
+				connect();
+			}
+		}, reconnectPeriod, TimeUnit.MILLISECONDS);
+	}
+	
+	/**
+	 * Callback when a connect completes. Publishes the channel, announces the agent and resends unacknowledged batches.
+	 * @param channel The connected channel
+	 */
+	protected void onConnect(Channel channel) {
+		socketAddress = (InetSocketAddress)channel.getRemoteAddress();
+		senderChannel = channel;
+		closeGroup.add(channel);
+		// publish the channel before the resend so a concurrent send either writes itself or is resent
+		tcpChannel = channel;
+		connected.set(true);
+		connects.incrementAndGet();
+		log("Connected to [" + socketAddress + "]");
+		sendHello();
+		for(Batch batch: inFlight.values()) {
+			resentBatches.incrementAndGet();
+			write(channel, batch);
+		}
+	}
+	
+	/**
+	 * Executed when a disconnect is detected. Unacknowledged batches are retained for resend.
+	 * @param channel The closed channel
+	 */
+	protected void processDisconnect(Channel channel) {
+		if(channel!=tcpChannel) return;
+		tcpChannel = null;
+		connected.set(false);
+		if(!shutdown.get()) {
+			log("Disconnected from [" + socketAddress + "] with [" + inFlight.size() + "] unacknowledged batches");
+			scheduleReconnect();
+		}
 	}
 
 	/**
@@ -70,7 +267,9 @@ public class TCPSender extends AbstractSender {
 	 */
 	@Override
 	public void onChannelStateEvent(boolean upstream, ChannelStateEvent stateEvent) {
-
+		if(upstream && stateEvent.getValue()==null) {
+			processDisconnect(stateEvent.getChannel());
+		}
 	}
 
 	/**
@@ -79,8 +278,36 @@ public class TCPSender extends AbstractSender {
 	 */
 	@Override
 	public ChannelPipeline getPipeline() {
-		// TODO Auto-generated method stub
-		return null;
+		ChannelPipeline pipeline = Channels.pipeline();
+		pipeline.addLast("frame-decoder", new LengthFieldBasedFrameDecoder(MAX_FRAME_SIZE, 0, 4, 0, 4));
+		pipeline.addLast("frame-encoder", framePrepender);
+		pipeline.addLast("metric-encoder", metricEncoder);
+		pipeline.addLast("listener", listenerHandler);
+		return pipeline;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.apmrouter.sender.AbstractSender#doSendHello()
+	 */
+	@Override
+	public void doSendHello() {
+		Channel channel = tcpChannel;
+		if(channel==null) return;
+		ChannelBuffer cb = ChannelBuffers.buffer(1);
+		cb.writeByte(OpCode.HELLO.op());
+		channel.write(cb);
+	}
+	
+	/**
+	 * <p>Returns false without sending when the sender is not connected.
+	 * {@inheritDoc}
+	 * @see org.helios.apmrouter.sender.AbstractSender#ping(java.net.SocketAddress, long)
+	 */
+	@Override
+	public boolean ping(SocketAddress address, long timeout) {
+		if(senderChannel==null) return false;
+		return super.ping(address, timeout);
 	}
 
 	/**
@@ -89,8 +316,267 @@ public class TCPSender extends AbstractSender {
 	 */
 	@Override
 	public void send(DirectMetricCollection dcm) {
-		// TODO Auto-generated method stub
-
+		if(shutdown.get()) return;
+		if(dcm==null) return;
+		final int mcount = dcm.getMetricCount();
+		final long seq = sequence.incrementAndGet();
+		final ChannelBuffer frame;
+		try {
+			ChannelBuffer header = ChannelBuffers.buffer(BATCH_HEADER_SIZE);
+			header.writeByte(OpCode.SEND_BATCH.op());
+			header.writeLong(seq);
+			frame = ChannelBuffers.wrappedBuffer(header, IMetricEncoder.toWireBuffer(dcm));
+		} finally {
+			dcm.destroy();
+		}
+		Batch batch = new Batch(seq, frame, mcount);
+		if(!enqueue(batch)) {
+			windowTimeouts.incrementAndGet();
+			dropped.addAndGet(mcount);
+			return;
+		}
+		Channel channel = tcpChannel;
+		if(channel!=null) {
+			write(channel, batch);
+		}
+	}
+	
+	/**
+	 * Waits for the in-flight window to open and then adds the passed batch to it
+	 * @param batch The batch to add
+	 * @return true if the batch was added, false if the window did not open within the send timeout
+	 */
+	protected boolean enqueue(Batch batch) {
+		final long deadline = System.currentTimeMillis() + sendTimeout;
+		synchronized(inFlight) {
+			// an empty window always accepts a batch so an oversized batch cannot stall the sender
+			while(!inFlight.isEmpty() && (inFlight.size()>=maxInFlightBatches || inFlightBytes.get() + batch.size > maxInFlightBytes)) {
+				long wait = deadline - System.currentTimeMillis();
+				if(wait<=0) return false;
+				try {
+					inFlight.wait(wait);
+				} catch (InterruptedException iex) {
+					Thread.currentThread().interrupt();
+					return false;
+				}
+			}
+			inFlightBytes.addAndGet(batch.size);
+			inFlight.put(batch.seq, batch);
+		}
+		return true;
+	}
+	
+	/**
+	 * Writes a batch to the passed channel
+	 * @param channel The channel to write to
+	 * @param batch The batch to write
+	 */
+	protected void write(Channel channel, final Batch batch) {
+		batch.sentAt = System.nanoTime();
+		channel.write(batch.frame.duplicate()).addListener(new ChannelFutureListener() {
+			@Override
+			public void operationComplete(ChannelFuture future) throws Exception {
+				if(!future.isSuccess() && future.getCause()!=null && !shutdown.get()) {
+					// the batch stays in flight and is resent on reconnect
+					if(!(future.getCause() instanceof ClosedChannelException)) {
+						future.getCause().printStackTrace(System.err);
+					}
+					future.getChannel().close();
+				}
+			}
+		});
+	}
+	
+	/**
+	 * Callback when the server acknowledges a batch
+	 * @param seq The sequence of the acknowledged batch
+	 */
+	protected void onAck(long seq) {
+		Batch batch = inFlight.remove(seq);
+		if(batch==null) return;  // the ack of a batch that was resent and already acknowledged
+		roundTrips.insert(System.nanoTime() - batch.sentAt);
+		ackedBatches.incrementAndGet();
+		sent.addAndGet(batch.metricCount);
+		synchronized(inFlight) {
+			inFlightBytes.addAndGet(-batch.size);
+			inFlight.notifyAll();
+		}
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.apmrouter.sender.AbstractSender#isSaturated()
+	 */
+	@Override
+	public boolean isSaturated() {
+		return inFlight.size()>=maxInFlightBatches || inFlightBytes.get()>=maxInFlightBytes;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.apmrouter.sender.netty.TCPSenderMXBean#getInFlightBatches()
+	 */
+	@Override
+	public int getInFlightBatches() {
+		return inFlight.size();
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.apmrouter.sender.netty.TCPSenderMXBean#getInFlightBytes()
+	 */
+	@Override
+	public long getInFlightBytes() {
+		return inFlightBytes.get();
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.apmrouter.sender.netty.TCPSenderMXBean#getMaxInFlightBatches()
+	 */
+	@Override
+	public int getMaxInFlightBatches() {
+		return maxInFlightBatches;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.apmrouter.sender.netty.TCPSenderMXBean#setMaxInFlightBatches(int)
+	 */
+	@Override
+	public void setMaxInFlightBatches(int maxInFlightBatches) {
+		if(maxInFlightBatches<1) throw new IllegalArgumentException("Invalid max in-flight batches [" + maxInFlightBatches + "]", new Throwable());
+		this.maxInFlightBatches = maxInFlightBatches;
+		synchronized(inFlight) {
+			inFlight.notifyAll();
+		}
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.apmrouter.sender.netty.TCPSenderMXBean#getMaxInFlightBytes()
+	 */
+	@Override
+	public long getMaxInFlightBytes() {
+		return maxInFlightBytes;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.apmrouter.sender.netty.TCPSenderMXBean#setMaxInFlightBytes(long)
+	 */
+	@Override
+	public void setMaxInFlightBytes(long maxInFlightBytes) {
+		if(maxInFlightBytes<1) throw new IllegalArgumentException("Invalid max in-flight bytes [" + maxInFlightBytes + "]", new Throwable());
+		this.maxInFlightBytes = maxInFlightBytes;
+		synchronized(inFlight) {
+			inFlight.notifyAll();
+		}
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.apmrouter.sender.netty.TCPSenderMXBean#getSendTimeout()
+	 */
+	@Override
+	public long getSendTimeout() {
+		return sendTimeout;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.apmrouter.sender.netty.TCPSenderMXBean#setSendTimeout(long)
+	 */
+	@Override
+	public void setSendTimeout(long sendTimeout) {
+		this.sendTimeout = sendTimeout;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.apmrouter.sender.netty.TCPSenderMXBean#getLastRoundTripNs()
+	 */
+	@Override
+	public long getLastRoundTripNs() {
+		return roundTrips.isEmpty() ? -1L : roundTrips.get(0);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.apmrouter.sender.netty.TCPSenderMXBean#getAverageRoundTripNs()
+	 */
+	@Override
+	public long getAverageRoundTripNs() {
+		return roundTrips.isEmpty() ? -1L : roundTrips.avg();
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.apmrouter.sender.netty.TCPSenderMXBean#getAckedBatches()
+	 */
+	@Override
+	public long getAckedBatches() {
+		return ackedBatches.get();
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.apmrouter.sender.netty.TCPSenderMXBean#getResentBatches()
+	 */
+	@Override
+	public long getResentBatches() {
+		return resentBatches.get();
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.apmrouter.sender.netty.TCPSenderMXBean#getWindowTimeouts()
+	 */
+	@Override
+	public long getWindowTimeouts() {
+		return windowTimeouts.get();
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.apmrouter.sender.netty.TCPSenderMXBean#getConnects()
+	 */
+	@Override
+	public long getConnects() {
+		return connects.get();
+	}
+	
+	/**
+	 * <p>Title: Batch</p>
+	 * <p>Description: An unacknowledged metric batch</p> 
+	 * <p>Company: Helios Development Group LLC</p>
+	 * @author Whitehead (nwhitehead AT heliosdev DOT org)
+	 * <p><code>org.helios.apmrouter.sender.netty.TCPSender.Batch</code></p>
+	 */
+	protected static class Batch {
+		/** The batch sequence */
+		final long seq;
+		/** The encoded batch frame, duplicated for each write */
+		final ChannelBuffer frame;
+		/** The byte size of the frame */
+		final int size;
+		/** The number of metrics in the batch */
+		final int metricCount;
+		/** The nano time of the last write */
+		volatile long sentAt;
+		
+		/**
+		 * Creates a new Batch
+		 * @param seq The batch sequence
+		 * @param frame The encoded batch frame
+		 * @param metricCount The number of metrics in the batch
+		 */
+		Batch(long seq, ChannelBuffer frame, int metricCount) {
+			this.seq = seq;
+			this.frame = frame;
+			this.size = frame.readableBytes();
+			this.metricCount = metricCount;
+		}
 	}
 
 }
@@ -0,0 +1,144 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.apmrouter.sender.netty;
+
+import org.helios.apmrouter.sender.AbstractSenderMXBean;
+
+/**
+ * <p>Title: TCPSenderMXBean</p>
+ * <p>Description: JMX management interface for the {@link TCPSender}</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.apmrouter.sender.netty.TCPSenderMXBean</code></p>
+ */
+
+public interface TCPSenderMXBean extends AbstractSenderMXBean {
+	/** The system property name for the maximum number of unacknowledged batches */
+	public static final String MAX_INFLIGHT_BATCHES_PROP = "org.helios.apmrouter.tcp.inflight.batches";
+	/** The default maximum number of unacknowledged batches */
+	public static final int DEFAULT_MAX_INFLIGHT_BATCHES = 64;
+	/** The system property name for the maximum number of unacknowledged bytes */
+	public static final String MAX_INFLIGHT_BYTES_PROP = "org.helios.apmrouter.tcp.inflight.bytes";
+	/** The default maximum number of unacknowledged bytes */
+	public static final long DEFAULT_MAX_INFLIGHT_BYTES = 4194304;
+	/** The system property name for the time in ms. a send waits for the in-flight window to open */
+	public static final String SEND_TIMEOUT_PROP = "org.helios.apmrouter.tcp.sendtimeout";
+	/** The default time in ms. a send waits for the in-flight window to open */
+	public static final long DEFAULT_SEND_TIMEOUT = 5000;
+	/** The system property name for the reconnect period in ms. */
+	public static final String RECONNECT_PERIOD_PROP = "org.helios.apmrouter.tcp.reconnect";
+	/** The default reconnect period in ms. */
+	public static final long DEFAULT_RECONNECT_PERIOD = 5000;
+	
+	/**
+	 * Returns the number of sent batches that have not been acknowledged
+	 * @return the number of unacknowledged batches
+	 */
+	public int getInFlightBatches();
+	
+	/**
+	 * Returns the number of bytes in sent batches that have not been acknowledged
+	 * @return the number of unacknowledged bytes
+	 */
+	public long getInFlightBytes();
+	
+	/**
+	 * Returns the maximum number of unacknowledged batches
+	 * @return the maximum number of unacknowledged batches
+	 */
+	public int getMaxInFlightBatches();
+	
+	/**
+	 * Sets the maximum number of unacknowledged batches
+	 * @param maxInFlightBatches the maximum number of unacknowledged batches
+	 */
+	public void setMaxInFlightBatches(int maxInFlightBatches);
+	
+	/**
+	 * Returns the maximum number of unacknowledged bytes
+	 * @return the maximum number of unacknowledged bytes
+	 */
+	public long getMaxInFlightBytes();
+	
+	/**
+	 * Sets the maximum number of unacknowledged bytes
+	 * @param maxInFlightBytes the maximum number of unacknowledged bytes
+	 */
+	public void setMaxInFlightBytes(long maxInFlightBytes);
+	
+	/**
+	 * Returns the time in ms. a send waits for the in-flight window to open before the batch is dropped
+	 * @return the send timeout in ms.
+	 */
+	public long getSendTimeout();
+	
+	/**
+	 * Sets the time in ms. a send waits for the in-flight window to open before the batch is dropped
+	 * @param sendTimeout the send timeout in ms.
+	 */
+	public void setSendTimeout(long sendTimeout);
+	
+	/**
+	 * Returns the last batch round trip time in ns.
+	 * @return the last batch round trip time in ns.
+	 */
+	public long getLastRoundTripNs();
+	
+	/**
+	 * Returns a sliding window average of batch round trip times in ns.
+	 * @return the average batch round trip time in ns.
+	 */
+	public long getAverageRoundTripNs();
+	
+	/**
+	 * Returns the number of acknowledged batches
+	 * @return the number of acknowledged batches
+	 */
+	public long getAckedBatches();
+	
+	/**
+	 * Returns the number of batches resent after a reconnect
+	 * @return the number of resent batches
+	 */
+	public long getResentBatches();
+	
+	/**
+	 * Returns the number of sends that timed out waiting for the in-flight window to open
+	 * @return the number of window timeouts
+	 */
+	public long getWindowTimeouts();
+	
+	/**
+	 * Returns the number of successful connects to the server, including the first
+	 * @return the number of connects
+	 */
+	public long getConnects();
+	
+	/**
+	 * Indicates if the in-flight window is full
+	 * @return true if the in-flight window is full
+	 */
+	public boolean isSaturated();
+}
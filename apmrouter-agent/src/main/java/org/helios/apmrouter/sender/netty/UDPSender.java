@@ -25,10 +25,8 @@
 package org.helios.apmrouter.sender.netty;
 
 import org.helios.apmrouter.OpCode;
-import org.helios.apmrouter.jmx.mbeanserver.AgentMBeanServerConnectionFactory;
 import org.helios.apmrouter.metric.AgentIdentity;
 import org.helios.apmrouter.sender.AbstractSender;
-import org.helios.apmrouter.sender.SynchOpSupport;
 import org.helios.apmrouter.trace.DirectMetricCollection;
 import org.helios.apmrouter.trace.DirectMetricCollection.SplitDMC;
 import org.helios.apmrouter.trace.DirectMetricCollection.SplitReader;
@@ -42,10 +40,8 @@ import org.jboss.netty.handler.logging.LoggingHandler;
 import org.jboss.netty.logging.InternalLogLevel;
 
 import java.net.InetSocketAddress;
-import java.net.SocketAddress;
 import java.net.URI;
 import java.nio.channels.ClosedChannelException;
-import java.util.concurrent.CountDownLatch;
 
 import static org.helios.apmrouter.util.Methods.nvl;
 
@@ -62,6 +58,8 @@ public class UDPSender extends AbstractSender  {
 	
 	/** The maximum size of the payload this sender can reliably expect to be transmitted */
 	public static final int MAXSIZE = 1024;
+	/** The server URI query key specifying the number of consecutive listener ports the server is bound to */
+	public static final String PORTS_QUERY_KEY = "ports";
 	
 	/** The netty bootstrap */
 	protected final ConnectionlessBootstrap bstrap;
@@ -84,72 +82,7 @@ public class UDPSender extends AbstractSender  {
 				Object msg = e.getMessage();
 				if(msg instanceof ChannelBuffer) {
 					ChannelBuffer buff = (ChannelBuffer)msg;
-					OpCode opCode = OpCode.valueOf(buff.readByte());	
-					switch (opCode) {
-						case JMX_REQUEST:
-							AgentMBeanServerConnectionFactory.handleJMXRequest(e.getChannel(), e.getRemoteAddress(), buff);
-							break;
-						case JMX_MBS_INQUIRY:
-							AgentMBeanServerConnectionFactory.sendMBeanServerDomains(e.getChannel(), e.getRemoteAddress());
-							break;
-						case RESET:
-							metricCatalog.resetTokens();
-							ChannelBuffer rsetConfirm = ChannelBuffers.buffer(1);
-							rsetConfirm.writeByte(OpCode.RESET_CONFIRM.op());
-							senderChannel.write(rsetConfirm,e.getRemoteAddress());														
-							break;
-						case CONFIRM_METRIC:							
-							int keyLength = buff.readInt();
-							byte[] keyBytes = new byte[keyLength];
-							buff.readBytes(keyBytes);
-							String key = new String(keyBytes);
-							SynchOpSupport.cancelLatch(key);
-							break;
-						case PING_RESPONSE:							
-							decodePing(buff);
-							break;
-						case PING:							
-							long pingKey = buff.readLong();
-							ChannelBuffer ping = ChannelBuffers.buffer(1+8);
-							ping.writeByte(OpCode.PING_RESPONSE.op());
-							ping.writeLong(pingKey);
-							senderChannel.write(ping,e.getRemoteAddress());							
-							break;
-						case HELLO_CONFIRM:
-							SynchOpSupport.cancelLatch("Hello");
-							break;
-						case WHO:
-							byte[] hostBytes = AgentIdentity.ID.getHostName().getBytes();
-							byte[] agentBytes = AgentIdentity.ID.getAgentName().getBytes();
-							ChannelBuffer cb = ChannelBuffers.directBuffer(1 + 4 + 4 + hostBytes.length + agentBytes.length);
-							cb.writeByte(OpCode.WHO_RESPONSE.op());
-							cb.writeInt(hostBytes.length);
-							cb.writeBytes(hostBytes);
-							cb.writeInt(agentBytes.length);
-							cb.writeBytes(agentBytes);
-							SocketAddress sa = e.getRemoteAddress();
-							log("Sending WHO Response to [" + sa + "]");
-							e.getChannel().write(cb, sa);
-							//AgentMBeanServerConnectionFactory.sendMBeanServerDomains(e.getChannel(), e.getRemoteAddress());
-							break;
-						case SEND_METRIC_TOKEN:
-							int fqnLength = buff.readInt();
-							byte[] bytes = new byte[fqnLength];
-							buff.readBytes(bytes);
-							String fqn = new String(bytes);
-							long token = buff.readLong();
-							metricCatalog.setToken(fqn, token);		
-							processedTokens.incrementAndGet();
-							break;
-						case ON_METRIC_URI_EVENT:											
-							onMetricURIEvent(buff); 
-							break;						
-						case METRIC_URI_SUB_CONFIRM:
-						case METRIC_URI_UNSUB_CONFIRM:
-							onMetricURIOpResponse(buff);
-						default:
-							break;
-					}
+					onServerOp(OpCode.valueOf(buff.readByte()), buff, e.getChannel(), e.getRemoteAddress());
 				}
 			}
 		}
@@ -189,7 +122,7 @@ public class UDPSender extends AbstractSender  {
 	 */
 	private UDPSender(final URI serverURI) {
 		super(serverURI);
-		
+		socketAddress = hashPort(serverURI);
 				
 		//InternalLoggerFactory.setDefaultFactory(new Slf4JLoggerFactory());
 		channelStateListener.addChannelStateAware(this);
@@ -199,7 +132,7 @@ public class UDPSender extends AbstractSender  {
 		bstrap.setPipelineFactory(this);
 		bstrap.setOption("broadcast", true);
 		bstrap.setOption("localAddress", new InetSocketAddress(0));
-		bstrap.setOption("remoteAddress", new InetSocketAddress(serverURI.getHost(), serverURI.getPort()));
+		bstrap.setOption("remoteAddress", socketAddress);
 		bstrap.setOption("receiveBufferSizePredictorFactory", new FixedReceiveBufferSizePredictorFactory(2048));
 		
 		listeningSocketAddress = new InetSocketAddress("0.0.0.0", 0);
@@ -238,6 +171,37 @@ public class UDPSender extends AbstractSender  {
 	}
 	
 	
+	/**
+	 * Determines the server socket address this agent should send to. When the server URI specifies a
+	 * <b><code>ports=N</code></b> query (e.g. <b><code>udp://myhostname:2094?ports=4</code></b>), the server
+	 * is listening on <b><code>N</code></b> consecutive ports starting at the URI port and this agent
+	 * picks one of them by hashing its host and agent name, so a fleet of agents spreads across the listener channels
+	 * while each agent consistently lands on the same one.
+	 * @param serverURI The server URI
+	 * @return the socket address to send to
+	 */
+	protected static InetSocketAddress hashPort(URI serverURI) {
+		int ports = 1;
+		String query = serverURI.getQuery();
+		if(query!=null) {
+			for(String frag: query.split("&")) {
+				int index = frag.indexOf('=');
+				if(index!=-1 && PORTS_QUERY_KEY.equalsIgnoreCase(frag.substring(0, index).trim())) {
+					try {
+						ports = Integer.parseInt(frag.substring(index+1).trim());
+					} catch (NumberFormatException nfe) {
+						throw new IllegalArgumentException("Invalid ports option [" + frag + "] in server URI [" + serverURI + "]", new Throwable());
+					}
+				}
+			}
+		}
+		if(ports<1) throw new IllegalArgumentException("Invalid ports option [" + ports + "] in server URI [" + serverURI + "]", new Throwable());
+		if(ports==1) return new InetSocketAddress(serverURI.getHost(), serverURI.getPort());
+		int h = (AgentIdentity.ID.getHostName() + ":" + AgentIdentity.ID.getAgentName()).hashCode();
+		h ^= (h >>> 16);
+		return new InetSocketAddress(serverURI.getHost(), serverURI.getPort() + ((h & Integer.MAX_VALUE) % ports));
+	}
+	
 	/**
 	 * {@inheritDoc}
 	 * @see org.helios.apmrouter.sender.netty.handler.ChannelStateAware#getInterestedChannelStates()
@@ -297,6 +261,10 @@ public class UDPSender extends AbstractSender  {
 	public void send(final DirectMetricCollection dcm) {
 		if(shutdown.get()) return;
 		if(dcm==null) return;
+		if(isCompactWire()) {
+			sendCompact(dcm);
+			return;
+		}
 		final int METRIC_COUNT = dcm.getMetricCount(); 
 		try {
 			if(dcm.getSize()<MAXSIZE) {
@@ -380,4 +348,46 @@ public class UDPSender extends AbstractSender  {
 
 
 
+	/**
+	 * Sends the DCM in the compact wire format, one datagram per batch of up to {@link #MAXSIZE} bytes.
+	 * The segment dictionary is held until the batches are written so segment definitions go out before their references.
+	 * @param dcm The DCM to send
+	 */
+	protected void sendCompact(final DirectMetricCollection dcm) {
+		final int metricCount = dcm.getMetricCount();
+		int batched = 0;
+		try {
+			synchronized(segmentDictionary) {
+				for(ChannelBuffer batch: dcm.toCompactBuffers(MAXSIZE, segmentDictionary)) {
+					final int mcount = batch.getInt(DirectMetricCollection.COMPACT_COUNT_OFFSET);
+					batched += mcount;
+					senderChannel.write(batch, socketAddress).addListener(new ChannelFutureListener() {
+						public void operationComplete(ChannelFuture future) throws Exception {
+							if(future.isSuccess()) {
+								sent.addAndGet(mcount);
+							} else if(future.getCause()!=null && !shutdown.get()) {
+								if(future.getCause() instanceof ClosedChannelException) {
+									log("SenderFactory Channel Disconnected");
+									processDisconnect();
+								} else {
+									future.getCause().printStackTrace(System.err);
+								}
+							}
+						}
+					});
+				}
+			}
+			dropped.addAndGet(metricCount-batched);
+		} catch (Exception cce) {
+			if(cce instanceof ClosedChannelException) {
+				log("SenderFactory Channel Disconnected");
+				processDisconnect();
+			} else {
+				cce.printStackTrace(System.err);
+			}
+		} finally {
+			dcm.destroy();
+		}
+	}
+
 }
@@ -49,15 +49,24 @@ public class IMetricEncoder extends OneToOneEncoder {
 	@Override
 	protected Object encode(ChannelHandlerContext ctx, Channel channel, Object msg) throws Exception {
 		if(msg instanceof DirectMetricCollection) {
-			ChannelBuffer cb = ((DirectMetricCollection)msg).toChannelBuffer();
-			cb.setByte(DirectMetricCollection.BYTE_ORDER_OFFSET, cb.getByte(DirectMetricCollection.BYTE_ORDER_OFFSET)==DirectMetricCollection.BYTE_ZERO ? DirectMetricCollection.BYTE_ONE : DirectMetricCollection.BYTE_ZERO);
-			return cb;
+			return toWireBuffer((DirectMetricCollection)msg);
 		} else if(msg instanceof ChannelBuffer) {
 			return msg;
 		}
 		return null;
 	}
 	
+	/**
+	 * Writes the passed DMC to a channel buffer in the wire format expected by the server
+	 * @param dmc The DMC to write
+	 * @return the loaded channel buffer
+	 */
+	public static ChannelBuffer toWireBuffer(DirectMetricCollection dmc) {
+		ChannelBuffer cb = dmc.toChannelBuffer();
+		cb.setByte(DirectMetricCollection.BYTE_ORDER_OFFSET, cb.getByte(DirectMetricCollection.BYTE_ORDER_OFFSET)==DirectMetricCollection.BYTE_ZERO ? DirectMetricCollection.BYTE_ONE : DirectMetricCollection.BYTE_ZERO);
+		return cb;
+	}
+	
 	/**
 	 * @param ctx
 	 * @param e
@@ -28,6 +28,9 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 
+import org.json.JSONArray;
+import org.json.JSONObject;
+
 /**
  * <p>Title: MetricURIEvent</p>
  * <p>Description: Enumerates the metric URI subscription events</p> 
@@ -48,7 +51,9 @@ public enum MetricURIEvent {
 	/** Data for a subscribed metric has been received */
 	DATA("metric.event.data"),
 	/** Synchronous MetricURI Op Response  */
-	SYNCH_METRIC_URI_OP_RESP("metric.event.synch.response");	
+	SYNCH_METRIC_URI_OP_RESP("metric.event.synch.response"),
+	/** A window of coalesced data events for subscribed metrics, one {@link #DATA} event per array element in the msg */
+	DATA_BATCH("metric.event.data.batch");
 	
 	
 	/** A decode map from the event name to the MetricURIEvent */
@@ -120,6 +125,24 @@ public enum MetricURIEvent {
 		return ev;
 	}
 	
+	/**
+	 * Splits a {@link #DATA_BATCH} response into one {@link #DATA} response per batched data event
+	 * @param batch The batch response
+	 * @return an array of data responses
+	 * @throws Exception thrown if the batch response is malformed
+	 */
+	public static JSONObject[] unbatch(JSONObject batch) throws Exception {
+		JSONArray events = batch.getJSONArray("msg");
+		String[] names = JSONObject.getNames(batch);
+		JSONObject[] responses = new JSONObject[events.length()];
+		for(int i = 0; i < responses.length; i++) {
+			responses[i] = new JSONObject(batch, names);
+			responses[i].put("t", DATA.eventName);
+			responses[i].put("msg", events.get(i));
+		}
+		return responses;
+	}
+	
 	
 	
 //	/** The JMX notification type for new metric events */
@@ -35,6 +35,7 @@ import java.util.Collection;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * <p>Title: CollectionFunnel</p>
@@ -59,14 +60,18 @@ public class CollectionFunnel implements RejectedExecutionHandler, MetricSubmitt
 	private final int maxDmcMetrics;	
 	/** The size of the switch queue */
 	private final int switchQueueSize;
-	/** The DCM switch that causes messages to be queued while the current DCM is being flushed */
-	private final AtomicBoolean switchToQueue = new AtomicBoolean(false);
+	/** The flush guard, ensuring only one thread gathers the stripes at a time */
+	private final AtomicBoolean flushing = new AtomicBoolean(false);
 	/** The number of metrics dropped while trying to queue */
 	private final AtomicLong dropped = new AtomicLong(0L);
 	/** The number of metrics queued */
 	private final AtomicLong queued = new AtomicLong(0L);	
 	/** The number of metrics sent */
 	private final AtomicLong sent = new AtomicLong(0L);
+	/** The number of flushes deferred because the sender was saturated */
+	private final AtomicLong backPressured = new AtomicLong(0L);
+	/** The number of submissions diverted to the offline queue because every stripe was busy */
+	private final AtomicLong contended = new AtomicLong(0L);
 	/** The send thread pool */
 	private final ThreadPoolExecutor executor; 
 	/** The sender, for synchronous sends */
@@ -75,10 +80,12 @@ public class CollectionFunnel implements RejectedExecutionHandler, MetricSubmitt
 
 	/** The timestamp of the last flush */
 	private volatile long lastFlush;
-	/** The current DCM */
-	private DirectMetricCollection dmc = null;
+	/** The staging stripes tracing threads append to */
+	private final Stripe[] stripes;
+	/** The mask applied to a thread id to select its home stripe */
+	private final int stripeMask;
 	
-	/** The switch queue that metrics are written to while the dmc is being flushed */
+	/** The switch queue that metrics are written to when no stripe can be acquired or the sender is saturated */
 	private final BlockingQueue<IMetric[]> offLineQueue;
 	
 	/**
@@ -127,21 +134,83 @@ public class CollectionFunnel implements RejectedExecutionHandler, MetricSubmitt
 	@Override
 	public void submit(IMetric...metrics) {
 		if(metrics.length<1) return;
-		if(switchToQueue.get()) {
-			if(!offLineQueue.offer(metrics)) {
-				dropped.addAndGet(metrics.length);
-			} else {
-				queued.addAndGet(metrics.length);
+		// while the sender is saturated, metrics are held in the bounded offline queue
+		Stripe stripe = sender.isSaturated() ? null : acquireStripe();
+		if(stripe==null) {
+			enqueue(metrics);
+			return;
+		}
+		DirectMetricCollection full = null;
+		try {
+			if(stripe.dmc.append(maxDmcBytes, maxDmcMetrics, metrics)) {
+				full = stripe.rotate();
 			}
-		} else {
-			synchronized(switchToQueue) {				
-				if(dmc.append(maxDmcBytes, maxDmcMetrics, metrics)) {
-					flush();
-				}
+		} finally {
+			stripe.release();
+		}
+		if(full!=null) sendFull(full);
+	}
+	
+	/**
+	 * Writes a handle traced value straight into the calling thread's stripe. Falls back to a metric instance when no stripe 
+	 * can be acquired or the sender is saturated, since the offline queue holds metrics.
+	 * @param handle The handle the value was traced through
+	 * @param time The metric timestamp
+	 * @param value The metric value
+	 */
+	@Override
+	public void submit(MetricHandle handle, long time, long value) {
+		Stripe stripe = sender.isSaturated() ? null : acquireStripe();
+		if(stripe==null) {
+			enqueue(handle.newMetric(time, value));
+			return;
+		}
+		DirectMetricCollection full = null;
+		try {
+			if(stripe.dmc.appendLong(maxDmcBytes, maxDmcMetrics, handle.getType(), handle.getToken(), handle.getFQNBytes(), time, value)) {
+				full = stripe.rotate();
 			}
+		} finally {
+			stripe.release();
+		}
+		if(full!=null) sendFull(full);
+	}
+	
+	/**
+	 * Acquires a stripe for the calling thread without blocking, starting at the thread's home stripe and probing the rest once.
+	 * @return the acquired stripe or null if every stripe was busy
+	 */
+	protected Stripe acquireStripe() {
+		final int home = (int)Thread.currentThread().getId();
+		for(int i = 0; i < stripes.length; i++) {
+			Stripe stripe = stripes[(home + i) & stripeMask];
+			if(stripe.tryAcquire()) return stripe;
+		}
+		contended.incrementAndGet();
+		return null;
+	}
+	
+	/**
+	 * Offers the passed metrics to the offline queue, counting them as queued or dropped
+	 * @param metrics The metrics to queue
+	 */
+	protected void enqueue(IMetric...metrics) {
+		if(!offLineQueue.offer(metrics)) {
+			dropped.addAndGet(metrics.length);
+		} else {
+			queued.addAndGet(metrics.length);
 		}
 	}
 	
+	/**
+	 * Sends a DMC a tracing thread rotated out of its stripe and wakes the timer thread to replace the stripe's spare
+	 * @param full The full DMC
+	 */
+	protected void sendFull(DirectMetricCollection full) {
+		sendDcm(full);
+		LockSupport.unpark(timerThread);
+	}
+	
 	/**
 	 * Resets the sent and dropped localStats
 	 */
@@ -150,6 +219,8 @@ public class CollectionFunnel implements RejectedExecutionHandler, MetricSubmitt
 		dropped.set(0L);
 		sent.set(0L);
 		queued.set(0);
+		backPressured.set(0L);
+		contended.set(0L);
 	}
 	
 	
@@ -165,39 +236,75 @@ public class CollectionFunnel implements RejectedExecutionHandler, MetricSubmitt
 	
 	
 	/**
-	 * Flushes the current DCM
+	 * Refills the spare DMC of any stripe that rotated since the last pass, so tracing threads never allocate one
+	 */
+	protected void replenishSpares() {
+		for(Stripe stripe: stripes) {
+			if(stripe.spare==null) {
+				DirectMetricCollection spare = DirectMetricCollection.newDirectMetricCollection();
+				stripe.acquire();
+				try {
+					if(stripe.spare==null) {
+						stripe.spare = spare;
+						spare = null;
+					}
+				} finally {
+					stripe.release();
+				}
+				if(spare!=null) spare.destroy();
+			}
+		}
+	}
+	
+	/**
+	 * Gathers and sends the staged DMC of every stripe, then drains the offline queue
 	 */
 	protected void flush() {
-		if(switchToQueue.compareAndSet(false, true)) {
+		if(sender.isSaturated()) {
+			backPressured.incrementAndGet();
+			return;
+		}
+		if(flushing.compareAndSet(false, true)) {
 			try {
-				DirectMetricCollection toSend = null;				
-				if(dmc.getMetricCount()>0) {
-					toSend = dmc;
-					dmc = DirectMetricCollection.newDirectMetricCollection();
-					switchToQueue.set(false);
-					sendDcm(toSend);
-				}							
+				for(Stripe stripe: stripes) {
+					DirectMetricCollection toSend = null;
+					stripe.acquire();
+					try {
+						if(stripe.dmc.getMetricCount()>0) {
+							toSend = stripe.rotate();
+						}
+					} finally {
+						stripe.release();
+					}
+					if(toSend!=null) sendDcm(toSend);
+				}
 				drainQueue();
+				replenishSpares();
 			} finally {
 				lastFlush = SystemClock.time();
-				switchToQueue.compareAndSet(true, false);
+				flushing.set(false);
 			}
 		}
 	}
 	
 	/**
-	 * Drains the offline queue once the main DCM comes back online after a flush.
+	 * Drains the offline queue into new DMCs after the stripes have been gathered.
 	 */
 	protected void drainQueue() {
 		if(!offLineQueue.isEmpty()) {
 			IMetric[] metrics = null;
 			DirectMetricCollection toSend = DirectMetricCollection.newDirectMetricCollection();
-			while((metrics=offLineQueue.poll())!=null) {
+			while(!sender.isSaturated() && (metrics=offLineQueue.poll())!=null) {
 				if(toSend.append(maxDmcBytes, maxDmcMetrics, metrics)) {
 					sendDcm(toSend);
 					toSend = DirectMetricCollection.newDirectMetricCollection();
 				}
 			}
+			if(toSend.getMetricCount()>0) {
+				sendDcm(toSend);
+			} else {
+				toSend.destroy();
+			}
 		}
 	}
 	
@@ -253,6 +360,30 @@ public class CollectionFunnel implements RejectedExecutionHandler, MetricSubmitt
 		return queued.get();
 	}
 	
+	/**
+	 * Returns the number of flushes deferred because the sender was saturated
+	 * @return the number of deferred flushes
+	 */
+	public long getBackPressured() {
+		return backPressured.get();
+	}
+	
+	/**
+	 * Returns the number of submissions diverted to the offline queue because every stripe was busy
+	 * @return the number of contended submissions
+	 */
+	public long getContended() {
+		return contended.get();
+	}
+	
+	/**
+	 * Returns the number of staging stripes
+	 * @return the number of staging stripes
+	 */
+	public int getStripeCount() {
+		return stripes.length;
+	}
+	
 	
 	/**
 	 * Returns the timer flush period in ms.
@@ -263,10 +394,22 @@ public class CollectionFunnel implements RejectedExecutionHandler, MetricSubmitt
 	}
 	
 	private CollectionFunnel() {
-		timerPeriod = 3000;
-		maxDmcBytes = 10240  * 10;
-		maxDmcMetrics = 100 * 100;
-		switchQueueSize = 1000;
+		this(SenderFactory.getInstance().getDefaultSender(), 3000, 10240  * 10, 100 * 100, 1000);
+	}
+	
+	/**
+	 * Creates a new CollectionFunnel
+	 * @param sender The sender to check for saturation and to send metrics directly with
+	 * @param timerPeriod The timer flush period in ms.
+	 * @param maxDmcBytes The maximum size in bytes of a DMC before it is flushed
+	 * @param maxDmcMetrics The maximum number of metrics in a DMC before it is flushed
+	 * @param switchQueueSize The size of the offline queue
+	 */
+	protected CollectionFunnel(ISender sender, long timerPeriod, int maxDmcBytes, int maxDmcMetrics, int switchQueueSize) {
+		this.timerPeriod = timerPeriod;
+		this.maxDmcBytes = maxDmcBytes;
+		this.maxDmcMetrics = maxDmcMetrics;
+		this.switchQueueSize = switchQueueSize;
 		executor = new ThreadPoolFactory(
 				ManagementFactory.getOperatingSystemMXBean().getAvailableProcessors()/2,
 				ManagementFactory.getOperatingSystemMXBean().getAvailableProcessors(),
@@ -278,15 +421,24 @@ public class CollectionFunnel implements RejectedExecutionHandler, MetricSubmitt
 				getClass().getPackage().getName(), 
 				"CollectionFunnel"				
 		);
-		sender = SenderFactory.getInstance().getDefaultSender();
+		this.sender = sender;
 		executor.allowCoreThreadTimeOut(false);
 		offLineQueue = new ArrayBlockingQueue<IMetric[]>(switchQueueSize, false);
+		int stripeCount = Integer.highestOneBit(Math.max(1, ManagementFactory.getOperatingSystemMXBean().getAvailableProcessors()*2-1)) << 1;
+		stripes = new Stripe[Math.min(stripeCount, 64)];
+		stripeMask = stripes.length-1;
+		for(int i = 0; i < stripes.length; i++) {
+			stripes[i] = new Stripe();
+		}
 		timerThread = new Thread("CollectionFunnelTimer") {
 			@Override
 			public void run() {
+				final long periodNanos = TimeUnit.NANOSECONDS.convert(timerPeriod, TimeUnit.MILLISECONDS);
 				while(true) {
 					try {
-						SystemClock.sleep(timerPeriod);
+						// woken early when a tracing thread rotates a full stripe
+						LockSupport.parkNanos(this, periodNanos);
+						replenishSpares();
 						timerFlush();
 					} catch (Exception e) {}
 				}
@@ -295,7 +447,71 @@ public class CollectionFunnel implements RejectedExecutionHandler, MetricSubmitt
 		timerThread.setPriority(Thread.MAX_PRIORITY);
 		timerThread.setDaemon(true);
 		timerThread.start();
-		dmc = DirectMetricCollection.newDirectMetricCollection();
+	}
+	
+	/**
+	 * <p>Title: Stripe</p>
+	 * <p>Description: A staging slot holding the DMC that tracing threads append to, and a spare to rotate in when it fills.
+	 * Ownership is taken with a CAS, so a tracing thread that finds its stripe busy moves on to the next one instead of blocking.</p> 
+	 * <p>Company: Helios Development Group LLC</p>
+	 * @author Whitehead (nwhitehead AT heliosdev DOT org)
+	 * <p><code>org.helios.apmrouter.trace.CollectionFunnel.Stripe</code></p>
+	 */
+	protected static class Stripe {
+		/** The ownership flag */
+		private final AtomicBoolean busy = new AtomicBoolean(false);
+		/** The DMC being appended to, accessed only by the owner */
+		private DirectMetricCollection dmc = DirectMetricCollection.newDirectMetricCollection();
+		/** The pre-allocated DMC rotated in when the current one is taken, or null if it has been used */
+		private DirectMetricCollection spare = DirectMetricCollection.newDirectMetricCollection();
+		
+		/**
+		 * Attempts to take ownership of this stripe without blocking
+		 * @return true if ownership was acquired
+		 */
+		boolean tryAcquire() {
+			return !busy.get() && busy.compareAndSet(false, true);
+		}
+		
+		/**
+		 * Takes ownership of this stripe, yielding while a tracing thread holds it. Only called by the flushing thread.
+		 */
+		void acquire() {
+			while(!busy.compareAndSet(false, true)) {
+				Thread.yield();
+			}
+		}
+		
+		/**
+		 * Releases ownership of this stripe
+		 */
+		void release() {
+			busy.set(false);
+		}
+		
+		/**
+		 * Swaps the spare in for the current DMC and returns the current one. If the spare has already been used, a new DMC is allocated.
+		 * Must be called by the owner.
+		 * @return the DMC that was rotated out
+		 */
+		DirectMetricCollection rotate() {
+			DirectMetricCollection out = dmc;
+			if(spare!=null) {
+				dmc = spare;
+				spare = null;
+			} else {
+				dmc = DirectMetricCollection.newDirectMetricCollection();
+			}
+			return out;
+		}
+		
+		/**
+		 * Returns the number of metrics staged in this stripe. Must be called by the owner.
+		 * @return the number of staged metrics
+		 */
+		int getStagedCount() {
+			return dmc.getMetricCount();
+		}
 	}
 	
 	/**
@@ -342,8 +558,8 @@ public class CollectionFunnel implements RejectedExecutionHandler, MetricSubmitt
 	
 	public String status() {
 		return String
-				.format("CollectionFunnel Status[\n\tDropped=%s \n\tSent=%s, \n\tQueued=%s \n\tTimerPeriod=%s \n\tCorePoolSize=%s \n\tMaximumPoolSize=%s \n\tPoolSize=%s \n\tActiveCount=%s \n\tLargestPoolSize=%s \n\tTaskCount=%s \n\tCompletedTaskCount=%s\n]",
-						getDroppedMetrics(), getSentMetrics(), getQueued(), getTimerPeriod(),
+				.format("CollectionFunnel Status[\n\tDropped=%s \n\tSent=%s, \n\tQueued=%s \n\tContended=%s \n\tStripes=%s \n\tTimerPeriod=%s \n\tCorePoolSize=%s \n\tMaximumPoolSize=%s \n\tPoolSize=%s \n\tActiveCount=%s \n\tLargestPoolSize=%s \n\tTaskCount=%s \n\tCompletedTaskCount=%s\n]",
+						getDroppedMetrics(), getSentMetrics(), getQueued(), getContended(), getStripeCount(), getTimerPeriod(),
 						getCorePoolSize(), getMaximumPoolSize(), getPoolSize(),
 						getActiveCount(), getLargestPoolSize(), getTaskCount(),
 						getCompletedTaskCount());
@@ -356,11 +572,18 @@ public class CollectionFunnel implements RejectedExecutionHandler, MetricSubmitt
 	 */
 	@Override
 	public long getQueuedMetrics() {
-		try {
-			return dmc.getMetricCount();
-		} catch (Exception e) {
-			return 0;
+		long staged = 0;
+		for(Stripe stripe: stripes) {
+			// skip busy stripes rather than stall a tracing thread
+			if(stripe.tryAcquire()) {
+				try {
+					staged += stripe.getStagedCount();
+				} finally {
+					stripe.release();
+				}
+			}
 		}
+		return staged;
 	}
 
 	
@@ -74,6 +74,25 @@ public class DirectMetricCollection implements Runnable {
     /** The offset from the address where the DCM metric count is */
     public static final int COUNT_OFFSET = 6;
     
+    /** The highest compact wire format version written and decoded by this class */
+    public static final byte COMPACT_VERSION = 1;
+    /** The offset of the format version byte in a compact batch */
+    public static final int COMPACT_VERSION_OFFSET = 1;
+    /** The offset of the FQN segment dictionary epoch in a compact batch */
+    public static final int COMPACT_EPOCH_OFFSET = 2;
+    /** The offset of the metric count in a compact batch */
+    public static final int COMPACT_COUNT_OFFSET = 6;
+    /** The offset of the base timestamp in a compact batch */
+    public static final int COMPACT_BASE_TIME_OFFSET = 10;
+    /** The offset where the records start in a compact batch */
+    public static final int COMPACT_METRIC_OFFSET = 18;
+    /** The mask for the metric type ordinal in a compact record's flags */
+    private static final int COMPACT_TYPE_MASK = 0x1F;
+    /** The compact record flag indicating the record carries a token */
+    private static final int COMPACT_TOKEN_FLAG = 0x20;
+    /** The compact record flag indicating the record carries a TXContext */
+    private static final int COMPACT_TX_FLAG = 0x40;
+    
     /** Zero byte literal */
     public static final byte BYTE_ZERO = 0;
     /** One byte literal */
@@ -196,6 +215,42 @@ public class DirectMetricCollection implements Runnable {
     	return isFull(maxByteSize, maxMetricCount);
     }
     
+    /**
+     * Appends one long type metric record without an {@link IMetric}. Used by {@link MetricHandle} traces, which have the token or FQN bytes on hand.
+     * @param maxByteSize The maximum number of bytes
+     * @param maxMetricCount The maximum number of metrics
+     * @param type The long metric type
+     * @param token The metric token, or -1 if the metric has not been tokenized
+     * @param fqnBytes The metric FQN bytes, written only when the token is -1
+     * @param time The metric timestamp
+     * @param value The metric value
+     * @return true if the DMC is full after this operation, false otherwise
+     */
+    public boolean appendLong(int maxByteSize, int maxMetricCount, MetricType type, long token, byte[] fqnBytes, long time, long value) {
+    	_check();
+    	// size, type, token flag, token or FQN, time, value, TX flag
+    	final int recordSize = 4 + 1 + 1 + (token!=-1 ? 8 : 4 + fqnBytes.length) + 8 + 8 + 1;
+    	while(size + recordSize > capacity) extend();
+    	final int currentSize = size;
+    	writeInt(recordSize);
+    	writeByte((byte)type.ordinal());
+    	if(token!=-1) {
+    		writeByte(BYTE_ONE);
+    		writeLong(token);
+    	} else {
+    		writeByte(BYTE_ZERO);
+    		writeInt(fqnBytes.length);
+    		writeBytes(fqnBytes);
+    	}
+    	writeLong(time);
+    	writeLong(value);
+    	writeByte(BYTE_ZERO);
+    	unsafe.putInt(address + currentSize, size - currentSize);
+    	setSize(size);
+    	updateCount();
+    	return isFull(maxByteSize, maxMetricCount);
+    }
+    
     /**
      * Overrides the opCode
      * @param opCode The op code to set to
@@ -365,18 +420,303 @@ public class DirectMetricCollection implements Runnable {
      * FIXME: the order of ints and longs is wrong when we do this
      */
     public static DirectMetricCollection fromChannelBuffer(ChannelBuffer cb) {
-    	ChannelBuffer rbuff = ChannelBuffers.directBuffer(cb.order().equals(ByteOrder.LITTLE_ENDIAN) ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN, cb.readableBytes());
-    	rbuff.writeBytes(cb);
-    	byte[] bytes = new byte[rbuff.readableBytes()];
-    	rbuff.readBytes(bytes);
-    	DirectMetricCollection d = new DirectMetricCollection(bytes.length);
-    	UnsafeAdapter.copyMemory(bytes, BYTE_ARRAY_OFFSET, null, d.address, bytes.length);
-    	d.size = bytes.length;
-    	d.setSize(bytes.length);
-    	bytes = null;
+    	final int length = cb.readableBytes();
+    	DirectMetricCollection d = new DirectMetricCollection(length);
+    	if(cb.hasArray()) {
+    		// copy straight out of the heap buffer's backing array
+    		UnsafeAdapter.copyMemory(cb.array(), BYTE_ARRAY_OFFSET + cb.arrayOffset() + cb.readerIndex(), null, d.address, length);
+    		cb.skipBytes(length);
+    	} else {
+    		byte[] bytes = new byte[length];
+    		cb.readBytes(bytes);
+    		UnsafeAdapter.copyMemory(bytes, BYTE_ARRAY_OFFSET, null, d.address, length);
+    	}
+    	d.size = length;
+    	d.setSize(length);
     	return d;
     }
     
+    /**
+     * <p>Encodes this DMC in the compact wire format, split into batches no larger than the passed size.
+     * <p>A compact batch has an 18 byte header: the {@link OpCode#SEND_METRIC_COMPACT} op code, the format version, the FQN segment dictionary epoch,
+     * the metric count and a base timestamp. Each record is then a flags byte holding the type ordinal and the token and TX bits,
+     * followed by a varint token or the FQN as dictionary segments, the zig-zag varint offset from the base timestamp,
+     * a zig-zag varint long value or a varint length and the raw value bytes, and the 24 TXContext bytes when flagged.
+     * <p>A segment reference is a varint of <b><code>(id+1)&lt;&lt;1</code></b>, with the low bit set when the segment's length and bytes follow.
+     * A zero reference is a literal that is not recorded. Callers must hold the dictionary's monitor until the batches are written,
+     * so segments reach the server in the order they were defined.
+     * @param maxSize The maximum byte size of one batch
+     * @param dictionary The FQN segment dictionary of the connection the batches will be sent on
+     * @return the encoded batches, which may hold fewer metrics than this DMC if a record could not fit in a batch on its own
+     */
+    public List<ChannelBuffer> toCompactBuffers(int maxSize, FQNSegmentDictionary dictionary) {
+    	List<ChannelBuffer> batches = new ArrayList<ChannelBuffer>();
+    	if(getMetricCount()==0) return batches;
+    	MetricCursor cursor = new MetricCursor();
+    	ChannelBuffer record = ChannelBuffers.dynamicBuffer(64);
+    	ChannelBuffer batch = null;
+    	int batchCount = 0;
+    	long baseTime = -1;
+    	synchronized(dictionary) {
+	    	while(cursor.nextRecord()) {
+	    		if(baseTime==-1) baseTime = cursor.time;
+	    		record.clear();
+	    		writeCompactRecord(cursor, baseTime, dictionary, record);
+	    		if(COMPACT_METRIC_OFFSET + record.readableBytes() > maxSize) {
+	    			// the record is dropped, and so are any segments it defined, so start a new epoch after the batch in hand
+	    			if(batch!=null) {
+	    				batch.setInt(COMPACT_COUNT_OFFSET, batchCount);
+	    				batches.add(batch);
+	    				batch = null;
+	    			}
+	    			dictionary.reset();
+	    			continue;
+	    		}
+	    		if(batch!=null && batch.writerIndex() + record.readableBytes() > maxSize) {
+	    			batch.setInt(COMPACT_COUNT_OFFSET, batchCount);
+	    			batches.add(batch);
+	    			batch = null;
+	    		}
+	    		if(batch==null) {
+	    			batch = ChannelBuffers.dynamicBuffer(Math.min(maxSize, getSize() + COMPACT_METRIC_OFFSET));
+	    			batch.writeByte(OpCode.SEND_METRIC_COMPACT.op());
+	    			batch.writeByte(COMPACT_VERSION);
+	    			batch.writeInt(dictionary.getEpoch());
+	    			batch.writeInt(0);
+	    			batch.writeLong(baseTime);
+	    			batchCount = 0;
+	    		}
+	    		batch.writeBytes(record);
+	    		batchCount++;
+	    	}
+    	}
+    	if(batch!=null) {
+    		batch.setInt(COMPACT_COUNT_OFFSET, batchCount);
+    		batches.add(batch);
+    	}
+    	return batches;
+    }
+    
+    /**
+     * Writes the cursor's current record in the compact format
+     * @param cursor The cursor positioned on the record to write
+     * @param baseTime The base timestamp of the batch
+     * @param dictionary The FQN segment dictionary
+     * @param cb The buffer to write to
+     */
+    private void writeCompactRecord(MetricCursor cursor, long baseTime, FQNSegmentDictionary dictionary, ChannelBuffer cb) {
+    	int flags = cursor.type.ordinal();
+    	if(cursor.token!=-1) flags |= COMPACT_TOKEN_FLAG;
+    	if(cursor.tx) flags |= COMPACT_TX_FLAG;
+    	cb.writeByte(flags);
+    	if(cursor.token!=-1) {
+    		writeVarLong(cb, cursor.token);
+    	} else {
+    		String[] segments = FQNSegmentDictionary.split(cursor.getFQN());
+    		writeVarLong(cb, segments.length);
+    		for(String segment: segments) {
+    			int id = dictionary.lookup(segment);
+    			if(id!=-1) {
+    				writeVarLong(cb, (id+1L)<<1);
+    				continue;
+    			}
+    			id = dictionary.assign(segment);
+    			writeVarLong(cb, id==-1 ? 0 : ((id+1L)<<1) | 1);
+    			byte[] bytes = segment.getBytes();
+    			writeVarLong(cb, bytes.length);
+    			cb.writeBytes(bytes);
+    		}
+    	}
+    	writeVarLong(cb, zigZag(cursor.time - baseTime));
+    	if(cursor.type.isLong()) {
+    		writeVarLong(cb, zigZag(cursor.longValue));
+    	} else {
+    		byte[] bytes = new byte[cursor.valueLength];
+    		UnsafeAdapter.copyMemory(null, (address + cursor.valueOffset), bytes, BYTE_ARRAY_OFFSET, cursor.valueLength);
+    		writeVarLong(cb, bytes.length);
+    		cb.writeBytes(bytes);
+    	}
+    	if(cursor.tx) {
+    		cb.writeLong(cursor.txIdLeast);
+    		cb.writeLong(cursor.txIdMost);
+    		cb.writeInt(cursor.txQualifier);
+    		cb.writeInt(cursor.txThreadId);
+    	}
+    }
+    
+    /**
+     * Recreates a DirectMetricCollection from a batch in the compact wire format. See {@link #toCompactBuffers(int, FQNSegmentDictionary)}.
+     * Records that reference a segment the dictionary does not have are skipped, and the dictionary is marked stale.
+     * @param cb The ChannelBuffer to read the batch from, positioned at the op code
+     * @param dictionary The FQN segment dictionary of the connection the batch was received on
+     * @return the new DirectMetricCollection
+     */
+    public static DirectMetricCollection fromCompactBuffer(ChannelBuffer cb, FQNSegmentDictionary dictionary) {
+    	final int base = cb.readerIndex();
+    	final byte version = cb.getByte(base + COMPACT_VERSION_OFFSET);
+    	if(version<1 || version>COMPACT_VERSION) throw new IllegalArgumentException("Unsupported compact DMC version [" + version + "]", new Throwable());
+    	final int epoch = cb.getInt(base + COMPACT_EPOCH_OFFSET);
+    	final int count = cb.getInt(base + COMPACT_COUNT_OFFSET);
+    	final long baseTime = cb.getLong(base + COMPACT_BASE_TIME_OFFSET);
+    	cb.readerIndex(base + COMPACT_METRIC_OFFSET);
+    	DirectMetricCollection d = new DirectMetricCollection(Math.max(INITIAL, cb.readableBytes()*3));
+    	synchronized(dictionary) {
+    		dictionary.sync(epoch);
+	    	for(int i = 0; i < count; i++) {
+	    		final int flags = cb.readUnsignedByte();
+	    		final MetricType type = MetricType.valueOf((byte)(flags & COMPACT_TYPE_MASK));
+	    		long token = -1;
+	    		byte[] fqnBytes = null;
+	    		if((flags & COMPACT_TOKEN_FLAG)!=0) {
+	    			token = readVarLong(cb);
+	    		} else {
+	    			final int segmentCount = (int)readVarLong(cb);
+	    			byte[][] segments = new byte[segmentCount][];
+	    			int fqnLength = 0;
+	    			boolean resolved = true;
+	    			for(int s = 0; s < segmentCount; s++) {
+	    				long ref = readVarLong(cb);
+	    				if(ref==0 || (ref & 1)==1) {
+	    					segments[s] = new byte[(int)readVarLong(cb)];
+	    					cb.readBytes(segments[s]);
+	    					if(ref!=0) dictionary.define((int)(ref>>>1)-1, segments[s]);
+	    				} else {
+	    					segments[s] = dictionary.resolve((int)(ref>>>1)-1);
+	    					if(segments[s]==null) {
+	    						resolved = false;
+	    						continue;
+	    					}
+	    				}
+	    				fqnLength += segments[s].length;
+	    			}
+	    			if(resolved) {
+	    				fqnBytes = new byte[fqnLength];
+	    				int pos = 0;
+	    				for(byte[] segment: segments) {
+	    					System.arraycopy(segment, 0, fqnBytes, pos, segment.length);
+	    					pos += segment.length;
+	    				}
+	    			}
+	    		}
+	    		final long time = baseTime + unZigZag(readVarLong(cb));
+	    		long longValue = 0;
+	    		byte[] rawValue = null;
+	    		if(type.isLong()) {
+	    			longValue = unZigZag(readVarLong(cb));
+	    		} else {
+	    			rawValue = new byte[(int)readVarLong(cb)];
+	    			cb.readBytes(rawValue);
+	    		}
+	    		final boolean tx = (flags & COMPACT_TX_FLAG)!=0;
+	    		long txIdLeast = 0, txIdMost = 0;
+	    		int txQualifier = 0, txThreadId = 0;
+	    		if(tx) {
+	    			txIdLeast = cb.readLong();
+	    			txIdMost = cb.readLong();
+	    			txQualifier = cb.readInt();
+	    			txThreadId = cb.readInt();
+	    		}
+	    		if(token!=-1 || fqnBytes!=null) {
+	    			d._appendRecord(type, token, fqnBytes, time, longValue, rawValue, tx, txIdLeast, txIdMost, txQualifier, txThreadId);
+	    		}
+	    	}
+    	}
+    	return d;
+    }
+    
+    /**
+     * Appends one record from its decoded fields
+     * @param type The metric type
+     * @param token The metric token, or -1 if the record carries the FQN
+     * @param fqnBytes The FQN bytes, written only when the token is -1
+     * @param time The metric timestamp
+     * @param longValue The long value, written for long types
+     * @param rawValue The raw value bytes, written for non-long types
+     * @param tx true if the record carries a TXContext
+     * @param txIdLeast The TX ID least significant bits
+     * @param txIdMost The TX ID most significant bits
+     * @param txQualifier The TX qualifier
+     * @param txThreadId The TX thread ID
+     */
+    private void _appendRecord(MetricType type, long token, byte[] fqnBytes, long time, long longValue, byte[] rawValue, boolean tx, long txIdLeast, long txIdMost, int txQualifier, int txThreadId) {
+    	final int recordSize = 4 + 1 + 1 + (token!=-1 ? 8 : 4 + fqnBytes.length) + 8 + (type.isLong() ? 8 : 4 + rawValue.length) + 1 + (tx ? TXContext.TXCONTEXT_SIZE : 0);
+    	while(size + recordSize > capacity) extend();
+    	writeInt(recordSize);
+    	writeByte((byte)type.ordinal());
+    	if(token!=-1) {
+    		writeByte(BYTE_ONE);
+    		writeLong(token);
+    	} else {
+    		writeByte(BYTE_ZERO);
+    		writeInt(fqnBytes.length);
+    		writeBytes(fqnBytes);
+    	}
+    	writeLong(time);
+    	if(type.isLong()) {
+    		writeLong(longValue);
+    	} else {
+    		writeInt(rawValue.length);
+    		writeBytes(rawValue);
+    	}
+    	if(tx) {
+    		writeByte(BYTE_ONE);
+    		writeLong(txIdLeast);
+    		writeLong(txIdMost);
+    		writeInt(txQualifier);
+    		writeInt(txThreadId);
+    	} else {
+    		writeByte(BYTE_ZERO);
+    	}
+    	setSize(size);
+    	updateCount();
+    }
+    
+    /**
+     * Writes an unsigned varint
+     * @param cb The buffer to write to
+     * @param v The value to write
+     */
+    private static void writeVarLong(ChannelBuffer cb, long v) {
+    	while((v & ~0x7FL)!=0) {
+    		cb.writeByte((int)((v & 0x7F) | 0x80));
+    		v >>>= 7;
+    	}
+    	cb.writeByte((int)v);
+    }
+    
+    /**
+     * Reads an unsigned varint
+     * @param cb The buffer to read from
+     * @return the read value
+     */
+    private static long readVarLong(ChannelBuffer cb) {
+    	long v = 0;
+    	for(int shift = 0; shift < 64; shift += 7) {
+    		byte b = cb.readByte();
+    		v |= (long)(b & 0x7F) << shift;
+    		if((b & 0x80)==0) return v;
+    	}
+    	throw new IllegalArgumentException("Malformed varint in compact DMC", new Throwable());
+    }
+    
+    /**
+     * Zig-zag encodes a signed value so small negative values stay small as varints
+     * @param v The value
+     * @return the encoded value
+     */
+    private static long zigZag(long v) {
+    	return (v << 1) ^ (v >> 63);
+    }
+    
+    /**
+     * Decodes a zig-zag encoded value
+     * @param v The encoded value
+     * @return the signed value
+     */
+    private static long unZigZag(long v) {
+    	return (v >>> 1) ^ -(v & 1);
+    }
+    
     /**
      * Writes this DMC to a direct {@link ChannelBuffer} and then destroys.
      * @return a loaded {@link ChannelBuffer}
@@ -647,6 +987,14 @@ public class DirectMetricCollection implements Runnable {
 			return getByteOrder()==BYTE_ZERO ? v : Long.reverseBytes(v);
 		}
 		
+		/**
+		 * Advances the offset without reading
+		 * @param bytesToSkip the number of bytes to skip
+		 */
+		protected void skip(int bytesToSkip) {
+			offset += bytesToSkip;
+		}
+		
 		/**
 		 * Reads a string 
 		 * @return the read string
@@ -682,6 +1030,173 @@ public class DirectMetricCollection implements Runnable {
     	
     }
     
+    /**
+     * <p>Title: MetricCursor</p>
+     * <p>Description: A flyweight cursor that reads each metric record in place. Advancing the cursor decodes the record's
+     * fixed width fields into primitives. The FQN, a non-long value and a full {@link IMetric} are only materialized when asked for.
+     * A cursor is positioned on one record at a time and must not be used after the DMC is destroyed.</p> 
+     * <p>Company: Helios Development Group LLC</p>
+     * @author Whitehead (nwhitehead AT heliosdev DOT org)
+     * <p><code>org.helios.apmrouter.trace.DirectMetricCollection.MetricCursor</code></p>
+     */
+    public class MetricCursor extends Reader {
+    	/** The current record's metric type */
+    	private MetricType type = null;
+    	/** The current record's token, or -1 if the record carries an FQN */
+    	private long token = -1;
+    	/** The memory offset of the current record's FQN bytes */
+    	private int fqnOffset = -1;
+    	/** The length of the current record's FQN bytes */
+    	private int fqnLength = 0;
+    	/** The current record's timestamp */
+    	private long time = -1;
+    	/** The current record's long value */
+    	private long longValue = 0;
+    	/** The memory offset of the current record's raw value bytes */
+    	private int valueOffset = -1;
+    	/** The length of the current record's raw value bytes */
+    	private int valueLength = 0;
+    	/** Indicates if the current record has a TXContext */
+    	private boolean tx = false;
+    	/** The current record's TX ID least significant bits */
+    	private long txIdLeast = 0;
+    	/** The current record's TX ID most significant bits */
+    	private long txIdMost = 0;
+    	/** The current record's TX qualifier */
+    	private int txQualifier = 0;
+    	/** The current record's TX thread ID */
+    	private int txThreadId = 0;
+    	
+    	/**
+    	 * Positions the cursor on the next record
+    	 * @return true if the cursor was advanced, false if the cursor is EOF
+    	 */
+    	public boolean nextRecord() {
+    		if(!_next()) return false;
+    		readInt(); // skip size
+    		type = MetricType.valueOf(readByte());
+    		if(BYTE_ONE==readByte()) {
+    			token = readLong();
+    			fqnOffset = -1;
+    			fqnLength = 0;
+    		} else {
+    			token = -1;
+    			fqnLength = readInt();
+    			fqnOffset = getReaderRecordOffset();
+    			skip(fqnLength);
+    		}
+    		time = readLong();
+    		if(type.isLong()) {
+    			longValue = readLong();
+    			valueOffset = -1;
+    			valueLength = 0;
+    		} else {
+    			longValue = 0;
+    			valueLength = readInt();
+    			valueOffset = getReaderRecordOffset();
+    			skip(valueLength);
+    		}
+			// ==========================================================
+			//      TXCONTEXT
+			// ==========================================================
+    		readByte();
+    		tx = getRecordRemainingBytes()>=TXContext.TXCONTEXT_SIZE;
+    		if(tx) {
+    			txIdLeast = readLong();
+    			txIdMost = readLong();
+    			txQualifier = readInt();
+    			txThreadId = readInt();
+    		}
+    		return true;
+    	}
+    	
+    	/**
+    	 * Builds a full {@link IMetric} from the current record
+    	 * @return the built metric
+    	 */
+    	public IMetric toMetric() {
+    		IDelegateMetric dmetric = token!=-1 ? ICEMetricCatalog.getInstance().get(token) : ICEMetricCatalog.getInstance().build(getFQN(), type);
+    		ICEMetric metric = type.isLong() ? ICEMetric.newMetric(time, longValue, type, dmetric, token) : ICEMetric.newMetric(time, getRawValue(), type, dmetric, token);
+    		if(tx) {
+    			metric.attachTXContext(new TXContext(new UUID(txIdMost, txIdLeast), txQualifier, txThreadId));
+    		}
+    		return metric;
+    	}
+    	
+    	/**
+    	 * Returns the current record's metric type
+    	 * @return the current record's metric type
+    	 */
+    	public MetricType getType() {
+    		return type;
+    	}
+    	
+    	/**
+    	 * Indicates if the current record carries a token rather than an FQN
+    	 * @return true if the current record is tokenized
+    	 */
+    	public boolean isTokenized() {
+    		return token!=-1;
+    	}
+    	
+    	/**
+    	 * Returns the current record's token
+    	 * @return the current record's token, or -1 if the record carries an FQN
+    	 */
+    	public long getToken() {
+    		return token;
+    	}
+    	
+    	/**
+    	 * Decodes the current record's FQN
+    	 * @return the current record's FQN, or null if the record is tokenized
+    	 */
+    	public String getFQN() {
+    		if(fqnOffset==-1) return null;
+    		byte[] bytes = new byte[fqnLength];
+    		UnsafeAdapter.copyMemory(null, (address + fqnOffset), bytes, BYTE_ARRAY_OFFSET, fqnLength);
+    		return new String(bytes);
+    	}
+    	
+    	/**
+    	 * Returns the current record's timestamp
+    	 * @return the current record's timestamp
+    	 */
+    	public long getTime() {
+    		return time;
+    	}
+    	
+    	/**
+    	 * Returns the current record's long value
+    	 * @return the current record's long value, or 0 if the metric type is not a long type
+    	 */
+    	public long getLongValue() {
+    		return longValue;
+    	}
+    	
+    	/**
+    	 * Copies the current record's raw value into a new direct ByteBuffer
+    	 * @return a direct ByteBuffer, or null if the metric type is a long type
+    	 */
+    	public ByteBuffer getRawValue() {
+    		if(valueOffset==-1) return null;
+    		byte[] bytes = new byte[valueLength];
+    		UnsafeAdapter.copyMemory(null, (address + valueOffset), bytes, BYTE_ARRAY_OFFSET, valueLength);
+    		ByteBuffer bb = ByteBuffer.allocateDirect(valueLength);
+    		bb.put(bytes);
+    		bb.flip();
+    		return bb;
+    	}
+    	
+    	/**
+    	 * Indicates if the current record has a TXContext
+    	 * @return true if the current record has a TXContext
+    	 */
+    	public boolean hasTXContext() {
+    		return tx;
+    	}
+    }
+    
     /**
      * <p>Title: MetricReader</p>
      * <p>Description: A cursor supported metric decoder</p> 
@@ -689,7 +1204,7 @@ public class DirectMetricCollection implements Runnable {
      * @author Whitehead (nwhitehead AT heliosdev DOT org)
      * <p><code>org.helios.apmrouter.trace.DirectMetricCollection.MetricReader</code></p>
      */
-    protected class MetricReader extends Reader implements Iterator<IMetric>, Iterable<IMetric> {
+    protected class MetricReader extends MetricCursor implements Iterator<IMetric>, Iterable<IMetric> {
     	
 		/**
 		 * {@inheritDoc}
@@ -763,46 +1278,8 @@ public class DirectMetricCollection implements Runnable {
 		}
 		
 		private IMetric nextOpt() {
-			if(!_next()) throw new RuntimeException("Iterator fetched pass EOF", new Throwable());
-			IDelegateMetric dmetric = null;
-    		readInt(); // skip size
-    		byte typeOrdinal = readByte();
-    		MetricType type = MetricType.valueOf(typeOrdinal);
-    		byte isToken = readByte();
-    		long token =  -1;
-    		if(BYTE_ONE==isToken) {
-    			token = readLong();
-    			dmetric = ICEMetricCatalog.getInstance().get(token);    
-    		} else {    			
-				String fqn = readString();
-				dmetric = ICEMetricCatalog.getInstance().build(fqn, type);
-    		}
-    		long time = readLong();
-    		ICEMetric metric = null;
-			if(type.isLong()) {
-				long value = readLong();
-				metric = ICEMetric.newMetric(time, value, type, dmetric, token);
-			} else {
-				int bbSize = readInt();
-				ByteBuffer bb = readByteBuffer(bbSize);
-				metric = ICEMetric.newMetric(time, bb, type, dmetric, token);		
-			}		
-			// ==========================================================
-			//      TXCONTEXT
-			// ==========================================================
-			byte tp = readByte();
-			//log("\nRead Byte: [" + tp + "]\nRemaining Bytes:" + getRecordRemainingBytes() + "\nValue:" + metric.getLongValue());
-			if(getRecordRemainingBytes()>=TXContext.TXCONTEXT_SIZE) {
-				
-				long txIdLeast = readLong();
-				long txIdMost = readLong();				
-				int txQualifier = readInt();
-				int txThreadId = readInt();
-				TXContext tx = new TXContext(new UUID(txIdMost, txIdLeast), txQualifier, txThreadId);
-				metric.attachTXContext(tx);
-			}
-			// ==========================================================
-			return metric;
+			if(!nextRecord()) throw new RuntimeException("Iterator fetched pass EOF", new Throwable());
+			return toMetric();
 		}
 		
 
@@ -956,6 +1433,14 @@ public class DirectMetricCollection implements Runnable {
     	return new MetricReader();
     }
     
+    /**
+     * Returns a flyweight MetricCursor that reads the metric records in place
+     * @return a MetricCursor positioned before the first record
+     */
+    public MetricCursor newMetricCursor() {
+    	return new MetricCursor();
+    }
+    
     
     /**
      * Splits this DMC into multiple DMCs where each one is smaller than the passed maximum size in bytes.
@@ -0,0 +1,191 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.apmrouter.trace;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * <p>Title: FQNSegmentDictionary</p>
+ * <p>Description: A per-connection dictionary of metric FQN segments used by the compact DMC wire format.
+ * An FQN is split after each namespace and name delimiter, and each segment is sent in full once, then referenced by id.
+ * The sending side assigns ids and the receiving side records them. Each side holds its own instance, and the epoch stamped on every
+ * compact batch tells the receiver when the sender has started over.</p>
+ * <p>Over a lossy transport a batch that defines segments can be lost. Records of later batches in the same epoch that reference those
+ * segments cannot be resolved and are dropped by the receiver, which asks the sender for a new epoch with an {@link org.helios.apmrouter.OpCode#SEGMENT_RESYNC}.
+ * Records are dropped until the sender's first batch in the new epoch arrives, about one round trip later. The agent's metric tokens are kept,
+ * and tokenized records, the steady state for a connected agent, do not reference segments and are never affected.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.apmrouter.trace.FQNSegmentDictionary</code></p>
+ */
+public class FQNSegmentDictionary {
+	/** The maximum number of segments assigned an id before new segments are sent as literals */
+	public static final int MAX_SEGMENTS = 0xFFFF;
+	
+	/** The sender side segment ids keyed by segment */
+	private final Map<String, Integer> ids = new HashMap<String, Integer>();
+	/** The receiver side segment bytes keyed by segment id */
+	private final Map<Integer, byte[]> segments = new HashMap<Integer, byte[]>();
+	/** The current epoch */
+	private int epoch;
+	/** Indicates that the receiver side saw a reference to a segment it does not have */
+	private boolean stale = false;
+	/** The time the receiver side last asked the sender for a new epoch, 0 if it has not in the current epoch */
+	private long resyncRequested = 0L;
+	
+	/**
+	 * Creates a new FQNSegmentDictionary with a random starting epoch, so a restarted sender is not mistaken for the one it replaced
+	 */
+	public FQNSegmentDictionary() {
+		epoch = new Random().nextInt();
+	}
+	
+	/**
+	 * Splits the passed FQN into segments, each ending with its namespace or name delimiter, except for the last.
+	 * Concatenating the segments rebuilds the FQN.
+	 * @param fqn The FQN to split
+	 * @return the FQN segments
+	 */
+	public static String[] split(String fqn) {
+		int count = 1;
+		for(int i = 0; i < fqn.length()-1; i++) {
+			char c = fqn.charAt(i);
+			if(c=='/' || c==':') count++;
+		}
+		String[] segs = new String[count];
+		int start = 0, seg = 0;
+		for(int i = 0; i < fqn.length()-1; i++) {
+			char c = fqn.charAt(i);
+			if(c=='/' || c==':') {
+				segs[seg++] = fqn.substring(start, i+1);
+				start = i+1;
+			}
+		}
+		segs[seg] = fqn.substring(start);
+		return segs;
+	}
+	
+	/**
+	 * Returns the current epoch
+	 * @return the current epoch
+	 */
+	public synchronized int getEpoch() {
+		return epoch;
+	}
+	
+	/**
+	 * Clears the sender side ids and starts a new epoch. Called when the server resets the agent or confirms a new HELLO.
+	 */
+	public synchronized void reset() {
+		ids.clear();
+		epoch++;
+	}
+	
+	/**
+	 * Returns the id of a segment already sent
+	 * @param segment The segment
+	 * @return the segment id or -1 if the segment has not been assigned one
+	 */
+	public synchronized int lookup(String segment) {
+		Integer id = ids.get(segment);
+		return id==null ? -1 : id;
+	}
+	
+	/**
+	 * Assigns the next id to a segment about to be sent in full
+	 * @param segment The segment
+	 * @return the assigned id or -1 if the dictionary is full and the segment should be sent as a literal
+	 */
+	public synchronized int assign(String segment) {
+		if(ids.size()>=MAX_SEGMENTS) return -1;
+		int id = ids.size();
+		ids.put(segment, id);
+		return id;
+	}
+	
+	/**
+	 * Aligns the receiver side with the epoch of a received batch, clearing the recorded segments if the sender has started over
+	 * @param batchEpoch The epoch of the received batch
+	 */
+	public synchronized void sync(int batchEpoch) {
+		if(batchEpoch!=epoch) {
+			segments.clear();
+			epoch = batchEpoch;
+			stale = false;
+			resyncRequested = 0L;
+		}
+	}
+	
+	/**
+	 * Records a segment received in full
+	 * @param id The segment id
+	 * @param segment The segment bytes
+	 */
+	public synchronized void define(int id, byte[] segment) {
+		segments.put(id, segment);
+	}
+	
+	/**
+	 * Resolves a referenced segment. A miss marks this dictionary stale until the sender starts a new epoch.
+	 * @param id The segment id
+	 * @return the segment bytes or null if the segment is not known
+	 */
+	public synchronized byte[] resolve(int id) {
+		byte[] segment = segments.get(id);
+		if(segment==null) stale = true;
+		return segment;
+	}
+	
+	/**
+	 * Indicates if the receiver side has missed a segment in the current epoch, meaning the sender should be reset
+	 * @return true if a segment reference could not be resolved
+	 */
+	public synchronized boolean isStale() {
+		return stale;
+	}
+	
+	/**
+	 * Determines if the receiver side should ask the sender for a new epoch. Asks once per epoch, 
+	 * and again after the passed retry period in case the request was lost.
+	 * @param retryPeriod The minimum time in ms. between requests in the same epoch
+	 * @return true if a request should be sent
+	 */
+	public synchronized boolean requestResync(long retryPeriod) {
+		final long now = System.currentTimeMillis();
+		if(resyncRequested!=0L && now - resyncRequested < retryPeriod) return false;
+		resyncRequested = now;
+		return true;
+	}
+	
+	/**
+	 * Returns the number of segments known to this dictionary
+	 * @return the number of segments
+	 */
+	public synchronized int size() {
+		return Math.max(ids.size(), segments.size());
+	}
+}
@@ -255,6 +255,48 @@ public interface ITracer {
 	public ICEMetric tracePDUDirect(PDU pdu, CharSequence name, CharSequence...namespace);
 	
 	
+	/**
+	 * Creates a pre-bound handle to a long type metric. The metric ID is resolved once, so traces through the handle skip the per call name resolution.
+	 * @param type The long metric type
+	 * @param name The name of the metric
+	 * @param namespace The optional namespace of the metric
+	 * @return the metric handle
+	 */
+	public MetricHandle handle(MetricType type, CharSequence name, CharSequence...namespace);
+	
+	/**
+	 * Creates a pre-bound handle to a long gauge type metric
+	 * @param name The name of the metric
+	 * @param namespace The optional namespace of the metric
+	 * @return the metric handle
+	 */
+	public MetricHandle gaugeHandle(CharSequence name, CharSequence...namespace);
+	
+	/**
+	 * Creates a pre-bound handle to a long counter type metric
+	 * @param name The name of the metric
+	 * @param namespace The optional namespace of the metric
+	 * @return the metric handle
+	 */
+	public MetricHandle counterHandle(CharSequence name, CharSequence...namespace);
+	
+	/**
+	 * Creates a pre-bound handle to a delta long gauge type metric
+	 * @param name The name of the metric
+	 * @param namespace The optional namespace of the metric
+	 * @return the metric handle
+	 */
+	public MetricHandle deltaGaugeHandle(CharSequence name, CharSequence...namespace);
+	
+	/**
+	 * Creates a pre-bound handle to a delta long counter type metric
+	 * @param name The name of the metric
+	 * @param namespace The optional namespace of the metric
+	 * @return the metric handle
+	 */
+	public MetricHandle deltaCounterHandle(CharSequence name, CharSequence...namespace);
+	
+	
 	/**
 	 * Returns the originating host of the metrics created by this tracer
 	 * @return the originating host of the metrics created by this tracer
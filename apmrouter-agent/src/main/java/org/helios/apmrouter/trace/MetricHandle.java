@@ -0,0 +1,155 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.apmrouter.trace;
+
+import org.helios.apmrouter.metric.ICEMetric;
+import org.helios.apmrouter.metric.MetricType;
+import org.helios.apmrouter.metric.catalog.IDelegateMetric;
+import org.helios.apmrouter.util.SystemClock;
+
+/**
+ * <p>Title: MetricHandle</p>
+ * <p>Description: A pre-bound handle to one long type metric. The metric ID is resolved from the catalog once, when the handle is created,
+ * so a trace through the handle does no FQN building, catalog lookup, varargs or boxing. Handles are created by the <b><code>xxxHandle</code></b>
+ * methods on {@link ITracer} and are intended to be created once and kept, typically by a monitor that traces the same metrics every cycle.</p>
+ * <p>The delta state of a delta type handle is kept in the handle, so it is independent of the delta state of name based traces of the same metric.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.apmrouter.trace.MetricHandle</code></p>
+ */
+
+public class MetricHandle {
+	/** The resolved metric ID */
+	protected final IDelegateMetric metricId;
+	/** The metric type */
+	protected final MetricType type;
+	/** The submitter traced values are written to */
+	protected final MetricSubmitter submitter;
+	/** Indicates if this is a delta type */
+	protected final boolean delta;
+	/** The FQN bytes, written when the metric has not been tokenized yet */
+	private volatile byte[] fqnBytes = null;
+	/** The last raw value of a delta type */
+	private long lastValue = 0L;
+	/** Indicates if a raw value has been traced for a delta type */
+	private boolean hasLastValue = false;
+	
+	/**
+	 * Creates a new MetricHandle
+	 * @param metricId The resolved metric ID
+	 * @param type The metric type, which must be a long type
+	 * @param submitter The submitter traced values are written to
+	 */
+	MetricHandle(IDelegateMetric metricId, MetricType type, MetricSubmitter submitter) {
+		if(!type.isLong()) throw new IllegalArgumentException("Metric handles only support long types. Type was [" + type + "]", new Throwable());
+		this.metricId = metricId;
+		this.type = type;
+		this.submitter = submitter;
+		this.delta = type.isDelta();
+	}
+	
+	/**
+	 * Traces the passed value. For delta types, the first value and any value lower than the prior value are not traced.
+	 * @param value The value to trace
+	 */
+	public void trace(long value) {
+		long v = value;
+		if(delta) {
+			synchronized(this) {
+				long prior = lastValue;
+				boolean traceable = hasLastValue && value >= prior;
+				lastValue = value;
+				hasLastValue = true;
+				if(!traceable) return;
+				v = value - prior;
+			}
+		}
+		try {
+			if(TXContext.hasContext()) {
+				submitter.submit(newMetric(SystemClock.time(), v).attachTXContext());
+			} else {
+				submitter.submit(this, SystemClock.time(), v);
+			}
+		} catch (Throwable t) {
+			t.printStackTrace(System.err);
+		}
+	}
+	
+	/**
+	 * Creates a new {@link ICEMetric} for this handle's metric, for submitters that do not write handle traces directly
+	 * @param time The metric timestamp
+	 * @param value The metric value
+	 * @return a new ICEMetric
+	 */
+	public ICEMetric newMetric(long time, long value) {
+		return ICEMetric.newMetric(time, value, type, metricId);
+	}
+	
+	/**
+	 * Returns the current serialization token of this handle's metric
+	 * @return the token or -1 if the metric has not been tokenized
+	 */
+	public long getToken() {
+		return metricId.getToken();
+	}
+	
+	/**
+	 * Returns the FQN bytes of this handle's metric
+	 * @return the FQN bytes
+	 */
+	public byte[] getFQNBytes() {
+		byte[] bytes = fqnBytes;
+		if(bytes==null) {
+			bytes = metricId.getFQN().getBytes();
+			fqnBytes = bytes;
+		}
+		return bytes;
+	}
+	
+	/**
+	 * Returns the metric type
+	 * @return the metric type
+	 */
+	public MetricType getType() {
+		return type;
+	}
+	
+	/**
+	 * Returns the resolved metric ID
+	 * @return the metric ID
+	 */
+	public IDelegateMetric getMetricId() {
+		return metricId;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "MetricHandle [" + metricId.getFQN() + "/" + type + "]";
+	}
+}
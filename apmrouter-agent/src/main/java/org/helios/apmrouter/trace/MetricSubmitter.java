@@ -58,6 +58,14 @@ public interface MetricSubmitter {
 	 */
 	public void submit(IMetric...metrics);
 	
+	/**
+	 * Submits one value traced through a pre-bound metric handle
+	 * @param handle The handle the value was traced through
+	 * @param time The metric timestamp
+	 * @param value The metric value
+	 */
+	public void submit(MetricHandle handle, long time, long value);
+	
 	/**
 	 * Returns the number of sent metrics
 	 * @return the number of sent metrics
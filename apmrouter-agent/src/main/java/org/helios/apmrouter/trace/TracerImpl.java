@@ -26,6 +26,7 @@ package org.helios.apmrouter.trace;
 
 import org.helios.apmrouter.metric.ICEMetric;
 import org.helios.apmrouter.metric.MetricType;
+import org.helios.apmrouter.metric.catalog.DeltaStateTable;
 import org.helios.apmrouter.metric.catalog.ICEMetricCatalog;
 import org.snmp4j.PDU;
 
@@ -110,9 +111,9 @@ public class TracerImpl implements ITracer {
 		try {
 			if(type.isLong()) {
 				if(type.isDelta()) {
-					Long delta = ICEMetricCatalog.getInstance().getDelta(coerce(value), host, agent, name, namespace);
-					if(delta==null) return null;
-					metric = ICEMetric.trace(delta.longValue(), host, agent, name, type, namespace);
+					long delta = ICEMetricCatalog.getInstance().getDeltaValue(coerce(value), host, agent, name, namespace);
+					if(delta==DeltaStateTable.NO_DELTA) return null;
+					metric = ICEMetric.trace(delta, host, agent, name, type, namespace);
 				} else {
 					metric = ICEMetric.trace(coerce(value), host, agent, name, type, namespace);
 				}
@@ -145,9 +146,9 @@ public class TracerImpl implements ITracer {
 		try {
 			if(type.isLong()) {
 				if(type.isDelta()) {
-					Long delta = ICEMetricCatalog.getInstance().getDelta(coerce(value), host, agent, name, namespace);
-					if(delta==null) return null;
-					metric = ICEMetric.trace(delta.longValue(), host, agent, name, type, namespace);
+					long delta = ICEMetricCatalog.getInstance().getDeltaValue(coerce(value), host, agent, name, namespace);
+					if(delta==DeltaStateTable.NO_DELTA) return null;
+					metric = ICEMetric.trace(delta, host, agent, name, type, namespace);
 				} else {
 					metric = ICEMetric.trace(coerce(value), host, agent, name, type, namespace);
 				}
@@ -281,9 +282,9 @@ public class TracerImpl implements ITracer {
 	@Override
 	public ICEMetric traceDeltaCounter(long value, CharSequence name, CharSequence... namespace) {
 		try {
-			Long delta = ICEMetricCatalog.getInstance().getDelta(value, host, agent, name, namespace);
-			if(delta==null) return null;			
-			ICEMetric metric =  ICEMetric.trace(delta.longValue(), host, agent, name, MetricType.DELTA_COUNTER, namespace);
+			long delta = ICEMetricCatalog.getInstance().getDeltaValue(value, host, agent, name, namespace);
+			if(delta==DeltaStateTable.NO_DELTA) return null;			
+			ICEMetric metric =  ICEMetric.trace(delta, host, agent, name, MetricType.DELTA_COUNTER, namespace);
 			submitter.submit(metric);
 			return metric;
 		} catch (Throwable t) {
@@ -299,9 +300,9 @@ public class TracerImpl implements ITracer {
 	@Override
 	public ICEMetric traceDeltaGauge(long value, CharSequence name, CharSequence... namespace) {
 		try {
-			Long delta = ICEMetricCatalog.getInstance().getDelta(value, host, agent, name, namespace);
-			if(delta==null) return null;			
-			ICEMetric metric =  ICEMetric.trace(delta.longValue(), host, agent, name, MetricType.DELTA_GAUGE, namespace);
+			long delta = ICEMetricCatalog.getInstance().getDeltaValue(value, host, agent, name, namespace);
+			if(delta==DeltaStateTable.NO_DELTA) return null;			
+			ICEMetric metric =  ICEMetric.trace(delta, host, agent, name, MetricType.DELTA_GAUGE, namespace);
 			submitter.submit(metric);
 			return metric;
 		} catch (Throwable t) {
@@ -371,6 +372,52 @@ public class TracerImpl implements ITracer {
 		}				
 	}
 
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.apmrouter.trace.ITracer#handle(org.helios.apmrouter.metric.MetricType, java.lang.CharSequence, java.lang.CharSequence[])
+	 */
+	@Override
+	public MetricHandle handle(MetricType type, CharSequence name, CharSequence... namespace) {
+		nvl(type, "Metric Type");
+		return new MetricHandle(ICEMetricCatalog.getInstance().get(host, agent, name, type, namespace), type, submitter);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.apmrouter.trace.ITracer#gaugeHandle(java.lang.CharSequence, java.lang.CharSequence[])
+	 */
+	@Override
+	public MetricHandle gaugeHandle(CharSequence name, CharSequence... namespace) {
+		return handle(MetricType.LONG_GAUGE, name, namespace);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.apmrouter.trace.ITracer#counterHandle(java.lang.CharSequence, java.lang.CharSequence[])
+	 */
+	@Override
+	public MetricHandle counterHandle(CharSequence name, CharSequence... namespace) {
+		return handle(MetricType.LONG_COUNTER, name, namespace);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.apmrouter.trace.ITracer#deltaGaugeHandle(java.lang.CharSequence, java.lang.CharSequence[])
+	 */
+	@Override
+	public MetricHandle deltaGaugeHandle(CharSequence name, CharSequence... namespace) {
+		return handle(MetricType.DELTA_GAUGE, name, namespace);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.apmrouter.trace.ITracer#deltaCounterHandle(java.lang.CharSequence, java.lang.CharSequence[])
+	 */
+	@Override
+	public MetricHandle deltaCounterHandle(CharSequence name, CharSequence... namespace) {
+		return handle(MetricType.DELTA_COUNTER, name, namespace);
+	}
+
 	/**
 	 * {@inheritDoc}
 	 * @see org.helios.apmrouter.trace.ITracer#getHost()
@@ -116,6 +116,107 @@ public class UnsafeAdapter {
     	return ADDRESS_SIZE==4 ? UNSAFE.getInt(array, OBJECTS_OFFSET) : UNSAFE.getLong(array, OBJECTS_OFFSET);
     }
     
+    /**
+     * Copies a block of memory between two native addresses. Overlapping blocks are supported.
+     * @param srcAddress The source address
+     * @param destAddress The destination address
+     * @param bytes The byte count to copy
+     */
+    public static void copyMemory(long srcAddress, long destAddress, long bytes) {
+    	UNSAFE.copyMemory(srcAddress, destAddress, bytes);
+    }
+    
+    /**
+     * Reads a long from the passed native address
+     * @param address The address to read from
+     * @return the read long
+     */
+    public static long getLong(long address) {
+    	return UNSAFE.getLong(address);
+    }
+    
+    /**
+     * Writes a long to the passed native address
+     * @param address The address to write to
+     * @param value The value to write
+     */
+    public static void putLong(long address, long value) {
+    	UNSAFE.putLong(address, value);
+    }
+    
+    /**
+     * Reads an int from the passed native address
+     * @param address The address to read from
+     * @return the read int
+     */
+    public static int getInt(long address) {
+    	return UNSAFE.getInt(address);
+    }
+    
+    /**
+     * Writes an int to the passed native address
+     * @param address The address to write to
+     * @param value The value to write
+     */
+    public static void putInt(long address, int value) {
+    	UNSAFE.putInt(address, value);
+    }
+    
+    /**
+     * Reads a byte from the passed native address
+     * @param address The address to read from
+     * @return the read byte
+     */
+    public static byte getByte(long address) {
+    	return UNSAFE.getByte(address);
+    }
+    
+    /**
+     * Writes a byte to the passed native address
+     * @param address The address to write to
+     * @param value The value to write
+     */
+    public static void putByte(long address, byte value) {
+    	UNSAFE.putByte(address, value);
+    }
+    
+    /**
+     * Allocates a block of native memory
+     * @param bytes The number of bytes to allocate
+     * @return the address of the allocated block
+     */
+    public static long allocateMemory(long bytes) {
+    	return UNSAFE.allocateMemory(bytes);
+    }
+    
+    /**
+     * Frees a block of native memory
+     * @param address The address of the block to free
+     */
+    public static void freeMemory(long address) {
+    	UNSAFE.freeMemory(address);
+    }
+    
+    /**
+     * Reads a long from the passed native address with volatile semantics
+     * @param address The address to read from
+     * @return the read long
+     */
+    public static long getLongVolatile(long address) {
+    	return UNSAFE.getLongVolatile(null, address);
+    }
+    
+    /**
+     * Atomically sets the long at the passed native address if it currently holds the expected value
+     * @param address The address of the long
+     * @param expected The expected current value
+     * @param value The new value
+     * @return true if the value was set
+     */
+    public static boolean compareAndSwapLong(long address, long expected, long value) {
+    	return UNSAFE.compareAndSwapLong(null, address, expected, value);
+    }
+    
     
     
 }
@@ -412,6 +412,13 @@ public class WebSocketAgent implements WebSocketEventListener {
 					listener.onMetricData(message);
 				}								
 				break;
+			case DATA_BATCH:
+				for(JSONObject data: MetricURIEvent.unbatch(message)) {
+					for(MetricURISubscriptionEventListener listener: listeners) {
+						listener.onMetricData(data);
+					}
+				}
+				break;
 			case NEW_METRIC:
 				for(MetricURISubscriptionEventListener listener: listeners) {
 					listener.onNewMetric(message);
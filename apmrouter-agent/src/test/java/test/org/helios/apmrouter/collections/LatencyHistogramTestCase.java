@@ -0,0 +1,247 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package test.org.helios.apmrouter.collections;
+
+import org.helios.apmrouter.collections.LatencyHistogram;
+import org.helios.apmrouter.collections.LatencyHistogram.Snapshot;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestName;
+
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Title: LatencyHistogramTestCase</p>
+ * <p>Description: Test cases for {@link LatencyHistogram} bucket bounds, percentiles and interval rolls</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>test.org.helios.apmrouter.collections.LatencyHistogramTestCase</code></p>
+ */
+
+public class LatencyHistogramTestCase {
+	
+	/**
+	 * StdOut log
+	 * @param obj The message to log
+	 */
+	protected static void log(Object obj) {
+		System.out.println(obj);
+	}
+	/**
+	 * StdErr log
+	 * @param obj The message to log
+	 */
+	protected static void loge(Object obj) {
+		System.err.println(obj);
+	}
+	/** The currently executing test name */
+	@Rule public final TestName name = new TestName();
+	
+	/** An interval long enough that it never rolls during a test */
+	private static final long NO_ROLL = TimeUnit.HOURS.toMillis(1);
+	/** The maximum relative error of a bucket's highest value */
+	private static final double MAX_ERROR = 1D / LatencyHistogram.SUB_BUCKETS;
+
+	/**
+	 * Prints the test name about to be executed
+	 */
+	@Before
+	public void printTestName() {
+		log("\n\t==================================\n\tRunning Test [" + name.getMethodName() + "]\n\t==================================\n");
+	}
+	
+	/**
+	 * Tests that small values get their own bucket, that buckets are contiguous and that a bucket's highest value is within the error bound
+	 */
+	@Test
+	public void testBucketBounds() {
+		for(int v = 0; v < LatencyHistogram.SUB_BUCKETS*2; v++) {
+			Assert.assertEquals("Exact bucket", v, LatencyHistogram.bucketFor(v));
+			Assert.assertEquals("Exact highest value", v, LatencyHistogram.highestValueOf(v));
+		}
+		Assert.assertEquals("Negative value", 0, LatencyHistogram.bucketFor(-5L));
+		Assert.assertEquals("Last bucket", LatencyHistogram.BUCKET_COUNT-1, LatencyHistogram.bucketFor(Long.MAX_VALUE));
+		Assert.assertEquals("Last bucket highest value", Long.MAX_VALUE, LatencyHistogram.highestValueOf(LatencyHistogram.BUCKET_COUNT-1));
+		for(int b = 0; b < LatencyHistogram.BUCKET_COUNT-1; b++) {
+			long high = LatencyHistogram.highestValueOf(b);
+			Assert.assertEquals("Highest value of [" + b + "]", b, LatencyHistogram.bucketFor(high));
+			Assert.assertEquals("Lowest value of [" + (b+1) + "]", b+1, LatencyHistogram.bucketFor(high+1));
+		}
+		Random r = new Random(42);
+		for(int i = 0; i < 100000; i++) {
+			long v = (r.nextLong() >>> 1) >>> r.nextInt(63);
+			long high = LatencyHistogram.highestValueOf(LatencyHistogram.bucketFor(v));
+			Assert.assertTrue("Value [" + v + "] above its bucket [" + high + "]", v <= high);
+			Assert.assertTrue("Value [" + v + "] error too large for [" + high + "]", (high - v) <= v * MAX_ERROR);
+		}
+	}
+	
+	/**
+	 * Tests the percentiles, mean and maximum of a known distribution
+	 */
+	@Test
+	public void testPercentiles() {
+		LatencyHistogram h = new LatencyHistogram(NO_ROLL, 1);
+		for(long v = 1; v <= 1000; v++) h.record(v);
+		Snapshot snap = h.getSnapshot();
+		Assert.assertEquals("Count", 1000L, snap.getCount());
+		Assert.assertEquals("Mean", 500L, snap.getMean());
+		Assert.assertEquals("Max", 1000L, snap.getMax());
+		assertWithin("p50", 500L, snap.getPercentile(50D));
+		assertWithin("p99", 990L, snap.getPercentile(99D));
+		assertWithin("p99.9", 999L, snap.getPercentile(99.9D));
+		Assert.assertEquals("p100 capped at the maximum", 1000L, snap.getPercentile(100D));
+		Assert.assertEquals("p0 is the first value", 1L, snap.getPercentile(0D));
+		Assert.assertEquals("Last", 1000L, h.getLast());
+		assertWithin("getP50", 500L, h.getP50());
+		assertWithin("getP99", 990L, h.getP99());
+	}
+	
+	/**
+	 * Validates that a reported percentile is no lower than the exact value and within the error bound
+	 * @param message The assertion message
+	 * @param exact The exact value
+	 * @param reported The reported value
+	 */
+	private static void assertWithin(String message, long exact, long reported) {
+		Assert.assertTrue(message + " [" + reported + "] below [" + exact + "]", reported >= exact);
+		Assert.assertTrue(message + " [" + reported + "] too far above [" + exact + "]", reported - exact <= exact * MAX_ERROR);
+	}
+	
+	/**
+	 * Tests the values reported for an empty histogram and that negative values are recorded as zero
+	 */
+	@Test
+	public void testEmptyAndNegative() {
+		LatencyHistogram h = new LatencyHistogram(NO_ROLL, 1);
+		Assert.assertEquals("Empty mean", -1L, h.getMean());
+		Assert.assertEquals("Empty p50", -1L, h.getP50());
+		Assert.assertEquals("Empty max", -1L, h.getMax());
+		Assert.assertEquals("Empty last", -1L, h.getLast());
+		h.record(-100L);
+		Assert.assertEquals("Count", 1L, h.getSnapshot().getCount());
+		Assert.assertEquals("Negative recorded as zero", 0L, h.getP50());
+		Assert.assertEquals("Last", 0L, h.getLast());
+	}
+	
+	/**
+	 * Tests that a completed interval is reported until the next interval completes, and that each interval only reports its own values
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testIntervalRoll() throws Exception {
+		LatencyHistogram h = new LatencyHistogram(100L, 1);
+		for(int i = 0; i < 10; i++) h.record(100L);
+		Thread.sleep(150L);
+		Snapshot first = h.getSnapshot();
+		Assert.assertEquals("First interval count", 10L, first.getCount());
+		Assert.assertEquals("First interval max", 100L, first.getMax());
+		for(int i = 0; i < 5; i++) h.record(1000L);
+		Assert.assertSame("Completed interval kept", first, h.getSnapshot());
+		Thread.sleep(150L);
+		Snapshot second = h.getSnapshot();
+		Assert.assertEquals("Second interval count", 5L, second.getCount());
+		Assert.assertEquals("Second interval mean", 1000L, second.getMean());
+		Assert.assertEquals("Second interval max", 1000L, second.getMax());
+		Thread.sleep(150L);
+		Assert.assertEquals("Empty interval", 0L, h.getSnapshot().getCount());
+		Assert.assertEquals("Empty interval max", -1L, h.getMax());
+	}
+	
+	/**
+	 * Tests that clear discards the recorded values
+	 */
+	@Test
+	public void testClear() {
+		LatencyHistogram h = new LatencyHistogram(NO_ROLL, 1);
+		for(long v = 1; v <= 100; v++) h.record(v);
+		h.clear();
+		Assert.assertEquals("Count", 0L, h.getSnapshot().getCount());
+		Assert.assertEquals("Last", -1L, h.getLast());
+		h.record(7L);
+		Assert.assertEquals("Count after clear", 1L, h.getSnapshot().getCount());
+		Assert.assertEquals("Max after clear", 7L, h.getMax());
+	}
+	
+	/**
+	 * Tests that values recorded concurrently across stripes are all counted
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testConcurrentRecord() throws Exception {
+		final int threads = 8, loops = 10000;
+		final LatencyHistogram h = new LatencyHistogram(NO_ROLL, 4);
+		final CountDownLatch start = new CountDownLatch(1);
+		final CountDownLatch done = new CountDownLatch(threads);
+		for(int t = 0; t < threads; t++) {
+			new Thread("HistogramRecorder#" + t) {
+				@Override
+				public void run() {
+					try {
+						start.await();
+						for(int i = 0; i < loops; i++) h.record(i%1000);
+					} catch (Exception ex) {
+						ex.printStackTrace(System.err);
+					} finally {
+						done.countDown();
+					}
+				}
+			}.start();
+		}
+		start.countDown();
+		Assert.assertTrue("Recorders finished", done.await(30, TimeUnit.SECONDS));
+		Snapshot snap = h.getSnapshot();
+		Assert.assertEquals("Count", (long)threads*loops, snap.getCount());
+		Assert.assertEquals("Max", 999L, snap.getMax());
+		Assert.assertEquals("Mean", 499L, snap.getMean());
+	}
+	
+	/**
+	 * Tests that invalid constructor arguments are rejected and the ms. conversion
+	 */
+	@Test
+	public void testArgumentsAndConversion() {
+		try {
+			new LatencyHistogram(0L, 1);
+			Assert.fail("Zero interval accepted");
+		} catch (IllegalArgumentException iae) {
+			log("Rejected: " + iae.getMessage());
+		}
+		try {
+			new LatencyHistogram(1000L, 0);
+			Assert.fail("Zero stripes accepted");
+		} catch (IllegalArgumentException iae) {
+			log("Rejected: " + iae.getMessage());
+		}
+		Assert.assertEquals("Interval", 1000L, new LatencyHistogram(1000L).getIntervalMs());
+		Assert.assertEquals("Empty marker", -1L, LatencyHistogram.toMs(-1L));
+		Assert.assertEquals("ns to ms", 2L, LatencyHistogram.toMs(TimeUnit.MILLISECONDS.toNanos(2) + 999L));
+	}
+	
+}
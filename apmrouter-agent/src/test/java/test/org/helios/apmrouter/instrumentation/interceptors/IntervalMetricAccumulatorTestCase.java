@@ -0,0 +1,327 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package test.org.helios.apmrouter.instrumentation.interceptors;
+
+import org.helios.apmrouter.instrumentation.interceptors.IntervalMetricAccumulator;
+import org.helios.apmrouter.instrumentation.interceptors.ThreadResource;
+import org.helios.apmrouter.metric.IMetric;
+import org.helios.apmrouter.trace.ITracer;
+import org.helios.apmrouter.trace.MetricHandle;
+import org.helios.apmrouter.trace.MetricSubmitter;
+import org.helios.apmrouter.trace.TracerImpl;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestName;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Title: IntervalMetricAccumulatorTestCase</p>
+ * <p>Description: Test cases for {@link IntervalMetricAccumulator} aggregation, flushing and the deferred free of closed accumulators</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>test.org.helios.apmrouter.instrumentation.interceptors.IntervalMetricAccumulatorTestCase</code></p>
+ */
+
+public class IntervalMetricAccumulatorTestCase {
+	
+	/**
+	 * StdOut log
+	 * @param obj The message to log
+	 */
+	protected static void log(Object obj) {
+		System.out.println(obj);
+	}
+	/**
+	 * StdErr log
+	 * @param obj The message to log
+	 */
+	protected static void loge(Object obj) {
+		System.err.println(obj);
+	}
+	/** The currently executing test name */
+	@Rule public final TestName name = new TestName();
+	
+	/** The submitter capturing the traced values */
+	private final CapturingSubmitter submitter = new CapturingSubmitter();
+	/** The tracer the accumulators trace through */
+	private final ITracer tracer = new TracerImpl("testhost", "testagent", submitter);
+	
+	/**
+	 * Pushes the background flush out past the tests so only the tests flush
+	 */
+	@BeforeClass
+	public static void setFlushPeriod() {
+		System.setProperty(IntervalMetricAccumulator.FLUSH_PERIOD_PROP, "" + TimeUnit.HOURS.toMillis(1));
+	}
+
+	/**
+	 * Prints the test name about to be executed
+	 */
+	@Before
+	public void printTestName() {
+		log("\n\t==================================\n\tRunning Test [" + name.getMethodName() + "]\n\t==================================\n");
+	}
+	
+	/**
+	 * Tests that a flush traces the aggregates of the recorded invocations and resets the stripes
+	 */
+	@Test
+	public void testFlushAggregates() {
+		short mask = ThreadResource.enable(ThreadResource.TIME_MS, ThreadResource.WAIT_COUNT, ThreadResource.BLOCK_TIME);
+		IntervalMetricAccumulator acc = new IntervalMetricAccumulator(tracer, mask, "test", name.getMethodName());
+		try {
+			Assert.assertEquals("Mask", mask, acc.getMask());
+			acc.record(ms(2), 0, 1, 0, 0, 5);
+			acc.record(ms(4), 0, 0, 0, 0, 0);
+			acc.record(ms(9), 0, 2, 0, 0, 0);
+			acc.flush();
+			Assert.assertEquals("InvocationCount", 3L, submitter.last("InvocationCount"));
+			Assert.assertEquals("AvgElapsedTimeMs", 5L, submitter.last("AvgElapsedTimeMs"));
+			Assert.assertEquals("MinElapsedTimeMs", 2L, submitter.last("MinElapsedTimeMs"));
+			Assert.assertEquals("MaxElapsedTimeMs", 9L, submitter.last("MaxElapsedTimeMs"));
+			Assert.assertEquals("WaitCount", 3L, submitter.last("WaitCount"));
+			Assert.assertEquals("BlockTimeMs", 5L, submitter.last("BlockTimeMs"));
+			Assert.assertEquals("Cpu not collected", 0, submitter.count("AvgCpuTimeNs"));
+			Assert.assertEquals("Wait time not collected", 0, submitter.count("WaitTimeMs"));
+			// an empty interval only traces the zero count
+			acc.flush();
+			Assert.assertEquals("InvocationCount traces", 2, submitter.count("InvocationCount"));
+			Assert.assertEquals("Empty InvocationCount", 0L, submitter.last("InvocationCount"));
+			Assert.assertEquals("AvgElapsedTimeMs traces", 1, submitter.count("AvgElapsedTimeMs"));
+		} finally {
+			acc.close();
+		}
+	}
+	
+	/**
+	 * Tests that invocations recorded concurrently across stripes are all accounted for in one flush
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testConcurrentRecord() throws Exception {
+		final int threads = 8, loops = 10000;
+		final IntervalMetricAccumulator acc = new IntervalMetricAccumulator(tracer, ThreadResource.enable(ThreadResource.TIME_NS, ThreadResource.CPU), "test", name.getMethodName());
+		try {
+			final CountDownLatch start = new CountDownLatch(1);
+			final CountDownLatch done = new CountDownLatch(threads);
+			for(int t = 0; t < threads; t++) {
+				new Thread("IntervalRecorder#" + t) {
+					@Override
+					public void run() {
+						try {
+							start.await();
+							for(int i = 0; i < loops; i++) {
+								acc.record(i%100 + 1, 10, 0, 0, 0, 0);
+							}
+						} catch (Exception ex) {
+							ex.printStackTrace(System.err);
+						} finally {
+							done.countDown();
+						}
+					}
+				}.start();
+			}
+			start.countDown();
+			Assert.assertTrue("Recorders finished", done.await(30, TimeUnit.SECONDS));
+			acc.flush();
+			Assert.assertEquals("InvocationCount", (long)threads*loops, submitter.last("InvocationCount"));
+			Assert.assertEquals("MinElapsedTimeNs", 1L, submitter.last("MinElapsedTimeNs"));
+			Assert.assertEquals("MaxElapsedTimeNs", 100L, submitter.last("MaxElapsedTimeNs"));
+			Assert.assertEquals("AvgElapsedTimeNs", 50L, submitter.last("AvgElapsedTimeNs"));
+			Assert.assertEquals("AvgCpuTimeNs", 10L, submitter.last("AvgCpuTimeNs"));
+		} finally {
+			acc.close();
+		}
+	}
+	
+	/**
+	 * Tests that a closed accumulator is unregistered, ignores further records and is freed by the flusher
+	 */
+	@Test
+	public void testCloseAndFree() {
+		int before = IntervalMetricAccumulator.getAccumulatorCount();
+		TestAccumulator acc = new TestAccumulator(tracer, ThreadResource.enable(ThreadResource.TIME_NS), "test", name.getMethodName());
+		Assert.assertEquals("Registered", before+1, IntervalMetricAccumulator.getAccumulatorCount());
+		acc.record(100, 0, 0, 0, 0, 0);
+		acc.close();
+		Assert.assertEquals("Unregistered", before, IntervalMetricAccumulator.getAccumulatorCount());
+		acc.record(100, 0, 0, 0, 0, 0);
+		acc.flush();
+		Assert.assertEquals("No flush after close", 0, submitter.count("InvocationCount"));
+		Assert.assertFalse("Not freed before the flusher runs", acc.isFreed());
+		TestAccumulator.flushAllNow();
+		Assert.assertTrue("Freed by the flusher", acc.isFreed());
+		acc.close();
+	}
+	
+	/**
+	 * Tests that the flusher does not free a closed accumulator while a thread holds a stripe reference
+	 */
+	@Test
+	public void testFreeWaitsForReferences() {
+		TestAccumulator acc = new TestAccumulator(tracer, ThreadResource.enable(ThreadResource.TIME_NS), "test", name.getMethodName());
+		Assert.assertTrue("Reference taken", acc.acquireStripe(0));
+		acc.close();
+		Assert.assertFalse("No reference after close", acc.acquireStripe(0));
+		TestAccumulator.flushAllNow();
+		Assert.assertFalse("Not freed while referenced", acc.isFreed());
+		acc.releaseStripe(0);
+		TestAccumulator.flushAllNow();
+		Assert.assertTrue("Freed once released", acc.isFreed());
+	}
+	
+	/**
+	 * Tests that a null tracer is rejected
+	 */
+	@Test(expected=IllegalArgumentException.class)
+	public void testNullTracer() {
+		new IntervalMetricAccumulator(null, ThreadResource.enable(ThreadResource.TIME_NS), "test");
+	}
+	
+	/**
+	 * Converts ms. to ns.
+	 * @param ms The ms. to convert
+	 * @return the ns.
+	 */
+	private static long ms(long ms) {
+		return TimeUnit.MILLISECONDS.toNanos(ms);
+	}
+	
+	/**
+	 * <p>Title: TestAccumulator</p>
+	 * <p>Description: Exposes the flusher and the stripe references to the tests</p> 
+	 * <p>Company: Helios Development Group LLC</p>
+	 * @author Whitehead (nwhitehead AT heliosdev DOT org)
+	 * <p><code>test.org.helios.apmrouter.instrumentation.interceptors.IntervalMetricAccumulatorTestCase.TestAccumulator</code></p>
+	 */
+	private static class TestAccumulator extends IntervalMetricAccumulator {
+		/**
+		 * Creates a new TestAccumulator
+		 * @param tracer The tracer the aggregated metrics are traced through
+		 * @param mask The {@link ThreadResource} mask of the resources to accumulate
+		 * @param namespace The namespace of the accumulated metrics
+		 */
+		TestAccumulator(ITracer tracer, short mask, String...namespace) {
+			super(tracer, mask, namespace);
+		}
+		/**
+		 * Runs one pass of the flusher
+		 */
+		static void flushAllNow() {
+			flushAll();
+		}
+		/**
+		 * Indicates if the native memory has been freed
+		 * @return true if the native memory has been freed
+		 */
+		boolean isFreed() {
+			return freed;
+		}
+		/**
+		 * Takes a reference on a stripe
+		 * @param index The stripe index
+		 * @return true if the reference was taken
+		 */
+		boolean acquireStripe(int index) {
+			return acquire(index);
+		}
+		/**
+		 * Releases a reference on a stripe
+		 * @param index The stripe index
+		 */
+		void releaseStripe(int index) {
+			release(index);
+		}
+	}
+	
+	/**
+	 * <p>Title: CapturingSubmitter</p>
+	 * <p>Description: A {@link MetricSubmitter} that captures handle traces by metric name</p> 
+	 * <p>Company: Helios Development Group LLC</p>
+	 * @author Whitehead (nwhitehead AT heliosdev DOT org)
+	 * <p><code>test.org.helios.apmrouter.instrumentation.interceptors.IntervalMetricAccumulatorTestCase.CapturingSubmitter</code></p>
+	 */
+	private static class CapturingSubmitter implements MetricSubmitter {
+		/** The traced values keyed by metric name */
+		private final Map<String, List<Long>> values = new HashMap<String, List<Long>>();
+		
+		@Override
+		public synchronized void submit(MetricHandle handle, long time, long value) {
+			String metricName = handle.getMetricId().getName();
+			List<Long> list = values.get(metricName);
+			if(list==null) {
+				list = new ArrayList<Long>();
+				values.put(metricName, list);
+			}
+			list.add(value);
+		}
+		
+		/**
+		 * Returns the last value traced for the named metric
+		 * @param metricName The metric name
+		 * @return the last traced value
+		 */
+		synchronized long last(String metricName) {
+			List<Long> list = values.get(metricName);
+			Assert.assertNotNull("No traces for [" + metricName + "]", list);
+			return list.get(list.size()-1);
+		}
+		
+		/**
+		 * Returns the number of values traced for the named metric
+		 * @param metricName The metric name
+		 * @return the number of traced values
+		 */
+		synchronized int count(String metricName) {
+			List<Long> list = values.get(metricName);
+			return list==null ? 0 : list.size();
+		}
+		
+		@Override
+		public void submitDirect(IMetric metric, long timeout) {}
+		@Override
+		public void submit(Collection<IMetric> metrics) {}
+		@Override
+		public void submit(IMetric... metrics) {}
+		@Override
+		public long getSentMetrics() { return 0; }
+		@Override
+		public long getDroppedMetrics() { return 0; }
+		@Override
+		public void resetStats() {}
+		@Override
+		public long getQueuedMetrics() { return 0; }
+	}
+}
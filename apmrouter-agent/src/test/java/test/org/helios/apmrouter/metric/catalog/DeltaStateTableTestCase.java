@@ -0,0 +1,260 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package test.org.helios.apmrouter.metric.catalog;
+
+import org.helios.apmrouter.metric.catalog.DeltaStateTable;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestName;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Title: DeltaStateTableTestCase</p>
+ * <p>Description: Test cases for {@link DeltaStateTable} delta computation, overflow and concurrent slot claims</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>test.org.helios.apmrouter.metric.catalog.DeltaStateTableTestCase</code></p>
+ */
+
+public class DeltaStateTableTestCase {
+	
+	/**
+	 * StdOut log
+	 * @param obj The message to log
+	 */
+	protected static void log(Object obj) {
+		System.out.println(obj);
+	}
+	/**
+	 * StdErr log
+	 * @param obj The message to log
+	 */
+	protected static void loge(Object obj) {
+		System.err.println(obj);
+	}
+	/** The currently executing test name */
+	@Rule public final TestName name = new TestName();
+
+	/**
+	 * Prints the test name about to be executed
+	 */
+	@Before
+	public void printTestName() {
+		log("\n\t==================================\n\tRunning Test [" + name.getMethodName() + "]\n\t==================================\n");
+	}
+	
+	/**
+	 * Tests that the first sample has no delta and later samples return the difference from the prior sample
+	 */
+	@Test
+	public void testDelta() {
+		DeltaStateTable table = new DeltaStateTable(16);
+		Assert.assertEquals("First sample", DeltaStateTable.NO_DELTA, table.delta(77L, 100L));
+		Assert.assertEquals("Second sample", 50L, table.delta(77L, 150L));
+		Assert.assertEquals("Unchanged sample", 0L, table.delta(77L, 150L));
+		Assert.assertEquals("Other key first sample", DeltaStateTable.NO_DELTA, table.delta(78L, 10L));
+		Assert.assertEquals("Keys are independent", 1000L, table.delta(77L, 1150L));
+		Assert.assertEquals("Size", 2, table.size());
+		Assert.assertEquals("Overflow hits", 0L, table.getOverflowHits());
+	}
+	
+	/**
+	 * Tests that a value going backwards has no delta and that the next delta is taken from the lower value
+	 */
+	@Test
+	public void testBackwards() {
+		DeltaStateTable table = new DeltaStateTable(16);
+		table.delta(5L, 1000L);
+		Assert.assertEquals("Reset value", DeltaStateTable.NO_DELTA, table.delta(5L, 10L));
+		Assert.assertEquals("Delta from the reset value", 15L, table.delta(5L, 25L));
+	}
+	
+	/**
+	 * Tests that the capacity is rounded up to a power of two and that an invalid capacity is rejected
+	 */
+	@Test
+	public void testCapacity() {
+		Assert.assertEquals("Rounded capacity", 128, new DeltaStateTable(100).getCapacity());
+		Assert.assertEquals("Exact capacity", 64, new DeltaStateTable(64).getCapacity());
+		Assert.assertEquals("Minimum capacity", 1, new DeltaStateTable(1).getCapacity());
+		try {
+			new DeltaStateTable(0);
+			Assert.fail("Zero capacity accepted");
+		} catch (IllegalArgumentException iae) {
+			log("Rejected: " + iae.getMessage());
+		}
+	}
+	
+	/**
+	 * Tests that keys beyond the table capacity keep their delta state in the overflow map
+	 */
+	@Test
+	public void testOverflow() {
+		DeltaStateTable table = new DeltaStateTable(4);
+		for(long key = 1; key <= 10; key++) {
+			Assert.assertEquals("First sample for [" + key + "]", DeltaStateTable.NO_DELTA, table.delta(key, key*100));
+		}
+		Assert.assertEquals("Size", 10, table.size());
+		Assert.assertTrue("Overflow hits", table.getOverflowHits() > 0);
+		for(long key = 1; key <= 10; key++) {
+			Assert.assertEquals("Delta for [" + key + "]", key, table.delta(key, key*101));
+		}
+		Assert.assertEquals("Size after second pass", 10, table.size());
+	}
+	
+	/**
+	 * Tests that keys colliding on one home slot are probed no further than {@link DeltaStateTable#MAX_PROBES} slots
+	 * before going to the overflow map, and that the overflowed keys keep their delta state
+	 */
+	@Test
+	public void testProbeLimit() {
+		final int capacity = 1024, collisions = DeltaStateTable.MAX_PROBES + 8;
+		long[] keys = new long[collisions];
+		int home = MixingTable.home(1L, capacity);
+		int found = 0;
+		for(long key = 1; found < collisions; key++) {
+			if(MixingTable.home(key, capacity)==home) keys[found++] = key;
+		}
+		DeltaStateTable table = new DeltaStateTable(capacity);
+		for(long key: keys) {
+			Assert.assertEquals("First sample for [" + key + "]", DeltaStateTable.NO_DELTA, table.delta(key, 10L));
+		}
+		Assert.assertEquals("Size", collisions, table.size());
+		Assert.assertEquals("Overflow hits", 8L, table.getOverflowHits());
+		for(long key: keys) {
+			Assert.assertEquals("Delta for [" + key + "]", 5L, table.delta(key, 15L));
+		}
+	}
+	
+	/**
+	 * Tests that once the table is full, keys already in the overflow map keep their delta state and table keys are still found
+	 */
+	@Test
+	public void testFullTable() {
+		DeltaStateTable table = new DeltaStateTable(8);
+		for(long key = 1; key <= 20; key++) table.delta(key, key);
+		Assert.assertEquals("Size", 20, table.size());
+		for(long key = 1; key <= 20; key++) {
+			Assert.assertEquals("Delta for [" + key + "]", 1L, table.delta(key, key+1));
+		}
+		Assert.assertEquals("Size after second pass", 20, table.size());
+	}
+	
+	/**
+	 * Tests that freeing the table drops the delta state, that later deltas are still computed and that a second free is a no-op
+	 */
+	@Test
+	public void testFree() {
+		DeltaStateTable table = new DeltaStateTable(16);
+		table.delta(3L, 10L);
+		table.free();
+		Assert.assertTrue("Freed", table.isFreed());
+		Assert.assertEquals("Size", 0, table.size());
+		Assert.assertEquals("No prior sample after free", DeltaStateTable.NO_DELTA, table.delta(3L, 20L));
+		Assert.assertEquals("Delta after free", 5L, table.delta(3L, 25L));
+		table.clear();
+		table.free();
+		Assert.assertEquals("Size after clear", 0, table.size());
+	}
+	
+	/**
+	 * <p>Title: MixingTable</p>
+	 * <p>Description: Exposes the key hash of {@link DeltaStateTable} to find colliding keys</p> 
+	 */
+	static class MixingTable extends DeltaStateTable {
+		/**
+		 * Creates a new MixingTable
+		 */
+		MixingTable() {
+			super(1);
+		}
+		/**
+		 * Returns the home slot of the passed key
+		 * @param key The key
+		 * @param capacity The power of two table capacity
+		 * @return the home slot index
+		 */
+		static int home(long key, int capacity) {
+			return mix(key) & (capacity-1);
+		}
+	}
+	
+	/**
+	 * Tests that clear drops all the delta state
+	 */
+	@Test
+	public void testClear() {
+		DeltaStateTable table = new DeltaStateTable(2);
+		for(long key = 1; key <= 4; key++) {
+			table.delta(key, 10L);
+		}
+		table.clear();
+		Assert.assertEquals("Size", 0, table.size());
+		for(long key = 1; key <= 4; key++) {
+			Assert.assertEquals("No prior sample for [" + key + "]", DeltaStateTable.NO_DELTA, table.delta(key, 20L));
+		}
+	}
+	
+	/**
+	 * Tests that threads racing to claim the same keys end up with one slot per key
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testConcurrentClaims() throws Exception {
+		final int threads = 8, keys = 1000;
+		final DeltaStateTable table = new DeltaStateTable(4096);
+		final CountDownLatch start = new CountDownLatch(1);
+		final CountDownLatch done = new CountDownLatch(threads);
+		for(int t = 0; t < threads; t++) {
+			new Thread("DeltaClaimer#" + t) {
+				@Override
+				public void run() {
+					try {
+						start.await();
+						for(int i = 1; i <= keys; i++) {
+							table.delta(i, 1L);
+						}
+					} catch (Exception ex) {
+						ex.printStackTrace(System.err);
+					} finally {
+						done.countDown();
+					}
+				}
+			}.start();
+		}
+		start.countDown();
+		Assert.assertTrue("Claimers finished", done.await(30, TimeUnit.SECONDS));
+		Assert.assertEquals("Size", keys, table.size());
+		Assert.assertEquals("Overflow hits", 0L, table.getOverflowHits());
+		for(int i = 1; i <= keys; i++) {
+			Assert.assertEquals("Delta for [" + i + "]", 1L, table.delta(i, 2L));
+		}
+	}
+	
+}
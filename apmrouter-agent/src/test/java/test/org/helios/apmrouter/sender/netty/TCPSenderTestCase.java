@@ -0,0 +1,367 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package test.org.helios.apmrouter.sender.netty;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.helios.apmrouter.OpCode;
+import org.helios.apmrouter.metric.MetricType;
+import org.helios.apmrouter.sender.netty.TCPSender;
+import org.helios.apmrouter.trace.DirectMetricCollection;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelFuture;
+import org.jboss.netty.channel.Channels;
+import org.jboss.netty.channel.DefaultChannelFuture;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestName;
+
+/**
+ * <p>Title: TCPSenderTestCase</p>
+ * <p>Description: Test cases for the in-flight window, acknowledgements and reconnect resends of {@link TCPSender}.
+ * The sender never connects: the tests hand it recording channels through {@link TCPSender#onConnect(Channel)}.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>test.org.helios.apmrouter.sender.netty.TCPSenderTestCase</code></p>
+ */
+
+public class TCPSenderTestCase {
+	/** The base timestamp of the test metrics */
+	private static final long BASE_TIME = 1350000000000L;
+	/** Serial for unique sender URIs, so each test sender gets its own management interface */
+	private static final AtomicInteger serial = new AtomicInteger(30000);
+	
+	/**
+	 * StdOut log
+	 * @param obj The message to log
+	 */
+	protected static void log(Object obj) {
+		System.out.println(obj);
+	}
+	/**
+	 * StdErr log
+	 * @param obj The message to log
+	 */
+	protected static void loge(Object obj) {
+		System.err.println(obj);
+	}
+	/** The currently executing test name */
+	@Rule public final TestName name = new TestName();
+
+	/**
+	 * Prints the test name about to be executed
+	 */
+	@Before
+	public void printTestName() {
+		log("\n\t==================================\n\tRunning Test [" + name.getMethodName() + "]\n\t==================================\n");
+	}
+	
+	/**
+	 * <p>Title: TestSender</p>
+	 * <p>Description: A TCPSender that never connects by itself and exposes its window and connection callbacks</p> 
+	 * <p>Company: Helios Development Group LLC</p>
+	 * @author Whitehead (nwhitehead AT heliosdev DOT org)
+	 * <p><code>test.org.helios.apmrouter.sender.netty.TCPSenderTestCase.TestSender</code></p>
+	 */
+	protected static class TestSender extends TCPSender {
+		/**
+		 * Creates a new TestSender
+		 */
+		protected TestSender() {
+			super(URI.create("tcp://localhost:" + serial.incrementAndGet()));
+		}
+		
+		@Override
+		protected void connect() {
+			/* No Op */
+		}
+		
+		@Override
+		public void sendHello() {
+			/* No Op */
+		}
+		
+		/**
+		 * Returns the sequences of the unacknowledged batches in sequence order
+		 * @return the unacknowledged sequences
+		 */
+		protected List<Long> inFlightSequences() {
+			return new ArrayList<Long>(inFlight.keySet());
+		}
+		
+		/**
+		 * Acknowledges the passed batch sequence
+		 * @param seq The sequence to acknowledge
+		 */
+		protected void ack(long seq) {
+			onAck(seq);
+		}
+		
+		/**
+		 * Simulates a connect on the passed channel
+		 * @param channel The connected channel
+		 */
+		protected void connected(Channel channel) {
+			onConnect(channel);
+		}
+		
+		/**
+		 * Simulates the loss of the passed channel
+		 * @param channel The lost channel
+		 */
+		protected void disconnected(Channel channel) {
+			processDisconnect(channel);
+		}
+	}
+	
+	/**
+	 * Creates a channel stub that records the batch sequences written to it
+	 * @param batchSequences The list the written batch sequences are added to
+	 * @return the channel stub
+	 */
+	protected static Channel recordingChannel(final List<Long> batchSequences) {
+		final Integer id = serial.incrementAndGet();
+		final InetSocketAddress address = new InetSocketAddress("localhost", id);
+		final ChannelFuture[] closeFuture = new ChannelFuture[1];
+		Channel channel = (Channel)Proxy.newProxyInstance(Channel.class.getClassLoader(), new Class[]{Channel.class}, new InvocationHandler(){
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) {
+				String methodName = method.getName();
+				if("write".equals(methodName)) {
+					if(args[0] instanceof ChannelBuffer) {
+						ChannelBuffer frame = (ChannelBuffer)args[0];
+						if(frame.getByte(frame.readerIndex())==OpCode.SEND_BATCH.op()) {
+							synchronized(batchSequences) {
+								batchSequences.add(frame.getLong(frame.readerIndex()+1));
+							}
+						}
+					}
+					return Channels.succeededFuture((Channel)proxy);
+				}
+				if("getId".equals(methodName)) return id;
+				if("getCloseFuture".equals(methodName)) return closeFuture[0];
+				if("close".equals(methodName)) return Channels.succeededFuture((Channel)proxy);
+				if("getRemoteAddress".equals(methodName)) return address;
+				if("isOpen".equals(methodName) || "isConnected".equals(methodName) || "isWritable".equals(methodName)) return true;
+				if("hashCode".equals(methodName)) return id;
+				if("equals".equals(methodName)) return proxy==args[0];
+				if("compareTo".equals(methodName)) return id.compareTo(((Channel)args[0]).getId());
+				if("toString".equals(methodName)) return "RecordingChannel#" + id;
+				return null;
+			}
+		});
+		closeFuture[0] = new DefaultChannelFuture(channel, false);
+		return channel;
+	}
+	
+	/**
+	 * Sends a batch of tokenized metrics
+	 * @param sender The sender to send with
+	 * @param metricCount The number of metrics in the batch
+	 */
+	protected static void send(TCPSender sender, int metricCount) {
+		DirectMetricCollection dmc = DirectMetricCollection.newDirectMetricCollection();
+		for(int i = 0; i < metricCount; i++) {
+			dmc.appendLong(Integer.MAX_VALUE, Integer.MAX_VALUE, MetricType.LONG_COUNTER, i+1, null, BASE_TIME + i, i);
+		}
+		sender.send(dmc);
+	}
+	
+	/**
+	 * Sends a batch in a new thread
+	 * @param sender The sender to send with
+	 * @param done The latch counted down when the send returns
+	 */
+	protected static void sendAsync(final TCPSender sender, final CountDownLatch done) {
+		Thread t = new Thread("TCPSenderTestCase-Sender") {
+			@Override
+			public void run() {
+				send(sender, 1);
+				done.countDown();
+			}
+		};
+		t.setDaemon(true);
+		t.start();
+	}
+	
+	/**
+	 * Tests that a send blocks while the window holds the maximum number of batches, is released by an ack,
+	 * and is dropped once the send timeout elapses
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testWindowBlocksAtBatchLimit() throws Exception {
+		TestSender sender = new TestSender();
+		sender.setMaxInFlightBatches(2);
+		sender.setSendTimeout(5000);
+		send(sender, 1);
+		send(sender, 1);
+		Assert.assertEquals("The in-flight batches", 2, sender.getInFlightBatches());
+		CountDownLatch done = new CountDownLatch(1);
+		sendAsync(sender, done);
+		Assert.assertFalse("The send blocked on the full window", done.await(200, TimeUnit.MILLISECONDS));
+		sender.ack(1);
+		Assert.assertTrue("The send was released by the ack", done.await(2000, TimeUnit.MILLISECONDS));
+		Assert.assertEquals("The in-flight sequences", Arrays.asList(2L, 3L), sender.inFlightSequences());
+		sender.setSendTimeout(100);
+		long start = System.currentTimeMillis();
+		send(sender, 3);
+		Assert.assertTrue("The send waited for the timeout", System.currentTimeMillis()-start >= 100);
+		Assert.assertEquals("The window timeouts", 1, sender.getWindowTimeouts());
+		Assert.assertEquals("The dropped metrics", 3, sender.getDroppedMetrics());
+		Assert.assertEquals("The in-flight batches after the timeout", 2, sender.getInFlightBatches());
+	}
+	
+	/**
+	 * Tests that a send blocks while the window would exceed the maximum number of bytes, 
+	 * and that an empty window accepts a batch larger than the byte limit
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testWindowBlocksAtByteLimit() throws Exception {
+		TestSender sender = new TestSender();
+		sender.setMaxInFlightBatches(100);
+		sender.setMaxInFlightBytes(1);
+		sender.setSendTimeout(5000);
+		send(sender, 1);
+		long batchSize = sender.getInFlightBytes();
+		Assert.assertEquals("The oversized batch in the empty window", 1, sender.getInFlightBatches());
+		sender.ack(1);
+		Assert.assertEquals("The in-flight bytes after the ack", 0, sender.getInFlightBytes());
+		sender.setMaxInFlightBytes(batchSize * 2);
+		send(sender, 1);
+		send(sender, 1);
+		Assert.assertEquals("The in-flight bytes", batchSize * 2, sender.getInFlightBytes());
+		CountDownLatch done = new CountDownLatch(1);
+		sendAsync(sender, done);
+		Assert.assertFalse("The send blocked on the byte limit", done.await(200, TimeUnit.MILLISECONDS));
+		sender.ack(2);
+		Assert.assertTrue("The send was released by the ack", done.await(2000, TimeUnit.MILLISECONDS));
+		Assert.assertEquals("The in-flight bytes after the release", batchSize * 2, sender.getInFlightBytes());
+		Assert.assertEquals("The window timeouts", 0, sender.getWindowTimeouts());
+	}
+	
+	/**
+	 * Tests that an ack releases exactly the acknowledged batch and that repeated or unknown acks are ignored
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testAckReleasesAckedSequences() throws Exception {
+		TestSender sender = new TestSender();
+		sender.setMaxInFlightBatches(10);
+		for(int i = 1; i <= 4; i++) {
+			send(sender, i);
+		}
+		long bytes = sender.getInFlightBytes();
+		Assert.assertEquals("The in-flight sequences", Arrays.asList(1L, 2L, 3L, 4L), sender.inFlightSequences());
+		sender.ack(2);
+		sender.ack(4);
+		Assert.assertEquals("The in-flight sequences after the acks", Arrays.asList(1L, 3L), sender.inFlightSequences());
+		Assert.assertEquals("The acked batches", 2, sender.getAckedBatches());
+		Assert.assertEquals("The sent metrics", 2 + 4, sender.getSentMetrics());
+		long remaining = sender.getInFlightBytes();
+		Assert.assertTrue("The in-flight bytes were released [" + remaining + "] of [" + bytes + "]", remaining > 0 && remaining < bytes);
+		sender.ack(2);
+		sender.ack(99);
+		Assert.assertEquals("The in-flight sequences after repeated acks", Arrays.asList(1L, 3L), sender.inFlightSequences());
+		Assert.assertEquals("The acked batches after repeated acks", 2, sender.getAckedBatches());
+		Assert.assertEquals("The in-flight bytes after repeated acks", remaining, sender.getInFlightBytes());
+		sender.ack(1);
+		sender.ack(3);
+		Assert.assertEquals("The in-flight batches", 0, sender.getInFlightBatches());
+		Assert.assertEquals("The in-flight bytes", 0, sender.getInFlightBytes());
+		Assert.assertEquals("The sent metrics after all acks", 1 + 2 + 3 + 4, sender.getSentMetrics());
+	}
+	
+	/**
+	 * Tests that the unacknowledged batches are resent once and in order when the sender reconnects
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testResendAfterReconnect() throws Exception {
+		TestSender sender = new TestSender();
+		sender.setMaxInFlightBatches(10);
+		List<Long> first = new ArrayList<Long>();
+		Channel channel = recordingChannel(first);
+		sender.connected(channel);
+		for(int i = 0; i < 4; i++) {
+			send(sender, 1);
+		}
+		Assert.assertEquals("The batches written to the first channel", Arrays.asList(1L, 2L, 3L, 4L), first);
+		sender.ack(1);
+		sender.ack(3);
+		sender.disconnected(channel);
+		send(sender, 1);
+		Assert.assertEquals("The batches written after the disconnect", 4, first.size());
+		List<Long> second = new ArrayList<Long>();
+		sender.connected(recordingChannel(second));
+		Assert.assertEquals("The batches resent to the second channel", Arrays.asList(2L, 4L, 5L), second);
+		Assert.assertEquals("The resent batches", 3, sender.getResentBatches());
+		Assert.assertEquals("The connects", 2, sender.getConnects());
+		send(sender, 1);
+		Assert.assertEquals("The batches written to the second channel", Arrays.asList(2L, 4L, 5L, 6L), second);
+		sender.ack(2);
+		sender.ack(4);
+		sender.ack(5);
+		sender.ack(6);
+		Assert.assertEquals("The in-flight batches", 0, sender.getInFlightBatches());
+		Assert.assertEquals("The batches written to the first channel after the reconnect", 4, first.size());
+	}
+	
+	/**
+	 * Tests that the sender reports saturation while the window is full by count or by bytes
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testSaturation() throws Exception {
+		TestSender sender = new TestSender();
+		sender.setMaxInFlightBatches(2);
+		Assert.assertFalse("Saturated when empty", sender.isSaturated());
+		send(sender, 1);
+		Assert.assertFalse("Saturated with one batch", sender.isSaturated());
+		send(sender, 1);
+		Assert.assertTrue("Saturated with two batches", sender.isSaturated());
+		sender.ack(1);
+		Assert.assertFalse("Saturated after an ack", sender.isSaturated());
+		sender.setMaxInFlightBatches(100);
+		sender.setMaxInFlightBytes(sender.getInFlightBytes());
+		Assert.assertTrue("Saturated at the byte limit", sender.isSaturated());
+		sender.ack(2);
+		Assert.assertFalse("Saturated after the last ack", sender.isSaturated());
+	}
+}
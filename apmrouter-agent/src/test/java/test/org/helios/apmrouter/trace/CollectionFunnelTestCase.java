@@ -0,0 +1,303 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package test.org.helios.apmrouter.trace;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.helios.apmrouter.metric.ICEMetric;
+import org.helios.apmrouter.metric.IMetric;
+import org.helios.apmrouter.metric.MetricType;
+import org.helios.apmrouter.metric.catalog.ICEMetricCatalog;
+import org.helios.apmrouter.metric.catalog.IDelegateMetric;
+import org.helios.apmrouter.sender.ISender;
+import org.helios.apmrouter.trace.CollectionFunnel;
+import org.helios.apmrouter.trace.DirectMetricCollection;
+import org.helios.apmrouter.trace.DirectMetricCollection.MetricCursor;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestName;
+
+/**
+ * <p>Title: CollectionFunnelTestCase</p>
+ * <p>Description: Test cases for the stripe hand-offs and the offline queue of {@link CollectionFunnel}</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>test.org.helios.apmrouter.trace.CollectionFunnelTestCase</code></p>
+ */
+
+public class CollectionFunnelTestCase {
+	/** The base timestamp of the test metrics */
+	private static final long BASE_TIME = 1350000000000L;
+	/** A timer period long enough that the timer thread never flushes during a test */
+	private static final long NO_TIMER = TimeUnit.MILLISECONDS.convert(1, TimeUnit.HOURS);
+	
+	/**
+	 * StdOut log
+	 * @param obj The message to log
+	 */
+	protected static void log(Object obj) {
+		System.out.println(obj);
+	}
+	/**
+	 * StdErr log
+	 * @param obj The message to log
+	 */
+	protected static void loge(Object obj) {
+		System.err.println(obj);
+	}
+	/** The currently executing test name */
+	@Rule public final TestName name = new TestName();
+
+	/**
+	 * Prints the test name about to be executed
+	 */
+	@Before
+	public void printTestName() {
+		log("\n\t==================================\n\tRunning Test [" + name.getMethodName() + "]\n\t==================================\n");
+	}
+	
+	/**
+	 * <p>Title: TestFunnel</p>
+	 * <p>Description: A funnel that records the values of the metrics it sends instead of handing the DMCs to a sender</p> 
+	 * <p>Company: Helios Development Group LLC</p>
+	 * @author Whitehead (nwhitehead AT heliosdev DOT org)
+	 * <p><code>test.org.helios.apmrouter.trace.CollectionFunnelTestCase.TestFunnel</code></p>
+	 */
+	protected static class TestFunnel extends CollectionFunnel {
+		/** The values of the sent metrics */
+		protected final List<Long> sentValues = new ArrayList<Long>();
+		
+		/**
+		 * Creates a new TestFunnel
+		 * @param sender The sender stub
+		 * @param maxDmcMetrics The maximum number of metrics in a DMC before it is flushed
+		 * @param switchQueueSize The size of the offline queue
+		 */
+		protected TestFunnel(ISender sender, int maxDmcMetrics, int switchQueueSize) {
+			super(sender, NO_TIMER, Integer.MAX_VALUE, maxDmcMetrics, switchQueueSize);
+		}
+		
+		@Override
+		protected void sendDcm(DirectMetricCollection dcmToSend) {
+			try {
+				MetricCursor cursor = dcmToSend.newMetricCursor();
+				synchronized(sentValues) {
+					while(cursor.nextRecord()) {
+						sentValues.add(cursor.getLongValue());
+					}
+				}
+			} finally {
+				dcmToSend.destroy();
+			}
+		}
+		
+		/**
+		 * Gathers the stripes and drains the offline queue
+		 */
+		protected void flushAll() {
+			flush();
+		}
+		
+		/**
+		 * Flushes until the passed number of metrics has been sent. The timer thread, woken by stripe rotations, 
+		 * may be flushing at the same time, in which case a flush from this thread returns without gathering.
+		 * @param count The number of metrics expected to be sent
+		 * @return a copy of the values of the sent metrics
+		 * @throws InterruptedException thrown if the calling thread is interrupted
+		 */
+		protected List<Long> flushUntilSent(int count) throws InterruptedException {
+			long deadline = System.currentTimeMillis() + 10000;
+			while(sent().size()<count && System.currentTimeMillis()<deadline) {
+				flush();
+				Thread.sleep(10);
+			}
+			return sent();
+		}
+		
+		/**
+		 * Returns a copy of the values of the sent metrics
+		 * @return the sent values
+		 */
+		protected List<Long> sent() {
+			synchronized(sentValues) {
+				return new ArrayList<Long>(sentValues);
+			}
+		}
+	}
+	
+	/**
+	 * Creates a sender stub whose saturation is controlled by the passed flag
+	 * @param saturated The saturation flag
+	 * @return the sender stub
+	 */
+	protected static ISender sender(final AtomicBoolean saturated) {
+		return (ISender)Proxy.newProxyInstance(ISender.class.getClassLoader(), new Class[]{ISender.class}, new InvocationHandler(){
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) {
+				if("isSaturated".equals(method.getName())) return saturated.get();
+				if("hashCode".equals(method.getName())) return System.identityHashCode(proxy);
+				if("equals".equals(method.getName())) return proxy==args[0];
+				if("toString".equals(method.getName())) return "SenderStub";
+				throw new UnsupportedOperationException(method.getName());
+			}
+		});
+	}
+	
+	/**
+	 * Creates a metric for the test metric ID
+	 * @param dmetric The metric ID
+	 * @param value The metric value
+	 * @return the metric
+	 */
+	protected static IMetric metric(IDelegateMetric dmetric, long value) {
+		return ICEMetric.newMetric(BASE_TIME, value, MetricType.LONG_COUNTER, dmetric);
+	}
+	
+	/**
+	 * Returns the metric ID used by the test
+	 * @return the metric ID
+	 */
+	protected IDelegateMetric metricId() {
+		return ICEMetricCatalog.getInstance().get("funnel-host", "funnel-agent", name.getMethodName(), MetricType.LONG_COUNTER, "funnel");
+	}
+	
+	/**
+	 * Asserts that the sent values are exactly the values 0 to count-1, each once
+	 * @param sent The sent values
+	 * @param count The number of submitted values
+	 */
+	protected static void assertSentOnce(List<Long> sent, int count) {
+		BitSet seen = new BitSet(count);
+		for(Long value: sent) {
+			Assert.assertTrue("The value is in range [" + value + "]", value>=0 && value<count);
+			Assert.assertFalse("The value was sent twice [" + value + "]", seen.get(value.intValue()));
+			seen.set(value.intValue());
+		}
+		Assert.assertEquals("The sent value count", count, sent.size());
+	}
+	
+	/**
+	 * Tests that metrics submitted concurrently from more threads than stripes, with stripes rotating while other threads
+	 * probe them, are all sent once the funnel is flushed, with no metric lost or sent twice
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testConcurrentSubmitsNoLossOrDuplicates() throws Exception {
+		final TestFunnel funnel = new TestFunnel(sender(new AtomicBoolean(false)), 7, 1000000);
+		final IDelegateMetric dmetric = metricId();
+		final int threads = Math.min(64, Math.max(8, funnel.getStripeCount() * 2));
+		final int perThread = 5000;
+		final CountDownLatch start = new CountDownLatch(1);
+		final CountDownLatch done = new CountDownLatch(threads);
+		final List<Throwable> errors = new ArrayList<Throwable>();
+		for(int t = 0; t < threads; t++) {
+			final int base = t * perThread;
+			Thread thread = new Thread("CollectionFunnelTestCase-Submitter#" + t) {
+				@Override
+				public void run() {
+					try {
+						start.await();
+						for(int i = 0; i < perThread; i += 2) {
+							// alternate single and multi metric submissions
+							if((i & 2)==0) {
+								funnel.submit(metric(dmetric, base + i));
+								funnel.submit(metric(dmetric, base + i + 1));
+							} else {
+								funnel.submit(metric(dmetric, base + i), metric(dmetric, base + i + 1));
+							}
+						}
+					} catch (Throwable e) {
+						synchronized(errors) {
+							errors.add(e);
+						}
+					} finally {
+						done.countDown();
+					}
+				}
+			};
+			thread.setDaemon(true);
+			thread.start();
+		}
+		start.countDown();
+		Assert.assertTrue("The submitters completed", done.await(60, TimeUnit.SECONDS));
+		Assert.assertTrue("Submitter errors:" + errors, errors.isEmpty());
+		List<Long> sent = funnel.flushUntilSent(threads * perThread);
+		log("Contended submissions:" + funnel.getContended() + ", Queued:" + funnel.getQueued());
+		Assert.assertEquals("The dropped metrics", 0, funnel.getDroppedMetrics());
+		Assert.assertEquals("The staged metrics after the flush", 0, funnel.getQueuedMetrics());
+		assertSentOnce(sent, threads * perThread);
+	}
+	
+	/**
+	 * Tests that submissions go to the offline queue while the sender is saturated, that flushes are deferred
+	 * until it is not, and that the queued metrics are then sent once
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testSaturatedSubmitsGoOffline() throws Exception {
+		AtomicBoolean saturated = new AtomicBoolean(true);
+		TestFunnel funnel = new TestFunnel(sender(saturated), 1000, 100);
+		IDelegateMetric dmetric = metricId();
+		funnel.submit(metric(dmetric, 0), metric(dmetric, 1));
+		funnel.submit(metric(dmetric, 2));
+		Assert.assertEquals("The queued metrics", 3, funnel.getQueued());
+		Assert.assertEquals("The staged metrics", 0, funnel.getQueuedMetrics());
+		funnel.flushAll();
+		Assert.assertEquals("The deferred flushes", 1, funnel.getBackPressured());
+		Assert.assertTrue("Nothing sent while saturated", funnel.sent().isEmpty());
+		saturated.set(false);
+		funnel.submit(metric(dmetric, 3));
+		Assert.assertEquals("The queued metrics after the saturation cleared", 3, funnel.getQueued());
+		Assert.assertEquals("The staged metrics after the saturation cleared", 1, funnel.getQueuedMetrics());
+		funnel.flushAll();
+		assertSentOnce(funnel.sent(), 4);
+		Assert.assertEquals("The dropped metrics", 0, funnel.getDroppedMetrics());
+	}
+	
+	/**
+	 * Tests that submissions are dropped and counted once the offline queue is full
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testOfflineQueueOverflowDrops() throws Exception {
+		TestFunnel funnel = new TestFunnel(sender(new AtomicBoolean(true)), 1000, 2);
+		IDelegateMetric dmetric = metricId();
+		funnel.submit(metric(dmetric, 0));
+		funnel.submit(metric(dmetric, 1));
+		funnel.submit(metric(dmetric, 2), metric(dmetric, 3));
+		Assert.assertEquals("The queued metrics", 2, funnel.getQueued());
+		Assert.assertEquals("The dropped metrics", 2, funnel.getDroppedMetrics());
+	}
+}
@@ -0,0 +1,227 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package test.org.helios.apmrouter.trace;
+
+import org.helios.apmrouter.metric.MetricType;
+import org.helios.apmrouter.trace.DirectMetricCollection;
+import org.helios.apmrouter.trace.DirectMetricCollection.MetricCursor;
+import org.helios.apmrouter.trace.FQNSegmentDictionary;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestName;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <p>Title: CompactDMCTestCase</p>
+ * <p>Description: Test cases for the compact wire format of {@link DirectMetricCollection}</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>test.org.helios.apmrouter.trace.CompactDMCTestCase</code></p>
+ */
+
+public class CompactDMCTestCase {
+	
+	/**
+	 * StdOut log
+	 * @param obj The message to log
+	 */
+	protected static void log(Object obj) {
+		System.out.println(obj);
+	}
+	/**
+	 * StdErr log
+	 * @param obj The message to log
+	 */
+	protected static void loge(Object obj) {
+		System.err.println(obj);
+	}
+	/** The currently executing test name */
+	@Rule public final TestName name = new TestName();
+
+	/** The DMCs allocated by the current test */
+	private final List<DirectMetricCollection> allocated = new ArrayList<DirectMetricCollection>();
+	/** The base timestamp of the test metrics */
+	private static final long BASE_TIME = 1350000000000L;
+	
+	/**
+	 * Prints the test name about to be executed
+	 */
+	@Before
+	public void printTestName() {
+		log("\n\t==================================\n\tRunning Test [" + name.getMethodName() + "]\n\t==================================\n");
+	}
+	
+	/**
+	 * Frees the DMCs allocated by the test
+	 */
+	@After
+	public void destroyAllocated() {
+		for(DirectMetricCollection dmc: allocated) {
+			dmc.destroy();
+		}
+		allocated.clear();
+	}
+	
+	/**
+	 * Tests that FQN and token records survive an encode and decode, and that a second batch references the segments the first defined
+	 */
+	@Test
+	public void testRoundTrip() {
+		FQNSegmentDictionary senderDict = new FQNSegmentDictionary();
+		FQNSegmentDictionary receiverDict = new FQNSegmentDictionary();
+		DirectMetricCollection dmc = newDMC();
+		dmc.appendLong(Integer.MAX_VALUE, Integer.MAX_VALUE, MetricType.LONG_GAUGE, -1, "myhost/myagent/platform=JVM:HeapUsed".getBytes(), BASE_TIME, 1024L);
+		dmc.appendLong(Integer.MAX_VALUE, Integer.MAX_VALUE, MetricType.DELTA_COUNTER, -1, "myhost/myagent/platform=JVM:GCTime".getBytes(), BASE_TIME - 5000, -17L);
+		dmc.appendLong(Integer.MAX_VALUE, Integer.MAX_VALUE, MetricType.LONG_COUNTER, 9876543210L, null, BASE_TIME + 250, Long.MAX_VALUE);
+		List<ChannelBuffer> batches = dmc.toCompactBuffers(Integer.MAX_VALUE, senderDict);
+		Assert.assertEquals("Batch count", 1, batches.size());
+		int definingSize = batches.get(0).readableBytes();
+		DirectMetricCollection decoded = decode(batches.get(0), receiverDict);
+		Assert.assertEquals("Decoded count", 3, decoded.getMetricCount());
+		MetricCursor cursor = decoded.newMetricCursor();
+		assertRecord(cursor, MetricType.LONG_GAUGE, -1, "myhost/myagent/platform=JVM:HeapUsed", BASE_TIME, 1024L);
+		assertRecord(cursor, MetricType.DELTA_COUNTER, -1, "myhost/myagent/platform=JVM:GCTime", BASE_TIME - 5000, -17L);
+		assertRecord(cursor, MetricType.LONG_COUNTER, 9876543210L, null, BASE_TIME + 250, Long.MAX_VALUE);
+		Assert.assertFalse("EOF", cursor.nextRecord());
+		Assert.assertFalse("Receiver not stale", receiverDict.isStale());
+		
+		batches = dmc.toCompactBuffers(Integer.MAX_VALUE, senderDict);
+		Assert.assertTrue("Referencing batch is smaller [" + batches.get(0).readableBytes() + "] vs [" + definingSize + "]", batches.get(0).readableBytes() < definingSize);
+		decoded = decode(batches.get(0), receiverDict);
+		Assert.assertEquals("Decoded count from references", 3, decoded.getMetricCount());
+		cursor = decoded.newMetricCursor();
+		assertRecord(cursor, MetricType.LONG_GAUGE, -1, "myhost/myagent/platform=JVM:HeapUsed", BASE_TIME, 1024L);
+		assertRecord(cursor, MetricType.DELTA_COUNTER, -1, "myhost/myagent/platform=JVM:GCTime", BASE_TIME - 5000, -17L);
+	}
+	
+	/**
+	 * Tests that a small maximum batch size splits the records across batches that each decode on their own
+	 */
+	@Test
+	public void testSplitBatches() {
+		FQNSegmentDictionary senderDict = new FQNSegmentDictionary();
+		FQNSegmentDictionary receiverDict = new FQNSegmentDictionary();
+		DirectMetricCollection dmc = newDMC();
+		for(int i = 0; i < 50; i++) {
+			dmc.appendLong(Integer.MAX_VALUE, Integer.MAX_VALUE, MetricType.LONG_GAUGE, -1, ("myhost/myagent/pool=" + i + ":Size").getBytes(), BASE_TIME + i, i);
+		}
+		List<ChannelBuffer> batches = dmc.toCompactBuffers(128, senderDict);
+		Assert.assertTrue("Batch count [" + batches.size() + "]", batches.size() > 1);
+		int i = 0;
+		for(ChannelBuffer batch: batches) {
+			Assert.assertTrue("Batch size [" + batch.readableBytes() + "]", batch.readableBytes() <= 128);
+			MetricCursor cursor = decode(batch, receiverDict).newMetricCursor();
+			while(cursor.nextRecord()) {
+				Assert.assertEquals("FQN", "myhost/myagent/pool=" + i + ":Size", cursor.getFQN());
+				Assert.assertEquals("Time", BASE_TIME + i, cursor.getTime());
+				Assert.assertEquals("Value", i, cursor.getLongValue());
+				i++;
+			}
+		}
+		Assert.assertEquals("Decoded count", 50, i);
+		Assert.assertFalse("Receiver not stale", receiverDict.isStale());
+	}
+	
+	/**
+	 * Tests that records referencing segments from a lost batch are dropped and mark the receiver stale,
+	 * and that the sender's next epoch decodes in full
+	 */
+	@Test
+	public void testLostDefinitionAndResync() {
+		FQNSegmentDictionary senderDict = new FQNSegmentDictionary();
+		FQNSegmentDictionary receiverDict = new FQNSegmentDictionary();
+		DirectMetricCollection dmc = newDMC();
+		dmc.appendLong(Integer.MAX_VALUE, Integer.MAX_VALUE, MetricType.LONG_GAUGE, -1, "myhost/myagent/platform=JVM:HeapUsed".getBytes(), BASE_TIME, 1L);
+		dmc.appendLong(Integer.MAX_VALUE, Integer.MAX_VALUE, MetricType.LONG_COUNTER, 42L, null, BASE_TIME, 2L);
+		// the defining batch is lost
+		dmc.toCompactBuffers(Integer.MAX_VALUE, senderDict);
+		DirectMetricCollection decoded = decode(dmc.toCompactBuffers(Integer.MAX_VALUE, senderDict).get(0), receiverDict);
+		Assert.assertEquals("Only the tokenized record decodes", 1, decoded.getMetricCount());
+		MetricCursor cursor = decoded.newMetricCursor();
+		assertRecord(cursor, MetricType.LONG_COUNTER, 42L, null, BASE_TIME, 2L);
+		Assert.assertTrue("Receiver stale", receiverDict.isStale());
+		// the receiver's SEGMENT_RESYNC resets the sender
+		senderDict.reset();
+		decoded = decode(dmc.toCompactBuffers(Integer.MAX_VALUE, senderDict).get(0), receiverDict);
+		Assert.assertEquals("Decoded count after resync", 2, decoded.getMetricCount());
+		Assert.assertFalse("Receiver not stale after resync", receiverDict.isStale());
+		Assert.assertEquals("Receiver epoch", senderDict.getEpoch(), receiverDict.getEpoch());
+	}
+	
+	/**
+	 * Tests that an empty DMC encodes to no batches
+	 */
+	@Test
+	public void testEmpty() {
+		Assert.assertTrue("No batches", newDMC().toCompactBuffers(Integer.MAX_VALUE, new FQNSegmentDictionary()).isEmpty());
+	}
+	
+	/**
+	 * Creates a new empty DMC that is freed after the test
+	 * @return the new DMC
+	 */
+	private DirectMetricCollection newDMC() {
+		DirectMetricCollection dmc = DirectMetricCollection.newDirectMetricCollection();
+		allocated.add(dmc);
+		return dmc;
+	}
+	
+	/**
+	 * Decodes a compact batch into a DMC that is freed after the test
+	 * @param batch The compact batch
+	 * @param dictionary The receiver side dictionary
+	 * @return the decoded DMC
+	 */
+	private DirectMetricCollection decode(ChannelBuffer batch, FQNSegmentDictionary dictionary) {
+		DirectMetricCollection dmc = DirectMetricCollection.fromCompactBuffer(batch, dictionary);
+		allocated.add(dmc);
+		return dmc;
+	}
+	
+	/**
+	 * Advances the cursor and validates the record it lands on
+	 * @param cursor The cursor
+	 * @param type The expected metric type
+	 * @param token The expected token
+	 * @param fqn The expected FQN, null for tokenized records
+	 * @param time The expected timestamp
+	 * @param value The expected value
+	 */
+	private static void assertRecord(MetricCursor cursor, MetricType type, long token, String fqn, long time, long value) {
+		Assert.assertTrue("Has record", cursor.nextRecord());
+		Assert.assertEquals("Type", type, cursor.getType());
+		Assert.assertEquals("Token", token, cursor.getToken());
+		Assert.assertEquals("FQN", fqn, cursor.getFQN());
+		Assert.assertEquals("Time", time, cursor.getTime());
+		Assert.assertEquals("Value", value, cursor.getLongValue());
+		Assert.assertFalse("TXContext", cursor.hasTXContext());
+	}
+}
@@ -0,0 +1,175 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package test.org.helios.apmrouter.trace;
+
+import org.helios.apmrouter.trace.FQNSegmentDictionary;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestName;
+
+/**
+ * <p>Title: FQNSegmentDictionaryTestCase</p>
+ * <p>Description: Test cases for {@link FQNSegmentDictionary} segment splitting, id assignment and epochs</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>test.org.helios.apmrouter.trace.FQNSegmentDictionaryTestCase</code></p>
+ */
+
+public class FQNSegmentDictionaryTestCase {
+	
+	/**
+	 * StdOut log
+	 * @param obj The message to log
+	 */
+	protected static void log(Object obj) {
+		System.out.println(obj);
+	}
+	/**
+	 * StdErr log
+	 * @param obj The message to log
+	 */
+	protected static void loge(Object obj) {
+		System.err.println(obj);
+	}
+	/** The currently executing test name */
+	@Rule public final TestName name = new TestName();
+
+	/**
+	 * Prints the test name about to be executed
+	 */
+	@Before
+	public void printTestName() {
+		log("\n\t==================================\n\tRunning Test [" + name.getMethodName() + "]\n\t==================================\n");
+	}
+	
+	/**
+	 * Tests that an FQN is split after each delimiter and that the segments rebuild the FQN
+	 */
+	@Test
+	public void testSplit() {
+		String fqn = "myhost/myagent/platform=JVM/category=cpu:SystemLoad";
+		String[] segments = FQNSegmentDictionary.split(fqn);
+		Assert.assertArrayEquals("Segments", new String[]{"myhost/", "myagent/", "platform=JVM/", "category=cpu:", "SystemLoad"}, segments);
+		StringBuilder b = new StringBuilder();
+		for(String s: segments) b.append(s);
+		Assert.assertEquals("Rebuilt FQN", fqn, b.toString());
+		Assert.assertArrayEquals("Trailing delimiter stays on the last segment", new String[]{"a/", "b/"}, FQNSegmentDictionary.split("a/b/"));
+		Assert.assertArrayEquals("No delimiter", new String[]{"metric"}, FQNSegmentDictionary.split("metric"));
+	}
+	
+	/**
+	 * Tests sender side id assignment, lookup and the reset to a new epoch
+	 */
+	@Test
+	public void testAssignLookupAndReset() {
+		FQNSegmentDictionary dict = new FQNSegmentDictionary();
+		Assert.assertEquals("Unknown segment", -1, dict.lookup("myhost/"));
+		Assert.assertEquals("First id", 0, dict.assign("myhost/"));
+		Assert.assertEquals("Second id", 1, dict.assign("myagent/"));
+		Assert.assertEquals("Lookup first", 0, dict.lookup("myhost/"));
+		Assert.assertEquals("Lookup second", 1, dict.lookup("myagent/"));
+		Assert.assertEquals("Size", 2, dict.size());
+		int epoch = dict.getEpoch();
+		dict.reset();
+		Assert.assertEquals("Epoch after reset", epoch+1, dict.getEpoch());
+		Assert.assertEquals("Ids cleared", -1, dict.lookup("myhost/"));
+		Assert.assertEquals("Size after reset", 0, dict.size());
+		Assert.assertEquals("Ids restart", 0, dict.assign("myagent/"));
+	}
+	
+	/**
+	 * Tests that the sender side stops assigning ids once it holds {@link FQNSegmentDictionary#MAX_SEGMENTS}
+	 */
+	@Test
+	public void testMaxSegments() {
+		FQNSegmentDictionary dict = new FQNSegmentDictionary();
+		for(int i = 0; i < FQNSegmentDictionary.MAX_SEGMENTS; i++) {
+			Assert.assertEquals("Assigned id", i, dict.assign("s" + i + "/"));
+		}
+		Assert.assertEquals("Full dictionary", -1, dict.assign("overflow/"));
+		Assert.assertEquals("Overflow not recorded", -1, dict.lookup("overflow/"));
+		Assert.assertEquals("Size", FQNSegmentDictionary.MAX_SEGMENTS, dict.size());
+	}
+	
+	/**
+	 * Tests that the receiver side keeps its segments within an epoch and clears them when the sender starts a new one
+	 */
+	@Test
+	public void testSyncClearsOnNewEpoch() {
+		FQNSegmentDictionary dict = new FQNSegmentDictionary();
+		int epoch = dict.getEpoch() + 7;
+		dict.sync(epoch);
+		Assert.assertEquals("Synced epoch", epoch, dict.getEpoch());
+		dict.define(0, "myhost/".getBytes());
+		dict.sync(epoch);
+		Assert.assertArrayEquals("Same epoch keeps segments", "myhost/".getBytes(), dict.resolve(0));
+		Assert.assertFalse("Not stale", dict.isStale());
+		dict.sync(epoch+1);
+		Assert.assertEquals("New epoch", epoch+1, dict.getEpoch());
+		Assert.assertNull("New epoch clears segments", dict.resolve(0));
+		Assert.assertEquals("Size", 0, dict.size());
+	}
+	
+	/**
+	 * Tests that a miss marks the receiver side stale until the next epoch
+	 */
+	@Test
+	public void testResolveMissMarksStale() {
+		FQNSegmentDictionary dict = new FQNSegmentDictionary();
+		int epoch = dict.getEpoch();
+		dict.define(0, "myhost/".getBytes());
+		Assert.assertNotNull("Known segment", dict.resolve(0));
+		Assert.assertFalse("Not stale after a hit", dict.isStale());
+		Assert.assertNull("Unknown segment", dict.resolve(1));
+		Assert.assertTrue("Stale after a miss", dict.isStale());
+		dict.define(1, "myagent/".getBytes());
+		Assert.assertTrue("Still stale in the same epoch", dict.isStale());
+		dict.sync(epoch+1);
+		Assert.assertFalse("Not stale in the new epoch", dict.isStale());
+	}
+	
+	/**
+	 * Tests that resync requests are rate limited within an epoch and allowed again once the epoch changes
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testRequestResyncRateLimit() throws Exception {
+		FQNSegmentDictionary dict = new FQNSegmentDictionary();
+		int epoch = dict.getEpoch();
+		Assert.assertTrue("First request", dict.requestResync(60000L));
+		Assert.assertFalse("Repeat within the retry period", dict.requestResync(60000L));
+		dict.sync(epoch);
+		Assert.assertFalse("Same epoch keeps the request time", dict.requestResync(60000L));
+		dict.sync(epoch+1);
+		Assert.assertTrue("New epoch allows a request", dict.requestResync(60000L));
+		dict = new FQNSegmentDictionary();
+		Assert.assertTrue("First request", dict.requestResync(50L));
+		Thread.sleep(100L);
+		Assert.assertTrue("Retry after the retry period", dict.requestResync(50L));
+	}
+	
+}
@@ -184,6 +184,15 @@ public class MetricCatalogInitializer extends ServerComponentBean implements IMe
 			CharSequence name, CharSequence... namespace) {
 		return catalog.getDelta(value, host, agent, name, namespace);
 	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.apmrouter.metric.catalog.IMetricCatalog#getDeltaValue(long, java.lang.String, java.lang.String, java.lang.CharSequence, java.lang.CharSequence[])
+	 */
+	@Override
+	public long getDeltaValue(long value, String host, String agent, CharSequence name, CharSequence... namespace) {
+		return catalog.getDeltaValue(value, host, agent, name, namespace);
+	}
 
 	/**
 	 * {@inheritDoc}
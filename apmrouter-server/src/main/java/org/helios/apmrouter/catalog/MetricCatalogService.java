@@ -72,12 +72,20 @@ public interface MetricCatalogService extends EntryStatusChangeListener {
 	public IDelegateMetric getMetricID(long token);
 	
 	/**
-	 * Touches the last seen timestamp for a metric if {@link #isRealtime()}
-	 * @param metrics Touches the last seen timestamp for a metric
-	 * @return The number of updated records
+	 * Records the last seen timestamp for each passed metric. When {@link #isRealtime()}, the catalog rows are updated on the next flush.
+	 * @param metrics The seen metrics
+	 * @return The number of recorded metrics
 	 */
 	public int touch(Collection<IMetric> metrics);
 	
+	/**
+	 * Records the last seen timestamp for each passed metric token. When {@link #isRealtime()}, the catalog rows are updated on the next flush.
+	 * @param tokens The tokens of the seen metrics
+	 * @param count The number of tokens to read from the array
+	 * @return The number of recorded metrics
+	 */
+	public int touch(long[] tokens, int count);
+	
 	/**
 	 * Indicates if the metric catalog is real time 
 	 * @return true if the metric catalog is real time , false otherwise
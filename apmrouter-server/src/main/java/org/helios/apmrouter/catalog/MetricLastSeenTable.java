@@ -0,0 +1,419 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.apmrouter.catalog;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.helios.apmrouter.jmx.ConfigurationHelper;
+import org.helios.apmrouter.unsafe.UnsafeAdapter;
+
+import sun.nio.ch.DirectBuffer;
+
+/**
+ * <p>Title: MetricLastSeenTable</p>
+ * <p>Description: A primitive column of last seen timestamps indexed by metric ID. Metric IDs are dense, so the column is split
+ * into fixed size pages of {@link #PAGE_SIZE} longs allocated off-heap on first use.
+ * Each page keeps these bitmaps beside its timestamps:<ul>
+ * 	<li><b>dirty</b>: set when a metric is seen and cleared when the timestamp is drained to the catalog</li>
+ * 	<li><b>stale</b>: set when a metric is reported stale and cleared when the metric is seen again</li>
+ * 	<li><b>wheel</b>: a timing wheel of {@link #WHEEL_SLOTS} slots of {@link #getTickMs()} ms. Each slot flags the groups of 64 metrics
+ * 	seen during the tick, so a stale scan only visits the groups seen in the expiring tick.</li>
+ * </ul>
+ * Seeing a metric is a timestamp write and, at most, three bit sets, so the catalog is written once per metric per flush
+ * regardless of how often the metric arrives and the ingest path takes no locks.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.apmrouter.catalog.MetricLastSeenTable</code></p>
+ */
+
+public class MetricLastSeenTable {
+	/** The singleton instance */
+	private static volatile MetricLastSeenTable instance = null;
+	/** The singleton instance ctor lock */
+	private static final Object lock = new Object();
+	
+	/** The page size shift */
+	public static final int PAGE_SHIFT = 16;
+	/** The number of metric IDs in a page */
+	public static final int PAGE_SIZE = 1 << PAGE_SHIFT;
+	/** The page offset mask */
+	public static final int PAGE_MASK = PAGE_SIZE-1;
+	
+	/** The system property or env variable name that overrides the maximum number of pages (@link {@value #DEFAULT_MAX_PAGES} */
+	public static final String MAX_PAGES_PROP = "org.helios.apmrouter.catalog.lastseen.maxpages";
+	/** The default maximum number of pages, enough for 16M metric IDs */
+	public static final int DEFAULT_MAX_PAGES = 256;
+	/** The system property or env variable name that overrides the timing wheel tick in ms. (@link {@value #DEFAULT_TICK_MS} */
+	public static final String TICK_PROP = "org.helios.apmrouter.catalog.lastseen.tick";
+	/** The default timing wheel tick in ms. */
+	public static final int DEFAULT_TICK_MS = 5000;
+	/** The number of timing wheel slots. Must be a power of 2. */
+	public static final int WHEEL_SLOTS = 64;
+	/** The number of metric groups in a page. A group is the 64 metrics of one bitmap word. */
+	public static final int PAGE_GROUPS = PAGE_SIZE >> 6;
+	
+	/** The timing wheel tick in ms. */
+	protected final long tickMs;
+	
+	/** The pages, allocated on first use */
+	protected final AtomicReferenceArray<Page> pages;
+	/** The number of allocated pages */
+	protected final AtomicInteger pageCount = new AtomicInteger(0);
+	/** The number of timestamp updates */
+	protected final AtomicLong touches = new AtomicLong(0L);
+	/** The number of updates dropped because the metric ID was out of range */
+	protected final AtomicLong dropped = new AtomicLong(0L);
+	
+	/**
+	 * Retrieves the MetricLastSeenTable singleton instance
+	 * @return the MetricLastSeenTable singleton instance
+	 */
+	public static MetricLastSeenTable getInstance() {
+		if(instance==null) {
+			synchronized(lock) {
+				if(instance==null) {
+					instance = new MetricLastSeenTable(ConfigurationHelper.getIntSystemThenEnvProperty(MAX_PAGES_PROP, DEFAULT_MAX_PAGES), ConfigurationHelper.getIntSystemThenEnvProperty(TICK_PROP, DEFAULT_TICK_MS));
+				}
+			}
+		}
+		return instance;
+	}
+	
+	/**
+	 * Creates a new MetricLastSeenTable
+	 * @param maxPages The maximum number of pages
+	 * @param tickMs The timing wheel tick in ms.
+	 */
+	private MetricLastSeenTable(int maxPages, int tickMs) {
+		if(maxPages<1) throw new IllegalArgumentException("Invalid max pages [" + maxPages + "]", new Throwable());
+		if(tickMs<1) throw new IllegalArgumentException("Invalid tick [" + tickMs + "]", new Throwable());
+		pages = new AtomicReferenceArray<Page>(maxPages);
+		this.tickMs = tickMs;
+	}
+	
+	/**
+	 * Records that the passed metrics were seen at the passed time
+	 * @param timestamp The time the metrics were seen as a UTC long timestamp
+	 * @param metricIds The IDs of the seen metrics
+	 * @return the number of metrics recorded
+	 */
+	public int touch(long timestamp, long...metricIds) {
+		int cnt = 0;
+		for(long metricId: metricIds) {
+			if(touch(metricId, timestamp)) cnt++;
+		}
+		return cnt;
+	}
+	
+	/**
+	 * Records that the passed metric was seen at the passed time
+	 * @param metricId The ID of the seen metric
+	 * @param timestamp The time the metric was seen as a UTC long timestamp
+	 * @return true if the metric was recorded, false if the metric ID is out of range
+	 */
+	public boolean touch(long metricId, long timestamp) {
+		Page page = page(metricId, true);
+		if(page==null) {
+			dropped.incrementAndGet();
+			return false;
+		}
+		page.touch((int)(metricId & PAGE_MASK), timestamp, (int)(tick(timestamp) & (WHEEL_SLOTS-1)));
+		touches.incrementAndGet();
+		return true;
+	}
+	
+	/**
+	 * Returns the last time the passed metric was seen
+	 * @param metricId The metric ID
+	 * @return the last seen UTC long timestamp or 0 if the metric has not been seen
+	 */
+	public long getLastSeen(long metricId) {
+		Page page = page(metricId, false);
+		return page==null ? 0L : page.getTime((int)(metricId & PAGE_MASK));
+	}
+	
+	/**
+	 * Drains changed rows, clearing their dirty bits. Call repeatedly until fewer than <code>metricIds.length</code> rows are returned.
+	 * @param metricIds The array to write the drained metric IDs into
+	 * @param timestamps The array to write the drained timestamps into
+	 * @return the number of rows drained
+	 */
+	public int drainDirty(long[] metricIds, long[] timestamps) {
+		int cnt = 0;
+		final int max = Math.min(metricIds.length, timestamps.length);
+		final int pc = pages.length();
+		for(int p = 0; p < pc && cnt < max; p++) {
+			Page page = pages.get(p);
+			if(page==null) continue;
+			final long base = ((long)p) << PAGE_SHIFT;
+			for(int w = 0; w < page.dirty.length() && cnt < max; w++) {
+				if(page.dirty.get(w)==0L) continue;
+				long bits = page.dirty.getAndSet(w, 0L);
+				while(bits!=0L) {
+					int b = Long.numberOfTrailingZeros(bits);
+					bits &= bits-1;
+					int idx = (w << 6) | b;
+					if(cnt==max) {
+						// no room: put the bit back for the next call
+						page.setBit(page.dirty, idx);
+						continue;
+					}
+					metricIds[cnt] = base | idx;
+					timestamps[cnt] = page.getTime(idx);
+					cnt++;
+				}
+			}
+		}
+		return cnt;
+	}
+	
+	/**
+	 * Returns the timing wheel tick of the passed timestamp
+	 * @param timestamp A UTC long timestamp
+	 * @return the tick
+	 */
+	public long tick(long timestamp) {
+		return timestamp / tickMs;
+	}
+	
+	/**
+	 * Returns the timing wheel tick in ms.
+	 * @return the timing wheel tick in ms.
+	 */
+	public long getTickMs() {
+		return tickMs;
+	}
+	
+	/**
+	 * Returns the span of the timing wheel in ms. A tick must be scanned before it is this old, or its slot is reused.
+	 * @return the span of the timing wheel in ms.
+	 */
+	public long getWheelSpanMs() {
+		return tickMs * WHEEL_SLOTS;
+	}
+	
+	/**
+	 * Collects the metrics last seen in the passed tick and before the passed time that have not already been reported stale,
+	 * and marks them stale. The groups visited are cleared from the tick's wheel slot, so call repeatedly until no metrics are returned.
+	 * Metrics seen again since the tick are skipped, since they are flagged in a later slot.
+	 * @param tick The expiring tick
+	 * @param staleBefore The UTC long timestamp before which a last seen metric is stale
+	 * @param metricIds The array to write the stale metric IDs into. Must hold at least 64 entries.
+	 * @param timestamps The array to write the stale metrics' last seen timestamps into. Must hold at least 64 entries.
+	 * @return the number of stale metrics collected
+	 */
+	public int scanStale(long tick, long staleBefore, long[] metricIds, long[] timestamps) {
+		final int max = Math.min(metricIds.length, timestamps.length);
+		if(max<64) throw new IllegalArgumentException("The passed arrays are too small [" + max + "]", new Throwable());
+		final int slotWord = (int)(tick & (WHEEL_SLOTS-1)) * (PAGE_GROUPS >> 6);
+		final int pc = pages.length();
+		int cnt = 0;
+		for(int p = 0; p < pc; p++) {
+			Page page = pages.get(p);
+			if(page==null) continue;
+			final long base = ((long)p) << PAGE_SHIFT;
+			for(int w = 0; w < (PAGE_GROUPS >> 6); w++) {
+				if(page.wheel.get(slotWord + w)==0L) continue;
+				long groups = page.wheel.getAndSet(slotWord + w, 0L);
+				while(groups!=0L) {
+					if(cnt + 64 > max) {
+						// no room for another group: put the rest back for the next call
+						page.orBits(page.wheel, slotWord + w, groups);
+						return cnt;
+					}
+					int group = (w << 6) | Long.numberOfTrailingZeros(groups);
+					groups &= groups-1;
+					for(int idx = group << 6; idx < (group+1) << 6; idx++) {
+						long ts = page.getTime(idx);
+						if(ts==0L || ts>=staleBefore || page.isBit(page.stale, idx)) continue;
+						page.setBit(page.stale, idx);
+						metricIds[cnt] = base | idx;
+						timestamps[cnt] = ts;
+						cnt++;
+					}
+				}
+			}
+		}
+		return cnt;
+	}
+	
+	/**
+	 * Returns the page for the passed metric ID
+	 * @param metricId The metric ID
+	 * @param create true to allocate the page if it does not exist
+	 * @return the page or null if the metric ID is out of range or the page does not exist
+	 */
+	protected Page page(long metricId, boolean create) {
+		if(metricId<0) return null;
+		long p = metricId >>> PAGE_SHIFT;
+		if(p>=pages.length()) return null;
+		Page page = pages.get((int)p);
+		if(page==null && create) {
+			Page newPage = new Page();
+			if(pages.compareAndSet((int)p, null, newPage)) {
+				pageCount.incrementAndGet();
+				page = newPage;
+			} else {
+				page = pages.get((int)p);
+			}
+		}
+		return page;
+	}
+	
+	/**
+	 * Returns the number of allocated pages
+	 * @return the number of allocated pages
+	 */
+	public int getPageCount() {
+		return pageCount.get();
+	}
+	
+	/**
+	 * Returns the number of off-heap bytes allocated for timestamps
+	 * @return the number of off-heap bytes allocated
+	 */
+	public long getAllocatedBytes() {
+		return ((long)pageCount.get()) * PAGE_SIZE << 3;
+	}
+	
+	/**
+	 * Returns the number of timestamp updates
+	 * @return the number of timestamp updates
+	 */
+	public long getTouches() {
+		return touches.get();
+	}
+	
+	/**
+	 * Returns the number of updates dropped because the metric ID was out of range
+	 * @return the number of dropped updates
+	 */
+	public long getDropped() {
+		return dropped.get();
+	}
+	
+	/**
+	 * <p>Title: Page</p>
+	 * <p>Description: A page of off-heap timestamps and their dirty and stale bitmaps</p>
+	 * <p>Company: Helios Development Group LLC</p>
+	 * @author Whitehead (nwhitehead AT heliosdev DOT org)
+	 * <p><code>org.helios.apmrouter.catalog.MetricLastSeenTable.Page</code></p>
+	 */
+	protected static class Page {
+		/** The off-heap timestamps */
+		final ByteBuffer times = ByteBuffer.allocateDirect(PAGE_SIZE << 3).order(ByteOrder.nativeOrder());
+		/** The address of the off-heap timestamps */
+		final long address = ((DirectBuffer)times).address();
+		/** The changed since last drain bitmap */
+		final AtomicLongArray dirty = new AtomicLongArray(PAGE_SIZE >> 6);
+		/** The reported stale bitmap */
+		final AtomicLongArray stale = new AtomicLongArray(PAGE_SIZE >> 6);
+		/** The timing wheel, a bitmap of {@link #PAGE_GROUPS} group bits per slot */
+		final AtomicLongArray wheel = new AtomicLongArray(WHEEL_SLOTS * (PAGE_GROUPS >> 6));
+		
+		/**
+		 * Records a timestamp. The timestamp is written before the dirty and wheel bits are set, so a drain or scan that clears the bit first reads the new timestamp.
+		 * The timestamp only moves forward: concurrent touches of the same metric race with CAS, so an older timestamp never overwrites a newer one.
+		 * @param idx The page offset
+		 * @param timestamp The timestamp
+		 * @param slot The timing wheel slot of the timestamp
+		 */
+		void touch(int idx, long timestamp, int slot) {
+			final long slotAddress = address + (((long)idx) << 3);
+			long current;
+			do {
+				current = UnsafeAdapter.getLongVolatile(slotAddress);
+			} while(timestamp > current && !UnsafeAdapter.compareAndSwapLong(slotAddress, current, timestamp));
+			setBit(dirty, idx);
+			setBit(wheel, slot * PAGE_GROUPS + (idx >> 6));
+			if(isBit(stale, idx)) clearBit(stale, idx);
+		}
+		
+		/**
+		 * Returns a timestamp
+		 * @param idx The page offset
+		 * @return the timestamp or 0 if the metric has not been seen
+		 */
+		long getTime(int idx) {
+			return UnsafeAdapter.getLongVolatile(address + (((long)idx) << 3));
+		}
+		
+		/**
+		 * Tests a bit
+		 * @param bitmap The bitmap
+		 * @param idx The bit index
+		 * @return true if the bit is set
+		 */
+		boolean isBit(AtomicLongArray bitmap, int idx) {
+			return (bitmap.get(idx >> 6) & (1L << (idx & 63)))!=0L;
+		}
+		
+		/**
+		 * Sets a bit
+		 * @param bitmap The bitmap
+		 * @param idx The bit index
+		 */
+		void setBit(AtomicLongArray bitmap, int idx) {
+			final int w = idx >> 6;
+			final long mask = 1L << (idx & 63);
+			long bits;
+			while(((bits = bitmap.get(w)) & mask)==0L) {
+				if(bitmap.compareAndSet(w, bits, bits | mask)) return;
+			}
+		}
+		
+		/**
+		 * Sets the passed bits in one bitmap word
+		 * @param bitmap The bitmap
+		 * @param w The word index
+		 * @param bits The bits to set
+		 */
+		void orBits(AtomicLongArray bitmap, int w, long bits) {
+			long current;
+			while(((current = bitmap.get(w)) | bits)!=current) {
+				if(bitmap.compareAndSet(w, current, current | bits)) return;
+			}
+		}
+		
+		/**
+		 * Clears a bit
+		 * @param bitmap The bitmap
+		 * @param idx The bit index
+		 */
+		void clearBit(AtomicLongArray bitmap, int idx) {
+			final int w = idx >> 6;
+			final long mask = 1L << (idx & 63);
+			long bits;
+			while(((bits = bitmap.get(w)) & mask)!=0L) {
+				if(bitmap.compareAndSet(w, bits, bits & ~mask)) return;
+			}
+		}
+	}
+}
@@ -25,9 +25,7 @@
 package org.helios.apmrouter.catalog;
 
 import java.util.HashSet;
-import java.util.Map.Entry;
 import java.util.Set;
-import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
@@ -35,32 +33,33 @@ import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
-import org.helios.apmrouter.collections.ConcurrentLongSlidingWindow;
-import org.helios.apmrouter.collections.ConcurrentLongSortedSet;
-import org.helios.apmrouter.collections.LongSlidingWindow;
+import org.helios.apmrouter.collections.LatencyHistogram;
 import org.helios.apmrouter.server.ServerComponentBean;
 import org.helios.apmrouter.util.SystemClock;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
 import org.springframework.jmx.export.annotation.ManagedMetric;
 import org.springframework.jmx.support.MetricType;
 
 /**
  * <p>Title: MetricLastTimeSeenService</p>
- * <p>Description: Service that maintains a skip-list map of metric-ids and the last time-stamp they were seen.
- * Intended to support event broadcasts when metrics go stale.</p> 
+ * <p>Description: Service that scans the {@link MetricLastSeenTable} the metric catalog records last seen timestamps into,
+ * and broadcasts an event for each metric that goes stale. A stale metric is reported once until it is seen again.
+ * Each scan walks the table's timing wheel slots for the ticks that expired since the last scan, so the scan cost is
+ * proportional to the metrics seen in those ticks rather than to the size of the metric ID space.</p> 
  * <p>Company: Helios Development Group LLC</p>
  * @author Whitehead (nwhitehead AT heliosdev DOT org)
  * <p><code>org.helios.apmrouter.catalog.MetricLastTimeSeenService</code></p>
  */
 
 public class MetricLastTimeSeenService extends ServerComponentBean implements Runnable {
-	/** A map of second timestamps keyed by the metric-id */
-	protected final ConcurrentSkipListMap<Integer, ConcurrentLongSortedSet> metricTimestampMap = new ConcurrentSkipListMap<Integer, ConcurrentLongSortedSet>();
+	/** The last seen timestamps shared with the metric catalog */
+	protected final MetricLastSeenTable lastSeenTable = MetricLastSeenTable.getInstance();
 	/** The stale metric event handler */
 	protected StaleMetricEventProcessor staleEventProcessor = null;
 	/** The stale threshold level in seconds. Default is {@link #DEFAULT_STALE_THRESHOLD} */
 	protected int staleThreshold = DEFAULT_STALE_THRESHOLD;
-	/** The stale window size in seconds. Last seen entries are added into a sliding window of buckets of this size. 
-	 * Larger window sizes offer beter performance at the cost of stale detection precision. Default is {@link #DEFAULT_STALE_THRESHOLD} */
+	/** The stale window size in seconds, which is the period between scans. 
+	 * Larger window sizes offer beter performance at the cost of stale detection precision. Default is {@link #DEFAULT_WINDOW_SIZE} */
 	protected int windowSize = DEFAULT_WINDOW_SIZE;
 	/** The scheduler to perform scans */
 	protected final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(1, new ThreadFactory(){
@@ -74,11 +73,15 @@ public class MetricLastTimeSeenService extends ServerComponentBean implements Ru
 	});
 	/** The handle of the scheduled task */
 	protected ScheduledFuture<?> taskHandle = null;
+	/** The most recent timing wheel tick scanned */
+	protected long lastScannedTick = -1L;
 	
 	/** The default stale threshold level in seconds */
 	public static int DEFAULT_STALE_THRESHOLD = 90;
 	/** The default windoiws in seconds */
 	public static int DEFAULT_WINDOW_SIZE = 15;
+	/** The number of stale metrics collected per table scan pass */
+	public static final int SCAN_BATCH = 1024;
 	
 	/**
 	 * {@inheritDoc}
@@ -86,6 +89,7 @@ public class MetricLastTimeSeenService extends ServerComponentBean implements Ru
 	 */
 	@Override
 	protected void doStart() throws Exception {
+		validateWheelSpan(staleThreshold, windowSize);
 		taskHandle = scheduler.scheduleWithFixedDelay(this, windowSize, windowSize, TimeUnit.SECONDS);
 		super.doStart();
 	}
@@ -110,74 +114,67 @@ public class MetricLastTimeSeenService extends ServerComponentBean implements Ru
 	}
 	
 	/**
-	 * Updates the metric timestamp map when a metric is seen.
+	 * Records the metric timestamps when metrics are seen.
 	 * @param metricIds The ids of the metrics to add
 	 * @param timestamp The time the metric was seen as a UTC long timestamo
 	 */	
 	public void onMetricSeen(long timestamp, long...metricIds) {
+		final long start = System.nanoTime();
 		try {
-			SystemClock.startTimer();
-			int timeInSecs = (int)TimeUnit.SECONDS.convert(timestamp, TimeUnit.MILLISECONDS);
-			int timeWindow = timeInSecs + timeInSecs%windowSize; 
-			
-			ConcurrentLongSortedSet metrics = metricTimestampMap.get(timeWindow);
-			if(metrics==null) {
-				synchronized(metricTimestampMap) {
-					metrics = metricTimestampMap.get(timeWindow);
-					if(metrics==null) {
-						metrics = new ConcurrentLongSortedSet();
-						metricTimestampMap.put(timeWindow, metrics);
-					}
-				}
-			}		
-			metrics.add(metricIds);
+			lastSeenTable.touch(timestamp, metricIds);
 		} finally {
-			lastSeenTimesNs.insert(SystemClock.endTimer().elapsedNs);
+			lastSeenTimesNs.recordSince(start);
 		}
 	}
 	
 	/**
-	 * Clears metric Ids from older time windows when a metric is seen now
-	 * @param timeWindow The time window in which a metric was most recently seen
-	 * @param metricIds The metric Ids that were seen in the passed time window
+	 * Scans the timing wheel ticks that have expired since the last scan for metrics that have not been seen within the stale threshold.
+	 * Stale events are broadcast for each newly stale metric Id.
 	 */
-	protected void clearOlderEntries(int timeWindow, long...metricIds) {
-		long startTime = System.nanoTime();
-		for(Entry<Integer, ConcurrentLongSortedSet> entry: metricTimestampMap.headMap(timeWindow).entrySet()) {
-			entry.getValue().remove(metricIds);
+	public synchronized void scan() {
+		debug("Scanning for stale metrics");
+		final long start = System.nanoTime();
+		try {
+			long now = SystemClock.time();
+			long staleBefore = now - TimeUnit.MILLISECONDS.convert(staleThreshold, TimeUnit.SECONDS);
+			// the newest tick whose timestamps are all stale
+			long lastTick = lastSeenTable.tick(staleBefore) - 1;
+			// skip ticks whose slots may already be reused, leaving one slot of margin for the current tick rolling over
+			long firstTick = Math.max(lastScannedTick + 1, lastSeenTable.tick(now) - MetricLastSeenTable.WHEEL_SLOTS + 2);
+			long[] metricIds = new long[SCAN_BATCH];
+			long[] timestamps = new long[SCAN_BATCH];
+			int total = 0;
+			for(long tick = firstTick; tick <= lastTick; tick++) {
+				int cnt;
+				while((cnt = lastSeenTable.scanStale(tick, staleBefore, metricIds, timestamps))>0) {
+					for(int i = 0; i < cnt; i++) {
+						if(staleEventProcessor!=null) {
+							staleEventProcessor.onStaleMetric(metricIds[i], (int)TimeUnit.SECONDS.convert(timestamps[i], TimeUnit.MILLISECONDS));
+						}
+					}
+					total += cnt;
+				}
+			}
+			lastScannedTick = Math.max(lastScannedTick, lastTick);
+			if(total==0) {
+				debug("No stale metrics found");
+				return;
+			}
+			incr("StaleMetricEvents", total);
+		} finally {
+			scanTimesNs.recordSince(start);
 		}
-		long elapsedTime = System.nanoTime()-startTime;
-		coeTimesNs.insert(elapsedTime);
 	}
 	
 	/**
-	 * Scans for the oldest window in {@link #metricTimestampMap}. 
-	 * If the window is stale, stale events will be broadcast for all the assoiated metric Ids, and the window will be removed.
-	 * If the oldest window is not stale, returns without action.
+	 * Validates that a tick is scanned before the table's timing wheel reuses its slot
+	 * @param staleThreshold The stale threshold level in seconds
+	 * @param windowSize The stale window size in seconds
 	 */
-	public void scan() {
-		debug("Scanning for stale windows");
-		try {
-			SystemClock.startTimer();
-			int staleTime = (int)(SystemClock.currentClock().unixTime()-staleThreshold);
-			
-			Entry<Integer, ConcurrentLongSortedSet> entry = metricTimestampMap.ceilingEntry(staleTime);
-			if(entry== null) {
-				debug("No stale window found");
-				return;
-			}
-			int lastSeen = entry.getKey();
-			metricTimestampMap.remove(lastSeen);
-			ConcurrentLongSortedSet staleIds = entry.getValue();
-			for(int i = 0; i < staleIds.size(); i++) {
-				long metricId = staleIds.get(i);
-				if(staleEventProcessor!=null) {
-					staleEventProcessor.onStaleMetric(metricId, lastSeen);
-				}
-			}
-			incr("StaleMetricEvents", staleIds.size());
-		} finally {
-			scanTimesNs.insert(SystemClock.endTimer().elapsedNs);
+	protected void validateWheelSpan(int staleThreshold, int windowSize) {
+		long required = TimeUnit.MILLISECONDS.convert(staleThreshold + windowSize, TimeUnit.SECONDS) + (lastSeenTable.getTickMs() * 2);
+		if(required > lastSeenTable.getWheelSpanMs()) {
+			throw new IllegalArgumentException("The stale threshold [" + staleThreshold + "] and window size [" + windowSize + "] exceed the last seen timing wheel span of [" + lastSeenTable.getWheelSpanMs() + "] ms. Increase " + MetricLastSeenTable.TICK_PROP, new Throwable());
 		}
 	}
 	
@@ -192,12 +189,10 @@ public class MetricLastTimeSeenService extends ServerComponentBean implements Ru
 		return metrics;
 	}
 	
-	/** Sliding windows of scan times in ns. */
-	protected final LongSlidingWindow scanTimesNs = new ConcurrentLongSlidingWindow(15);
-	/** Sliding windows of last seen processing times in ns. */
-	protected final LongSlidingWindow lastSeenTimesNs = new ConcurrentLongSlidingWindow(15);
-	/** Sliding windows of clearing older entries (COE) processing times in ns. */
-	protected final LongSlidingWindow coeTimesNs = new ConcurrentLongSlidingWindow(15);
+	/** Histogram of scan times in ns. */
+	protected final LatencyHistogram scanTimesNs = new LatencyHistogram();
+	/** Histogram of last seen processing times in ns. */
+	protected final LatencyHistogram lastSeenTimesNs = new LatencyHistogram();
 	
 	/**
 	 * Returns the last scan time in ns.
@@ -205,16 +200,52 @@ public class MetricLastTimeSeenService extends ServerComponentBean implements Ru
 	 */
 	@ManagedMetric(category="LastScanTimeNs", metricType=MetricType.GAUGE, description="The last scan time in ns.")
 	public long getLastScanTimeNs() {
-		return scanTimesNs.isEmpty() ? -1L : scanTimesNs.get(0);
+		return scanTimesNs.getLast();
 	}
 
 	/**
-	 * Returns the rolling average scan time in ns.
-	 * @return the rolling average scan time in ns.
+	 * Returns the average scan time in ns. over the last interval
+	 * @return the average scan time in ns.
 	 */
-	@ManagedMetric(category="AverageScanTimeNs", metricType=MetricType.GAUGE, description="The rolling average scan time in ns.")
+	@ManagedMetric(category="AverageScanTimeNs", metricType=MetricType.GAUGE, description="The average scan time in ns. over the last interval")
 	public long getAverageScanTimeNs() {
-		return scanTimesNs.isEmpty() ? -1L : scanTimesNs.avg();
+		return scanTimesNs.getMean();
+	}
+	
+	/**
+	 * Returns the median scan time in ns. over the last interval
+	 * @return the median scan time in ns. or -1 if there were none
+	 */
+	@ManagedMetric(category="ScanTimeNs", metricType=MetricType.GAUGE, description="The median scan time in ns. over the last interval")
+	public long getScanTimeNsP50() {
+		return scanTimesNs.getP50();
+	}
+	
+	/**
+	 * Returns the 99th percentile scan time in ns. over the last interval
+	 * @return the 99th percentile scan time in ns. or -1 if there were none
+	 */
+	@ManagedMetric(category="ScanTimeNs", metricType=MetricType.GAUGE, description="The 99th percentile scan time in ns. over the last interval")
+	public long getScanTimeNsP99() {
+		return scanTimesNs.getP99();
+	}
+	
+	/**
+	 * Returns the 99.9th percentile scan time in ns. over the last interval
+	 * @return the 99.9th percentile scan time in ns. or -1 if there were none
+	 */
+	@ManagedMetric(category="ScanTimeNs", metricType=MetricType.GAUGE, description="The 99.9th percentile scan time in ns. over the last interval")
+	public long getScanTimeNsP999() {
+		return scanTimesNs.getP999();
+	}
+	
+	/**
+	 * Returns the maximum scan time in ns. over the last interval
+	 * @return the maximum scan time in ns. or -1 if there were none
+	 */
+	@ManagedMetric(category="ScanTimeNs", metricType=MetricType.GAUGE, description="The maximum scan time in ns. over the last interval")
+	public long getScanTimeNsMax() {
+		return scanTimesNs.getMax();
 	}
 	
 	/**
@@ -223,62 +254,134 @@ public class MetricLastTimeSeenService extends ServerComponentBean implements Ru
 	 */
 	@ManagedMetric(category="LastLastSeenTimeNs", metricType=MetricType.GAUGE, description="The last last-seen processing time in ns.")
 	public long getLastLastSeenTimeNs() {
-		return lastSeenTimesNs.isEmpty() ? -1L : lastSeenTimesNs.get(0);
+		return lastSeenTimesNs.getLast();
 	}
 
 	/**
-	 * Returns the rolling average last-seen processing time in ns.
-	 * @return the rolling average last-seen processing time in ns.
+	 * Returns the average last-seen processing time in ns. over the last interval
+	 * @return the average last-seen processing time in ns.
 	 */
-	@ManagedMetric(category="AverageLastSeenTimeNs", metricType=MetricType.GAUGE, description="The rolling average last-seen processing time in ns.")
+	@ManagedMetric(category="AverageLastSeenTimeNs", metricType=MetricType.GAUGE, description="The average last-seen processing time in ns. over the last interval")
 	public long getAverageLastSeenTimeNs() {
-		return lastSeenTimesNs.isEmpty() ? -1L : lastSeenTimesNs.avg();
+		return lastSeenTimesNs.getMean();
 	}
-
+	
 	/**
-	 * Returns the last coe processing time in ns.
-	 * @return the last coe processing time in ns.
+	 * Returns the median last-seen processing time in ns. over the last interval
+	 * @return the median last-seen processing time in ns. or -1 if there were none
 	 */
-	@ManagedMetric(category="LastCOETimeNs", metricType=MetricType.GAUGE, description="The last coe processing time in ns.")
-	public long getLastCOETimeNs() {
-		return coeTimesNs.isEmpty() ? -1L : coeTimesNs.get(0);
+	@ManagedMetric(category="LastSeenTimeNs", metricType=MetricType.GAUGE, description="The median last-seen processing time in ns. over the last interval")
+	public long getLastSeenTimeNsP50() {
+		return lastSeenTimesNs.getP50();
 	}
 	
 	/**
-	 * Returns the rolling average coe processing time in ns.
-	 * @return the rolling average coe processing time in ns.
+	 * Returns the 99th percentile last-seen processing time in ns. over the last interval
+	 * @return the 99th percentile last-seen processing time in ns. or -1 if there were none
 	 */
-	@ManagedMetric(category="AverageCOETimeNs", metricType=MetricType.GAUGE, description="The rolling average coe processing time in ns.")
-	public long getAverageCOETimeNs() {
-		return coeTimesNs.isEmpty() ? -1L : coeTimesNs.avg();
+	@ManagedMetric(category="LastSeenTimeNs", metricType=MetricType.GAUGE, description="The 99th percentile last-seen processing time in ns. over the last interval")
+	public long getLastSeenTimeNsP99() {
+		return lastSeenTimesNs.getP99();
 	}
 	
+	/**
+	 * Returns the 99.9th percentile last-seen processing time in ns. over the last interval
+	 * @return the 99.9th percentile last-seen processing time in ns. or -1 if there were none
+	 */
+	@ManagedMetric(category="LastSeenTimeNs", metricType=MetricType.GAUGE, description="The 99.9th percentile last-seen processing time in ns. over the last interval")
+	public long getLastSeenTimeNsP999() {
+		return lastSeenTimesNs.getP999();
+	}
 	
+	/**
+	 * Returns the maximum last-seen processing time in ns. over the last interval
+	 * @return the maximum last-seen processing time in ns. or -1 if there were none
+	 */
+	@ManagedMetric(category="LastSeenTimeNs", metricType=MetricType.GAUGE, description="The maximum last-seen processing time in ns. over the last interval")
+	public long getLastSeenTimeNsMax() {
+		return lastSeenTimesNs.getMax();
+	}
 
+	/**
+	 * Returns the number of off-heap pages allocated by the last seen table
+	 * @return the number of allocated pages
+	 */
+	@ManagedMetric(category="LastSeenTablePages", metricType=MetricType.GAUGE, description="The number of off-heap pages allocated by the last seen table")
+	public int getLastSeenTablePages() {
+		return lastSeenTable.getPageCount();
+	}
+	
+	/**
+	 * Returns the number of off-heap bytes allocated by the last seen table
+	 * @return the number of allocated bytes
+	 */
+	@ManagedMetric(category="LastSeenTableBytes", metricType=MetricType.GAUGE, description="The number of off-heap bytes allocated by the last seen table")
+	public long getLastSeenTableBytes() {
+		return lastSeenTable.getAllocatedBytes();
+	}
+	
+	/**
+	 * Returns the number of last seen updates dropped because the metric ID was out of range
+	 * @return the number of dropped last seen updates
+	 */
+	@ManagedMetric(category="DroppedLastSeen", metricType=MetricType.COUNTER, description="The number of last seen updates dropped because the metric ID was out of range")
+	public long getDroppedLastSeen() {
+		return lastSeenTable.getDropped();
+	}
+	
+	/**
+	 * Returns the stale threshold level in seconds
+	 * @return the stale threshold level in seconds
+	 */
+	@ManagedAttribute(description="The stale threshold level in seconds")
+	public int getStaleThreshold() {
+		return staleThreshold;
+	}
+	
+	/**
+	 * Sets the stale threshold level in seconds
+	 * @param staleThreshold the stale threshold level in seconds
+	 */
+	@ManagedAttribute(description="The stale threshold level in seconds")
+	public void setStaleThreshold(int staleThreshold) {
+		if(staleThreshold<1) throw new IllegalArgumentException("Invalid stale threshold [" + staleThreshold + "]", new Throwable());
+		validateWheelSpan(staleThreshold, windowSize);
+		this.staleThreshold = staleThreshold;
+	}
+	
+	/**
+	 * Returns the stale window size in seconds, which is the period between scans
+	 * @return the stale window size in seconds
+	 */
+	@ManagedAttribute(description="The stale window size in seconds, which is the period between scans")
+	public int getWindowSize() {
+		return windowSize;
+	}
 	
+	/**
+	 * Sets the stale window size in seconds. Takes effect on the next start.
+	 * @param windowSize the stale window size in seconds
+	 */
+	public void setWindowSize(int windowSize) {
+		if(windowSize<1) throw new IllegalArgumentException("Invalid window size [" + windowSize + "]", new Throwable());
+		validateWheelSpan(staleThreshold, windowSize);
+		this.windowSize = windowSize;
+	}
+	
+	/**
+	 * Returns the most recent timing wheel tick scanned
+	 * @return the most recent timing wheel tick scanned
+	 */
+	@ManagedAttribute(description="The most recent timing wheel tick scanned")
+	public long getLastScannedTick() {
+		return lastScannedTick;
+	}
+	
+	/**
+	 * Sets the stale metric event handler
+	 * @param staleEventProcessor the stale metric event handler
+	 */
+	public void setStaleEventProcessor(StaleMetricEventProcessor staleEventProcessor) {
+		this.staleEventProcessor = staleEventProcessor;
+	}
 }
-
-
-
-
-
-
-
-
-
-
-
-
-
-
-
-
-
-
-
-
-
-
-
-
-
@@ -31,13 +31,24 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.sql.Timestamp;
 import java.sql.Types;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.sql.DataSource;
 
@@ -47,11 +58,17 @@ import org.helios.apmrouter.catalog.DChannelEventType;
 import org.helios.apmrouter.catalog.EntryStatus;
 import org.helios.apmrouter.catalog.EntryStatus.EntryStatusChange;
 import org.helios.apmrouter.catalog.MetricCatalogService;
+import org.helios.apmrouter.catalog.MetricLastSeenTable;
 import org.helios.apmrouter.collections.ConcurrentLongSlidingWindow;
 import org.helios.apmrouter.collections.ConcurrentLongSortedSet;
 import org.helios.apmrouter.collections.LongSlidingWindow;
 import org.helios.apmrouter.destination.chronicletimeseries.ChronicleTSManager;
+import org.helios.apmrouter.destination.accumulator.FlushQueueReceiver;
+import org.helios.apmrouter.destination.accumulator.OverflowPolicy;
+import org.helios.apmrouter.destination.accumulator.TimeSizeFlushQueue;
 import org.helios.apmrouter.destination.chronicletimeseries.ChronicleTier;
+import org.helios.apmrouter.jmx.ConfigurationHelper;
+import org.helios.apmrouter.metric.ICEMetric;
 import org.helios.apmrouter.metric.IMetric;
 import org.helios.apmrouter.metric.MetricType;
 import org.helios.apmrouter.metric.catalog.ICEMetricCatalog;
@@ -72,12 +89,18 @@ import org.springframework.jmx.export.annotation.ManagedMetric;
  * <p>Title: H2JDBCMetricCatalog</p>
  * <p>Description: The H2 implementation of the {@link MetricCatalogService}. When realtime is set to true
  * host, agent and metric timestamps are kept realtime with respect to their <i>last seen</i> timestamp.</p> 
+ * <p>Token and metric name lookups are served from a bounded {@link MetricIDCache} which is prefetched from the <b><code>METRIC</code></b>
+ * table on start. When write-behind is enabled, IDs for new metrics are assigned in-process and the catalog rows are
+ * inserted asynchronously in batches of multi-row inserts. A new metric whose row cannot be written keeps its ID and the
+ * row is retried every {@link #getWriteRetryPeriod()} ms. until it is written.</p>
+ * <p>Metric <i>last seen</i> timestamps are recorded in the shared {@link MetricLastSeenTable} and, when realtime,
+ * only the rows changed since the last flush are written to the catalog every {@link #getLastSeenFlushPeriod()} ms.</p>
  * <p>Company: Helios Development Group LLC</p>
  * @author Whitehead (nwhitehead AT heliosdev DOT org)
  * <p><code>org.helios.apmrouter.catalog.jdbc.H2JDBCMetricCatalog</code></p>
  */
 
-public class H2JDBCMetricCatalog extends ServerComponentBean implements MetricCatalogService {
+public class H2JDBCMetricCatalog extends ServerComponentBean implements MetricCatalogService, FlushQueueReceiver<MetricIDCache.Entry> {
 
 	/** The h2 datasource */
 	protected DataSource ds = null;
@@ -91,12 +114,68 @@ public class H2JDBCMetricCatalog extends ServerComponentBean implements MetricCa
 	
 	/** Sliding windows of catalog call elapsed times in ns. */
 	protected final LongSlidingWindow elapsedTimesNs = new ConcurrentLongSlidingWindow(50);
+	
+	/** The system property or env variable name that overrides the ID cache size (@link {@value #DEFAULT_ID_CACHE_SIZE} */
+	public static final String ID_CACHE_SIZE_PROP = "org.helios.apmrouter.catalog.idcache.size";
+	/** The default ID cache size */
+	public static final int DEFAULT_ID_CACHE_SIZE = 131072;
+	/** The number of new metric ID assignment lock stripes */
+	public static final int ASSIGN_STRIPES = 64;
+	
+	/** The token and metric name ID cache */
+	protected final MetricIDCache idCache = new MetricIDCache(ConfigurationHelper.getIntSystemThenEnvProperty(ID_CACHE_SIZE_PROP, DEFAULT_ID_CACHE_SIZE));
+	/** The new metric ID assignment lock stripes */
+	protected final Object[] assignLocks = new Object[ASSIGN_STRIPES];
+	/** The number of metrics prefetched into the ID cache on start */
+	protected int prefetched = 0;
+	
+	/** Indicates if new metric catalog rows are written behind */
+	protected boolean writeBehind = true;
+	/** The write-behind batch size, which is also the maximum number of rows in one insert */
+	protected int writeBehindSize = 128;
+	/** The write-behind flush period in ms. */
+	protected long writeBehindPeriod = 100;
+	/** The write-behind queue of new metrics */
+	protected volatile TimeSizeFlushQueue<MetricIDCache.Entry> writeBehindQueue = null;
+	/** The maximum number of write-behind attempts to write a new metric's catalog row before it is deferred to the write retry */
+	public static final int MAX_WRITE_ATTEMPTS = 3;
+	/** New metrics whose catalog rows could not be written behind. Their IDs stay reserved in the ID cache until the rows are written. */
+	protected final Queue<MetricIDCache.Entry> unwritten = new ConcurrentLinkedQueue<MetricIDCache.Entry>();
+	/** The period in ms. of the retry of new metrics whose catalog rows could not be written behind */
+	protected long writeRetryPeriod = 5000;
+	/** The handle of the scheduled write retry */
+	protected ScheduledFuture<?> writeRetryHandle = null;
+	/** The maximum time in ms. to wait for an in flight write-behind flush on stop */
+	public static final long WRITE_BEHIND_STOP_TIMEOUT = 15000;
+	
+	/** The last seen timestamps shared with the MetricLastTimeSeenService */
+	protected final MetricLastSeenTable lastSeenTable = MetricLastSeenTable.getInstance();
+	/** The last seen flush period in ms. */
+	protected long lastSeenFlushPeriod = 5000;
+	/** The scheduler to flush last seen timestamps */
+	protected ScheduledExecutorService lastSeenScheduler = null;
+	/** The handle of the scheduled last seen flush */
+	protected ScheduledFuture<?> lastSeenHandle = null;
+	/** The maximum number of last seen rows in one update batch */
+	public static final int LAST_SEEN_BATCH = 1024;
+	
+	/** The multi-row metric insert prefix */
+	public static final String INSERT_METRICS_SQL = "INSERT INTO METRIC (METRIC_ID, AGENT_ID, TYPE_ID, NAMESPACE, NARR, LEVEL, NAME, FIRST_SEEN, LAST_SEEN) VALUES ";
+	/** The multi-row metric insert row values */
+	public static final String INSERT_METRICS_ROW = "(?,?,?,?,?,?,?,CURRENT_TIMESTAMP,CURRENT_TIMESTAMP)";
+	/** The SQL to prefetch the ID cache */
+	public static final String PREFETCH_SQL = "SELECT M.METRIC_ID, H.DOMAIN, H.NAME, A.NAME, M.TYPE_ID, M.NAMESPACE, M.NAME "
+			+ "FROM HOST H, AGENT A, METRIC M "
+			+ "WHERE A.HOST_ID = H.HOST_ID AND M.AGENT_ID = A.AGENT_ID";
 
 	/**
 	 * Creates a new H2JDBCMetricCatalog
 	 */
 	public H2JDBCMetricCatalog() {
 		super();
+		for(int i = 0; i < ASSIGN_STRIPES; i++) {
+			assignLocks[i] = new Object();
+		}
 	}
 	
 	/**
@@ -139,9 +218,104 @@ public class H2JDBCMetricCatalog extends ServerComponentBean implements MetricCa
 			if(ps!=null) try { ps.close(); } catch (Exception e) {/* No Op */}
 			if(conn!=null) try { conn.close(); } catch (Exception e) {/* No Op */}
 		}
+		prefetch();
+		if(writeBehind) {
+			writeBehindQueue = new TimeSizeFlushQueue<MetricIDCache.Entry>(getClass().getSimpleName() + "WriteBehind", writeBehindSize, writeBehindPeriod, writeBehindSize*16, OverflowPolicy.DROP, null, this);
+		}
+		lastSeenScheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory(){
+			final AtomicInteger serial = new AtomicInteger(0);
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "LastSeenFlushThread#" + serial.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		lastSeenHandle = lastSeenScheduler.scheduleWithFixedDelay(new Runnable(){
+			@Override
+			public void run() {
+				flushLastSeen();
+			}
+		}, lastSeenFlushPeriod, lastSeenFlushPeriod, TimeUnit.MILLISECONDS);
+		writeRetryHandle = lastSeenScheduler.scheduleWithFixedDelay(new Runnable(){
+			@Override
+			public void run() {
+				retryUnwritten();
+			}
+		}, writeRetryPeriod, writeRetryPeriod, TimeUnit.MILLISECONDS);
 		//SharedChannelGroup.getInstance().addSessionListener(this);
 	}
 	
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.apmrouter.server.ServerComponentBean#doStop()
+	 */
+	@Override
+	protected void doStop() {
+		TimeSizeFlushQueue<MetricIDCache.Entry> queue = writeBehindQueue;
+		if(queue!=null) {
+			// new metrics are written through from here on
+			writeBehindQueue = null;
+			if(!queue.awaitFlushes(WRITE_BEHIND_STOP_TIMEOUT)) {
+				warn("Timed out waiting for the in flight write-behind flush");
+			}
+			queue.run();
+			queue.stop();
+		}
+		if(writeRetryHandle!=null) {
+			writeRetryHandle.cancel(false);
+			writeRetryHandle = null;
+		}
+		retryUnwritten();
+		if(!unwritten.isEmpty()) {
+			error("Stopped with [", unwritten.size(), "] new metrics whose catalog rows could not be written");
+		}
+		if(lastSeenHandle!=null) {
+			lastSeenHandle.cancel(false);
+			lastSeenHandle = null;
+		}
+		if(lastSeenScheduler!=null) {
+			lastSeenScheduler.shutdown();
+			lastSeenScheduler = null;
+		}
+		flushLastSeen();
+	}
+	
+	/**
+	 * Loads the ID cache from the catalog. If the whole catalog fits, the cache becomes authoritative for metric names.
+	 */
+	protected void prefetch() {
+		final int capacity = idCache.getCapacity();
+		Connection conn = null;
+		PreparedStatement ps = null;
+		ResultSet rset = null;
+		SystemClock.startTimer();
+		try {
+			conn = ds.getConnection();
+			ps = conn.prepareStatement(PREFETCH_SQL);
+			ps.setMaxRows(capacity+1);
+			ps.setFetchSize(1024);
+			rset = ps.executeQuery();
+			int cnt = 0;
+			while(rset.next()) {
+				if(cnt==capacity) break;
+				String domain = rset.getString(2), host = rset.getString(3), agent = rset.getString(4), namespace = rset.getString(6), name = rset.getString(7);
+				idCache.put(MetricIDCache.key(domain, host, agent, namespace, name), new MetricIDCache.Entry(rset.getLong(1), domain, host, agent, rset.getInt(5), namespace, name));
+				cnt++;
+			}
+			boolean all = !rset.next();
+			prefetched = cnt;
+			if(all) idCache.setComplete();
+			info("Prefetched [", cnt, "] metric IDs in ", SystemClock.endTimer(), ". Authoritative:", idCache.isAuthoritative());
+		} catch (Exception e) {
+			warn("Failed to prefetch metric IDs", e);
+		} finally {
+			if(rset!=null) try { rset.close(); } catch (Exception e) {/* No Op */}
+			if(ps!=null) try { ps.close(); } catch (Exception e) {/* No Op */}
+			if(conn!=null) try { conn.close(); } catch (Exception e) {/* No Op */}
+		}
+	}
+	
 	/**
 	 * {@inheritDoc}
 	 * @see org.helios.apmrouter.catalog.EntryStatusChangeListener#onEntryStatusChange(java.util.Map)
@@ -185,7 +359,7 @@ public class H2JDBCMetricCatalog extends ServerComponentBean implements MetricCa
 
 	
 	/** The SQL to fetch a delegate metric ID from a token */
-	public static final String GET_METRIC_SQL = "SELECT HOST.NAME, AGENT.NAME, TYPE_ID, NAMESPACE, METRIC.NAME "
+	public static final String GET_METRIC_SQL = "SELECT HOST.NAME, AGENT.NAME, TYPE_ID, NAMESPACE, METRIC.NAME, HOST.DOMAIN "
 			+ "FROM HOST, AGENT, METRIC " 
 			+ "WHERE AGENT.HOST_ID = HOST.HOST_ID AND METRIC.AGENT_ID = AGENT.AGENT_ID " 
 			+ "AND METRIC_ID = ?";
@@ -197,6 +371,11 @@ public class H2JDBCMetricCatalog extends ServerComponentBean implements MetricCa
 	 */
 	@Override
 	public IDelegateMetric getMetricID(long token) {
+		MetricIDCache.Entry entry = idCache.getEntry(token);
+		if(entry!=null) {
+			incr("TokenCacheHits");
+			return setToken(token, entry.host, entry.agent, entry.typeId, entry.namespace, entry.name);
+		}
 		Connection conn = null;
 		PreparedStatement ps = null;
 		ResultSet rset = null;
@@ -211,9 +390,9 @@ public class H2JDBCMetricCatalog extends ServerComponentBean implements MetricCa
 			}
 			// MetricLastTimeSeenService
 			
-			CharSequence[] namespace = rset.getString(4).replaceFirst("/", "").split("/");
-			ICEMetricCatalog.getInstance().setToken(token, rset.getString(1), rset.getString(2), rset.getString(5), MetricType.valueOf(rset.getInt(3)), namespace);
-			return ICEMetricCatalog.getInstance().get(token);
+			entry = new MetricIDCache.Entry(token, rset.getString(6), rset.getString(1), rset.getString(2), rset.getInt(3), rset.getString(4), rset.getString(5));
+			idCache.put(MetricIDCache.key(entry.domain, entry.host, entry.agent, entry.namespace, entry.name), entry);
+			return setToken(token, entry.host, entry.agent, entry.typeId, entry.namespace, entry.name);
 		} catch (SQLException sex) {
 			sex.printStackTrace(System.err);
 			return null;
@@ -224,6 +403,22 @@ public class H2JDBCMetricCatalog extends ServerComponentBean implements MetricCa
 		}				
 	}
 	
+	/**
+	 * Registers the passed token with the metric catalog and returns the delegate metric
+	 * @param token The metric token
+	 * @param host The host name
+	 * @param agent The agent name
+	 * @param typeId The metric type ordinal
+	 * @param namespace The metric namespace
+	 * @param name The metric name
+	 * @return the delegate metric
+	 */
+	protected IDelegateMetric setToken(long token, String host, String agent, int typeId, String namespace, String name) {
+		CharSequence[] ns = namespace.replaceFirst("/", "").split("/");
+		ICEMetricCatalog.getInstance().setToken(token, host, agent, name, MetricType.valueOf(typeId), ns);
+		return ICEMetricCatalog.getInstance().get(token);
+	}
+	
 	/**
 	 * Finds the assigned metric ID for the passed host/agent/name and namespace
 	 * @param host The host name
@@ -234,6 +429,29 @@ public class H2JDBCMetricCatalog extends ServerComponentBean implements MetricCa
 	 */
 	@Override
 	public long isAssigned(String host, String agent, String namespace, String name)  {
+		String key = MetricIDCache.key(host, agent, namespace, name);
+		long id = idCache.getId(key);
+		if(id!=-1L) {
+			incr("IDCacheHits");
+			return id;
+		}
+		if(idCache.isAuthoritative()) return -1L;
+		id = lookupAssigned(host, agent, namespace, name);
+		if(id!=-1L) {
+			idCache.put(key, new MetricIDCache.Entry(id, H2StoredProcedure.domain(host), H2StoredProcedure.noDomain(host), agent, -1, namespace, name));
+		}
+		return id;
+	}
+	
+	/**
+	 * Finds the assigned metric ID for the passed host/agent/name and namespace in the catalog
+	 * @param host The host name
+	 * @param agent The agent name
+	 * @param namespace The metric namespace
+	 * @param name The metric name
+	 * @return The metric ID or -1 if one was not found
+	 */
+	protected long lookupAssigned(String host, String agent, String namespace, String name)  {
 		Connection conn = null;
 		CallableStatement cs = null;
 		try {
@@ -262,6 +480,18 @@ public class H2JDBCMetricCatalog extends ServerComponentBean implements MetricCa
 	@Override
 	public long getID(long tokenRef, String host, String agent, int typeId, String namespace, String name) {
 		if(tokenRef!=-1 && !realtime) return 0;
+		String key = null;
+		if(tokenRef==-1) {
+			key = MetricIDCache.key(host, agent, namespace, name);
+			long id = idCache.getId(key);
+			if(id!=-1L) {
+				incr("IDCacheHits");
+				return id;
+			}
+			if(writeBehindQueue!=null) {
+				return assign(key, host, agent, typeId, namespace, name);
+			}
+		}
 		SystemClock.startTimer();
 		final long token = tokenRef!=-1 ? tokenRef : liveTier.createNewMetric();
 		incr("CallCount");		
@@ -281,6 +511,9 @@ public class H2JDBCMetricCatalog extends ServerComponentBean implements MetricCa
 			cs.setString(7, name);
 			cs.execute();
 			long id = cs.getLong(1);
+			if(key!=null && id>0) {
+				idCache.put(key, new MetricIDCache.Entry(id, H2StoredProcedure.domain(host), H2StoredProcedure.noDomain(host), agent, typeId, namespace, name));
+			}
 			incr("AssignedMetricIDs");
 			ElapsedTime et = SystemClock.endTimer();
 			elapsedTimesNs.insert(et.elapsedNs);
@@ -298,32 +531,277 @@ public class H2JDBCMetricCatalog extends ServerComponentBean implements MetricCa
 		}
 	}
 	
+	/**
+	 * Assigns an ID to a new metric in-process and queues the catalog insert to the write-behind
+	 * @param key The metric name key
+	 * @param host The host name
+	 * @param agent The agent name
+	 * @param typeId The metric type ordinal
+	 * @param namespace The metric namespace
+	 * @param name The metric name
+	 * @return the assigned metric ID
+	 */
+	protected long assign(String key, String host, String agent, int typeId, String namespace, String name) {
+		if(!idCache.isAuthoritative()) {
+			// the catalog lookup runs outside the stripe lock. A metric assigned concurrently is not in the catalog yet, so it is found in the cache below.
+			long id = lookupAssigned(host, agent, namespace, name);
+			if(id!=-1L) {
+				synchronized(assignLocks[(int)(ICEMetric.longHashCode(key) & (ASSIGN_STRIPES-1))]) {
+					long cached = idCache.getId(key);
+					if(cached!=-1L) return cached;
+					idCache.put(key, new MetricIDCache.Entry(id, H2StoredProcedure.domain(host), H2StoredProcedure.noDomain(host), agent, typeId, namespace, name));
+					return id;
+				}
+			}
+		}
+		MetricIDCache.Entry entry;
+		synchronized(assignLocks[(int)(ICEMetric.longHashCode(key) & (ASSIGN_STRIPES-1))]) {
+			long id = idCache.getId(key);
+			if(id!=-1L) return id;
+			entry = new MetricIDCache.Entry(liveTier.createNewMetric(), H2StoredProcedure.domain(host), H2StoredProcedure.noDomain(host), agent, typeId, namespace, name);
+			idCache.put(key, entry);
+		}
+		incr("AssignedMetricIDs");
+		incr("WriteBehindMetrics");
+		TimeSizeFlushQueue<MetricIDCache.Entry> queue = writeBehindQueue;
+		if(queue==null || !queue.offer(entry)) {
+			// the queue is stopped or full, so write the row through
+			flushTo(Collections.singletonList(entry));
+		}
+		return entry.metricId;
+	}
+	
+	/**
+	 * <p>Inserts the written-behind catalog rows in multi-row inserts of up to {@link #writeBehindSize} rows.
+	 * If a multi-row insert fails, its rows are resolved one by one through {@link H2StoredProcedure#getID(Connection, long, String, String, String, int, String, String)}
+	 * and any metric that was found to already exist under a different ID is re-cached with the catalog ID.</p>
+	 * <p>Rows that could not be written are retried through {@link #retryWrites(List)}.</p>
+	 * {@inheritDoc}
+	 * @see org.helios.apmrouter.destination.accumulator.FlushQueueReceiver#flushTo(java.util.Collection)
+	 */
+	@Override
+	public void flushTo(Collection<MetricIDCache.Entry> entries) {
+		if(entries==null || entries.isEmpty()) return;
+		SystemClock.startTimer();
+		Connection conn = null;
+		final List<MetricIDCache.Entry> failed = new ArrayList<MetricIDCache.Entry>();
+		final List<MetricIDCache.Entry> pending = new ArrayList<MetricIDCache.Entry>(entries);
+		int attempted = 0;
+		try {
+			conn = ds.getConnection();
+			Map<String, Object[]> agentKeys = new HashMap<String, Object[]>();
+			Map<Integer, Integer> minLevels = new HashMap<Integer, Integer>();
+			List<MetricIDCache.Entry> batch = new ArrayList<MetricIDCache.Entry>(writeBehindSize);
+			List<Object[]> batchKeys = new ArrayList<Object[]>(writeBehindSize);
+			for(MetricIDCache.Entry entry: pending) {
+				int nsLevel = H2StoredProcedure.nsLevel(entry.namespace);
+				String agentKey = entry.domain + "/" + entry.host + "/" + entry.agent;
+				Object[] agentNums = agentKeys.get(agentKey);
+				if(agentNums==null) {
+					agentNums = H2StoredProcedure.agentKey(conn, entry.domain, entry.host, entry.agent, nsLevel);
+					agentKeys.put(agentKey, agentNums);
+				}
+				Integer agentId = ((Number)agentNums[0]).intValue();
+				int minLevel = ((Number)agentNums[1]).intValue();
+				Integer batchMin = minLevels.get(agentId);
+				if(nsLevel<minLevel && (batchMin==null || nsLevel<batchMin)) {
+					minLevels.put(agentId, nsLevel);
+				}
+				batch.add(entry);
+				batchKeys.add(agentNums);
+				if(batch.size()==writeBehindSize) {
+					failed.addAll(insertMetrics(conn, batch, batchKeys));
+					attempted += batch.size();
+					batch.clear(); batchKeys.clear();
+				}
+			}
+			if(!batch.isEmpty()) {
+				failed.addAll(insertMetrics(conn, batch, batchKeys));
+				attempted += batch.size();
+			}
+			for(Map.Entry<Integer, Integer> min: minLevels.entrySet()) {
+				H2StoredProcedure.setAgentMinLevel(conn, min.getKey(), min.getValue());
+			}
+			ElapsedTime et = SystemClock.endTimer();
+			elapsedTimesNs.insert(et.elapsedNs);
+		} catch (Exception e) {
+			error("Failed to write [", pending.size()-attempted, "] new metrics to the catalog", e);
+			failed.addAll(pending.subList(attempted, pending.size()));
+		} finally {
+			if(conn!=null) try { conn.close(); } catch (Exception e) {/* No Op */}
+		}
+		if(!failed.isEmpty()) {
+			retryWrites(failed);
+		}
+	}
+	
+	/**
+	 * Re-queues new metrics whose catalog rows could not be written. A metric that has failed {@link #MAX_WRITE_ATTEMPTS} times,
+	 * or that cannot be re-queued because the write-behind queue is stopped or full, is deferred to the write retry that runs
+	 * every {@link #getWriteRetryPeriod()} ms. The metric stays in the ID cache, since its ID has already been handed out.
+	 * @param failed The metrics whose rows were not written
+	 */
+	protected void retryWrites(List<MetricIDCache.Entry> failed) {
+		TimeSizeFlushQueue<MetricIDCache.Entry> queue = writeBehindQueue;
+		int deferred = 0;
+		for(MetricIDCache.Entry entry: failed) {
+			entry.writeAttempts++;
+			if(entry.writeAttempts<MAX_WRITE_ATTEMPTS && queue!=null && queue.offer(entry)) {
+				incr("WriteBehindRetries");
+				continue;
+			}
+			unwritten.add(entry);
+			incr("WriteBehindFailures");
+			deferred++;
+		}
+		if(deferred>0) {
+			error("Deferred [", deferred, "] new metrics after failing to write their catalog rows. Retrying in ", writeRetryPeriod, " ms.");
+		}
+	}
+	
+	/**
+	 * Writes the catalog rows of the new metrics deferred by {@link #retryWrites(List)}. Rows that fail again are deferred again.
+	 */
+	protected void retryUnwritten() {
+		if(unwritten.isEmpty()) return;
+		List<MetricIDCache.Entry> entries = new ArrayList<MetricIDCache.Entry>(unwritten.size());
+		MetricIDCache.Entry entry = null;
+		while((entry = unwritten.poll())!=null) {
+			entry.writeAttempts = 0;
+			entries.add(entry);
+		}
+		info("Retrying the catalog rows of [", entries.size(), "] new metrics");
+		flushTo(entries);
+	}
+	
+	/**
+	 * Inserts a batch of new metrics in one multi-row insert, falling back to one at a time if the insert fails
+	 * @param conn The catalog connection
+	 * @param batch The new metrics
+	 * @param agentKeys The agent ID and minimum level of each new metric's agent
+	 * @return the metrics whose rows could not be written
+	 */
+	protected List<MetricIDCache.Entry> insertMetrics(Connection conn, List<MetricIDCache.Entry> batch, List<Object[]> agentKeys) {
+		StringBuilder sql = new StringBuilder(INSERT_METRICS_SQL.length() + (batch.size() * (INSERT_METRICS_ROW.length()+1)));
+		sql.append(INSERT_METRICS_SQL);
+		for(int i = 0; i < batch.size(); i++) {
+			if(i>0) sql.append(',');
+			sql.append(INSERT_METRICS_ROW);
+		}
+		PreparedStatement ps = null;
+		try {
+			ps = conn.prepareStatement(sql.toString());
+			int index = 1;
+			for(int i = 0; i < batch.size(); i++) {
+				MetricIDCache.Entry entry = batch.get(i);
+				ps.setLong(index++, entry.metricId);
+				ps.setInt(index++, ((Number)agentKeys.get(i)[0]).intValue());
+				ps.setInt(index++, entry.typeId);
+				ps.setString(index++, entry.namespace);
+				ps.setObject(index++, H2StoredProcedure.nsItems(entry.namespace));
+				ps.setInt(index++, H2StoredProcedure.nsLevel(entry.namespace));
+				ps.setString(index++, entry.name);
+			}
+			ps.executeUpdate();
+			incr("WriteBehindBatches");
+			return Collections.emptyList();
+		} catch (SQLException sex) {
+			warn("Multi-row insert of [", batch.size(), "] metrics failed. Inserting one at a time. Cause:", sex.getMessage());
+		} finally {
+			if(ps!=null) try { ps.close(); } catch (Exception e) {/* No Op */}
+		}
+		List<MetricIDCache.Entry> failed = new ArrayList<MetricIDCache.Entry>();
+		for(MetricIDCache.Entry entry: batch) {
+			long id;
+			try {
+				id = H2StoredProcedure.getID(conn, entry.metricId, entry.domain, entry.host, entry.agent, entry.typeId, entry.namespace, entry.name);
+			} catch (SQLException sex) {
+				incr("WriteBehindRowFailures");
+				warn("Failed to insert metric [", entry.domain, "/", entry.host, "/", entry.agent, entry.namespace, ":", entry.name, "]. Cause:", sex.getMessage());
+				failed.add(entry);
+				continue;
+			}
+			if(id!=entry.metricId) {
+				incr("WriteBehindConflicts");
+				warn("Metric [", entry.domain, "/", entry.host, "/", entry.agent, entry.namespace, ":", entry.name, "] was assigned [", entry.metricId, "] but exists as [", id, "]");
+				idCache.put(MetricIDCache.key(entry.domain, entry.host, entry.agent, entry.namespace, entry.name), 
+						new MetricIDCache.Entry(id, entry.domain, entry.host, entry.agent, entry.typeId, entry.namespace, entry.name));
+			}
+		}
+		return failed;
+	}
+	
 	/**
 	 * {@inheritDoc}
 	 * @see org.helios.apmrouter.catalog.MetricCatalogService#touch(java.util.Collection)
 	 */
 	@Override
 	public int touch(Collection<IMetric> metrics) {
-		if(realtime && metrics!=null && !metrics.isEmpty()) {
-			Connection conn = null;
-			PreparedStatement ps = null;
-			try {
-				conn = ds.getConnection();
-				ps = conn.prepareStatement("UPDATE METRIC SET LAST_SEEN = systimestamp WHERE METRIC_ID = ?");
-				for(IMetric metric: metrics) {
-					ps.setLong(1, metric.getMetricId().getToken());
+		if(metrics==null || metrics.isEmpty()) return 0;
+		final long now = SystemClock.time();
+		int cnt = 0;
+		for(IMetric metric: metrics) {
+			long token = metric.getToken();
+			if(token!=-1 && lastSeenTable.touch(token, now)) cnt++;
+		}
+		return cnt;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.apmrouter.catalog.MetricCatalogService#touch(long[], int)
+	 */
+	@Override
+	public int touch(long[] tokens, int count) {
+		if(tokens==null || count<1) return 0;
+		final long now = SystemClock.time();
+		int cnt = 0;
+		for(int i = 0; i < count; i++) {
+			if(tokens[i]!=-1 && lastSeenTable.touch(tokens[i], now)) cnt++;
+		}
+		return cnt;
+	}
+	
+	/**
+	 * Writes the last seen timestamps changed since the last flush to the catalog. 
+	 * The changed rows are drained even when the catalog is not realtime so they do not accumulate.
+	 * @return the number of metric rows updated
+	 */
+	protected synchronized int flushLastSeen() {
+		final long[] metricIds = new long[LAST_SEEN_BATCH];
+		final long[] timestamps = new long[LAST_SEEN_BATCH];
+		Connection conn = null;
+		PreparedStatement ps = null;
+		int total = 0;
+		try {
+			int cnt;
+			do {
+				cnt = lastSeenTable.drainDirty(metricIds, timestamps);
+				if(cnt==0 || !realtime) continue;
+				if(ps==null) {
+					conn = ds.getConnection();
+					ps = conn.prepareStatement("UPDATE METRIC SET LAST_SEEN = ? WHERE METRIC_ID = ?");
+				}
+				for(int i = 0; i < cnt; i++) {
+					ps.setTimestamp(1, new Timestamp(timestamps[i]));
+					ps.setLong(2, metricIds[i]);
 					ps.addBatch();
 				}
-				return ps.executeBatch().length;
-			} catch (Exception ex) {
-				error("Failed to touch timestamps on [" + metrics.size() + "] metrics", ex);
-				return 0;
-			} finally {
-				if(ps!=null) try { ps.close(); } catch (Exception e) {/* No Op */}
-				if(conn!=null) try { conn.close(); } catch (Exception e) {/* No Op */}
+				ps.executeBatch();
+				total += cnt;
+			} while(cnt==LAST_SEEN_BATCH);
+			if(total>0) {
+				incr("LastSeenFlushes");
+				incr("LastSeenRows", total);
 			}
+			return total;
+		} catch (Exception ex) {
+			error("Failed to flush last seen timestamps after [" + total + "] metrics", ex);
+			return total;
+		} finally {
+			if(ps!=null) try { ps.close(); } catch (Exception e) {/* No Op */}
+			if(conn!=null) try { conn.close(); } catch (Exception e) {/* No Op */}
 		}
-		return 0;
 	}
 	
 	/**
@@ -433,6 +911,16 @@ public class H2JDBCMetricCatalog extends ServerComponentBean implements MetricCa
 		metrics.add("AssignedMetricIDs");
 		metrics.add("CallCount");		
 		metrics.add("TokenLookups");
+		metrics.add("TokenCacheHits");
+		metrics.add("IDCacheHits");
+		metrics.add("WriteBehindMetrics");
+		metrics.add("WriteBehindBatches");
+		metrics.add("WriteBehindConflicts");
+		metrics.add("WriteBehindRowFailures");
+		metrics.add("WriteBehindRetries");
+		metrics.add("WriteBehindFailures");
+		metrics.add("LastSeenFlushes");
+		metrics.add("LastSeenRows");
 		return metrics;
 	}
 	
@@ -465,6 +953,249 @@ public class H2JDBCMetricCatalog extends ServerComponentBean implements MetricCa
 	}	
 	
 
+	/**
+	 * Returns the number of token lookups served from the ID cache
+	 * @return the number of token lookups served from the ID cache
+	 */
+	@ManagedMetric(category="MetricCatalogService", metricType=org.springframework.jmx.support.MetricType.COUNTER, description="The number of token lookups served from the ID cache")
+	public long getTokenCacheHits() {
+		return getMetricValue("TokenCacheHits");
+	}
+	
+	/**
+	 * Returns the number of metric name lookups served from the ID cache
+	 * @return the number of metric name lookups served from the ID cache
+	 */
+	@ManagedMetric(category="MetricCatalogService", metricType=org.springframework.jmx.support.MetricType.COUNTER, description="The number of metric name lookups served from the ID cache")
+	public long getIDCacheHits() {
+		return getMetricValue("IDCacheHits");
+	}
+	
+	/**
+	 * Returns the number of ID cache evictions
+	 * @return the number of ID cache evictions
+	 */
+	@ManagedMetric(category="MetricCatalogService", metricType=org.springframework.jmx.support.MetricType.COUNTER, description="The number of ID cache evictions")
+	public long getIDCacheEvictions() {
+		return idCache.getNames().getEvictions() + idCache.getTokens().getEvictions();
+	}
+	
+	/**
+	 * Returns the number of metric names in the ID cache
+	 * @return the number of metric names in the ID cache
+	 */
+	@ManagedMetric(category="MetricCatalogService", metricType=org.springframework.jmx.support.MetricType.GAUGE, description="The number of metric names in the ID cache")
+	public int getIDCacheSize() {
+		return idCache.getNames().size();
+	}
+	
+	/**
+	 * Indicates if the ID cache holds every catalog metric name, so a miss does not need to query the catalog
+	 * @return true if the ID cache is authoritative
+	 */
+	@ManagedAttribute(description="Indicates if the ID cache holds every catalog metric name")
+	public boolean isIDCacheAuthoritative() {
+		return idCache.isAuthoritative();
+	}
+	
+	/**
+	 * Returns the number of metrics prefetched into the ID cache on start
+	 * @return the number of metrics prefetched into the ID cache on start
+	 */
+	@ManagedAttribute(description="The number of metrics prefetched into the ID cache on start")
+	public int getPrefetched() {
+		return prefetched;
+	}
+	
+	/**
+	 * Returns the number of new metrics written behind
+	 * @return the number of new metrics written behind
+	 */
+	@ManagedMetric(category="MetricCatalogService", metricType=org.springframework.jmx.support.MetricType.COUNTER, description="The number of new metrics written behind")
+	public long getWriteBehindMetrics() {
+		return getMetricValue("WriteBehindMetrics");
+	}
+	
+	/**
+	 * Returns the number of write-behind multi-row inserts
+	 * @return the number of write-behind multi-row inserts
+	 */
+	@ManagedMetric(category="MetricCatalogService", metricType=org.springframework.jmx.support.MetricType.COUNTER, description="The number of write-behind multi-row inserts")
+	public long getWriteBehindBatches() {
+		return getMetricValue("WriteBehindBatches");
+	}
+	
+	/**
+	 * Returns the number of written-behind metrics found to already exist under a different ID
+	 * @return the number of write-behind ID conflicts
+	 */
+	@ManagedMetric(category="MetricCatalogService", metricType=org.springframework.jmx.support.MetricType.COUNTER, description="The number of written-behind metrics found to already exist under a different ID")
+	public long getWriteBehindConflicts() {
+		return getMetricValue("WriteBehindConflicts");
+	}
+	
+	/**
+	 * Returns the number of single row write-behind inserts that failed
+	 * @return the number of failed single row write-behind inserts
+	 */
+	@ManagedMetric(category="MetricCatalogService", metricType=org.springframework.jmx.support.MetricType.COUNTER, description="The number of single row write-behind inserts that failed")
+	public long getWriteBehindRowFailures() {
+		return getMetricValue("WriteBehindRowFailures");
+	}
+	
+	/**
+	 * Returns the number of new metrics re-queued after their catalog row could not be written
+	 * @return the number of write-behind retries
+	 */
+	@ManagedMetric(category="MetricCatalogService", metricType=org.springframework.jmx.support.MetricType.COUNTER, description="The number of new metrics re-queued after their catalog row could not be written")
+	public long getWriteBehindRetries() {
+		return getMetricValue("WriteBehindRetries");
+	}
+	
+	/**
+	 * Returns the number of new metrics deferred to the write retry after their catalog row could not be written behind
+	 * @return the number of write-behind failures
+	 */
+	@ManagedMetric(category="MetricCatalogService", metricType=org.springframework.jmx.support.MetricType.COUNTER, description="The number of new metrics deferred to the write retry after their catalog row could not be written behind")
+	public long getWriteBehindFailures() {
+		return getMetricValue("WriteBehindFailures");
+	}
+	
+	/**
+	 * Returns the number of new metrics waiting for the write retry
+	 * @return the number of new metrics without a catalog row
+	 */
+	@ManagedMetric(category="MetricCatalogService", metricType=org.springframework.jmx.support.MetricType.GAUGE, description="The number of new metrics waiting for the write retry")
+	public int getUnwrittenMetrics() {
+		return unwritten.size();
+	}
+	
+	/**
+	 * Returns the number of new metrics waiting to be written behind
+	 * @return the write-behind queue depth
+	 */
+	@ManagedMetric(category="MetricCatalogService", metricType=org.springframework.jmx.support.MetricType.GAUGE, description="The number of new metrics waiting to be written behind")
+	public int getWriteBehindQueueDepth() {
+		TimeSizeFlushQueue<MetricIDCache.Entry> queue = writeBehindQueue;
+		return queue==null ? 0 : queue.getQueueSize();
+	}
+	
+	/**
+	 * Indicates if new metric catalog rows are written behind
+	 * @return true if new metric catalog rows are written behind
+	 */
+	@ManagedAttribute(description="Indicates if new metric catalog rows are written behind")
+	public boolean isWriteBehind() {
+		return writeBehind;
+	}
+	
+	/**
+	 * Sets if new metric catalog rows are written behind. Takes effect on the next start.
+	 * @param writeBehind true to write new metric catalog rows behind
+	 */
+	public void setWriteBehind(boolean writeBehind) {
+		this.writeBehind = writeBehind;
+	}
+	
+	/**
+	 * Returns the write-behind batch size
+	 * @return the write-behind batch size
+	 */
+	@ManagedAttribute(description="The write-behind batch size")
+	public int getWriteBehindSize() {
+		return writeBehindSize;
+	}
+	
+	/**
+	 * Sets the write-behind batch size. Takes effect on the next start.
+	 * @param writeBehindSize the write-behind batch size
+	 */
+	public void setWriteBehindSize(int writeBehindSize) {
+		if(writeBehindSize<1) throw new IllegalArgumentException("Invalid write-behind size [" + writeBehindSize + "]", new Throwable());
+		this.writeBehindSize = writeBehindSize;
+	}
+	
+	/**
+	 * Returns the write-behind flush period in ms.
+	 * @return the write-behind flush period in ms.
+	 */
+	@ManagedAttribute(description="The write-behind flush period in ms.")
+	public long getWriteBehindPeriod() {
+		return writeBehindPeriod;
+	}
+	
+	/**
+	 * Sets the write-behind flush period in ms. Takes effect on the next start.
+	 * @param writeBehindPeriod the write-behind flush period in ms.
+	 */
+	public void setWriteBehindPeriod(long writeBehindPeriod) {
+		if(writeBehindPeriod<1) throw new IllegalArgumentException("Invalid write-behind period [" + writeBehindPeriod + "]", new Throwable());
+		this.writeBehindPeriod = writeBehindPeriod;
+	}
+	
+	/**
+	 * Returns the number of last seen flushes that updated the catalog
+	 * @return the number of last seen flushes
+	 */
+	@ManagedMetric(category="MetricCatalogService", metricType=org.springframework.jmx.support.MetricType.COUNTER, description="The number of last seen flushes that updated the catalog")
+	public long getLastSeenFlushes() {
+		return getMetricValue("LastSeenFlushes");
+	}
+	
+	/**
+	 * Returns the number of metric rows updated by last seen flushes
+	 * @return the number of metric rows updated by last seen flushes
+	 */
+	@ManagedMetric(category="MetricCatalogService", metricType=org.springframework.jmx.support.MetricType.COUNTER, description="The number of metric rows updated by last seen flushes")
+	public long getLastSeenRows() {
+		return getMetricValue("LastSeenRows");
+	}
+	
+	/**
+	 * Returns the number of last seen timestamp updates recorded
+	 * @return the number of last seen timestamp updates recorded
+	 */
+	@ManagedMetric(category="MetricCatalogService", metricType=org.springframework.jmx.support.MetricType.COUNTER, description="The number of last seen timestamp updates recorded")
+	public long getLastSeenTouches() {
+		return lastSeenTable.getTouches();
+	}
+	
+	/**
+	 * Returns the period in ms. of the retry of new metrics whose catalog rows could not be written behind
+	 * @return the write retry period in ms.
+	 */
+	@ManagedAttribute(description="The period in ms. of the retry of new metrics whose catalog rows could not be written behind")
+	public long getWriteRetryPeriod() {
+		return writeRetryPeriod;
+	}
+	
+	/**
+	 * Sets the period in ms. of the retry of new metrics whose catalog rows could not be written behind. Takes effect on the next start.
+	 * @param writeRetryPeriod the write retry period in ms.
+	 */
+	public void setWriteRetryPeriod(long writeRetryPeriod) {
+		if(writeRetryPeriod<1) throw new IllegalArgumentException("Invalid write retry period [" + writeRetryPeriod + "]", new Throwable());
+		this.writeRetryPeriod = writeRetryPeriod;
+	}
+	
+	/**
+	 * Returns the last seen flush period in ms.
+	 * @return the last seen flush period in ms.
+	 */
+	@ManagedAttribute(description="The last seen flush period in ms.")
+	public long getLastSeenFlushPeriod() {
+		return lastSeenFlushPeriod;
+	}
+	
+	/**
+	 * Sets the last seen flush period in ms. Takes effect on the next start.
+	 * @param lastSeenFlushPeriod the last seen flush period in ms.
+	 */
+	public void setLastSeenFlushPeriod(long lastSeenFlushPeriod) {
+		if(lastSeenFlushPeriod<1) throw new IllegalArgumentException("Invalid last seen flush period [" + lastSeenFlushPeriod + "]", new Throwable());
+		this.lastSeenFlushPeriod = lastSeenFlushPeriod;
+	}
+	
 	/**
 	 * Returns the cumulative number of catalog calls
 	 * @return the cumulative number of catalog calls
@@ -192,8 +192,7 @@ public class H2StoredProcedure {
 		} else {
 			_domain = domainx;
 		}
-		int hostId = ((Number)key(conn, "SELECT HOST_ID FROM HOST WHERE NAME=? AND DOMAIN=?", new Object[]{_host, _domain}, "INSERT INTO HOST (NAME, DOMAIN, FIRST_CONNECTED, LAST_CONNECTED) VALUES (?,?,CURRENT_TIMESTAMP,CURRENT_TIMESTAMP)", ARR_ONE, _host, _domain)[0]).intValue();
-		Object[] nums = key(conn, "SELECT AGENT_ID,MIN_LEVEL FROM AGENT WHERE NAME=? AND HOST_ID=?", new Object[]{agent, hostId}, "INSERT INTO AGENT (HOST_ID, NAME, MIN_LEVEL, FIRST_CONNECTED, LAST_CONNECTED) VALUES (?,?,?,CURRENT_TIMESTAMP,CURRENT_TIMESTAMP)", ARR_ONE_TWO, hostId, agent, nsLevel(namespace));
+		Object[] nums = agentKey(conn, _domain, _host, agent, nsLevel(namespace));
 		int agentId = ((Number)nums[0]).intValue();
 		int agentMinLevel = ((Number)nums[1]).intValue();
 		int nsLevel = nsLevel(namespace);
@@ -206,6 +205,21 @@ public class H2StoredProcedure {
 		return metricId;
 	}
 	
+	/**
+	 * Returns the agent ID and minimum namespace level of an agent, creating the host and agent if they do not exist
+	 * @param conn The h2 provided connection
+	 * @param domain The host domain
+	 * @param host The unqualified host name
+	 * @param agent The agent name
+	 * @param nsLevel The namespace level to initialize a new agent's minimum level with
+	 * @return an array containing the agent ID and the agent's minimum level
+	 * @throws SQLException thrown on any error
+	 */
+	public static Object[] agentKey(Connection conn, String domain, String host, String agent, int nsLevel) throws SQLException {
+		int hostId = ((Number)key(conn, "SELECT HOST_ID FROM HOST WHERE NAME=? AND DOMAIN=?", new Object[]{host, domain}, "INSERT INTO HOST (NAME, DOMAIN, FIRST_CONNECTED, LAST_CONNECTED) VALUES (?,?,CURRENT_TIMESTAMP,CURRENT_TIMESTAMP)", ARR_ONE, host, domain)[0]).intValue();
+		return key(conn, "SELECT AGENT_ID,MIN_LEVEL FROM AGENT WHERE NAME=? AND HOST_ID=?", new Object[]{agent, hostId}, "INSERT INTO AGENT (HOST_ID, NAME, MIN_LEVEL, FIRST_CONNECTED, LAST_CONNECTED) VALUES (?,?,?,CURRENT_TIMESTAMP,CURRENT_TIMESTAMP)", ARR_ONE_TWO, hostId, agent, nsLevel);
+	}
+	
 	/**
 	 * Returns the unique identifier for a metric
 	 * @param conn The h2 provided connection
@@ -258,7 +272,7 @@ public class H2StoredProcedure {
 		
 	}
 	
-	private static void setAgentMinLevel(Connection conn, int agentId, int minLevel) throws SQLException {
+	static void setAgentMinLevel(Connection conn, int agentId, int minLevel) throws SQLException {
 		PreparedStatement ps = null;
 		try {
 			ps = conn.prepareStatement("UPDATE AGENT SET MIN_LEVEL = ? WHERE AGENT_ID = ?");
@@ -278,7 +292,7 @@ public class H2StoredProcedure {
 	 * @param namespace The namespace to get the count for
 	 * @return the number of namespace entries
 	 */
-	private static int nsLevel(String namespace) {
+	static int nsLevel(String namespace) {
 		if(namespace==null || namespace.trim().isEmpty()) return 0;
 		String[] frags = NS_DELIM.split(namespace);
 		int cnt = 0;
@@ -293,7 +307,7 @@ public class H2StoredProcedure {
 	 * @param namespace The namespace to get the entries for
 	 * @return the array of namespace entries
 	 */
-	private static String[] nsItems(String namespace) {
+	static String[] nsItems(String namespace) {
 		if(namespace==null || namespace.trim().isEmpty()) return new String[0];
 		List<String> items = new ArrayList<String>();
 		String[] frags = NS_DELIM.split(namespace);
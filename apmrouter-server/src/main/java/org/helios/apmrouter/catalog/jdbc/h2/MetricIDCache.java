@@ -0,0 +1,412 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ */
+package org.helios.apmrouter.catalog.jdbc.h2;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.helios.apmrouter.metric.ICEMetric;
+
+/**
+ * <p>Title: MetricIDCache</p>
+ * <p>Description: A bounded in-process cache of the metric catalog's identity mappings, consulted before
+ * the catalog is queried. It holds two set associative tables of primitive arrays:<ul>
+ * 	<li><b>token</b>: metric ID to the {@link Entry} describing the metric, used to resolve unknown tokens into delegate metrics</li>
+ * 	<li><b>name</b>: the long hash code of the <b><code>Domain/Host/Agent/Namespace:Name</code></b> key to the metric ID</li>
+ * </ul>
+ * Each key hashes to a bucket of {@link #WAYS} slots and a full bucket evicts by a CLOCK sweep of its reference bits.
+ * The name key is stored beside its hash code and compared on lookup so a hash code collision is a miss.</p>
+ * <p>The cache is <i>authoritative</i> for names once {@link #setComplete()} has been called after the whole catalog was loaded,
+ * and remains so until the first name eviction. While it is authoritative, a name miss means the metric is not in the catalog.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.apmrouter.catalog.jdbc.h2.MetricIDCache</code></p>
+ */
+
+public class MetricIDCache {
+	/** The number of slots in each bucket */
+	public static final int WAYS = 8;
+	/** The number of lock stripes */
+	public static final int STRIPES = 64;
+
+	/** The metric ID to metric entry table */
+	protected final Table tokens;
+	/** The metric name to metric ID table */
+	protected final Table names;
+	/** Indicates that every catalog metric was loaded into the name table */
+	protected volatile boolean complete = false;
+
+	/**
+	 * Creates a new MetricIDCache
+	 * @param capacity The maximum number of entries in each table. Rounded up to a power of 2 multiple of {@link #WAYS}.
+	 */
+	public MetricIDCache(int capacity) {
+		tokens = new Table(capacity);
+		names = new Table(capacity);
+	}
+
+	/**
+	 * Builds the name key for a metric
+	 * @param hostx The (possibly fully qualified) host name
+	 * @param agent The agent name
+	 * @param namespace The metric namespace
+	 * @param name The metric name
+	 * @return the name key
+	 */
+	public static String key(String hostx, String agent, String namespace, String name) {
+		return key(H2StoredProcedure.domain(hostx), H2StoredProcedure.noDomain(hostx), agent, namespace, name);
+	}
+
+	/**
+	 * Builds the name key for a metric
+	 * @param domain The host domain
+	 * @param host The unqualified host name
+	 * @param agent The agent name
+	 * @param namespace The metric namespace
+	 * @param name The metric name
+	 * @return the name key
+	 */
+	public static String key(String domain, String host, String agent, String namespace, String name) {
+		return new StringBuilder(domain).append('/').append(host).append('/').append(agent).append(namespace).append(':').append(name).toString();
+	}
+
+	/**
+	 * Returns the cached entry for the passed metric ID
+	 * @param metricId The metric ID
+	 * @return the cached entry or null if it is not cached
+	 */
+	public Entry getEntry(long metricId) {
+		return (Entry)tokens.get(metricId, null);
+	}
+
+	/**
+	 * Returns the cached metric ID for the passed name key
+	 * @param key The name key built by {@link #key(String, String, String, String)}
+	 * @return the metric ID or -1 if it is not cached
+	 */
+	public long getId(String key) {
+		Entry entry = (Entry)names.get(ICEMetric.longHashCode(key), key);
+		return entry==null ? -1L : entry.metricId;
+	}
+
+	/**
+	 * Caches a metric in the name table, and in the token table if the entry's metric type is known
+	 * @param key The name key built by {@link #key(String, String, String, String)}
+	 * @param entry The metric entry
+	 */
+	public void put(String key, Entry entry) {
+		if(entry.typeId>=0) tokens.put(entry.metricId, null, entry);
+		names.put(ICEMetric.longHashCode(key), key, entry);
+	}
+
+	/**
+	 * Removes a metric from the name and token tables if it is still cached as the passed entry
+	 * @param key The name key built by {@link #key(String, String, String, String)}
+	 * @param entry The metric entry to remove
+	 * @return true if the entry was removed from the name table
+	 */
+	public boolean remove(String key, Entry entry) {
+		tokens.remove(entry.metricId, null, entry);
+		return names.remove(ICEMetric.longHashCode(key), key, entry);
+	}
+
+	/**
+	 * Marks the name table as holding every catalog metric
+	 */
+	public void setComplete() {
+		complete = names.getEvictions()==0;
+	}
+
+	/**
+	 * Indicates if a name miss means the metric is not in the catalog
+	 * @return true if the name table holds every catalog metric
+	 */
+	public boolean isAuthoritative() {
+		return complete && names.getEvictions()==0;
+	}
+
+	/**
+	 * Returns the maximum number of entries in each table
+	 * @return the maximum number of entries in each table
+	 */
+	public int getCapacity() {
+		return names.keys.length;
+	}
+
+	/**
+	 * Returns the token table
+	 * @return the token table
+	 */
+	public Table getTokens() {
+		return tokens;
+	}
+
+	/**
+	 * Returns the name table
+	 * @return the name table
+	 */
+	public Table getNames() {
+		return names;
+	}
+
+	/**
+	 * <p>Title: Entry</p>
+	 * <p>Description: The catalog identity of a metric</p>
+	 * <p>Company: Helios Development Group LLC</p>
+	 * @author Whitehead (nwhitehead AT heliosdev DOT org)
+	 * <p><code>org.helios.apmrouter.catalog.jdbc.h2.MetricIDCache.Entry</code></p>
+	 */
+	public static class Entry {
+		/** The metric ID */
+		public final long metricId;
+		/** The host domain */
+		public final String domain;
+		/** The host name as stored in the catalog */
+		public final String host;
+		/** The agent name */
+		public final String agent;
+		/** The metric type ordinal, or -1 if it is not known */
+		public final int typeId;
+		/** The metric namespace */
+		public final String namespace;
+		/** The metric name */
+		public final String name;
+		/** The number of failed attempts to write this metric's catalog row. Only updated by the write-behind flush. */
+		protected volatile int writeAttempts = 0;
+
+		/**
+		 * Creates a new Entry
+		 * @param metricId The metric ID
+		 * @param domain The host domain
+		 * @param host The host name as stored in the catalog
+		 * @param agent The agent name
+		 * @param typeId The metric type ordinal, or -1 if it is not known
+		 * @param namespace The metric namespace
+		 * @param name The metric name
+		 */
+		public Entry(long metricId, String domain, String host, String agent, int typeId, String namespace, String name) {
+			this.metricId = metricId;
+			this.domain = domain;
+			this.host = host;
+			this.agent = agent;
+			this.typeId = typeId;
+			this.namespace = namespace;
+			this.name = name;
+		}
+	}
+
+	/**
+	 * <p>Title: Table</p>
+	 * <p>Description: A set associative table of long keys with optional collision check values</p>
+	 * <p>Company: Helios Development Group LLC</p>
+	 * @author Whitehead (nwhitehead AT heliosdev DOT org)
+	 * <p><code>org.helios.apmrouter.catalog.jdbc.h2.MetricIDCache.Table</code></p>
+	 */
+	public static class Table {
+		/** Slot state for an empty slot */
+		protected static final byte EMPTY = 0;
+		/** Slot state for an occupied slot */
+		protected static final byte USED = 1;
+		/** The reference bit set when a slot is read, cleared by the CLOCK sweep */
+		protected static final byte REF = 2;
+
+		/** The slot keys */
+		protected final long[] keys;
+		/** The slot collision check values, null if the key is exact */
+		protected final String[] checks;
+		/** The slot values */
+		protected final Object[] values;
+		/** The state and reference bit of each slot */
+		protected final byte[] states;
+		/** The CLOCK hand for each bucket */
+		protected final byte[] hands;
+		/** The bucket index mask */
+		protected final int bucketMask;
+		/** The lock stripes */
+		protected final Object[] locks = new Object[STRIPES];
+
+		/** The number of lookups that found a cached entry */
+		protected final AtomicLong hits = new AtomicLong(0L);
+		/** The number of lookups that found no cached entry */
+		protected final AtomicLong misses = new AtomicLong(0L);
+		/** The number of entries evicted to make room */
+		protected final AtomicLong evictions = new AtomicLong(0L);
+
+		/**
+		 * Creates a new Table
+		 * @param capacity The maximum number of entries. Rounded up to a power of 2 multiple of {@link #WAYS}.
+		 */
+		protected Table(int capacity) {
+			int buckets = 1;
+			while(buckets * WAYS < capacity) buckets <<= 1;
+			bucketMask = buckets-1;
+			keys = new long[buckets * WAYS];
+			checks = new String[buckets * WAYS];
+			values = new Object[buckets * WAYS];
+			states = new byte[buckets * WAYS];
+			hands = new byte[buckets];
+			for(int i = 0; i < STRIPES; i++) {
+				locks[i] = new Object();
+			}
+		}
+
+		/**
+		 * Returns the bucket index for the passed key
+		 * @param key The key
+		 * @return the bucket index
+		 */
+		protected int bucket(long key) {
+			int h = (int)(key ^ (key >>> 32));
+			h ^= (h >>> 16);
+			return h & bucketMask;
+		}
+
+		/**
+		 * Looks up a cached value
+		 * @param key The key
+		 * @param check The collision check value or null if the key is exact
+		 * @return the cached value or null
+		 */
+		protected Object get(long key, String check) {
+			final int bucket = bucket(key);
+			final int base = bucket * WAYS;
+			synchronized(locks[bucket & (STRIPES-1)]) {
+				for(int i = base; i < base + WAYS; i++) {
+					byte state = states[i];
+					if(state==EMPTY) break;
+					if(keys[i]==key && (check==null || check.equals(checks[i]))) {
+						states[i] = (byte)(state | REF);
+						hits.incrementAndGet();
+						return values[i];
+					}
+				}
+			}
+			misses.incrementAndGet();
+			return null;
+		}
+
+		/**
+		 * Caches a value, evicting another value in the same bucket if the bucket is full
+		 * @param key The key
+		 * @param check The collision check value or null if the key is exact
+		 * @param value The value
+		 */
+		protected void put(long key, String check, Object value) {
+			final int bucket = bucket(key);
+			final int base = bucket * WAYS;
+			synchronized(locks[bucket & (STRIPES-1)]) {
+				for(int i = base; i < base + WAYS; i++) {
+					if(states[i]==EMPTY || (keys[i]==key && (check==null || check.equals(checks[i])))) {
+						keys[i] = key;
+						checks[i] = check;
+						values[i] = value;
+						states[i] = USED;
+						return;
+					}
+				}
+				int hand = hands[bucket];
+				while((states[base + hand] & REF)!=0) {
+					states[base + hand] &= ~REF;
+					hand = (hand + 1) & (WAYS-1);
+				}
+				keys[base + hand] = key;
+				checks[base + hand] = check;
+				values[base + hand] = value;
+				states[base + hand] = USED;
+				hands[bucket] = (byte)((hand + 1) & (WAYS-1));
+				evictions.incrementAndGet();
+			}
+		}
+
+		/**
+		 * Removes the passed value if it is cached under the passed key. The bucket's used slots are kept 
+		 * contiguous so lookups can still stop at the first empty slot.
+		 * @param key The key
+		 * @param check The collision check value or null if the key is exact
+		 * @param value The value to remove
+		 * @return true if the value was removed
+		 */
+		protected boolean remove(long key, String check, Object value) {
+			final int bucket = bucket(key);
+			final int base = bucket * WAYS;
+			synchronized(locks[bucket & (STRIPES-1)]) {
+				for(int i = base; i < base + WAYS; i++) {
+					if(states[i]==EMPTY) return false;
+					if(keys[i]==key && values[i]==value && (check==null || check.equals(checks[i]))) {
+						int last = i;
+						while(last+1 < base + WAYS && states[last+1]!=EMPTY) last++;
+						for(int j = i; j < last; j++) {
+							keys[j] = keys[j+1];
+							checks[j] = checks[j+1];
+							values[j] = values[j+1];
+							states[j] = states[j+1];
+						}
+						keys[last] = 0L;
+						checks[last] = null;
+						values[last] = null;
+						states[last] = EMPTY;
+						return true;
+					}
+				}
+			}
+			return false;
+		}
+
+		/**
+		 * Returns the number of cached entries. This is a racy count intended for monitoring.
+		 * @return the number of cached entries
+		 */
+		public int size() {
+			int cnt = 0;
+			for(int i = 0; i < states.length; i++) {
+				if(states[i]!=EMPTY) cnt++;
+			}
+			return cnt;
+		}
+
+		/**
+		 * Returns the number of lookups that found a cached entry
+		 * @return the number of lookups that found a cached entry
+		 */
+		public long getHits() {
+			return hits.get();
+		}
+
+		/**
+		 * Returns the number of lookups that found no cached entry
+		 * @return the number of lookups that found no cached entry
+		 */
+		public long getMisses() {
+			return misses.get();
+		}
+
+		/**
+		 * Returns the number of entries evicted to make room
+		 * @return the number of entries evicted to make room
+		 */
+		public long getEvictions() {
+			return evictions.get();
+		}
+	}
+}
@@ -120,10 +120,10 @@ public class MetricTrigger extends AsynchAbstractTrigger implements MetricTrigge
 	/**
 	 * Retrieves the agent prefix for the passed agentId
 	 * @param agentId The agentId
-	 * @param dataSource The datasource in case the cache misses and the prefix needs to bbe looked up
+	 * @param dataSource The datasource in case the cache misses and the prefix needs to be looked up
 	 * @return the agent prefix
 	 */
-	public String getAgentPrefix(int agentId, DataSource dataSource) {
+	public static String getAgentPrefix(int agentId, DataSource dataSource) {
 		String prefix = metricFqnPrefixCache.get(agentId);
 		if(prefix==null) {
 			synchronized(metricFqnPrefixCache) {
@@ -135,7 +135,7 @@ public class MetricTrigger extends AsynchAbstractTrigger implements MetricTrigge
 					try {
 						conn = dataSource.getConnection();
 						ps = conn.prepareStatement(CACHE_MISS_SQL);
-						ps.setInt(agentId, 1);
+						ps.setInt(1, agentId);
 						rset = ps.executeQuery();
 						if(rset.next()) {
 							prefix = rset.getString(1);
@@ -207,10 +207,10 @@ public class MetricTrigger extends AsynchAbstractTrigger implements MetricTrigge
 			if(INCR_ID==typeId || INT_INCR_ID==typeId) {
 				addIncr(dataSource, (Long)newRow[0], typeId);
 			}			
-			NewElementTriggers.newMetricQueue.offer(newRow);
+			NewElementTriggers.newMetricQueue.offer((Long)newRow[METRIC_COLUMN_ID], newRow);
 		} else if(TriggerOp.UPDATE.isEnabled(type)) {
 			if(oldRow!=null && newRow[STATE_COLUMN_ID] != oldRow[STATE_COLUMN_ID]) {
-				NewElementTriggers.metricStateChangeQueue.offer(newRow);
+				NewElementTriggers.metricStateChangeQueue.offer((Long)newRow[METRIC_COLUMN_ID], newRow);
 			}
 		}
 		callCount.incrementAndGet();
@@ -30,6 +30,7 @@ import java.util.concurrent.atomic.AtomicLong;
 
 import javax.management.Notification;
 
+import org.helios.apmrouter.catalog.jdbc.h2.ShardedEventQueue.OverflowPolicy;
 import org.helios.apmrouter.jmx.ThreadPoolFactory;
 
 
@@ -49,12 +50,15 @@ public class NewElementTriggers {
 	/** A queue to write updates into */
 	public static final BlockingQueue<Notification> notificationQueue = new ArrayBlockingQueue<Notification>(10000, true);
 
-	/** A queue to write metric state change events into */
-	public static final BlockingQueue<Object[]> metricStateChangeQueue = new ArrayBlockingQueue<Object[]>(10000, true);
-	/** A queue to write new metric events into */
-	public static final BlockingQueue<Object[]> newMetricQueue = new ArrayBlockingQueue<Object[]>(10000, true);
-	/** A queue to write real time data events into */
-	public static final BlockingQueue<Object[]> realTimeDataQueue = new ArrayBlockingQueue<Object[]>(10000, false);
+	/** The default total capacity of each event queue */
+	public static final int DEFAULT_EVENT_QUEUE_CAPACITY = 16384;
+
+	/** A queue to write metric state change events into, keyed by metric id. Only the latest state of a metric is kept on overflow. */
+	public static final ShardedEventQueue metricStateChangeQueue = ShardedEventQueue.configure("metricStateChange", DEFAULT_EVENT_QUEUE_CAPACITY, OverflowPolicy.COALESCE);
+	/** A queue to write new metric events into, keyed by metric id */
+	public static final ShardedEventQueue newMetricQueue = ShardedEventQueue.configure("newMetric", DEFAULT_EVENT_QUEUE_CAPACITY, OverflowPolicy.DROP_NEWEST);
+	/** A queue to write real time data events into, keyed by metric token. Only the latest value of a metric is kept on overflow. */
+	public static final ShardedEventQueue realTimeDataQueue = ShardedEventQueue.configure("realTimeData", DEFAULT_EVENT_QUEUE_CAPACITY, OverflowPolicy.COALESCE);
 
 	
 
@@ -0,0 +1,508 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.apmrouter.catalog.jdbc.h2;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+import org.cliffc.high_scale_lib.Counter;
+import org.cliffc.high_scale_lib.NonBlockingHashMapLong;
+import org.helios.apmrouter.jmx.ConfigurationHelper;
+
+/**
+ * <p>Title: ShardedEventQueue</p>
+ * <p>Description: A bounded event queue made of multi-producer ring buffers, one per shard. Events are assigned to a shard
+ * by their metric id, so all events for one metric are taken in the order they were offered as long as each shard has one consumer.
+ * {@link #offer(long, Object[])} never blocks and never throws. When a shard is full, the queue's {@link OverflowPolicy} decides which event is lost.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.apmrouter.catalog.jdbc.h2.ShardedEventQueue</code></p>
+ */
+
+public class ShardedEventQueue {
+	/** The queue name */
+	protected final String name;
+	/** The shards */
+	protected final Shard[] shards;
+	/** The mask applied to a hashed metric id to get its shard */
+	protected final int shardMask;
+	/** The overflow policy */
+	protected final OverflowPolicy policy;
+	/** The number of events dropped */
+	protected final Counter drops = new Counter();
+	/** The number of events replaced by a later event for the same metric */
+	protected final Counter coalesced = new Counter();
+	
+	/** The system property name prefix for queue configuration. The queue name and <b><code>.capacity</code></b>, <b><code>.shards</code></b> or <b><code>.overflow</code></b> are appended */
+	public static final String CONFIG_PREFIX = "org.helios.apmrouter.triggers.";
+	/** The default number of shards */
+	public static final int DEFAULT_SHARDS = 4;
+	/** The maximum time in ns an idle consumer parks before re-checking its shards */
+	protected static final long IDLE_PARK_NS = 100000000L;
+	
+	/**
+	 * <p>Title: OverflowPolicy</p>
+	 * <p>Description: Enumerates what a {@link ShardedEventQueue} does with an event offered to a full shard</p> 
+	 * <p>Company: Helios Development Group LLC</p>
+	 * @author Whitehead (nwhitehead AT heliosdev DOT org)
+	 * <p><code>org.helios.apmrouter.catalog.jdbc.h2.ShardedEventQueue.OverflowPolicy</code></p>
+	 */
+	public static enum OverflowPolicy {
+		/** The oldest event in the shard is dropped to make room */
+		DROP_OLDEST,
+		/** The offered event is dropped */
+		DROP_NEWEST,
+		/** The offered event is held aside and replaced by any later event for the same metric until the consumer releases it */
+		COALESCE;
+		
+		/**
+		 * Decodes the passed name to an OverflowPolicy, ignoring case
+		 * @param name The name to decode
+		 * @param defaultPolicy The policy to return if the name cannot be decoded
+		 * @return the decoded OverflowPolicy
+		 */
+		public static OverflowPolicy forName(String name, OverflowPolicy defaultPolicy) {
+			if(name==null || name.trim().isEmpty()) return defaultPolicy;
+			try {
+				return valueOf(name.trim().toUpperCase());
+			} catch (Exception ex) {
+				return defaultPolicy;
+			}
+		}
+	}
+	
+	/**
+	 * Creates a new ShardedEventQueue configured from system or environment properties named <b><code>org.helios.apmrouter.triggers.&lt;name&gt;.capacity</code></b>,
+	 * <b><code>.shards</code></b> and <b><code>.overflow</code></b>.
+	 * @param name The queue name
+	 * @param defaultCapacity The default total capacity
+	 * @param defaultPolicy The default overflow policy
+	 * @return the new queue
+	 */
+	public static ShardedEventQueue configure(String name, int defaultCapacity, OverflowPolicy defaultPolicy) {
+		String prefix = CONFIG_PREFIX + name;
+		return new ShardedEventQueue(name,
+				ConfigurationHelper.getIntSystemThenEnvProperty(prefix + ".shards", DEFAULT_SHARDS),
+				ConfigurationHelper.getIntSystemThenEnvProperty(prefix + ".capacity", defaultCapacity),
+				OverflowPolicy.forName(ConfigurationHelper.getSystemThenEnvProperty(prefix + ".overflow", null), defaultPolicy)
+		);
+	}
+	
+	/**
+	 * Creates a new ShardedEventQueue
+	 * @param name The queue name
+	 * @param shardCount The number of shards, rounded up to the next power of two
+	 * @param capacity The total capacity, split evenly across the shards. Each shard's capacity is rounded up to the next power of two.
+	 * @param policy The overflow policy
+	 */
+	public ShardedEventQueue(String name, int shardCount, int capacity, OverflowPolicy policy) {
+		if(name==null) throw new IllegalArgumentException("The passed name was null", new Throwable());
+		if(policy==null) throw new IllegalArgumentException("The passed overflow policy was null", new Throwable());
+		if(shardCount<1) throw new IllegalArgumentException("Invalid shard count [" + shardCount + "]", new Throwable());
+		if(capacity<shardCount) throw new IllegalArgumentException("Invalid capacity [" + capacity + "] for [" + shardCount + "] shards", new Throwable());
+		this.name = name;
+		this.policy = policy;
+		int count = 1;
+		while(count < shardCount) count <<= 1;
+		shardMask = count-1;
+		shards = new Shard[count];
+		int shardCapacity = Math.max(2, capacity/count);
+		for(int i = 0; i < count; i++) {
+			shards[i] = new Shard(shardCapacity);
+		}
+	}
+	
+	/**
+	 * Offers an event to the shard for the passed metric id. Never blocks and never throws.
+	 * @param metricId The metric id the event is for
+	 * @param event The event
+	 * @return true if the event was queued or coalesced, false if it was dropped
+	 */
+	public boolean offer(long metricId, Object[] event) {
+		if(event==null) return false;
+		Shard shard = shards[shardFor(metricId)];
+		boolean queued = shard.enqueue(metricId, event);
+		if(queued) shard.signal();
+		return queued;
+	}
+	
+	/**
+	 * Returns the shard index for the passed metric id
+	 * @param metricId The metric id
+	 * @return the shard index
+	 */
+	protected int shardFor(long metricId) {
+		long h = metricId * 0x9E3779B97F4A7C15L;
+		return (int)(h ^ (h >>> 32)) & shardMask;
+	}
+	
+	/**
+	 * Creates a consumer pinned to the shards whose index modulo <b><code>consumerCount</code></b> is <b><code>consumerIndex</code></b>.
+	 * Each shard should be drained by exactly one consumer for per-metric order to hold.
+	 * @param consumerIndex The zero based index of the consumer
+	 * @param consumerCount The total number of consumers, at most {@link #getShardCount()}
+	 * @return the consumer
+	 */
+	public ShardConsumer consumer(int consumerIndex, int consumerCount) {
+		if(consumerCount<1 || consumerCount>shards.length) throw new IllegalArgumentException("Invalid consumer count [" + consumerCount + "] for [" + shards.length + "] shards", new Throwable());
+		if(consumerIndex<0 || consumerIndex>=consumerCount) throw new IllegalArgumentException("Invalid consumer index [" + consumerIndex + "] for [" + consumerCount + "] consumers", new Throwable());
+		int count = 0;
+		for(int i = consumerIndex; i < shards.length; i += consumerCount) count++;
+		Shard[] pinned = new Shard[count];
+		for(int i = consumerIndex, p = 0; i < shards.length; i += consumerCount, p++) pinned[p] = shards[i];
+		return new ShardConsumer(pinned);
+	}
+	
+	/**
+	 * Returns the number of queued events, including events held for coalescing
+	 * @return the number of queued events
+	 */
+	public int size() {
+		long size = 0;
+		for(Shard shard: shards) size += shard.size();
+		return (int)Math.min(Integer.MAX_VALUE, size);
+	}
+	
+	/**
+	 * Returns the number of queued events in the most backed up shard
+	 * @return the depth of the deepest shard
+	 */
+	public int getLag() {
+		long lag = 0;
+		for(Shard shard: shards) lag = Math.max(lag, shard.size());
+		return (int)Math.min(Integer.MAX_VALUE, lag);
+	}
+	
+	/**
+	 * Returns the total number of dropped events
+	 * @return the total number of dropped events
+	 */
+	public long getDrops() {
+		return drops.get();
+	}
+	
+	/**
+	 * Returns the total number of events replaced by a later event for the same metric
+	 * @return the total number of coalesced events
+	 */
+	public long getCoalesced() {
+		return coalesced.get();
+	}
+	
+	/**
+	 * Returns the number of shards
+	 * @return the number of shards
+	 */
+	public int getShardCount() {
+		return shards.length;
+	}
+	
+	/**
+	 * Returns the total ring capacity
+	 * @return the total ring capacity
+	 */
+	public int getCapacity() {
+		return shards.length * shards[0].capacity;
+	}
+	
+	/**
+	 * Returns the overflow policy
+	 * @return the overflow policy
+	 */
+	public OverflowPolicy getPolicy() {
+		return policy;
+	}
+	
+	/**
+	 * Returns the queue name
+	 * @return the queue name
+	 */
+	public String getName() {
+		return name;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "ShardedEventQueue [" + name + ", shards:" + shards.length + ", capacity:" + getCapacity() + ", policy:" + policy + ", size:" + size() + "]";
+	}
+	
+	/**
+	 * <p>Title: ShardConsumer</p>
+	 * <p>Description: Takes events from a fixed set of shards on behalf of one consumer thread</p> 
+	 * <p>Company: Helios Development Group LLC</p>
+	 * @author Whitehead (nwhitehead AT heliosdev DOT org)
+	 * <p><code>org.helios.apmrouter.catalog.jdbc.h2.ShardedEventQueue.ShardConsumer</code></p>
+	 */
+	public static class ShardConsumer {
+		/** The shards this consumer drains */
+		protected final Shard[] pinned;
+		/** The index of the next shard to poll, so a busy shard does not starve the others */
+		protected int next = 0;
+		
+		/**
+		 * Creates a new ShardConsumer
+		 * @param pinned The shards this consumer drains
+		 */
+		protected ShardConsumer(Shard[] pinned) {
+			this.pinned = pinned;
+		}
+		
+		/**
+		 * Returns the next event from this consumer's shards without waiting
+		 * @return the next event or null if the shards are empty
+		 */
+		public Object[] poll() {
+			for(int i = 0; i < pinned.length; i++) {
+				Shard shard = pinned[next];
+				next = (next+1) % pinned.length;
+				Object[] event = shard.dequeue();
+				if(event!=null) return event;
+			}
+			return null;
+		}
+		
+		/**
+		 * Returns the next event from this consumer's shards, waiting for one if the shards are empty
+		 * @return the next event
+		 * @throws InterruptedException thrown if the calling thread is interrupted while waiting
+		 */
+		public Object[] take() throws InterruptedException {
+			final Thread current = Thread.currentThread();
+			while(true) {
+				Object[] event = poll();
+				if(event!=null) return event;
+				for(Shard shard: pinned) shard.waiter = current;
+				try {
+					event = poll();
+					if(event!=null) return event;
+					LockSupport.parkNanos(this, IDLE_PARK_NS);
+					if(Thread.interrupted()) throw new InterruptedException();
+				} finally {
+					for(Shard shard: pinned) shard.waiter = null;
+				}
+			}
+		}
+	}
+	
+	/**
+	 * <p>Title: Shard</p>
+	 * <p>Description: A bounded multi-producer ring buffer. Each slot carries a sequence number that tells producers and
+	 * consumers whether the slot is free for the current lap, so slots are claimed with a single CAS on the head or tail.</p> 
+	 * <p>Company: Helios Development Group LLC</p>
+	 * @author Whitehead (nwhitehead AT heliosdev DOT org)
+	 * <p><code>org.helios.apmrouter.catalog.jdbc.h2.ShardedEventQueue.Shard</code></p>
+	 */
+	protected class Shard {
+		/** The number of slots */
+		protected final int capacity;
+		/** The mask applied to a sequence to get its slot */
+		protected final int mask;
+		/** The slot events */
+		protected final AtomicReferenceArray<Object[]> slots;
+		/** The slot sequences */
+		protected final AtomicLongArray sequences;
+		/** The sequence of the next slot to write */
+		protected final AtomicLong tail = new AtomicLong(0L);
+		/** The sequence of the next slot to read */
+		protected final AtomicLong head = new AtomicLong(0L);
+		/** The events held aside while the ring was full, keyed by metric id. Only used by {@link OverflowPolicy#COALESCE} */
+		protected final NonBlockingHashMapLong<Object[]> held;
+		/** The metric id of the event in each slot. Only used by {@link OverflowPolicy#COALESCE} */
+		protected final AtomicLongArray slotMetrics;
+		/** The number of ring events per hashed metric id. Only used by {@link OverflowPolicy#COALESCE} */
+		protected final AtomicIntegerArray pending;
+		/** Indicates if the next dequeue should try a held event before the ring. Only accessed by the consumer. */
+		protected boolean heldTurn = false;
+		/** The consumer thread parked waiting on this shard */
+		protected volatile Thread waiter = null;
+		
+		/**
+		 * Creates a new Shard
+		 * @param capacity The number of slots, rounded up to the next power of two
+		 */
+		protected Shard(int capacity) {
+			int size = 1;
+			while(size < capacity) size <<= 1;
+			this.capacity = size;
+			mask = size-1;
+			slots = new AtomicReferenceArray<Object[]>(size);
+			sequences = new AtomicLongArray(size);
+			for(int i = 0; i < size; i++) sequences.set(i, i);
+			boolean coalesce = policy==OverflowPolicy.COALESCE;
+			held = coalesce ? new NonBlockingHashMapLong<Object[]>(false) : null;
+			slotMetrics = coalesce ? new AtomicLongArray(size) : null;
+			pending = coalesce ? new AtomicIntegerArray(size) : null;
+		}
+		
+		/**
+		 * Enqueues an event, applying the overflow policy if the ring is full
+		 * @param metricId The metric id the event is for
+		 * @param event The event
+		 * @return true if the event was queued or coalesced, false if it was dropped
+		 */
+		protected boolean enqueue(long metricId, Object[] event) {
+			switch(policy) {
+				case COALESCE:
+					// a held event for this metric is older than anything queued after it, so later events must replace it to keep order
+					if(held.replace(metricId, event)!=null) {
+						coalesced.increment();
+						return true;
+					}
+					if(push(metricId, event)) return true;
+					if(held.put(metricId, event)!=null) coalesced.increment();
+					return true;
+				case DROP_OLDEST:
+					while(!push(metricId, event)) {
+						if(pop()!=null) drops.increment();
+					}
+					return true;
+				default:
+					if(push(metricId, event)) return true;
+					drops.increment();
+					return false;
+			}
+		}
+		
+		/**
+		 * Dequeues the next event. While events are held, dequeues alternate between releasing a held event and popping the ring, 
+		 * so held events are not starved by a ring that never drains. A held event is only released when no ring event for the same 
+		 * metric is pending, since those were queued before it and must be taken first.
+		 * @return the next event or null if the shard is empty
+		 */
+		protected Object[] dequeue() {
+			if(held==null || held.isEmpty()) return pop();
+			heldTurn = !heldTurn;
+			Object[] event = null;
+			if(heldTurn) {
+				event = releaseHeld();
+				if(event!=null) return event;
+			}
+			event = pop();
+			if(event!=null || heldTurn) return event;
+			return releaseHeld();
+		}
+		
+		/**
+		 * Removes and returns a held event for a metric with no pending ring events
+		 * @return a held event or null if every held event still has an older ring event pending
+		 */
+		protected Object[] releaseHeld() {
+			for(Long metricId: held.keySet()) {
+				long id = metricId.longValue();
+				if(pending.get(pendingIndex(id))!=0) continue;
+				Object[] event;
+				// a failed remove means a producer replaced the held event, so retry with the replacement
+				while((event = held.get(id))!=null) {
+					if(held.remove(id, event)) return event;
+				}
+			}
+			return null;
+		}
+		
+		/**
+		 * Returns the index of the pending ring event count for the passed metric id. 
+		 * Metric ids that collide share a count, which only delays the release of their held events.
+		 * @param metricId The metric id
+		 * @return the pending count index
+		 */
+		protected int pendingIndex(long metricId) {
+			return (int)((metricId * 0x9E3779B97F4A7C15L) >>> 32) & mask;
+		}
+		
+		/**
+		 * Writes an event into the ring
+		 * @param metricId The metric id the event is for
+		 * @param event The event
+		 * @return true if the event was written, false if the ring was full
+		 */
+		protected boolean push(long metricId, Object[] event) {
+			while(true) {
+				long seq = tail.get();
+				int slot = (int)seq & mask;
+				long diff = sequences.get(slot) - seq;
+				if(diff==0) {
+					if(tail.compareAndSet(seq, seq+1)) {
+						if(pending!=null) {
+							slotMetrics.lazySet(slot, metricId);
+							pending.incrementAndGet(pendingIndex(metricId));
+						}
+						slots.lazySet(slot, event);
+						sequences.set(slot, seq+1);
+						return true;
+					}
+				} else if(diff<0) {
+					return false;
+				}
+			}
+		}
+		
+		/**
+		 * Reads the next event from the ring
+		 * @return the next event or null if the ring was empty
+		 */
+		protected Object[] pop() {
+			while(true) {
+				long seq = head.get();
+				int slot = (int)seq & mask;
+				long diff = sequences.get(slot) - (seq+1);
+				if(diff==0) {
+					if(head.compareAndSet(seq, seq+1)) {
+						Object[] event = slots.get(slot);
+						slots.lazySet(slot, null);
+						if(pending!=null) pending.decrementAndGet(pendingIndex(slotMetrics.get(slot)));
+						sequences.set(slot, seq+capacity);
+						return event;
+					}
+				} else if(diff<0) {
+					return null;
+				}
+			}
+		}
+		
+		/**
+		 * Wakes the consumer if it is parked waiting on this shard
+		 */
+		protected void signal() {
+			Thread t = waiter;
+			if(t!=null) LockSupport.unpark(t);
+		}
+		
+		/**
+		 * Returns the number of queued and held events
+		 * @return the number of queued and held events
+		 */
+		protected long size() {
+			long size = Math.max(0L, tail.get() - head.get());
+			return held==null ? size : size + held.size();
+		}
+	}
+}
@@ -61,7 +61,7 @@ public class ChronicleTSAdapter {
 	    if(cts==null) throw new SQLException("The ChronicleTSManager is not available", new Throwable());
 	    SimpleResultSet rs = newDef();
 	    Arrays.sort(ids);
-	    ChronicleTier tier = cts.getLiveTier();
+	    ChronicleTier tier = cts.getTierFor(oldestPeriod);
 	    if(ids.length==1 && ids[0]==-1) {
 	    	long tierSize = tier.getSize();
 	    	for(long id = 0; id < tierSize; id++) {
@@ -78,8 +78,10 @@ public class ChronicleTSAdapter {
 	}
 	
 	protected static void processId(ChronicleTier tier, SimpleResultSet rs, long metricId, long oldestPeriod) {		
+		// a metric has no entry in the rollup tiers until its first live period rolls
+		if(metricId >= tier.getSize()) tier = cts.getLiveTier();
     	List<long[]> valueArrays = tier.getValues(metricId);
-    	String status = tier.getEntryStatusName(metricId);
+    	String status = cts.getLiveTier().getEntryStatusName(metricId);
     	for(long[] row: valueArrays) {
     		if(row[PERIOD]<oldestPeriod) continue;
 	    	rs.addRow( 
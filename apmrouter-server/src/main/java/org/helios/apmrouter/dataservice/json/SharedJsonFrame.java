@@ -0,0 +1,119 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.apmrouter.dataservice.json;
+
+import java.nio.charset.Charset;
+import java.util.Collection;
+
+import org.helios.apmrouter.OpCode;
+import org.helios.apmrouter.dataservice.json.marshalling.netty.ChannelBufferizable;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+
+/**
+ * <p>Title: SharedJsonFrame</p>
+ * <p>Description: A {@link JsonResponse} frame whose <b><code>msg</code></b> is a JSON array of items that were marshalled once
+ * and are shared by every channel the frame is sent to. Only the small per-channel envelope is marshalled per channel, and the
+ * frame's buffer is a composite of read-only slices of the shared items, so fanning an item out to N channels neither
+ * re-marshalls nor copies it.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.apmrouter.dataservice.json.SharedJsonFrame</code></p>
+ */
+public class SharedJsonFrame implements ChannelBufferizable {
+	/** The envelope bytes up to and including the opening of the msg array */
+	protected final ChannelBuffer header;
+	/** The shared marshalled items */
+	protected final ChannelBuffer[] items;
+	/** The frame op code */
+	protected final OpCode opCode;
+	
+	/** The JSON character set */
+	public static final Charset UTF8 = Charset.forName("UTF-8");
+	/** The item delimiter */
+	protected static final ChannelBuffer COMMA = ChannelBuffers.unmodifiableBuffer(ChannelBuffers.wrappedBuffer(",".getBytes(UTF8)));
+	/** The frame terminator */
+	protected static final ChannelBuffer FOOTER = ChannelBuffers.unmodifiableBuffer(ChannelBuffers.wrappedBuffer("]}".getBytes(UTF8)));
+	
+	/**
+	 * Marshalls the passed object once into a read-only buffer that can be shared by any number of frames
+	 * @param item The object to marshall
+	 * @return the shared marshalled item
+	 */
+	public static ChannelBuffer encode(Object item) {
+		return ChannelBuffers.unmodifiableBuffer(ChannelBuffers.wrappedBuffer(JsonResponse.gson.toJson(item).getBytes(UTF8)));
+	}
+	
+	/**
+	 * Creates a new SharedJsonFrame
+	 * @param envelope The per-channel response envelope. Its content is ignored.
+	 * @param items The shared items returned by {@link #encode(Object)}
+	 */
+	public SharedJsonFrame(JsonResponse envelope, Collection<ChannelBuffer> items) {
+		if(envelope==null) throw new IllegalArgumentException("The passed envelope was null", new Throwable());
+		if(items==null) throw new IllegalArgumentException("The passed items were null", new Throwable());
+		envelope.setContent(null);
+		String env = JsonResponse.gson.toJson(envelope);
+		StringBuilder b = new StringBuilder(env.length() + 8).append(env, 0, env.lastIndexOf('}'));
+		if(b.charAt(b.length()-1)!='{') b.append(',');
+		header = ChannelBuffers.wrappedBuffer(b.append("\"msg\":[").toString().getBytes(UTF8));
+		this.items = items.toArray(new ChannelBuffer[items.size()]);
+		opCode = envelope.getOpCode();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.apmrouter.dataservice.json.marshalling.netty.ChannelBufferizable#toChannelBuffer()
+	 */
+	@Override
+	public ChannelBuffer toChannelBuffer() {
+		ChannelBuffer[] components = new ChannelBuffer[items.length==0 ? 2 : items.length*2 + 1];
+		int index = 0;
+		components[index++] = header;
+		for(int i = 0; i < items.length; i++) {
+			if(i>0) components[index++] = COMMA;
+			components[index++] = items[i];
+		}
+		components[index] = FOOTER;
+		// wrappedBuffer slices each component, so the shared items' indexes are never moved
+		return ChannelBuffers.wrappedBuffer(components);
+	}
+	
+	/**
+	 * Returns the frame op code
+	 * @return the frame op code
+	 */
+	public OpCode getOpCode() {
+		return opCode;
+	}
+	
+	/**
+	 * Returns the number of items in this frame
+	 * @return the number of items in this frame
+	 */
+	public int getItemCount() {
+		return items.length;
+	}
+}
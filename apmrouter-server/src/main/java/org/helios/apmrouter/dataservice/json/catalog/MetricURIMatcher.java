@@ -0,0 +1,261 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ */
+package org.helios.apmrouter.dataservice.json.catalog;
+
+import java.util.BitSet;
+import java.util.regex.Pattern;
+
+import org.helios.apmrouter.catalog.jdbc.h2.MetricTrigger;
+
+/**
+ * <p>Title: MetricURIMatcher</p>
+ * <p>Description: An in-memory compilation of a {@link MetricURI}'s catalog criteria that decides metric membership
+ * from a {@link MetricTrigger} event row and the agent's cached <b><code>Domain/Host/Agent</code></b> prefix,
+ * with the same semantics as {@link MetricURI#getMetricIdSql()}.</p>
+ * <p>Each name criterion mirrors the generated SQL: <b><code>%</code></b> alone matches anything, a value with no
+ * <b><code>%</code></b> is an exact compare and anything else is evaluated as a SQL <b><code>LIKE</code></b>
+ * (<b><code>%</code></b>, <b><code>_</code></b> and <b><code>\</code></b> escapes).</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.apmrouter.dataservice.json.catalog.MetricURIMatcher</code></p>
+ */
+public class MetricURIMatcher {
+	/** The domain criterion */
+	protected final Criterion domain;
+	/** The host criterion */
+	protected final Criterion host;
+	/** The agent criterion */
+	protected final Criterion agent;
+	/** The namespace criterion */
+	protected final Criterion namespace;
+	/** The maximum namespace level, or <=0 for no level restriction */
+	protected final int maxDepth;
+	/** The metric name criterion, or null if the name is not restricted */
+	protected final Criterion metricName;
+	/** The accepted metric type ids, or null if all types are accepted */
+	protected final BitSet metricTypes;
+	/** The accepted metric states indexed by state byte, or null if all states are accepted */
+	protected final boolean[] metricStatus;
+
+	/** The agent prefix delimiter */
+	public static final char PREFIX_DELIM = '/';
+
+	/**
+	 * Compiles a matcher for the passed MetricURI
+	 * @param metricUri The MetricURI to compile
+	 * @return the compiled matcher or null if the MetricURI's criteria cannot be evaluated in memory
+	 */
+	public static MetricURIMatcher compile(MetricURI metricUri) {
+		if(metricUri==null) throw new IllegalArgumentException("The passed metricUri was null", new Throwable());
+		if(metricUri.domain==null || metricUri.host==null || metricUri.agent==null || metricUri.namespace==null) return null;
+		return new MetricURIMatcher(metricUri);
+	}
+
+	/**
+	 * Creates a new MetricURIMatcher
+	 * @param metricUri The MetricURI to compile
+	 */
+	private MetricURIMatcher(MetricURI metricUri) {
+		domain = Criterion.forName(metricUri.domain);
+		host = Criterion.forName(metricUri.host);
+		agent = Criterion.forName(metricUri.agent);
+		maxDepth = metricUri.maxDepth;
+		// the namespace and name are always filtered in the SQL, so a bare % still excludes nulls
+		if(maxDepth>0) {
+			namespace = Criterion.like(metricUri.namespace + "%");
+		} else {
+			namespace = metricUri.namespace.indexOf('%')==-1 ? Criterion.forName(metricUri.namespace) : Criterion.like(metricUri.namespace);
+		}
+		if(metricUri.metricName==null) {
+			metricName = null;
+		} else {
+			metricName = metricUri.metricName.indexOf('%')==-1 ? Criterion.forName(metricUri.metricName) : Criterion.like(metricUri.metricName);
+		}
+		if(metricUri.metricType!=null && metricUri.metricType.length>0) {
+			metricTypes = new BitSet();
+			for(int t: metricUri.metricType) {
+				short s = (short)t;
+				if(s>=0) metricTypes.set(s);
+			}
+		} else {
+			metricTypes = null;
+		}
+		if(metricUri.metricStatus!=null && metricUri.metricStatus.length>0) {
+			metricStatus = new boolean[256];
+			for(byte b: metricUri.metricStatus) {
+				metricStatus[b & 0xFF] = true;
+			}
+		} else {
+			metricStatus = null;
+		}
+	}
+
+	/**
+	 * Determines if the metric described by the passed event row and agent prefix is a member of the compiled MetricURI
+	 * @param agentPrefix The <b><code>Domain/Host/Agent</code></b> prefix of the metric's agent
+	 * @param row The {@link MetricTrigger} event row
+	 * @return true if the metric matches, false otherwise
+	 */
+	public boolean matches(String agentPrefix, Object[] row) {
+		int d = agentPrefix.indexOf(PREFIX_DELIM);
+		int a = agentPrefix.lastIndexOf(PREFIX_DELIM);
+		if(d==-1 || a==d) return false;
+		return matches(agentPrefix.substring(0, d), agentPrefix.substring(d+1, a), agentPrefix.substring(a+1), row);
+	}
+
+	/**
+	 * Determines if the metric described by the passed event row and agent coordinates is a member of the compiled MetricURI
+	 * @param domainName The metric's agent's host domain
+	 * @param hostName The metric's agent's host name
+	 * @param agentName The metric's agent name
+	 * @param row The {@link MetricTrigger} event row
+	 * @return true if the metric matches, false otherwise
+	 */
+	public boolean matches(String domainName, String hostName, String agentName, Object[] row) {
+		if(metricTypes!=null) {
+			int type = ((Number)row[MetricTrigger.TYPE_COLUMN_ID]).intValue();
+			if(type<0 || !metricTypes.get(type)) return false;
+		}
+		if(metricStatus!=null) {
+			Number state = (Number)row[MetricTrigger.STATE_COLUMN_ID];
+			if(state==null || !metricStatus[state.byteValue() & 0xFF]) return false;
+		}
+		if(!domain.matches(domainName) || !host.matches(hostName) || !agent.matches(agentName)) return false;
+		if(!namespace.matches((String)row[MetricTrigger.NAMESPACE_COLUMN_ID])) return false;
+		if(maxDepth>0) {
+			Number level = (Number)row[MetricTrigger.LEVEL_COLUMN_ID];
+			if(level==null || level.intValue()>maxDepth) return false;
+		}
+		return metricName==null || metricName.matches((String)row[MetricTrigger.NAME_COLUMN_ID]);
+	}
+
+	/**
+	 * Returns the domain criterion
+	 * @return the domain criterion
+	 */
+	Criterion getDomain() {
+		return domain;
+	}
+
+	/**
+	 * Returns the host criterion
+	 * @return the host criterion
+	 */
+	Criterion getHost() {
+		return host;
+	}
+
+	/**
+	 * Returns the agent criterion
+	 * @return the agent criterion
+	 */
+	Criterion getAgent() {
+		return agent;
+	}
+
+	/**
+	 * <p>Title: Criterion</p>
+	 * <p>Description: A single compiled name criterion</p>
+	 * <p>Company: Helios Development Group LLC</p>
+	 * @author Whitehead (nwhitehead AT heliosdev DOT org)
+	 * <p><code>org.helios.apmrouter.dataservice.json.catalog.MetricURIMatcher.Criterion</code></p>
+	 */
+	static class Criterion {
+		/** The literal value for an exact match, or null if this is a pattern or any criterion */
+		final String literal;
+		/** The compiled LIKE pattern, or null if this is a literal or any criterion */
+		final Pattern pattern;
+
+		/** The criterion that matches anything */
+		static final Criterion ANY = new Criterion(null, null);
+
+		/**
+		 * Creates a new Criterion
+		 * @param literal The literal value
+		 * @param pattern The compiled LIKE pattern
+		 */
+		private Criterion(String literal, Pattern pattern) {
+			this.literal = literal;
+			this.pattern = pattern;
+		}
+
+		/**
+		 * Compiles a name criterion the same way {@link MetricURI} generates its SQL predicate
+		 * @param value The criterion value
+		 * @return the compiled criterion
+		 */
+		static Criterion forName(String value) {
+			if("%".equals(value)) return ANY;
+			if(value.indexOf('%')==-1) return new Criterion(value, null);
+			return like(value);
+		}
+
+		/**
+		 * Compiles a SQL LIKE expression
+		 * @param expr The LIKE expression
+		 * @return the compiled criterion
+		 */
+		static Criterion like(String expr) {
+			StringBuilder regex = new StringBuilder(expr.length()+16);
+			StringBuilder lit = new StringBuilder();
+			for(int i = 0; i < expr.length(); i++) {
+				char c = expr.charAt(i);
+				if(c=='\\' && i < expr.length()-1) {
+					lit.append(expr.charAt(++i));
+				} else if(c=='%' || c=='_') {
+					if(lit.length()>0) {
+						regex.append(Pattern.quote(lit.toString()));
+						lit.setLength(0);
+					}
+					regex.append(c=='%' ? ".*" : ".");
+				} else {
+					lit.append(c);
+				}
+			}
+			if(lit.length()>0) regex.append(Pattern.quote(lit.toString()));
+			return new Criterion(null, Pattern.compile(regex.toString(), Pattern.DOTALL));
+		}
+
+		/**
+		 * Determines if this criterion is an exact literal
+		 * @return true if this criterion is an exact literal
+		 */
+		boolean isLiteral() {
+			return literal!=null;
+		}
+
+		/**
+		 * Tests the passed value against this criterion
+		 * @param value The value to test
+		 * @return true if the value matches
+		 */
+		boolean matches(String value) {
+			if(this==ANY) return true;
+			if(value==null) return false;
+			if(literal!=null) return literal.equals(value);
+			return pattern.matcher(value).matches();
+		}
+	}
+}
@@ -32,6 +32,7 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -48,15 +49,18 @@ import org.cliffc.high_scale_lib.Counter;
 import org.cliffc.high_scale_lib.NonBlockingHashMapLong;
 import org.helios.apmrouter.OpCode;
 import org.helios.apmrouter.catalog.EntryStatus;
+import org.helios.apmrouter.catalog.jdbc.h2.MetricTrigger;
 import org.helios.apmrouter.catalog.domain.Metric;
 import org.helios.apmrouter.collections.ConcurrentLongSortedSet;
 import org.helios.apmrouter.dataservice.json.JsonResponse;
+import org.helios.apmrouter.dataservice.json.SharedJsonFrame;
 import org.helios.apmrouter.metric.IMetric;
 import org.helios.apmrouter.metric.MetricType;
 import org.helios.apmrouter.metric.catalog.ICEMetricCatalog;
 import org.helios.apmrouter.metric.catalog.IMetricCatalog;
 import org.helios.apmrouter.subscription.MetricURIEvent;
 import org.hibernate.Session;
+import org.jboss.netty.buffer.ChannelBuffer;
 import org.jboss.netty.channel.Channel;
 import org.jboss.netty.channel.ChannelConfig;
 import org.jboss.netty.channel.ChannelFactory;
@@ -152,6 +156,8 @@ import org.jboss.netty.channel.group.DefaultChannelGroup;
 public class MetricURISubscription implements ChannelGroupFutureListener, MetricURISubscriptionMBean {
 	/** The subscribed metricURI */
 	protected final MetricURI metricURI;
+	/** The in-memory compiled criteria of the metricURI, or null if membership must be resolved in the catalog */
+	protected final MetricURIMatcher matcher;
 	
 	/** The metric ids that have been determined to match the metric URI */
 	protected final ConcurrentLongSortedSet metricIds = new ConcurrentLongSortedSet(128);
@@ -167,6 +173,13 @@ public class MetricURISubscription implements ChannelGroupFutureListener, Metric
 //	/** A list of MetricURIBitMaskContainers */
 //	protected static final List<MetricURIBitMaskContainer> subscriptionsByBitMask = new CopyOnWriteArrayList<MetricURIBitMaskContainer>();
 	
+	/** The domain/host/agent index of subscriptions */
+	protected static final MetricURISubscriptionIndex subscriptionIndex = new MetricURISubscriptionIndex();
+	/** The number of membership resolutions decided in memory */
+	protected static final Counter memoryResolutions = new Counter();
+	/** The number of membership resolutions that queried the catalog */
+	protected static final Counter sqlResolutions = new Counter();
+	
 	/** A map representing the superset of subscribed-to metric ids as keys and a set of subscribers as the value */
 	protected static final NonBlockingHashMapLong<Set<MetricURISubscription>> metricIdSuperSet = new NonBlockingHashMapLong<Set<MetricURISubscription>>(false); 
 	
@@ -209,6 +222,45 @@ public class MetricURISubscription implements ChannelGroupFutureListener, Metric
 		return matching.iterator();		
 	}
 	
+	/**
+	 * Returns an iterator over the subscriptions with a matching type/status/subType mask whose domain, host and agent criteria
+	 * could match the metric in the passed catalog event row. When the agent prefix of the row cannot be resolved,
+	 * all mask matching subscriptions are returned.
+	 * @param mask The type/status/subType mask to get subscriptions that have a bit mask matching type/status/subType mask
+	 * @param row The {@link MetricTrigger} event row
+	 * @param catalogDataSource the catalog datasource in case the agent prefix is not cached
+	 * @return a subscription iterator
+	 */
+	public static Iterator<MetricURISubscription> getMatchingSubscriptions(long mask, Object[] row, DataSource catalogDataSource) {
+		String prefix = MetricTrigger.getAgentPrefix(((Number)row[MetricTrigger.AGENT_COLUMN_ID]).intValue(), catalogDataSource);
+		if(prefix==null) return getMatchingSubscriptions(mask);
+		int d = prefix.indexOf(MetricURIMatcher.PREFIX_DELIM);
+		int a = prefix.lastIndexOf(MetricURIMatcher.PREFIX_DELIM);
+		if(d==-1 || a==d) return getMatchingSubscriptions(mask);
+		Set<MetricURISubscription> candidates = new HashSet<MetricURISubscription>();
+		subscriptionIndex.candidates(prefix.substring(0, d), prefix.substring(d+1, a), prefix.substring(a+1), candidates);
+		for(Iterator<MetricURISubscription> iter = candidates.iterator(); iter.hasNext();) {
+			if(!iter.next().metricURI.matches(mask)) iter.remove();
+		}
+		return candidates.iterator();
+	}
+	
+	/**
+	 * Returns the number of membership resolutions decided in memory
+	 * @return the number of membership resolutions decided in memory
+	 */
+	public static long getMemoryResolutions() {
+		return memoryResolutions.get();
+	}
+	
+	/**
+	 * Returns the number of membership resolutions that queried the catalog
+	 * @return the number of membership resolutions that queried the catalog
+	 */
+	public static long getSqlResolutions() {
+		return sqlResolutions.get();
+	}
+	
 	
 	
 	/**
@@ -342,6 +394,7 @@ public class MetricURISubscription implements ChannelGroupFutureListener, Metric
 	 */
 	public boolean resolveMembership(long metricId, DataSource catalogDataSource ) {
 		if(metricIds.contains(metricId)) return false;
+		sqlResolutions.increment();
 		Connection conn = null;
 		PreparedStatement ps = null;
 		ResultSet rset = null;
@@ -360,6 +413,36 @@ public class MetricURISubscription implements ChannelGroupFutureListener, Metric
 			if(conn!=null) try { conn.close(); } catch (Exception x) {/* No Op */}
 		}
 	}
+	
+	/**
+	 * Determines if the metric in the passed catalog event row needs to be added to this subscription.
+	 * The criteria are evaluated in memory when this subscription's criteria could be compiled and the metric's agent prefix resolves,
+	 * otherwise the catalog is queried.
+	 * @param metricId the metric ID to test for
+	 * @param row The {@link MetricTrigger} event row for the metric
+	 * @param catalogDataSource the catalog datasource
+	 * @return true if the passed metric id needs to be added to this subscription, false otherwise
+	 */
+	public boolean resolveMembership(long metricId, Object[] row, DataSource catalogDataSource) {
+		if(metricIds.contains(metricId)) return false;
+		if(matcher!=null) {
+			String prefix = MetricTrigger.getAgentPrefix(((Number)row[MetricTrigger.AGENT_COLUMN_ID]).intValue(), catalogDataSource);
+			if(prefix!=null) {
+				memoryResolutions.increment();
+				return matcher.matches(prefix, row);
+			}
+		}
+		return resolveMembership(metricId, catalogDataSource);
+	}
+	
+	/**
+	 * Returns the in-memory compiled criteria of this subscription's metricURI
+	 * @return the compiled criteria or null if membership must be resolved in the catalog
+	 */
+	MetricURIMatcher getMatcher() {
+		return matcher;
+	}
+	
 	/**
 	 * {@inheritDoc}
 	 * @see org.helios.apmrouter.dataservice.json.catalog.MetricURISubscriptionMBean#getMetricURI()
@@ -406,7 +489,8 @@ public class MetricURISubscription implements ChannelGroupFutureListener, Metric
 				metricUriSub = subscriptions.get(metricUri);
 				if(metricUriSub==null) {
 					metricUriSub = new MetricURISubscription(session, metricUri);
-					subscriptions.put(metricUri, metricUriSub);					
+					subscriptions.put(metricUri, metricUriSub);
+					subscriptionIndex.add(metricUriSub);
 				}
 			}
 		}
@@ -526,6 +610,25 @@ public class MetricURISubscription implements ChannelGroupFutureListener, Metric
 		}
 	}
 	
+	/**
+	 * Adds a shared, already marshalled metric-data update to the pending frame of each subscribed channel.
+	 * A channel subscribed through several subscriptions that include the metric receives the update once.
+	 * @param metricId The id of the metric the update is for
+	 * @param encodedEvent The marshalled real-time data event
+	 * @param frames The pending frame items keyed by metric id, keyed by channel
+	 */
+	protected void collectRealTimeDataEvent(long metricId, ChannelBuffer encodedEvent, Map<ChannelJsonResponsePair, Map<Long, ChannelBuffer>> frames) {
+		for(Channel channel: subscribedChannels) {
+			ChannelJsonResponsePair pair = (ChannelJsonResponsePair)channel;
+			Map<Long, ChannelBuffer> frame = frames.get(pair);
+			if(frame==null) {
+				frame = new LinkedHashMap<Long, ChannelBuffer>();
+				frames.put(pair, frame);
+			}
+			frame.put(metricId, encodedEvent);
+		}
+	}
+	
 	
 	/**
 	 * Sends the subscriber a metric exit when a state change causes a metric to be removed from the metric id set
@@ -545,6 +648,7 @@ public class MetricURISubscription implements ChannelGroupFutureListener, Metric
 	 */
 	private MetricURISubscription(Session session, MetricURI metricURI) {
 		this.metricURI = metricURI;
+		this.matcher = MetricURIMatcher.compile(metricURI);
 		try {
 			addMetricIds(metricURI.execute(session));
 		} catch (Exception ex) {
@@ -616,7 +720,9 @@ public class MetricURISubscription implements ChannelGroupFutureListener, Metric
 	protected synchronized void terminateSubscriber(ChannelJsonResponsePair pair, MetricURISubscription sub) {
 		subscribedChannels.remove(pair);
 		if(subscribedChannels.size()<1) {						
-			subscriptions.remove(metricURI);
+			if(subscriptions.remove(metricURI, this)) {
+				subscriptionIndex.remove(this);
+			}
 		}
 	}
 	
@@ -631,7 +737,9 @@ public class MetricURISubscription implements ChannelGroupFutureListener, Metric
 			pair.decrSubs();
 		}		
 		if(subscribedChannels.size()<1) {
-			subscriptions.remove(metricURI);
+			if(subscriptions.remove(metricURI, this)) {
+				subscriptionIndex.remove(this);
+			}
 		}
 	}
 	
@@ -907,6 +1015,17 @@ class ChannelJsonResponsePair implements Channel {
 		return channel.write(response.clone().setOpCode(opCode).setContent(message), remoteAddress);
 	}
 	
+	/**
+	 * Writes a frame of shared, already marshalled items wrapped in this channel's response envelope
+	 * @param items The shared marshalled items
+	 * @param type The response type
+	 * @param opCode The response op code
+	 * @return the write future
+	 */
+	public ChannelFuture writeFrame(Collection<ChannelBuffer> items, String type, OpCode opCode) {
+		return channel.write(new SharedJsonFrame(response.clone(type).setOpCode(opCode), items), channel.getRemoteAddress());
+	}
+	
 
 	/**
 	 * @param localAddress
@@ -0,0 +1,192 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ */
+package org.helios.apmrouter.dataservice.json.catalog;
+
+import java.util.Collection;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+
+/**
+ * <p>Title: MetricURISubscriptionIndex</p>
+ * <p>Description: A trie over the <b><code>Domain/Host/Agent</code></b> segments of subscribed {@link MetricURI}s
+ * so a catalog event only visits the subscriptions whose agent criteria could possibly match.
+ * At each level, literal segments are keyed by value and wildcarded segments share a single pattern branch
+ * that is always walked.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.apmrouter.dataservice.json.catalog.MetricURISubscriptionIndex</code></p>
+ */
+public class MetricURISubscriptionIndex {
+	/** The root (domain level) node */
+	protected final Node root = new Node();
+	/** The subscriptions that could not be compiled and must be visited for every event */
+	protected final Set<MetricURISubscription> unindexed = new CopyOnWriteArraySet<MetricURISubscription>();
+
+	/** The number of trie levels (domain, host, agent) */
+	public static final int LEVELS = 3;
+
+	/**
+	 * Adds a subscription to the index
+	 * @param sub The subscription to add
+	 */
+	public synchronized void add(MetricURISubscription sub) {
+		MetricURIMatcher matcher = sub.getMatcher();
+		if(matcher==null) {
+			unindexed.add(sub);
+			return;
+		}
+		Node node = root;
+		for(MetricURIMatcher.Criterion c: path(matcher)) {
+			node = node.child(c, true);
+		}
+		node.members.add(sub);
+	}
+
+	/**
+	 * Removes a subscription from the index, pruning emptied branches
+	 * @param sub The subscription to remove
+	 */
+	public synchronized void remove(MetricURISubscription sub) {
+		MetricURIMatcher matcher = sub.getMatcher();
+		if(matcher==null) {
+			unindexed.remove(sub);
+			return;
+		}
+		MetricURIMatcher.Criterion[] path = path(matcher);
+		Node[] nodes = new Node[LEVELS+1];
+		nodes[0] = root;
+		for(int i = 0; i < LEVELS; i++) {
+			nodes[i+1] = nodes[i].child(path[i], false);
+			if(nodes[i+1]==null) return;
+		}
+		nodes[LEVELS].members.remove(sub);
+		for(int i = LEVELS; i > 0; i--) {
+			if(!nodes[i].isEmpty()) break;
+			nodes[i-1].prune(path[i-1]);
+		}
+	}
+
+	/**
+	 * Collects the candidate subscriptions for a metric of the passed agent
+	 * @param domain The agent's host domain
+	 * @param host The agent's host name
+	 * @param agent The agent name
+	 * @param candidates The collection to add the candidates to
+	 */
+	public void candidates(String domain, String host, String agent, Collection<MetricURISubscription> candidates) {
+		candidates.addAll(unindexed);
+		collect(root, 0, new String[]{domain, host, agent}, candidates);
+	}
+
+	/**
+	 * Recursively walks the matching branches of the trie
+	 * @param node The current node
+	 * @param level The current level
+	 * @param segments The agent coordinates
+	 * @param candidates The collection to add the candidates to
+	 */
+	protected void collect(Node node, int level, String[] segments, Collection<MetricURISubscription> candidates) {
+		if(level==LEVELS) {
+			candidates.addAll(node.members);
+			return;
+		}
+		Node n = node.literals.get(segments[level]);
+		if(n!=null) collect(n, level+1, segments, candidates);
+		n = node.any;
+		if(n!=null) collect(n, level+1, segments, candidates);
+		n = node.patterns;
+		if(n!=null) collect(n, level+1, segments, candidates);
+	}
+
+	/**
+	 * Returns the trie path for the passed matcher
+	 * @param matcher The matcher
+	 * @return the domain, host and agent criteria
+	 */
+	protected static MetricURIMatcher.Criterion[] path(MetricURIMatcher matcher) {
+		return new MetricURIMatcher.Criterion[]{matcher.getDomain(), matcher.getHost(), matcher.getAgent()};
+	}
+
+	/**
+	 * <p>Title: Node</p>
+	 * <p>Description: A trie node for one agent coordinate level</p>
+	 * <p>Company: Helios Development Group LLC</p>
+	 * @author Whitehead (nwhitehead AT heliosdev DOT org)
+	 * <p><code>org.helios.apmrouter.dataservice.json.catalog.MetricURISubscriptionIndex.Node</code></p>
+	 */
+	protected static class Node {
+		/** The children keyed by literal segment */
+		final ConcurrentHashMap<String, Node> literals = new ConcurrentHashMap<String, Node>(16, 0.75f, 4);
+		/** The child for a match-all segment */
+		volatile Node any = null;
+		/** The child for wildcarded segments, which are re-tested by each subscription's matcher */
+		volatile Node patterns = null;
+		/** The subscriptions terminating at this node (leaf level only) */
+		final Set<MetricURISubscription> members = new CopyOnWriteArraySet<MetricURISubscription>();
+
+		/**
+		 * Returns the child node for the passed criterion, optionally creating it. Called with the index lock held.
+		 * @param c The criterion
+		 * @param create true to create the child if it does not exist
+		 * @return the child node or null
+		 */
+		Node child(MetricURIMatcher.Criterion c, boolean create) {
+			Node n;
+			if(c.isLiteral()) {
+				n = literals.get(c.literal);
+				if(n==null && create) {
+					n = new Node();
+					literals.put(c.literal, n);
+				}
+			} else if(c==MetricURIMatcher.Criterion.ANY) {
+				n = any;
+				if(n==null && create) any = n = new Node();
+			} else {
+				n = patterns;
+				if(n==null && create) patterns = n = new Node();
+			}
+			return n;
+		}
+
+		/**
+		 * Removes the child for the passed criterion. Called with the index lock held.
+		 * @param c The criterion
+		 */
+		void prune(MetricURIMatcher.Criterion c) {
+			if(c.isLiteral()) literals.remove(c.literal);
+			else if(c==MetricURIMatcher.Criterion.ANY) any = null;
+			else patterns = null;
+		}
+
+		/**
+		 * Determines if this node has no members and no children
+		 * @return true if this node is empty
+		 */
+		boolean isEmpty() {
+			return members.isEmpty() && literals.isEmpty() && any==null && patterns==null;
+		}
+	}
+}
@@ -27,28 +27,40 @@ package org.helios.apmrouter.dataservice.json.catalog;
 import java.lang.Thread.UncaughtExceptionHandler;
 import java.lang.management.ManagementFactory;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.sql.DataSource;
 
+import org.cliffc.high_scale_lib.NonBlockingHashMapLong;
+import org.helios.apmrouter.OpCode;
 import org.helios.apmrouter.catalog.EntryStatus;
 import org.helios.apmrouter.catalog.domain.Metric;
 import org.helios.apmrouter.catalog.jdbc.h2.MetricTrigger;
 import org.helios.apmrouter.catalog.jdbc.h2.NewElementTriggers;
+import org.helios.apmrouter.catalog.jdbc.h2.ShardedEventQueue.ShardConsumer;
 import org.helios.apmrouter.collections.ConcurrentLongSlidingWindow;
 import org.helios.apmrouter.dataservice.json.JsonResponse;
+import org.helios.apmrouter.dataservice.json.SharedJsonFrame;
 import org.helios.apmrouter.dataservice.json.marshalling.JSONMarshaller;
 import org.helios.apmrouter.metric.IMetric;
 import org.helios.apmrouter.metric.catalog.ICEMetricCatalog;
 import org.helios.apmrouter.metric.catalog.IMetricCatalog;
 import org.helios.apmrouter.server.ServerComponentBean;
+import org.helios.apmrouter.subscription.MetricURIEvent;
 import org.helios.apmrouter.util.SystemClock;
 import org.hibernate.Session;
 import org.hibernate.SessionFactory;
+import org.jboss.netty.buffer.ChannelBuffer;
 import org.jboss.netty.channel.Channel;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.jmx.export.annotation.ManagedAttribute;
@@ -116,6 +128,26 @@ public class MetricURISubscriptionService extends ServerComponentBean implements
 
 	/** The Json marshaller */
 	protected JSONMarshaller marshaller = null;
+	
+	/** The real-time data frame window in ms. Data events for the same metric within a window are coalesced, latest wins. 0 sends each event as it arrives. */
+	protected long realTimeFrameWindow = DEFAULT_REAL_TIME_FRAME_WINDOW;
+	/** The coalesced real-time data events waiting for the next frame, keyed by metric id */
+	protected final NonBlockingHashMapLong<Object[]> pendingDataEvents = new NonBlockingHashMapLong<Object[]>(false);
+	/** The scheduler that flushes real-time data frames */
+	protected final ScheduledExecutorService frameScheduler = Executors.newScheduledThreadPool(1, new ThreadFactory(){
+		final AtomicInteger serial = new AtomicInteger(0);
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "RealTimeDataFrameThread#" + serial.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		}
+	});
+	/** The handle of the scheduled real-time data frame flush */
+	protected ScheduledFuture<?> frameHandle = null;
+	
+	/** The default real-time data frame window in ms. */
+	public static final long DEFAULT_REAL_TIME_FRAME_WINDOW = 250L;
 
 	/**
 	 * The default number of threads to concurrently process the metric event
@@ -133,6 +165,19 @@ public class MetricURISubscriptionService extends ServerComponentBean implements
 	protected void doStart() throws Exception {
 		keepRunning = true;
 		resetMetrics();
+		if(realTimeFrameWindow>0) {
+			frameHandle = frameScheduler.scheduleWithFixedDelay(new Runnable(){
+				@Override
+				public void run() {
+					try {
+						flushRealTimeDataFrames();
+					} catch (Exception ex) {
+						incr("DataEventQueueProcessingErrors");
+						error("Failed to flush real-time data frames", ex);
+					}
+				}
+			}, realTimeFrameWindow, realTimeFrameWindow, TimeUnit.MILLISECONDS);
+		}
 		startRealTimeDataEventProcessor();
 		startNewMetricEventProcessor();
 		startMetricStateChangeEventProcessor();
@@ -142,16 +187,17 @@ public class MetricURISubscriptionService extends ServerComponentBean implements
 	 * Starts the real-time data event queue processor threads
 	 */
 	protected void startRealTimeDataEventProcessor() {
-		for (int i = 0; i < realTimeDataEventThreads; i++) {
+		final int consumers = Math.max(1, Math.min(realTimeDataEventThreads, NewElementTriggers.realTimeDataQueue.getShardCount()));
+		for (int i = 0; i < consumers; i++) {
 			Thread t = new Thread(realTimeDataEventThreadGroup,
-					new RealTimeDataEventProcessor(),
+					new RealTimeDataEventProcessor(NewElementTriggers.realTimeDataQueue.consumer(i, consumers)),
 					"RealTimeDataEventProcessorThread#"
 							+ newMetricSerial.incrementAndGet());
 			t.setDaemon(true);
 			t.setUncaughtExceptionHandler(this);
 			t.start();
 		}
-		info("Started [", realTimeDataEventThreads,
+		info("Started [", consumers,
 				"] RealTime Data Event Queue Processing Threads");
 	}
 
@@ -159,16 +205,17 @@ public class MetricURISubscriptionService extends ServerComponentBean implements
 	 * Starts the new metric event queue processor threads
 	 */
 	protected void startNewMetricEventProcessor() {
-		for (int i = 0; i < newMetricEventThreads; i++) {
+		final int consumers = Math.max(1, Math.min(newMetricEventThreads, NewElementTriggers.newMetricQueue.getShardCount()));
+		for (int i = 0; i < consumers; i++) {
 			Thread t = new Thread(newMetricEventThreadGroup,
-					new NewMetricEventProcessor(),
+					new NewMetricEventProcessor(NewElementTriggers.newMetricQueue.consumer(i, consumers)),
 					"NewMetricEventProcessorThread#"
 							+ newMetricSerial.incrementAndGet());
 			t.setDaemon(true);
 			t.setUncaughtExceptionHandler(this);
 			t.start();
 		}
-		info("Started [", newMetricEventThreads,
+		info("Started [", consumers,
 				"] New Metric Event Queue Processing Threads");
 	}
 
@@ -176,16 +223,17 @@ public class MetricURISubscriptionService extends ServerComponentBean implements
 	 * Starts the metric state change event queue processor threads
 	 */
 	protected void startMetricStateChangeEventProcessor() {
-		for (int i = 0; i < metricStateChangeEventThreads; i++) {
+		final int consumers = Math.max(1, Math.min(metricStateChangeEventThreads, NewElementTriggers.metricStateChangeQueue.getShardCount()));
+		for (int i = 0; i < consumers; i++) {
 			Thread t = new Thread(metricStateChangeEventThreadGroup,
-					new MetricStateChangeEventProcessor(),
+					new MetricStateChangeEventProcessor(NewElementTriggers.metricStateChangeQueue.consumer(i, consumers)),
 					"MetricStateChangeEventProcessorThread#"
 							+ metricStateChangeSerial.incrementAndGet());
 			t.setDaemon(true);
 			t.setUncaughtExceptionHandler(this);
 			t.start();
 		}
-		info("Started [", metricStateChangeEventThreads,
+		info("Started [", consumers,
 				"] Metric State Change Event Queue Processing Threads");
 	}
 
@@ -197,6 +245,11 @@ public class MetricURISubscriptionService extends ServerComponentBean implements
 	@Override
 	protected void doStop() {
 		keepRunning = false;
+		if(frameHandle!=null) {
+			frameHandle.cancel(false);
+			frameHandle = null;
+		}
+		pendingDataEvents.clear();
 		realTimeDataEventThreadGroup.interrupt();
 		metricStateChangeEventThreadGroup.interrupt();
 		newMetricEventThreadGroup.interrupt();
@@ -387,6 +440,105 @@ public class MetricURISubscriptionService extends ServerComponentBean implements
 	public long getRealTimeDataEventQueueDepth() {
 		return NewElementTriggers.realTimeDataQueue.size();
 	}
+	
+	/**
+	 * {@inheritDoc}
+	 * 
+	 * @see org.helios.apmrouter.dataservice.json.catalog.MetricURISubscriptionServiceMXBean#getNewMetricEventQueueDrops()
+	 */
+	@Override
+	@ManagedMetric(category = "MetricURISubscriptionService", displayName = "NewMetricEventQueueDrops", metricType = MetricType.COUNTER, description = "The number of new metric events dropped because their queue shard was full")
+	public long getNewMetricEventQueueDrops() {
+		return NewElementTriggers.newMetricQueue.getDrops();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * 
+	 * @see org.helios.apmrouter.dataservice.json.catalog.MetricURISubscriptionServiceMXBean#getNewMetricEventQueueCoalesced()
+	 */
+	@Override
+	@ManagedMetric(category = "MetricURISubscriptionService", displayName = "NewMetricEventQueueCoalesced", metricType = MetricType.COUNTER, description = "The number of new metric events replaced in the queue by a later event for the same metric")
+	public long getNewMetricEventQueueCoalesced() {
+		return NewElementTriggers.newMetricQueue.getCoalesced();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * 
+	 * @see org.helios.apmrouter.dataservice.json.catalog.MetricURISubscriptionServiceMXBean#getNewMetricEventQueueLag()
+	 */
+	@Override
+	@ManagedMetric(category = "MetricURISubscriptionService", displayName = "NewMetricEventQueueLag", metricType = MetricType.GAUGE, description = "The number of pending new metric events in the most backed up queue shard")
+	public long getNewMetricEventQueueLag() {
+		return NewElementTriggers.newMetricQueue.getLag();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * 
+	 * @see org.helios.apmrouter.dataservice.json.catalog.MetricURISubscriptionServiceMXBean#getMetricStateChangeEventQueueDrops()
+	 */
+	@Override
+	@ManagedMetric(category = "MetricURISubscriptionService", displayName = "MetricStateChangeEventQueueDrops", metricType = MetricType.COUNTER, description = "The number of metric state change events dropped because their queue shard was full")
+	public long getMetricStateChangeEventQueueDrops() {
+		return NewElementTriggers.metricStateChangeQueue.getDrops();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * 
+	 * @see org.helios.apmrouter.dataservice.json.catalog.MetricURISubscriptionServiceMXBean#getMetricStateChangeEventQueueCoalesced()
+	 */
+	@Override
+	@ManagedMetric(category = "MetricURISubscriptionService", displayName = "MetricStateChangeEventQueueCoalesced", metricType = MetricType.COUNTER, description = "The number of metric state change events replaced in the queue by a later event for the same metric")
+	public long getMetricStateChangeEventQueueCoalesced() {
+		return NewElementTriggers.metricStateChangeQueue.getCoalesced();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * 
+	 * @see org.helios.apmrouter.dataservice.json.catalog.MetricURISubscriptionServiceMXBean#getMetricStateChangeEventQueueLag()
+	 */
+	@Override
+	@ManagedMetric(category = "MetricURISubscriptionService", displayName = "MetricStateChangeEventQueueLag", metricType = MetricType.GAUGE, description = "The number of pending metric state change events in the most backed up queue shard")
+	public long getMetricStateChangeEventQueueLag() {
+		return NewElementTriggers.metricStateChangeQueue.getLag();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * 
+	 * @see org.helios.apmrouter.dataservice.json.catalog.MetricURISubscriptionServiceMXBean#getRealTimeDataEventQueueDrops()
+	 */
+	@Override
+	@ManagedMetric(category = "MetricURISubscriptionService", displayName = "RealTimeDataEventQueueDrops", metricType = MetricType.COUNTER, description = "The number of real-time data events dropped because their queue shard was full")
+	public long getRealTimeDataEventQueueDrops() {
+		return NewElementTriggers.realTimeDataQueue.getDrops();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * 
+	 * @see org.helios.apmrouter.dataservice.json.catalog.MetricURISubscriptionServiceMXBean#getRealTimeDataEventQueueCoalesced()
+	 */
+	@Override
+	@ManagedMetric(category = "MetricURISubscriptionService", displayName = "RealTimeDataEventQueueCoalesced", metricType = MetricType.COUNTER, description = "The number of real-time data events replaced in the queue by a later event for the same metric")
+	public long getRealTimeDataEventQueueCoalesced() {
+		return NewElementTriggers.realTimeDataQueue.getCoalesced();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * 
+	 * @see org.helios.apmrouter.dataservice.json.catalog.MetricURISubscriptionServiceMXBean#getRealTimeDataEventQueueLag()
+	 */
+	@Override
+	@ManagedMetric(category = "MetricURISubscriptionService", displayName = "RealTimeDataEventQueueLag", metricType = MetricType.GAUGE, description = "The number of pending real-time data events in the most backed up queue shard")
+	public long getRealTimeDataEventQueueLag() {
+		return NewElementTriggers.realTimeDataQueue.getLag();
+	}
 
 	/**
 	 * {@inheritDoc}
@@ -410,6 +562,28 @@ public class MetricURISubscriptionService extends ServerComponentBean implements
 		return getMetricValue("NewMetricBroadcasts");
 	}
 	
+	/**
+	 * {@inheritDoc}
+	 * 
+	 * @see org.helios.apmrouter.dataservice.json.catalog.MetricURISubscriptionServiceMXBean#getInMemoryMembershipResolutions()
+	 */
+	@Override
+	@ManagedMetric(category = "MetricURISubscriptionService", displayName = "InMemoryMembershipResolutions", metricType = MetricType.COUNTER, description = "The number of subscription membership resolutions decided in memory")
+	public long getInMemoryMembershipResolutions() {
+		return MetricURISubscription.getMemoryResolutions();
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * 
+	 * @see org.helios.apmrouter.dataservice.json.catalog.MetricURISubscriptionServiceMXBean#getSqlMembershipResolutions()
+	 */
+	@Override
+	@ManagedMetric(category = "MetricURISubscriptionService", displayName = "SqlMembershipResolutions", metricType = MetricType.COUNTER, description = "The number of subscription membership resolutions that queried the catalog")
+	public long getSqlMembershipResolutions() {
+		return MetricURISubscription.getSqlResolutions();
+	}
+	
 
 	/**
 	 * <p>
@@ -428,12 +602,23 @@ public class MetricURISubscriptionService extends ServerComponentBean implements
 	 *         </p>
 	 */
 	protected class RealTimeDataEventProcessor implements Runnable {
+		/** The consumer of the real-time data queue shards pinned to this processor */
+		final ShardConsumer consumer;
+		
+		/**
+		 * Creates a new RealTimeDataEventProcessor
+		 * @param consumer The consumer of the real-time data queue shards pinned to this processor
+		 */
+		RealTimeDataEventProcessor(ShardConsumer consumer) {
+			this.consumer = consumer;
+		}
+		
 		@Override
 		public void run() {
 			while (keepRunning) {				
 				try {
 					// This will be Object[]{long[] data, IMetric metric};
-					Object[] dataEvent = NewElementTriggers.realTimeDataQueue.take();
+					Object[] dataEvent = consumer.take();
 					final long startTime = System.nanoTime();
 					incr("RealTimeDataEvents");					
 					IMetric metric = (IMetric) dataEvent[1];
@@ -443,6 +628,14 @@ public class MetricURISubscriptionService extends ServerComponentBean implements
 						realTimeDataEventProcessingTime.insert(System.nanoTime() - startTime);
 						continue;
 					}
+					if (frameHandle != null) {
+						// coalesce into the next frame, latest value wins
+						if (pendingDataEvents.put(metricId, dataEvent) != null) {
+							incr("RealTimeDataEventsCoalesced");
+						}
+						realTimeDataEventProcessingTime.insert(System.nanoTime() - startTime);
+						continue;
+					}
 					for (MetricURISubscription sub : subs) {
 						sub.sendRealTimeDataEvent(dataEvent);
 					}
@@ -484,6 +677,16 @@ public class MetricURISubscriptionService extends ServerComponentBean implements
 		final SessionFactory _sessionFactory = sessionFactory;
 		/** The catalog data source */
 		final DataSource _catalogDataSource = catalogDataSource;
+		/** The consumer of the new metric queue shards pinned to this processor */
+		final ShardConsumer consumer;
+		
+		/**
+		 * Creates a new NewMetricEventProcessor
+		 * @param consumer The consumer of the new metric queue shards pinned to this processor
+		 */
+		NewMetricEventProcessor(ShardConsumer consumer) {
+			this.consumer = consumer;
+		}
 
 		/**
 		 * Consumes events from the new metric queue and processes them as
@@ -495,14 +698,16 @@ public class MetricURISubscriptionService extends ServerComponentBean implements
 		 * <li>Builds a {@link MetricType}/{@link EntryStatus}/
 		 * {@link MetricURISubscriptionType} representing the consumed event.</li>
 		 * <li>Acquires an iterator of {@link MetricURISubscription} instances
-		 * that match the created mask. If none, drop event.</li>
+		 * that match the created mask and whose domain/host/agent criteria
+		 * can match the event's agent. If none, drop event.</li>
 		 * <li>For each {@link MetricURISubscription} in the returned iterator:
 		 * <ol>
 		 * <li>If the metric ID is already in the subscription's metric id set
 		 * (unlikely), then drops the event.</li>
 		 * <li>If the metric ID is <b>not</b> in the subscription's metric id
-		 * set, the subscription's criteria query is executed to see if the new
-		 * metric id is a member of the subscription.</li>
+		 * set, the subscription's compiled criteria are evaluated against the
+		 * event (or the criteria query is executed if they cannot be) to see if
+		 * the new metric id is a member of the subscription.</li>
 		 * <li>Once it has been determined that there is at least one interested
 		 * subscriber, the event is resolved into the actual {@link Metric}
 		 * instance.</li>
@@ -522,7 +727,7 @@ public class MetricURISubscriptionService extends ServerComponentBean implements
 		public void run() {
 			while (keepRunning) {
 				try {
-					Object[] newMetricEvent = NewElementTriggers.newMetricQueue.take();
+					Object[] newMetricEvent = consumer.take();
 					incr("NewMetricEvents");
 					final String newMetricStr = Arrays.toString(newMetricEvent);
 					debug("NewMetric:", newMetricStr);
@@ -530,9 +735,11 @@ public class MetricURISubscriptionService extends ServerComponentBean implements
 					long metricId = (Long) newMetricEvent[MetricTrigger.METRIC_COLUMN_ID];
 					int metricType = ((Number) newMetricEvent[MetricTrigger.TYPE_COLUMN_ID]).intValue();
 					Iterator<MetricURISubscription> subIter = MetricURISubscription.getMatchingSubscriptions(
-							org.helios.apmrouter.metric.MetricType.valueOf(metricType).getMask(),
-							EntryStatus.ALL_STATUS_MASK, // new metrics are always active, but we want the search to be neutral for status, so we turn all the bits on 
-							MetricURISubscriptionType.NEW_METRIC.getMask()
+							MetricURI.mask(
+								org.helios.apmrouter.metric.MetricType.valueOf(metricType).getMask(),
+								EntryStatus.ALL_STATUS_MASK, // new metrics are always active, but we want the search to be neutral for status, so we turn all the bits on 
+								MetricURISubscriptionType.NEW_METRIC.getMask()),
+							newMetricEvent, _catalogDataSource
 					);
 					
 					if (subIter == null) {
@@ -546,7 +753,7 @@ public class MetricURISubscriptionService extends ServerComponentBean implements
 						if (subscription.hasMetricId(metricId)) {
 							continue;
 						}
-						if (!subscription.resolveMembership(metricId, _catalogDataSource)) {
+						if (!subscription.resolveMembership(metricId, newMetricEvent, _catalogDataSource)) {
 							debug("Metric [", newMetricEvent[3] , "/", newMetricEvent[6], "] did not resolve for sub [", subscription.getMetricURI().getMetricUri(), "]");
 							continue;
 						}
@@ -598,6 +805,16 @@ public class MetricURISubscriptionService extends ServerComponentBean implements
 		final SessionFactory _sessionFactory = sessionFactory;
 		/** The catalog data source */
 		final DataSource _catalogDataSource = catalogDataSource;
+		/** The consumer of the metric state change queue shards pinned to this processor */
+		final ShardConsumer consumer;
+		
+		/**
+		 * Creates a new MetricStateChangeEventProcessor
+		 * @param consumer The consumer of the metric state change queue shards pinned to this processor
+		 */
+		MetricStateChangeEventProcessor(ShardConsumer consumer) {
+			this.consumer = consumer;
+		}
 
 		/**
 		 * Consumes events from the metric state change event queue and
@@ -609,12 +826,14 @@ public class MetricURISubscriptionService extends ServerComponentBean implements
 		 * <li>Builds a {@link MetricType}/{@link EntryStatus}/
 		 * {@link MetricURISubscriptionType} representing the consumed event.</li>
 		 * <li>Acquires an iterator of {@link MetricURISubscription} instances
-		 * that match the created mask. If none, drop event.</li>
+		 * that match the created mask and whose domain/host/agent criteria
+		 * can match the event's agent. If none, drop event.</li>
 		 * <li>For each {@link MetricURISubscription} in the returned iterator:
 		 * <ol>
 		 * <li>If the metric ID is <b>not</b> in the subscription's metric id
-		 * set, the subscription's criteria query is executed to see if the new
-		 * metric id is a member of the subscription.</li>
+		 * set, the subscription's compiled criteria are evaluated against the
+		 * event (or the criteria query is executed if they cannot be) to see if
+		 * the new metric id is a member of the subscription.</li>
 		 * <li>Once it has been determined that there is at least one interested
 		 * subscriber, the event is resolved into the actual {@link Metric}
 		 * instance.</li>
@@ -634,7 +853,7 @@ public class MetricURISubscriptionService extends ServerComponentBean implements
 		public void run() {
 			while (keepRunning) {
 				try {
-					Object[] metricStateChangeEvent = NewElementTriggers.metricStateChangeQueue.take();
+					Object[] metricStateChangeEvent = consumer.take();
 					incr("MetricStateChangeEvents");
 					final long startTime = System.nanoTime();
 					long metricId = (Long) metricStateChangeEvent[MetricTrigger.METRIC_COLUMN_ID];
@@ -644,10 +863,12 @@ public class MetricURISubscriptionService extends ServerComponentBean implements
 					// We're getting ALL, only filtering by metric type
 					Iterator<MetricURISubscription> subIter = MetricURISubscription
 							.getMatchingSubscriptions(
-									org.helios.apmrouter.metric.MetricType
-											.valueOf(metricType).getMask(),
-									EntryStatus.ALL_STATUS_MASK,
-									MetricURISubscriptionType.ALL_SUB_TYPES_MASK);
+									MetricURI.mask(
+											org.helios.apmrouter.metric.MetricType
+													.valueOf(metricType).getMask(),
+											EntryStatus.ALL_STATUS_MASK,
+											MetricURISubscriptionType.ALL_SUB_TYPES_MASK),
+									metricStateChangeEvent, _catalogDataSource);
 					if (subIter == null)
 						continue;
 					Metric lazyMetric = null;
@@ -674,7 +895,7 @@ public class MetricURISubscriptionService extends ServerComponentBean implements
 							continue;
 						}
 						if (!subscription.resolveMembership(metricId,
-								_catalogDataSource)) {
+								metricStateChangeEvent, _catalogDataSource)) {
 							// subscription did not have this metric, but
 							// resolveMembership determined it was not elligible
 							continue;
@@ -708,6 +929,40 @@ public class MetricURISubscriptionService extends ServerComponentBean implements
 		}
 	}
 
+	/**
+	 * Drains the coalesced real-time data events and sends each subscribed channel one frame.
+	 * Each event is marshalled once and the marshalled bytes are shared by every frame that carries it.
+	 * Channels that are not writable skip the frame rather than queueing behind a slow consumer; 
+	 * since only the latest value per metric is kept, they catch up on the next frame the metric updates in.
+	 */
+	protected void flushRealTimeDataFrames() {
+		if (pendingDataEvents.isEmpty()) return;
+		Map<ChannelJsonResponsePair, Map<Long, ChannelBuffer>> frames = new HashMap<ChannelJsonResponsePair, Map<Long, ChannelBuffer>>();
+		for (Long metricId : pendingDataEvents.keySet()) {
+			Object[] dataEvent = pendingDataEvents.remove(metricId.longValue());
+			if (dataEvent == null) continue;
+			Set<MetricURISubscription> subs = MetricURISubscription.getSubscriptionsForMetric(metricId);
+			if (subs == null || subs.isEmpty()) continue;
+			ChannelBuffer encoded = SharedJsonFrame.encode(dataEvent);
+			incr("RealTimeDataEventEncodes");
+			for (MetricURISubscription sub : subs) {
+				sub.collectRealTimeDataEvent(metricId, encoded, frames);
+			}
+			incr("RealTimeDataEventBroadcasts", subs.size());
+		}
+		final String type = MetricURIEvent.DATA_BATCH.getEventName();
+		for (Map.Entry<ChannelJsonResponsePair, Map<Long, ChannelBuffer>> frame : frames.entrySet()) {
+			ChannelJsonResponsePair pair = frame.getKey();
+			if (!pair.isOpen()) continue;
+			if (!pair.isWritable()) {
+				incr("RealTimeDataFramesThrottled");
+				continue;
+			}
+			pair.writeFrame(frame.getValue().values(), type, OpCode.ON_METRIC_URI_EVENT);
+			incr("RealTimeDataFrames");
+		}
+	}
+
 	/**
 	 * Looks up the {@link Metric} for the passed metric ID
 	 * 
@@ -1029,5 +1284,75 @@ public class MetricURISubscriptionService extends ServerComponentBean implements
 		return getMetricValue("RealTimeDataEvents");
 	} 
 	
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.apmrouter.dataservice.json.catalog.MetricURISubscriptionServiceMXBean#getRealTimeFrameWindow()
+	 */
+	@Override
+	@ManagedAttribute(description = "The real-time data frame window in ms. 0 sends each data event as it arrives. Changes take effect on the next start.")
+	public long getRealTimeFrameWindow() {
+		return realTimeFrameWindow;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.apmrouter.dataservice.json.catalog.MetricURISubscriptionServiceMXBean#setRealTimeFrameWindow(long)
+	 */
+	@Override
+	@ManagedAttribute(description = "The real-time data frame window in ms. 0 sends each data event as it arrives. Changes take effect on the next start.")
+	public void setRealTimeFrameWindow(long realTimeFrameWindow) {
+		this.realTimeFrameWindow = realTimeFrameWindow;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.apmrouter.dataservice.json.catalog.MetricURISubscriptionServiceMXBean#getPendingRealTimeDataEvents()
+	 */
+	@Override
+	@ManagedMetric(category = "RealTimeDataEvents", displayName = "PendingRealTimeDataEvents", metricType = MetricType.GAUGE, description = "The number of coalesced real-time data events waiting for the next frame")
+	public long getPendingRealTimeDataEvents() {
+		return pendingDataEvents.size();
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.apmrouter.dataservice.json.catalog.MetricURISubscriptionServiceMXBean#getRealTimeDataEventsCoalesced()
+	 */
+	@Override
+	@ManagedMetric(category = "RealTimeDataEvents", displayName = "RealTimeDataEventsCoalesced", metricType = MetricType.COUNTER, description = "The total number of real-time data events superseded by a later event for the same metric within a frame window")
+	public long getRealTimeDataEventsCoalesced() {
+		return getMetricValue("RealTimeDataEventsCoalesced");
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.apmrouter.dataservice.json.catalog.MetricURISubscriptionServiceMXBean#getRealTimeDataEventEncodes()
+	 */
+	@Override
+	@ManagedMetric(category = "RealTimeDataEvents", displayName = "RealTimeDataEventEncodes", metricType = MetricType.COUNTER, description = "The total number of real-time data events marshalled for framed fan-out")
+	public long getRealTimeDataEventEncodes() {
+		return getMetricValue("RealTimeDataEventEncodes");
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.apmrouter.dataservice.json.catalog.MetricURISubscriptionServiceMXBean#getRealTimeDataFrames()
+	 */
+	@Override
+	@ManagedMetric(category = "RealTimeDataEvents", displayName = "RealTimeDataFrames", metricType = MetricType.COUNTER, description = "The total number of real-time data frames written to channels")
+	public long getRealTimeDataFrames() {
+		return getMetricValue("RealTimeDataFrames");
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.apmrouter.dataservice.json.catalog.MetricURISubscriptionServiceMXBean#getRealTimeDataFramesThrottled()
+	 */
+	@Override
+	@ManagedMetric(category = "RealTimeDataEvents", displayName = "RealTimeDataFramesThrottled", metricType = MetricType.COUNTER, description = "The total number of real-time data frames skipped because the channel was not writable")
+	public long getRealTimeDataFramesThrottled() {
+		return getMetricValue("RealTimeDataFramesThrottled");
+	}
+	
 
 }
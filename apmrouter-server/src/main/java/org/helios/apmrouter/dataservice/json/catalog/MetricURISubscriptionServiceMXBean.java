@@ -87,6 +87,60 @@ public interface MetricURISubscriptionServiceMXBean extends ServerComponentBeanM
 	 */
 	public long getRealTimeDataEventQueueDepth();	
 	
+	/**
+	 * Returns the number of new metric events dropped because their queue shard was full
+	 * @return the number of new metric events dropped because their queue shard was full
+	 */
+	public long getNewMetricEventQueueDrops();
+	
+	/**
+	 * Returns the number of new metric events replaced in the queue by a later event for the same metric
+	 * @return the number of new metric events replaced in the queue by a later event for the same metric
+	 */
+	public long getNewMetricEventQueueCoalesced();
+	
+	/**
+	 * Returns the number of pending new metric events in the most backed up queue shard
+	 * @return the number of pending new metric events in the most backed up queue shard
+	 */
+	public long getNewMetricEventQueueLag();
+	
+	/**
+	 * Returns the number of metric state change events dropped because their queue shard was full
+	 * @return the number of metric state change events dropped because their queue shard was full
+	 */
+	public long getMetricStateChangeEventQueueDrops();
+	
+	/**
+	 * Returns the number of metric state change events replaced in the queue by a later event for the same metric
+	 * @return the number of metric state change events replaced in the queue by a later event for the same metric
+	 */
+	public long getMetricStateChangeEventQueueCoalesced();
+	
+	/**
+	 * Returns the number of pending metric state change events in the most backed up queue shard
+	 * @return the number of pending metric state change events in the most backed up queue shard
+	 */
+	public long getMetricStateChangeEventQueueLag();
+	
+	/**
+	 * Returns the number of real-time data events dropped because their queue shard was full
+	 * @return the number of real-time data events dropped because their queue shard was full
+	 */
+	public long getRealTimeDataEventQueueDrops();
+	
+	/**
+	 * Returns the number of real-time data events replaced in the queue by a later event for the same metric
+	 * @return the number of real-time data events replaced in the queue by a later event for the same metric
+	 */
+	public long getRealTimeDataEventQueueCoalesced();
+	
+	/**
+	 * Returns the number of pending real-time data events in the most backed up queue shard
+	 * @return the number of pending real-time data events in the most backed up queue shard
+	 */
+	public long getRealTimeDataEventQueueLag();
+	
 	
 	/**
 	 * Returns the number of new metric event queue processing threads
@@ -124,6 +178,18 @@ public interface MetricURISubscriptionServiceMXBean extends ServerComponentBeanM
 	 */
 	public long getNewMetricBroadcasts();
 	
+	/**
+	 * Returns the number of subscription membership resolutions decided in memory
+	 * @return the number of subscription membership resolutions decided in memory
+	 */
+	public long getInMemoryMembershipResolutions();
+	
+	/**
+	 * Returns the number of subscription membership resolutions that queried the catalog
+	 * @return the number of subscription membership resolutions that queried the catalog
+	 */
+	public long getSqlMembershipResolutions();
+	
 	/**
 	 * Returns the number of broadcast real-time data events"
 	 * @return the number of broadcast real-time data events"
@@ -228,6 +294,48 @@ public interface MetricURISubscriptionServiceMXBean extends ServerComponentBeanM
 	 */
 	public long getRealTimeDataEvents(); 
 	
+	/**
+	 * Returns the real-time data frame window in ms.
+	 * @return the real-time data frame window in ms.
+	 */
+	public long getRealTimeFrameWindow();
+	
+	/**
+	 * Sets the real-time data frame window in ms. 0 sends each data event as it arrives. Takes effect on the next start.
+	 * @param realTimeFrameWindow the real-time data frame window in ms.
+	 */
+	public void setRealTimeFrameWindow(long realTimeFrameWindow);
+	
+	/**
+	 * Returns the number of coalesced real-time data events waiting for the next frame
+	 * @return the number of pending real-time data events
+	 */
+	public long getPendingRealTimeDataEvents();
+	
+	/**
+	 * Returns the total number of real-time data events superseded by a later event for the same metric within a frame window
+	 * @return the number of coalesced real-time data events
+	 */
+	public long getRealTimeDataEventsCoalesced();
+	
+	/**
+	 * Returns the total number of real-time data events marshalled for framed fan-out
+	 * @return the number of real-time data event encodes
+	 */
+	public long getRealTimeDataEventEncodes();
+	
+	/**
+	 * Returns the total number of real-time data frames written to channels
+	 * @return the number of real-time data frames
+	 */
+	public long getRealTimeDataFrames();
+	
+	/**
+	 * Returns the total number of real-time data frames skipped because the channel was not writable
+	 * @return the number of throttled real-time data frames
+	 */
+	public long getRealTimeDataFramesThrottled();
+	
 	/**
 	 * Returns the total number of metric state change events received
 	 * @return the total number of metric state change events received
@@ -29,6 +29,7 @@ import java.sql.Connection;
 import java.sql.ResultSet;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashSet;
 import java.util.Map;
 import java.util.Set;
@@ -41,6 +42,8 @@ import org.helios.apmrouter.collections.ILongSlidingWindow;
 import org.helios.apmrouter.dataservice.json.JSONRequestHandler;
 import org.helios.apmrouter.dataservice.json.JsonRequest;
 import org.helios.apmrouter.dataservice.json.marshalling.GSONJSONMarshaller;
+import org.helios.apmrouter.destination.chronicletimeseries.ChronicleTSManager;
+import org.helios.apmrouter.destination.chronicletimeseries.ChronicleTier;
 import org.helios.apmrouter.destination.h2timeseries.H2TimeSeriesDestination;
 import org.helios.apmrouter.server.ServerComponentBean;
 import org.helios.apmrouter.util.SystemClock;
@@ -66,6 +69,8 @@ public class H2TimeSeriesJSONDataService extends ServerComponentBean {
 	protected H2TimeSeriesDestination h2Dest = null;
 	/** The GSON marshaller */
 	protected GSONJSONMarshaller gsonMarshaller = null;
+	/** The chronicle time-series manager whose live tier is read directly, or null to query through H2 */
+	protected ChronicleTSManager timeSeriesManager = null;
 	/** The time-series STEP in ms. */
 	protected long step = -1;
 	/** The time-series WIDTH */
@@ -82,6 +87,11 @@ public class H2TimeSeriesJSONDataService extends ServerComponentBean {
 	protected final ILongSlidingWindow lastElapsedLiveData = new ConcurrentLongSlidingWindow(60);
 
 
+	/** The liveData argument name for the response format */
+	public static final String FORMAT_ARG = "FMT";
+	/** The liveData response format value requesting a single binary {@link LiveDataFrame} */
+	public static final String FORMAT_BINARY = "bin";
+
 	/** The column ID for the agent */
 	public static final int AGENT_ID = 1;
 	/** The column ID for the type */
@@ -124,7 +134,9 @@ public class H2TimeSeriesJSONDataService extends ServerComponentBean {
 	}
 
 	/**
-	 * Returns live time-series data
+	 * Returns live time-series data. When the chronicle time-series manager is available the series are read straight
+	 * from the live tier's memory mapped entries, and if the request's <b><code>FMT</code></b> argument is <b><code>bin</code></b>,
+	 * all the series are written as one binary {@link LiveDataFrame}. Otherwise each series is written as a JSON response.
 	 * @param request The JSON request
 	 * @param channel The channel to respond on
 	 */
@@ -136,6 +148,44 @@ public class H2TimeSeriesJSONDataService extends ServerComponentBean {
 			channel.write(request.response().setContent("NOOP"));
 			return;
 		}
+		final ChronicleTier tier = timeSeriesManager==null ? null : timeSeriesManager.getLiveTier();
+		if(tier!=null) {
+			try {
+				final boolean binary = FORMAT_BINARY.equals(request.getArgument(FORMAT_ARG));
+				final long oldestPeriod = SystemClock.time()-oldestLive;
+				final long[] periods = new long[tier.getPeriodCount() * LiveDataFrame.PERIOD_SIZE];
+				final LiveDataFrame frame = binary ? new LiveDataFrame(request.rid, step, width, ids.length()) : null;
+				for(int i = 0; i < ids.length(); i++) {
+					final long id = ids.getLong(i);
+					int count = 0;
+					try {
+						count = tier.readPeriods(id, oldestPeriod, periods);
+					} catch (IllegalArgumentException iae) {
+						/* Unknown metric ID, sent as an empty series */
+					}
+					if(binary) {
+						frame.add(id, periods, count);
+					} else if(count>0) {
+						long[][] series = new long[count][];
+						for(int p = 0; p < count; p++) {
+							series[p] = new long[LiveDataFrame.PERIOD_SIZE];
+							System.arraycopy(periods, p * LiveDataFrame.PERIOD_SIZE, series[p], 0, LiveDataFrame.PERIOD_SIZE);
+						}
+						channel.write(request.response().setContent(new Object[]{id, stepWidth, series}));
+					}
+				}
+				if(binary) {
+					channel.write(frame.toFrame());
+					incr("BinaryLiveDataFrames");
+				}
+				incr("DirectLiveDataRequests");
+				lastElapsedLiveData.insert(SystemClock.endTimer().elapsedNs);
+			} catch (Exception ex) {
+				error("Failed to read livedata for ", ids, "]", ex);
+				channel.write(request.response().setContent(ex.toString()));
+			}
+			return;
+		}
 		
 		Connection conn = null;
 		CallableStatement cs = null;
@@ -251,6 +301,36 @@ public class H2TimeSeriesJSONDataService extends ServerComponentBean {
 	
 	
 	
+	/**
+	 * Returns the number of liveData requests read directly from the chronicle live tier
+	 * @return the number of direct liveData requests
+	 */
+	@ManagedMetric(category="H2TimeSeriesJSONDataService", displayName="DirectLiveDataRequests", metricType=MetricType.COUNTER, description="the number of liveData requests read directly from the chronicle live tier")
+	public long getDirectLiveDataRequests() {
+		return getMetricValue("DirectLiveDataRequests");
+	}
+	
+	/**
+	 * Returns the number of binary liveData frames sent
+	 * @return the number of binary liveData frames sent
+	 */
+	@ManagedMetric(category="H2TimeSeriesJSONDataService", displayName="BinaryLiveDataFrames", metricType=MetricType.COUNTER, description="the number of binary liveData frames sent")
+	public long getBinaryLiveDataFrames() {
+		return getMetricValue("BinaryLiveDataFrames");
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.apmrouter.server.ServerComponent#getSupportedMetricNames()
+	 */
+	@Override
+	public Set<String> getSupportedMetricNames() {
+		Set<String> _metrics = new HashSet<String>(super.getSupportedMetricNames());
+		_metrics.add("DirectLiveDataRequests");
+		_metrics.add("BinaryLiveDataFrames");
+		return _metrics;
+	}
+	
 	/**
 	 * {@inheritDoc}
 	 * @see org.helios.apmrouter.server.ServerComponent#resetMetrics()
@@ -287,5 +367,14 @@ public class H2TimeSeriesJSONDataService extends ServerComponentBean {
 	public void setGsonMarshaller(GSONJSONMarshaller gsonMarshaller) {
 		this.gsonMarshaller = gsonMarshaller;
 	}
+
+	/**
+	 * Sets the chronicle time-series manager whose live tier liveData reads directly
+	 * @param timeSeriesManager the chronicle time-series manager
+	 */
+	@Autowired(required=false)
+	public void setTimeSeriesManager(ChronicleTSManager timeSeriesManager) {
+		this.timeSeriesManager = timeSeriesManager;
+	}
 	
 }
@@ -0,0 +1,140 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.apmrouter.dataservice.json.h2timeseries;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.handler.codec.http.websocketx.BinaryWebSocketFrame;
+
+/**
+ * <p>Title: LiveDataFrame</p>
+ * <p>Description: Encodes a liveData response as a single compact binary websocket frame. All multi-byte values after 
+ * the fixed head are base 128 varints, and signed values are zigzag encoded first. Each point's timestamp is the delta
+ * from the prior point's timestamp, starting from zero, so a regular series costs one or two bytes per timestamp.</p>
+ * <pre>
+ * byte     FRAME_TYPE ('L')
+ * byte     VERSION
+ * long     request id
+ * varint   step (ms)
+ * varint   width
+ * varint   metric count
+ * per metric:
+ *    varint   metric id
+ *    varint   point count
+ *    per point:
+ *       zigzag   timestamp delta
+ *       zigzag   min
+ *       zigzag   max
+ *       zigzag   avg
+ *       varint   count
+ * </pre>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.apmrouter.dataservice.json.h2timeseries.LiveDataFrame</code></p>
+ */
+public class LiveDataFrame {
+	/** The frame buffer */
+	protected final ChannelBuffer buffer;
+	/** The number of declared metrics not yet added */
+	protected int metricCount = 0;
+	
+	/** The frame type marker */
+	public static final byte FRAME_TYPE = 'L';
+	/** The frame layout version */
+	public static final byte VERSION = 1;
+	/** The number of longs in each period group */
+	public static final int PERIOD_SIZE = 5;
+
+	/**
+	 * Creates a new LiveDataFrame
+	 * @param requestId The client provided request ID this frame responds to
+	 * @param step The time-series step in ms.
+	 * @param width The time-series width
+	 * @param metrics The number of metrics that will be added
+	 */
+	public LiveDataFrame(long requestId, long step, long width, int metrics) {
+		buffer = ChannelBuffers.dynamicBuffer(32 + (metrics * 64));
+		buffer.writeByte(FRAME_TYPE);
+		buffer.writeByte(VERSION);
+		buffer.writeLong(requestId);
+		writeVarLong(buffer, step);
+		writeVarLong(buffer, width);
+		writeVarLong(buffer, metrics);
+		metricCount = metrics;
+	}
+	
+	/**
+	 * Appends a metric's series to the frame
+	 * @param metricId The metric ID
+	 * @param periods The series as consecutive <b><code>{PERIOD, MIN, MAX, AVG, CNT}</code></b> groups, oldest first
+	 * @param count The number of period groups in the array
+	 */
+	public void add(long metricId, long[] periods, int count) {
+		if(metricCount--<1) throw new IllegalStateException("More metrics added than declared", new Throwable());
+		writeVarLong(buffer, metricId);
+		writeVarLong(buffer, count);
+		long priorTs = 0;
+		for(int i = 0; i < count; i++) {
+			final int offset = i * PERIOD_SIZE;
+			writeZigZag(buffer, periods[offset] - priorTs);
+			priorTs = periods[offset];
+			writeZigZag(buffer, periods[offset+1]);
+			writeZigZag(buffer, periods[offset+2]);
+			writeZigZag(buffer, periods[offset+3]);
+			writeVarLong(buffer, periods[offset+4]);
+		}
+	}
+	
+	/**
+	 * Completes the frame
+	 * @return the binary websocket frame
+	 */
+	public BinaryWebSocketFrame toFrame() {
+		if(metricCount!=0) throw new IllegalStateException("[" + metricCount + "] declared metrics were not added", new Throwable());
+		return new BinaryWebSocketFrame(buffer);
+	}
+	
+	/**
+	 * Writes a zigzag encoded signed varint
+	 * @param buffer The buffer to write to
+	 * @param value The value to write
+	 */
+	public static void writeZigZag(ChannelBuffer buffer, long value) {
+		writeVarLong(buffer, (value << 1) ^ (value >> 63));
+	}
+	
+	/**
+	 * Writes an unsigned base 128 varint
+	 * @param buffer The buffer to write to
+	 * @param value The value to write, treated as unsigned
+	 */
+	public static void writeVarLong(ChannelBuffer buffer, long value) {
+		while((value & ~0x7FL)!=0) {
+			buffer.writeByte((int)((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		buffer.writeByte((int)value);
+	}
+}
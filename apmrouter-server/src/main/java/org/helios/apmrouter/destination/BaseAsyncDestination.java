@@ -28,7 +28,11 @@ import java.util.Collection;
 import java.util.concurrent.TimeUnit;
 
 import org.helios.apmrouter.collections.ConcurrentLongSlidingWindow;
+import org.helios.apmrouter.collections.LatencyHistogram;
+import org.helios.apmrouter.destination.accumulator.EnqueueResult;
 import org.helios.apmrouter.destination.accumulator.FlushQueueReceiver;
+import org.helios.apmrouter.destination.accumulator.IMetricSpillCodec;
+import org.helios.apmrouter.destination.accumulator.OverflowPolicy;
 import org.helios.apmrouter.destination.accumulator.TimeSizeFlushQueue;
 import org.helios.apmrouter.metric.IMetric;
 import org.helios.apmrouter.util.SystemClock;
@@ -51,9 +55,15 @@ public abstract class BaseAsyncDestination extends BaseDestination implements Fl
 	protected int sizeTrigger = 75;
 	/** The queue's time flush trigger */
 	protected long timeTrigger = 5000;
+	/** The queue's capacity. If less than the size trigger, the size trigger + 2 is used. */
+	protected int queueCapacity = 0;
+	/** The policy applied when the queue is full */
+	protected OverflowPolicy overflowPolicy = OverflowPolicy.DROP;
+	/** The time in ms. a stop waits for an in flight flush */
+	public static final long FLUSH_STOP_TIMEOUT = 5000L;
 	
-	/** A sliding window of flush elapsed times */
-	protected final ConcurrentLongSlidingWindow flushElapsedTimes = new ConcurrentLongSlidingWindow(20); 
+	/** A histogram of flush elapsed times in ns. */
+	protected final LatencyHistogram flushElapsedTimes = new LatencyHistogram(); 
 	/** A sliding window of flush sizes */
 	protected final ConcurrentLongSlidingWindow flushSize = new ConcurrentLongSlidingWindow(20); 
 	
@@ -63,8 +73,8 @@ public abstract class BaseAsyncDestination extends BaseDestination implements Fl
 	 */
 	@Override
 	protected void doStart() throws Exception {		
-		flushQueue = new TimeSizeFlushQueue<IMetric>(beanName, sizeTrigger, timeTrigger, this);
-		info("Created flush queue for [", beanName, "]\n\tST:", sizeTrigger, "\n\tTT:", timeTrigger);
+		flushQueue = new TimeSizeFlushQueue<IMetric>(beanName, sizeTrigger, timeTrigger, queueCapacity, overflowPolicy, IMetricSpillCodec.INSTANCE, this);
+		info("Created flush queue for [", beanName, "]\n\tST:", sizeTrigger, "\n\tTT:", timeTrigger, "\n\tCapacity:", flushQueue.getCapacity(), "\n\tOverflow:", overflowPolicy);
 		super.doStart();
 	}
 	
@@ -74,8 +84,17 @@ public abstract class BaseAsyncDestination extends BaseDestination implements Fl
 	 */
 	@Override
 	protected void doStop() {
-		 flushQueue = null;
-		 super.doStop();
+		TimeSizeFlushQueue<IMetric> queue = flushQueue;
+		flushQueue = null;
+		if(queue!=null) {
+			if(!queue.awaitFlushes(FLUSH_STOP_TIMEOUT)) {
+				warn("Timed out waiting for the in flight flush of [", beanName, "]");
+			}
+			queue.run();
+			// cancels the flush timer and unmaps and deletes the spill file
+			queue.stop();
+		}
+		super.doStop();
 	}
 	
 	/**
@@ -85,14 +104,38 @@ public abstract class BaseAsyncDestination extends BaseDestination implements Fl
 	@Override
 	protected void doAcceptRoute(IMetric routable) {
 		if(routable!=null) {
-			if(flushQueue.add(routable)) {
+			EnqueueResult result = flushQueue.enqueue(routable);
+			if(result.isAccepted()) {
 				incr("QueuedRoutes");
+				if(result.isBackPressure()) incr("BackPressuredRoutes");
 			} else {
 				incr("DroppedRoutes");
 			}
 		}
 	}
 	
+	/**
+	 * Batch Accept Route additive for BaseDestination extensions. Queues each metric and updates the route counters once for the batch.
+	 * @param routables The pattern matched metrics to route
+	 */
+	@Override
+	protected void doAcceptRoutes(Collection<IMetric> routables) {
+		int queued = 0, backPressured = 0, dropped = 0;
+		for(IMetric routable: routables) {
+			if(routable==null) continue;
+			EnqueueResult result = flushQueue.enqueue(routable);
+			if(result.isAccepted()) {
+				queued++;
+				if(result.isBackPressure()) backPressured++;
+			} else {
+				dropped++;
+			}
+		}
+		if(queued>0) incr("QueuedRoutes", queued);
+		if(backPressured>0) incr("BackPressuredRoutes", backPressured);
+		if(dropped>0) incr("DroppedRoutes", dropped);
+	}
+	
 	/**
 	 * Returns the number messages queued by this destination
 	 * @return the number messages queued by this destination
@@ -122,21 +165,75 @@ public abstract class BaseAsyncDestination extends BaseDestination implements Fl
 	}
 	
 	/**
-	 * Returns the rolling average elapsed flush time in ns.
-	 * @return the rolling average elapsed flush time in ns.
+	 * Returns the number messages queued by this destination after waiting for, or spilling from, a full queue because the flush is not keeping up
+	 * @return the number back-pressured messages
 	 */
-	@ManagedMetric(category="AsyncRoutingDestinations", metricType=MetricType.GAUGE, description="The rolling average elapsed flush time in ns.", displayName="AverageElapsedFlushTimeNs")
+	@ManagedMetric(category="AsyncRoutingDestinations", metricType=MetricType.COUNTER, description="The number messages queued after waiting for, or spilling from, a full queue", displayName="BackPressuredRoutes")
+	public long getBackPressuredRouteCount() {
+		return getMetricValue("BackPressuredRoutes");
+	}
+	
+	/**
+	 * Returns the number of messages in the flush queue's spill file
+	 * @return the number of spilled messages waiting to be flushed
+	 */
+	@ManagedMetric(category="AsyncRoutingDestinations", metricType=MetricType.GAUGE, description="The number of spilled messages waiting to be flushed", displayName="SpilledRoutes")
+	public long getSpillQueueDepth() {
+		return flushQueue==null ? 0 : flushQueue.getSpillQueueSize();
+	}
+	
+	/**
+	 * Returns the average elapsed flush time in ns. over the last interval
+	 * @return the average elapsed flush time in ns.
+	 */
+	@ManagedMetric(category="AsyncRoutingDestinations", metricType=MetricType.GAUGE, description="The average elapsed flush time in ns. over the last interval", displayName="AverageElapsedFlushTimeNs")
 	public long getAverageElapsedFlushTimeNs() {
-		return flushElapsedTimes.avg();
+		return flushElapsedTimes.getMean();
 	}	
 	
 	/**
-	 * Returns the rolling average elapsed flush time in ms.
-	 * @return the rolling average elapsed flush time in ms.
+	 * Returns the average elapsed flush time in ms. over the last interval
+	 * @return the average elapsed flush time in ms.
 	 */
-	@ManagedMetric(category="AsyncRoutingDestinations", metricType=MetricType.GAUGE, description="The rolling average elapsed flush time in ms.", displayName="AverageElapsedFlushTimeMs")
+	@ManagedMetric(category="AsyncRoutingDestinations", metricType=MetricType.GAUGE, description="The average elapsed flush time in ms. over the last interval", displayName="AverageElapsedFlushTimeMs")
 	public long getAverageElapsedFlushTimeMs() {
-		return TimeUnit.MILLISECONDS.convert(flushElapsedTimes.avg(), TimeUnit.NANOSECONDS);
+		return LatencyHistogram.toMs(flushElapsedTimes.getMean());
+	}	
+	
+	/**
+	 * Returns the median elapsed flush time in ns. over the last interval
+	 * @return the median elapsed flush time in ns. or -1 if there were no flushes
+	 */
+	@ManagedMetric(category="AsyncRoutingDestinations", metricType=MetricType.GAUGE, description="The median elapsed flush time in ns. over the last interval", displayName="ElapsedFlushTimeNsP50")
+	public long getElapsedFlushTimeNsP50() {
+		return flushElapsedTimes.getP50();
+	}	
+	
+	/**
+	 * Returns the 99th percentile elapsed flush time in ns. over the last interval
+	 * @return the 99th percentile elapsed flush time in ns. or -1 if there were no flushes
+	 */
+	@ManagedMetric(category="AsyncRoutingDestinations", metricType=MetricType.GAUGE, description="The 99th percentile elapsed flush time in ns. over the last interval", displayName="ElapsedFlushTimeNsP99")
+	public long getElapsedFlushTimeNsP99() {
+		return flushElapsedTimes.getP99();
+	}	
+	
+	/**
+	 * Returns the 99.9th percentile elapsed flush time in ns. over the last interval
+	 * @return the 99.9th percentile elapsed flush time in ns. or -1 if there were no flushes
+	 */
+	@ManagedMetric(category="AsyncRoutingDestinations", metricType=MetricType.GAUGE, description="The 99.9th percentile elapsed flush time in ns. over the last interval", displayName="ElapsedFlushTimeNsP999")
+	public long getElapsedFlushTimeNsP999() {
+		return flushElapsedTimes.getP999();
+	}	
+	
+	/**
+	 * Returns the maximum elapsed flush time in ns. over the last interval
+	 * @return the maximum elapsed flush time in ns. or -1 if there were no flushes
+	 */
+	@ManagedMetric(category="AsyncRoutingDestinations", metricType=MetricType.GAUGE, description="The maximum elapsed flush time in ns. over the last interval", displayName="ElapsedFlushTimeNsMax")
+	public long getElapsedFlushTimeNsMax() {
+		return flushElapsedTimes.getMax();
 	}	
 	
 	/**
@@ -145,7 +242,7 @@ public abstract class BaseAsyncDestination extends BaseDestination implements Fl
 	 */
 	@ManagedMetric(category="AsyncRoutingDestinations", metricType=MetricType.GAUGE, description="The last elapsed flush time in ns.", displayName="LastElapsedFlushTimeNs")
 	public long getLastElapsedFlushTimeNs() {
-		return flushElapsedTimes.isEmpty() ? -1L : flushElapsedTimes.get(0);
+		return flushElapsedTimes.getLast();
 	}	
 	
 	/**
@@ -198,8 +295,7 @@ public abstract class BaseAsyncDestination extends BaseDestination implements Fl
 		final long start = System.nanoTime();
 		doFlush(flushedItems);
 		flushedItems.clear();
-		final long elapsed = System.nanoTime()-start;
-		flushElapsedTimes.insert(elapsed);
+		flushElapsedTimes.recordSince(start);
 	}	
 	
 	/**
@@ -246,6 +342,41 @@ public abstract class BaseAsyncDestination extends BaseDestination implements Fl
 		if(flushQueue!=null) flushQueue.setTimeTrigger(time);
 	}
 	
+	/**
+	 * Returns the flush queue capacity
+	 * @return the flush queue capacity
+	 */
+	@ManagedAttribute(description="The flush queue capacity")
+	public int getQueueCapacity() {
+		if(flushQueue==null) return queueCapacity;
+		return flushQueue.getCapacity();
+	}
+	
+	/**
+	 * Sets the flush queue capacity. Applied when the destination starts.
+	 * @param queueCapacity the flush queue capacity
+	 */
+	public void setQueueCapacity(int queueCapacity) {
+		this.queueCapacity = queueCapacity;
+	}
+	
+	/**
+	 * Returns the name of the policy applied when the flush queue is full
+	 * @return the overflow policy name
+	 */
+	@ManagedAttribute(description="The policy applied when the flush queue is full")
+	public String getOverflowPolicy() {
+		return overflowPolicy.name();
+	}
+	
+	/**
+	 * Sets the policy applied when the flush queue is full. One of BLOCK, DROP or SPILL. Applied when the destination starts.
+	 * @param overflowPolicy the overflow policy name
+	 */
+	public void setOverflowPolicy(String overflowPolicy) {
+		this.overflowPolicy = OverflowPolicy.forName(overflowPolicy);
+	}
+	
 	/**
 	 * Creates a new BaseAsyncDestination
 	 * @param patterns The patterns this destination accepts
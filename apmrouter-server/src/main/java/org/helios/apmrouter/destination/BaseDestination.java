@@ -32,13 +32,16 @@ import java.util.concurrent.CopyOnWriteArraySet;
 
 import javax.management.ObjectName;
 
+import org.helios.apmrouter.destination.event.DestinationPatternsChangedEvent;
 import org.helios.apmrouter.destination.event.DestinationStartedEvent;
 import org.helios.apmrouter.destination.event.DestinationStoppedEvent;
 import org.helios.apmrouter.jmx.JMXHelper;
 import org.helios.apmrouter.metric.IMetric;
+import org.helios.apmrouter.router.ConflatingRouteDestination;
 import org.helios.apmrouter.router.PatternMatch;
 import org.helios.apmrouter.router.PatternMatch.PatternMatchGroup;
 import org.helios.apmrouter.router.RouteDestination;
+import org.helios.apmrouter.server.MetricCounter;
 import org.helios.apmrouter.server.ServerComponentBean;
 import org.springframework.jmx.export.annotation.ManagedAttribute;
 import org.springframework.jmx.export.annotation.ManagedMetric;
@@ -53,11 +56,15 @@ import org.springframework.jmx.support.MetricType;
  * <p><code>org.helios.apmrouter.destination.BaseDestination</code></p>
  */
 
-public class BaseDestination extends ServerComponentBean implements RouteDestination<IMetric> {
+public class BaseDestination extends ServerComponentBean implements RouteDestination<IMetric>, ConflatingRouteDestination {
 	/** The pattern match group for this destination */
 	protected final PatternMatchGroup pmg;
 	/** The match patterns for this destination */
 	protected final Set<String> matchPatterns = new CopyOnWriteArraySet<String>();
+	/** The accepted routes counter */
+	protected final MetricCounter acceptedRoutes = counter("AcceptedRoutes");
+	/** Indicates if this destination receives conflated metrics instead of raw samples */
+	protected volatile boolean conflate = false;
 	
 	
 	/**
@@ -128,6 +135,38 @@ public class BaseDestination extends ServerComponentBean implements RouteDestina
 					matchPatterns.add(s.trim());
 				}
 			}
+			firePatternsChanged();
+		}
+	}
+	
+	/**
+	 * Publishes a {@link DestinationPatternsChangedEvent} if this destination is started so the router discards its cached routes
+	 */
+	protected void firePatternsChanged() {
+		if(isStarted() && applicationContext!=null) {
+			applicationContext.publishEvent(new DestinationPatternsChangedEvent(this, beanName));
+		}
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.apmrouter.router.ConflatingRouteDestination#isConflate()
+	 */
+	@Override
+	@ManagedAttribute(description="Indicates if this destination receives conflated metrics instead of raw samples")
+	public boolean isConflate() {
+		return conflate;
+	}
+	
+	/**
+	 * Sets whether this destination receives conflated metrics instead of raw samples
+	 * @param conflate true to receive one conflated metric per metric and conflation period, false to receive every raw sample
+	 */
+	@ManagedAttribute(description="Indicates if this destination receives conflated metrics instead of raw samples")
+	public void setConflate(boolean conflate) {
+		if(this.conflate!=conflate) {
+			this.conflate = conflate;
+			firePatternsChanged();
 		}
 	}
 	
@@ -150,6 +189,7 @@ public class BaseDestination extends ServerComponentBean implements RouteDestina
 		if(pattern!=null) {
 			if(pmg.add(pattern.trim())) {
 				matchPatterns.add(pattern.trim());
+				firePatternsChanged();
 			}			
 		}
 	}
@@ -161,8 +201,10 @@ public class BaseDestination extends ServerComponentBean implements RouteDestina
 	@ManagedOperation
 	public void removeMatchPattern(String pattern) {
 		if(pattern!=null) {
-			pmg.remove(pattern.trim());
-			matchPatterns.remove(pattern.trim());
+			if(pmg.remove(pattern.trim())) {
+				matchPatterns.remove(pattern.trim());
+				firePatternsChanged();
+			}
 		}			
 	}
 	
@@ -188,12 +230,33 @@ public class BaseDestination extends ServerComponentBean implements RouteDestina
 		if(routable.hasTXContext()) {
 			//info("TXContext[", routable.getTXContext(), "]");
 		}
-		if(pmg.matches(routable.getRoutingKey())) {
-			incr("AcceptedRoutes");
+		if(matches(routable)) {
+			acceptedRoutes.increment();
 			doAcceptRoute(routable);
 		}		
 	}
 	
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.apmrouter.router.RouteDestination#matches(org.helios.apmrouter.router.Routable)
+	 */
+	@Override
+	public boolean matches(IMetric routable) {
+		return pmg.matches(routable.getRoutingKey());
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * <p>The batch has already been matched against this destination's patterns by the router and is passed straight to {@link #doAcceptRoutes(Collection)}.
+	 * @see org.helios.apmrouter.router.RouteDestination#acceptRoutes(java.util.Collection)
+	 */
+	@Override
+	public void acceptRoutes(Collection<IMetric> routables) {
+		if(routables==null || routables.isEmpty()) return;
+		acceptedRoutes.add(routables.size());
+		doAcceptRoutes(routables);
+	}
+	
 	/**
 	 * Accept Route additive for BaseDestination extensions
 	 * @param routable The metric to route
@@ -202,6 +265,53 @@ public class BaseDestination extends ServerComponentBean implements RouteDestina
 		
 	}
 	
+	/**
+	 * Batch Accept Route additive for BaseDestination extensions. 
+	 * The default implementation calls {@link #doAcceptRoute(IMetric)} for each metric.
+	 * @param routables The pattern matched metrics to route
+	 */
+	protected void doAcceptRoutes(Collection<IMetric> routables) {
+		for(IMetric routable: routables) {
+			doAcceptRoute(routable);
+		}
+	}
+	
+	/**
+	 * Returns the number of pattern match cache lookups that found a cached result
+	 * @return the number of pattern match cache hits
+	 */
+	@ManagedMetric(category="RoutingDestinations", metricType=MetricType.COUNTER, description="The number of pattern match cache lookups that found a cached result")
+	public long getPatternCacheHits() {
+		return pmg.getCacheHits();
+	}
+	
+	/**
+	 * Returns the number of pattern match cache lookups that found no cached result
+	 * @return the number of pattern match cache misses
+	 */
+	@ManagedMetric(category="RoutingDestinations", metricType=MetricType.COUNTER, description="The number of pattern match cache lookups that found no cached result")
+	public long getPatternCacheMisses() {
+		return pmg.getCacheMisses();
+	}
+	
+	/**
+	 * Returns the number of pattern match results evicted from the cache
+	 * @return the number of pattern match cache evictions
+	 */
+	@ManagedMetric(category="RoutingDestinations", metricType=MetricType.COUNTER, description="The number of pattern match results evicted from the cache")
+	public long getPatternCacheEvictions() {
+		return pmg.getCacheEvictions();
+	}
+	
+	/**
+	 * Returns the number of routing key hash code collisions detected by the pattern match cache
+	 * @return the number of pattern match cache collisions
+	 */
+	@ManagedMetric(category="RoutingDestinations", metricType=MetricType.COUNTER, description="The number of routing key hash code collisions detected by the pattern match cache")
+	public long getPatternCacheCollisions() {
+		return pmg.getCacheCollisions();
+	}
+	
 	/**
 	 * Returns the number messages accepted by this destination
 	 * @return the number messages accepted by this destination
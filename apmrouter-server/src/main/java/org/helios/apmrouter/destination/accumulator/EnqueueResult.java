@@ -0,0 +1,71 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.apmrouter.destination.accumulator;
+
+/**
+ * <p>Title: EnqueueResult</p>
+ * <p>Description: Enumerates the outcomes of adding an item to a {@link TimeSizeFlushQueue}, 
+ * so callers can tell a slow downstream (back-pressure) from a full queue (drop).</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.apmrouter.destination.accumulator.EnqueueResult</code></p>
+ */
+
+public enum EnqueueResult {
+	/** The item was queued without waiting */
+	QUEUED(true, false),
+	/** The item was queued after waiting for the flush to make space */
+	DELAYED(true, true),
+	/** The queue was full and the item was written to the spill file */
+	SPILLED(true, true),
+	/** The queue was full and the item was dropped */
+	DROPPED(false, false);
+	
+	private EnqueueResult(boolean accepted, boolean backPressure) {
+		this.accepted = accepted;
+		this.backPressure = backPressure;
+	}
+	
+	/** Indicates if the item was accepted */
+	private final boolean accepted;
+	/** Indicates if the item was accepted under back-pressure from a slow flush */
+	private final boolean backPressure;
+	
+	/**
+	 * Indicates if the item was accepted and will be flushed
+	 * @return true if the item was accepted, false if it was dropped
+	 */
+	public boolean isAccepted() {
+		return accepted;
+	}
+	
+	/**
+	 * Indicates if the item was accepted under back-pressure, i.e. the queue was full because the flush is not keeping up
+	 * @return true if the item was delayed or spilled
+	 */
+	public boolean isBackPressure() {
+		return backPressure;
+	}
+}
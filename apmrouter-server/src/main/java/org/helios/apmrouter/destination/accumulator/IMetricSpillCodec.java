@@ -0,0 +1,102 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.apmrouter.destination.accumulator;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+import org.helios.apmrouter.metric.ICEMetric;
+import org.helios.apmrouter.metric.IMetric;
+import org.helios.apmrouter.metric.MetricType;
+import org.helios.apmrouter.metric.catalog.ICEMetricCatalog;
+import org.helios.apmrouter.metric.catalog.IDelegateMetric;
+
+/**
+ * <p>Title: IMetricSpillCodec</p>
+ * <p>Description: A {@link SpillCodec} for {@link IMetric}s. A metric is written as its type, token, timestamp, FQN and value, 
+ * and the metric ID is resolved from the catalog by token, or rebuilt from the FQN, when the metric is read back.
+ * Metrics with an attached TXContext are not spilled.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.apmrouter.destination.accumulator.IMetricSpillCodec</code></p>
+ */
+
+public class IMetricSpillCodec implements SpillCodec<IMetric> {
+	/** The shared codec instance */
+	public static final IMetricSpillCodec INSTANCE = new IMetricSpillCodec();
+	/** The charset for encoding FQNs */
+	public static final Charset UTF8 = Charset.forName("UTF-8");
+	/** The metric types, indexed by ordinal */
+	private static final MetricType[] TYPES = MetricType.values();
+	
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.apmrouter.destination.accumulator.SpillCodec#encode(java.lang.Object)
+	 */
+	@Override
+	public byte[] encode(IMetric metric) {
+		if(metric==null || metric.hasTXContext()) return null;
+		MetricType type = metric.getType();
+		byte[] fqn = metric.getFQN().getBytes(UTF8);
+		ByteBuffer raw = type.isLong() ? null : metric.getRawValue().duplicate();
+		if(raw!=null) raw.rewind();
+		ByteBuffer bb = ByteBuffer.allocate(1 + 8 + 8 + 4 + fqn.length + (raw==null ? 8 : 4 + raw.remaining()));
+		bb.put((byte)type.ordinal());
+		bb.putLong(metric.getToken());
+		bb.putLong(metric.getTime());
+		bb.putInt(fqn.length);
+		bb.put(fqn);
+		if(raw==null) {
+			bb.putLong(metric.getLongValue());
+		} else {
+			bb.putInt(raw.remaining());
+			bb.put(raw);
+		}
+		return bb.array();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.apmrouter.destination.accumulator.SpillCodec#decode(java.nio.ByteBuffer)
+	 */
+	@Override
+	public IMetric decode(ByteBuffer buffer) {
+		MetricType type = TYPES[buffer.get()];
+		long token = buffer.getLong();
+		long time = buffer.getLong();
+		byte[] fqn = new byte[buffer.getInt()];
+		buffer.get(fqn);
+		IDelegateMetric dmetric = token>=0 ? ICEMetricCatalog.getInstance().get(token) : null;
+		if(dmetric==null) {
+			dmetric = ICEMetricCatalog.getInstance().build(new String(fqn, UTF8), type);
+		}
+		if(type.isLong()) {
+			return ICEMetric.newMetric(time, buffer.getLong(), type, dmetric, token);
+		}
+		byte[] raw = new byte[buffer.getInt()];
+		buffer.get(raw);
+		return ICEMetric.newMetric(time, ByteBuffer.wrap(raw), type, dmetric, token);
+	}
+}
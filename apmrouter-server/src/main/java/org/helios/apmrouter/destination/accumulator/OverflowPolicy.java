@@ -0,0 +1,56 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.apmrouter.destination.accumulator;
+
+/**
+ * <p>Title: OverflowPolicy</p>
+ * <p>Description: Enumerates what a {@link TimeSizeFlushQueue} does with an item when the queue is at capacity</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.apmrouter.destination.accumulator.OverflowPolicy</code></p>
+ */
+
+public enum OverflowPolicy {
+	/** The caller waits up to the queue's block timeout for space, then the item is dropped */
+	BLOCK,
+	/** The item is dropped */
+	DROP,
+	/** The item is written to the queue's memory mapped spill file and read back on a later flush. Dropped if the spill file is full. */
+	SPILL;
+	
+	/**
+	 * Decodes the passed name to an OverflowPolicy, ignoring case
+	 * @param name The name to decode
+	 * @return the decoded OverflowPolicy
+	 */
+	public static OverflowPolicy forName(CharSequence name) {
+		if(name==null) throw new IllegalArgumentException("The passed name was null", new Throwable());
+		try {
+			return OverflowPolicy.valueOf(name.toString().trim().toUpperCase());
+		} catch (Exception e) {
+			throw new IllegalArgumentException("The passed name [" + name + "] is not a valid OverflowPolicy", new Throwable());
+		}
+	}
+}
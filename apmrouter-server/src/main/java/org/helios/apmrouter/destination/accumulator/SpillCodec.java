@@ -0,0 +1,52 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.apmrouter.destination.accumulator;
+
+import java.nio.ByteBuffer;
+
+/**
+ * <p>Title: SpillCodec</p>
+ * <p>Description: Defines a codec that writes flush queue items to, and reads them back from, a {@link TimeSizeFlushQueue}'s spill file</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.apmrouter.destination.accumulator.SpillCodec</code></p>
+ * @param <T> The expected type of the queued item
+ */
+
+public interface SpillCodec<T> {
+	/**
+	 * Encodes the passed item
+	 * @param item The item to encode
+	 * @return the encoded bytes, or null if the item cannot be spilled
+	 */
+	public byte[] encode(T item);
+	
+	/**
+	 * Decodes an item from the passed buffer, which is positioned at the start of the encoded bytes and limited to their length
+	 * @param buffer The buffer to read from
+	 * @return the decoded item
+	 */
+	public T decode(ByteBuffer buffer);
+}
@@ -0,0 +1,254 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.apmrouter.destination.accumulator;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.Collection;
+
+import org.apache.log4j.Logger;
+
+import sun.nio.ch.DirectBuffer;
+
+/**
+ * <p>Title: SpillFile</p>
+ * <p>Description: A bounded FIFO of length prefixed records in a memory mapped file, used by {@link TimeSizeFlushQueue} to hold overflow items 
+ * until a flush can take them. Read space is reclaimed by compacting the unread records to the start of the file when a write does not fit.
+ * Each instance maps its own uniquely named file, which is unmapped and deleted by {@link #close()}.
+ * A record that cannot be decoded is skipped and counted as a drop. All access is synchronized on the instance.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.apmrouter.destination.accumulator.SpillFile</code></p>
+ * @param <T> The expected type of the spilled item
+ */
+
+public class SpillFile<T> {
+	/** The spill directory */
+	public static final File SPILL_DIR = new File(System.getProperty("user.home") + File.separator + ".apmrouter" + File.separator + "spill");
+	
+	/** The spill file */
+	protected final File file;
+	/** The codec for spilled items */
+	protected final SpillCodec<T> codec;
+	/** The mapped spill file, null once closed */
+	protected MappedByteBuffer buffer;
+	/** The offset of the next record to read */
+	protected int readPos = 0;
+	/** The offset the next record will be written at */
+	protected int writePos = 0;
+	/** The number of unread records */
+	protected int count = 0;
+	/** The number of records dropped because they could not be read back */
+	protected long drops = 0;
+	/** The id of this JVM, used to name the file */
+	protected static final String PID = ManagementFactory.getRuntimeMXBean().getName().split("@")[0];
+	
+	/** static logger */
+	protected static final Logger LOG = Logger.getLogger(SpillFile.class);
+	
+	/**
+	 * Creates a new SpillFile
+	 * @param name The name of the owning flush queue, used as the prefix of the file name
+	 * @param size The size of the file in bytes
+	 * @param codec The codec for spilled items
+	 */
+	public SpillFile(String name, int size, SpillCodec<T> codec) {
+		if(codec==null) throw new IllegalArgumentException("The passed codec was null", new Throwable());
+		this.codec = codec;
+		if(!SPILL_DIR.exists()) SPILL_DIR.mkdirs();
+		try {
+			// queues with the same name, in this JVM or another router run by the same user, each get their own file
+			file = File.createTempFile(String.valueOf(name).replaceAll("[^A-Za-z0-9_\\-\\.]", "_") + "-" + PID + "-", ".spill", SPILL_DIR);
+		} catch (Exception e) {
+			throw new RuntimeException("Failed to create spill file for [" + name + "] in [" + SPILL_DIR + "]", e);
+		}
+		RandomAccessFile raf = null;
+		try {
+			raf = new RandomAccessFile(file, "rw");
+			raf.setLength(size);
+			buffer = raf.getChannel().map(MapMode.READ_WRITE, 0, size);
+		} catch (Exception e) {
+			file.delete();
+			throw new RuntimeException("Failed to map spill file [" + file + "]", e);
+		} finally {
+			if(raf!=null) try { raf.close(); } catch (Exception e) {/* No Op */}
+		}
+		file.deleteOnExit();
+		LOG.info("Created spill file [" + file + "] of [" + size + "] bytes");
+	}
+	
+	/**
+	 * Appends an item to the spill file
+	 * @param item The item to spill
+	 * @return true if the item was written, false if it cannot be encoded, the file is full or closed
+	 */
+	public synchronized boolean write(T item) {
+		if(buffer==null) return false;
+		byte[] bytes = codec.encode(item);
+		if(bytes==null) return false;
+		int required = bytes.length + 4;
+		if(writePos + required > buffer.capacity()) {
+			if(readPos==0 || (writePos - readPos) + required > buffer.capacity()) return false;
+			compact();
+		}
+		buffer.putInt(writePos, bytes.length);
+		ByteBuffer dup = buffer.duplicate();
+		dup.position(writePos + 4);
+		dup.put(bytes);
+		writePos += required;
+		count++;
+		return true;
+	}
+	
+	/**
+	 * Reads up to the passed number of spilled items in the order they were written.
+	 * Each record is consumed before it is decoded, so a record that fails to decode is dropped rather than read again.
+	 * A record length that does not fit the unread bytes means the records can no longer be framed, so all the unread records are dropped.
+	 * @param max The maximum number of records to consume
+	 * @param items The collection to add the read items to
+	 * @return the number of items read
+	 */
+	public synchronized int read(int max, Collection<T> items) {
+		if(buffer==null) return 0;
+		int read = 0, consumed = 0;
+		ByteBuffer dup = buffer.duplicate();
+		while(count>0 && consumed<max) {
+			int available = writePos - readPos - 4;
+			int len = available<0 ? -1 : buffer.getInt(readPos);
+			if(len<0 || len>available) {
+				LOG.error("Invalid record length [" + len + "] at [" + readPos + "] in spill file [" + file + "]. Dropping [" + count + "] unread records.");
+				drops += count;
+				count = 0;
+				break;
+			}
+			dup.limit(readPos + 4 + len);
+			dup.position(readPos + 4);
+			ByteBuffer record = dup.slice();
+			dup.limit(dup.capacity());
+			readPos += len + 4;
+			count--;
+			consumed++;
+			try {
+				T item = codec.decode(record);
+				if(item!=null) {
+					items.add(item);
+					read++;
+				} else {
+					drops++;
+				}
+			} catch (Exception e) {
+				drops++;
+				if(LOG.isDebugEnabled()) LOG.debug("Failed to decode spilled record of [" + len + "] bytes in [" + file + "]", e);
+			}
+		}
+		if(count==0) {
+			readPos = 0;
+			writePos = 0;
+		}
+		return read;
+	}
+	
+	/**
+	 * Moves the unread records to the start of the file, copying in place
+	 */
+	protected void compact() {
+		int len = writePos - readPos;
+		ByteBuffer dup = buffer.duplicate();
+		dup.limit(writePos);
+		dup.position(readPos);
+		dup.compact();
+		readPos = 0;
+		writePos = len;
+	}
+	
+	/**
+	 * Unmaps and deletes the spill file. Unread records are dropped, and later writes and reads are ignored.
+	 */
+	public synchronized void close() {
+		if(buffer==null) return;
+		if(count>0) {
+			LOG.warn("Closing spill file [" + file + "] with [" + count + "] unread records");
+			drops += count;
+			count = 0;
+		}
+		MappedByteBuffer mapped = buffer;
+		buffer = null;
+		readPos = 0;
+		writePos = 0;
+		try {
+			// the mapping is otherwise only released when the buffer is garbage collected, and a mapped file cannot be deleted on some platforms
+			((DirectBuffer)mapped).cleaner().clean();
+		} catch (Throwable t) {
+			LOG.warn("Failed to unmap spill file [" + file + "]", t);
+		}
+		if(!file.delete()) {
+			LOG.warn("Failed to delete spill file [" + file + "]");
+		}
+	}
+	
+	/**
+	 * Indicates if this spill file has been closed
+	 * @return true if this spill file has been closed
+	 */
+	public synchronized boolean isClosed() {
+		return buffer==null;
+	}
+	
+	/**
+	 * Returns the number of records dropped because they could not be decoded or the file was closed before they were read
+	 * @return the number of dropped records
+	 */
+	public synchronized long getDropCount() {
+		return drops;
+	}
+	
+	/**
+	 * Returns the number of unread items
+	 * @return the number of unread items
+	 */
+	public synchronized int size() {
+		return count;
+	}
+	
+	/**
+	 * Returns the number of bytes used by unread items
+	 * @return the number of bytes used by unread items
+	 */
+	public synchronized int getUsedBytes() {
+		return writePos - readPos;
+	}
+	
+	/**
+	 * Returns the spill file
+	 * @return the spill file
+	 */
+	public File getFile() {
+		return file;
+	}
+}
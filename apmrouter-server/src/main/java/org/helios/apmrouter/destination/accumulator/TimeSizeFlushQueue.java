@@ -27,8 +27,7 @@ package org.helios.apmrouter.destination.accumulator;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
-import java.util.HashSet;
-import java.util.Set;
+import java.util.List;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ExecutorService;
@@ -37,16 +36,21 @@ import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.ReentrantLock;
 
 import org.apache.log4j.Logger;
+import org.helios.apmrouter.jmx.ConfigurationHelper;
 import org.springframework.jmx.export.annotation.ManagedAttribute;
 
 /**
  * <p>Title: TimeSizeFlushQueue</p>
- * <p>Description: A queue that is flushed when triggered by a size threshold and/or an elapsed time between flushes.</p> 
+ * <p>Description: A queue that is flushed when triggered by a size threshold and/or an elapsed time between flushes.
+ * The queue is bounded by a fixed capacity and the number of flushes in flight is limited, so a slow receiver backs the queue up 
+ * and the {@link OverflowPolicy} decides if callers block, items are dropped, or items are spilled to a memory mapped {@link SpillFile}.
+ * Each flush drains into a new list that keeps the items in insertion order.</p> 
  * <p>Company: Helios Development Group LLC</p>
  * @author Whitehead (nwhitehead AT heliosdev DOT org)
  * <p><code>org.helios.apmrouter.destination.accumulator.TimeSizeFlushQueue</code></p>
@@ -54,6 +58,14 @@ import org.springframework.jmx.export.annotation.ManagedAttribute;
  */
 
 public class TimeSizeFlushQueue<T> implements Runnable {
+	/** The system property or env variable name that overrides the default spill file size in bytes (@link {@value #DEFAULT_SPILL_SIZE} */
+	public static final String SPILL_SIZE_PROP = "org.helios.apmrouter.flushqueue.spillsize";
+	/** The default spill file size in bytes */
+	public static final int DEFAULT_SPILL_SIZE = 32 * 1024 * 1024;
+	/** The default maximum number of flushes in flight */
+	public static final int DEFAULT_MAX_INFLIGHT_FLUSHES = 2;
+	/** The default time in ms. a {@link OverflowPolicy#BLOCK} enqueue waits for space */
+	public static final long DEFAULT_BLOCK_TIMEOUT = 1000;
 	/** The default scheduler for instances not provided one */
 	private static volatile ScheduledExecutorService defaultScheduler;
 	/** The default threadPool for instances not provided one */
@@ -79,7 +91,9 @@ public class TimeSizeFlushQueue<T> implements Runnable {
 	/** The thread pool for processing flushes */
 	protected final ExecutorService flushThreadPool;
 	/** The timer scheduled task handle */
-	protected ScheduledFuture<?> handle = null;
+	protected volatile ScheduledFuture<?> handle = null;
+	/** Indicates that the queue has been stopped and the timer is no longer rescheduled */
+	protected final AtomicBoolean stopped = new AtomicBoolean(false);
 	/** The elapsed time in ms. of the last flush */
 	protected final AtomicLong lastFlushElapsed = new AtomicLong(0L);
 	/** The total number of completed flushes */
@@ -88,14 +102,37 @@ public class TimeSizeFlushQueue<T> implements Runnable {
 	protected final AtomicLong flushExceptionCount = new AtomicLong(0L);
 	/** The total number of queue drops on account of a full queue */
 	protected final AtomicLong queueDropCount = new AtomicLong(0L);
+	/** The total number of items accepted after waiting for space or spilling on account of a full queue */
+	protected final AtomicLong backPressureCount = new AtomicLong(0L);
+	/** The total number of items written to the spill file */
+	protected final AtomicLong spillCount = new AtomicLong(0L);
+	/** The maximum number of items in the queue */
+	protected final int capacity;
+	/** The policy applied when the queue is full */
+	protected final OverflowPolicy overflowPolicy;
+	/** The spill file, null unless the overflow policy is {@link OverflowPolicy#SPILL} */
+	protected final SpillFile<T> spillFile;
+	/** The time in ms. a {@link OverflowPolicy#BLOCK} enqueue waits for space */
+	protected final AtomicLong blockTimeout = new AtomicLong(DEFAULT_BLOCK_TIMEOUT);
+	/** The maximum number of flushes in flight */
+	protected final AtomicInteger maxInflightFlushes = new AtomicInteger(DEFAULT_MAX_INFLIGHT_FLUSHES);
+	/** The number of flushes in flight */
+	protected final AtomicInteger inflightFlushes = new AtomicInteger(0);
+	/** Indicates that a size triggered flush has been submitted and has not started yet */
+	protected final AtomicBoolean flushPending = new AtomicBoolean(false);
+	/** The size triggered flush task */
+	protected final Runnable sizeFlushTask = new Runnable(){
+		@Override
+		public void run() {
+			flushPending.set(false);
+			sizeFlush();
+		}
+	};
 	/** Indicates that the size and time configuration does not support buffering and the enqueue will be bypassed */
 	protected final boolean bypassQueue;
 	/** Instance logger */
 	protected final Logger log;
 	
-	
-	/** The flush buffer which is the queue drains to synchronously in the trigger thread */
-	protected final Set<T> flushBuffer;
 	/** static logger */
 	protected static final Logger LOG = Logger.getLogger(TimeSizeFlushQueue.class);
 	
@@ -154,29 +191,39 @@ public class TimeSizeFlushQueue<T> implements Runnable {
 	 * @param name The name for this flushQueue
 	 * @param sizeTrigger The flush size trigger
 	 * @param timeTrigger The flush time trigger
+	 * @param capacity The maximum number of items in the queue. If less than the size trigger, the size trigger + 2 is used.
+	 * @param overflowPolicy The policy applied when the queue is full
+	 * @param spillCodec The codec for spilled items. Required if the overflow policy is {@link OverflowPolicy#SPILL}, ignored otherwise.
 	 * @param receiver The receiver runnable responsible for processing the flush
 	 * @param scheduler An externally provided scheduler. If null, uses the default shared scheduler.
 	 * @param threadPool An externally provided thread pool. If null, uses the default shared pool. 
 	 */
-	public TimeSizeFlushQueue(String name, int sizeTrigger, long timeTrigger, FlushQueueReceiver<T> receiver, ScheduledExecutorService scheduler, ExecutorService threadPool) {
+	public TimeSizeFlushQueue(String name, int sizeTrigger, long timeTrigger, int capacity, OverflowPolicy overflowPolicy, SpillCodec<T> spillCodec, FlushQueueReceiver<T> receiver, ScheduledExecutorService scheduler, ExecutorService threadPool) {
 		this.name = name;
 		log = Logger.getLogger(getClass().getName() + "." + this.name);
 		this.sizeTrigger.set(sizeTrigger);
 		this.timeTrigger.set(timeTrigger);
+		this.overflowPolicy = overflowPolicy==null ? OverflowPolicy.DROP : overflowPolicy;
+		this.capacity = Math.max(capacity, sizeTrigger+2);
 		bypassQueue = (sizeTrigger<2 && timeTrigger<1);
 		if(!bypassQueue) {
-			queue = new ArrayBlockingQueue<T>(sizeTrigger+2, false);
-			flushBuffer = new HashSet<T>(sizeTrigger+2);
-			this.scheduler = scheduler==null ? getDefaultScheduler() : scheduler;			
+			queue = new ArrayBlockingQueue<T>(this.capacity, false);
+			this.scheduler = scheduler==null ? getDefaultScheduler() : scheduler;
+			if(this.overflowPolicy==OverflowPolicy.SPILL) {
+				if(spillCodec==null) throw new IllegalArgumentException("The overflow policy for [" + name + "] is SPILL but no spill codec was provided", new Throwable());
+				spillFile = new SpillFile<T>(name, ConfigurationHelper.getIntSystemThenEnvProperty(SPILL_SIZE_PROP, DEFAULT_SPILL_SIZE), spillCodec);
+			} else {
+				spillFile = null;
+			}
 		} else {
 			queue = null;
-			flushBuffer = null;
+			spillFile = null;
 			this.scheduler = null;
 		}
 		this.receiver = receiver;		
 		this.flushThreadPool = threadPool==null ? getDefaultExecutor() : threadPool;
 		schedule();
-		log.info("Created TimeSizeFlushQueue [" + this.name + "]");
+		log.info("Created TimeSizeFlushQueue [" + this.name + "] Capacity:" + this.capacity + " Overflow:" + this.overflowPolicy);
 	}
 	
 	/**
@@ -184,6 +231,33 @@ public class TimeSizeFlushQueue<T> implements Runnable {
 	 * @param name The name for this flushQueue
 	 * @param sizeTrigger The flush size trigger
 	 * @param timeTrigger The flush time trigger in ms.
+	 * @param capacity The maximum number of items in the queue. If less than the size trigger, the size trigger + 2 is used.
+	 * @param overflowPolicy The policy applied when the queue is full
+	 * @param spillCodec The codec for spilled items. Required if the overflow policy is {@link OverflowPolicy#SPILL}, ignored otherwise.
+	 * @param receiver The receiver runnable responsible for processing the flush
+	 */
+	public TimeSizeFlushQueue(String name, int sizeTrigger, long timeTrigger, int capacity, OverflowPolicy overflowPolicy, SpillCodec<T> spillCodec, FlushQueueReceiver<T> receiver) {
+		this(name, sizeTrigger, timeTrigger, capacity, overflowPolicy, spillCodec, receiver, null, null);
+	}
+	
+	/**
+	 * Creates a new TimeSizeFlushQueue with a capacity of the size trigger + 2 that drops items when full
+	 * @param name The name for this flushQueue
+	 * @param sizeTrigger The flush size trigger
+	 * @param timeTrigger The flush time trigger
+	 * @param receiver The receiver runnable responsible for processing the flush
+	 * @param scheduler An externally provided scheduler. If null, uses the default shared scheduler.
+	 * @param threadPool An externally provided thread pool. If null, uses the default shared pool. 
+	 */
+	public TimeSizeFlushQueue(String name, int sizeTrigger, long timeTrigger, FlushQueueReceiver<T> receiver, ScheduledExecutorService scheduler, ExecutorService threadPool) {
+		this(name, sizeTrigger, timeTrigger, sizeTrigger+2, OverflowPolicy.DROP, null, receiver, scheduler, threadPool);
+	}
+	
+	/**
+	 * Creates a new TimeSizeFlushQueue using the default shared scheduler and thread pool, with a capacity of the size trigger + 2 that drops items when full.
+	 * @param name The name for this flushQueue
+	 * @param sizeTrigger The flush size trigger
+	 * @param timeTrigger The flush time trigger in ms.
 	 * @param receiver The receiver runnable responsible for processing the flush
 	 */
 	public TimeSizeFlushQueue(String name, int sizeTrigger, long timeTrigger, FlushQueueReceiver<T> receiver) {
@@ -195,25 +269,87 @@ public class TimeSizeFlushQueue<T> implements Runnable {
 	 */
 	protected void schedule() {
 		long time = timeTrigger.get();
-		if(time>0 && scheduler!=null) {
+		if(time>0 && scheduler!=null && !stopped.get()) {
 			handle = scheduler.schedule(new Runnable(){
 				@Override
 				public void run() {timeFlush();};
 			}, time, TimeUnit.MILLISECONDS);
+			// a stop that raced this reschedule may have missed the new handle
+			if(stopped.get()) handle.cancel(false);
 			if(log.isDebugEnabled()) log.debug("Scheduled for timed trigger in [" + time + "] ms.");
 		}
 	}
 	
 	/**
-	 * Determines if the size threshold has been met for a flush.
+	 * Stops the time triggered flushes and closes the spill file, unmapping and deleting it. Spilled items that have not been flushed are dropped.
+	 * Queued items are not flushed, so callers that need them call {@link #run()} first.
+	 */
+	public void stop() {
+		if(!stopped.compareAndSet(false, true)) return;
+		ScheduledFuture<?> h = handle;
+		if(h!=null) h.cancel(false);
+		if(spillFile!=null) spillFile.close();
+		log.info("Stopped TimeSizeFlushQueue [" + name + "]");
+	}
+	
+	/**
+	 * Indicates if this queue has been stopped
+	 * @return true if this queue has been stopped
+	 */
+	@ManagedAttribute(description="Indicates if this flush queue has been stopped")
+	public boolean isStopped() {
+		return stopped.get();
+	}
+	
+	/**
+	 * Determines if the size threshold has been met for a flush, or if there are spilled items waiting to be flushed.
 	 * @return true if the size threshold has been met for a flush.
 	 */
 	protected boolean sizeTriggered() {
+		if(spillFile!=null && spillFile.size()>0) return true;
 		int trig = sizeTrigger.get();
 		if(trig<2) return false;
 		return queue.size()>=trig;
 	}
 	
+	/**
+	 * Submits a size triggered flush to the flush thread pool unless one is already pending
+	 */
+	protected void triggerFlush() {
+		if(flushPending.compareAndSet(false, true)) {
+			try {
+				flushThreadPool.execute(sizeFlushTask);
+			} catch (Exception e) {
+				flushPending.set(false);
+			}
+		}
+	}
+	
+	/**
+	 * Reserves a flush slot if fewer than the maximum number of flushes are in flight
+	 * @return true if a slot was reserved, false if the maximum number of flushes are in flight
+	 */
+	protected boolean acquireFlush() {
+		while(true) {
+			int current = inflightFlushes.get();
+			if(current>=maxInflightFlushes.get()) return false;
+			if(inflightFlushes.compareAndSet(current, current+1)) return true;
+		}
+	}
+	
+	/**
+	 * Drains the queue, then the spill file, into a new list in insertion order
+	 * @return the drained items
+	 */
+	protected List<T> drain() {
+		List<T> items = new ArrayList<T>(Math.min(capacity, queue.size() + (spillFile==null ? 0 : spillFile.size())));
+		queue.drainTo(items, capacity);
+		if(spillFile!=null && items.size()<capacity) {
+			spillFile.read(capacity - items.size(), items);
+		}
+		return items;
+	}
+	
 	/**
 	 * Triggered when the size trigger is exceeded
 	 */
@@ -226,10 +362,7 @@ public class TimeSizeFlushQueue<T> implements Runnable {
 				return;
 			}
 			if(handle!=null) handle.cancel(true);
-			if(!queue.isEmpty()) {
-				queue.drainTo(flushBuffer);
-				flushThreadPool.execute(this);
-			}
+			drainAndFlush();
 		} finally {
 			try { 
 				schedule(); 
@@ -256,10 +389,7 @@ public class TimeSizeFlushQueue<T> implements Runnable {
 			if(!acquiredLock) {
 				return;
 			}
-			if(!queue.isEmpty()) {
-				queue.drainTo(flushBuffer);
-				flushThreadPool.execute(this);
-			}
+			drainAndFlush();
 		} finally {
 			try { 
 				schedule(); 
@@ -276,20 +406,47 @@ public class TimeSizeFlushQueue<T> implements Runnable {
 	}
 	
 	/**
-	 * Executes the flush
+	 * Drains the queue and submits the drained items to the flush thread pool if a flush slot is available.
+	 * If the maximum number of flushes are in flight, the items stay queued and the queue backs up.
+	 * Must be called holding the flush lock.
 	 */
-	@Override
-	public void run() {
-		int itemsToFlush = flushBuffer.size();
+	protected void drainAndFlush() {
+		if(queue.isEmpty() && (spillFile==null || spillFile.size()==0)) return;
+		if(!acquireFlush()) return;
+		final List<T> items = drain();
+		if(items.isEmpty()) {
+			inflightFlushes.decrementAndGet();
+			return;
+		}
+		try {
+			flushThreadPool.execute(new Runnable(){
+				@Override
+				public void run() {
+					try {
+						flush(items);
+					} finally {
+						inflightFlushes.decrementAndGet();
+						if(sizeTriggered()) triggerFlush();
+					}
+				}
+			});
+		} catch (Exception e) {
+			inflightFlushes.decrementAndGet();
+			queueDropCount.addAndGet(items.size());
+			LOG.error("Failed to submit flush of [" + items.size() + "] items for [" + name + "]", e);
+		}
+	}
+	
+	/**
+	 * Hands the passed items to the receiver
+	 * @param items The items to flush
+	 */
+	protected void flush(List<T> items) {
+		int itemsToFlush = items.size();
 		if(log.isDebugEnabled()) log.debug("Starting Flush of [" + itemsToFlush + "] items.");
 		long start = System.currentTimeMillis();
 		try {
-			if(itemsToFlush>0) {
-				receiver.flushTo(flushBuffer);
-				flushBuffer.clear();
-			} else {
-				return;
-			}			
+			receiver.flushTo(items);
 		} catch (Exception e) {
 			flushExceptionCount.incrementAndGet();
 		} finally {
@@ -298,6 +455,43 @@ public class TimeSizeFlushQueue<T> implements Runnable {
 		}
 	}
 	
+	/**
+	 * Waits for flushes that are in flight or holding the flush lock to complete
+	 * @param timeout The maximum time to wait in ms.
+	 * @return true if no flush is in progress, false if the timeout elapsed or the calling thread was interrupted
+	 */
+	public boolean awaitFlushes(long timeout) {
+		final long deadline = System.currentTimeMillis() + timeout;
+		while(inflightFlushes.get()>0 || flushLock.isLocked()) {
+			if(System.currentTimeMillis()>=deadline) return false;
+			try {
+				Thread.sleep(10);
+			} catch (InterruptedException ie) {
+				Thread.currentThread().interrupt();
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Drains the queue and executes the flush in the calling thread
+	 */
+	@Override
+	public void run() {
+		if(bypassQueue) return;
+		List<T> items = null;
+		flushLock.lock();
+		try {
+			items = drain();
+		} finally {
+			flushLock.unlock();
+		}
+		if(!items.isEmpty()) {
+			flush(items);
+		}
+	}
+	
 	
 	/**
 	 * Calls the receiver with the passed items directly (i.e. not from the flushQueue)
@@ -324,30 +518,85 @@ public class TimeSizeFlushQueue<T> implements Runnable {
 			}
 		});
 	}
-
+	
 	/**
-	 * Adds an item to the queue.
+	 * Adds an item to the queue, applying the overflow policy if the queue is full.
+	 * While there are spilled items waiting to be flushed, new items are also spilled so that insertion order is kept.
 	 * @param t the item to add
-	 * @return true if the item was successfully processed
-	 * @see java.util.concurrent.BlockingQueue#add(java.lang.Object)
+	 * @return the outcome of the add
 	 */
-	public boolean add(T t) {
-		if(t==null) return false;
+	public EnqueueResult enqueue(T t) {
+		if(t==null) return EnqueueResult.DROPPED;
 		if(bypassQueue) {
 			directRun(new ArrayList<T>(Arrays.asList(t)));
-			return true;
+			return EnqueueResult.QUEUED;
+		}
+		EnqueueResult result;
+		if(spillFile!=null && spillFile.size()>0) {
+			result = spill(t);
+		} else if(queue.offer(t)) {
+			result = EnqueueResult.QUEUED;
+		} else {
+			triggerFlush();
+			switch(overflowPolicy) {
+				case BLOCK:
+					try {
+						result = queue.offer(t, blockTimeout.get(), TimeUnit.MILLISECONDS) ? EnqueueResult.DELAYED : EnqueueResult.DROPPED;
+					} catch (InterruptedException ie) {
+						Thread.currentThread().interrupt();
+						result = EnqueueResult.DROPPED;
+					}
+					break;
+				case SPILL:
+					result = spill(t);
+					break;
+				default:
+					result = EnqueueResult.DROPPED;
+			}
+		}
+		if(!result.isAccepted()) {
+			queueDropCount.incrementAndGet();
+		} else if(result.isBackPressure()) {
+			backPressureCount.incrementAndGet();
 		}
-		boolean b = queue.add(t);
 		if(sizeTriggered()) {
-			sizeFlush();
+			triggerFlush();
 		}
-		return b;
+		return result;
+	}
+	
+	/**
+	 * Writes the passed item to the spill file
+	 * @param t The item to spill
+	 * @return {@link EnqueueResult#SPILLED} if the item was written, {@link EnqueueResult#DROPPED} if the spill file is full or the item cannot be encoded
+	 */
+	protected EnqueueResult spill(T t) {
+		try {
+			if(spillFile.write(t)) {
+				spillCount.incrementAndGet();
+				return EnqueueResult.SPILLED;
+			}
+		} catch (Exception e) {
+			if(log.isDebugEnabled()) log.debug("Failed to spill item [" + t + "]", e);
+		}
+		return EnqueueResult.DROPPED;
+	}
+
+	/**
+	 * Adds an item to the queue, applying the overflow policy if the queue is full.
+	 * @param t the item to add
+	 * @return true if the item was successfully processed
+	 * @see #enqueue(Object)
+	 */
+	public boolean add(T t) {
+		if(t==null) return false;
+		return enqueue(t).isAccepted();
 	}
 
 	/**
-	 * Adds a collection of Ts to the queue
+	 * Adds a collection of Ts to the queue, applying the overflow policy to each item that does not fit
 	 * @param tcoll The collection of Ts to add.
-	 * @return true if the add succeeded, false if it did not.
+	 * @return true if all the items were accepted, false if any were dropped.
 	 * @see java.util.Collection#addAll(java.util.Collection)
 	 */
 	public boolean addAll(Collection<T> tcoll) {
@@ -355,21 +604,13 @@ public class TimeSizeFlushQueue<T> implements Runnable {
 		if(bypassQueue) {
 			directRun(tcoll);
 			return true;
-		}		
-		try {
-			boolean b = queue.addAll(tcoll);
-			if(!b) queueDropCount.addAndGet(tcoll.size());
-			 if(sizeTriggered()) {
-				 flushThreadPool.execute(new Runnable(){
-					 @Override
-					 public void run() {sizeFlush();};
-				 });				 
-			 }
-			 return b;
-		} catch (Exception e) {
-			queueDropCount.addAndGet(tcoll.size());
-			return false;
 		}
+		boolean b = true;
+		for(T t: tcoll) {
+			if(t==null) continue;
+			if(!enqueue(t).isAccepted()) b = false;
+		}
+		return b;
 	}
 
 	/**
@@ -387,15 +628,17 @@ public class TimeSizeFlushQueue<T> implements Runnable {
 			return true;
 		}		
 		try {
-			boolean b = queue.offer(t, waitTime, unit);
+			boolean b = queue.offer(t);
+			if(!b) {
+				triggerFlush();
+				b = queue.offer(t, waitTime, unit);
+				if(b) backPressureCount.incrementAndGet();
+			}
 			if(!b) queueDropCount.incrementAndGet();
-			 if(sizeTriggered()) {
-				 flushThreadPool.execute(new Runnable(){
-					 @Override
-					 public void run() {sizeFlush();};
-				 });				 
-			 }
-			 return b;
+			if(sizeTriggered()) {
+				triggerFlush();
+			}
+			return b;
 		} catch (Exception e) {
 			queueDropCount.incrementAndGet();
 			return false;
@@ -417,13 +660,10 @@ public class TimeSizeFlushQueue<T> implements Runnable {
 		try {
 			boolean b = queue.offer(t);
 			if(!b) queueDropCount.incrementAndGet();
-			 if(sizeTriggered()) {
-				 flushThreadPool.execute(new Runnable(){
-					 @Override
-					 public void run() {sizeFlush();};
-				 });				 
-			 }
-			 return b;
+			if(sizeTriggered()) {
+				triggerFlush();
+			}
+			return b;
 		} catch (Exception e) {
 			queueDropCount.incrementAndGet();
 			return false;
@@ -442,17 +682,14 @@ public class TimeSizeFlushQueue<T> implements Runnable {
 			directRun(new ArrayList<T>(Arrays.asList(t)));
 			return;
 		}		
-		try {
+		if(!queue.offer(t)) {
+			triggerFlush();
 			queue.put(t);
-			 if(sizeTriggered()) {
-				 flushThreadPool.execute(new Runnable(){
-					 @Override
-					 public void run() {sizeFlush();};
-				 });				 
-			 }
-		} catch (Exception e) {
-			queueDropCount.incrementAndGet();
-		}		
+			backPressureCount.incrementAndGet();
+		}
+		if(sizeTriggered()) {
+			triggerFlush();
+		}
 	}
 
 	/**
@@ -568,6 +805,105 @@ public class TimeSizeFlushQueue<T> implements Runnable {
 		return queueDropCount.get();
 	}
 
+	/**
+	 * Returns the maximum number of items in the queue
+	 * @return the queue capacity
+	 */
+	@ManagedAttribute(description="The maximum number of items in the queue")
+	public int getCapacity() {
+		return capacity;
+	}
+	
+	/**
+	 * Returns the name of the policy applied when the queue is full
+	 * @return the overflow policy name
+	 */
+	@ManagedAttribute(description="The policy applied when the queue is full")
+	public String getOverflowPolicy() {
+		return overflowPolicy.name();
+	}
+	
+	/**
+	 * Returns the time in ms. a blocking enqueue waits for space
+	 * @return the block timeout in ms.
+	 */
+	@ManagedAttribute(description="The time in ms. a blocking enqueue waits for space")
+	public long getBlockTimeout() {
+		return blockTimeout.get();
+	}
+	
+	/**
+	 * Sets the time in ms. a blocking enqueue waits for space
+	 * @param timeout the block timeout in ms.
+	 */
+	public void setBlockTimeout(long timeout) {
+		if(timeout<0) throw new IllegalArgumentException("Timeout cannot be less than zero");
+		blockTimeout.set(timeout);
+	}
+	
+	/**
+	 * Returns the maximum number of flushes in flight
+	 * @return the maximum number of flushes in flight
+	 */
+	@ManagedAttribute(description="The maximum number of flushes in flight")
+	public int getMaxInflightFlushes() {
+		return maxInflightFlushes.get();
+	}
+	
+	/**
+	 * Sets the maximum number of flushes in flight
+	 * @param max the maximum number of flushes in flight
+	 */
+	public void setMaxInflightFlushes(int max) {
+		if(max<1) throw new IllegalArgumentException("Max inflight flushes cannot be less than one");
+		maxInflightFlushes.set(max);
+	}
+	
+	/**
+	 * Returns the number of flushes in flight
+	 * @return the number of flushes in flight
+	 */
+	@ManagedAttribute(description="The number of flushes in flight")
+	public int getInflightFlushes() {
+		return inflightFlushes.get();
+	}
+	
+	/**
+	 * Returns the number of items accepted after waiting for space or spilling on account of a full queue
+	 * @return the backPressureCount
+	 */
+	@ManagedAttribute(description="The number of items accepted after waiting for space or spilling on account of a full queue")
+	public long getBackPressureCount() {
+		return backPressureCount.get();
+	}
+	
+	/**
+	 * Returns the number of items written to the spill file
+	 * @return the spillCount
+	 */
+	@ManagedAttribute(description="The number of items written to the spill file")
+	public long getSpillCount() {
+		return spillCount.get();
+	}
+	
+	/**
+	 * Returns the number of spilled items waiting to be flushed
+	 * @return the number of spilled items waiting to be flushed
+	 */
+	@ManagedAttribute(description="The number of spilled items waiting to be flushed")
+	public int getSpillQueueSize() {
+		return spillFile==null ? 0 : spillFile.size();
+	}
+	
+	/**
+	 * Returns the number of spilled items dropped because they could not be read back or the queue was stopped before they were flushed
+	 * @return the number of dropped spilled items
+	 */
+	@ManagedAttribute(description="The number of spilled items dropped because they could not be read back or the queue was stopped before they were flushed")
+	public long getSpillDropCount() {
+		return spillFile==null ? 0 : spillFile.getDropCount();
+	}
+
 	/**
 	 * Returns this flushQueue's name
 	 * @return the name
@@ -30,15 +30,19 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.CopyOnWriteArraySet;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 
 import org.apache.log4j.Logger;
@@ -74,7 +78,6 @@ import org.springframework.jmx.support.MetricType;
  * Check for first/last periods in entries (which do we want ?)  Oldest should be first.....
  * Status check optimization:  oldest period in a tier should be in the tier header
  * ==============================================
- * TODO: Add support for rolling up into next tiers.
  * TODO: Add basic query functionality
  * TODO: Fill-Ins for sticky metrics ?  Physical or implied
  */
@@ -120,6 +123,22 @@ public class ChronicleTSManager extends ServerComponentBean implements UncaughtE
 		}
 	});
 	
+	/** The maximum number of rolled periods waiting to be merged into parent tiers */
+	protected int rollupQueueSize = DEFAULT_ROLLUP_QUEUE_SIZE;
+	/** The single threaded executor that merges rolled periods into parent tiers in the order they rolled */
+	protected volatile ThreadPoolExecutor rollupExecutor = null;
+	/** The number of rolled periods submitted to be merged into parent tiers */
+	protected final AtomicLong rollupsQueued = new AtomicLong(0);
+	/** The number of rolled periods dropped because the rollup queue was full */
+	protected final AtomicLong rollupsDropped = new AtomicLong(0);
+	/** The number of rolled period merges that failed */
+	protected final AtomicLong rollupErrors = new AtomicLong(0);
+	
+	/** The default maximum number of rolled periods waiting to be merged into parent tiers */
+	public static final int DEFAULT_ROLLUP_QUEUE_SIZE = 100000;
+	/** The maximum time in ms. to wait on stop for pending rollups to be merged into parent tiers */
+	public static final long ROLLUP_STOP_TIMEOUT = 30000;
+	
 	/** The number of processing threads to create */
 	protected final int workerThreadCount = ManagementFactory.getOperatingSystemMXBean().getAvailableProcessors();
 	/** A shared latch reference */
@@ -272,6 +291,17 @@ public class ChronicleTSManager extends ServerComponentBean implements UncaughtE
 		t.setPriority(Thread.MAX_PRIORITY);
 		Runtime.getRuntime().addShutdownHook(t);
 		ChronicleTSAdapter.setCts(this);		
+		if(liveTier.parent!=null) {
+			rollupExecutor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(rollupQueueSize), new ThreadFactory(){
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "TimeSeriesRollup");
+					t.setDaemon(true);
+					t.setUncaughtExceptionHandler(ChronicleTSManager.this);
+					return t;
+				}
+			});
+		}
 		scheduler.scheduleWithFixedDelay(new Runnable(){
 			@Override
 			public void run() {
@@ -291,6 +321,116 @@ public class ChronicleTSManager extends ServerComponentBean implements UncaughtE
 		});
 	}
 	
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.apmrouter.server.ServerComponentBean#doStop()
+	 */
+	@Override
+	protected void doStop() {
+		ThreadPoolExecutor executor = rollupExecutor;
+		if(executor!=null) {
+			executor.shutdown();
+			try {
+				if(!executor.awaitTermination(ROLLUP_STOP_TIMEOUT, TimeUnit.MILLISECONDS)) {
+					warn("Timed out waiting for [", executor.getQueue().size(), "] pending rollups to be merged");
+				}
+			} catch (InterruptedException iex) {
+				Thread.currentThread().interrupt();
+				warn("Interrupted waiting for [", executor.getQueue().size(), "] pending rollups to be merged");
+			}
+			rollupExecutor = null;
+		}
+		super.doStop();
+	}
+	
+	/**
+	 * Submits a period rolled out of a tier to be merged into the passed parent tier.
+	 * Merges are applied by a single thread so each parent tier sees its child periods in roll order.
+	 * If the manager is not started, the merge is applied in the calling thread.
+	 * @param parent The parent tier to merge into
+	 * @param metricId The metric ID of the rolled series
+	 * @param rolled The rolled period values
+	 */
+	void rollup(final ChronicleTier parent, final long metricId, final long[] rolled) {
+		Runnable merge = new Runnable() {
+			@Override
+			public void run() {
+				try {
+					parent.mergePeriod(metricId, rolled);
+				} catch (Exception ex) {
+					rollupErrors.incrementAndGet();
+					error("Failed to merge rolled period for metric [", metricId, "] into tier [", parent.getName(), "]", ex);
+				}
+			}
+		};
+		ThreadPoolExecutor executor = rollupExecutor;
+		if(executor==null) {
+			merge.run();
+		} else {
+			try {
+				executor.execute(merge);
+				rollupsQueued.incrementAndGet();
+			} catch (RejectedExecutionException rex) {
+				rollupsDropped.incrementAndGet();
+			}
+		}
+	}
+	
+	/**
+	 * Returns the maximum number of rolled periods waiting to be merged into parent tiers
+	 * @return the maximum rollup queue size
+	 */
+	@ManagedAttribute(description="The maximum number of rolled periods waiting to be merged into parent tiers")
+	public int getRollupQueueSize() {
+		return rollupQueueSize;
+	}
+	
+	/**
+	 * Sets the maximum number of rolled periods waiting to be merged into parent tiers. Effective on the next start.
+	 * @param rollupQueueSize the maximum rollup queue size
+	 */
+	public void setRollupQueueSize(int rollupQueueSize) {
+		if(rollupQueueSize<1) throw new IllegalArgumentException("Invalid rollup queue size [" + rollupQueueSize + "]", new Throwable());
+		this.rollupQueueSize = rollupQueueSize;
+	}
+	
+	/**
+	 * Returns the number of rolled periods waiting to be merged into parent tiers
+	 * @return the number of pending rollups
+	 */
+	@ManagedMetric(category="ChronicleTimeSeries", displayName="PendingRollups", metricType=MetricType.GAUGE, description="The number of rolled periods waiting to be merged into parent tiers")
+	public long getPendingRollups() {
+		ThreadPoolExecutor executor = rollupExecutor;
+		return executor==null ? 0 : executor.getQueue().size();
+	}
+	
+	/**
+	 * Returns the number of rolled periods submitted to be merged into parent tiers
+	 * @return the number of queued rollups
+	 */
+	@ManagedMetric(category="ChronicleTimeSeries", displayName="QueuedRollups", metricType=MetricType.COUNTER, description="The number of rolled periods submitted to be merged into parent tiers")
+	public long getQueuedRollups() {
+		return rollupsQueued.get();
+	}
+	
+	/**
+	 * Returns the number of rolled periods dropped because the rollup queue was full
+	 * @return the number of dropped rollups
+	 */
+	@ManagedMetric(category="ChronicleTimeSeries", displayName="DroppedRollups", metricType=MetricType.COUNTER, description="The number of rolled periods dropped because the rollup queue was full")
+	public long getDroppedRollups() {
+		return rollupsDropped.get();
+	}
+	
+	/**
+	 * Returns the number of rolled period merges that failed
+	 * @return the number of failed rollups
+	 */
+	@ManagedMetric(category="ChronicleTimeSeries", displayName="RollupErrors", metricType=MetricType.COUNTER, description="The number of rolled period merges that failed")
+	public long getRollupErrors() {
+		return rollupErrors.get();
+	}
+	
 	/**
 	 * Runs an entry status check on the live tier
 	 */
@@ -371,6 +511,10 @@ public class ChronicleTSManager extends ServerComponentBean implements UncaughtE
 		}
 	}
 	
+	/**
+	 * <p>Title: StatusCheckWorker</p>
+	 * <p>Description: Status checks one contiguous range of the tier's entries. The tier is split into as many equal ranges as there are workers.</p>
+	 */
 	private class StatusCheckWorker implements Runnable {
 		protected final ChronicleTier tier;
 		protected final int indexMod;
@@ -383,7 +527,7 @@ public class ChronicleTSManager extends ServerComponentBean implements UncaughtE
 		/**
 		 * Creates a new StatusCheckWorker
 		 * @param tier The tier that will be checked
-		 * @param indexMod The index mod that this worker handles
+		 * @param indexMod The ordinal of the index range that this worker handles
 		 * @param workers The total number of workers
 		 */
 		public StatusCheckWorker(ChronicleTier tier, int indexMod, int workers) {
@@ -407,20 +551,21 @@ public class ChronicleTSManager extends ServerComponentBean implements UncaughtE
 
 			try {
 				final long now = SystemClock.time();
-				for(long index = 0; index < tier.getSize(); index++) {
-					if(index%workers == indexMod) {
-						try {
-							EntryStatus status = tier.statusCheck(index, now, staleWindowSize, offLineWindowSize);							
-							totalUpdates++;
-							if(status!=null) {
-								changeMap.get(status).addMetricIds(index);
-							}
-						} catch (InvalidIndexExcetpion iie) {
-							totalInvalidIndexes++;
-						} catch (Exception ex) {
-							totalExceptions++;
-						}
-					}
+				final long size = tier.getSize();
+				final long range = (size + workers - 1) / workers;
+				final long fromIndex = Math.min(size, range * indexMod);
+				final long toIndex = Math.min(size, fromIndex + range);
+				final long[] errors = new long[2];
+				try {
+					totalUpdates = tier.statusCheck(fromIndex, toIndex, now, staleWindowSize, offLineWindowSize, changeMap.get(EntryStatus.STALE), changeMap.get(EntryStatus.OFFLINE), errors);
+				} catch (Exception ex) {
+					totalExceptions++;
+					log.warn("Status check failed for range [" + fromIndex + "-" + toIndex + "]", ex);
+				}
+				totalInvalidIndexes += errors[0];
+				totalExceptions += errors[1];
+				if(errors[1]>0) {
+					log.warn("Status check failed to update [" + errors[1] + "] entries in range [" + fromIndex + "-" + toIndex + "]");
 				}
 			} finally {
 				latch.get().countDown();
@@ -489,6 +634,21 @@ public class ChronicleTSManager extends ServerComponentBean implements UncaughtE
 		return liveTier;
 	}
 	
+	/**
+	 * Returns the finest grained tier whose retention reaches back to the passed period, 
+	 * or the coarsest tier if none does. Long range queries read far fewer periods from the rollup tiers.
+	 * @param oldestPeriod The oldest period timestamp to be read
+	 * @return the chronicle tier to read
+	 */
+	public ChronicleTier getTierFor(long oldestPeriod) {
+		final long span = SystemClock.time() - oldestPeriod;
+		ChronicleTier tier = liveTier;
+		while(tier.parent!=null && (tier.periods * tier.periodDurationMs) < span) {
+			tier = tier.parent;
+		}
+		return tier;
+	}
+	
 	/**
 	 * Returns the named chronicle tier
 	 * @param name The name of the tier to retrieve
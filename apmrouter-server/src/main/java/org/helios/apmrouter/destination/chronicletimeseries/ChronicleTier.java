@@ -26,6 +26,7 @@ package org.helios.apmrouter.destination.chronicletimeseries;
 
 import java.io.File;
 import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
@@ -33,6 +34,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
 import java.util.regex.Pattern;
 
 import javax.management.Notification;
@@ -48,8 +50,11 @@ import org.helios.apmrouter.catalog.jdbc.h2.NewElementTriggers;
 import org.helios.apmrouter.jmx.JMXHelper;
 import org.helios.apmrouter.metric.IMetric;
 import org.helios.apmrouter.tsmodel.Tier;
+import org.helios.apmrouter.unsafe.UnsafeAdapter;
 import org.helios.apmrouter.util.SystemClock;
 
+import sun.nio.ch.DirectBuffer;
+
 import vanilla.java.chronicle.Excerpt;
 import vanilla.java.chronicle.impl.IndexedChronicle;
 import vanilla.java.chronicle.impl.UnsafeExcerpt;
@@ -95,8 +100,22 @@ public class ChronicleTier implements ChronicleTierMXBean, NotificationListener
 	protected final AtomicLong endPeriod = new AtomicLong(Long.MIN_VALUE);
 	/** The number of metric offline notifications received */
 	protected final AtomicLong offlineNotifications = new AtomicLong(0);
+	/** The number of child tier periods merged into this tier */
+	protected final AtomicLong rollups = new AtomicLong(0);
+	/** The number of child tier periods dropped because they were older than this tier's current period */
+	protected final AtomicLong lateRollups = new AtomicLong(0);
+	/** Indicates if this is the live tier, the only tier that tracks and reports entry status */
+	protected final boolean live;
+	/** The entry sequence counters, striped by metric ID. Odd while an entry is being written. */
+	protected final AtomicLongArray sequences = new AtomicLongArray(SEQ_STRIPES);
+	/** The number of entry updates that found their sequence counter stripe held by another writer */
+	protected final AtomicLong seqContention = new AtomicLong(0);
+	/** The columnar copy of each entry's current period and status, scanned by status checks */
+	protected final EntryHeaderColumns columns = new EntryHeaderColumns();
 	
 
+	/** The number of entry sequence counter stripes. Must be a power of 2. */
+	public static final int SEQ_STRIPES = 4096;
 	/** The number of values in each series entry */
 	protected static final int SERIES_SIZE_IN_LONGS = 5;
 	/** The header offset in each chronicle entry, ie. the length of the start time (long), end time (long), the size (int) and the status (byte) */
@@ -158,6 +177,7 @@ public class ChronicleTier implements ChronicleTierMXBean, NotificationListener
 		log = Logger.getLogger(getClass().getName() + "." + chronicleName);
 		parent = parentTier;
 		manager = tsManager;
+		live = Tier.LIVE_TIER.equals(chronicleName);
 		periods = (int) tier.getPeriodCount();
 		periodDuration = tier.getPeriodDuration().seconds;
 		periodDurationMs = TimeUnit.MILLISECONDS.convert(periodDuration, TimeUnit.SECONDS);
@@ -211,6 +231,8 @@ public class ChronicleTier implements ChronicleTierMXBean, NotificationListener
 			UnsafeExcerpt<IndexedChronicle> ex = createUnsafeExcerpt(key) ;
 			long startTime = ex.readLong();
 			long endTime = ex.readLong();		
+			ex.readInt();
+			columns.set(key, startTime, ex.readByte());
 			tickPeriods(startTime, endTime);
 			ex.finish();
 		}
@@ -223,6 +245,7 @@ public class ChronicleTier implements ChronicleTierMXBean, NotificationListener
 	 * @param changeMap the map containing the status changes
 	 */
 	protected void fireEventStatusChangeEvent(final Map<EntryStatus, EntryStatusChange> changeMap) {
+		if(!live) return;
 		manager.fireEventStatusChangeEvent(changeMap);
 	}
 	
@@ -258,6 +281,24 @@ public class ChronicleTier implements ChronicleTierMXBean, NotificationListener
 		return offlineNotifications.incrementAndGet();
 	}
 	
+	/**
+	 * Returns the number of child tier periods merged into this tier
+	 * @return the number of child tier periods merged into this tier
+	 */
+	@Override
+	public long getRollupCount() {
+		return rollups.get();
+	}
+	
+	/**
+	 * Returns the number of child tier periods dropped because they were older than this tier's current period
+	 * @return the number of late child tier periods dropped
+	 */
+	@Override
+	public long getLateRollupCount() {
+		return lateRollups.get();
+	}
+	
 	
 	/**
 	 * Returns a list containing the period data arrays in this tier for the passed metric Id.
@@ -265,6 +306,59 @@ public class ChronicleTier implements ChronicleTierMXBean, NotificationListener
 	 * @return A list of long arrays
 	 */
 	public List<long[]> getValues(long metricId) {
+		final int stripe = stripe(metricId);
+		while(true) {
+			final long seq = sequences.get(stripe);
+			if((seq & 1L)!=0) {
+				Thread.yield();
+				continue;
+			}
+			List<long[]> results = readValues(metricId);
+			if(sequences.get(stripe)==seq) return results;
+		}
+	}
+	
+	/**
+	 * Copies the completed periods of the passed metric's series, oldest first, straight from the memory mapped entry
+	 * into the passed buffer as consecutive <b><code>{PERIOD, MIN, MAX, AVG, CNT}</code></b> groups. 
+	 * As with {@link #getValues(long)}, the current (incomplete) period is not included.
+	 * @param metricId The metric Id
+	 * @param oldestPeriod Periods older than this timestamp are skipped
+	 * @param buffer The buffer to copy into, which must hold at least <b><code>{@link #getPeriodCount()} * 5</code></b> longs
+	 * @return the number of periods copied
+	 */
+	public int readPeriods(long metricId, long oldestPeriod, long[] buffer) {
+		if(buffer==null || buffer.length < periods * SERIES_SIZE_IN_LONGS) throw new IllegalArgumentException("The passed buffer was null or too small for [" + periods + "] periods", new Throwable());
+		final long address = entryAddress(metricId);
+		final long base = address + HEADER_OFFSET;
+		final int stripe = stripe(metricId);
+		while(true) {
+			final long seq = sequences.get(stripe);
+			if((seq & 1L)!=0) {
+				Thread.yield();
+				continue;
+			}
+			final int size = Math.min(UnsafeAdapter.getInt(address + H_SIZE), periods);
+			int cnt = 0;
+			for(int i = size-1; i > 0; i--) {
+				final long slot = base + (i * SERIES_SIZE_IN_BYTES);
+				if(UnsafeAdapter.getLong(slot) < oldestPeriod) continue;
+				final int offset = cnt * SERIES_SIZE_IN_LONGS;
+				for(int x = 0; x < SERIES_SIZE_IN_LONGS; x++) {
+					buffer[offset + x] = UnsafeAdapter.getLong(slot + (x << 3));
+				}
+				cnt++;
+			}
+			if(sequences.get(stripe)==seq) return cnt;
+		}
+	}
+	
+	/**
+	 * Reads the period data arrays in this tier for the passed metric Id without checking the entry's sequence counter
+	 * @param metricId The metric Id
+	 * @return A list of long arrays
+	 */
+	protected List<long[]> readValues(long metricId) {
 		UnsafeExcerpt<IndexedChronicle> ex = createUnsafeExcerpt(metricId);
 		try {
 			int size = ex.readInt(H_SIZE);
@@ -317,57 +411,252 @@ public class ChronicleTier implements ChronicleTierMXBean, NotificationListener
 	 */
 	public long[] addValue(IMetric metric) {
 		try {
-			long metricId = metric.getToken(), timestamp = metric.getTime();
+			return addValue(metric.getToken(), metric.getTime(), metric.getLongValue());
+		} catch (Throwable t) {
+			log.error("Add Value Error:", t);
+		}
+		return null;
+	}
+	
+	/**
+	 * Adds a new value to the corresponding series in this tier. 
+	 * This is the allocation free form used by callers reading metric records in place.
+	 * <p>The current period is updated directly in the memory mapped entry under the entry's sequence counter
+	 * (see {@link #lockEntry(int)}), so threads writing different metrics proceed in parallel without a monitor,
+	 * and no excerpt or array is created unless the update rolls the period.</p>
+	 * @param metricId The metric ID (token) of the series
+	 * @param timestamp The timestamp of the value
+	 * @param value The value to add
+	 * @return the rolled value or null if this operation updates the current period
+	 */
+	public long[] addValue(long metricId, long timestamp, long value) {
+		try {
 			if(metricId<0) throw new IllegalArgumentException("The metric ID cannot be < 0", new Throwable());
-			UnsafeExcerpt<IndexedChronicle> ex = createUnsafeExcerpt(metricId);
+			final long address = entryAddress(metricId);
 			final long period = SystemClock.period(periodDurationMs, timestamp);
-			ex.readLong(); ex.readLong();
-			int pCount = ex.readInt();	
-			if(pCount>this.periods || pCount<0) {
-				SeriesEntry se = new SeriesEntry(createUnsafeExcerpt(), metric.getToken(), false);
-				Throwable t = new Throwable();
-				t.printStackTrace(System.err);
-				throw new RuntimeException("Read pCount was [" + pCount + "] but tier count is [" + this.periods + "] for metric [" + metric.getToken() + "/" + metric.getFQN() + "]\n\tSeries Dump:" + se , new Throwable());
+			final long slot = address + HEADER_OFFSET;
+			final int stripe = stripe(metricId);
+			final long seq = lockEntry(stripe);
+			final int pCount;
+			final byte priorStatus;
+			long[] rolled = null;
+			try {
+				pCount = UnsafeAdapter.getInt(address + H_SIZE);
+				if(pCount>this.periods || pCount<0) {
+					throw new RuntimeException("Read pCount was [" + pCount + "] but tier count is [" + this.periods + "] for metric [" + metricId + "]", new Throwable());
+				}
+				if(pCount==0) {
+					UnsafeAdapter.putLong(address + H_START, period);
+					UnsafeAdapter.putLong(address + H_END, period + this.periodDurationMs);
+					UnsafeAdapter.putInt(address + H_SIZE, 1);
+					writeSlot(slot, period, value);
+					columns.setPeriod(metricId, period);
+				} else {
+					final long current = UnsafeAdapter.getLong(slot);
+					if(period<current) {
+						return null;
+					} else if(period==current) {
+						long cnt = UnsafeAdapter.getLong(slot + (CNT << 3));
+						if(value < UnsafeAdapter.getLong(slot + (MIN << 3))) UnsafeAdapter.putLong(slot + (MIN << 3), value);
+						if(value > UnsafeAdapter.getLong(slot + (MAX << 3))) UnsafeAdapter.putLong(slot + (MAX << 3), value);
+						if(cnt<=0) {
+							UnsafeAdapter.putLong(slot + (AVG << 3), value);
+							UnsafeAdapter.putLong(slot + (CNT << 3), 1);
+						} else {
+							double avg = UnsafeAdapter.getLong(slot + (AVG << 3));
+							UnsafeAdapter.putLong(slot + (AVG << 3), (long)((avg * cnt + value) / (cnt + 1)));
+							UnsafeAdapter.putLong(slot + (CNT << 3), cnt + 1);
+						}
+					} else {
+						rolled = new long[SERIES_SIZE_IN_LONGS];
+						for(int i = 0; i < SERIES_SIZE_IN_LONGS; i++) {
+							rolled[i] = UnsafeAdapter.getLong(slot + (i << 3));
+						}
+						final int rollSize = pCount<this.periods ? pCount : pCount-1;
+						UnsafeAdapter.copyMemory(slot, slot + SERIES_SIZE_IN_BYTES, rollSize * SERIES_SIZE_IN_BYTES);
+						writeSlot(slot, period, value);
+						UnsafeAdapter.putLong(address + H_START, period);
+						UnsafeAdapter.putLong(address + H_END, period + this.periodDurationMs);
+						if(pCount<this.periods) UnsafeAdapter.putInt(address + H_SIZE, pCount+1);
+						columns.setPeriod(metricId, period);
+					}
+				}
+				priorStatus = UnsafeAdapter.getByte(address + H_STATUS);
+				if(priorStatus!=EntryStatus.ACTIVE.byteOrdinal()) {
+					UnsafeAdapter.putByte(address + H_STATUS, EntryStatus.ACTIVE.byteOrdinal());
+					columns.setStatus(metricId, EntryStatus.ACTIVE.byteOrdinal());
+				}
+			} finally {
+				unlockEntry(stripe, seq);
 			}
+			if(pCount==0 || rolled!=null) {
+				tickPeriods(period, pCount==0 ? period : period + this.periodDurationMs);
+			}
+			if(priorStatus!=EntryStatus.ACTIVE.byteOrdinal()) {
+				fireEventStatusChangeEvent(EntryStatus.EntryStatusChange.getChangeMap(SystemClock.time(), metricId, EntryStatus.ACTIVE));
+			}
+			if(rolled!=null && parent!=null) manager.rollup(parent, metricId, rolled);
+			return rolled;
+		} catch (Throwable t) {
+			log.error("Add Value Error:", t);
+		}
+		return null;
+	}
+	
+	/**
+	 * Writes a single value period into the series slot at the passed address
+	 * @param slot The address of the slot
+	 * @param period The period
+	 * @param value The value
+	 */
+	protected static void writeSlot(long slot, long period, long value) {
+		UnsafeAdapter.putLong(slot, period);
+		UnsafeAdapter.putLong(slot + (MIN << 3), value);
+		UnsafeAdapter.putLong(slot + (MAX << 3), value);
+		UnsafeAdapter.putLong(slot + (AVG << 3), value);
+		UnsafeAdapter.putLong(slot + (CNT << 3), 1);
+	}
+	
+	/**
+	 * Returns the native address of the entry for the passed metric ID in the memory mapped chronicle
+	 * @param metricId The metric ID
+	 * @return the entry address
+	 * @throws IllegalArgumentException thrown if the entry does not exist in this tier
+	 */
+	protected long entryAddress(long metricId) {
+		if(metricId >= chronicle.size()) throw new IllegalArgumentException("Failed to set the excerpt index to [" + metricId + "] in tier [" + chronicleName + "]", new Throwable());
+		final long startPosition = chronicle.getIndexData(metricId);
+		return ((DirectBuffer)chronicle.acquireDataBuffer(startPosition)).address() + chronicle.positionInBuffer(startPosition);
+	}
+	
+	/**
+	 * Returns the sequence counter stripe for the passed metric ID
+	 * @param metricId The metric ID
+	 * @return the stripe index
+	 */
+	protected static int stripe(long metricId) {
+		return (int)(metricId & (SEQ_STRIPES-1));
+	}
+	
+	/**
+	 * Acquires the write side of a stripe's sequence counter by CASing it from even to odd. 
+	 * The counters are kept on the heap rather than in the entry header because the persisted header 
+	 * has no spare, aligned long to hold them. 
+	 * @param stripe The stripe index
+	 * @return the acquired (odd) sequence
+	 */
+	protected long lockEntry(int stripe) {
+		for(int spins = 0; ; spins++) {
+			final long seq = sequences.get(stripe);
+			if((seq & 1L)==0 && sequences.compareAndSet(stripe, seq, seq+1)) return seq+1;
+			if(spins==0) seqContention.incrementAndGet();
+			if(spins > 64) Thread.yield();
+		}
+	}
+	
+	/**
+	 * Releases the write side of a stripe's sequence counter, publishing the entry updates to readers
+	 * @param stripe The stripe index
+	 * @param seq The sequence returned from {@link #lockEntry(int)}
+	 */
+	protected void unlockEntry(int stripe, long seq) {
+		sequences.lazySet(stripe, seq+1);
+	}
+	
+	/**
+	 * Returns the number of entry updates that found their sequence counter stripe held by another writer
+	 * @return the number of contended entry updates
+	 */
+	@Override
+	public long getSequenceContention() {
+		return seqContention.get();
+	}
+	
+	/**
+	 * Merges a period rolled out of the child tier into the corresponding period of this tier's series.
+	 * Called by the manager's rollup thread, so merges into a tier are applied in the order the child periods rolled.
+	 * If the merge rolls this tier's current period, the rolled period cascades to this tier's parent.
+	 * @param metricId The metric ID (token) of the series
+	 * @param rolled The rolled child period values
+	 * @return the rolled value or null if this operation updates the current period
+	 */
+	public long[] mergePeriod(long metricId, long[] rolled) {
+		if(metricId<0) throw new IllegalArgumentException("The metric ID cannot be < 0", new Throwable());
+		if(rolled==null || rolled.length!=SERIES_SIZE_IN_LONGS) throw new IllegalArgumentException("Invalid rolled period " + Arrays.toString(rolled), new Throwable());
+		if(rolled[CNT]<1) return null;
+		ensureEntry(metricId);
+		final long period = SystemClock.period(periodDurationMs, rolled[PERIOD]);
+		final int stripe = stripe(metricId);
+		final long seq = lockEntry(stripe);
+		try {
+			UnsafeExcerpt<IndexedChronicle> ex = createUnsafeExcerpt(metricId);
+			int pCount = ex.readInt(H_SIZE);
 			if(pCount==0) {
 				ex.finish();
-				writeNewPeriod(period, metric);		
+				writeNewPeriod(period, metricId, rolled[MIN], rolled[MAX], rolled[AVG], rolled[CNT]);
 				tickPeriods(period, period);
+				rollups.incrementAndGet();
 				return null;
 			}
-			int periodIndex = getPeriodIndex(metric.getToken(), period);
-			switch(periodIndex) {
-				case -1:
-					return null;
-				case 0:
-					ex.finish();
-					writeNewPeriod(period, metric);
-					break;				
-				case 1:
-					updateCurrentPeriod(ex, metric, true);
-					break;
-				case 2:
-					// roll and update 
-					return rollAndMerge(pCount, period, metric, ex);
-					//break;
-				default:
-					log.warn("Unexpected period index ["+ periodIndex + "]");
+			long current = ex.readLong(HEADER_OFFSET);
+			if(period==current) {
+				mergeCurrentPeriod(ex, metricId, rolled[MIN], rolled[MAX], rolled[AVG], rolled[CNT], true);
+				rollups.incrementAndGet();
+				return null;
+			}
+			if(period<current) {
+				ex.finish();
+				lateRollups.incrementAndGet();
+				return null;
+			}
+			rollups.incrementAndGet();
+			return rollAndMerge(pCount, period, metricId, rolled[MIN], rolled[MAX], rolled[AVG], rolled[CNT], ex);
+		} finally {
+			unlockEntry(stripe, seq);
+		}
+	}
+	
+	/**
+	 * Ensures this tier has an entry for the passed metric ID. Series entries are indexed by metric ID,
+	 * so entries are appended until the chronicle reaches the passed index.
+	 * @param metricId The metric ID to ensure an entry for
+	 */
+	protected void ensureEntry(long metricId) {
+		if(metricId < chronicle.size()) return;
+		synchronized(this) {
+			while(chronicle.size() <= metricId) {
+				createNewMetric();
 			}
-		} catch (Throwable t) {
-			log.error("Add Value Error:", t);
 		}
-		return null;
 	}
 	
 	/**
 	 * Triggers a period roll, where the existing period data is rolled one period to the right and a new period is initialized in the current slot.
 	 * @param currentSize The current number of periods in the series
 	 * @param period The period of the incoming metric
-	 * @param metric The metric to write
+	 * @param metricId The metric ID to write
+	 * @param value The value to write
 	 * @param ex The excerpt to use
 	 * @return the values of the prior period that was rolled into the next slot
 	 */
-	protected long[] rollAndMerge(int currentSize, long period, IMetric metric, UnsafeExcerpt<IndexedChronicle> ex) {
+	protected long[] rollAndMerge(int currentSize, long period, long metricId, long value, UnsafeExcerpt<IndexedChronicle> ex) {
+		return rollAndMerge(currentSize, period, metricId, value, value, value, 1, ex);
+	}
+	
+	/**
+	 * Triggers a period roll, where the existing period data is rolled one period to the right and a new period is initialized in the current slot
+	 * with the passed aggregate. The rolled period is handed to the manager to be merged into the parent tier, if there is one.
+	 * @param currentSize The current number of periods in the series
+	 * @param period The period of the incoming aggregate
+	 * @param metricId The metric ID to write
+	 * @param min The minimum value of the aggregate
+	 * @param max The maximum value of the aggregate
+	 * @param avg The average value of the aggregate
+	 * @param cnt The number of values in the aggregate
+	 * @param ex The excerpt to use
+	 * @return the values of the prior period that was rolled into the next slot
+	 */
+	protected long[] rollAndMerge(int currentSize, long period, long metricId, long min, long max, long avg, long cnt, UnsafeExcerpt<IndexedChronicle> ex) {
 		if((currentSize)>this.periods || (currentSize)<1) {
 			Throwable t = new Throwable();
 			t.printStackTrace(System.err);
@@ -384,58 +673,91 @@ public class ChronicleTier implements ChronicleTierMXBean, NotificationListener
 		}
 		long[] retValues = ex.insertNewPeriod(incPos, SERIES_SIZE_IN_LONGS, rollSize, HEADER_OFFSET, new long[]{period, Long.MAX_VALUE,Long.MIN_VALUE,0,0});
 		ex.writeLongArray(H_START, new long[]{period, (period + this.periodDurationMs)});
+		columns.setPeriod(metricId, period);
 		tickPeriods(period, period + this.periodDurationMs);		
-		updateCurrentPeriod(ex, metric, false);
+		mergeCurrentPeriod(ex, metricId, min, max, avg, cnt, false);
 		if(incPos) ex.writeInt(H_SIZE, (currentSize+1));
 		ex.finish();
+		if(parent!=null) manager.rollup(parent, metricId, retValues);
 		return retValues;
 	}
 	
 	/**
 	 * Creates and writes the passed metric into a new period
 	 * @param period The period
-	 * @param metric The metric to write
+	 * @param metricId The metric ID to write
+	 * @param value The value to write
+	 */
+	protected void writeNewPeriod(long period, long metricId, long value) {
+		writeNewPeriod(period, metricId, value, value, value, 1);
+	}
+	
+	/**
+	 * Creates and writes the passed aggregate into a new period
+	 * @param period The period
+	 * @param metricId The metric ID to write
+	 * @param min The minimum value of the aggregate
+	 * @param max The maximum value of the aggregate
+	 * @param avg The average value of the aggregate
+	 * @param cnt The number of values in the aggregate
 	 */
-	protected void writeNewPeriod(long period, IMetric metric) {
-		UnsafeExcerpt<IndexedChronicle> ex = createUnsafeExcerpt(metric.getToken());
+	protected void writeNewPeriod(long period, long metricId, long min, long max, long avg, long cnt) {
+		UnsafeExcerpt<IndexedChronicle> ex = createUnsafeExcerpt(metricId);
 		ex.writeLongArray(new long[]{period, period + this.periodDurationMs});
 		ex.writeInt(1);
 		byte priorStatus = ex.readByte(H_STATUS);
 		ex.writeByte(EntryStatus.ACTIVE.byteOrdinal());
-		long value = metric.getLongValue();
-		ex.writeLongArray(new long[]{period, value, value, value, 1});
+		ex.writeLongArray(new long[]{period, min, max, avg, cnt});
+		columns.set(metricId, period, EntryStatus.ACTIVE.byteOrdinal());
 		ex.finish();
 		if(priorStatus!=EntryStatus.ACTIVE.byteOrdinal()) {
-			fireEventStatusChangeEvent(EntryStatus.EntryStatusChange.getChangeMap(SystemClock.time(), metric.getMetricId().getToken(), EntryStatus.ACTIVE));
+			fireEventStatusChangeEvent(EntryStatus.EntryStatusChange.getChangeMap(SystemClock.time(), metricId, EntryStatus.ACTIVE));
 		}
 	}
 	
 	/**
 	 * Writes the passed metric into the current period
 	 * @param ex The excerpt to use
-	 * @param metric The metric to write
+	 * @param metricId The metric ID to write
+	 * @param val The value to write
+	 * @param finish If true, the write is committed, otherwise, the excerpt is left open
+	 */
+	protected void updateCurrentPeriod(UnsafeExcerpt<IndexedChronicle> ex, long metricId, long val, boolean finish) {		
+		mergeCurrentPeriod(ex, metricId, val, val, val, 1, finish);
+	}
+	
+	/**
+	 * Merges the passed aggregate into the current period. The average is weighted by the counts
+	 * so a merged period's average is the mean of all the values it represents.
+	 * @param ex The excerpt to use
+	 * @param metricId The metric ID to write
+	 * @param min The minimum value of the aggregate
+	 * @param max The maximum value of the aggregate
+	 * @param avg The average value of the aggregate
+	 * @param cnt The number of values in the aggregate
 	 * @param finish If true, the write is committed, otherwise, the excerpt is left open
 	 */
-	protected void updateCurrentPeriod(UnsafeExcerpt<IndexedChronicle> ex, IMetric metric, boolean finish) {		
+	protected void mergeCurrentPeriod(UnsafeExcerpt<IndexedChronicle> ex, long metricId, long min, long max, long avg, long cnt, boolean finish) {
 		long[] values = ex.readLongArray(HEADER_OFFSET, SERIES_SIZE_IN_LONGS);
-		long val = metric.getLongValue();
-		if(val < values[MIN]) values[MIN] = val;
-		if(val > values[MAX]) values[MAX] = val;
-		if(values[CNT]==0) {
-			values[AVG] = val;
+		if(min < values[MIN]) values[MIN] = min;
+		if(max > values[MAX]) values[MAX] = max;
+		if(values[CNT]<=0) {
+			values[AVG] = avg;
+			values[CNT] = cnt;
 		} else {
-			long tmpTotal = values[AVG]+val;
-			values[AVG] = tmpTotal==0 ? 0 : tmpTotal/2;
+			long total = values[CNT] + cnt;
+			values[AVG] = (long)(((double)values[AVG] * values[CNT] + (double)avg * cnt) / total);
+			values[CNT] = total;
 		}
-		values[CNT]++;
 		byte priorStatus = ex.readByte(H_STATUS);
 		ex.write(H_STATUS, EntryStatus.ACTIVE.byteOrdinal());		
 		ex.writeLongArray(HEADER_OFFSET, values);
+		if(priorStatus!=EntryStatus.ACTIVE.byteOrdinal()) columns.setStatus(metricId, EntryStatus.ACTIVE.byteOrdinal());
 		if(finish) {
 			ex.finish();
 		}
 		if(priorStatus!=EntryStatus.ACTIVE.byteOrdinal()) {
-			fireEventStatusChangeEvent(EntryStatus.EntryStatusChange.getChangeMap(SystemClock.time(), metric.getMetricId().getToken(), EntryStatus.ACTIVE));
+			fireEventStatusChangeEvent(EntryStatus.EntryStatusChange.getChangeMap(SystemClock.time(), metricId, EntryStatus.ACTIVE));
 		}
 
 	}
@@ -511,11 +833,13 @@ public class ChronicleTier implements ChronicleTierMXBean, NotificationListener
 		if(elapsed >= offLineThreshold) {
 			if(status!=EntryStatus.OFFLINE) {
 				se.updateStatus(EntryStatus.OFFLINE);
+				columns.setStatus(metricId, EntryStatus.OFFLINE.byteOrdinal());
 				return EntryStatus.OFFLINE;
 			}
 		} else 	if(elapsed >= staleThreshold) {
 			if(status!=EntryStatus.STALE) {
 				se.updateStatus(EntryStatus.STALE);
+				columns.setStatus(metricId, EntryStatus.STALE.byteOrdinal());
 				return EntryStatus.STALE;
 			}
 		}
@@ -523,6 +847,94 @@ public class ChronicleTier implements ChronicleTierMXBean, NotificationListener
 		return null;
 	}
 	
+	/**
+	 * Performs a status check on the entries in the passed index range. The range is scanned sequentially
+	 * through the {@link EntryHeaderColumns} and the chronicle is only written for entries whose status changes.
+	 * An entry that fails to update is counted in the passed error counts and the scan continues with the next entry.
+	 * @param fromIndex The first index to check (inclusive)
+	 * @param toIndex The last index to check (exclusive)
+	 * @param currentTime The effective time of this check in ms.
+	 * @param staleThreshold The maximum age of an entry in ms. before it is marked stale
+	 * @param offLineThreshold The maximum age of an entry in ms. before it is marked offline
+	 * @param stales The change collector for entries marked stale
+	 * @param offLines The change collector for entries marked offline
+	 * @param errors A two slot array incremented with the number of invalid indexes (slot 0) and other update exceptions (slot 1)
+	 * @return the number of entries checked
+	 */
+	public long statusCheck(long fromIndex, long toIndex, long currentTime, long staleThreshold, long offLineThreshold, EntryStatusChange stales, EntryStatusChange offLines, long[] errors) {
+		final long staleBefore = currentTime - staleThreshold;
+		final long offLineBefore = currentTime - offLineThreshold;
+		final byte stale = EntryStatus.STALE.byteOrdinal();
+		final byte offLine = EntryStatus.OFFLINE.byteOrdinal();
+		long checked = 0;
+		long index = fromIndex;
+		while(index < toIndex) {
+			final int from = (int)(index & EntryHeaderColumns.PAGE_MASK);
+			final int to = (int)Math.min(EntryHeaderColumns.PAGE_SIZE, from + (toIndex - index));
+			final long base = index - from;
+			final EntryHeaderColumns.Page page = columns.page(index, false);
+			if(page==null) break;
+			final LongBuffer periods = page.periods;
+			final ByteBuffer statuses = page.statuses;
+			for(int i = from; i < to; i++) {
+				final long period = periods.get(i);
+				final byte status = statuses.get(i);
+				try {
+					if(period <= offLineBefore) {
+						if(status!=offLine && updateStatus(base + i, offLine, offLineBefore)) offLines.addMetricIds(base + i);
+					} else if(period <= staleBefore) {
+						if(status!=stale && updateStatus(base + i, stale, staleBefore)) stales.addMetricIds(base + i);
+					}
+				} catch (InvalidIndexExcetpion iie) {
+					errors[0]++;
+				} catch (Exception ex) {
+					errors[1]++;
+				}
+			}
+			checked += (to - from);
+			index = base + to;
+		}
+		return checked;
+	}
+	
+	/**
+	 * Writes a status change found by a status check into an entry, unless the entry's period advanced since it was scanned
+	 * @param metricId The metric id of the entry
+	 * @param status The new status byte
+	 * @param before The period timestamp the entry's period must not be later than for the change to apply
+	 * @return true if the status was changed
+	 */
+	protected boolean updateStatus(long metricId, byte status, long before) {
+		final int stripe = stripe(metricId);
+		final long seq = lockEntry(stripe);
+		try {
+			if(columns.getPeriod(metricId) > before) return false;
+			UnsafeAdapter.putByte(entryAddress(metricId) + H_STATUS, status);
+			columns.setStatus(metricId, status);
+			return true;
+		} finally {
+			unlockEntry(stripe, seq);
+		}
+	}
+	
+	/**
+	 * Returns the number of pages allocated for the entry header columns
+	 * @return the number of entry header column pages
+	 */
+	@Override
+	public int getHeaderColumnPages() {
+		return columns.getPageCount();
+	}
+	
+	/**
+	 * Returns the number of off-heap bytes allocated for the entry header columns
+	 * @return the number of entry header column bytes
+	 */
+	@Override
+	public long getHeaderColumnBytes() {
+		return columns.getAllocatedBytes();
+	}
+	
 	/**
 	 * An update of a metric's entry status in the live tier triggered by the h2 metric table trigger.
 	 * Since this is coming from the metric table, no event is needed.
@@ -533,6 +945,7 @@ public class ChronicleTier implements ChronicleTierMXBean, NotificationListener
 		try {
 			SeriesEntry se = new SeriesEntry(createUnsafeExcerpt(), metricId, false);
 			se.updateStatus(status);
+			columns.setStatus(metricId, status.byteOrdinal());
 		} catch (Exception ex) {
 			/* No Op */
 		}
@@ -564,6 +977,7 @@ public class ChronicleTier implements ChronicleTierMXBean, NotificationListener
 		ex.writeLongArray(HEADER_OFFSET + (seriesIndex * SERIES_SIZE_IN_BYTES), values);
 		if(status!=EntryStatus.ACTIVE) {
 			ex.write(H_STATUS, EntryStatus.ACTIVE.byteOrdinal());
+			columns.setStatus(index, EntryStatus.ACTIVE.byteOrdinal());
 			fireEventStatusChangeEvent(EntryStatus.EntryStatusChange.getChangeMap(SystemClock.time(), index, EntryStatus.ACTIVE));
 		}
 	}
@@ -664,6 +1078,7 @@ public class ChronicleTier implements ChronicleTierMXBean, NotificationListener
 				ex.writeLong(-1L);
 			}
 			ex.finish();		
+			columns.set(ex.index(), time, EntryStatus.ACTIVE.byteOrdinal());
 			return ex.index();
 		} catch (Exception ex) {
 			log.error("Failed to create new metric entry", ex);
@@ -151,5 +151,35 @@ public interface ChronicleTierMXBean {
 	 */
 	public long getOffLineNotificationCount();	
 	
+	/**
+	 * Returns the number of child tier periods merged into this tier
+	 * @return the number of child tier periods merged into this tier
+	 */
+	public long getRollupCount();
+	
+	/**
+	 * Returns the number of child tier periods dropped because they were older than this tier's current period
+	 * @return the number of late child tier periods dropped
+	 */
+	public long getLateRollupCount();
+	
+	/**
+	 * Returns the number of entry updates that found their sequence counter stripe held by another writer
+	 * @return the number of contended entry updates
+	 */
+	public long getSequenceContention();
+	
+	/**
+	 * Returns the number of pages allocated for the entry header columns
+	 * @return the number of entry header column pages
+	 */
+	public int getHeaderColumnPages();
+	
+	/**
+	 * Returns the number of off-heap bytes allocated for the entry header columns
+	 * @return the number of entry header column bytes
+	 */
+	public long getHeaderColumnBytes();
+	
 	
 }
@@ -0,0 +1,161 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.apmrouter.destination.chronicletimeseries;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+
+/**
+ * <p>Title: EntryHeaderColumns</p>
+ * <p>Description: A compact, columnar off-heap copy of the status check state of each entry in a {@link ChronicleTier}:
+ * the current period start timestamp and the entry status byte, indexed by metric ID. The tier keeps the columns current
+ * as it writes the entry headers, so a status check can scan contiguous index ranges sequentially without touching the chronicle.</p>
+ * <p>The columns are allocated in pages of {@link #PAGE_SIZE} entries as the tier grows.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.apmrouter.destination.chronicletimeseries.EntryHeaderColumns</code></p>
+ */
+public class EntryHeaderColumns {
+	/** The allocated pages */
+	protected volatile Page[] pages = new Page[0];
+
+	/** The page size shift */
+	public static final int PAGE_SHIFT = 16;
+	/** The number of entries in each page */
+	public static final int PAGE_SIZE = 1 << PAGE_SHIFT;
+	/** The page offset mask */
+	public static final int PAGE_MASK = PAGE_SIZE-1;
+	/** The number of off-heap bytes allocated for each page */
+	public static final int PAGE_BYTES = PAGE_SIZE * 9;
+
+	/**
+	 * Sets the period and status of an entry
+	 * @param index The entry index (metric ID)
+	 * @param period The entry's current period start timestamp
+	 * @param status The entry status byte
+	 */
+	public void set(long index, long period, byte status) {
+		Page page = page(index, true);
+		int offset = (int)(index & PAGE_MASK);
+		page.periods.put(offset, period);
+		page.statuses.put(offset, status);
+	}
+
+	/**
+	 * Sets the current period start timestamp of an entry
+	 * @param index The entry index (metric ID)
+	 * @param period The entry's current period start timestamp
+	 */
+	public void setPeriod(long index, long period) {
+		page(index, true).periods.put((int)(index & PAGE_MASK), period);
+	}
+
+	/**
+	 * Sets the status of an entry
+	 * @param index The entry index (metric ID)
+	 * @param status The entry status byte
+	 */
+	public void setStatus(long index, byte status) {
+		page(index, true).statuses.put((int)(index & PAGE_MASK), status);
+	}
+
+	/**
+	 * Returns the current period start timestamp of an entry
+	 * @param index The entry index (metric ID)
+	 * @return the period start timestamp or -1 if the entry is not in the columns
+	 */
+	public long getPeriod(long index) {
+		Page page = page(index, false);
+		return page==null ? -1L : page.periods.get((int)(index & PAGE_MASK));
+	}
+
+	/**
+	 * Returns the status of an entry
+	 * @param index The entry index (metric ID)
+	 * @return the status byte or -1 if the entry is not in the columns
+	 */
+	public byte getStatus(long index) {
+		Page page = page(index, false);
+		return page==null ? -1 : page.statuses.get((int)(index & PAGE_MASK));
+	}
+
+	/**
+	 * Returns the page holding the passed index
+	 * @param index The entry index
+	 * @param create true to allocate the page (and any preceding pages) if it does not exist
+	 * @return the page or null if it does not exist and create was false
+	 */
+	Page page(long index, boolean create) {
+		if(index<0) throw new IllegalArgumentException("The index cannot be < 0", new Throwable());
+		final int p = (int)(index >>> PAGE_SHIFT);
+		Page[] _pages = pages;
+		if(p < _pages.length) return _pages[p];
+		if(!create) return null;
+		synchronized(this) {
+			_pages = pages;
+			if(p >= _pages.length) {
+				Page[] grown = new Page[p+1];
+				System.arraycopy(_pages, 0, grown, 0, _pages.length);
+				for(int i = _pages.length; i <= p; i++) {
+					grown[i] = new Page();
+				}
+				pages = grown;
+				_pages = grown;
+			}
+			return _pages[p];
+		}
+	}
+
+	/**
+	 * Returns the number of allocated pages
+	 * @return the number of allocated pages
+	 */
+	public int getPageCount() {
+		return pages.length;
+	}
+
+	/**
+	 * Returns the number of off-heap bytes allocated
+	 * @return the number of off-heap bytes allocated
+	 */
+	public long getAllocatedBytes() {
+		return (long)pages.length * PAGE_BYTES;
+	}
+
+	/**
+	 * <p>Title: Page</p>
+	 * <p>Description: One page of entry header columns</p>
+	 * <p>Company: Helios Development Group LLC</p>
+	 * @author Whitehead (nwhitehead AT heliosdev DOT org)
+	 * <p><code>org.helios.apmrouter.destination.chronicletimeseries.EntryHeaderColumns.Page</code></p>
+	 */
+	static class Page {
+		/** The current period start timestamps */
+		final LongBuffer periods = ByteBuffer.allocateDirect(PAGE_SIZE << 3).order(ByteOrder.nativeOrder()).asLongBuffer();
+		/** The status bytes */
+		final ByteBuffer statuses = ByteBuffer.allocateDirect(PAGE_SIZE);
+	}
+}
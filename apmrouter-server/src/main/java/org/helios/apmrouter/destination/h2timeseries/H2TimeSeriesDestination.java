@@ -41,8 +41,10 @@ import javax.management.ObjectName;
 import javax.sql.DataSource;
 
 import org.helios.apmrouter.catalog.jdbc.h2.NewElementTriggers;
+import org.helios.apmrouter.dataservice.json.catalog.MetricURISubscription;
 import org.helios.apmrouter.collections.ConcurrentLongSlidingWindow;
 import org.helios.apmrouter.collections.ILongSlidingWindow;
+import org.helios.apmrouter.collections.LatencyHistogram;
 import org.helios.apmrouter.collections.UnsafeArray;
 import org.helios.apmrouter.destination.BaseDestination;
 import org.helios.apmrouter.destination.accumulator.FlushQueueReceiver;
@@ -51,8 +53,12 @@ import org.helios.apmrouter.destination.chronicletimeseries.ChronicleTSManager;
 import org.helios.apmrouter.destination.chronicletimeseries.ChronicleTier;
 import org.helios.apmrouter.jmx.JMXHelper;
 import org.helios.apmrouter.metric.IMetric;
+import org.helios.apmrouter.metric.catalog.ICEMetricCatalog;
+import org.helios.apmrouter.router.CursorRouteDestination;
+import org.helios.apmrouter.server.MetricCounter;
 import org.helios.apmrouter.subscription.SubscriptionService;
 import org.helios.apmrouter.subscription.criteria.SubscriptionCriteriaInstance;
+import org.helios.apmrouter.trace.DirectMetricCollection;
 import org.helios.apmrouter.util.SystemClock;
 import org.helios.apmrouter.util.SystemClock.ElapsedTime;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -73,7 +79,7 @@ import org.springframework.jmx.support.MetricType;
 @ManagedNotifications({
 	@ManagedNotification(notificationTypes={H2TimeSeriesDestination.NOTIF_TYPE}, name="javax.management.Notification", description="Notification issued when a subscribed metric has an interval roll")
 })
-public class H2TimeSeriesDestination extends BaseDestination implements FlushQueueReceiver<IMetric>,  NotificationListener, NotificationFilter {
+public class H2TimeSeriesDestination extends BaseDestination implements FlushQueueReceiver<IMetric>,  NotificationListener, NotificationFilter, CursorRouteDestination {
 	/**  */
 	private static final long serialVersionUID = -3619596215620538601L;
 	/** The H2 data source */
@@ -109,9 +115,11 @@ public class H2TimeSeriesDestination extends BaseDestination implements FlushQue
 	protected final AtomicLong jmxNotifSerial = new AtomicLong(0L);
 	/** The subscription cache containing a map of the number of metricId subscribers keyed by the metricId subscribed to */
 	protected final MetricIdSubCache subCache = new MetricIdSubCache();
+	/** The forwarded metrics counter */
+	protected final MetricCounter metricsForwarded = counter("MetricsForwarded");
 	
-	/** The last elapsed write time in ms */
-	protected final ILongSlidingWindow lastElapsedNs = new ConcurrentLongSlidingWindow(60);
+	/** Histogram of elapsed write times in ns */
+	protected final LatencyHistogram lastElapsedNs = new LatencyHistogram();
 	/** The last average elapsed write time per metric in ns */
 	protected final ILongSlidingWindow lastAvgPerElapsedNs = new ConcurrentLongSlidingWindow(60);
 	/** The last saved batch size */
@@ -224,25 +232,22 @@ public class H2TimeSeriesDestination extends BaseDestination implements FlushQue
 		try {	
 			routable.getLongValue();
 			//flushQueue.put(routable);
-			SystemClock.startTimer();
-			long[] rolledPeriod = null;
-			synchronized(routable.getMetricId()) {
-				rolledPeriod = liveTier.addValue(routable);
-			}
+			final long start = System.nanoTime();
+			long[] rolledPeriod = liveTier.addValue(routable);
 			// ==========================================================
 			// ==========================================================
 			//		Queue Metrics for URISubscriptions here
 			// ==========================================================
 			// ==========================================================
-			NewElementTriggers.realTimeDataQueue.add(new Object[]{rolledPeriod, routable});
+			NewElementTriggers.realTimeDataQueue.offer(routable.getToken(), new Object[]{rolledPeriod, routable});
 			if(rolledPeriod!=null) { 
 				if(subCache.containsKey(routable.getToken())) {
 					sendIntervalRollEvent(rolledPeriod, routable);
 				}
 			}
-			lastElapsedNs.insert(SystemClock.endTimer().elapsedNs);
+			lastElapsedNs.recordSince(start);
 			//info("Elapsed Time:", SystemClock.endTimer());
-			incr("MetricsForwarded");
+			metricsForwarded.increment();
 		} catch (Exception e) {
 			incr("InvalidMetricDrops");
 			//error("Invalid Metric Type [", routable, "]");
@@ -250,6 +255,38 @@ public class H2TimeSeriesDestination extends BaseDestination implements FlushQue
 		}
 	}
 	
+	/**
+	 * {@inheritDoc}
+	 * <p>Writes the record's value straight into the live tier. An {@link IMetric} is only built for the record 
+	 * when a real-time subscription or an interval roll subscriber needs one.</p>
+	 * @see org.helios.apmrouter.router.CursorRouteDestination#acceptRoute(org.helios.apmrouter.trace.DirectMetricCollection.MetricCursor)
+	 */
+	@Override
+	public void acceptRoute(DirectMetricCollection.MetricCursor cursor) {
+		acceptedRoutes.increment();
+		final long token = cursor.getToken();
+		if(ICEMetricCatalog.getInstance().get(token)==null || !cursor.getType().isLong()) {
+			doAcceptRoute(cursor.toMetric());
+			return;
+		}
+		try {
+			final long start = System.nanoTime();
+			long[] rolledPeriod = liveTier.addValue(token, cursor.getTime(), cursor.getLongValue());
+			boolean rollSub = rolledPeriod!=null && subCache.containsKey(token);
+			if(rollSub || MetricURISubscription.getSubscriptionsForMetric(token)!=null) {
+				IMetric routable = cursor.toMetric();
+				NewElementTriggers.realTimeDataQueue.offer(token, new Object[]{rolledPeriod, routable});
+				if(rollSub) {
+					sendIntervalRollEvent(rolledPeriod, routable);
+				}
+			}
+			lastElapsedNs.recordSince(start);
+			metricsForwarded.increment();
+		} catch (Exception e) {
+			incr("InvalidMetricDrops");
+		}
+	}
+	
 	/**
 	 * {@inheritDoc}
 	 * @see org.helios.apmrouter.server.ServerComponent#getSupportedMetricNames()
@@ -359,10 +396,10 @@ public class H2TimeSeriesDestination extends BaseDestination implements FlushQue
 	}
 	
 	/**
-	 * Returns the rolling average of elapsed write times in ms
-	 * @return the rolling average of elapsed write times in ms
+	 * Returns the average of elapsed write times in ms over the last interval
+	 * @return the average of elapsed write times in ms
 	 */
-	@ManagedMetric(category="H2TimeSeries", metricType=MetricType.GAUGE, description="the rolling average of elapsed write times in ms")
+	@ManagedMetric(category="H2TimeSeries", metricType=MetricType.GAUGE, description="the average of elapsed write times in ms over the last interval")
 	public long getRollingElapsedWriteTimeMs() {
 		return TimeUnit.MILLISECONDS.convert(getRollingElapsedWriteTimeNs(), TimeUnit.NANOSECONDS); 
 	}
@@ -391,16 +428,52 @@ public class H2TimeSeriesDestination extends BaseDestination implements FlushQue
 	 */
 	@ManagedMetric(category="H2TimeSeries", metricType=MetricType.GAUGE, description="the last elapsed write time in ns")
 	public long getLastElapsedWriteTimeNs() {
-		return lastElapsedNs.isEmpty() ? 0 : lastElapsedNs.get(0); 
+		return Math.max(0L, lastElapsedNs.getLast()); 
 	}
 	
 	/**
-	 * Returns the rolling average of elapsed write times in ns
-	 * @return the rolling average of elapsed write times in ns
+	 * Returns the average of elapsed write times in ns over the last interval
+	 * @return the average of elapsed write times in ns
 	 */
-	@ManagedMetric(category="H2TimeSeries", metricType=MetricType.GAUGE, description="the rolling average of elapsed write times in ns")
+	@ManagedMetric(category="H2TimeSeries", metricType=MetricType.GAUGE, description="the average of elapsed write times in ns over the last interval")
 	public long getRollingElapsedWriteTimeNs() {
-		return lastElapsedNs.avg(); 
+		return Math.max(0L, lastElapsedNs.getMean()); 
+	}
+	
+	/**
+	 * Returns the median elapsed write time in ns. over the last interval
+	 * @return the median elapsed write time in ns. or -1 if there were none
+	 */
+	@ManagedMetric(category="H2TimeSeries", metricType=MetricType.GAUGE, description="The median elapsed write time in ns. over the last interval")
+	public long getElapsedWriteTimeNsP50() {
+		return lastElapsedNs.getP50();
+	}
+	
+	/**
+	 * Returns the 99th percentile elapsed write time in ns. over the last interval
+	 * @return the 99th percentile elapsed write time in ns. or -1 if there were none
+	 */
+	@ManagedMetric(category="H2TimeSeries", metricType=MetricType.GAUGE, description="The 99th percentile elapsed write time in ns. over the last interval")
+	public long getElapsedWriteTimeNsP99() {
+		return lastElapsedNs.getP99();
+	}
+	
+	/**
+	 * Returns the 99.9th percentile elapsed write time in ns. over the last interval
+	 * @return the 99.9th percentile elapsed write time in ns. or -1 if there were none
+	 */
+	@ManagedMetric(category="H2TimeSeries", metricType=MetricType.GAUGE, description="The 99.9th percentile elapsed write time in ns. over the last interval")
+	public long getElapsedWriteTimeNsP999() {
+		return lastElapsedNs.getP999();
+	}
+	
+	/**
+	 * Returns the maximum elapsed write time in ns. over the last interval
+	 * @return the maximum elapsed write time in ns. or -1 if there were none
+	 */
+	@ManagedMetric(category="H2TimeSeries", metricType=MetricType.GAUGE, description="The maximum elapsed write time in ns. over the last interval")
+	public long getElapsedWriteTimeNsMax() {
+		return lastElapsedNs.getMax();
 	}
 	
 	/**
@@ -0,0 +1,45 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.apmrouter.router;
+
+/**
+ * <p>Title: ConflatingRouteDestination</p>
+ * <p>Description: Optionally implemented by a {@link RouteDestination} that can opt in to receive conflated metrics. When {@link #isConflate()} 
+ * returns true, the {@link PatternRouter} passes the metrics routed to this destination through the {@link MetricConflationService}, 
+ * and the destination receives one conflated metric per metric and conflation period instead of every raw sample.
+ * Destinations that do not opt in keep receiving raw samples as they arrive.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.apmrouter.router.ConflatingRouteDestination</code></p>
+ */
+
+public interface ConflatingRouteDestination {
+	/**
+	 * Indicates if this destination receives conflated metrics. The router reads this when it rebuilds its routes,
+	 * so implementations must publish a {@link org.helios.apmrouter.destination.event.DestinationPatternsChangedEvent} when the result changes.
+	 * @return true if this destination receives conflated metrics, false if it receives raw samples
+	 */
+	public boolean isConflate();
+}
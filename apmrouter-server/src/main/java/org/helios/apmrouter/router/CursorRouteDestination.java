@@ -0,0 +1,47 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.apmrouter.router;
+
+import org.helios.apmrouter.trace.DirectMetricCollection;
+
+/**
+ * <p>Title: CursorRouteDestination</p>
+ * <p>Description: Optionally implemented by a {@link RouteDestination} that can consume metric records in place from a
+ * {@link DirectMetricCollection.MetricCursor}. When a batch is routed without decoding, the {@link PatternRouter} hands these destinations
+ * the positioned cursor for each matched record instead of building an {@link org.helios.apmrouter.metric.IMetric}.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.apmrouter.router.CursorRouteDestination</code></p>
+ */
+
+public interface CursorRouteDestination {
+	/**
+	 * Accepts the metric record the passed cursor is positioned on. The router has already matched the record against this destination.
+	 * The cursor is a flyweight that is only valid for the duration of the call, so implementations must copy out what they keep,
+	 * or call {@link DirectMetricCollection.MetricCursor#toMetric()}.
+	 * @param cursor The cursor positioned on the routed record
+	 */
+	public void acceptRoute(DirectMetricCollection.MetricCursor cursor);
+}
@@ -25,40 +25,51 @@
 package org.helios.apmrouter.router;
 
 import java.lang.Thread.UncaughtExceptionHandler;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
-import java.util.Map;
+import java.util.List;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.atomic.AtomicInteger;
 
+import org.helios.apmrouter.metric.ICEMetric;
 import org.helios.apmrouter.metric.IMetric;
+import org.helios.apmrouter.metric.MetricType;
+import org.helios.apmrouter.metric.catalog.IDelegateMetric;
 import org.helios.apmrouter.server.ServerComponentBean;
 import org.springframework.jmx.export.annotation.ManagedAttribute;
 import org.springframework.jmx.export.annotation.ManagedMetric;
-import org.springframework.jmx.support.MetricType;
 
 /**
  * <p>Title: MetricConflationService</p>
- * <p>Description: Service to conflate incoming metrics</p> 
+ * <p>Description: Service to conflate incoming metrics.
+ * Long metrics are accumulated in a fixed ring of time slots, each {@link #conflationPeriod} ms. wide. Each slot is divided into lock stripes 
+ * keyed by metric token, and each stripe is an open addressing table of primitive accumulators, so a queued sample is conflated in place 
+ * and no {@link IMetric} is retained per sample. Once a slot's period has elapsed, the drain workers each flush their share of the stripes 
+ * and forward one conflated metric per token to the router.
+ * Only destinations that opt in through {@link ConflatingRouteDestination} are fed by this service: conflated and unconflatable metrics 
+ * are forwarded through {@link PatternRouter#routeConflated(List)}, while all other destinations receive the raw samples.</p> 
  * <p>Company: Helios Development Group LLC</p>
  * @author Whitehead (nwhitehead AT heliosdev DOT org)
  * <p><code>org.helios.apmrouter.router.MetricConflationService</code></p>
  */
 public class MetricConflationService extends ServerComponentBean implements Runnable, UncaughtExceptionHandler {
-	/** The maximum number of metrics that can be pending conflation at a time */
-	protected int maxQueueSize = 100000;
-	/** The number of worker threads to spin up to service the queue */
+	/** The maximum number of distinct metrics that can be pending conflation in one time slot */
+	protected int maxQueueSize = 10000;
+	/** The number of worker threads to spin up to drain the time slots */
 	protected int workerThreads = 1;
-	/** The minimum period of time each metric remains in the conflation queue, unless is it conflated into another metric */
+	/** The period of time in ms. covered by each time slot */
 	protected long conflationPeriod = 1000;
+	/** The number of time slots in the ring */
+	protected int slotCount = 4;
+	/** The number of lock stripes in each time slot. Must be a power of 2. */
+	protected int stripeCount = 16;
 	/** The pattern router */
 	protected PatternRouter router = null;
-	/** The conflation queue */
-	protected final ConcurrentSkipListMap<Long, Map<String, IMetric>> conflationQueue = new ConcurrentSkipListMap<Long, Map<String, IMetric>>();
+	/** The ring of time slots, indexed by [slot][stripe] */
+	protected ConflationStripe[][] slots = null;
 	/** Indicates if the threads should be running */
-	protected boolean keepRunning = false;
+	protected volatile boolean keepRunning = false;
 	/** The thread group containing the worker threads */
 	protected ThreadGroup threadGroup = new ThreadGroup("MetricConflationService");
 	/** Id factory for the threads */
@@ -66,10 +77,20 @@ public class MetricConflationService extends ServerComponentBean implements Runn
 	
 	@Override
 	protected void doStart() throws Exception {
+		if(Integer.bitCount(stripeCount)!=1) throw new IllegalArgumentException("The stripe count [" + stripeCount + "] is not a power of 2", new Throwable());
+		if(slotCount<2) throw new IllegalArgumentException("The slot count [" + slotCount + "] must be at least 2", new Throwable());
+		int stripeCapacity = Math.max(16, maxQueueSize / stripeCount);
+		ConflationStripe[][] ring = new ConflationStripe[slotCount][stripeCount];
+		for(int slot = 0; slot < slotCount; slot++) {
+			for(int stripe = 0; stripe < stripeCount; stripe++) {
+				ring[slot][stripe] = new ConflationStripe(stripeCapacity);
+			}
+		}
+		slots = ring;
 		super.doStart();
 		keepRunning = true;
 		for(int i = 0; i < workerThreads; i++) {					
-			Thread t = new Thread(threadGroup, this, "MetricConflationThread#" + serial.incrementAndGet());
+			Thread t = new Thread(threadGroup, new DrainWorker(i), "MetricConflationThread#" + serial.incrementAndGet());
 			t.setDaemon(true);
 			t.setUncaughtExceptionHandler(this);
 			t.start();
@@ -82,104 +103,325 @@ public class MetricConflationService extends ServerComponentBean implements Runn
 	}
 	
 	/**
-	 * Enqueues an array of metrics to the conflation queue
+	 * Mixes the bits of a metric key for stripe and table slot selection
+	 * @param key The metric key
+	 * @return the mixed hash
+	 */
+	protected static int mix(long key) {
+		key ^= (key >>> 33);
+		key *= 0xff51afd7ed558ccdL;
+		key ^= (key >>> 33);
+		return (int)key;
+	}
+	
+	/**
+	 * Returns the conflation key for the passed metric: the token if the metric is tokenized, otherwise the long hash code of the FQN
+	 * @param metric The metric
+	 * @return the conflation key
+	 */
+	protected static long key(IMetric metric) {
+		long token = metric.getToken();
+		return token>=0 ? token : metric.getLongHashCode();
+	}
+	
+	/**
+	 * Returns the current time in ms. used to select the time slot
+	 * @return the current time in ms.
+	 */
+	protected long now() {
+		return System.currentTimeMillis();
+	}
+	
+	/**
+	 * Enqueues an array of metrics to the conflation queue.
+	 * Non-long metrics, metrics with a TXContext and metrics that cannot be conflated are forwarded to the conflating destinations unconflated.
 	 * @param imetrics  array of metrics to queue
 	 */
 	public void queue(IMetric...imetrics) {
 		if(imetrics==null || imetrics.length==0) return;
-		long now = System.currentTimeMillis() + conflationPeriod;	
-		Map<String, IMetric> map = conflationQueue.get(now);
-		if(map==null) {
-			synchronized(conflationQueue) {
-				map = conflationQueue.get(now);
-				if(map==null) {
-					map = new ConcurrentHashMap<String, IMetric>();
-					conflationQueue.put(now, map);
-				}
-			}
-		}		
+		final ConflationStripe[][] ring = slots;
+		if(ring==null || !keepRunning) {
+			router.routeConflated(Arrays.asList(imetrics));
+			return;
+		}
+		final long epoch = now() / conflationPeriod;
+		final ConflationStripe[] slot = ring[(int)(epoch % slotCount)];
+		final int stripeMask = stripeCount-1;
+		List<IMetric> forwards = null;
+		int queued = 0, conflated = 0, dropped = 0;
 		for(IMetric metric: imetrics) {
-			if(!metric.getType().isLong()) {
-				router.queue(metric);
-				incr("MetricsForwarded");
-
+			if(metric==null) continue;
+			IDelegateMetric dmetric = metric.getMetricId();
+			if(!metric.getType().isLong() || metric.hasTXContext() || dmetric==null) {
+				if(forwards==null) forwards = new ArrayList<IMetric>();
+				forwards.add(metric);
+				continue;
 			}
-			IMetric alreadyQueued = map.get(metric.getFQN());
-			if(alreadyQueued==null) {
-				synchronized(map) {
-					alreadyQueued = map.get(metric.getFQN());
-					if(alreadyQueued!=null) {
-						alreadyQueued.conflate(metric);
-						incr("MetricsConflated");
-					} else {
-						if(conflationQueue.size() >= maxQueueSize) {
-							incr("MetricsDropped");
-						} else {
-							map.put(metric.getFQN(), metric);
-							incr("MetricsQueued");
-						}						
+			long key = key(metric);
+			int hash = mix(key);
+			ConflationStripe stripe = slot[hash & stripeMask];
+			int result;
+			synchronized(stripe) {
+				if(stripe.epoch!=epoch) {
+					if(stripe.size>0) {
+						// The drain workers have fallen behind, so flush the stale slot in this thread
+						if(forwards==null) forwards = new ArrayList<IMetric>();
+						stripe.drainTo(forwards);
 					}
+					stripe.epoch = epoch;
 				}
+				result = stripe.accumulate(key, hash, metric, dmetric);
+			}
+			switch(result) {
+				case ConflationStripe.QUEUED:
+					queued++;
+					break;
+				case ConflationStripe.CONFLATED:
+					conflated++;
+					break;
+				case ConflationStripe.FULL:
+					dropped++;
+					break;
+				default:
+					if(forwards==null) forwards = new ArrayList<IMetric>();
+					forwards.add(metric);
 			}
-				
-		}	
+		}
+		if(queued>0) incr("MetricsQueued", queued);
+		if(conflated>0) incr("MetricsConflated", conflated);
+		if(dropped>0) incr("MetricsDropped", dropped);
+		if(forwards!=null) {
+			router.routeConflated(forwards);
+			incr("MetricsForwarded", forwards.size());
+		}
 	}
-
 	
 	/**
-	 * Returns the number of periods in the queue
-	 * @return the number of periods in the queue
+	 * Returns the number of metrics pending conflation across all time slots
+	 * @return the number of metrics pending conflation
 	 */
 	@ManagedAttribute
 	public int getQueueSize() {
-		return conflationQueue.size();
+		final ConflationStripe[][] ring = slots;
+		if(ring==null) return 0;
+		int size = 0;
+		for(ConflationStripe[] slot: ring) {
+			for(ConflationStripe stripe: slot) {
+				size += stripe.size;
+			}
+		}
+		return size;
 	}
 	
 	/**
+	 * <p>Legacy entry point. Drains all stripes from the calling thread.</p>
 	 * {@inheritDoc}
 	 * @see java.lang.Runnable#run()
 	 */
 	public void run() {
-		while(keepRunning) {
-			try {
-				long now = System.currentTimeMillis();
-				Map<Long, Map<String, IMetric>> clearMetrics = conflationQueue.tailMap(now, true);
-				Map<String, IMetric> forwards = new HashMap<String, IMetric>();
-				for(Map.Entry<Long, Map<String, IMetric>> entry: clearMetrics.entrySet()) {
-					Map<String, IMetric> map = conflationQueue.remove(entry.getKey());
-					if(map!=null) {									
-						for(Map.Entry<String, IMetric> fentry: map.entrySet()) {
-							IMetric existing = forwards.get(fentry.getKey());
-							if(existing!=null) {
-								try {
-									existing.conflate(fentry.getValue());
-								} catch (Exception ex) {
-									incr("ConflationErrors");
-									//error("Failed to conflate.\n\tThis metric:", existing, "\n\tThat metric:", fentry.getValue());
-								}
-								incr("MetricsConflated");
-								continue;
-							}
-							forwards.put(fentry.getKey(), fentry.getValue());
+		new DrainWorker(0, 1).run();
+	}
+	
+	/**
+	 * <p>Title: DrainWorker</p>
+	 * <p>Description: Drains the elapsed time slots for the stripes assigned to one worker thread</p> 
+	 * <p>Company: Helios Development Group LLC</p>
+	 * @author Whitehead (nwhitehead AT heliosdev DOT org)
+	 * <p><code>org.helios.apmrouter.router.MetricConflationService.DrainWorker</code></p>
+	 */
+	protected class DrainWorker implements Runnable {
+		/** The index of the first stripe drained by this worker */
+		protected final int first;
+		/** The stripe increment between the stripes drained by this worker */
+		protected final int step;
+		
+		/**
+		 * Creates a new DrainWorker for the stripes whose index modulo the worker count is the passed worker index
+		 * @param workerIndex The index of this worker
+		 */
+		protected DrainWorker(int workerIndex) {
+			this(workerIndex, workerThreads);
+		}
+		
+		/**
+		 * Creates a new DrainWorker
+		 * @param first The index of the first stripe drained by this worker
+		 * @param step The stripe increment between the stripes drained by this worker
+		 */
+		protected DrainWorker(int first, int step) {
+			this.first = first;
+			this.step = Math.max(1, step);
+		}
+		
+		/**
+		 * {@inheritDoc}
+		 * @see java.lang.Runnable#run()
+		 */
+		public void run() {
+			final List<IMetric> forwards = new ArrayList<IMetric>();
+			while(keepRunning) {
+				try {
+					drain(forwards);
+					long now = now();
+					Thread.sleep(Math.max(1, Math.min(50, conflationPeriod - (now % conflationPeriod))));
+				} catch (InterruptedException ie) {
+					if(!keepRunning) break;
+				} catch (Exception e) {
+					incr("ConflationErrors");
+					e.printStackTrace(System.err);
+				}
+			}
+		}
+		
+		/**
+		 * Drains this worker's stripes of every time slot whose period has elapsed and forwards the conflated metrics
+		 * @param forwards A reusable buffer for the conflated metrics, cleared on return
+		 * @return the number of metrics forwarded
+		 */
+		protected int drain(List<IMetric> forwards) {
+			final ConflationStripe[][] ring = slots;
+			final long currentEpoch = now() / conflationPeriod;
+			for(ConflationStripe[] slot: ring) {
+				for(int i = first; i < slot.length; i += step) {
+					ConflationStripe stripe = slot[i];
+					synchronized(stripe) {
+						if(stripe.epoch<currentEpoch && stripe.size>0) {
+							stripe.drainTo(forwards);
 						}
 					}
 				}
-				if(!forwards.isEmpty()) {
-					router.queue(forwards.values());
-					incr("MetricsForwarded", forwards.size());
+			}
+			int forwarded = forwards.size();
+			if(forwarded>0) {
+				try {
+					router.routeConflated(forwards);
+					incr("MetricsForwarded", forwarded);
+				} finally {
 					forwards.clear();
-					
 				}
-				Thread.currentThread().join(50);
-			} catch (Exception e) {
-				e.printStackTrace(System.err);
 			}
+			return forwarded;
 		}
 	}
 	
 	/**
-	 * Returns the maximum number of metrics that can be pending conflation at a time
-	 * @return the maximum number of metrics that can be pending conflation at a time
+	 * <p>Title: ConflationStripe</p>
+	 * <p>Description: An open addressing table of primitive conflation accumulators for one lock stripe of one time slot. 
+	 * All access must be synchronized on the stripe.</p> 
+	 * <p>Company: Helios Development Group LLC</p>
+	 * @author Whitehead (nwhitehead AT heliosdev DOT org)
+	 * <p><code>org.helios.apmrouter.router.MetricConflationService.ConflationStripe</code></p>
+	 */
+	protected static class ConflationStripe {
+		/** Accumulate result: a new entry was created */
+		static final int QUEUED = 0;
+		/** Accumulate result: the sample was conflated into an existing entry */
+		static final int CONFLATED = 1;
+		/** Accumulate result: the table is full */
+		static final int FULL = 2;
+		/** Accumulate result: the sample cannot be conflated into the entry with the same key and must be forwarded as is */
+		static final int UNCONFLATABLE = 3;
+		
+		/** The metric types, indexed by ordinal */
+		private static final MetricType[] TYPES = MetricType.values();
+		
+		/** The time slot epoch this stripe is accumulating for */
+		long epoch = -1L;
+		/** The number of entries in the table */
+		int size = 0;
+		/** The maximum number of entries before the table is considered full */
+		final int maxSize;
+		/** The table index mask */
+		final int mask;
+		/** The metric keys */
+		final long[] keys;
+		/** The accumulated values: the sum for counters and gauges */
+		final long[] values;
+		/** The number of samples accumulated */
+		final int[] counts;
+		/** The latest sample timestamp */
+		final long[] times;
+		/** The metric tokens */
+		final long[] tokens;
+		/** The metric type ordinals, -1 for an empty entry */
+		final byte[] types;
+		/** The metric IDs, used to rebuild the conflated metric and to detect key collisions */
+		final IDelegateMetric[] dmetrics;
+		
+		/**
+		 * Creates a new ConflationStripe
+		 * @param capacity The maximum number of entries
+		 */
+		ConflationStripe(int capacity) {
+			int len = Integer.highestOneBit(Math.max(2, capacity) - 1) << 2;
+			maxSize = capacity;
+			mask = len-1;
+			keys = new long[len];
+			values = new long[len];
+			counts = new int[len];
+			times = new long[len];
+			tokens = new long[len];
+			types = new byte[len];
+			dmetrics = new IDelegateMetric[len];
+			Arrays.fill(types, (byte)-1);
+		}
+		
+		/**
+		 * Accumulates the passed sample into the table
+		 * @param key The metric key
+		 * @param hash The mixed hash of the key
+		 * @param metric The metric sample
+		 * @param dmetric The metric ID of the sample
+		 * @return one of {@link #QUEUED}, {@link #CONFLATED}, {@link #FULL} or {@link #UNCONFLATABLE}
+		 */
+		int accumulate(long key, int hash, IMetric metric, IDelegateMetric dmetric) {
+			final byte type = (byte)metric.getType().ordinal();
+			int i = (hash >>> 8) & mask;
+			while(types[i]!=-1) {
+				if(keys[i]==key) {
+					if(types[i]!=type || (dmetrics[i]!=dmetric && !dmetrics[i].equals(dmetric))) {
+						return UNCONFLATABLE;
+					}
+					values[i] += metric.getLongValue();
+					counts[i]++;
+					long time = metric.getTime();
+					if(time>times[i]) times[i] = time;
+					return CONFLATED;
+				}
+				i = (i + 1) & mask;
+			}
+			if(size>=maxSize) return FULL;
+			keys[i] = key;
+			values[i] = metric.getLongValue();
+			counts[i] = 1;
+			times[i] = metric.getTime();
+			tokens[i] = metric.getToken();
+			types[i] = type;
+			dmetrics[i] = dmetric;
+			size++;
+			return QUEUED;
+		}
+		
+		/**
+		 * Rebuilds one conflated metric per entry, adds them to the passed list and clears the table
+		 * @param forwards The list to add the conflated metrics to
+		 */
+		void drainTo(List<IMetric> forwards) {
+			for(int i = 0; i < types.length && size>0; i++) {
+				if(types[i]==-1) continue;
+				MetricType type = TYPES[types[i]];
+				long value = type.isGauge() ? values[i] / counts[i] : values[i];
+				forwards.add(ICEMetric.newMetric(times[i], value, type, dmetrics[i], tokens[i]));
+				types[i] = -1;
+				dmetrics[i] = null;
+				size--;
+			}
+		}
+	}
+	
+	/**
+	 * Returns the maximum number of distinct metrics that can be pending conflation in one time slot
+	 * @return the maximum number of distinct metrics that can be pending conflation in one time slot
 	 */
 	public int getMaxQueueSize() {
 		return maxQueueSize;
@@ -187,8 +429,8 @@ public class MetricConflationService extends ServerComponentBean implements Runn
 
 
 	/**
-	 * Sets the maximum number of metrics that can be pending conflation at a time
-	 * @param maxQueueSize the maximum number of metrics that can be pending conflation at a time
+	 * Sets the maximum number of distinct metrics that can be pending conflation in one time slot. Applied when the service starts.
+	 * @param maxQueueSize the maximum number of distinct metrics that can be pending conflation in one time slot
 	 */
 	public void setMaxQueueSize(int maxQueueSize) {
 		this.maxQueueSize = maxQueueSize;
@@ -196,38 +438,74 @@ public class MetricConflationService extends ServerComponentBean implements Runn
 
 
 	/**
-	 * Returns the number of worker threads to spin up to service the queue
-	 * @return the number of worker threads to spin up to service the queue
+	 * Returns the number of worker threads to spin up to drain the time slots
+	 * @return the number of worker threads to spin up to drain the time slots
 	 */
+	@ManagedAttribute
 	public int getWorkerThreads() {
 		return workerThreads;
 	}
 
 
 	/**
-	 * Sets the number of worker threads to spin up to service the queue
-	 * @param workerThreads the number of worker threads to spin up to service the queue
+	 * Sets the number of worker threads to spin up to drain the time slots. Applied when the service starts.
+	 * @param workerThreads the number of worker threads to spin up to drain the time slots
 	 */
 	public void setWorkerThreads(int workerThreads) {
-		this.workerThreads = workerThreads;
+		this.workerThreads = Math.max(1, workerThreads);
 	}
 
 
 	/**
-	 * Returns the minimum period of time in ms each metric remains in the conflation queue, unless is it conflated into another metric 
-	 * @return the minimum period of time in ms each metric remains in the conflation queue, unless is it conflated into another metric
+	 * Returns the period of time in ms. covered by each time slot. Metrics are forwarded at most this long after they are queued. 
+	 * @return the period of time in ms. covered by each time slot
 	 */
+	@ManagedAttribute
 	public long getConflationPeriod() {
 		return conflationPeriod;
 	}
 
 
 	/**
-	 * Sets the minimum period of time in ms each metric remains in the conflation queue, unless is it conflated into another metric
-	 * @param conflationPeriod the minimum period of time in ms each metric remains in the conflation queue, unless is it conflated into another metric
+	 * Sets the period of time in ms. covered by each time slot
+	 * @param conflationPeriod the period of time in ms. covered by each time slot
 	 */
 	public void setConflationPeriod(long conflationPeriod) {
-		this.conflationPeriod = conflationPeriod;
+		this.conflationPeriod = Math.max(1, conflationPeriod);
+	}
+	
+	/**
+	 * Returns the number of time slots in the ring
+	 * @return the number of time slots in the ring
+	 */
+	@ManagedAttribute
+	public int getSlotCount() {
+		return slotCount;
+	}
+
+	/**
+	 * Sets the number of time slots in the ring. Applied when the service starts.
+	 * @param slotCount the number of time slots in the ring
+	 */
+	public void setSlotCount(int slotCount) {
+		this.slotCount = slotCount;
+	}
+
+	/**
+	 * Returns the number of lock stripes in each time slot
+	 * @return the number of lock stripes in each time slot
+	 */
+	@ManagedAttribute
+	public int getStripeCount() {
+		return stripeCount;
+	}
+
+	/**
+	 * Sets the number of lock stripes in each time slot. Must be a power of 2. Applied when the service starts.
+	 * @param stripeCount the number of lock stripes in each time slot
+	 */
+	public void setStripeCount(int stripeCount) {
+		this.stripeCount = stripeCount;
 	}
 
 	/**
@@ -238,12 +516,11 @@ public class MetricConflationService extends ServerComponentBean implements Runn
 		this.router = router;
 	}
 	
-	
 	/**
 	 * Returns the number of metrics forwarded from ConflationService
 	 * @return the number of metrics forwarded from ConflationService
 	 */
-	@ManagedMetric(category="ConflationService", metricType=MetricType.COUNTER, description="the number of metrics forwarded from ConflationService")
+	@ManagedMetric(category="ConflationService", metricType=org.springframework.jmx.support.MetricType.COUNTER, description="the number of metrics forwarded from ConflationService")
 	public long getMetricsForwarded() {
 		return getMetricValue("MetricsForwarded");
 	}
@@ -253,7 +530,7 @@ public class MetricConflationService extends ServerComponentBean implements Runn
 	 * Returns the number of metrics that were dropped because ConflationService was backlogged
 	 * @return the number of metrics that were dropped because ConflationService was backlogged
 	 */
-	@ManagedMetric(category="ConflationService", metricType=MetricType.COUNTER, description="the number of metrics that were dropped because ConflationService was backlogged")
+	@ManagedMetric(category="ConflationService", metricType=org.springframework.jmx.support.MetricType.COUNTER, description="the number of metrics that were dropped because ConflationService was backlogged")
 	public long getMetricsDropped() {
 		return getMetricValue("MetricsDropped");
 	}
@@ -262,7 +539,7 @@ public class MetricConflationService extends ServerComponentBean implements Runn
 	 * Returns the number of metrics that were conflated
 	 * @return the number of metrics that were conflated
 	 */
-	@ManagedMetric(category="ConflationService", metricType=MetricType.COUNTER, description="the number of metrics that were conflated")
+	@ManagedMetric(category="ConflationService", metricType=org.springframework.jmx.support.MetricType.COUNTER, description="the number of metrics that were conflated")
 	public long getMetricsConflated() {
 		return getMetricValue("MetricsConflated");
 	}
@@ -271,7 +548,7 @@ public class MetricConflationService extends ServerComponentBean implements Runn
 	 * Returns the number of metrics that were queued
 	 * @return the number of metrics that were queued
 	 */
-	@ManagedMetric(category="ConflationService", metricType=MetricType.COUNTER, description="the number of metrics that were queued")
+	@ManagedMetric(category="ConflationService", metricType=org.springframework.jmx.support.MetricType.COUNTER, description="the number of metrics that were queued")
 	public long getMetricsQueued() {
 		return getMetricValue("MetricsQueued");
 	}
@@ -280,7 +557,7 @@ public class MetricConflationService extends ServerComponentBean implements Runn
 	 * Returns the number of metric conflation errors
 	 * @return the number of metric conflation errors
 	 */
-	@ManagedMetric(category="ConflationService", metricType=MetricType.COUNTER, description="the number of metric conflation errors")
+	@ManagedMetric(category="ConflationService", metricType=org.springframework.jmx.support.MetricType.COUNTER, description="the number of metric conflation errors")
 	public long getConflationErrors() {
 		return getMetricValue("ConflationErrors");
 	}
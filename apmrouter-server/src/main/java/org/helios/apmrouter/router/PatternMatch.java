@@ -32,21 +32,25 @@ import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArraySet;
 import java.util.regex.Pattern;
 
-import org.helios.apmrouter.collections.ConcurrentLongSortedSet;
+import org.helios.apmrouter.jmx.ConfigurationHelper;
 
 /**
  * <p>Title: PatternMatch</p>
- * <p>Description: A regex pattern matcher that caches hit and miss patterns for improved performance</p> 
+ * <p>Description: A regex pattern matcher that caches hit and miss patterns for improved performance.
+ * The results are held in a bounded {@link PatternMatchCache} so routing keys that are no longer seen are eventually evicted.</p> 
  * <p>Company: Helios Development Group LLC</p>
  * @author Whitehead (nwhitehead AT heliosdev DOT org)
  * <p><code>org.helios.apmrouter.router.PatternMatch</code></p>
  */
 
 public class PatternMatch {
-	/** The long hashcodes of routing keys that are known to match this PatternMatch */
-	protected final ConcurrentLongSortedSet hits = new ConcurrentLongSortedSet();
-	/** The long hashcodes of routing keys that are known to NOT match this PatternMatch */
-	protected final ConcurrentLongSortedSet misses = new ConcurrentLongSortedSet();
+	/** The system property or env variable name that overrides the default match cache size (@link {@value #DEFAULT_MATCH_CACHE_SIZE} */
+	public static final String MATCH_CACHE_SIZE_PROP = "org.helios.apmrouter.patternmatch.cachesize";
+	/** The default match cache size */
+	public static final int DEFAULT_MATCH_CACHE_SIZE = 8192;
+	
+	/** The cached hit and miss results for routing keys matched against this PatternMatch */
+	protected final PatternMatchCache cache = new PatternMatchCache(ConfigurationHelper.getIntSystemThenEnvProperty(MATCH_CACHE_SIZE_PROP, DEFAULT_MATCH_CACHE_SIZE));
 	/** The pattern string for this pattern match */
 	protected final String patternValue;
 	/** The regex pattern for this pattern match */
@@ -91,15 +95,13 @@ public class PatternMatch {
 	 */
 	public boolean matches(CharSequence toMatch) {
 		if(toMatch==null) return false;
-		long key = longHashCode(toMatch.toString());
-		if(hits.contains(key)) return true;
-		if(misses.contains(key)) return false;
-		if(pattern.matcher(toMatch).matches()) {
-			hits.add(key);
-			return true;
-		}
-		misses.add(key);
-		return false;
+		String value = toMatch.toString();
+		long key = longHashCode(value);
+		byte cached = cache.get(key, value);
+		if(cached!=PatternMatchCache.EMPTY) return cached==PatternMatchCache.HIT;
+		boolean match = pattern.matcher(value).matches();
+		cache.put(key, value, match);
+		return match;
 	}
 	
 	/**
@@ -107,7 +109,7 @@ public class PatternMatch {
 	 * @return the number of cached hits
 	 */
 	public int getHitCount() {
-		return hits.size();
+		return cache.count(true);
 	}
 	
 	/**
@@ -115,7 +117,15 @@ public class PatternMatch {
 	 * @return the number of cached misses
 	 */
 	public int getMissCount() {
-		return misses.size();
+		return cache.count(false);
+	}
+	
+	/**
+	 * Returns the match result cache for this PatternMatch
+	 * @return the match result cache
+	 */
+	public PatternMatchCache getCache() {
+		return cache;
 	}
 	
 	public static final PatternMatchGroup newPatternMatchGroup(CharSequence...patternValues) {
@@ -166,6 +176,46 @@ public class PatternMatch {
 			return patternMatches.size();
 		}
 		
+		/**
+		 * Returns the total number of match cache lookups that found a cached result across all patterns in this group
+		 * @return the total number of match cache hits
+		 */
+		public long getCacheHits() {
+			long total = 0;
+			for(PatternMatch pm: patternMatches) total += pm.cache.getHits();
+			return total;
+		}
+		
+		/**
+		 * Returns the total number of match cache lookups that found no cached result across all patterns in this group
+		 * @return the total number of match cache misses
+		 */
+		public long getCacheMisses() {
+			long total = 0;
+			for(PatternMatch pm: patternMatches) total += pm.cache.getMisses();
+			return total;
+		}
+		
+		/**
+		 * Returns the total number of match cache evictions across all patterns in this group
+		 * @return the total number of match cache evictions
+		 */
+		public long getCacheEvictions() {
+			long total = 0;
+			for(PatternMatch pm: patternMatches) total += pm.cache.getEvictions();
+			return total;
+		}
+		
+		/**
+		 * Returns the total number of long hash code collisions detected across all patterns in this group
+		 * @return the total number of long hash code collisions
+		 */
+		public long getCacheCollisions() {
+			long total = 0;
+			for(PatternMatch pm: patternMatches) total += pm.cache.getCollisions();
+			return total;
+		}
+		
 		public boolean matches(CharSequence cs) {
 			if(cs==null) return false;
 			for(PatternMatch pm: patternMatches) {
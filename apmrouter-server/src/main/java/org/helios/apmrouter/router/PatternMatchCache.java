@@ -0,0 +1,221 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.apmrouter.router;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>Title: PatternMatchCache</p>
+ * <p>Description: A bounded cache of pattern match results keyed by the long hash code of the matched value.
+ * The cache is a set associative table of primitive arrays: each key hashes to a bucket of {@link #WAYS} slots 
+ * which are probed in order, and when a bucket is full the victim is chosen by a CLOCK sweep of the bucket's reference bits.
+ * The matched value is stored beside its hash code and compared on lookup, so a hash code collision is treated as a miss
+ * rather than returning the result cached for a different value.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.apmrouter.router.PatternMatchCache</code></p>
+ */
+
+public class PatternMatchCache {
+	/** The number of slots in each bucket */
+	public static final int WAYS = 8;
+	/** The number of lock stripes */
+	public static final int STRIPES = 64;
+	
+	/** Slot state for an empty slot */
+	protected static final byte EMPTY = 0;
+	/** Slot state for a cached miss */
+	protected static final byte MISS = 1;
+	/** Slot state for a cached hit */
+	protected static final byte HIT = 2;
+	/** The reference bit set when a slot is read, cleared by the CLOCK sweep */
+	protected static final byte REF = 4;
+	/** Mask for the hit/miss state of a slot */
+	protected static final byte STATE_MASK = 3;
+	
+	/** The hash codes of the cached values */
+	protected final long[] keys;
+	/** The cached values, used to detect hash code collisions */
+	protected final String[] values;
+	/** The state and reference bit of each slot */
+	protected final byte[] states;
+	/** The CLOCK hand for each bucket */
+	protected final byte[] hands;
+	/** The bucket index mask */
+	protected final int bucketMask;
+	/** The lock stripes */
+	protected final Object[] locks = new Object[STRIPES];
+	
+	/** The number of lookups that found a cached result */
+	protected final AtomicLong hits = new AtomicLong(0L);
+	/** The number of lookups that found no cached result */
+	protected final AtomicLong misses = new AtomicLong(0L);
+	/** The number of cached results evicted to make room */
+	protected final AtomicLong evictions = new AtomicLong(0L);
+	/** The number of lookups where the hash code matched but the value did not */
+	protected final AtomicLong collisions = new AtomicLong(0L);
+	
+	/**
+	 * Creates a new PatternMatchCache
+	 * @param capacity The maximum number of cached results. Rounded up to a power of 2 multiple of {@link #WAYS}.
+	 */
+	public PatternMatchCache(int capacity) {
+		int buckets = 1;
+		while(buckets * WAYS < capacity) buckets <<= 1;
+		bucketMask = buckets-1;
+		keys = new long[buckets * WAYS];
+		values = new String[buckets * WAYS];
+		states = new byte[buckets * WAYS];
+		hands = new byte[buckets];
+		for(int i = 0; i < STRIPES; i++) {
+			locks[i] = new Object();
+		}
+	}
+	
+	/**
+	 * Returns the bucket index for the passed hash code
+	 * @param key The hash code
+	 * @return the bucket index
+	 */
+	protected int bucket(long key) {
+		int h = (int)(key ^ (key >>> 32));
+		h ^= (h >>> 16);
+		return h & bucketMask;
+	}
+	
+	/**
+	 * Looks up a cached match result
+	 * @param key The long hash code of the value
+	 * @param value The value
+	 * @return {@link #HIT} or {@link #MISS} if the result is cached, {@link #EMPTY} if it is not
+	 */
+	public byte get(long key, String value) {
+		final int bucket = bucket(key);
+		final int base = bucket * WAYS;
+		synchronized(locks[bucket & (STRIPES-1)]) {
+			for(int i = base; i < base + WAYS; i++) {
+				byte state = states[i];
+				if(state==EMPTY) break;
+				if(keys[i]==key) {
+					if(value.equals(values[i])) {
+						states[i] = (byte)(state | REF);
+						hits.incrementAndGet();
+						return (byte)(state & STATE_MASK);
+					}
+					collisions.incrementAndGet();
+				}
+			}
+		}
+		misses.incrementAndGet();
+		return EMPTY;
+	}
+	
+	/**
+	 * Caches a match result, evicting another result in the same bucket if the bucket is full
+	 * @param key The long hash code of the value
+	 * @param value The value
+	 * @param match The match result
+	 */
+	public void put(long key, String value, boolean match) {
+		final int bucket = bucket(key);
+		final int base = bucket * WAYS;
+		final byte state = match ? HIT : MISS;
+		synchronized(locks[bucket & (STRIPES-1)]) {
+			for(int i = base; i < base + WAYS; i++) {
+				if(states[i]==EMPTY || (keys[i]==key && value.equals(values[i]))) {
+					keys[i] = key;
+					values[i] = value;
+					states[i] = state;
+					return;
+				}
+			}
+			// Bucket is full. Sweep the CLOCK hand until a slot with a cleared reference bit is found.
+			int hand = hands[bucket];
+			while((states[base + hand] & REF)!=0) {
+				states[base + hand] &= ~REF;
+				hand = (hand + 1) & (WAYS-1);
+			}
+			keys[base + hand] = key;
+			values[base + hand] = value;
+			states[base + hand] = state;
+			hands[bucket] = (byte)((hand + 1) & (WAYS-1));
+			evictions.incrementAndGet();
+		}
+	}
+	
+	/**
+	 * Returns the maximum number of cached results
+	 * @return the maximum number of cached results
+	 */
+	public int getCapacity() {
+		return keys.length;
+	}
+	
+	/**
+	 * Returns the number of cached results. This is a racy count intended for monitoring.
+	 * @param hit true to count cached hits, false to count cached misses
+	 * @return the number of cached results of the requested kind
+	 */
+	public int count(boolean hit) {
+		final byte want = hit ? HIT : MISS;
+		int cnt = 0;
+		for(int i = 0; i < states.length; i++) {
+			if((states[i] & STATE_MASK)==want) cnt++;
+		}
+		return cnt;
+	}
+
+	/**
+	 * Returns the number of lookups that found a cached result
+	 * @return the number of lookups that found a cached result
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+
+	/**
+	 * Returns the number of lookups that found no cached result
+	 * @return the number of lookups that found no cached result
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * Returns the number of cached results evicted to make room
+	 * @return the number of cached results evicted to make room
+	 */
+	public long getEvictions() {
+		return evictions.get();
+	}
+
+	/**
+	 * Returns the number of lookups where the hash code matched but the value did not
+	 * @return the number of hash code collisions
+	 */
+	public long getCollisions() {
+		return collisions.get();
+	}
+}
@@ -25,26 +25,33 @@
 package org.helios.apmrouter.router;
 
 import java.lang.Thread.UncaughtExceptionHandler;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Date;
 import java.util.HashSet;
+import java.util.List;
+import java.util.ListIterator;
 import java.util.Set;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.CopyOnWriteArraySet;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.RejectedExecutionHandler;
 import java.util.concurrent.ThreadPoolExecutor;
 
 import org.helios.apmrouter.collections.ConcurrentLongSlidingWindow;
+import org.helios.apmrouter.collections.LatencyHistogram;
 import org.helios.apmrouter.collections.LongSlidingWindow;
 import org.helios.apmrouter.destination.event.DestinationEvent;
+import org.helios.apmrouter.destination.event.DestinationPatternsChangedEvent;
 import org.helios.apmrouter.metric.ExpandedMetric;
 import org.helios.apmrouter.metric.ICEMetric;
 import org.helios.apmrouter.metric.IMetric;
+import org.helios.apmrouter.server.MetricCounter;
 import org.helios.apmrouter.server.ServerComponentBean;
-import org.helios.apmrouter.util.SystemClock;
-import org.helios.apmrouter.util.SystemClock.ElapsedTime;
+import org.helios.apmrouter.trace.DirectMetricCollection;
 import org.helios.apmrouter.util.thread.ManagedThreadPool;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.ApplicationEvent;
@@ -76,13 +83,26 @@ public class PatternRouter extends ServerComponentBean implements UncaughtExcept
 	protected BlockingQueue<IMetric> routingQueue = null;
 	/** The subscribers */
 	protected final Set<RouteDestination<IMetric>> destinations = new CopyOnWriteArraySet<RouteDestination<IMetric>>();
+	/** The precomputed routes of metric tokens to destinations */
+	protected final RouteTable routeTable = new RouteTable();
 	/** An uncaught exception handler applied to threads running in the router's thread pool */
 	protected final UncaughtExceptionHandler ucex = this;
 	
-	/** Sliding windows of route elapsed times in ns. */
-	protected final LongSlidingWindow elapsedTimesNs = new ConcurrentLongSlidingWindow(15);
-	/** Sliding windows of route elapsed times in ms. */
-	protected final LongSlidingWindow elapsedTimesMs = new ConcurrentLongSlidingWindow(15); 
+	/** Indicates if metrics are routed in batches (true) or with one routing task per metric (false) */
+	protected boolean batchRouting = true;
+	
+	/** Histogram of batch route elapsed times in ns. */
+	protected final LatencyHistogram batchElapsedTimesNs = new LatencyHistogram();
+	/** Sliding windows of routed batch sizes */
+	protected final LongSlidingWindow batchSizes = new ConcurrentLongSlidingWindow(15); 
+	/** The completed routes counter */
+	protected final MetricCounter completedRoutes = counter("CompletedRoutes");
+	/** The dropped routes counter */
+	protected final MetricCounter droppedRoutes = counter("DroppedRoutes");
+	/** The routed batches counter */
+	protected final MetricCounter routedBatches = counter("RoutedBatches");
+	/** The in place routed batches counter */
+	protected final MetricCounter inPlaceRoutedBatches = counter("InPlaceRoutedBatches");
 	
 	
 	/** Metric conflation service */
@@ -125,12 +145,17 @@ public class PatternRouter extends ServerComponentBean implements UncaughtExcept
 	public void onApplicationEvent(ApplicationEvent event) {
 		DestinationEvent de = (DestinationEvent)event;
 		RouteDestination<IMetric> rd = (RouteDestination<IMetric>) de.getSource();
-		if(de.isStarting()) {
+		if(de instanceof DestinationPatternsChangedEvent) {
+			info("Patterns changed for Route Destination [", de.getBeanName(), "]. Invalidating route table (evd ID:", de.getId(), ")");
+			routeTable.invalidate();
+		} else if(de.isStarting()) {
 			info("Registering [", de.getBeanName(), "] as a Route Destination (evd ID:", de.getId(), ")");
 			destinations.add(rd);
+			routeTable.setDestinations(destinations);
 		} else {
 			info("Removing [", de.getBeanName(), "] as a Route Destination (evd ID:", de.getId(), ")");
-			destinations.remove(rd);			
+			destinations.remove(rd);
+			routeTable.setDestinations(destinations);
 		}
 	}
 	
@@ -180,8 +205,9 @@ public class PatternRouter extends ServerComponentBean implements UncaughtExcept
 	@Override
 	public void resetMetrics() {
 		super.resetMetrics();
-		elapsedTimesNs.clear();
-		elapsedTimesMs.clear();
+		batchElapsedTimesNs.clear();
+		batchSizes.clear();
+		routeTable.resetStats();
 	}	
 	
 	
@@ -226,42 +252,211 @@ public class PatternRouter extends ServerComponentBean implements UncaughtExcept
 	}
 	
 	
+	/**
+	 * Queues an array of metrics for routing. In batch routing mode, the array is routed as one batch.
+	 * @param metrics The metrics to route
+	 */
 	void queue(IMetric...metrics) {
+		if(metrics==null || metrics.length==0) return;
+		if(batchRouting) {
+			queueBatch(new ArrayList<IMetric>(Arrays.asList(metrics)));
+		} else {
+			queueEach(metrics);
+		}
+	}
+	
+	/**
+	 * Submits one routing task for the passed batch of metrics. 
+	 * Each destination is handed the metrics it matches, as looked up in the route table, through {@link RouteDestination#acceptRoutes(Collection)}.
+	 * @param metrics The batch of metrics to route
+	 */
+	protected void queueBatch(final List<IMetric> metrics) {
+		if(metrics.isEmpty()) return;
+		submit(new RoutingTask(metrics.size()){
+			public void run() {
+				routeBatch(metrics);
+			}
+		});
+	}
+	
+	/**
+	 * <p>Title: RoutingTask</p>
+	 * <p>Description: A routing task that carries the number of metrics it routes, so a rejected task can be accounted for</p> 
+	 * <p>Company: Helios Development Group LLC</p>
+	 * @author Whitehead (nwhitehead AT heliosdev DOT org)
+	 * <p><code>org.helios.apmrouter.router.PatternRouter.RoutingTask</code></p>
+	 */
+	protected abstract static class RoutingTask implements Runnable {
+		/** The number of metrics routed by this task */
+		protected final int size;
+		
+		/**
+		 * Creates a new RoutingTask
+		 * @param size The number of metrics routed by this task
+		 */
+		protected RoutingTask(int size) {
+			this.size = size;
+		}
+		
+		/**
+		 * Releases any resources held by this task when it is rejected and will never run
+		 */
+		protected void discard() {
+			/* No Op */
+		}
+	}
+	
+	/**
+	 * Submits a routing task to the thread pool. If the task is rejected, its metrics are counted as dropped routes and the task is discarded.
+	 * @param task The task to submit
+	 */
+	protected void submit(RoutingTask task) {
+		try {
+			this.threadPool.execute(task);
+		} catch (RejectedExecutionException ree) {
+			rejected(task);
+		}
+	}
+	
+	/**
+	 * Accounts for a routing task that was rejected by the thread pool and will never run
+	 * @param task The rejected task
+	 */
+	protected void rejected(RoutingTask task) {
+		droppedRoutes.add(task.size);
+		task.discard();
+	}
+	
+	/**
+	 * Queues a batch of metrics forwarded by the {@link MetricConflationService} for routing to the destinations that receive conflated metrics.
+	 * The list is copied so the caller is free to reuse it once this call returns.
+	 * @param metrics The conflated metrics to route
+	 */
+	protected void routeConflated(List<IMetric> metrics) {
+		if(metrics==null || metrics.isEmpty()) return;
+		final List<IMetric> batch = new ArrayList<IMetric>(metrics);
+		submit(new RoutingTask(batch.size()){
+			public void run() {
+				routeBatch(batch, true);
+			}
+		});
+	}
+	
+	/**
+	 * Routes a batch of raw samples to all registered destinations in the calling thread.
+	 * Samples routed to destinations that receive conflated metrics are handed to the {@link MetricConflationService} instead.
+	 * @param metrics The batch of metrics to route
+	 */
+	protected void routeBatch(List<IMetric> metrics) {
+		routeBatch(metrics, false);
+	}
+	
+	/**
+	 * Routes a batch of metrics in the calling thread
+	 * @param metrics The batch of metrics to route
+	 * @param conflated true if the metrics were forwarded by the {@link MetricConflationService} and are only routed to the destinations
+	 * that receive conflated metrics, false if they are raw samples
+	 */
+	protected void routeBatch(List<IMetric> metrics, boolean conflated) {
+		final long start = System.nanoTime();
+		int batchSize = 0;
+		try {
+			for(ListIterator<IMetric> iter = metrics.listIterator(); iter.hasNext();) {
+				IMetric metric = iter.next();
+				if(metric==null) {
+					iter.remove();
+					continue;
+				}
+				if(metric.getType()==org.helios.apmrouter.metric.MetricType.BLOB) {
+					iter.set(new ExpandedMetric((ICEMetric)metric));
+				}
+			}
+			batchSize = metrics.size();
+			if(batchSize==0) return;
+			RouteTable.Routes routes = routeTable.getRoutes();
+			List<IMetric>[] partitions;
+			if(conflated) {
+				partitions = routes.partitionConflated(metrics);
+			} else if(routes.hasConflated()) {
+				List<IMetric> conflate = new ArrayList<IMetric>();
+				partitions = routes.partition(metrics, conflate);
+				conflate(conflate);
+			} else {
+				partitions = routes.partition(metrics);
+			}
+			for(int i = 0; i < partitions.length; i++) {
+				List<IMetric> batch = partitions[i];
+				if(batch==null) continue;
+				RouteDestination<IMetric> destination = routes.getDestination(i);
+				try {
+					destination.acceptRoutes(batch);
+					completedRoutes.add(batch.size());
+				} catch (Throwable e) {
+					droppedRoutes.add(batch.size());
+					warn("Destination [", destination, "] failed to accept batch of [", batch.size(), "] routes", e);
+				}
+			}
+		} catch (Throwable e) {
+			droppedRoutes.add(batchSize);
+			e.printStackTrace(System.err);
+		} finally {
+			if(batchSize>0) {
+				long elapsed = System.nanoTime()-start;
+				routedBatches.increment();
+				batchElapsedTimesNs.record(elapsed);
+				batchSizes.insert(batchSize);
+			}
+		}
+	}
+	
+	/**
+	 * Hands raw samples routed to destinations that receive conflated metrics to the {@link MetricConflationService}
+	 * @param metrics The samples to conflate
+	 */
+	protected void conflate(List<IMetric> metrics) {
+		if(metrics.isEmpty()) return;
+		conflator.queue(metrics.toArray(new IMetric[metrics.size()]));
+	}
+	
+	/**
+	 * Queues one routing task per metric. This is the legacy routing mode, used when batch routing is disabled.
+	 * @param metrics The metrics to route
+	 */
+	protected void queueEach(IMetric...metrics) {
 		for(final IMetric metric: metrics) {
 			if(metric==null) continue;
-			this.threadPool.execute(new Runnable(){
+			submit(new RoutingTask(1){
 				public void run() {
-					try {
-						SystemClock.startTimer();
-						IMetric routableMetric = metric;
-						if(metric.getType()==org.helios.apmrouter.metric.MetricType.BLOB) {
-							routableMetric = new ExpandedMetric((ICEMetric)metric);
-						}						
-						for(RouteDestination<IMetric> destination: destinations) {
-							destination.acceptRoute(routableMetric);
-							incr("CompletedRoutes");
-						}
-						ElapsedTime et = SystemClock.endTimer();
-						elapsedTimesNs.insert(et.elapsedNs);
-						elapsedTimesMs.insert(et.elapsedMs);
-					} catch (Throwable e) {
-						SystemClock.endTimer();
-						incr("DroppedRoutes");
-						e.printStackTrace(System.err);
-					}
-					
+					List<IMetric> single = new ArrayList<IMetric>(1);
+					single.add(metric);
+					routeBatch(single);
 				}
 			});
 		}		
 	}
 	
-	
+	/**
+	 * Routes a collection of routables to their pattern matched endpoints.
+	 * In batch routing mode, the collection is routed as one batch.
+	 * @param metrics The routables to route
+	 */
 	public void route(Collection<IMetric> metrics) {
-		route(metrics.toArray(new IMetric[0]));
+		if(metrics==null || metrics.isEmpty()) return;
+		queue(metrics);
 	}
 	
+	/**
+	 * Queues a collection of routables for routing.
+	 * The collection is copied so the caller is free to reuse it once this call returns.
+	 * @param metrics The routables to route
+	 */
 	public void queue(Collection<IMetric> metrics) {
-		queue(metrics.toArray(new IMetric[0]));
+		if(metrics==null || metrics.isEmpty()) return;
+		if(batchRouting) {
+			queueBatch(new ArrayList<IMetric>(metrics));
+		} else {
+			queueEach(metrics.toArray(new IMetric[metrics.size()]));
+		}
 	}
 
 	
@@ -270,10 +465,136 @@ public class PatternRouter extends ServerComponentBean implements UncaughtExcept
 	 * @param metrics The routables to route
 	 */
 	public void route(IMetric...metrics) {
-		//conflator.queue(metrics);   // TODO: Only use conflator in actual destinations that need it.
 		queue(metrics);
 	}
 	
+	/**
+	 * Routes the metric records of a received DirectMetricCollection without decoding them up front.
+	 * The router takes ownership of the DMC and destroys it once routed. All records must be tokenized.
+	 * When batch routing is disabled, the DMC is decoded and routed as metrics instead.
+	 * @param dmc The DMC to route
+	 */
+	public void route(final DirectMetricCollection dmc) {
+		if(dmc==null) return;
+		if(!batchRouting) {
+			try {
+				route(dmc.decode());
+			} finally {
+				dmc.destroy();
+			}
+			return;
+		}
+		submit(new RoutingTask(dmc.getMetricCount()){
+			public void run() {
+				try {
+					routeInPlace(dmc);
+				} finally {
+					dmc.destroy();
+				}
+			}
+			@Override
+			protected void discard() {
+				dmc.destroy();
+			}
+		});
+	}
+	
+	/**
+	 * Decodes the record the passed cursor is positioned on, expanding BLOB metrics
+	 * @param cursor The positioned cursor
+	 * @return the decoded metric
+	 */
+	protected static IMetric decode(DirectMetricCollection.MetricCursor cursor) {
+		IMetric metric = cursor.toMetric();
+		if(metric.getType()==org.helios.apmrouter.metric.MetricType.BLOB) {
+			metric = new ExpandedMetric((ICEMetric)metric);
+		}
+		return metric;
+	}
+	
+	/**
+	 * Routes the records of a DMC in the calling thread. Records are read through a flyweight {@link DirectMetricCollection.MetricCursor}:
+	 * {@link CursorRouteDestination}s are handed the positioned cursor, and a record is only decoded into an {@link IMetric}
+	 * (once) if it is routed to a destination that needs one, which then receives its metrics as one batch.
+	 * Records routed to destinations that receive conflated metrics are decoded and handed to the {@link MetricConflationService} once.
+	 * @param dmc The DMC to route
+	 */
+	@SuppressWarnings("unchecked")
+	protected void routeInPlace(DirectMetricCollection dmc) {
+		final long start = System.nanoTime();
+		int batchSize = 0;
+		int completed = 0, dropped = 0;
+		try {
+			RouteTable.Routes routes = routeTable.getRoutes();
+			final int destCount = routes.getDestinationCount();
+			List<IMetric>[] lists = new List[destCount];
+			List<IMetric> conflate = null;
+			DirectMetricCollection.MetricCursor cursor = dmc.newMetricCursor();
+			while(cursor.nextRecord()) {
+				batchSize++;
+				if(destCount==0) continue;
+				IMetric metric = null;
+				long[] bits = routes.lookup(cursor);
+				boolean conflating = routes.hasConflated() && routes.isConflated(bits);
+				for(int w = 0; w < bits.length; w++) {
+					long word = bits[w];
+					while(word!=0) {
+						int index = (w << 6) + Long.numberOfTrailingZeros(word);
+						word &= word-1;
+						RouteDestination<IMetric> destination = routes.getDestination(index);
+						if(conflating && routes.isConflated(index)) continue;
+						if(destination instanceof CursorRouteDestination) {
+							try {
+								((CursorRouteDestination)destination).acceptRoute(cursor);
+								completed++;
+							} catch (Throwable e) {
+								if(dropped==0) warn("Destination [", destination, "] failed to accept in place route", e);
+								dropped++;
+							}
+						} else {
+							if(metric==null) metric = decode(cursor);
+							if(lists[index]==null) {
+								lists[index] = new ArrayList<IMetric>(dmc.getMetricCount());
+							}
+							lists[index].add(metric);
+						}
+					}
+				}
+				if(conflating) {
+					if(metric==null) metric = decode(cursor);
+					if(conflate==null) conflate = new ArrayList<IMetric>();
+					conflate.add(metric);
+				}
+			}
+			if(conflate!=null) conflate(conflate);
+			for(int i = 0; i < lists.length; i++) {
+				List<IMetric> batch = lists[i];
+				if(batch==null) continue;
+				RouteDestination<IMetric> destination = routes.getDestination(i);
+				try {
+					destination.acceptRoutes(batch);
+					completed += batch.size();
+				} catch (Throwable e) {
+					dropped += batch.size();
+					warn("Destination [", destination, "] failed to accept batch of [", batch.size(), "] routes", e);
+				}
+			}
+		} catch (Throwable e) {
+			dropped += batchSize;
+			e.printStackTrace(System.err);
+		} finally {
+			if(completed>0) completedRoutes.add(completed);
+			if(dropped>0) droppedRoutes.add(dropped);
+			if(batchSize>0) {
+				long elapsed = System.nanoTime()-start;
+				routedBatches.increment();
+				inPlaceRoutedBatches.increment();
+				batchElapsedTimesNs.record(elapsed);
+				batchSizes.insert(batchSize);
+			}
+		}
+	}
+	
 //	/**
 //	 * Routes a collection of routables to their pattern matched endpoints
 //	 * @param metrics The routables to route
@@ -298,6 +619,8 @@ public class PatternRouter extends ServerComponentBean implements UncaughtExcept
 		Set<String> metrics = new HashSet<String>(super.getSupportedMetricNames());
 		metrics.add("DroppedRoutes");
 		metrics.add("CompletedRoutes");
+		metrics.add("RoutedBatches");
+		metrics.add("InPlaceRoutedBatches");
 		return metrics;
 	}
 
@@ -320,24 +643,159 @@ public class PatternRouter extends ServerComponentBean implements UncaughtExcept
 	}
 	
 	/**
-	 * Returns the sliding average elapsed time in ns. of the last 15 route events
-	 * @return the sliding average elapsed time in ns. of the last 15 route events
+	 * Returns the average elapsed time in ns. of routed batches over the last interval
+	 * @return the average elapsed time in ns. of routed batches over the last interval
+	 */
+	@ManagedMetric(category="MetricRouter", metricType=MetricType.GAUGE, description="The average elapsed time in ns. of routed batches over the last interval")
+	public long getAverageBatchRouteTimeNs() {
+		return batchElapsedTimesNs.getMean();
+	}
+	
+	/**
+	 * Returns the average elapsed time in ms. of routed batches over the last interval
+	 * @return the average elapsed time in ms. of routed batches over the last interval
+	 */
+	@ManagedMetric(category="MetricRouter", metricType=MetricType.GAUGE, description="The average elapsed time in ms. of routed batches over the last interval")
+	public long getAverageBatchRouteTimeMs() {
+		return LatencyHistogram.toMs(batchElapsedTimesNs.getMean());
+	}
+	
+	/**
+	 * Returns the elapsed time in ns. of the last routed batch
+	 * @return the elapsed time in ns. of the last routed batch
+	 */
+	@ManagedMetric(category="MetricRouter", metricType=MetricType.GAUGE, description="The elapsed time in ns. of the last routed batch")
+	public long getLastBatchRouteTimeNs() {
+		return batchElapsedTimesNs.getLast();
+	}
+	
+	/**
+	 * Returns the median routed batch elapsed time in ns. over the last interval
+	 * @return the median routed batch elapsed time in ns. or -1 if there were none
+	 */
+	@ManagedMetric(category="MetricRouter", metricType=MetricType.GAUGE, description="The median routed batch elapsed time in ns. over the last interval")
+	public long getBatchRouteTimeNsP50() {
+		return batchElapsedTimesNs.getP50();
+	}
+	
+	/**
+	 * Returns the 99th percentile routed batch elapsed time in ns. over the last interval
+	 * @return the 99th percentile routed batch elapsed time in ns. or -1 if there were none
+	 */
+	@ManagedMetric(category="MetricRouter", metricType=MetricType.GAUGE, description="The 99th percentile routed batch elapsed time in ns. over the last interval")
+	public long getBatchRouteTimeNsP99() {
+		return batchElapsedTimesNs.getP99();
+	}
+	
+	/**
+	 * Returns the 99.9th percentile routed batch elapsed time in ns. over the last interval
+	 * @return the 99.9th percentile routed batch elapsed time in ns. or -1 if there were none
+	 */
+	@ManagedMetric(category="MetricRouter", metricType=MetricType.GAUGE, description="The 99.9th percentile routed batch elapsed time in ns. over the last interval")
+	public long getBatchRouteTimeNsP999() {
+		return batchElapsedTimesNs.getP999();
+	}
+	
+	/**
+	 * Returns the maximum routed batch elapsed time in ns. over the last interval
+	 * @return the maximum routed batch elapsed time in ns. or -1 if there were none
 	 */
-	@ManagedMetric(category="MetricRouter", metricType=MetricType.GAUGE, description="The sliding average elapsed time in ns. of the last 15 route events")
-	public long getAverageRouteTimeNs() {
-		return elapsedTimesNs.avg();
+	@ManagedMetric(category="MetricRouter", metricType=MetricType.GAUGE, description="The maximum routed batch elapsed time in ns. over the last interval")
+	public long getBatchRouteTimeNsMax() {
+		return batchElapsedTimesNs.getMax();
 	}
 	
 	/**
-	 * Returns the sliding average elapsed time in ms. of the last 15 route events
-	 * @return the sliding average elapsed time in ms. of the last 15 route events
+	 * Returns the sliding average size of the last 15 routed batches
+	 * @return the sliding average size of the last 15 routed batches
 	 */
-	@ManagedMetric(category="MetricRouter", metricType=MetricType.GAUGE, description="The sliding average elapsed time in ms. of the last 15 route events")
-	public long getAverageRouteTimeMs() {
-		return elapsedTimesMs.avg();
+	@ManagedMetric(category="MetricRouter", metricType=MetricType.GAUGE, description="The sliding average size of the last 15 routed batches")
+	public long getAverageBatchSize() {
+		return batchSizes.avg();
 	}
 	
+	/**
+	 * Returns the sliding average route time per metric in ns. across the last 15 routed batches
+	 * @return the sliding average route time per metric in ns.
+	 */
+	@ManagedMetric(category="MetricRouter", metricType=MetricType.GAUGE, description="The sliding average route time per metric in ns. across the last 15 routed batches")
+	public long getAverageRouteTimePerMetricNs() {
+		long size = batchSizes.avg();
+		long elapsed = batchElapsedTimesNs.getMean();
+		return size==0 || elapsed<0 ? 0 : elapsed/size;
+	}
 	
+	/**
+	 * Returns the number of routed batches
+	 * @return the number of routed batches
+	 */
+	@ManagedMetric(category="MetricRouter", metricType=MetricType.COUNTER, description="The number of routed batches")
+	public long getRoutedBatchCount() {
+		return getMetricValue("RoutedBatches");
+	}
+	
+	/**
+	 * Returns the number of metric tokens with a precomputed route
+	 * @return the number of metric tokens with a precomputed route
+	 */
+	@ManagedMetric(category="MetricRouter", metricType=MetricType.GAUGE, description="The number of metric tokens with a precomputed route")
+	public long getRouteTableSize() {
+		return routeTable.size();
+	}
+	
+	/**
+	 * Returns the number of route lookups served from the route table
+	 * @return the number of route lookups served from the route table
+	 */
+	@ManagedMetric(category="MetricRouter", metricType=MetricType.COUNTER, description="The number of route lookups served from the route table")
+	public long getRouteTableHits() {
+		return routeTable.getHits();
+	}
+	
+	/**
+	 * Returns the number of route lookups that were computed by pattern matching
+	 * @return the number of route lookups that were computed by pattern matching
+	 */
+	@ManagedMetric(category="MetricRouter", metricType=MetricType.COUNTER, description="The number of route lookups that were computed by pattern matching")
+	public long getRouteTableMisses() {
+		return routeTable.getMisses();
+	}
+	
+	/**
+	 * Returns the number of route table entries evicted for lack of use
+	 * @return the number of route table entries evicted
+	 */
+	@ManagedMetric(category="MetricRouter", metricType=MetricType.COUNTER, description="The number of route table entries evicted for lack of use")
+	public long getRouteTableEvictions() {
+		return routeTable.getEvictions();
+	}
+	
+	/**
+	 * Returns the number of times the route table was invalidated
+	 * @return the number of times the route table was invalidated
+	 */
+	@ManagedMetric(category="MetricRouter", metricType=MetricType.COUNTER, description="The number of times the route table was invalidated")
+	public long getRouteTableInvalidations() {
+		return routeTable.getInvalidations();
+	}
+	
+	/**
+	 * Indicates if metrics are routed in batches
+	 * @return true if metrics are routed in batches, false if each metric is routed in its own task
+	 */
+	@ManagedAttribute(description="Indicates if metrics are routed in batches")
+	public boolean isBatchRouting() {
+		return batchRouting;
+	}
+
+	/**
+	 * Sets the routing mode
+	 * @param batchRouting true to route metrics in batches, false to route each metric in its own task
+	 */
+	@ManagedAttribute(description="Indicates if metrics are routed in batches")
+	public void setBatchRouting(boolean batchRouting) {
+		this.batchRouting = batchRouting;
+	}
 	
 	/**
 	 * Returns the number of routed metrics
@@ -348,6 +806,15 @@ public class PatternRouter extends ServerComponentBean implements UncaughtExcept
 		return getMetricValue("CompletedRoutes");
 	}
 	
+	/**
+	 * Returns the number of batches routed in place from a received DirectMetricCollection
+	 * @return the number of batches routed in place
+	 */
+	@ManagedMetric(category="MetricRouter", metricType=MetricType.COUNTER, description="The number of batches routed in place from a received DirectMetricCollection")
+	public long getInPlaceRoutedBatchCount() {
+		return getMetricValue("InPlaceRoutedBatches");
+	}
+	
 	/**
 	 * Returns the number of metrics dropped in routing
 	 * @return the number of metrics dropped in routing
@@ -426,7 +893,11 @@ public class PatternRouter extends ServerComponentBean implements UncaughtExcept
 	@Override
 	public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
 		warn("Pattern Router Rejected execution\n\tTask:", r.getClass().getName(), "\n\tWorker QueueDepth:" + executor.getQueue().size(), new Throwable());
-		incr("DroppedRoutes");
+		if(r instanceof RoutingTask) {
+			rejected((RoutingTask)r);
+		} else {
+			droppedRoutes.increment();
+		}
 	}
 	
 	
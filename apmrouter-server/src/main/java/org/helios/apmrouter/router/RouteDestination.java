@@ -24,6 +24,8 @@
  */
 package org.helios.apmrouter.router;
 
+import java.util.Collection;
+
 /**
  * <p>Title: RouteDestination</p>
  * <p>Description: Defines a route destination that accepts routed {@link Routable} instances from a {@link PatternRouter} that matched
@@ -41,5 +43,22 @@ public interface RouteDestination<T extends Routable> {
 	 */
 	public void acceptRoute(T routable);
 	
+	/**
+	 * Accepts a batch of {@link Routable} instances from a {@link PatternRouter}.
+	 * The router only passes routables for which {@link #matches(Routable)} returned true.
+	 * Implementations with no batch specific handling should fall back to handling each item as {@link #acceptRoute(Routable)} would.
+	 * @param routables The batch of {@link Routable}s that were routed to this destination
+	 */
+	public void acceptRoutes(Collection<T> routables);
+	
+	/**
+	 * Indicates if the passed routable matches this destination's advertised patterns.
+	 * The {@link PatternRouter} caches the result by metric token, so implementations must 
+	 * publish a {@link org.helios.apmrouter.destination.event.DestinationPatternsChangedEvent} when the result may change.
+	 * @param routable The routable to test
+	 * @return true if the routable should be routed to this destination
+	 */
+	public boolean matches(T routable);
+	
 	
 }
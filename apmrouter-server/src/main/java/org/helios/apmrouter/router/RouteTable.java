@@ -0,0 +1,414 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.apmrouter.router;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.cliffc.high_scale_lib.NonBlockingHashMapLong;
+import org.helios.apmrouter.jmx.ConfigurationHelper;
+import org.helios.apmrouter.metric.IMetric;
+import org.helios.apmrouter.trace.DirectMetricCollection;
+
+/**
+ * <p>Title: RouteTable</p>
+ * <p>Description: A table of precomputed routes keyed by metric token. Each entry is a bitset of the indexes 
+ * of the destinations whose patterns match the metric. Entries are computed the first time a token is seen
+ * and the whole table is discarded when the set of destinations or any destination's patterns change.</p>
+ * <p>The table is bounded by two generations of entries. Lookups are served from the young generation,
+ * or promoted to it from the old one. When the young generation reaches half the capacity it becomes the old generation
+ * and the previous old generation is dropped, so tokens of metrics that stopped reporting (e.g. went offline) are evicted
+ * after two generations without a lookup.</p> 
+ * <p>The routes also record which destinations opted in to receive conflated metrics through {@link ConflatingRouteDestination}, 
+ * so a batch of raw samples can be split between the destinations that receive them as is and the {@link MetricConflationService}.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.apmrouter.router.RouteTable</code></p>
+ */
+
+public class RouteTable {
+	/** The maximum number of entries in each generation of the table */
+	protected final int generationSize;
+	/** The current routes */
+	protected volatile Routes routes;
+	/** The number of route lookups served from the table */
+	protected final AtomicLong hits = new AtomicLong(0L);
+	/** The number of route lookups that had to be computed */
+	protected final AtomicLong misses = new AtomicLong(0L);
+	/** The number of times the table has been invalidated */
+	protected final AtomicLong invalidations = new AtomicLong(0L);
+	/** The number of entries evicted from the table */
+	protected final AtomicLong evictions = new AtomicLong(0L);
+	
+	/** The system property or environment variable name to set the route table capacity */
+	public static final String ROUTE_TABLE_SIZE_PROP = "org.helios.apmrouter.routetable.size";
+	/** The default route table capacity */
+	public static final int DEFAULT_ROUTE_TABLE_SIZE = 131072;
+	
+	/**
+	 * Creates a new RouteTable with the capacity set by {@link #ROUTE_TABLE_SIZE_PROP} or {@link #DEFAULT_ROUTE_TABLE_SIZE}
+	 */
+	public RouteTable() {
+		this(ConfigurationHelper.getIntSystemThenEnvProperty(ROUTE_TABLE_SIZE_PROP, DEFAULT_ROUTE_TABLE_SIZE));
+	}
+	
+	/**
+	 * Creates a new RouteTable
+	 * @param capacity The approximate maximum number of entries in the table
+	 */
+	public RouteTable(int capacity) {
+		if(capacity<2) throw new IllegalArgumentException("Invalid route table capacity [" + capacity + "]", new Throwable());
+		generationSize = capacity/2;
+		routes = new Routes(new ArrayList<RouteDestination<IMetric>>(0));
+	}
+	
+	/**
+	 * Replaces the destinations routed to and discards all computed routes
+	 * @param destinations The new destinations
+	 */
+	public void setDestinations(Collection<RouteDestination<IMetric>> destinations) {
+		routes = new Routes(new ArrayList<RouteDestination<IMetric>>(destinations));
+		invalidations.incrementAndGet();
+	}
+	
+	/**
+	 * Discards all computed routes. Called when a destination's patterns change.
+	 */
+	public void invalidate() {
+		routes = new Routes(routes.destinations);
+		invalidations.incrementAndGet();
+	}
+	
+	/**
+	 * Returns the current routes. Callers should use the returned instance for a whole batch 
+	 * so that the destination indexes stay consistent while the table is being invalidated.
+	 * @return the current routes
+	 */
+	public Routes getRoutes() {
+		return routes;
+	}
+	
+	/**
+	 * Returns the number of route lookups served from the table
+	 * @return the number of route lookups served from the table
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+	
+	/**
+	 * Returns the number of route lookups that had to be computed
+	 * @return the number of route lookups that had to be computed
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
+	
+	/**
+	 * Returns the number of times the table has been invalidated
+	 * @return the number of times the table has been invalidated
+	 */
+	public long getInvalidations() {
+		return invalidations.get();
+	}
+	
+	/**
+	 * Returns the number of entries evicted from the table
+	 * @return the number of entries evicted from the table
+	 */
+	public long getEvictions() {
+		return evictions.get();
+	}
+	
+	/**
+	 * Returns the approximate number of entries in the table
+	 * @return the approximate number of entries in the table
+	 */
+	public int size() {
+		Routes r = routes;
+		return r.young.size() + r.old.size();
+	}
+	
+	/**
+	 * Resets the hit and miss counters
+	 */
+	public void resetStats() {
+		hits.set(0L);
+		misses.set(0L);
+		invalidations.set(0L);
+		evictions.set(0L);
+	}
+	
+	/**
+	 * <p>Title: Routes</p>
+	 * <p>Description: An immutable set of destinations and the route bitsets computed against them</p> 
+	 * <p>Company: Helios Development Group LLC</p>
+	 * @author Whitehead (nwhitehead AT heliosdev DOT org)
+	 * <p><code>org.helios.apmrouter.router.RouteTable.Routes</code></p>
+	 */
+	public class Routes {
+		/** The destinations, indexed by bit position */
+		protected final List<RouteDestination<IMetric>> destinations;
+		/** The young generation of computed route bitsets keyed by metric token */
+		protected volatile NonBlockingHashMapLong<long[]> young = new NonBlockingHashMapLong<long[]>();
+		/** The old generation of computed route bitsets keyed by metric token */
+		protected volatile NonBlockingHashMapLong<long[]> old = new NonBlockingHashMapLong<long[]>();
+		/** The number of longs in each route bitset */
+		protected final int words;
+		/** The bitset of indexes of the destinations that receive conflated metrics */
+		protected final long[] conflated;
+		/** Indicates if any destination receives conflated metrics */
+		protected final boolean anyConflated;
+		
+		/**
+		 * Creates a new Routes
+		 * @param destinations The destinations, indexed by bit position
+		 */
+		protected Routes(List<RouteDestination<IMetric>> destinations) {
+			this.destinations = destinations;
+			words = Math.max(1, (destinations.size() + 63) >>> 6);
+			conflated = new long[words];
+			boolean any = false;
+			for(int i = 0; i < destinations.size(); i++) {
+				RouteDestination<IMetric> destination = destinations.get(i);
+				if(destination instanceof ConflatingRouteDestination && ((ConflatingRouteDestination)destination).isConflate()) {
+					conflated[i >>> 6] |= (1L << (i & 63));
+					any = true;
+				}
+			}
+			anyConflated = any;
+		}
+		
+		/**
+		 * Indicates if the destination at the passed index receives conflated metrics
+		 * @param index The bit index of the destination
+		 * @return true if the destination receives conflated metrics
+		 */
+		public boolean isConflated(int index) {
+			return (conflated[index >>> 6] & (1L << (index & 63)))!=0L;
+		}
+		
+		/**
+		 * Indicates if the passed route bitset includes any destination that receives conflated metrics
+		 * @param bits The route bitset
+		 * @return true if any of the routed destinations receives conflated metrics
+		 */
+		public boolean isConflated(long[] bits) {
+			for(int w = 0; w < bits.length; w++) {
+				if((bits[w] & conflated[w])!=0L) return true;
+			}
+			return false;
+		}
+		
+		/**
+		 * Indicates if any destination receives conflated metrics
+		 * @return true if any destination receives conflated metrics
+		 */
+		public boolean hasConflated() {
+			return anyConflated;
+		}
+		
+		/**
+		 * Returns the number of destinations
+		 * @return the number of destinations
+		 */
+		public int getDestinationCount() {
+			return destinations.size();
+		}
+		
+		/**
+		 * Returns the destination at the passed index
+		 * @param index The bit index of the destination
+		 * @return the destination
+		 */
+		public RouteDestination<IMetric> getDestination(int index) {
+			return destinations.get(index);
+		}
+		
+		/**
+		 * Returns the route bitset for the passed metric, computing and caching it if the metric's token has not been seen.
+		 * Metrics with no token are computed on every call.
+		 * @param metric The metric to route
+		 * @return the bitset of indexes of the matching destinations
+		 */
+		public long[] lookup(IMetric metric) {
+			long token = metric.getToken();
+			if(token<0) {
+				misses.incrementAndGet();
+				return compute(metric);
+			}
+			long[] bits = get(token);
+			if(bits==null) {
+				misses.incrementAndGet();
+				bits = compute(metric);
+				put(token, bits);
+			} else {
+				hits.incrementAndGet();
+			}
+			return bits;
+		}
+		
+		/**
+		 * Returns the route bitset for the tokenized record the passed cursor is positioned on.
+		 * The record is only decoded into a metric when its token has not been seen.
+		 * @param cursor The cursor positioned on a tokenized record
+		 * @return the bitset of indexes of the matching destinations
+		 */
+		public long[] lookup(DirectMetricCollection.MetricCursor cursor) {
+			long token = cursor.getToken();
+			long[] bits = token<0 ? null : get(token);
+			if(bits==null) {
+				misses.incrementAndGet();
+				bits = compute(cursor.toMetric());
+				if(token>=0) put(token, bits);
+			} else {
+				hits.incrementAndGet();
+			}
+			return bits;
+		}
+		
+		/**
+		 * Returns the cached route bitset for the passed token, promoting it from the old generation if found there
+		 * @param token The metric token
+		 * @return the route bitset or null if the token is not cached
+		 */
+		protected long[] get(long token) {
+			long[] bits = young.get(token);
+			if(bits==null) {
+				NonBlockingHashMapLong<long[]> o = old;
+				bits = o.get(token);
+				if(bits!=null) {
+					put(token, bits);
+					o.remove(token);
+				}
+			}
+			return bits;
+		}
+		
+		/**
+		 * Caches a route bitset in the young generation, rotating the generations if it is full
+		 * @param token The metric token
+		 * @param bits The route bitset
+		 */
+		protected void put(long token, long[] bits) {
+			NonBlockingHashMapLong<long[]> y = young;
+			y.put(token, bits);
+			if(y.size()>=generationSize) {
+				synchronized(this) {
+					if(young==y) {
+						evictions.addAndGet(old.size());
+						old = y;
+						young = new NonBlockingHashMapLong<long[]>();
+					}
+				}
+			}
+		}
+		
+		/**
+		 * Partitions the passed batch into one list per destination containing only the metrics routed to that destination
+		 * @param metrics The batch of metrics to partition
+		 * @return an array of lists indexed by destination. Entries for destinations that receive no metrics are null.
+		 */
+		public List<IMetric>[] partition(Collection<IMetric> metrics) {
+			return partition(metrics, null, false);
+		}
+		
+		/**
+		 * Partitions a batch of raw samples into one list per destination that receives raw samples. 
+		 * Each sample routed to at least one destination that receives conflated metrics is added once to the passed conflate list.
+		 * @param metrics The batch of raw samples to partition
+		 * @param conflate The list to add the samples to conflate to
+		 * @return an array of lists indexed by destination. Entries for destinations that receive no raw samples are null.
+		 */
+		public List<IMetric>[] partition(Collection<IMetric> metrics, List<IMetric> conflate) {
+			return partition(metrics, conflate, false);
+		}
+		
+		/**
+		 * Partitions a batch of conflated metrics into one list per destination that receives conflated metrics
+		 * @param metrics The batch of conflated metrics to partition
+		 * @return an array of lists indexed by destination. Entries for destinations that receive no conflated metrics are null.
+		 */
+		public List<IMetric>[] partitionConflated(Collection<IMetric> metrics) {
+			return partition(metrics, null, true);
+		}
+		
+		/**
+		 * Partitions the passed batch into one list per destination
+		 * @param metrics The batch of metrics to partition
+		 * @param conflate If not null, destinations that receive conflated metrics are skipped and the metrics routed to any of them are added to this list
+		 * @param conflatedOnly If true, only the destinations that receive conflated metrics are partitioned to
+		 * @return an array of lists indexed by destination. Entries for destinations that receive no metrics are null.
+		 */
+		@SuppressWarnings("unchecked")
+		protected List<IMetric>[] partition(Collection<IMetric> metrics, List<IMetric> conflate, boolean conflatedOnly) {
+			final int destCount = destinations.size();
+			List<IMetric>[] lists = new List[destCount];
+			if(destCount==0) return lists;
+			final boolean skipConflated = conflate!=null && anyConflated;
+			for(IMetric metric: metrics) {
+				long[] bits = lookup(metric);
+				if(skipConflated && isConflated(bits)) {
+					// the sample is conflated once, however many conflating destinations it is routed to
+					conflate.add(metric);
+				}
+				for(int w = 0; w < bits.length; w++) {
+					long word = bits[w];
+					if(conflatedOnly) {
+						word &= conflated[w];
+					} else if(skipConflated) {
+						word &= ~conflated[w];
+					}
+					while(word!=0) {
+						int index = (w << 6) + Long.numberOfTrailingZeros(word);
+						if(lists[index]==null) {
+							lists[index] = new ArrayList<IMetric>(metrics.size());
+						}
+						lists[index].add(metric);
+						word &= word-1;
+					}
+				}
+			}
+			return lists;
+		}
+		
+		/**
+		 * Computes the route bitset for the passed metric
+		 * @param metric The metric to route
+		 * @return the bitset of indexes of the matching destinations
+		 */
+		protected long[] compute(IMetric metric) {
+			long[] bits = new long[words];
+			for(int i = 0; i < destinations.size(); i++) {
+				if(destinations.get(i).matches(metric)) {
+					bits[i >>> 6] |= (1L << (i & 63));
+				}
+			}
+			return bits;
+		}
+	}
+}
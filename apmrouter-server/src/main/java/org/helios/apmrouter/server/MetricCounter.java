@@ -0,0 +1,134 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.apmrouter.server;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <p>Title: MetricCounter</p>
+ * <p>Description: A named counter handle for {@link ServerComponent} metrics. Increments are spread across striped cells picked by thread id, 
+ * each on its own cache line, so concurrent writers do not contend. The value is the sum of the cells and is only computed when read.
+ * Components get a handle once with {@link ServerComponent#counter(String)} and increment it on hot paths without any name lookup.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.apmrouter.server.MetricCounter</code></p>
+ */
+
+public class MetricCounter {
+	/** The metric name */
+	protected final String name;
+	/** The cells. Only every {@link #CELL_SPACING}th slot is used so each cell sits on its own cache line */
+	protected final AtomicLongArray cells;
+	/** The mask applied to a thread id to get its cell */
+	protected final int cellMask;
+	
+	/** The shift applied to a cell index to get its slot, spacing cells 64 bytes apart */
+	protected static final int CELL_SHIFT = 3;
+	/** The number of slots between cells */
+	public static final int CELL_SPACING = 1 << CELL_SHIFT;
+	/** The number of cells, the processor count rounded down to a power of two, capped at 16 */
+	public static final int CELL_COUNT = Math.min(16, Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors())));
+	
+	/**
+	 * Creates a new MetricCounter
+	 * @param name The metric name
+	 */
+	public MetricCounter(String name) {
+		if(name==null) throw new IllegalArgumentException("The passed name was null", new Throwable());
+		this.name = name;
+		cellMask = CELL_COUNT-1;
+		cells = new AtomicLongArray(CELL_COUNT << CELL_SHIFT);
+	}
+	
+	/**
+	 * Returns the slot of the calling thread's cell
+	 * @return the slot index
+	 */
+	protected int slot() {
+		return ((int)Thread.currentThread().getId() & cellMask) << CELL_SHIFT;
+	}
+	
+	/**
+	 * Adds the passed delta to this counter
+	 * @param delta The amount to add
+	 */
+	public void add(long delta) {
+		cells.getAndAdd(slot(), delta);
+	}
+	
+	/**
+	 * Increments this counter by 1
+	 */
+	public void increment() {
+		cells.getAndIncrement(slot());
+	}
+	
+	/**
+	 * Decrements this counter by 1
+	 */
+	public void decrement() {
+		cells.getAndDecrement(slot());
+	}
+	
+	/**
+	 * Returns the current value of this counter
+	 * @return the sum of the cells
+	 */
+	public long get() {
+		long sum = 0;
+		for(int i = 0; i < CELL_COUNT; i++) {
+			sum += cells.get(i << CELL_SHIFT);
+		}
+		return sum;
+	}
+	
+	/**
+	 * Sets this counter to the passed value. Increments racing with a set may be lost.
+	 * @param value The value to set
+	 */
+	public void set(long value) {
+		for(int i = 1; i < CELL_COUNT; i++) {
+			cells.set(i << CELL_SHIFT, 0L);
+		}
+		cells.set(0, value);
+	}
+	
+	/**
+	 * Returns the metric name
+	 * @return the metric name
+	 */
+	public String getName() {
+		return name;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return name + ":" + get();
+	}
+}
@@ -36,7 +36,6 @@ import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.log4j.Logger;
 import org.cliffc.high_scale_lib.ConcurrentAutoTable;
-import org.cliffc.high_scale_lib.Counter;
 import org.cliffc.high_scale_lib.NonBlockingHashMap;
 import org.helios.apmrouter.logging.APMLogLevel;
 import org.springframework.jmx.export.annotation.ManagedAttribute;
@@ -59,7 +58,7 @@ public abstract class ServerComponent {
 	protected APMLogLevel level = APMLogLevel.pCode(log.getEffectiveLevel().toInt());
 	
 	/** Metrics accumulator */
-	protected final NonBlockingHashMap<String, Counter> metrics = new NonBlockingHashMap<String, Counter>();
+	protected final NonBlockingHashMap<String, MetricCounter> metrics = new NonBlockingHashMap<String, MetricCounter>();
 	/** The last reset time of these metrics */
 	protected AtomicLong lastMetricResetTime = new AtomicLong(System.currentTimeMillis());
 	
@@ -259,22 +258,30 @@ public abstract class ServerComponent {
 	 */
 	protected void initCounters() {
 		for(String name: getSupportedMetricNames()) {
-			name = name.trim();
-			if(!metrics.containsKey(name)) {
-				metrics.put(name, new Counter());
-			}
+			counter(name.trim());
 		}
 	}
 	
-	protected Counter mget(String name) {
-		Counter ctr = metrics.get(name);
+	/**
+	 * Returns the counter handle for the named metric, registering it if it does not exist.
+	 * Hot paths should keep the returned handle in a field and increment it directly rather than calling {@link #incr(String, long)}.
+	 * @param name The name of the metric
+	 * @return the counter handle
+	 */
+	protected MetricCounter counter(String name) {
+		MetricCounter ctr = metrics.get(name);
 		if(ctr==null) {
-			ctr = new Counter();
-			metrics.put(name, ctr);
-		}		
+			ctr = new MetricCounter(name);
+			MetricCounter prior = metrics.putIfAbsent(name, ctr);
+			if(prior!=null) ctr = prior;
+		}
 		return ctr;
 	}
 	
+	protected MetricCounter mget(String name) {
+		return counter(name);
+	}
+	
 	/**
 	 * Increments the named metric by the passed value
 	 * @param name The name of the metric
@@ -338,7 +345,7 @@ public abstract class ServerComponent {
 	 */
 	@ManagedOperation
 	public void resetMetrics() {
-		for(Counter ctr: metrics.values()) {
+		for(MetricCounter ctr: metrics.values()) {
 			ctr.set(0);
 		}
 	}
@@ -28,19 +28,28 @@ import java.util.concurrent.ExecutorService;
 
 import org.helios.apmrouter.server.services.session.ChannelType;
 import org.helios.apmrouter.server.services.session.SharedChannelGroup;
-import org.helios.apmrouter.server.unification.ServerPipelineFactory;
 import org.jboss.netty.bootstrap.ServerBootstrap;
 import org.jboss.netty.buffer.DirectChannelBufferFactory;
 import org.jboss.netty.channel.ChannelFuture;
 import org.jboss.netty.channel.ChannelFutureListener;
+import org.jboss.netty.channel.ChannelHandler;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ChannelPipeline;
+import org.jboss.netty.channel.ChannelStateEvent;
+import org.jboss.netty.channel.SimpleChannelUpstreamHandler;
 import org.jboss.netty.channel.socket.ServerSocketChannel;
 import org.jboss.netty.channel.socket.nio.NioDatagramChannel;
 import org.jboss.netty.channel.socket.nio.NioServerSocketChannelFactory;
+import org.jboss.netty.handler.codec.frame.LengthFieldBasedFrameDecoder;
+import org.jboss.netty.handler.codec.frame.LengthFieldPrepender;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
 import org.springframework.context.event.ContextRefreshedEvent;
 
 /**
  * <p>Title: TCPAgentListener</p>
- * <p>Description: Base netty TCP server </p> 
+ * <p>Description: Base netty TCP server. Agent connections carry frames prefixed with their length, 
+ * which are stripped before the configured channel handlers see the agent op. Connected agents are registered 
+ * in the {@link SharedChannelGroup} so responses are routed back over the agent's connection.</p> 
  * <p>Company: Helios Development Group LLC</p>
  * @author Whitehead (nwhitehead AT heliosdev DOT org)
  * <p><code>org.helios.apmrouter.server.net.listener.netty.TCPAgentListener</code></p>
@@ -55,6 +64,25 @@ public class TCPAgentListener extends BaseAgentListener {
 	protected ServerBootstrap bstrap; 
 	/** The server channel */
 	protected ServerSocketChannel serverChannel;
+	/** The maximum size of a frame received from an agent */
+	protected int maxFrameSize = 10485760;
+	/** The frame length prepender */
+	protected final LengthFieldPrepender framePrepender = new LengthFieldPrepender(4);
+	
+	/** Registers connected agent channels and counts channel opens and closes */
+	protected final ChannelHandler sessionHandler = new SimpleChannelUpstreamHandler() {
+		@Override
+		public void channelConnected(ChannelHandlerContext ctx, ChannelStateEvent e) throws Exception {
+			SharedChannelGroup.getInstance().add(e.getChannel(), ChannelType.TCP_AGENT, "TCPAgent");
+			incr("channelsCreated");
+			super.channelConnected(ctx, e);
+		}
+		@Override
+		public void channelClosed(ChannelHandlerContext ctx, ChannelStateEvent e) throws Exception {
+			incr("channelsClosed");
+			super.channelClosed(ctx, e);
+		}
+	};
 
 	/**
 	 * {@inheritDoc}
@@ -67,7 +95,20 @@ public class TCPAgentListener extends BaseAgentListener {
 		bstrap = new ServerBootstrap(channelFactory);
 		channelOptions.put("child.keepAlive", true);
 		bstrap.setOptions(channelOptions);
-		bstrap.setPipelineFactory(applicationContext.getBean(ServerPipelineFactory.class));
+		bstrap.setPipelineFactory(this);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.apmrouter.server.net.listener.netty.BaseAgentListener#getPipeline()
+	 */
+	@Override
+	public ChannelPipeline getPipeline() throws Exception {
+		ChannelPipeline pipeline = super.getPipeline();
+		pipeline.addFirst("frame-encoder", framePrepender);
+		pipeline.addFirst("frame-decoder", new LengthFieldBasedFrameDecoder(maxFrameSize, 0, 4, 0, 4));
+		pipeline.addFirst("session", sessionHandler);
+		return pipeline;
 	}
 
 	
@@ -109,6 +150,23 @@ public class TCPAgentListener extends BaseAgentListener {
 	
 	
 	
+	/**
+	 * Returns the maximum size of a frame received from an agent
+	 * @return the maximum frame size in bytes
+	 */
+	@ManagedAttribute(description="The maximum size of a frame received from an agent")
+	public int getMaxFrameSize() {
+		return maxFrameSize;
+	}
+	
+	/**
+	 * Sets the maximum size of a frame received from an agent
+	 * @param maxFrameSize the maximum frame size in bytes
+	 */
+	public void setMaxFrameSize(int maxFrameSize) {
+		this.maxFrameSize = maxFrameSize;
+	}
+	
 	/**
 	 * Sets the boss pool for this listener
 	 * @param bossPool the bossPool to set
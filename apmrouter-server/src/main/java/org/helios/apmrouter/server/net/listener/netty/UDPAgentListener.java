@@ -24,22 +24,43 @@
  */
 package org.helios.apmrouter.server.net.listener.netty;
 
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadPoolExecutor;
+
+import org.helios.apmrouter.sender.netty.UDPSender;
 import org.helios.apmrouter.server.services.session.ChannelType;
 import org.helios.apmrouter.server.services.session.SharedChannelGroup;
 import org.jboss.netty.bootstrap.ConnectionlessBootstrap;
 import org.jboss.netty.buffer.DirectChannelBufferFactory;
 import org.jboss.netty.channel.ChannelFuture;
 import org.jboss.netty.channel.ChannelFutureListener;
+import org.jboss.netty.channel.ChannelHandler;
 import org.jboss.netty.channel.FixedReceiveBufferSizePredictorFactory;
 import org.jboss.netty.channel.socket.nio.NioDatagramChannel;
 import org.jboss.netty.channel.socket.nio.NioDatagramChannelFactory;
-import org.springframework.beans.BeansException;
-import org.springframework.context.ApplicationContext;
+import org.jboss.netty.handler.execution.ExecutionHandler;
 import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedMetric;
+import org.springframework.jmx.support.MetricType;
 
 /**
  * <p>Title: UDPAgentListener</p>
- * <p>Description: Service to listen for agent requests over UDP.</p> 
+ * <p>Description: Service to listen for agent requests over UDP.</p>
+ * <p>The listener binds {@link #getChannelCount()} datagram channels on consecutive ports starting at the bind port,
+ * each one serviced by its own NIO worker, and agents spread across them using the <b><code>ports=N</code></b> server URI option.
+ * Decoding and routing are expected to run behind an {@link ExecutionHandler} placed first in the pipeline so the
+ * I/O workers only drain the sockets.</p> 
  * <p>Company: Helios Development Group LLC</p>
  * @author Whitehead (nwhitehead AT heliosdev DOT org)
  * <p><code>org.helios.apmrouter.server.net.listener.netty.UDPAgentListener</code></p>
@@ -50,8 +71,23 @@ public class UDPAgentListener extends BaseAgentListener {
 	protected NioDatagramChannelFactory channelFactory;  
 	/** The agent listener bootstrap */
 	protected ConnectionlessBootstrap bstrap; 
-	/** The server channel */
+	/** The server channel bound to the bind port */
 	protected NioDatagramChannel serverChannel;
+	/** All the bound server channels */
+	protected final List<NioDatagramChannel> serverChannels = new CopyOnWriteArrayList<NioDatagramChannel>();
+	/** The number of datagram channels to bind on consecutive ports */
+	protected int channelCount = 1;
+	/** The maximum datagram size in bytes agents will send, which sizes the per-read receive buffer */
+	protected int maxDatagramSize = UDPSender.MAXSIZE;
+	/** The requested socket receive buffer size in bytes, used when the channel options do not specify one */
+	protected int socketReceiveBufferSize = DEFAULT_SOCKET_RECEIVE_BUFFER;
+	
+	/** The default socket receive buffer size in bytes */
+	public static final int DEFAULT_SOCKET_RECEIVE_BUFFER = 4194304;
+	/** The kernel UDP socket tables */
+	public static final File[] PROC_NET_UDP = new File[]{new File("/proc/net/udp"), new File("/proc/net/udp6")};
+	/** The channel option name for the socket receive buffer size */
+	public static final String RECEIVE_BUFFER_OPTION = "receiveBufferSize";
 	
 
 	/**
@@ -61,11 +97,17 @@ public class UDPAgentListener extends BaseAgentListener {
 	@Override
 	protected void doStart() throws Exception {
 		super.doStart();
-		channelFactory = new NioDatagramChannelFactory(workerPool);	
+		channelFactory = new NioDatagramChannelFactory(workerPool, channelCount);	
 		bstrap = new ConnectionlessBootstrap(channelFactory);
 		bstrap.setOptions(channelOptions);
-		bstrap.setOption("receiveBufferSizePredictorFactory", new FixedReceiveBufferSizePredictorFactory(1024));
+		if(!channelOptions.containsKey(RECEIVE_BUFFER_OPTION)) {
+			bstrap.setOption(RECEIVE_BUFFER_OPTION, socketReceiveBufferSize);
+		}
+		bstrap.setOption("receiveBufferSizePredictorFactory", new FixedReceiveBufferSizePredictorFactory(maxDatagramSize));
 		bstrap.setPipelineFactory(this);
+		if(getWorkerStageExecutor()==null) {
+			warn("No ExecutionHandler is installed. Datagrams will be decoded and routed on the I/O workers");
+		}
 	}
 	
 
@@ -75,17 +117,22 @@ public class UDPAgentListener extends BaseAgentListener {
 	 * @param cre The context refreshed event
 	 */
 	public void onApplicationContextRefresh(ContextRefreshedEvent cre) {
-		serverChannel = (NioDatagramChannel)bstrap.bind(socketAddress);
-		SharedChannelGroup.getInstance().add(serverChannel, ChannelType.UDP_SERVER, getClass().getSimpleName());
+		for(int i = 0; i < channelCount; i++) {
+			InetSocketAddress address = new InetSocketAddress(socketAddress.getAddress(), socketAddress.getPort() + i);
+			NioDatagramChannel channel = (NioDatagramChannel)bstrap.bind(address);
+			SharedChannelGroup.getInstance().add(channel, ChannelType.UDP_SERVER, getClass().getSimpleName());
+			channel.getCloseFuture().addListener(new ChannelFutureListener() {
+				public void operationComplete(ChannelFuture future) throws Exception {
+					connected.set(false);
+				}
+			});		
+			channel.getConfig().setBufferFactory(new DirectChannelBufferFactory());
+			serverChannels.add(channel);
+			info("Started UDP listener on [", address , "] with receive buffer [", channel.getConfig().getReceiveBufferSize(), "]");
+		}
+		serverChannel = serverChannels.get(0);
 		closeFuture = serverChannel.getCloseFuture();
-		closeFuture.addListener(new ChannelFutureListener() {
-			public void operationComplete(ChannelFuture future) throws Exception {
-				connected.set(false);
-			}
-		});		
-		serverChannel.getConfig().setBufferFactory(new DirectChannelBufferFactory());
 		connected.set(true);
-		info("Started UDP listener on [", socketAddress , "]");		
 	}
 	
 	
@@ -96,17 +143,182 @@ public class UDPAgentListener extends BaseAgentListener {
 	@Override
 	protected void doStop() {
 		info("Closing ChannelGroup....");
+		for(NioDatagramChannel channel: serverChannels) {
+			channel.close().awaitUninterruptibly();
+		}
+		serverChannels.clear();
 		info("Closing ChannelFactory....");
 		channelFactory.releaseExternalResources();
 		super.doStop();
 	}
-		
-
 	
-
+	/**
+	 * Returns the executor of the first {@link ExecutionHandler} in the pipeline
+	 * @return the worker stage executor or null if one is not installed
+	 */
+	protected Executor getWorkerStageExecutor() {
+		synchronized(resolvedHandlers) {
+			for(ChannelHandler handler: resolvedHandlers.values()) {
+				if(handler instanceof ExecutionHandler) {
+					return ((ExecutionHandler)handler).getExecutor();
+				}
+			}
+		}
+		return null;
+	}
 	
-
+	/**
+	 * Reads the kernel's UDP socket tables and sums the receive queue and drop counters for the sockets bound to this listener's ports
+	 * @return a long array with the receive queue bytes and the drop count, or null if the tables could not be read
+	 */
+	protected long[] readKernelCounters() {
+		Set<String> ports = new HashSet<String>(serverChannels.size());
+		for(NioDatagramChannel channel: serverChannels) {
+			InetSocketAddress address = channel.getLocalAddress();
+			if(address!=null) ports.add(String.format(":%04X", address.getPort()));
+		}
+		if(ports.isEmpty()) return null;
+		long[] counters = new long[2];
+		boolean read = false;
+		for(File file: PROC_NET_UDP) {
+			if(!file.canRead()) continue;
+			BufferedReader reader = null;
+			try {
+				reader = new BufferedReader(new FileReader(file));
+				reader.readLine(); // header
+				String line = null;
+				while((line = reader.readLine())!=null) {
+					// sl local_address rem_address st tx_queue:rx_queue tr:tm->when retrnsmt uid timeout inode ref pointer drops
+					String[] fields = line.trim().split("\\s+");
+					if(fields.length<13) continue;
+					String local = fields[1];
+					if(!ports.contains(local.substring(local.lastIndexOf(':')))) continue;
+					String queues = fields[4];
+					counters[0] += Long.parseLong(queues.substring(queues.indexOf(':')+1), 16);
+					counters[1] += Long.parseLong(fields[fields.length-1]);
+				}
+				read = true;
+			} catch (Exception ex) {
+				debug("Failed to read [", file, "]:", ex);
+			} finally {
+				if(reader!=null) try { reader.close(); } catch (IOException iex) {/* No Op */}
+			}
+		}
+		return read ? counters : null;
+	}
 	
+	/**
+	 * Returns the number of datagrams the kernel dropped on this listener's sockets, typically because the receive buffer was full
+	 * @return the number of dropped datagrams or -1 if the kernel UDP tables are not available
+	 */
+	@ManagedMetric(category="UDPListener", metricType=MetricType.COUNTER, description="The number of datagrams dropped by the kernel on the listener sockets")
+	public long getKernelReceiveDrops() {
+		long[] counters = readKernelCounters();
+		return counters==null ? -1L : counters[1];
+	}
+	
+	/**
+	 * Returns the number of bytes queued in the kernel receive buffers of this listener's sockets
+	 * @return the number of queued bytes or -1 if the kernel UDP tables are not available
+	 */
+	@ManagedMetric(category="UDPListener", metricType=MetricType.GAUGE, description="The number of bytes queued in the kernel receive buffers of the listener sockets")
+	public long getKernelReceiveQueueBytes() {
+		long[] counters = readKernelCounters();
+		return counters==null ? -1L : counters[0];
+	}
+	
+	/**
+	 * Returns the number of datagrams waiting for a worker in the worker stage
+	 * @return the number of queued datagrams or -1 if there is no worker stage
+	 */
+	@ManagedMetric(category="UDPListener", metricType=MetricType.GAUGE, description="The number of datagrams waiting for a worker in the worker stage")
+	public long getWorkerStageQueueDepth() {
+		Executor executor = getWorkerStageExecutor();
+		return executor instanceof ThreadPoolExecutor ? ((ThreadPoolExecutor)executor).getQueue().size() : -1L;
+	}
+	
+	/**
+	 * Returns the number of worker stage threads actively decoding and routing datagrams
+	 * @return the number of active workers or -1 if there is no worker stage
+	 */
+	@ManagedMetric(category="UDPListener", metricType=MetricType.GAUGE, description="The number of worker stage threads actively decoding and routing datagrams")
+	public long getWorkerStageActiveCount() {
+		Executor executor = getWorkerStageExecutor();
+		return executor instanceof ThreadPoolExecutor ? ((ThreadPoolExecutor)executor).getActiveCount() : -1L;
+	}
 	
+	/**
+	 * Returns the effective socket receive buffer sizes of the bound channels, as granted by the kernel
+	 * @return the effective socket receive buffer sizes
+	 */
+	@ManagedAttribute(description="The effective socket receive buffer sizes of the bound channels")
+	public int[] getEffectiveReceiveBufferSizes() {
+		List<Integer> sizes = new ArrayList<Integer>(serverChannels.size());
+		for(NioDatagramChannel channel: serverChannels) {
+			sizes.add(channel.getConfig().getReceiveBufferSize());
+		}
+		int[] arr = new int[sizes.size()];
+		for(int i = 0; i < arr.length; i++) arr[i] = sizes.get(i);
+		return arr;
+	}
+
+	/**
+	 * Returns the number of datagram channels bound on consecutive ports
+	 * @return the number of datagram channels
+	 */
+	@ManagedAttribute(description="The number of datagram channels bound on consecutive ports")
+	public int getChannelCount() {
+		return channelCount;
+	}
+
+	/**
+	 * Sets the number of datagram channels to bind on consecutive ports starting at the bind port.
+	 * Agents should use a server URI with a matching <b><code>ports=N</code></b> option.
+	 * @param channelCount the number of datagram channels
+	 */
+	public void setChannelCount(int channelCount) {
+		if(isStarted()) throw new IllegalStateException("Cannot set the channel count once listener is bound", new Throwable());
+		if(channelCount<1) throw new IllegalArgumentException("Invalid channel count [" + channelCount + "]", new Throwable());
+		this.channelCount = channelCount;
+	}
+
+	/**
+	 * Returns the maximum datagram size in bytes
+	 * @return the maximum datagram size in bytes
+	 */
+	@ManagedAttribute(description="The maximum datagram size in bytes")
+	public int getMaxDatagramSize() {
+		return maxDatagramSize;
+	}
+
+	/**
+	 * Sets the maximum datagram size in bytes agents will send. Larger datagrams are truncated.
+	 * @param maxDatagramSize the maximum datagram size in bytes
+	 */
+	public void setMaxDatagramSize(int maxDatagramSize) {
+		if(isStarted()) throw new IllegalStateException("Cannot set the max datagram size once listener is bound", new Throwable());
+		if(maxDatagramSize<1 || maxDatagramSize>65507) throw new IllegalArgumentException("Invalid max datagram size [" + maxDatagramSize + "]", new Throwable());
+		this.maxDatagramSize = maxDatagramSize;
+	}
+
+	/**
+	 * Returns the requested socket receive buffer size in bytes
+	 * @return the requested socket receive buffer size in bytes
+	 */
+	@ManagedAttribute(description="The requested socket receive buffer size in bytes")
+	public int getSocketReceiveBufferSize() {
+		return socketReceiveBufferSize;
+	}
+
+	/**
+	 * Sets the requested socket receive buffer size in bytes. Ignored if the channel options specify a <b><code>receiveBufferSize</code></b>.
+	 * The kernel caps the granted size at <b><code>net.core.rmem_max</code></b>.
+	 * @param socketReceiveBufferSize the requested socket receive buffer size in bytes
+	 */
+	public void setSocketReceiveBufferSize(int socketReceiveBufferSize) {
+		if(isStarted()) throw new IllegalStateException("Cannot set the receive buffer size once listener is bound", new Throwable());
+		if(socketReceiveBufferSize<1) throw new IllegalArgumentException("Invalid receive buffer size [" + socketReceiveBufferSize + "]", new Throwable());
+		this.socketReceiveBufferSize = socketReceiveBufferSize;
+	}
 
 }
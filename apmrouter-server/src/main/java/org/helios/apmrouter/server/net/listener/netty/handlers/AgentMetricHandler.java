@@ -34,21 +34,25 @@ import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeoutException;
 
 import org.helios.apmrouter.OpCode;
 import org.helios.apmrouter.catalog.MetricCatalogService;
-import org.helios.apmrouter.collections.ConcurrentLongSlidingWindow;
-import org.helios.apmrouter.collections.LongSlidingWindow;
+import org.helios.apmrouter.collections.LatencyHistogram;
 import org.helios.apmrouter.metric.ICEMetric;
 import org.helios.apmrouter.metric.IMetric;
 import org.helios.apmrouter.metric.catalog.ICEMetricCatalog;
 import org.helios.apmrouter.metric.catalog.IDelegateMetric;
 import org.helios.apmrouter.metric.catalog.IMetricCatalog;
 import org.helios.apmrouter.router.PatternRouter;
+import org.helios.apmrouter.server.services.session.ChannelSessionListener;
+import org.helios.apmrouter.server.services.session.DecoratedChannel;
 import org.helios.apmrouter.server.services.session.DecoratedChannelMBean;
 import org.helios.apmrouter.server.services.session.SharedChannelGroup;
 import org.helios.apmrouter.trace.DirectMetricCollection;
+import org.helios.apmrouter.trace.FQNSegmentDictionary;
+import org.helios.apmrouter.trace.MetricHandle;
 import org.helios.apmrouter.trace.MetricSubmitter;
 import org.helios.apmrouter.util.SystemClock;
 import org.helios.apmrouter.util.SystemClock.ElapsedTime;
@@ -78,19 +82,38 @@ public class AgentMetricHandler extends AbstractAgentRequestHandler implements M
 	protected PatternRouter router = null;
 	/** The metric catalog service */
 	protected MetricCatalogService metricCatalogService = null;
+	/** Indicates if fully tokenized metric batches are routed in place without being decoded */
+	protected boolean inPlaceRouting = true;
 	
 	
 	/** A timeout map of agent addresses for which there is a pending reset confirm */
 	protected final TimeoutQueueMap<SocketAddress, SocketAddress> pendingResets = new TimeoutQueueMap<SocketAddress, SocketAddress>(15000);
+	/** The FQN segment dictionaries for agents sending in the compact wire format, keyed by agent address */
+	protected final ConcurrentHashMap<SocketAddress, FQNSegmentDictionary> segmentDictionaries = new ConcurrentHashMap<SocketAddress, FQNSegmentDictionary>();
+	/** The minimum time in ms. between segment resync requests to an agent in the same dictionary epoch, in case a request is lost */
+	public static final long SEGMENT_RESYNC_RETRY = 2000L;
+	/** Drops the segment dictionary of an agent whose channel closes */
+	protected final ChannelSessionListener dictionaryCleaner = new ChannelSessionListener() {
+		@Override
+		public void onConnectedChannel(DecoratedChannel channel) { /* No Op */ }
+		@Override
+		public void onIdentifiedChannel(DecoratedChannel channel) { /* No Op */ }
+		@Override
+		public void onClosedChannel(DecoratedChannel channel) {
+			if(channel.getRemoteAddress()!=null) {
+				segmentDictionaries.remove(channel.getRemoteAddress());
+			}
+		}
+	};
 	
-	/** Sliding window of processMetrics elapsed times in ns. */
-	protected final LongSlidingWindow processMetricsTimesNs = new ConcurrentLongSlidingWindow(60);
-	/** Sliding window of processMetrics elapsed time per metric in ns. */
-	protected final LongSlidingWindow processTimePerMetricNs = new ConcurrentLongSlidingWindow(60);
+	/** Histogram of processMetrics elapsed times in ns. */
+	protected final LatencyHistogram processMetricsTimesNs = new LatencyHistogram();
+	/** Histogram of processMetrics elapsed time per metric in ns. */
+	protected final LatencyHistogram processTimePerMetricNs = new LatencyHistogram();
 
 	
 	/** The OpCodes this handler accepts */
-	protected final OpCode[] OP_CODES = new OpCode[]{ OpCode.SEND_METRIC, OpCode.SEND_METRIC_DIRECT, OpCode.RESET_CONFIRM };
+	protected final OpCode[] OP_CODES = new OpCode[]{ OpCode.SEND_METRIC, OpCode.SEND_METRIC_DIRECT, OpCode.RESET_CONFIRM, OpCode.SEND_BATCH, OpCode.SEND_METRIC_COMPACT };
 	
 	/**
 	 * {@inheritDoc}
@@ -107,16 +130,52 @@ public class AgentMetricHandler extends AbstractAgentRequestHandler implements M
 	 */
 	@ManagedMetric(category="LastProcessTimeNs", metricType=MetricType.GAUGE, description="The last elapsed time to process metrics in ns.")
 	public long getLastProcessTimeNs() {
-		return processMetricsTimesNs.isEmpty() ? -1L : processMetricsTimesNs.get(0);
+		return processMetricsTimesNs.getLast();
 	}
 	
 	/**
-	 * Returns the rolling average elapsed time to process metrics in ns.
-	 * @return the rolling average elapsed time to process metrics in ns.
+	 * Returns the average elapsed time to process metrics in ns. over the last interval
+	 * @return the average elapsed time to process metrics in ns.
 	 */
-	@ManagedMetric(category="AverageProcessTimeNs", metricType=MetricType.GAUGE, description="The rolling average elapsed time to process metrics in ns.")
+	@ManagedMetric(category="AverageProcessTimeNs", metricType=MetricType.GAUGE, description="The average elapsed time to process metrics in ns. over the last interval")
 	public long getAverageProcessTimeNs() {
-		return processMetricsTimesNs.isEmpty() ? -1L : processMetricsTimesNs.avg();
+		return processMetricsTimesNs.getMean();
+	}
+	
+	/**
+	 * Returns the median elapsed time to process metrics in ns. over the last interval
+	 * @return the median elapsed time to process metrics in ns. or -1 if there were none
+	 */
+	@ManagedMetric(category="ProcessTimeNs", metricType=MetricType.GAUGE, description="The median elapsed time to process metrics in ns. over the last interval")
+	public long getProcessTimeNsP50() {
+		return processMetricsTimesNs.getP50();
+	}
+	
+	/**
+	 * Returns the 99th percentile elapsed time to process metrics in ns. over the last interval
+	 * @return the 99th percentile elapsed time to process metrics in ns. or -1 if there were none
+	 */
+	@ManagedMetric(category="ProcessTimeNs", metricType=MetricType.GAUGE, description="The 99th percentile elapsed time to process metrics in ns. over the last interval")
+	public long getProcessTimeNsP99() {
+		return processMetricsTimesNs.getP99();
+	}
+	
+	/**
+	 * Returns the 99.9th percentile elapsed time to process metrics in ns. over the last interval
+	 * @return the 99.9th percentile elapsed time to process metrics in ns. or -1 if there were none
+	 */
+	@ManagedMetric(category="ProcessTimeNs", metricType=MetricType.GAUGE, description="The 99.9th percentile elapsed time to process metrics in ns. over the last interval")
+	public long getProcessTimeNsP999() {
+		return processMetricsTimesNs.getP999();
+	}
+	
+	/**
+	 * Returns the maximum elapsed time to process metrics in ns. over the last interval
+	 * @return the maximum elapsed time to process metrics in ns. or -1 if there were none
+	 */
+	@ManagedMetric(category="ProcessTimeNs", metricType=MetricType.GAUGE, description="The maximum elapsed time to process metrics in ns. over the last interval")
+	public long getProcessTimeNsMax() {
+		return processMetricsTimesNs.getMax();
 	}
 	
 	/**
@@ -125,16 +184,52 @@ public class AgentMetricHandler extends AbstractAgentRequestHandler implements M
 	 */
 	@ManagedMetric(category="LastPerMetricTimeNs", metricType=MetricType.GAUGE, description="The last per metric processing elapsed time in ns.")
 	public long getLastPerMetricTimeNs() {
-		return processTimePerMetricNs.isEmpty() ? -1L : processTimePerMetricNs.get(0);
+		return processTimePerMetricNs.getLast();
 	}
 	
 	/**
-	 * Returns the rolling average per metric processing elapsed time in ns.
-	 * @return the rolling average per metric processing elapsed time in ns.
+	 * Returns the average per metric processing elapsed time in ns. over the last interval
+	 * @return the average per metric processing elapsed time in ns.
 	 */
-	@ManagedMetric(category="AveragePerMetricTimeNs", metricType=MetricType.GAUGE, description="The rolling average per metric processing elapsed time in ns.")
+	@ManagedMetric(category="AveragePerMetricTimeNs", metricType=MetricType.GAUGE, description="The average per metric processing elapsed time in ns. over the last interval")
 	public long getAveragePerMetricTimeNs() {
-		return processTimePerMetricNs.isEmpty() ? -1L : processTimePerMetricNs.avg();
+		return processTimePerMetricNs.getMean();
+	}
+	
+	/**
+	 * Returns the median per metric processing elapsed time in ns. over the last interval
+	 * @return the median per metric processing elapsed time in ns. or -1 if there were none
+	 */
+	@ManagedMetric(category="PerMetricTimeNs", metricType=MetricType.GAUGE, description="The median per metric processing elapsed time in ns. over the last interval")
+	public long getPerMetricTimeNsP50() {
+		return processTimePerMetricNs.getP50();
+	}
+	
+	/**
+	 * Returns the 99th percentile per metric processing elapsed time in ns. over the last interval
+	 * @return the 99th percentile per metric processing elapsed time in ns. or -1 if there were none
+	 */
+	@ManagedMetric(category="PerMetricTimeNs", metricType=MetricType.GAUGE, description="The 99th percentile per metric processing elapsed time in ns. over the last interval")
+	public long getPerMetricTimeNsP99() {
+		return processTimePerMetricNs.getP99();
+	}
+	
+	/**
+	 * Returns the 99.9th percentile per metric processing elapsed time in ns. over the last interval
+	 * @return the 99.9th percentile per metric processing elapsed time in ns. or -1 if there were none
+	 */
+	@ManagedMetric(category="PerMetricTimeNs", metricType=MetricType.GAUGE, description="The 99.9th percentile per metric processing elapsed time in ns. over the last interval")
+	public long getPerMetricTimeNsP999() {
+		return processTimePerMetricNs.getP999();
+	}
+	
+	/**
+	 * Returns the maximum per metric processing elapsed time in ns. over the last interval
+	 * @return the maximum per metric processing elapsed time in ns. or -1 if there were none
+	 */
+	@ManagedMetric(category="PerMetricTimeNs", metricType=MetricType.GAUGE, description="The maximum per metric processing elapsed time in ns. over the last interval")
+	public long getPerMetricTimeNsMax() {
+		return processTimePerMetricNs.getMax();
 	}
 	
 	
@@ -155,15 +250,133 @@ public class AgentMetricHandler extends AbstractAgentRequestHandler implements M
 			incr("ResetConfirmsReceived");
 			return;
 		}
+		if(opCode==OpCode.SEND_BATCH) {
+			// op code, sequence, then a DMC in the same wire format as a SEND_METRIC
+			long seq = buff.getLong(1);
+			ChannelBuffer dmcBuff = buff.slice(9, buff.writerIndex()-9);
+			incr("BatchesReceived");
+			try {
+				processAgentRequest(OpCode.valueOf(dmcBuff), dmcBuff, remoteAddress, channel);
+			} finally {
+				sendBatchAck(channel, remoteAddress, seq);
+			}
+			return;
+		}
+		if(opCode==OpCode.SEND_METRIC_COMPACT) {
+			incr("BytesReceived", buff.readableBytes());
+			incr("CompactBatchesReceived");
+			FQNSegmentDictionary dictionary = getSegmentDictionary(remoteAddress);
+			int expected = buff.getInt(buff.readerIndex() + DirectMetricCollection.COMPACT_COUNT_OFFSET);
+			DirectMetricCollection dmc = DirectMetricCollection.fromCompactBuffer(buff, dictionary);
+			int unresolved = expected - dmc.getMetricCount();
+			if(unresolved>0) {
+				// the agent referenced segments this side never saw, so it is asked to start a new dictionary epoch
+				incr("SegmentLookupDrops", unresolved);
+				if(dictionary.requestResync(SEGMENT_RESYNC_RETRY)) {
+					sendSegmentResync(remoteAddress);
+				}
+			}
+			processDmc(OpCode.SEND_METRIC, dmc, remoteAddress, channel);
+			return;
+		}
 		incr("BytesReceived", buff.getInt(2));
 		DirectMetricCollection dmc = DirectMetricCollection.fromChannelBuffer(buff);		
 //		int byteOrder = buff.getByte(1);
 //		int totalSize = buff.getInt(2);
+		processDmc(opCode, dmc, remoteAddress, channel);
+	}
+	
+	/**
+	 * Returns the FQN segment dictionary for the passed agent address, creating it if necessary
+	 * @param remoteAddress The agent address
+	 * @return the agent's segment dictionary
+	 */
+	protected FQNSegmentDictionary getSegmentDictionary(SocketAddress remoteAddress) {
+		if(remoteAddress==null) return new FQNSegmentDictionary();
+		FQNSegmentDictionary dictionary = segmentDictionaries.get(remoteAddress);
+		if(dictionary==null) {
+			dictionary = new FQNSegmentDictionary();
+			FQNSegmentDictionary prior = segmentDictionaries.putIfAbsent(remoteAddress, dictionary);
+			if(prior!=null) dictionary = prior;
+		}
+		return dictionary;
+	}
+	
+	/**
+	 * Routes or decodes and processes a received DMC
+	 * @param opCode The op-code the metrics were sent under
+	 * @param dmc The received DMC
+	 * @param remoteAddress The remote address of the agent that sent the metrics
+	 * @param channel The channel the metrics were received on
+	 */
+	protected void processDmc(OpCode opCode, DirectMetricCollection dmc, SocketAddress remoteAddress, Channel channel) {
+		if(inPlaceRouting && opCode==OpCode.SEND_METRIC && routeInPlace(dmc)) return;
 		List<IMetric> metrics = new ArrayList<IMetric>();
-		Collections.addAll(metrics, dmc.decode());
+		try {
+			Collections.addAll(metrics, dmc.decode());
+		} finally {
+			dmc.destroy();
+		}
 		processMetrics(metrics, opCode, remoteAddress, channel);
 	}
 	
+	/**
+	 * Attempts to route a received DMC without decoding it. This succeeds when every record is tokenized with a token known to the catalog,
+	 * which is the steady state for a connected agent. Otherwise nothing is routed, and the caller decodes the DMC so untokenized metrics
+	 * are assigned tokens and unknown tokens trigger an agent reset.
+	 * @param dmc The received DMC. Ownership passes to the router when this method returns true.
+	 * @return true if the DMC was routed, false if it must be decoded
+	 */
+	protected boolean routeInPlace(DirectMetricCollection dmc) {
+		long startTime = System.nanoTime();
+		final int metricCount = dmc.getMetricCount();
+		if(metricCount==0) return false;
+		final long[] tokens = new long[metricCount];
+		int cnt = 0;
+		DirectMetricCollection.MetricCursor cursor = dmc.newMetricCursor();
+		while(cursor.nextRecord()) {
+			long token = cursor.getToken();
+			if(token==-1) return false;
+			if(metricCatalog.get(token)==null && metricCatalogService.getMetricID(token)==null) return false;
+			tokens[cnt++] = token;
+		}
+		incr("MetricsReceived", cnt);
+		incr("InPlaceBatches");
+		metricCatalogService.touch(tokens, cnt);
+		router.route(dmc);
+		long elapsed = System.nanoTime()-startTime;
+		processMetricsTimesNs.record(elapsed);
+		processTimePerMetricNs.record(rate(elapsed, cnt));
+		return true;
+	}
+	
+	/**
+	 * Returns the number of metric batches routed in place without being decoded
+	 * @return the number of metric batches routed in place
+	 */
+	@ManagedMetric(category="InPlaceBatches", metricType=MetricType.COUNTER, description="The number of metric batches routed in place without being decoded")
+	public long getInPlaceBatches() {
+		return getMetricValue("InPlaceBatches");
+	}
+	
+	/**
+	 * Indicates if fully tokenized metric batches are routed in place without being decoded
+	 * @return true if fully tokenized metric batches are routed in place
+	 */
+	@ManagedAttribute(description="Indicates if fully tokenized metric batches are routed in place without being decoded")
+	public boolean isInPlaceRouting() {
+		return inPlaceRouting;
+	}
+	
+	/**
+	 * Sets if fully tokenized metric batches are routed in place without being decoded
+	 * @param inPlaceRouting true to route fully tokenized metric batches in place
+	 */
+	@ManagedAttribute(description="Indicates if fully tokenized metric batches are routed in place without being decoded")
+	public void setInPlaceRouting(boolean inPlaceRouting) {
+		this.inPlaceRouting = inPlaceRouting;
+	}
+	
 	/**
 	 * Processes the incoming metrics
 	 * @param metrics A collection of metrics
@@ -218,8 +431,8 @@ public class AgentMetricHandler extends AbstractAgentRequestHandler implements M
 			long elapsed = System.nanoTime()-startTime;
 			int metricCount = metrics.size();
 			long perMetric = rate(elapsed, metricCount);
-			processMetricsTimesNs.insert(elapsed);
-			processTimePerMetricNs.insert(perMetric);
+			processMetricsTimesNs.record(elapsed);
+			processTimePerMetricNs.record(perMetric);
 		}
 		
 	}
@@ -231,6 +444,20 @@ public class AgentMetricHandler extends AbstractAgentRequestHandler implements M
 	}
 	
 	
+	/**
+	 * Asks a remote agent sending in the compact wire format to start a new FQN segment dictionary epoch
+	 * @param remoteAddress The address of the remote agent
+	 */
+	protected void sendSegmentResync(SocketAddress remoteAddress) {
+		if(remoteAddress==null) return;
+		Channel remoteChannel = SharedChannelGroup.getInstance().getByRemote(remoteAddress);
+		if(remoteChannel==null) return;
+		ChannelBuffer resync = ChannelBuffers.buffer(1);
+		resync.writeByte(OpCode.SEGMENT_RESYNC.op());
+		remoteChannel.write(resync, remoteAddress);
+		incr("SegmentResyncsSent");
+	}
+	
 	/**
 	 * Sends a metric catalog reset request to a remote agent that has a catalog out of synch with the server
 	 * @param remoteAddress The address of the remote agent
@@ -252,6 +479,96 @@ public class AgentMetricHandler extends AbstractAgentRequestHandler implements M
 	}
 	
 
+	/**
+	 * Acknowledges the receipt of a sequenced metric batch
+	 * @param channel The channel on which the batch was received
+	 * @param remoteAddress The remote address of the sender
+	 * @param seq The sequence of the received batch
+	 */
+	protected void sendBatchAck(Channel channel, SocketAddress remoteAddress, long seq) {
+		ChannelBuffer cb = ChannelBuffers.buffer(1 + 8);
+		cb.writeByte(OpCode.BATCH_ACK.op());
+		cb.writeLong(seq);
+		channel.write(cb, remoteAddress);
+		incr("BatchAcksSent");
+	}
+	
+	/**
+	 * Returns the number of metric batches received in the compact wire format
+	 * @return the number of compact metric batches received
+	 */
+	@ManagedMetric(category="CompactBatchesReceived", metricType=MetricType.COUNTER, description="The number of metric batches received in the compact wire format")
+	public long getCompactBatchesReceived() {
+		return getMetricValue("CompactBatchesReceived");
+	}
+	
+	/**
+	 * Returns the number of compact metrics dropped because they referenced an unknown FQN segment
+	 * @return the number of metrics dropped on segment lookups
+	 */
+	@ManagedMetric(category="SegmentLookupDrops", metricType=MetricType.COUNTER, description="The number of compact metrics dropped because they referenced an unknown FQN segment")
+	public long getSegmentLookupDrops() {
+		return getMetricValue("SegmentLookupDrops");
+	}
+	
+	/**
+	 * Returns the number of requests sent to agents to start a new FQN segment dictionary epoch
+	 * @return the number of segment resync requests sent
+	 */
+	@ManagedMetric(category="SegmentResyncsSent", metricType=MetricType.COUNTER, description="The number of requests sent to agents to start a new FQN segment dictionary epoch")
+	public long getSegmentResyncsSent() {
+		return getMetricValue("SegmentResyncsSent");
+	}
+	
+	/**
+	 * Returns the number of agents with a compact wire FQN segment dictionary
+	 * @return the number of segment dictionaries
+	 */
+	@ManagedAttribute(description="The number of agents with a compact wire FQN segment dictionary")
+	public int getSegmentDictionaryCount() {
+		return segmentDictionaries.size();
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.apmrouter.server.ServerComponentBean#doStart()
+	 */
+	@Override
+	protected void doStart() throws Exception {
+		super.doStart();
+		SharedChannelGroup.getInstance().addSessionListener(dictionaryCleaner);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.apmrouter.server.ServerComponentBean#doStop()
+	 */
+	@Override
+	protected void doStop() {
+		SharedChannelGroup.getInstance().removeSessionListener(dictionaryCleaner);
+		segmentDictionaries.clear();
+		super.doStop();
+	}
+	
+	/**
+	 * Returns the number of sequenced metric batches received
+	 * @return the number of sequenced metric batches received
+	 */
+	@ManagedMetric(category="BatchesReceived", metricType=MetricType.COUNTER, description="The number of sequenced metric batches received")
+	public long getBatchesReceived() {
+		return getMetricValue("BatchesReceived");
+	}
+	
+	/**
+	 * Returns the number of sequenced metric batch acknowledgements sent
+	 * @return the number of batch acknowledgements sent
+	 */
+	@ManagedMetric(category="BatchAcksSent", metricType=MetricType.COUNTER, description="The number of sequenced metric batch acknowledgements sent")
+	public long getBatchAcksSent() {
+		return getMetricValue("BatchAcksSent");
+	}
+	
+
 	/**
 	 * Confirms the receipt of a direct metric
 	 * @param incoming The channel on which the metric was received
@@ -512,6 +829,15 @@ public class AgentMetricHandler extends AbstractAgentRequestHandler implements M
 		processMetrics(Arrays.asList(metrics), OpCode.SEND_METRIC, null, null);
 		
 	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.apmrouter.trace.MetricSubmitter#submit(org.helios.apmrouter.trace.MetricHandle, long, long)
+	 */
+	@Override
+	public void submit(MetricHandle handle, long time, long value) {
+		processMetrics(new ArrayList<IMetric>(Collections.singletonList(handle.newMetric(time, value))), OpCode.SEND_METRIC, null, null);
+	}
 
 	/**
 	 * {@inheritDoc}
@@ -28,9 +28,12 @@ import static org.jboss.netty.channel.Channels.write;
 
 import org.helios.apmrouter.OpCode;
 import org.helios.apmrouter.dataservice.json.JsonResponse;
+import org.helios.apmrouter.dataservice.json.SharedJsonFrame;
 import org.helios.apmrouter.dataservice.json.marshalling.JSONMarshaller;
 import org.helios.apmrouter.server.ServerComponentBean;
 import org.helios.apmrouter.server.services.session.SharedChannelGroup;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
 import org.jboss.netty.channel.Channel;
 import org.jboss.netty.channel.ChannelDownstreamHandler;
 import org.jboss.netty.channel.ChannelEvent;
@@ -112,6 +115,17 @@ public class JsonResponseDownstreamHandler extends ServerComponentBean implement
 			incr("ResponsesSent");
 			return true;		
 		}
+		if(msg!=null && msg instanceof SharedJsonFrame) {
+			// the frame body shares pre-encoded buffers, so only the 5 byte header is allocated here
+			SharedJsonFrame frame = (SharedJsonFrame)msg;
+			ChannelBuffer body = frame.toChannelBuffer();
+			ChannelBuffer header = ChannelBuffers.buffer(5);
+			header.writeByte(frame.getOpCode().op());
+			header.writeInt(body.readableBytes());
+			write(ctx, evt.getFuture(), ChannelBuffers.wrappedBuffer(header, body), evt.getRemoteAddress());
+			incr("ResponsesSent");
+			return true;
+		}
 		return false;
 	}
 	
@@ -0,0 +1,96 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.apmrouter.server.net.listener.netty.handlers.udp;
+
+import java.net.SocketAddress;
+
+import org.helios.apmrouter.server.services.session.ChannelSessionListener;
+import org.helios.apmrouter.server.services.session.DecoratedChannel;
+import org.helios.apmrouter.server.services.session.SharedChannelGroup;
+import org.jboss.netty.channel.ChannelEvent;
+import org.jboss.netty.channel.MessageEvent;
+import org.jboss.netty.handler.execution.OrderedMemoryAwareThreadPoolExecutor;
+
+/**
+ * <p>Title: RemoteAddressOrderedThreadPoolExecutor</p>
+ * <p>Description: An {@link OrderedMemoryAwareThreadPoolExecutor} for the UDP agent listener's execution stage. 
+ * All agents share the one server side datagram channel, so events are ordered by the datagram's remote address rather than by channel.
+ * Datagrams from one agent are decoded in the order they arrived, which the compact wire format's FQN segment dictionary depends on, 
+ * while datagrams from different agents are decoded concurrently.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.apmrouter.server.net.listener.netty.handlers.udp.RemoteAddressOrderedThreadPoolExecutor</code></p>
+ */
+
+public class RemoteAddressOrderedThreadPoolExecutor extends OrderedMemoryAwareThreadPoolExecutor {
+	/** Drops the child executor of an agent whose channel closes */
+	protected final ChannelSessionListener executorCleaner = new ChannelSessionListener() {
+		@Override
+		public void onConnectedChannel(DecoratedChannel channel) { /* No Op */ }
+		@Override
+		public void onIdentifiedChannel(DecoratedChannel channel) { /* No Op */ }
+		@Override
+		public void onClosedChannel(DecoratedChannel channel) {
+			if(channel.getRemoteAddress()!=null) {
+				removeChildExecutor(channel.getRemoteAddress());
+			}
+		}
+	};
+
+	/**
+	 * Creates a new RemoteAddressOrderedThreadPoolExecutor
+	 * @param corePoolSize The maximum number of active threads
+	 * @param maxChannelMemorySize The maximum total size of the queued events per channel. Specify 0 to disable.
+	 * @param maxTotalMemorySize The maximum total size of the queued events for this pool. Specify 0 to disable.
+	 */
+	public RemoteAddressOrderedThreadPoolExecutor(int corePoolSize, long maxChannelMemorySize, long maxTotalMemorySize) {
+		super(corePoolSize, maxChannelMemorySize, maxTotalMemorySize);
+		SharedChannelGroup.getInstance().addSessionListener(executorCleaner);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * <p>Keys message events by their remote address, and all other events by their channel.</p>
+	 * @see org.jboss.netty.handler.execution.OrderedMemoryAwareThreadPoolExecutor#getChildExecutorKey(org.jboss.netty.channel.ChannelEvent)
+	 */
+	@Override
+	protected Object getChildExecutorKey(ChannelEvent e) {
+		if(e instanceof MessageEvent) {
+			SocketAddress remoteAddress = ((MessageEvent)e).getRemoteAddress();
+			if(remoteAddress!=null) return remoteAddress;
+		}
+		return super.getChildExecutorKey(e);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see java.util.concurrent.ThreadPoolExecutor#terminated()
+	 */
+	@Override
+	protected void terminated() {
+		SharedChannelGroup.getInstance().removeSessionListener(executorCleaner);
+		super.terminated();
+	}
+}
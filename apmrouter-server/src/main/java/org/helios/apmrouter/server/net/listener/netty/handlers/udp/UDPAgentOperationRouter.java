@@ -36,6 +36,7 @@ import org.helios.apmrouter.server.net.listener.netty.handlers.AbstractAgentRequ
 import org.helios.apmrouter.server.net.listener.netty.handlers.AgentRequestHandler;
 import org.helios.apmrouter.server.services.session.DecoratedChannel;
 import org.helios.apmrouter.server.services.session.SharedChannelGroup;
+import org.helios.apmrouter.trace.DirectMetricCollection;
 import org.helios.apmrouter.util.ValueFilteredTimeoutListener;
 import org.jboss.netty.buffer.ChannelBuffer;
 import org.jboss.netty.buffer.ChannelBuffers;
@@ -237,8 +238,10 @@ public class UDPAgentOperationRouter extends AbstractAgentRequestHandler impleme
 		} else if(opCode==OpCode.HELLO) {
 			getChannelForRemote(channel, remoteAddress);
 			info("Agent at [", remoteAddress, "] sent HELLO");
-			ChannelBuffer cb = ChannelBuffers.directBuffer(1);
+			ChannelBuffer cb = ChannelBuffers.directBuffer(2);
 			cb.writeByte(OpCode.HELLO_CONFIRM.op());
+			// advertises the compact metric format, older agents read the op code alone
+			cb.writeByte(DirectMetricCollection.COMPACT_VERSION);
 			channel.write(cb, remoteAddress);
 			sendWho(channel, remoteAddress);
 			
@@ -46,6 +46,7 @@ import org.helios.apmrouter.server.net.listener.netty.handlers.AgentMetricHandle
 import org.helios.apmrouter.server.tracing.virtual.VirtualAgentManager;
 import org.helios.apmrouter.trace.ITracer;
 import org.helios.apmrouter.trace.ITracerFactory;
+import org.helios.apmrouter.trace.MetricHandle;
 import org.helios.apmrouter.trace.MetricSubmitter;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.jmx.export.annotation.ManagedMetric;
@@ -299,6 +300,16 @@ public class ServerTracerFactory extends ServerComponentBean implements MetricSu
 		}
 	}
 	
+	/**
+	 * {@inheritDoc}
+	 * <p>Handle traces are routed in-vm as metric instances.</p>
+	 * @see org.helios.apmrouter.trace.MetricSubmitter#submit(org.helios.apmrouter.trace.MetricHandle, long, long)
+	 */
+	@Override
+	public void submit(MetricHandle handle, long time, long value) {
+		submit(handle.newMetric(time, value));
+	}
+	
 	/**
 	 * {@inheritDoc}
 	 * @see org.helios.apmrouter.server.ServerComponent#getSupportedMetricNames()
@@ -41,6 +41,7 @@ import org.helios.apmrouter.metric.ICEMetric;
 import org.helios.apmrouter.metric.IMetric;
 import org.helios.apmrouter.metric.MetricType;
 import org.helios.apmrouter.trace.ITracer;
+import org.helios.apmrouter.trace.MetricHandle;
 import org.helios.apmrouter.trace.MetricSubmitter;
 import org.helios.apmrouter.trace.TracerImpl;
 
@@ -404,6 +405,17 @@ public class VirtualTracer extends TracerImpl implements VirtualTracerMBean, Met
 		}
 	}
 	
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.apmrouter.trace.MetricSubmitter#submit(org.helios.apmrouter.trace.MetricHandle, long, long)
+	 */
+	@Override
+	public void submit(MetricHandle handle, long time, long value) {
+		touch();
+		_submitter.submit(handle, time, value);
+		sentMetrics.incrementAndGet();
+	}
+	
 
 
 	/**
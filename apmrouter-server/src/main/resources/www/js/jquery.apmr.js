@@ -86,6 +86,7 @@
 		},$.apmr.config.connectionTimeout);
 		setTimeout(function(){
 			cli.config.ws = new WebSocket(cli.config.wsUrl);
+			cli.config.ws.binaryType = 'arraybuffer';
 			cli.config.ws.c = cli;
 			cli.config.ws.onopen = $.apmr.onOpen;
 			cli.config.ws.onerror = $.apmr.onError;
@@ -129,6 +130,10 @@
 		$.apmr.startReconnectLoop();
 	},
 	$.apmr.onMessage = function(event) {
+		if(event.data instanceof ArrayBuffer) {
+			$.apmr.onLiveDataFrame(event.data);
+			return;
+		}
 		try {
 			var json = JSON.parse(event.data);
 			if(json.sessionid !=null) {
@@ -137,11 +142,61 @@
 				$(document).trigger('connection.session',[this.c.sessionId]);
 			} else {
 				var topic = '/' + 'req' + '/' + json.rerid;
-				$.publish(topic, [json]);
+				if(json.t=='metric.event.data.batch') {
+					// split real-time data batches into one data event per item, as subscribers expect
+					$.each(json.msg || [], function(index, item){
+						$.publish(topic, [$.extend({}, json, {t: 'metric.event.data', msg: item})]);
+					});
+				} else {
+					$.publish(topic, [json]);
+				}
 			}
 		} finally {
 		}		
 	},
+	/**
+	 * Decodes a binary liveData frame (see LiveDataFrame.java for the layout) and publishes one
+	 * response per metric in the same shape as the JSON liveData responses.
+	 * @param buffer The frame ArrayBuffer
+	 */
+	$.apmr.onLiveDataFrame = function(buffer) {
+		var view = new DataView(buffer);
+		var pos = 0;
+		var varint = function() {
+			var value = 0, mult = 1, b;
+			do {
+				b = view.getUint8(pos++);
+				value += (b & 0x7F) * mult;
+				mult *= 128;
+			} while(b & 0x80);
+			return value;
+		};
+		var zigzag = function() {
+			var n = varint();
+			return (n % 2)==0 ? n / 2 : -(n + 1) / 2;
+		};
+		if(view.getUint8(pos++)!=76) {
+			console.error("Unrecognized binary frame");
+			return;
+		}
+		pos++; // version
+		var rerid = (view.getUint32(pos) * 4294967296) + view.getUint32(pos + 4);
+		pos += 8;
+		var stepWidth = {'step' : varint(), 'width' : varint()};
+		var metrics = varint();
+		var topic = '/' + 'req' + '/' + rerid;
+		for(var m = 0; m < metrics; m++) {
+			var id = varint();
+			var count = varint();
+			var points = [];
+			var ts = 0;
+			for(var p = 0; p < count; p++) {
+				ts += zigzag();
+				points.push([ts, zigzag(), zigzag(), zigzag(), varint()]);
+			}
+			$.publish(topic, [{'rerid' : rerid, 't' : 'resp', 'msg' : [id, stepWidth, points]}]);
+		}
+	},
 	$.apmr.send = function(req, callback) {
 		var rid = this.config.requestId++;
 		if(callback!=null) {
@@ -481,6 +536,11 @@
 			console.info("Live Data Response:%o", data);
 		});						
 	},
+	$.apmr.liveDataBin = function(ids, callback) {
+		return $.apmr.svcOp("h2ts", "liveData", {'IDS':$.isArray(ids) ? ids : [ids], 'FMT':'bin'}, callback || function(data){
+			console.info("Live Data Response:%o", data);
+		});						
+	},
 	$.apmr.metricById = function(metricId, callback) {
 		$.apmr.svcOp("catalog", "nq", {name:"metricById", p : {'metricId' : metricId}}, callback || function(data){
 			console.info("metricById Response:%o", data);
@@ -21,6 +21,26 @@
 		console.warn("====================================================================");
 	};
 	
+	// The batched real-time data event type and the data event type each batched item is dispatched as
+	var DATA_BATCH_EVENT = "metric.event.data.batch";
+	var DATA_EVENT = "metric.event.data";
+	
+	/**
+	 * Splits a batched real-time data response into one data response per batched item (see MetricURIEvent.unbatch)
+	 * @param json The batch response
+	 * @returns an array of data responses
+	 */
+	function unbatch(json) {
+		var responses = [];
+		$.each(json.msg || [], function(index, item){
+			var response = $.extend({}, json);
+			response.t = DATA_EVENT;
+			response.msg = item;
+			responses.push(response);
+		});
+		return responses;
+	}
+	
 	// The websocket possible states
 	var states = ['connected', 'disconnected', 'connecting'];
 	function onopen() {				
@@ -43,6 +63,16 @@
 	function onmessage(message) {
 		var json = JSON.parse(message);
 		console.debug("WS: MessageEvent: [%o]",json);
+		if(json.t==DATA_BATCH_EVENT) {
+			$.each(unbatch(json), function(index, response){
+				dispatch(response);
+			});
+			return;
+		}
+		return dispatch(json);
+	}
+	
+	function dispatch(json) {
 		/*
 		 * Get the message type key, which could be:
 		 * 	"rerid": The id of the request that the response is generated for
@@ -210,7 +210,8 @@ function subscribeMetricUri(service, op, metricuri, args) {  // args could be {
  * 	<li><b>timeout</b>: The timeout in ms. on the request invocation confirm. (i.e. not a subscriber timeout) Default is 2000 ms.</li>
  * 	<li><b>onresponse</b>: A callback invoked when the immediate response of the command invocation is received.</li>
  * 	<li><b>onerror</b>: A callback invoked when the request times out or some other error</li>
- * 	<li><b>onevent</b>: A callback invoked when an asynchronous event is received associated to the original invocation.</li>
+ * 	<li><b>onevent</b>: A callback invoked when an asynchronous event is received associated to the original invocation.
+ * 		Batched real-time data events are split by jquery.websocket into one <b>metric.event.data</b> event per item before this is called.</li>
  * 	<li><b>oncancel</b>: A callback invoked the asynchronous event subscription associated to the original invocation is cancelled</li>
  * </ul>
  * @return the unique request identifier which is also the handle to the subscription.
@@ -0,0 +1,204 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package test.org.helios.apmrouter.catalog;
+
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.helios.apmrouter.catalog.MetricLastSeenTable;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestName;
+
+/**
+ * <p>Title: MetricLastSeenTableTestCase</p>
+ * <p>Description: Test cases for {@link MetricLastSeenTable}. The table is a singleton, so each test uses its own metric ID range
+ * and timing wheel ticks, and clears what it reads before it starts.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>test.org.helios.apmrouter.catalog.MetricLastSeenTableTestCase</code></p>
+ */
+
+public class MetricLastSeenTableTestCase {
+	/** The table under test */
+	protected final MetricLastSeenTable table = MetricLastSeenTable.getInstance();
+	/** The drained or stale metric IDs */
+	protected final long[] ids = new long[64];
+	/** The drained or stale timestamps */
+	protected final long[] times = new long[64];
+	
+	/**
+	 * StdOut log
+	 * @param obj The message to log
+	 */
+	protected static void log(Object obj) {
+		System.out.println(obj);
+	}
+	/**
+	 * StdErr log
+	 * @param obj The message to log
+	 */
+	protected static void loge(Object obj) {
+		System.err.println(obj);
+	}
+	/** The currently executing test name */
+	@Rule public final TestName name = new TestName();
+
+	/**
+	 * Prints the test name about to be executed
+	 */
+	@Before
+	public void printTestName() {
+		log("\n\t==================================\n\tRunning Test [" + name.getMethodName() + "]\n\t==================================\n");
+	}
+	
+	/**
+	 * Drains all the dirty rows left by other tests
+	 */
+	protected void drainAll() {
+		while(table.drainDirty(ids, times)==ids.length) { /* keep draining */ }
+	}
+	
+	/**
+	 * Tests that the last seen time only moves forward and that out of range metric IDs are dropped
+	 */
+	@Test
+	public void testTouchAndGetLastSeen() {
+		final long id = MetricLastSeenTable.PAGE_SIZE + 5;
+		Assert.assertTrue("The touch", table.touch(id, 2000L));
+		Assert.assertEquals("The last seen", 2000L, table.getLastSeen(id));
+		table.touch(id, 1000L);
+		Assert.assertEquals("The last seen after an older touch", 2000L, table.getLastSeen(id));
+		Assert.assertEquals("The last seen of an unseen metric", 0L, table.getLastSeen(id+1));
+		Assert.assertTrue("A page was allocated", table.getPageCount()>=1);
+		final long dropped = table.getDropped();
+		Assert.assertFalse("The negative ID touch", table.touch(-1L, 1000L));
+		Assert.assertFalse("The out of range ID touch", table.touch(Long.MAX_VALUE >>> 1, 1000L));
+		Assert.assertEquals("The dropped touches", dropped + 2, table.getDropped());
+		Assert.assertEquals("The unallocated page last seen", 0L, table.getLastSeen(Long.MAX_VALUE >>> 1));
+	}
+	
+	/**
+	 * Tests that dirty rows are drained once each, in ID order, across calls that fill the passed arrays
+	 */
+	@Test
+	public void testDrainDirty() {
+		drainAll();
+		final long base = 2L * MetricLastSeenTable.PAGE_SIZE;
+		for(int i = 0; i < 10; i++) table.touch(base + i, 1000L + i);
+		table.touch(base + 3, 5000L);
+		long[] smallIds = new long[4], smallTimes = new long[4];
+		int drained = 0;
+		int cnt;
+		while((cnt = table.drainDirty(smallIds, smallTimes))>0) {
+			for(int i = 0; i < cnt; i++, drained++) {
+				Assert.assertEquals("The drained metric ID", base + drained, smallIds[i]);
+				Assert.assertEquals("The drained timestamp", drained==3 ? 5000L : 1000L + drained, smallTimes[i]);
+			}
+		}
+		Assert.assertEquals("The drained rows", 10, drained);
+		Assert.assertEquals("The second drain", 0, table.drainDirty(ids, times));
+		table.touch(base + 7, 6000L);
+		Assert.assertEquals("The drain after a new touch", 1, table.drainDirty(ids, times));
+		Assert.assertEquals("The redrained metric ID", base + 7, ids[0]);
+	}
+	
+	/**
+	 * Tests that a stale scan reports the metrics last seen in the expiring tick once, and skips metrics seen since
+	 */
+	@Test
+	public void testScanStale() {
+		final long tickMs = table.getTickMs();
+		final long tick = 1000000L;
+		for(long t = tick; t < tick + 3; t++) table.scanStale(t, 0L, ids, times);
+		final long base = 3L * MetricLastSeenTable.PAGE_SIZE + 128;
+		final long ts1 = tick * tickMs + 1, ts2 = (tick+1) * tickMs + 1, ts3 = (tick+2) * tickMs + 1;
+		table.touch(ts1, base, base+1, base+2);
+		table.touch(base+1, ts2);
+		
+		Assert.assertEquals("The stale metrics of the first tick", 2, table.scanStale(tick, (tick+1) * tickMs, ids, times));
+		Assert.assertEquals("The first stale metric ID", base, ids[0]);
+		Assert.assertEquals("The first stale timestamp", ts1, times[0]);
+		Assert.assertEquals("The second stale metric ID", base+2, ids[1]);
+		Assert.assertEquals("The rescan of the first tick", 0, table.scanStale(tick, (tick+1) * tickMs, ids, times));
+		
+		table.touch(base, ts3);
+		Assert.assertEquals("The stale metrics of the second tick", 1, table.scanStale(tick+1, (tick+2) * tickMs, ids, times));
+		Assert.assertEquals("The metric seen in the second tick", base+1, ids[0]);
+		
+		Assert.assertEquals("The stale metrics of the third tick", 1, table.scanStale(tick+2, Long.MAX_VALUE, ids, times));
+		Assert.assertEquals("The metric seen again after being reported stale", base, ids[0]);
+		Assert.assertEquals("The last seen timestamp", ts3, times[0]);
+	}
+	
+	/**
+	 * Tests that concurrent touches of the same metrics with out of order timestamps leave each metric's newest timestamp
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testConcurrentTouchKeepsNewest() throws Exception {
+		final int threads = 8, metrics = 64, touches = 20000;
+		final long base = 4L * MetricLastSeenTable.PAGE_SIZE + 256, newest = 2000000L;
+		final CountDownLatch start = new CountDownLatch(1);
+		final CountDownLatch done = new CountDownLatch(threads);
+		for(int t = 0; t < threads; t++) {
+			final int thread = t;
+			new Thread("LastSeenToucher#" + t) {
+				@Override
+				public void run() {
+					Random r = new Random(thread);
+					try {
+						start.await();
+						for(int i = 0; i < touches; i++) {
+							// random timestamps going back and forth, then one newest timestamp per thread for every metric
+							long ts = i < touches - metrics ? 1L + r.nextInt(1000000) : newest + thread;
+							table.touch(base + (i % metrics), ts);
+						}
+					} catch (Exception ex) {
+						ex.printStackTrace(System.err);
+					} finally {
+						done.countDown();
+					}
+				}
+			}.start();
+		}
+		start.countDown();
+		Assert.assertTrue("Touchers finished", done.await(30, TimeUnit.SECONDS));
+		for(int i = 0; i < metrics; i++) {
+			Assert.assertEquals("The last seen timestamp of [" + (base + i) + "]", newest + threads - 1, table.getLastSeen(base + i));
+		}
+	}
+	
+	/**
+	 * Tests that a stale scan rejects arrays that cannot hold a group of metrics
+	 */
+	@Test(expected=IllegalArgumentException.class)
+	public void testScanStaleArraySize() {
+		table.scanStale(0L, 0L, new long[63], new long[63]);
+	}
+}
@@ -0,0 +1,160 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package test.org.helios.apmrouter.catalog.jdbc.h2;
+
+import org.helios.apmrouter.catalog.jdbc.h2.MetricIDCache;
+import org.helios.apmrouter.catalog.jdbc.h2.MetricIDCache.Entry;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestName;
+
+/**
+ * <p>Title: MetricIDCacheTestCase</p>
+ * <p>Description: Test cases for {@link MetricIDCache}</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>test.org.helios.apmrouter.catalog.jdbc.h2.MetricIDCacheTestCase</code></p>
+ */
+
+public class MetricIDCacheTestCase {
+	
+	/**
+	 * StdOut log
+	 * @param obj The message to log
+	 */
+	protected static void log(Object obj) {
+		System.out.println(obj);
+	}
+	/**
+	 * StdErr log
+	 * @param obj The message to log
+	 */
+	protected static void loge(Object obj) {
+		System.err.println(obj);
+	}
+	/** The currently executing test name */
+	@Rule public final TestName name = new TestName();
+
+	/**
+	 * Prints the test name about to be executed
+	 */
+	@Before
+	public void printTestName() {
+		log("\n\t==================================\n\tRunning Test [" + name.getMethodName() + "]\n\t==================================\n");
+	}
+	
+	/**
+	 * Creates a new entry for the metric with the passed ID
+	 * @param metricId The metric ID
+	 * @param typeId The metric type ordinal or -1 if it is not known
+	 * @return the new entry
+	 */
+	protected static Entry entry(long metricId, int typeId) {
+		return new Entry(metricId, "com", "host", "agent", typeId, "/ns", "m" + metricId);
+	}
+	
+	/**
+	 * Returns the name key of the metric with the passed ID
+	 * @param metricId The metric ID
+	 * @return the name key
+	 */
+	protected static String key(long metricId) {
+		return MetricIDCache.key("com", "host", "agent", "/ns", "m" + metricId);
+	}
+	
+	/**
+	 * Tests the name key format
+	 */
+	@Test
+	public void testKey() {
+		Assert.assertEquals("The name key", "com/host/agent/a/b:c", MetricIDCache.key("com", "host", "agent", "/a/b", "c"));
+	}
+	
+	/**
+	 * Tests that cached metrics are found by name and by ID, and that entries with no known type are only cached by name
+	 */
+	@Test
+	public void testPutAndGet() {
+		MetricIDCache cache = new MetricIDCache(64);
+		Entry typed = entry(1, 0), untyped = entry(2, -1);
+		cache.put(key(1), typed);
+		cache.put(key(2), untyped);
+		Assert.assertEquals("The typed metric ID", 1, cache.getId(key(1)));
+		Assert.assertSame("The typed entry", typed, cache.getEntry(1));
+		Assert.assertEquals("The untyped metric ID", 2, cache.getId(key(2)));
+		Assert.assertNull("The untyped entry", cache.getEntry(2));
+		Assert.assertEquals("The unknown metric ID", -1, cache.getId(key(3)));
+		Assert.assertEquals("The name table size", 2, cache.getNames().size());
+		Assert.assertEquals("The token table size", 1, cache.getTokens().size());
+	}
+	
+	/**
+	 * Tests that an entry is only removed if it is still the cached entry, and that the rest of its bucket stays reachable
+	 */
+	@Test
+	public void testRemoveKeepsBucketReachable() {
+		MetricIDCache cache = new MetricIDCache(MetricIDCache.WAYS);
+		Entry[] entries = new Entry[MetricIDCache.WAYS];
+		for(int i = 0; i < entries.length; i++) {
+			entries[i] = entry(i, 0);
+			cache.put(key(i), entries[i]);
+		}
+		Assert.assertFalse("The removal of a replaced entry", cache.remove(key(3), entry(3, 0)));
+		Assert.assertEquals("The metric ID after a failed removal", 3, cache.getId(key(3)));
+		Assert.assertTrue("The removal", cache.remove(key(3), entries[3]));
+		Assert.assertEquals("The removed metric ID", -1, cache.getId(key(3)));
+		Assert.assertNull("The removed entry", cache.getEntry(3));
+		for(int i = 0; i < entries.length; i++) {
+			if(i==3) continue;
+			Assert.assertEquals("The metric ID after the removal", i, cache.getId(key(i)));
+			Assert.assertSame("The entry after the removal", entries[i], cache.getEntry(i));
+		}
+		Assert.assertEquals("The name table size", MetricIDCache.WAYS-1, cache.getNames().size());
+		cache.put(key(100), entry(100, 0));
+		Assert.assertEquals("The evictions after reusing the freed slot", 0, cache.getNames().getEvictions());
+	}
+	
+	/**
+	 * Tests that a full table evicts, and that an eviction ends the authoritative state of the name table
+	 */
+	@Test
+	public void testEvictionEndsAuthoritative() {
+		MetricIDCache cache = new MetricIDCache(MetricIDCache.WAYS);
+		Assert.assertEquals("The capacity", MetricIDCache.WAYS, cache.getCapacity());
+		Assert.assertFalse("Authoritative before completion", cache.isAuthoritative());
+		for(int i = 0; i < MetricIDCache.WAYS; i++) cache.put(key(i), entry(i, 0));
+		cache.setComplete();
+		Assert.assertTrue("Authoritative after completion", cache.isAuthoritative());
+		cache.getId(key(0));
+		cache.put(key(MetricIDCache.WAYS), entry(MetricIDCache.WAYS, 0));
+		Assert.assertEquals("The name evictions", 1, cache.getNames().getEvictions());
+		Assert.assertFalse("Authoritative after an eviction", cache.isAuthoritative());
+		Assert.assertEquals("The referenced metric ID survived", 0, cache.getId(key(0)));
+		Assert.assertEquals("The new metric ID", MetricIDCache.WAYS, cache.getId(key(MetricIDCache.WAYS)));
+		Assert.assertEquals("The name table size", MetricIDCache.WAYS, cache.getNames().size());
+	}
+}
@@ -0,0 +1,366 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package test.org.helios.apmrouter.catalog.jdbc.h2;
+
+import org.helios.apmrouter.catalog.jdbc.h2.ShardedEventQueue;
+import org.helios.apmrouter.catalog.jdbc.h2.ShardedEventQueue.OverflowPolicy;
+import org.helios.apmrouter.catalog.jdbc.h2.ShardedEventQueue.ShardConsumer;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestName;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * <p>Title: ShardedEventQueueTestCase</p>
+ * <p>Description: Test cases for {@link ShardedEventQueue} overflow policies, per-metric order and configuration</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>test.org.helios.apmrouter.catalog.jdbc.h2.ShardedEventQueueTestCase</code></p>
+ */
+
+public class ShardedEventQueueTestCase {
+	
+	/**
+	 * StdOut log
+	 * @param obj The message to log
+	 */
+	protected static void log(Object obj) {
+		System.out.println(obj);
+	}
+	/**
+	 * StdErr log
+	 * @param obj The message to log
+	 */
+	protected static void loge(Object obj) {
+		System.err.println(obj);
+	}
+	/** The currently executing test name */
+	@Rule public final TestName name = new TestName();
+
+	/**
+	 * Prints the test name about to be executed
+	 */
+	@Before
+	public void printTestName() {
+		log("\n\t==================================\n\tRunning Test [" + name.getMethodName() + "]\n\t==================================\n");
+	}
+	
+	/**
+	 * Creates a new event
+	 * @param metricId The metric id
+	 * @param seq The event sequence for the metric
+	 * @return the new event
+	 */
+	private static Object[] event(long metricId, long seq) {
+		return new Object[]{metricId, seq};
+	}
+	
+	/**
+	 * Polls the next event and validates it
+	 * @param consumer The consumer to poll
+	 * @param metricId The expected metric id
+	 * @param seq The expected sequence
+	 */
+	private static void assertNext(ShardConsumer consumer, long metricId, long seq) {
+		Object[] event = consumer.poll();
+		Assert.assertNotNull("Expected event [" + metricId + "/" + seq + "]", event);
+		Assert.assertEquals("Metric id", metricId, event[0]);
+		Assert.assertEquals("Sequence", seq, event[1]);
+	}
+	
+	/**
+	 * Tests that a full shard under {@link OverflowPolicy#DROP_NEWEST} rejects the offered event
+	 */
+	@Test
+	public void testDropNewest() {
+		ShardedEventQueue queue = new ShardedEventQueue(name.getMethodName(), 1, 4, OverflowPolicy.DROP_NEWEST);
+		for(long i = 0; i < 4; i++) {
+			Assert.assertTrue("Queued [" + i + "]", queue.offer(1L, event(1L, i)));
+		}
+		Assert.assertFalse("Dropped [4]", queue.offer(1L, event(1L, 4)));
+		Assert.assertFalse("Dropped [5]", queue.offer(1L, event(1L, 5)));
+		Assert.assertEquals("Drops", 2L, queue.getDrops());
+		Assert.assertEquals("Size", 4, queue.size());
+		ShardConsumer consumer = queue.consumer(0, 1);
+		for(long i = 0; i < 4; i++) assertNext(consumer, 1L, i);
+		Assert.assertNull("Empty", consumer.poll());
+		Assert.assertFalse("Null event", queue.offer(1L, null));
+	}
+	
+	/**
+	 * Tests that a full shard under {@link OverflowPolicy#DROP_OLDEST} makes room by dropping the head
+	 */
+	@Test
+	public void testDropOldest() {
+		ShardedEventQueue queue = new ShardedEventQueue(name.getMethodName(), 1, 4, OverflowPolicy.DROP_OLDEST);
+		for(long i = 0; i < 6; i++) {
+			Assert.assertTrue("Queued [" + i + "]", queue.offer(1L, event(1L, i)));
+		}
+		Assert.assertEquals("Drops", 2L, queue.getDrops());
+		Assert.assertEquals("Size", 4, queue.size());
+		ShardConsumer consumer = queue.consumer(0, 1);
+		for(long i = 2; i < 6; i++) assertNext(consumer, 1L, i);
+		Assert.assertNull("Empty", consumer.poll());
+	}
+	
+	/**
+	 * Tests that {@link OverflowPolicy#COALESCE} holds the overflow event, replaces it with later events for the same metric,
+	 * and releases it only after the ring events queued before it
+	 */
+	@Test
+	public void testCoalesce() {
+		ShardedEventQueue queue = new ShardedEventQueue(name.getMethodName(), 1, 4, OverflowPolicy.COALESCE);
+		for(long i = 0; i < 4; i++) queue.offer(1L, event(1L, i));
+		Assert.assertTrue("Held", queue.offer(1L, event(1L, 4)));
+		Assert.assertTrue("Replaced", queue.offer(1L, event(1L, 5)));
+		Assert.assertEquals("Coalesced", 1L, queue.getCoalesced());
+		Assert.assertEquals("Drops", 0L, queue.getDrops());
+		Assert.assertEquals("Size", 5, queue.size());
+		ShardConsumer consumer = queue.consumer(0, 1);
+		for(long i = 0; i < 4; i++) assertNext(consumer, 1L, i);
+		assertNext(consumer, 1L, 5);
+		Assert.assertNull("Empty", consumer.poll());
+		Assert.assertEquals("Size", 0, queue.size());
+	}
+	
+	/**
+	 * Tests that a held event is released while the ring is kept full by other metrics
+	 */
+	@Test
+	public void testCoalesceReleaseUnderLoad() {
+		ShardedEventQueue queue = new ShardedEventQueue(name.getMethodName(), 1, 4, OverflowPolicy.COALESCE);
+		long seq = 0;
+		for(; seq < 4; seq++) queue.offer(2L, event(2L, seq));
+		queue.offer(1L, event(1L, 0));
+		ShardConsumer consumer = queue.consumer(0, 1);
+		long expected = 0;
+		boolean released = false;
+		for(int i = 0; i < 16 && !released; i++) {
+			Object[] event = consumer.poll();
+			Assert.assertNotNull("Event", event);
+			if(event[0].equals(1L)) {
+				released = true;
+			} else {
+				Assert.assertEquals("Ring order", expected++, event[1]);
+				queue.offer(2L, event(2L, seq++));
+			}
+		}
+		Assert.assertTrue("Held event released under load", released);
+		Assert.assertEquals("Drops", 0L, queue.getDrops());
+	}
+	
+	/**
+	 * Tests that events for one metric are taken in the order they were offered with concurrent producers and one consumer per shard
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testPerMetricOrder() throws Exception {
+		final int producers = 4, metricsPerProducer = 8, eventsPerMetric = 2000, consumers = 2;
+		final int total = producers * metricsPerProducer * eventsPerMetric;
+		final ShardedEventQueue queue = new ShardedEventQueue(name.getMethodName(), 4, 1024, OverflowPolicy.DROP_NEWEST);
+		final CountDownLatch start = new CountDownLatch(1);
+		final CountDownLatch done = new CountDownLatch(producers + consumers);
+		final AtomicReference<String> failure = new AtomicReference<String>();
+		for(int p = 0; p < producers; p++) {
+			final long firstMetric = p * metricsPerProducer;
+			new Thread("Producer#" + p) {
+				@Override
+				public void run() {
+					try {
+						start.await();
+						for(long seq = 0; seq < eventsPerMetric; seq++) {
+							for(long m = firstMetric; m < firstMetric + metricsPerProducer; m++) {
+								while(!queue.offer(m, event(m, seq))) Thread.yield();
+							}
+						}
+					} catch (Exception ex) {
+						ex.printStackTrace(System.err);
+					} finally {
+						done.countDown();
+					}
+				}
+			}.start();
+		}
+		final int[] received = new int[consumers];
+		for(int c = 0; c < consumers; c++) {
+			final ShardConsumer consumer = queue.consumer(c, consumers);
+			final int index = c;
+			new Thread("Consumer#" + c) {
+				@Override
+				public void run() {
+					Map<Long, Long> last = new HashMap<Long, Long>();
+					try {
+						start.await();
+						while(true) {
+							Object[] event = consumer.poll();
+							if(event==null) {
+								if(sum(received)>=total || failure.get()!=null) break;
+								Thread.yield();
+								continue;
+							}
+							Long prior = last.put((Long)event[0], (Long)event[1]);
+							if(prior!=null && prior.longValue() >= ((Long)event[1]).longValue()) {
+								failure.set("Metric [" + event[0] + "] took [" + event[1] + "] after [" + prior + "]");
+							}
+							synchronized(received) {
+								received[index]++;
+							}
+						}
+					} catch (Exception ex) {
+						ex.printStackTrace(System.err);
+					} finally {
+						done.countDown();
+					}
+				}
+			}.start();
+		}
+		start.countDown();
+		Assert.assertTrue("Producers and consumers finished", done.await(60, TimeUnit.SECONDS));
+		Assert.assertNull(failure.get(), failure.get());
+		// producers retry rejected offers, so every event is received even though drops were counted
+		Assert.assertEquals("Received", total, sum(received));
+	}
+	
+	/**
+	 * Sums the consumer receive counts
+	 * @param received The per consumer receive counts
+	 * @return the total
+	 */
+	private static int sum(int[] received) {
+		synchronized(received) {
+			int total = 0;
+			for(int r: received) total += r;
+			return total;
+		}
+	}
+	
+	/**
+	 * Tests that a consumer parked in take is woken by an offer
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testTakeWakesOnOffer() throws Exception {
+		final ShardedEventQueue queue = new ShardedEventQueue(name.getMethodName(), 1, 4, OverflowPolicy.DROP_NEWEST);
+		final ShardConsumer consumer = queue.consumer(0, 1);
+		final AtomicReference<Object[]> taken = new AtomicReference<Object[]>();
+		final CountDownLatch done = new CountDownLatch(1);
+		Thread t = new Thread("Taker") {
+			@Override
+			public void run() {
+				try {
+					taken.set(consumer.take());
+				} catch (InterruptedException iex) {
+					loge("Taker interrupted");
+				} finally {
+					done.countDown();
+				}
+			}
+		};
+		t.start();
+		Thread.sleep(200);
+		queue.offer(9L, event(9L, 0));
+		Assert.assertTrue("Taken", done.await(5, TimeUnit.SECONDS));
+		Assert.assertEquals("Taken event", 9L, taken.get()[0]);
+	}
+	
+	/**
+	 * Tests that the shard count and capacities are rounded up and that invalid arguments are rejected
+	 */
+	@Test
+	public void testSizingAndArguments() {
+		ShardedEventQueue queue = new ShardedEventQueue(name.getMethodName(), 3, 10, OverflowPolicy.DROP_NEWEST);
+		Assert.assertEquals("Shard count", 4, queue.getShardCount());
+		Assert.assertEquals("Capacity", 8, queue.getCapacity());
+		assertRejected(null, 1, 4, OverflowPolicy.DROP_NEWEST);
+		assertRejected("q", 1, 4, null);
+		assertRejected("q", 0, 4, OverflowPolicy.DROP_NEWEST);
+		assertRejected("q", 4, 3, OverflowPolicy.DROP_NEWEST);
+		int[][] invalidConsumers = {{0, 0}, {0, 5}, {-1, 2}, {2, 2}};
+		for(int[] args: invalidConsumers) {
+			try {
+				queue.consumer(args[0], args[1]);
+				Assert.fail("Consumer [" + args[0] + "/" + args[1] + "] accepted");
+			} catch (IllegalArgumentException iae) {
+				log("Rejected: " + iae.getMessage());
+			}
+		}
+		Assert.assertNotNull("Valid consumer", queue.consumer(3, 4));
+	}
+	
+	/**
+	 * Validates that the passed constructor arguments are rejected
+	 * @param qname The queue name
+	 * @param shardCount The shard count
+	 * @param capacity The capacity
+	 * @param policy The overflow policy
+	 */
+	private static void assertRejected(String qname, int shardCount, int capacity, OverflowPolicy policy) {
+		try {
+			new ShardedEventQueue(qname, shardCount, capacity, policy);
+			Assert.fail("Queue [" + qname + "/" + shardCount + "/" + capacity + "/" + policy + "] accepted");
+		} catch (IllegalArgumentException iae) {
+			log("Rejected: " + iae.getMessage());
+		}
+	}
+	
+	/**
+	 * Tests overflow policy decoding and property based configuration
+	 */
+	@Test
+	public void testConfigure() {
+		Assert.assertEquals("Lower case", OverflowPolicy.COALESCE, OverflowPolicy.forName("coalesce", OverflowPolicy.DROP_NEWEST));
+		Assert.assertEquals("Padded", OverflowPolicy.DROP_OLDEST, OverflowPolicy.forName(" drop_oldest ", OverflowPolicy.DROP_NEWEST));
+		Assert.assertEquals("Null", OverflowPolicy.DROP_NEWEST, OverflowPolicy.forName(null, OverflowPolicy.DROP_NEWEST));
+		Assert.assertEquals("Unknown", OverflowPolicy.DROP_NEWEST, OverflowPolicy.forName("bogus", OverflowPolicy.DROP_NEWEST));
+		String qname = name.getMethodName();
+		ShardedEventQueue queue = ShardedEventQueue.configure(qname, 64, OverflowPolicy.DROP_NEWEST);
+		Assert.assertEquals("Default shards", ShardedEventQueue.DEFAULT_SHARDS, queue.getShardCount());
+		Assert.assertEquals("Default capacity", 64, queue.getCapacity());
+		Assert.assertEquals("Default policy", OverflowPolicy.DROP_NEWEST, queue.getPolicy());
+		String prefix = ShardedEventQueue.CONFIG_PREFIX + qname;
+		System.setProperty(prefix + ".shards", "2");
+		System.setProperty(prefix + ".capacity", "32");
+		System.setProperty(prefix + ".overflow", "coalesce");
+		try {
+			queue = ShardedEventQueue.configure(qname, 64, OverflowPolicy.DROP_NEWEST);
+			Assert.assertEquals("Configured shards", 2, queue.getShardCount());
+			Assert.assertEquals("Configured capacity", 32, queue.getCapacity());
+			Assert.assertEquals("Configured policy", OverflowPolicy.COALESCE, queue.getPolicy());
+			Assert.assertEquals("Name", qname, queue.getName());
+		} finally {
+			System.clearProperty(prefix + ".shards");
+			System.clearProperty(prefix + ".capacity");
+			System.clearProperty(prefix + ".overflow");
+		}
+	}
+	
+}
@@ -0,0 +1,203 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package test.org.helios.apmrouter.dataservice.json;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.helios.apmrouter.OpCode;
+import org.helios.apmrouter.dataservice.json.JsonResponse;
+import org.helios.apmrouter.dataservice.json.SharedJsonFrame;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestName;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+
+/**
+ * <p>Title: SharedJsonFrameTestCase</p>
+ * <p>Description: Test cases for {@link SharedJsonFrame}. Each frame must parse as the same JSON as the envelope marshalled with the items as its content.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>test.org.helios.apmrouter.dataservice.json.SharedJsonFrameTestCase</code></p>
+ */
+
+public class SharedJsonFrameTestCase {
+	/** A gson configured like the {@link JsonResponse} serializer */
+	protected static final Gson gson = new GsonBuilder().create();
+	/** The batched data event name */
+	static final String BATCH = "metric.event.data.batch";
+	
+	/**
+	 * StdOut log
+	 * @param obj The message to log
+	 */
+	protected static void log(Object obj) {
+		System.out.println(obj);
+	}
+	/**
+	 * StdErr log
+	 * @param obj The message to log
+	 */
+	protected static void loge(Object obj) {
+		System.err.println(obj);
+	}
+	/** The currently executing test name */
+	@Rule public final TestName name = new TestName();
+
+	/**
+	 * Prints the test name about to be executed
+	 */
+	@Before
+	public void printTestName() {
+		log("\n\t==================================\n\tRunning Test [" + name.getMethodName() + "]\n\t==================================\n");
+	}
+	
+	/**
+	 * Creates a data event item
+	 * @param metricId The metric id
+	 * @param value The metric value
+	 * @return the data event item
+	 */
+	protected static Map<String, Object> item(long metricId, long value) {
+		Map<String, Object> item = new LinkedHashMap<String, Object>();
+		item.put("id", metricId);
+		item.put("v", value);
+		item.put("n", "host/agent/Platform:cpu=" + metricId + ",\"quoted\"");
+		return item;
+	}
+	
+	/**
+	 * Asserts that the passed frame parses as the same JSON as the passed envelope marshalled with the passed items as its content
+	 * @param frame The frame to check
+	 * @param envelope The envelope the frame was created from
+	 * @param items The unmarshalled items the frame was created from
+	 */
+	protected static void assertFrame(SharedJsonFrame frame, JsonResponse envelope, List<?> items) {
+		String frameJson = frame.toChannelBuffer().toString(SharedJsonFrame.UTF8);
+		log("Frame: " + frameJson);
+		envelope.setContent(items);
+		JsonElement expected = new JsonParser().parse(gson.toJson(envelope));
+		Assert.assertEquals("The frame JSON", expected, new JsonParser().parse(frameJson));
+		Assert.assertEquals("The item count", items.size(), frame.getItemCount());
+	}
+	
+	/**
+	 * Encodes the passed items
+	 * @param items The items to encode
+	 * @return the shared encoded items
+	 */
+	protected static List<ChannelBuffer> encode(List<?> items) {
+		List<ChannelBuffer> encoded = new ArrayList<ChannelBuffer>(items.size());
+		for(Object item: items) encoded.add(SharedJsonFrame.encode(item));
+		return encoded;
+	}
+	
+	/**
+	 * Tests that a frame of several items parses as the marshalled envelope with the items as its content, and that any content set on the envelope is ignored
+	 */
+	@Test
+	public void testFrame() {
+		List<Map<String, Object>> items = Arrays.asList(item(1, 10), item(2, 20), item(3, 30));
+		JsonResponse envelope = new JsonResponse(42L, BATCH).setOpCode(OpCode.ON_METRIC_URI_EVENT).setContent("ignored");
+		SharedJsonFrame frame = new SharedJsonFrame(envelope, encode(items));
+		Assert.assertEquals("The op code", OpCode.ON_METRIC_URI_EVENT, frame.getOpCode());
+		assertFrame(frame, envelope, items);
+	}
+	
+	/**
+	 * Tests that a frame with no items parses as the marshalled envelope with an empty array as its content
+	 */
+	@Test
+	public void testEmptyItems() {
+		JsonResponse envelope = new JsonResponse(7L, BATCH).setOpCode(OpCode.ON_METRIC_URI_EVENT);
+		SharedJsonFrame frame = new SharedJsonFrame(envelope, Collections.<ChannelBuffer>emptyList());
+		assertFrame(frame, envelope, Collections.emptyList());
+	}
+	
+	/**
+	 * Tests that a frame whose envelope has no type and no op code, so marshals only its required fields, still parses as the marshalled envelope
+	 */
+	@Test
+	public void testEmptyEnvelope() {
+		List<Map<String, Object>> items = Arrays.asList(item(1, 10));
+		JsonResponse envelope = new JsonResponse(0L, null);
+		SharedJsonFrame frame = new SharedJsonFrame(envelope, encode(items));
+		Assert.assertNull("The op code", frame.getOpCode());
+		assertFrame(frame, envelope, items);
+		envelope = new JsonResponse(0L, null);
+		frame = new SharedJsonFrame(envelope, Collections.<ChannelBuffer>emptyList());
+		assertFrame(frame, envelope, Collections.emptyList());
+	}
+	
+	/**
+	 * Tests that shared items can be written in any number of frames without being consumed or modified
+	 */
+	@Test
+	public void testSharedItems() {
+		List<Map<String, Object>> items = Arrays.asList(item(1, 10), item(2, 20));
+		List<ChannelBuffer> encoded = encode(items);
+		int[] readable = new int[encoded.size()];
+		for(int i = 0; i < readable.length; i++) readable[i] = encoded.get(i).readableBytes();
+		for(int channel = 0; channel < 3; channel++) {
+			JsonResponse envelope = new JsonResponse(channel, BATCH).setOpCode(OpCode.ON_METRIC_URI_EVENT);
+			SharedJsonFrame frame = new SharedJsonFrame(envelope, encoded);
+			assertFrame(frame, envelope, items);
+			assertFrame(frame, envelope, items);
+		}
+		for(int i = 0; i < readable.length; i++) {
+			Assert.assertEquals("The readable bytes of item [" + i + "]", readable[i], encoded.get(i).readableBytes());
+		}
+	}
+	
+	/**
+	 * Tests that a null envelope or null items are rejected
+	 */
+	@Test
+	public void testInvalid() {
+		try {
+			new SharedJsonFrame(null, Collections.<ChannelBuffer>emptyList());
+			Assert.fail("Null envelope accepted");
+		} catch (IllegalArgumentException iae) {
+			log("Rejected: " + iae.getMessage());
+		}
+		try {
+			new SharedJsonFrame(new JsonResponse(1L, BATCH), null);
+			Assert.fail("Null items accepted");
+		} catch (IllegalArgumentException iae) {
+			log("Rejected: " + iae.getMessage());
+		}
+	}
+}
@@ -0,0 +1,176 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package test.org.helios.apmrouter.dataservice.json.h2timeseries;
+
+import org.helios.apmrouter.dataservice.json.h2timeseries.LiveDataFrame;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestName;
+
+/**
+ * <p>Title: LiveDataFrameTestCase</p>
+ * <p>Description: Test cases for {@link LiveDataFrame}. Frames are decoded here the way the liveData client decodes them.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>test.org.helios.apmrouter.dataservice.json.h2timeseries.LiveDataFrameTestCase</code></p>
+ */
+
+public class LiveDataFrameTestCase {
+	
+	/**
+	 * StdOut log
+	 * @param obj The message to log
+	 */
+	protected static void log(Object obj) {
+		System.out.println(obj);
+	}
+	/**
+	 * StdErr log
+	 * @param obj The message to log
+	 */
+	protected static void loge(Object obj) {
+		System.err.println(obj);
+	}
+	/** The currently executing test name */
+	@Rule public final TestName name = new TestName();
+
+	/**
+	 * Prints the test name about to be executed
+	 */
+	@Before
+	public void printTestName() {
+		log("\n\t==================================\n\tRunning Test [" + name.getMethodName() + "]\n\t==================================\n");
+	}
+	
+	/**
+	 * Reads an unsigned base 128 varint
+	 * @param buffer The buffer to read from
+	 * @return the read value
+	 */
+	protected static long readVarLong(ChannelBuffer buffer) {
+		long value = 0;
+		int shift = 0;
+		byte b;
+		do {
+			b = buffer.readByte();
+			value |= ((long)(b & 0x7F)) << shift;
+			shift += 7;
+		} while((b & 0x80)!=0);
+		return value;
+	}
+	
+	/**
+	 * Reads a zigzag encoded signed varint
+	 * @param buffer The buffer to read from
+	 * @return the read value
+	 */
+	protected static long readZigZag(ChannelBuffer buffer) {
+		long value = readVarLong(buffer);
+		return (value >>> 1) ^ -(value & 1);
+	}
+	
+	/**
+	 * Tests that varints and zigzag varints round trip across their range and that small values are one byte
+	 */
+	@Test
+	public void testVarints() {
+		long[] values = {0, 1, -1, 63, -64, 64, 127, 128, 300, -300, Integer.MAX_VALUE, Integer.MIN_VALUE, Long.MAX_VALUE, Long.MIN_VALUE};
+		for(long value: values) {
+			ChannelBuffer buffer = ChannelBuffers.dynamicBuffer(16);
+			LiveDataFrame.writeVarLong(buffer, value);
+			Assert.assertEquals("The varint [" + value + "]", value, readVarLong(buffer));
+			Assert.assertFalse("The varint [" + value + "] was fully read", buffer.readable());
+			LiveDataFrame.writeZigZag(buffer, value);
+			Assert.assertEquals("The zigzag [" + value + "]", value, readZigZag(buffer));
+		}
+		ChannelBuffer buffer = ChannelBuffers.dynamicBuffer(16);
+		LiveDataFrame.writeZigZag(buffer, -64);
+		Assert.assertEquals("The size of a small negative zigzag", 1, buffer.readableBytes());
+		buffer = ChannelBuffers.dynamicBuffer(16);
+		LiveDataFrame.writeVarLong(buffer, -1L);
+		Assert.assertEquals("The size of an unsigned max varint", 10, buffer.readableBytes());
+	}
+	
+	/**
+	 * Tests that a frame's head and series decode to the encoded values
+	 */
+	@Test
+	public void testFrameRoundTrip() {
+		final long[] series = {
+			1000L, 5, 10, 7, 3,
+			2000L, -5, 0, -2, 1,
+			4000L, 0, Long.MAX_VALUE, 100, 2
+		};
+		LiveDataFrame frame = new LiveDataFrame(77L, 15000L, 60L, 2);
+		frame.add(12345L, series, 3);
+		frame.add(9L, new long[0], 0);
+		ChannelBuffer buffer = frame.toFrame().getBinaryData();
+		Assert.assertEquals("The frame type", LiveDataFrame.FRAME_TYPE, buffer.readByte());
+		Assert.assertEquals("The version", LiveDataFrame.VERSION, buffer.readByte());
+		Assert.assertEquals("The request id", 77L, buffer.readLong());
+		Assert.assertEquals("The step", 15000L, readVarLong(buffer));
+		Assert.assertEquals("The width", 60L, readVarLong(buffer));
+		Assert.assertEquals("The metric count", 2L, readVarLong(buffer));
+		Assert.assertEquals("The first metric id", 12345L, readVarLong(buffer));
+		Assert.assertEquals("The first point count", 3L, readVarLong(buffer));
+		long ts = 0;
+		for(int i = 0; i < 3; i++) {
+			final int offset = i * LiveDataFrame.PERIOD_SIZE;
+			ts += readZigZag(buffer);
+			Assert.assertEquals("The timestamp of point [" + i + "]", series[offset], ts);
+			Assert.assertEquals("The min of point [" + i + "]", series[offset+1], readZigZag(buffer));
+			Assert.assertEquals("The max of point [" + i + "]", series[offset+2], readZigZag(buffer));
+			Assert.assertEquals("The avg of point [" + i + "]", series[offset+3], readZigZag(buffer));
+			Assert.assertEquals("The count of point [" + i + "]", series[offset+4], readVarLong(buffer));
+		}
+		Assert.assertEquals("The second metric id", 9L, readVarLong(buffer));
+		Assert.assertEquals("The second point count", 0L, readVarLong(buffer));
+		Assert.assertFalse("The frame was fully read", buffer.readable());
+	}
+	
+	/**
+	 * Tests that adding more metrics than declared is rejected
+	 */
+	@Test(expected=IllegalStateException.class)
+	public void testTooManyMetrics() {
+		LiveDataFrame frame = new LiveDataFrame(1L, 1L, 1L, 1);
+		frame.add(1L, new long[0], 0);
+		frame.add(2L, new long[0], 0);
+	}
+	
+	/**
+	 * Tests that completing a frame with declared metrics missing is rejected
+	 */
+	@Test(expected=IllegalStateException.class)
+	public void testMissingMetrics() {
+		LiveDataFrame frame = new LiveDataFrame(1L, 1L, 1L, 2);
+		frame.add(1L, new long[0], 0);
+		frame.toFrame();
+	}
+}
@@ -0,0 +1,207 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package test.org.helios.apmrouter.destination.accumulator;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.helios.apmrouter.destination.accumulator.SpillCodec;
+import org.helios.apmrouter.destination.accumulator.SpillFile;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestName;
+
+/**
+ * <p>Title: SpillFileTestCase</p>
+ * <p>Description: Test cases for {@link SpillFile} ordering, compaction, unreadable records and closing</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>test.org.helios.apmrouter.destination.accumulator.SpillFileTestCase</code></p>
+ */
+
+public class SpillFileTestCase {
+	/** The value the test codec fails to decode */
+	static final int UNDECODABLE = -13;
+	/** The size of one spilled integer record, the length prefix and the value */
+	static final int RECORD_SIZE = 8;
+	
+	/** A codec for spilled integers that cannot decode {@link #UNDECODABLE} */
+	protected static final SpillCodec<Integer> CODEC = new SpillCodec<Integer>() {
+		@Override
+		public byte[] encode(Integer item) {
+			return ByteBuffer.allocate(4).putInt(item).array();
+		}
+		@Override
+		public Integer decode(ByteBuffer buffer) {
+			int value = buffer.getInt();
+			if(value==UNDECODABLE) throw new IllegalStateException("Undecodable [" + value + "]");
+			return value;
+		}
+	};
+	
+	/** The spill files created by the current test, closed after the test */
+	protected final List<SpillFile<Integer>> files = new ArrayList<SpillFile<Integer>>();
+	
+	/**
+	 * StdOut log
+	 * @param obj The message to log
+	 */
+	protected static void log(Object obj) {
+		System.out.println(obj);
+	}
+	/**
+	 * StdErr log
+	 * @param obj The message to log
+	 */
+	protected static void loge(Object obj) {
+		System.err.println(obj);
+	}
+	/** The currently executing test name */
+	@Rule public final TestName name = new TestName();
+
+	/**
+	 * Prints the test name about to be executed
+	 */
+	@Before
+	public void printTestName() {
+		log("\n\t==================================\n\tRunning Test [" + name.getMethodName() + "]\n\t==================================\n");
+	}
+	
+	/**
+	 * Closes the spill files
+	 */
+	@After
+	public void tearDown() {
+		for(SpillFile<Integer> f: files) f.close();
+		files.clear();
+	}
+	
+	/**
+	 * Creates a new spill file that holds the passed number of records
+	 * @param records The number of records the file holds
+	 * @return the new spill file
+	 */
+	protected SpillFile<Integer> newSpillFile(int records) {
+		SpillFile<Integer> f = new SpillFile<Integer>(name.getMethodName(), records * RECORD_SIZE, CODEC);
+		files.add(f);
+		return f;
+	}
+	
+	/**
+	 * Reads up to the passed number of records
+	 * @param f The spill file to read from
+	 * @param max The maximum number of records to read
+	 * @return the read items
+	 */
+	protected static List<Integer> read(SpillFile<Integer> f, int max) {
+		List<Integer> items = new ArrayList<Integer>();
+		f.read(max, items);
+		return items;
+	}
+	
+	/**
+	 * Tests that records are read in the order they were written, including after the unread records are compacted to make room
+	 */
+	@Test
+	public void testOrderAcrossCompaction() {
+		SpillFile<Integer> f = newSpillFile(8);
+		for(int i = 0; i < 8; i++) Assert.assertTrue("Write [" + i + "]", f.write(i));
+		Assert.assertFalse("Write to a full file", f.write(8));
+		Assert.assertEquals("First read", Arrays.asList(0, 1, 2), read(f, 3));
+		for(int i = 8; i < 11; i++) Assert.assertTrue("Write after compaction [" + i + "]", f.write(i));
+		Assert.assertEquals("Used bytes", 8 * RECORD_SIZE, f.getUsedBytes());
+		Assert.assertEquals("Second read", Arrays.asList(3, 4, 5, 6, 7, 8, 9, 10), read(f, 100));
+		Assert.assertEquals("Size", 0, f.size());
+		Assert.assertEquals("Used bytes after draining", 0, f.getUsedBytes());
+	}
+	
+	/**
+	 * Tests that a record that fails to decode is consumed and counted as a drop, and the records after it are still read
+	 */
+	@Test
+	public void testUndecodableRecordIsDropped() {
+		SpillFile<Integer> f = newSpillFile(8);
+		f.write(1);
+		f.write(UNDECODABLE);
+		f.write(2);
+		Assert.assertEquals("Read past the undecodable record", Arrays.asList(1, 2), read(f, 100));
+		Assert.assertEquals("Drop count", 1, f.getDropCount());
+		Assert.assertEquals("Size", 0, f.size());
+		f.write(3);
+		Assert.assertEquals("Read after the drop", Arrays.asList(3), read(f, 100));
+	}
+	
+	/**
+	 * Tests that a record length that does not fit the unread bytes drops the unread records instead of failing every read
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testCorruptLengthDropsUnread() throws Exception {
+		SpillFile<Integer> f = newSpillFile(8);
+		for(int i = 0; i < 4; i++) f.write(i);
+		RandomAccessFile raf = new RandomAccessFile(f.getFile(), "rw");
+		try {
+			// the length prefix of the second record
+			raf.seek(RECORD_SIZE);
+			raf.writeInt(Integer.MAX_VALUE);
+		} finally {
+			raf.close();
+		}
+		Assert.assertEquals("Read up to the corrupt record", Arrays.asList(0), read(f, 100));
+		Assert.assertEquals("Drop count", 3, f.getDropCount());
+		Assert.assertEquals("Size", 0, f.size());
+		Assert.assertTrue("Write after the drop", f.write(4));
+		Assert.assertEquals("Read after the drop", Arrays.asList(4), read(f, 100));
+	}
+	
+	/**
+	 * Tests that spill files with the same name get their own file, and that closing one deletes its file and drops its unread records
+	 */
+	@Test
+	public void testUniqueFilesAndClose() {
+		SpillFile<Integer> f1 = newSpillFile(8);
+		SpillFile<Integer> f2 = newSpillFile(8);
+		File file1 = f1.getFile();
+		Assert.assertFalse("Same name maps different files", file1.equals(f2.getFile()));
+		Assert.assertTrue("File exists", file1.exists());
+		f1.write(1);
+		f2.write(2);
+		f1.close();
+		Assert.assertTrue("Closed", f1.isClosed());
+		Assert.assertFalse("File deleted", file1.exists());
+		Assert.assertEquals("Unread records dropped", 1, f1.getDropCount());
+		Assert.assertFalse("Write after close", f1.write(3));
+		Assert.assertEquals("Read after close", 0, read(f1, 100).size());
+		f1.close();
+		Assert.assertEquals("Other file unaffected", Arrays.asList(2), read(f2, 100));
+	}
+}
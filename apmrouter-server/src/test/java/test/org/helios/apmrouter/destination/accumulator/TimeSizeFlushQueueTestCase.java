@@ -0,0 +1,295 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package test.org.helios.apmrouter.destination.accumulator;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import org.helios.apmrouter.destination.accumulator.EnqueueResult;
+import org.helios.apmrouter.destination.accumulator.FlushQueueReceiver;
+import org.helios.apmrouter.destination.accumulator.OverflowPolicy;
+import org.helios.apmrouter.destination.accumulator.SpillCodec;
+import org.helios.apmrouter.destination.accumulator.TimeSizeFlushQueue;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestName;
+
+/**
+ * <p>Title: TimeSizeFlushQueueTestCase</p>
+ * <p>Description: Test cases for the {@link TimeSizeFlushQueue} overflow policies. Flushes run on a single thread pool 
+ * that is held by a gate task, so the queue backs up until a test opens the gate.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>test.org.helios.apmrouter.destination.accumulator.TimeSizeFlushQueueTestCase</code></p>
+ */
+
+public class TimeSizeFlushQueueTestCase {
+	/** The size trigger of the tested queues */
+	static final int SIZE_TRIGGER = 4;
+	/** The capacity of the tested queues */
+	static final int CAPACITY = 8;
+	/** The time trigger of the tested queues, long enough not to fire during a test */
+	static final long TIME_TRIGGER = 600000L;
+	
+	/** The flush thread pool */
+	protected ExecutorService pool = null;
+	/** The time trigger scheduler */
+	protected ScheduledExecutorService scheduler = null;
+	/** The gate holding the flush thread pool */
+	protected CountDownLatch gate = null;
+	/** The queues created by the current test, stopped after the test */
+	protected final List<TimeSizeFlushQueue<Integer>> queues = new ArrayList<TimeSizeFlushQueue<Integer>>();
+	/** The items flushed to the receiver in flush order */
+	protected final List<Integer> flushed = new ArrayList<Integer>();
+	/** The receiver collecting flushed items */
+	protected final FlushQueueReceiver<Integer> receiver = new FlushQueueReceiver<Integer>() {
+		@Override
+		public void flushTo(Collection<Integer> flushedItems) {
+			synchronized(flushed) {
+				flushed.addAll(flushedItems);
+				flushed.notifyAll();
+			}
+		}
+	};
+	/** A codec for spilled integers */
+	protected static final SpillCodec<Integer> CODEC = new SpillCodec<Integer>() {
+		@Override
+		public byte[] encode(Integer item) {
+			return ByteBuffer.allocate(4).putInt(item).array();
+		}
+		@Override
+		public Integer decode(ByteBuffer buffer) {
+			return buffer.getInt();
+		}
+	};
+	
+	/**
+	 * StdOut log
+	 * @param obj The message to log
+	 */
+	protected static void log(Object obj) {
+		System.out.println(obj);
+	}
+	/**
+	 * StdErr log
+	 * @param obj The message to log
+	 */
+	protected static void loge(Object obj) {
+		System.err.println(obj);
+	}
+	/** The currently executing test name */
+	@Rule public final TestName name = new TestName();
+
+	/**
+	 * Prints the test name about to be executed and creates a gated flush thread pool
+	 */
+	@Before
+	public void printTestName() {
+		log("\n\t==================================\n\tRunning Test [" + name.getMethodName() + "]\n\t==================================\n");
+		System.setProperty(TimeSizeFlushQueue.SPILL_SIZE_PROP, "65536");
+		pool = Executors.newSingleThreadExecutor();
+		scheduler = Executors.newSingleThreadScheduledExecutor();
+		gate = new CountDownLatch(1);
+		final CountDownLatch gateStarted = new CountDownLatch(1);
+		pool.execute(new Runnable(){
+			@Override
+			public void run() {
+				gateStarted.countDown();
+				try { gate.await(); } catch (InterruptedException ie) { /* No Op */ }
+			}
+		});
+		try { gateStarted.await(); } catch (InterruptedException ie) { throw new RuntimeException(ie); }
+	}
+	
+	/**
+	 * Stops the queues, opens the gate and stops the thread pools
+	 */
+	@After
+	public void tearDown() {
+		for(TimeSizeFlushQueue<Integer> q: queues) q.stop();
+		queues.clear();
+		gate.countDown();
+		pool.shutdownNow();
+		scheduler.shutdownNow();
+		System.clearProperty(TimeSizeFlushQueue.SPILL_SIZE_PROP);
+	}
+	
+	/**
+	 * Creates a new queue with the test triggers and the gated flush thread pool
+	 * @param policy The overflow policy
+	 * @return the new queue
+	 */
+	protected TimeSizeFlushQueue<Integer> newQueue(OverflowPolicy policy) {
+		TimeSizeFlushQueue<Integer> q = new TimeSizeFlushQueue<Integer>(name.getMethodName(), SIZE_TRIGGER, TIME_TRIGGER, CAPACITY, policy, CODEC, receiver, scheduler, pool);
+		queues.add(q);
+		return q;
+	}
+	
+	/**
+	 * Waits for the receiver to have been flushed the passed number of items
+	 * @param count The number of items to wait for
+	 * @return the flushed items
+	 * @throws InterruptedException thrown if the wait is interrupted
+	 */
+	protected List<Integer> awaitFlushed(int count) throws InterruptedException {
+		final long deadline = System.currentTimeMillis() + 5000;
+		synchronized(flushed) {
+			while(flushed.size()<count) {
+				long wait = deadline - System.currentTimeMillis();
+				if(wait<=0) Assert.fail("Timed out waiting for [" + count + "] flushed items. Flushed:" + flushed);
+				flushed.wait(wait);
+			}
+			return new ArrayList<Integer>(flushed);
+		}
+	}
+	
+	/**
+	 * Returns a list of the integers from the passed start up to the passed end
+	 * @param from The first integer
+	 * @param to The end integer, exclusive
+	 * @return the list of integers
+	 */
+	protected static List<Integer> range(int from, int to) {
+		List<Integer> list = new ArrayList<Integer>(to-from);
+		for(int i = from; i < to; i++) list.add(i);
+		return list;
+	}
+	
+	/**
+	 * Tests that the capacity is raised to fit the size trigger
+	 */
+	@Test
+	public void testCapacityFitsSizeTrigger() {
+		TimeSizeFlushQueue<Integer> q = new TimeSizeFlushQueue<Integer>(name.getMethodName(), 10, TIME_TRIGGER, 4, OverflowPolicy.DROP, null, receiver, scheduler, pool);
+		Assert.assertEquals("The capacity", 12, q.getCapacity());
+	}
+	
+	/**
+	 * Tests that a full queue drops items under {@link OverflowPolicy#DROP} and flushes the queued items in order once the receiver catches up
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testDropWhenFull() throws Exception {
+		TimeSizeFlushQueue<Integer> q = newQueue(OverflowPolicy.DROP);
+		for(int i = 0; i < CAPACITY; i++) {
+			Assert.assertEquals("The enqueue result for [" + i + "]", EnqueueResult.QUEUED, q.enqueue(i));
+		}
+		Assert.assertEquals("The overflow enqueue result", EnqueueResult.DROPPED, q.enqueue(CAPACITY));
+		Assert.assertFalse("The overflow add", q.add(CAPACITY+1));
+		Assert.assertEquals("The drop count", 2, q.getQueueDropCount());
+		Assert.assertEquals("The queue size", CAPACITY, q.getQueueSize());
+		gate.countDown();
+		Assert.assertEquals("The flushed items", range(0, CAPACITY), awaitFlushed(CAPACITY));
+		Assert.assertTrue("The flushes completed", q.awaitFlushes(5000));
+	}
+	
+	/**
+	 * Tests that a full queue waits for space under {@link OverflowPolicy#BLOCK}
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testBlockWaitsForSpace() throws Exception {
+		TimeSizeFlushQueue<Integer> q = newQueue(OverflowPolicy.BLOCK);
+		q.setBlockTimeout(50);
+		for(int i = 0; i < CAPACITY; i++) q.enqueue(i);
+		Assert.assertEquals("The timed out enqueue result", EnqueueResult.DROPPED, q.enqueue(-1));
+		Assert.assertEquals("The drop count", 1, q.getQueueDropCount());
+		q.setBlockTimeout(5000);
+		new Thread("GateOpener") {
+			@Override
+			public void run() {
+				try { Thread.sleep(100); } catch (InterruptedException ie) { /* No Op */ }
+				gate.countDown();
+			}
+		}.start();
+		Assert.assertEquals("The blocked enqueue result", EnqueueResult.DELAYED, q.enqueue(CAPACITY));
+		Assert.assertEquals("The back pressure count", 1, q.getBackPressureCount());
+		Assert.assertEquals("The flush that made space", range(0, CAPACITY), awaitFlushed(CAPACITY));
+		q.run();
+		Assert.assertEquals("The flushed items", range(0, CAPACITY+1), awaitFlushed(CAPACITY+1));
+	}
+	
+	/**
+	 * Tests that a full queue spills items under {@link OverflowPolicy#SPILL}, keeps spilling while spilled items are waiting 
+	 * so insertion order is kept, and flushes the spilled items after the queued ones
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testSpillKeepsOrder() throws Exception {
+		TimeSizeFlushQueue<Integer> q = newQueue(OverflowPolicy.SPILL);
+		for(int i = 0; i < CAPACITY; i++) q.enqueue(i);
+		for(int i = CAPACITY; i < CAPACITY + 5; i++) {
+			Assert.assertEquals("The overflow enqueue result for [" + i + "]", EnqueueResult.SPILLED, q.enqueue(i));
+		}
+		Assert.assertEquals("The spill count", 5, q.getSpillCount());
+		Assert.assertEquals("The spill queue size", 5, q.getSpillQueueSize());
+		Assert.assertEquals("The back pressure count", 5, q.getBackPressureCount());
+		Assert.assertEquals("The drop count", 0, q.getQueueDropCount());
+		q.run();
+		Assert.assertEquals("The first flush", range(0, CAPACITY), awaitFlushed(CAPACITY));
+		Assert.assertEquals("The enqueue result while spilled items wait", EnqueueResult.SPILLED, q.enqueue(CAPACITY + 5));
+		q.run();
+		Assert.assertEquals("The flushed items", range(0, CAPACITY + 6), awaitFlushed(CAPACITY + 6));
+		Assert.assertEquals("The spill queue size after flushing", 0, q.getSpillQueueSize());
+		Assert.assertEquals("The enqueue result after the spill drained", EnqueueResult.QUEUED, q.enqueue(100));
+	}
+	
+	/**
+	 * Tests that stopping a queue cancels the timer, drops the unflushed spilled items and stops spilling
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testStop() throws Exception {
+		TimeSizeFlushQueue<Integer> q = newQueue(OverflowPolicy.SPILL);
+		for(int i = 0; i < CAPACITY + 3; i++) q.enqueue(i);
+		Assert.assertEquals("The spill queue size", 3, q.getSpillQueueSize());
+		q.stop();
+		Assert.assertTrue("Stopped", q.isStopped());
+		Assert.assertEquals("The spill queue size after stop", 0, q.getSpillQueueSize());
+		Assert.assertEquals("The spill drop count", 3, q.getSpillDropCount());
+		Assert.assertEquals("The overflow enqueue result after stop", EnqueueResult.DROPPED, q.enqueue(100));
+		gate.countDown();
+		q.run();
+		Assert.assertEquals("The queued items are still flushed on demand", range(0, CAPACITY), awaitFlushed(CAPACITY));
+		q.stop();
+	}
+	
+	/**
+	 * Tests that a SPILL queue cannot be created without a codec
+	 */
+	@Test(expected=IllegalArgumentException.class)
+	public void testSpillRequiresCodec() {
+		new TimeSizeFlushQueue<Integer>(name.getMethodName(), SIZE_TRIGGER, TIME_TRIGGER, CAPACITY, OverflowPolicy.SPILL, null, receiver, scheduler, pool);
+	}
+}
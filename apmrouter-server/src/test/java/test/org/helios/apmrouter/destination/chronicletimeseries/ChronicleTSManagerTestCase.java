@@ -0,0 +1,365 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package test.org.helios.apmrouter.destination.chronicletimeseries;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.helios.apmrouter.destination.chronicletimeseries.ChronicleTSManager;
+import org.helios.apmrouter.destination.chronicletimeseries.ChronicleTier;
+import org.helios.apmrouter.util.SystemClock;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestName;
+
+/**
+ * <p>Title: ChronicleTSManagerTestCase</p>
+ * <p>Description: Test cases for the merging of rolled live tier periods into the parent tier by the {@link ChronicleTSManager}
+ * and for concurrent updates and reads of the live tier's series.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>test.org.helios.apmrouter.destination.chronicletimeseries.ChronicleTSManagerTestCase</code></p>
+ */
+
+public class ChronicleTSManagerTestCase {
+	/** The time-series config: a 15s live tier rolling up into a 1m tier */
+	public static final String TS_CONFIG = "p=15s,t=10m | p=1m,t=1h";
+	/** The tiers register fixed MBean names so the manager is shared by all the tests */
+	protected static ChronicleTSManager manager = null;
+	/** The manager's thread pool */
+	protected static ExecutorService threadPool = null;
+	/** The live tier */
+	protected static ChronicleTier live = null;
+	/** The live tier's parent */
+	protected static ChronicleTier parent = null;
+	/** A minute aligned base timestamp in the past */
+	protected static final long BASE = SystemClock.period(60000, SystemClock.time()) - 3600000;
+	
+	static {
+		// The chronicle home is resolved from user.home when ChronicleTier loads, so point it at a scratch directory
+		File home = new File(System.getProperty("java.io.tmpdir"), "chronicle-ts-test-" + System.nanoTime());
+		new File(home, ".apmrouter" + File.separator + "h2").mkdirs();
+		System.setProperty("user.home", home.getAbsolutePath());
+	}
+	
+	/**
+	 * StdOut log
+	 * @param obj The message to log
+	 */
+	protected static void log(Object obj) {
+		System.out.println(obj);
+	}
+	/**
+	 * StdErr log
+	 * @param obj The message to log
+	 */
+	protected static void loge(Object obj) {
+		System.err.println(obj);
+	}
+	/** The currently executing test name */
+	@Rule public final TestName name = new TestName();
+
+	/**
+	 * Prints the test name about to be executed
+	 */
+	@Before
+	public void printTestName() {
+		log("\n\t==================================\n\tRunning Test [" + name.getMethodName() + "]\n\t==================================\n");
+	}
+	
+	/**
+	 * Creates the shared manager
+	 */
+	@BeforeClass
+	public static void createManager() {
+		threadPool = Executors.newCachedThreadPool(new ThreadFactory(){
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "ChronicleTSManagerTestCaseThread");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		manager = new ChronicleTSManager(TS_CONFIG);
+		manager.setExecutorService(threadPool);
+		live = manager.getLiveTier();
+		parent = manager.getTier("t1");
+		Assert.assertNotNull("The parent tier", parent);
+	}
+	
+	/**
+	 * Stops the shared manager
+	 */
+	@AfterClass
+	public static void stopManager() {
+		if(manager.isStarted()) manager.stop();
+		threadPool.shutdownNow();
+	}
+	
+	/**
+	 * Adds a value to a new live tier metric for each of the passed number of consecutive live periods starting at {@link #BASE},
+	 * so <b><code>periods-1</code></b> live periods are rolled
+	 * @param metricId The metric ID
+	 * @param periods The number of periods to add a value to
+	 */
+	protected static void addPeriods(long metricId, int periods) {
+		for(int i = 0; i < periods; i++) {
+			live.addValue(metricId, BASE + (i * live.getPeriodDurationMs()), i);
+		}
+	}
+	
+	/**
+	 * Tests that completed live periods are merged into the parent tier's period, 
+	 * and that the completed parent period carries the min, max, count weighted average and count of all the merged values
+	 */
+	@Test
+	public void testCompletedPeriodMergedIntoParent() {
+		Assert.assertFalse("The manager is stopped so rollups are merged inline", manager.isStarted());
+		final long id = live.createNewMetric();
+		final long rollups = parent.getRollupCount();
+		live.addValue(id, BASE + 1000, 10);
+		live.addValue(id, BASE + 2000, 30);
+		live.addValue(id, BASE + 3000, 20);
+		Assert.assertNull("The current period was updated", live.addValue(id, BASE + 4000, 20));
+		long[] rolled = live.addValue(id, BASE + 15000, 40);
+		Assert.assertNotNull("The first live period rolled", rolled);
+		Assert.assertArrayEquals("The rolled live period", new long[]{BASE, 10, 30, 20, 4}, rolled);
+		live.addValue(id, BASE + 16000, 60);
+		// Rolls the second live period into the parent's current period
+		live.addValue(id, BASE + 60000, 1);
+		Assert.assertTrue("The parent's current period is not yet complete", parent.getValues(id).isEmpty());
+		// Rolls the third live period into the parent's next period, completing the first
+		live.addValue(id, BASE + 75000, 1);
+		Assert.assertEquals("The parent rollup count", 3, parent.getRollupCount() - rollups);
+		List<long[]> completed = parent.getValues(id);
+		Assert.assertEquals("The completed parent periods", 1, completed.size());
+		long[] period = completed.get(0);
+		Assert.assertEquals("The parent period", BASE, period[ChronicleTier.PERIOD]);
+		Assert.assertEquals("The parent min", 10, period[ChronicleTier.MIN]);
+		Assert.assertEquals("The parent max", 60, period[ChronicleTier.MAX]);
+		Assert.assertEquals("The parent avg", (20 * 4 + 50 * 2) / 6, period[ChronicleTier.AVG]);
+		Assert.assertEquals("The parent count", 6, period[ChronicleTier.CNT]);
+	}
+	
+	/**
+	 * Tests that rolled periods are dropped and counted when the rollup queue is full.
+	 * The rollup thread is parked on the parent tier's monitor, which it needs to create the new metric's entry.
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testRollupDroppedWhenQueueFull() throws Exception {
+		manager.setRollupQueueSize(2);
+		manager.start();
+		final long id = live.createNewMetric();
+		final long queued = manager.getQueuedRollups();
+		final long dropped = manager.getDroppedRollups();
+		final long rollups = parent.getRollupCount();
+		try {
+			synchronized(parent) {
+				// 5 rolls: 1 taken by the parked rollup thread, 2 queued, 2 dropped 
+				addPeriods(id, 6);
+				Assert.assertEquals("The queued rollups", 3, manager.getQueuedRollups() - queued);
+				Assert.assertEquals("The dropped rollups", 2, manager.getDroppedRollups() - dropped);
+			}
+		} finally {
+			manager.stop();
+		}
+		Assert.assertEquals("The merged rollups", 3, parent.getRollupCount() - rollups);
+		Assert.assertEquals("The rollup errors", 0, manager.getRollupErrors());
+	}
+	
+	/**
+	 * Tests that stopping the manager waits for the queued rollups to be merged into the parent tier
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testStopWaitsForQueuedRollups() throws Exception {
+		final int rolls = 20;
+		manager.setRollupQueueSize(1024);
+		manager.start();
+		final long id = live.createNewMetric();
+		final long queued = manager.getQueuedRollups();
+		final long rollups = parent.getRollupCount();
+		final long lateRollups = parent.getLateRollupCount();
+		final AtomicReference<Throwable> stopError = new AtomicReference<Throwable>(null);
+		Thread stopper = new Thread("ChronicleTSManagerStopper") {
+			@Override
+			public void run() {
+				try {
+					manager.stop();
+				} catch (Throwable t) {
+					stopError.set(t);
+				}
+			}
+		};
+		stopper.setDaemon(true);
+		synchronized(parent) {
+			addPeriods(id, rolls + 1);
+			Assert.assertEquals("The queued rollups", rolls, manager.getQueuedRollups() - queued);
+			stopper.start();
+			stopper.join(500);
+			Assert.assertTrue("The stop is waiting on the queued rollups", stopper.isAlive());
+			Assert.assertEquals("No rollups were merged while parked", 0, parent.getRollupCount() - rollups);
+		}
+		stopper.join(30000);
+		Assert.assertFalse("The stop completed", stopper.isAlive());
+		Assert.assertNull("The stop error", stopError.get());
+		Assert.assertEquals("The merged rollups", rolls, parent.getRollupCount() - rollups);
+		Assert.assertEquals("The late rollups", 0, parent.getLateRollupCount() - lateRollups);
+		Assert.assertEquals("The pending rollups", 0, manager.getPendingRollups());
+		long total = 0;
+		for(long[] period: parent.getValues(id)) {
+			total += period[ChronicleTier.CNT];
+		}
+		// 20 live periods fall into 5 parent periods, the last of which is still current
+		Assert.assertEquals("The values in the completed parent periods", rolls - 4, total);
+	}
+	
+	/**
+	 * Tests that concurrent writers updating the same live tier series through {@link ChronicleTier#addValue(long, long, long)}
+	 * never expose a torn period to a concurrent reader, and that no values are lost.
+	 * The writers advance through the periods together, writing values in the range <b><code>[p*1000, p*1000 + writers*values)</code></b> 
+	 * into period <b><code>p</code></b>, so every completed period a reader sees must hold exactly that range.
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testConcurrentWritersAndReader() throws Exception {
+		final int writers = 4;
+		final int values = 50;
+		final int periods = 30;
+		final int perPeriod = writers * values;
+		final long[] ids = new long[]{live.createNewMetric(), live.createNewMetric(), live.createNewMetric()};
+		final long duration = live.getPeriodDurationMs();
+		final CyclicBarrier barrier = new CyclicBarrier(writers);
+		final AtomicBoolean writing = new AtomicBoolean(true);
+		final AtomicReference<String> failure = new AtomicReference<String>(null);
+		final AtomicLong reads = new AtomicLong(0);
+		Thread[] threads = new Thread[writers];
+		for(int w = 0; w < writers; w++) {
+			final int writer = w;
+			threads[w] = new Thread("ChronicleTierWriter#" + w) {
+				@Override
+				public void run() {
+					try {
+						for(int p = 0; p < periods; p++) {
+							final long ts = BASE + (p * duration);
+							for(int v = 0; v < values; v++) {
+								for(long id: ids) {
+									live.addValue(id, ts + v, (p * 1000) + (writer * values) + v);
+								}
+							}
+							barrier.await(10, TimeUnit.SECONDS);
+						}
+					} catch (Throwable t) {
+						failure.compareAndSet(null, "Writer failed:" + t);
+					}
+				}
+			};
+			threads[w].setDaemon(true);
+		}
+		Thread reader = new Thread("ChronicleTierReader") {
+			@Override
+			public void run() {
+				final long[] buffer = new long[live.getPeriodCount() * 5];
+				while(writing.get() && failure.get()==null) {
+					for(long id: ids) {
+						int cnt = live.readPeriods(id, BASE, buffer);
+						String torn = checkPeriods(buffer, cnt, duration, perPeriod);
+						if(torn==null) {
+							List<long[]> read = live.getValues(id);
+							long[] flat = new long[read.size() * 5];
+							for(int i = 0; i < read.size(); i++) {
+								// getValues returns the newest first 
+								System.arraycopy(read.get(i), 0, flat, (read.size() - 1 - i) * 5, 5);
+							}
+							torn = checkPeriods(flat, read.size(), duration, perPeriod);
+						}
+						if(torn!=null) failure.compareAndSet(null, "Metric [" + id + "]:" + torn);
+						reads.incrementAndGet();
+					}
+				}
+			}
+		};
+		reader.setDaemon(true);
+		reader.start();
+		for(Thread t: threads) t.start();
+		for(Thread t: threads) t.join(60000);
+		writing.set(false);
+		reader.join(10000);
+		Assert.assertNull(failure.get(), failure.get());
+		Assert.assertTrue("The reader made reads", reads.get() > 0);
+		final long[] buffer = new long[live.getPeriodCount() * 5];
+		for(long id: ids) {
+			// Completes the last period
+			live.addValue(id, BASE + (periods * duration), 0);
+			int cnt = live.readPeriods(id, BASE, buffer);
+			Assert.assertEquals("The completed periods for [" + id + "]", periods, cnt);
+			Assert.assertNull(checkPeriods(buffer, cnt, duration, perPeriod));
+			long total = 0;
+			for(int i = 0; i < cnt; i++) {
+				total += buffer[(i * 5) + ChronicleTier.CNT];
+			}
+			Assert.assertEquals("The total values for [" + id + "]", periods * perPeriod, total);
+		}
+	}
+	
+	/**
+	 * Checks the completed periods read by {@link #testConcurrentWritersAndReader()}
+	 * @param buffer The periods, oldest first
+	 * @param cnt The number of periods in the buffer
+	 * @param duration The period duration in ms.
+	 * @param perPeriod The number of values written into each period
+	 * @return a description of the first inconsistent period or null if they are all consistent
+	 */
+	protected static String checkPeriods(long[] buffer, int cnt, long duration, int perPeriod) {
+		long prior = Long.MIN_VALUE;
+		for(int i = 0; i < cnt; i++) {
+			final int offset = i * 5;
+			final long period = buffer[offset + ChronicleTier.PERIOD];
+			final long p = (period - BASE) / duration;
+			final long min = buffer[offset + ChronicleTier.MIN], max = buffer[offset + ChronicleTier.MAX];
+			final long avg = buffer[offset + ChronicleTier.AVG], count = buffer[offset + ChronicleTier.CNT];
+			if(period <= prior || (period - BASE) % duration != 0
+				|| count != perPeriod || min != p * 1000 || max != (p * 1000) + perPeriod - 1 || avg < min || avg > max) {
+				return "Torn period at [" + i + "/" + cnt + "]: {" + period + "," + min + "," + max + "," + avg + "," + count + "}";
+			}
+			prior = period;
+		}
+		return null;
+	}
+
+}
@@ -0,0 +1,116 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package test.org.helios.apmrouter.destination.chronicletimeseries;
+
+import org.helios.apmrouter.destination.chronicletimeseries.EntryHeaderColumns;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestName;
+
+/**
+ * <p>Title: EntryHeaderColumnsTestCase</p>
+ * <p>Description: Test cases for {@link EntryHeaderColumns}</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>test.org.helios.apmrouter.destination.chronicletimeseries.EntryHeaderColumnsTestCase</code></p>
+ */
+
+public class EntryHeaderColumnsTestCase {
+	
+	/**
+	 * StdOut log
+	 * @param obj The message to log
+	 */
+	protected static void log(Object obj) {
+		System.out.println(obj);
+	}
+	/**
+	 * StdErr log
+	 * @param obj The message to log
+	 */
+	protected static void loge(Object obj) {
+		System.err.println(obj);
+	}
+	/** The currently executing test name */
+	@Rule public final TestName name = new TestName();
+
+	/**
+	 * Prints the test name about to be executed
+	 */
+	@Before
+	public void printTestName() {
+		log("\n\t==================================\n\tRunning Test [" + name.getMethodName() + "]\n\t==================================\n");
+	}
+	
+	/**
+	 * Tests that the period and status columns are set together and independently
+	 */
+	@Test
+	public void testSetAndGet() {
+		EntryHeaderColumns columns = new EntryHeaderColumns();
+		columns.set(10, 1000L, (byte)1);
+		Assert.assertEquals("The period", 1000L, columns.getPeriod(10));
+		Assert.assertEquals("The status", 1, columns.getStatus(10));
+		columns.setPeriod(10, 2000L);
+		Assert.assertEquals("The updated period", 2000L, columns.getPeriod(10));
+		Assert.assertEquals("The status after a period update", 1, columns.getStatus(10));
+		columns.setStatus(10, (byte)2);
+		Assert.assertEquals("The updated status", 2, columns.getStatus(10));
+		Assert.assertEquals("The period after a status update", 2000L, columns.getPeriod(10));
+		Assert.assertEquals("The period of an unset entry in an allocated page", 0L, columns.getPeriod(11));
+	}
+	
+	/**
+	 * Tests that pages are allocated as the index grows, including any pages before it, and that missing pages read as -1
+	 */
+	@Test
+	public void testPageGrowth() {
+		EntryHeaderColumns columns = new EntryHeaderColumns();
+		Assert.assertEquals("The initial page count", 0, columns.getPageCount());
+		Assert.assertEquals("The period of a missing page", -1L, columns.getPeriod(0));
+		Assert.assertEquals("The status of a missing page", -1, columns.getStatus(0));
+		Assert.assertEquals("Reads allocate no pages", 0, columns.getPageCount());
+		final long index = 2L * EntryHeaderColumns.PAGE_SIZE + 7;
+		columns.set(index, 3000L, (byte)3);
+		Assert.assertEquals("The page count", 3, columns.getPageCount());
+		Assert.assertEquals("The allocated bytes", 3L * EntryHeaderColumns.PAGE_BYTES, columns.getAllocatedBytes());
+		Assert.assertEquals("The period in the last page", 3000L, columns.getPeriod(index));
+		Assert.assertEquals("The status in the last page", 3, columns.getStatus(index));
+		Assert.assertEquals("The period in a preceding page", 0L, columns.getPeriod(EntryHeaderColumns.PAGE_SIZE));
+		columns.set(EntryHeaderColumns.PAGE_SIZE - 1, 4000L, (byte)4);
+		Assert.assertEquals("The period at the end of the first page", 4000L, columns.getPeriod(EntryHeaderColumns.PAGE_SIZE - 1));
+		Assert.assertEquals("The page count after setting an earlier index", 3, columns.getPageCount());
+	}
+	
+	/**
+	 * Tests that a negative index is rejected
+	 */
+	@Test(expected=IllegalArgumentException.class)
+	public void testNegativeIndex() {
+		new EntryHeaderColumns().set(-1, 0L, (byte)0);
+	}
+}
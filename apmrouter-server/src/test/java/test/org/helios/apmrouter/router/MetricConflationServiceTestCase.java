@@ -0,0 +1,388 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package test.org.helios.apmrouter.router;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.helios.apmrouter.metric.ICEMetric;
+import org.helios.apmrouter.metric.IMetric;
+import org.helios.apmrouter.metric.MetricType;
+import org.helios.apmrouter.metric.catalog.ICEMetricCatalog;
+import org.helios.apmrouter.metric.catalog.IDelegateMetric;
+import org.helios.apmrouter.router.MetricConflationService;
+import org.helios.apmrouter.router.PatternRouter;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestName;
+
+/**
+ * <p>Title: MetricConflationServiceTestCase</p>
+ * <p>Description: Test cases for the striped time slot ring and the drain workers of {@link MetricConflationService}</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>test.org.helios.apmrouter.router.MetricConflationServiceTestCase</code></p>
+ */
+
+public class MetricConflationServiceTestCase {
+	/** The conflation period used by the tests */
+	public static final long PERIOD = 1000;
+	/** The start time of the test clock, at the start of a period */
+	public static final long START = PERIOD * 1000;
+	/** The test metric host */
+	public static final String HOST = "conflation-host";
+	/** The test metric agent */
+	public static final String AGENT = "conflation-agent";
+	/** The conflation service under test */
+	protected TestConflationService service = null;
+	/** The router receiving the forwarded metrics */
+	protected TestRouter router = null;
+	
+	/**
+	 * StdOut log
+	 * @param obj The message to log
+	 */
+	protected static void log(Object obj) {
+		System.out.println(obj);
+	}
+	/**
+	 * StdErr log
+	 * @param obj The message to log
+	 */
+	protected static void loge(Object obj) {
+		System.err.println(obj);
+	}
+	/** The currently executing test name */
+	@Rule public final TestName name = new TestName();
+
+	/**
+	 * Prints the test name about to be executed
+	 */
+	@Before
+	public void printTestName() {
+		log("\n\t==================================\n\tRunning Test [" + name.getMethodName() + "]\n\t==================================\n");
+	}
+	
+	/**
+	 * Stops the service started by the test
+	 */
+	@After
+	public void tearDown() {
+		if(service!=null) service.stop();
+		service = null;
+		router = null;
+	}
+	
+	/**
+	 * <p>Title: TestRouter</p>
+	 * <p>Description: A router that captures the metrics forwarded by the conflation service</p> 
+	 * <p>Company: Helios Development Group LLC</p>
+	 * @author Whitehead (nwhitehead AT heliosdev DOT org)
+	 * <p><code>test.org.helios.apmrouter.router.MetricConflationServiceTestCase.TestRouter</code></p>
+	 */
+	protected static class TestRouter extends PatternRouter {
+		/** The forwarded metrics */
+		protected final List<IMetric> forwarded = new ArrayList<IMetric>();
+		
+		@Override
+		protected void routeConflated(List<IMetric> metrics) {
+			synchronized(forwarded) {
+				forwarded.addAll(metrics);
+				forwarded.notifyAll();
+			}
+		}
+		
+		/**
+		 * Waits for the passed number of metrics to be forwarded
+		 * @param count The number of forwarded metrics to wait for
+		 * @return a copy of the forwarded metrics
+		 */
+		protected List<IMetric> await(int count) {
+			long deadline = System.currentTimeMillis() + 5000;
+			synchronized(forwarded) {
+				while(forwarded.size()<count) {
+					long wait = deadline - System.currentTimeMillis();
+					if(wait<=0) Assert.fail("Timed out waiting for [" + count + "] forwarded metrics. Forwarded:" + forwarded);
+					try { forwarded.wait(wait); } catch (InterruptedException ie) { throw new RuntimeException(ie); }
+				}
+				return new ArrayList<IMetric>(forwarded);
+			}
+		}
+		
+		/**
+		 * Returns the number of forwarded metrics
+		 * @return the number of forwarded metrics
+		 */
+		protected int size() {
+			synchronized(forwarded) {
+				return forwarded.size();
+			}
+		}
+	}
+	
+	/**
+	 * <p>Title: TestConflationService</p>
+	 * <p>Description: A conflation service with a test controlled clock</p> 
+	 * <p>Company: Helios Development Group LLC</p>
+	 * @author Whitehead (nwhitehead AT heliosdev DOT org)
+	 * <p><code>test.org.helios.apmrouter.router.MetricConflationServiceTestCase.TestConflationService</code></p>
+	 */
+	protected static class TestConflationService extends MetricConflationService {
+		/** The current test time */
+		protected volatile long time = START;
+		
+		@Override
+		protected long now() {
+			return time;
+		}
+		
+		/**
+		 * Advances the test clock
+		 * @param ms The number of ms. to advance by
+		 */
+		protected void advance(long ms) {
+			time += ms;
+		}
+		
+		/**
+		 * Starts the service
+		 * @throws Exception thrown on any error starting the service
+		 */
+		protected void start() throws Exception {
+			doStart();
+		}
+		
+		/**
+		 * Stops the service
+		 */
+		protected void stop() {
+			doStop();
+		}
+		
+		/**
+		 * Returns the number of metrics that were dropped because a stripe was full
+		 * @return the number of dropped metrics
+		 */
+		protected long dropped() {
+			return getMetricsDropped();
+		}
+	}
+	
+	/**
+	 * Creates and starts a conflation service
+	 * @param stripeCount The number of lock stripes per time slot
+	 * @param maxQueueSize The maximum number of distinct metrics per time slot
+	 * @param workerThreads The number of drain workers
+	 * @throws Exception thrown on any error starting the service
+	 */
+	protected void start(int stripeCount, int maxQueueSize, int workerThreads) throws Exception {
+		router = new TestRouter();
+		service = new TestConflationService();
+		service.setRouter(router);
+		service.setConflationPeriod(PERIOD);
+		service.setStripeCount(stripeCount);
+		service.setMaxQueueSize(maxQueueSize);
+		service.setWorkerThreads(workerThreads);
+		service.start();
+	}
+	
+	/**
+	 * Returns the metric ID for the passed name and type
+	 * @param metricName The metric name
+	 * @param type The metric type
+	 * @return the metric ID
+	 */
+	protected static IDelegateMetric id(String metricName, MetricType type) {
+		return ICEMetricCatalog.getInstance().get(HOST, AGENT, metricName, type, "conflation");
+	}
+	
+	/**
+	 * Creates a long metric sample
+	 * @param time The sample timestamp
+	 * @param value The sample value
+	 * @param type The metric type
+	 * @param dmetric The metric ID
+	 * @return the metric sample
+	 */
+	protected static IMetric sample(long time, long value, MetricType type, IDelegateMetric dmetric) {
+		return ICEMetric.newMetric(time, value, type, dmetric);
+	}
+	
+	/**
+	 * Returns the forwarded metric with the passed metric ID
+	 * @param metrics The forwarded metrics
+	 * @param dmetric The metric ID
+	 * @return the forwarded metric
+	 */
+	protected static IMetric find(List<IMetric> metrics, IDelegateMetric dmetric) {
+		for(IMetric metric: metrics) {
+			if(metric.getMetricId()==dmetric || dmetric.equals(metric.getMetricId())) return metric;
+		}
+		Assert.fail("No forwarded metric for [" + dmetric + "] in " + metrics);
+		return null;
+	}
+	
+	/**
+	 * Tests that samples of one metric in one time slot are conflated into one forwarded metric:
+	 * counters are summed, gauges are averaged and the latest timestamp is kept
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testSlotAggregation() throws Exception {
+		start(4, 1000, 1);
+		IDelegateMetric counter = id("counter", MetricType.LONG_COUNTER);
+		IDelegateMetric gauge = id("gauge", MetricType.LONG_GAUGE);
+		service.queue(
+			sample(START + 30, 5, MetricType.LONG_COUNTER, counter),
+			sample(START + 10, 7, MetricType.LONG_COUNTER, counter),
+			sample(START + 20, 9, MetricType.LONG_COUNTER, counter),
+			sample(START + 10, 10, MetricType.LONG_GAUGE, gauge),
+			sample(START + 40, 20, MetricType.LONG_GAUGE, gauge)
+		);
+		Assert.assertEquals("The pending metrics", 2, service.getQueueSize());
+		Thread.sleep(200);
+		Assert.assertEquals("The metrics forwarded before the period elapsed", 0, router.size());
+		service.advance(PERIOD);
+		List<IMetric> forwarded = router.await(2);
+		Assert.assertEquals("The forwarded metrics", 2, forwarded.size());
+		IMetric c = find(forwarded, counter);
+		Assert.assertEquals("The counter type", MetricType.LONG_COUNTER, c.getType());
+		Assert.assertEquals("The counter sum", 21, c.getLongValue());
+		Assert.assertEquals("The counter time", START + 30, c.getTime());
+		IMetric g = find(forwarded, gauge);
+		Assert.assertEquals("The gauge type", MetricType.LONG_GAUGE, g.getType());
+		Assert.assertEquals("The gauge average", 15, g.getLongValue());
+		Assert.assertEquals("The gauge time", START + 40, g.getTime());
+		Assert.assertEquals("The pending metrics after the drain", 0, service.getQueueSize());
+	}
+	
+	/**
+	 * Tests that samples queued in consecutive periods go to different time slots and are forwarded separately, 
+	 * each once its own period has elapsed
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testSlotRollover() throws Exception {
+		start(4, 1000, 1);
+		IDelegateMetric counter = id("rollover", MetricType.LONG_COUNTER);
+		service.queue(sample(START, 1, MetricType.LONG_COUNTER, counter), sample(START, 2, MetricType.LONG_COUNTER, counter));
+		service.advance(PERIOD);
+		service.queue(sample(START + PERIOD, 10, MetricType.LONG_COUNTER, counter));
+		List<IMetric> forwarded = router.await(1);
+		Assert.assertEquals("The first period's sum", 3, forwarded.get(0).getLongValue());
+		Thread.sleep(200);
+		Assert.assertEquals("The metrics forwarded before the second period elapsed", 1, router.size());
+		Assert.assertEquals("The pending metrics", 1, service.getQueueSize());
+		service.advance(PERIOD);
+		forwarded = router.await(2);
+		Assert.assertEquals("The forwarded metrics", 2, forwarded.size());
+		Assert.assertEquals("The second period's sum", 10, forwarded.get(1).getLongValue());
+		Assert.assertEquals("The second period's time", START + PERIOD, forwarded.get(1).getTime());
+	}
+	
+	/**
+	 * Tests that metrics that cannot be conflated are forwarded immediately and as is
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testUnconflatableForwarded() throws Exception {
+		start(4, 1000, 1);
+		IDelegateMetric counter = id("mismatch", MetricType.LONG_COUNTER);
+		IMetric string = ICEMetric.trace("Hello", HOST, AGENT, "string", MetricType.STRING, "conflation");
+		IMetric mismatch = sample(START, 4, MetricType.LONG_GAUGE, counter);
+		service.queue(sample(START, 3, MetricType.LONG_COUNTER, counter), string, mismatch);
+		List<IMetric> forwarded = router.await(2);
+		Assert.assertSame("The forwarded string metric", string, forwarded.get(0));
+		Assert.assertSame("The forwarded type mismatch", mismatch, forwarded.get(1));
+		Assert.assertEquals("The pending metrics", 1, service.getQueueSize());
+	}
+	
+	/**
+	 * Tests that metrics queued while the service is stopped are forwarded as is
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testForwardedWhenStopped() throws Exception {
+		start(4, 1000, 1);
+		service.stop();
+		IMetric metric = sample(START, 3, MetricType.LONG_COUNTER, id("stopped", MetricType.LONG_COUNTER));
+		service.queue(metric);
+		List<IMetric> forwarded = router.await(1);
+		Assert.assertSame("The forwarded metric", metric, forwarded.get(0));
+	}
+	
+	/**
+	 * Tests that new metrics are dropped once a stripe is full while samples of the queued metrics are still conflated
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testFullStripeDrops() throws Exception {
+		start(1, 16, 1);
+		List<IMetric> samples = new ArrayList<IMetric>();
+		for(int i = 0; i < 20; i++) {
+			samples.add(sample(START, i, MetricType.LONG_COUNTER, id("full" + i, MetricType.LONG_COUNTER)));
+		}
+		service.queue(samples.toArray(new IMetric[samples.size()]));
+		Assert.assertEquals("The pending metrics", 16, service.getQueueSize());
+		Assert.assertEquals("The dropped metrics", 4, service.dropped());
+		service.queue(samples.get(0));
+		Assert.assertEquals("The dropped metrics after a conflated sample", 4, service.dropped());
+		service.advance(PERIOD);
+		Assert.assertEquals("The forwarded metrics", 16, router.await(16).size());
+	}
+	
+	/**
+	 * Tests that multiple drain workers forward each conflated metric exactly once
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testDrainWorkersForwardOnce() throws Exception {
+		start(8, 4096, 3);
+		IMetric[] samples = new IMetric[500];
+		Set<IDelegateMetric> ids = new HashSet<IDelegateMetric>();
+		for(int i = 0; i < samples.length; i++) {
+			IDelegateMetric dmetric = id("worker" + i, MetricType.LONG_COUNTER);
+			ids.add(dmetric);
+			samples[i] = sample(START, 1, MetricType.LONG_COUNTER, dmetric);
+		}
+		service.queue(samples);
+		service.queue(samples);
+		service.advance(PERIOD);
+		List<IMetric> forwarded = router.await(samples.length);
+		Thread.sleep(200);
+		Assert.assertEquals("The forwarded metrics", samples.length, router.size());
+		Set<IDelegateMetric> forwardedIds = new HashSet<IDelegateMetric>();
+		for(IMetric metric: forwarded) {
+			Assert.assertTrue("The metric was forwarded once [" + metric + "]", forwardedIds.add(metric.getMetricId()));
+			Assert.assertEquals("The conflated sum of [" + metric + "]", 2, metric.getLongValue());
+		}
+		Assert.assertEquals("The forwarded metric IDs", ids, forwardedIds);
+	}
+}
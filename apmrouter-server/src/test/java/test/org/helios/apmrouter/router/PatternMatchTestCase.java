@@ -0,0 +1,170 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package test.org.helios.apmrouter.router;
+
+import org.helios.apmrouter.router.PatternMatch;
+import org.helios.apmrouter.router.PatternMatch.PatternMatchGroup;
+import org.helios.apmrouter.router.PatternMatchCache;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestName;
+
+/**
+ * <p>Title: PatternMatchTestCase</p>
+ * <p>Description: Test cases for {@link PatternMatch} and its bounded {@link PatternMatchCache}</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>test.org.helios.apmrouter.router.PatternMatchTestCase</code></p>
+ */
+
+public class PatternMatchTestCase {
+	/** The value returned by {@link PatternMatchCache#get(long, String)} when no result is cached */
+	static final byte EMPTY = 0;
+	/** The value returned by {@link PatternMatchCache#get(long, String)} for a cached miss */
+	static final byte MISS = 1;
+	/** The value returned by {@link PatternMatchCache#get(long, String)} for a cached hit */
+	static final byte HIT = 2;
+	
+	/**
+	 * StdOut log
+	 * @param obj The message to log
+	 */
+	protected static void log(Object obj) {
+		System.out.println(obj);
+	}
+	/**
+	 * StdErr log
+	 * @param obj The message to log
+	 */
+	protected static void loge(Object obj) {
+		System.err.println(obj);
+	}
+	/** The currently executing test name */
+	@Rule public final TestName name = new TestName();
+
+	/**
+	 * Prints the test name about to be executed
+	 */
+	@Before
+	public void printTestName() {
+		log("\n\t==================================\n\tRunning Test [" + name.getMethodName() + "]\n\t==================================\n");
+	}
+	
+	/**
+	 * Tests that the capacity is rounded up to a power of 2 multiple of the bucket size
+	 */
+	@Test
+	public void testCapacityRounding() {
+		Assert.assertEquals("The capacity for 1", PatternMatchCache.WAYS, new PatternMatchCache(1).getCapacity());
+		Assert.assertEquals("The capacity for 10", PatternMatchCache.WAYS*2, new PatternMatchCache(10).getCapacity());
+		Assert.assertEquals("The capacity for 8192", 8192, new PatternMatchCache(8192).getCapacity());
+	}
+	
+	/**
+	 * Tests that cached hits and misses are returned and counted
+	 */
+	@Test
+	public void testGetAndPut() {
+		PatternMatchCache cache = new PatternMatchCache(64);
+		Assert.assertEquals("The uncached result", EMPTY, cache.get(1L, "a"));
+		cache.put(1L, "a", true);
+		cache.put(2L, "b", false);
+		Assert.assertEquals("The cached hit", HIT, cache.get(1L, "a"));
+		Assert.assertEquals("The cached miss", MISS, cache.get(2L, "b"));
+		Assert.assertEquals("The hit count", 1, cache.count(true));
+		Assert.assertEquals("The miss count", 1, cache.count(false));
+		Assert.assertEquals("The lookup hits", 2, cache.getHits());
+		Assert.assertEquals("The lookup misses", 1, cache.getMisses());
+		cache.put(1L, "a", false);
+		Assert.assertEquals("The replaced result", MISS, cache.get(1L, "a"));
+		Assert.assertEquals("The hit count after replacing", 0, cache.count(true));
+	}
+	
+	/**
+	 * Tests that a hash code collision is treated as a miss rather than returning another value's result
+	 */
+	@Test
+	public void testCollisionIsMiss() {
+		PatternMatchCache cache = new PatternMatchCache(64);
+		cache.put(5L, "a", true);
+		Assert.assertEquals("The colliding lookup", EMPTY, cache.get(5L, "b"));
+		Assert.assertEquals("The collisions", 1, cache.getCollisions());
+		cache.put(5L, "b", false);
+		Assert.assertEquals("The first value", HIT, cache.get(5L, "a"));
+		Assert.assertEquals("The second value", MISS, cache.get(5L, "b"));
+	}
+	
+	/**
+	 * Tests that a full bucket evicts the results that were not read since the last sweep
+	 */
+	@Test
+	public void testClockEvictsUnreferenced() {
+		PatternMatchCache cache = new PatternMatchCache(PatternMatchCache.WAYS);
+		final int ways = PatternMatchCache.WAYS;
+		for(int i = 0; i < ways; i++) cache.put(i, "v" + i, true);
+		for(int i = 0; i < ways/2; i++) Assert.assertEquals("The referenced result", HIT, cache.get(i, "v" + i));
+		for(int i = ways; i < ways + ways/2; i++) cache.put(i, "v" + i, false);
+		Assert.assertEquals("The evictions", ways/2, cache.getEvictions());
+		for(int i = 0; i < ways/2; i++) Assert.assertEquals("The referenced result survived", HIT, cache.get(i, "v" + i));
+		for(int i = ways/2; i < ways; i++) Assert.assertEquals("The unreferenced result was evicted", EMPTY, cache.get(i, "v" + i));
+		for(int i = ways; i < ways + ways/2; i++) Assert.assertEquals("The new result", MISS, cache.get(i, "v" + i));
+	}
+	
+	/**
+	 * Tests that a pattern match caches its results and stays bounded when it sees many distinct values
+	 */
+	@Test
+	public void testPatternMatchBounded() {
+		PatternMatch pm = PatternMatch.getInstance(".*/" + name.getMethodName() + "/.*");
+		Assert.assertSame("The shared instance", pm, PatternMatch.getInstance(pm.getPatternValue()));
+		Assert.assertTrue("The match", pm.matches("host/" + name.getMethodName() + "/x"));
+		Assert.assertTrue("The cached match", pm.matches("host/" + name.getMethodName() + "/x"));
+		Assert.assertFalse("The null match", pm.matches(null));
+		Assert.assertEquals("The cache hits", 1, pm.getCache().getHits());
+		final int capacity = pm.getCache().getCapacity();
+		for(int i = 0; i < capacity * 3; i++) {
+			Assert.assertFalse("The non match", pm.matches("host/other/" + i));
+		}
+		Assert.assertTrue("The cache is bounded", pm.getHitCount() + pm.getMissCount() <= capacity);
+		Assert.assertTrue("The evictions", pm.getCache().getEvictions() > 0);
+	}
+	
+	/**
+	 * Tests that a group matches if any of its patterns match and aggregates its patterns' cache stats
+	 */
+	@Test
+	public void testPatternMatchGroup() {
+		PatternMatchGroup group = PatternMatch.newPatternMatchGroup(".*" + name.getMethodName() + "foo", ".*" + name.getMethodName() + "bar", null);
+		Assert.assertEquals("The group size", 2, group.size());
+		Assert.assertTrue("The first pattern", group.matches("x" + name.getMethodName() + "foo"));
+		Assert.assertTrue("The second pattern", group.matches("x" + name.getMethodName() + "bar"));
+		Assert.assertFalse("No pattern", group.matches("x" + name.getMethodName() + "snafu"));
+		Assert.assertTrue("The group cache misses", group.getCacheMisses() >= 3);
+		Assert.assertTrue("The cached group match", group.matches("x" + name.getMethodName() + "foo"));
+		Assert.assertTrue("The group cache hits", group.getCacheHits() >= 1);
+	}
+}
@@ -0,0 +1,280 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package test.org.helios.apmrouter.router;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import org.helios.apmrouter.metric.IMetric;
+import org.helios.apmrouter.router.ConflatingRouteDestination;
+import org.helios.apmrouter.router.RouteDestination;
+import org.helios.apmrouter.router.RouteTable;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestName;
+
+/**
+ * <p>Title: RouteTableTestCase</p>
+ * <p>Description: Test cases for {@link RouteTable}</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>test.org.helios.apmrouter.router.RouteTableTestCase</code></p>
+ */
+
+public class RouteTableTestCase {
+	
+	/**
+	 * StdOut log
+	 * @param obj The message to log
+	 */
+	protected static void log(Object obj) {
+		System.out.println(obj);
+	}
+	/**
+	 * StdErr log
+	 * @param obj The message to log
+	 */
+	protected static void loge(Object obj) {
+		System.err.println(obj);
+	}
+	/** The currently executing test name */
+	@Rule public final TestName name = new TestName();
+
+	/**
+	 * Prints the test name about to be executed
+	 */
+	@Before
+	public void printTestName() {
+		log("\n\t==================================\n\tRunning Test [" + name.getMethodName() + "]\n\t==================================\n");
+	}
+	
+	/**
+	 * Creates a metric stub with the passed token and FQN
+	 * @param token The metric token
+	 * @param fqn The metric FQN
+	 * @return the metric stub
+	 */
+	protected static IMetric metric(final long token, final String fqn) {
+		return (IMetric)Proxy.newProxyInstance(IMetric.class.getClassLoader(), new Class[]{IMetric.class}, new InvocationHandler(){
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) {
+				if("getToken".equals(method.getName())) return token;
+				if("getFQN".equals(method.getName()) || "toString".equals(method.getName())) return fqn;
+				if("hashCode".equals(method.getName())) return System.identityHashCode(proxy);
+				if("equals".equals(method.getName())) return proxy==args[0];
+				return null;
+			}
+		});
+	}
+	
+	/**
+	 * Creates a destination that matches metrics whose FQN starts with the passed prefix
+	 * @param prefix The FQN prefix
+	 * @param matchCalls A one slot array incremented on each match call
+	 * @return the destination
+	 */
+	protected static RouteDestination<IMetric> destination(final String prefix, final int[] matchCalls) {
+		return new RouteDestination<IMetric>() {
+			@Override
+			public void acceptRoute(IMetric routable) { /* No Op */ }
+			@Override
+			public void acceptRoutes(Collection<IMetric> routables) { /* No Op */ }
+			@Override
+			public boolean matches(IMetric routable) {
+				matchCalls[0]++;
+				return routable.getFQN().startsWith(prefix);
+			}
+		};
+	}
+	
+	/**
+	 * <p>Title: ConflatingDestination</p>
+	 * <p>Description: A destination that matches metrics whose FQN starts with a prefix and receives conflated metrics</p> 
+	 * <p>Company: Helios Development Group LLC</p>
+	 * @author Whitehead (nwhitehead AT heliosdev DOT org)
+	 * <p><code>test.org.helios.apmrouter.router.RouteTableTestCase.ConflatingDestination</code></p>
+	 */
+	protected static class ConflatingDestination implements RouteDestination<IMetric>, ConflatingRouteDestination {
+		/** The FQN prefix */
+		protected final String prefix;
+		/**
+		 * Creates a new ConflatingDestination
+		 * @param prefix The FQN prefix
+		 */
+		protected ConflatingDestination(String prefix) {
+			this.prefix = prefix;
+		}
+		@Override
+		public void acceptRoute(IMetric routable) { /* No Op */ }
+		@Override
+		public void acceptRoutes(Collection<IMetric> routables) { /* No Op */ }
+		@Override
+		public boolean matches(IMetric routable) {
+			return routable.getFQN().startsWith(prefix);
+		}
+		@Override
+		public boolean isConflate() {
+			return true;
+		}
+	}
+	
+	/**
+	 * Tests that a route is computed once per token and served from the table afterwards
+	 */
+	@Test
+	public void testLookupCachesRoutes() {
+		int[] calls = new int[1];
+		RouteTable table = new RouteTable(64);
+		List<RouteDestination<IMetric>> dests = new ArrayList<RouteDestination<IMetric>>();
+		dests.add(destination("a/", calls));
+		dests.add(destination("b/", calls));
+		table.setDestinations(dests);
+		IMetric m = metric(7, "a/x");
+		long[] bits = table.getRoutes().lookup(m);
+		Assert.assertArrayEquals("The route bits", new long[]{1L}, bits);
+		Assert.assertEquals("The match calls", 2, calls[0]);
+		Assert.assertSame("The cached route", bits, table.getRoutes().lookup(m));
+		Assert.assertEquals("The match calls after a hit", 2, calls[0]);
+		Assert.assertEquals("The hits", 1, table.getHits());
+		Assert.assertEquals("The misses", 1, table.getMisses());
+	}
+	
+	/**
+	 * Tests that metrics with no token are never cached
+	 */
+	@Test
+	public void testUntokenizedNotCached() {
+		RouteTable table = new RouteTable(64);
+		IMetric m = metric(-1, "a/x");
+		table.getRoutes().lookup(m);
+		table.getRoutes().lookup(m);
+		Assert.assertEquals("The misses", 2, table.getMisses());
+		Assert.assertEquals("The table size", 0, table.size());
+	}
+	
+	/**
+	 * Tests that a batch is partitioned by destination
+	 */
+	@Test
+	public void testPartition() {
+		int[] calls = new int[1];
+		RouteTable table = new RouteTable(64);
+		List<RouteDestination<IMetric>> dests = new ArrayList<RouteDestination<IMetric>>();
+		dests.add(destination("a/", calls));
+		dests.add(destination("b/", calls));
+		dests.add(destination("", calls));
+		table.setDestinations(dests);
+		IMetric a = metric(1, "a/x"), b = metric(2, "b/x");
+		List<IMetric>[] lists = table.getRoutes().partition(Arrays.asList(a, b, a));
+		Assert.assertEquals("The first destination's metrics", Arrays.asList(a, a), lists[0]);
+		Assert.assertEquals("The second destination's metrics", Arrays.asList(b), lists[1]);
+		Assert.assertEquals("The third destination's metrics", Arrays.asList(a, b, a), lists[2]);
+	}
+	
+	/**
+	 * Tests that raw samples skip the destinations that receive conflated metrics and are handed to the conflate list once, 
+	 * and that conflated metrics are only partitioned to those destinations
+	 */
+	@Test
+	public void testConflatedPartition() {
+		int[] calls = new int[1];
+		RouteTable table = new RouteTable(64);
+		List<RouteDestination<IMetric>> dests = new ArrayList<RouteDestination<IMetric>>();
+		dests.add(destination("", calls));
+		dests.add(new ConflatingDestination("a/"));
+		dests.add(new ConflatingDestination(""));
+		table.setDestinations(dests);
+		RouteTable.Routes routes = table.getRoutes();
+		Assert.assertTrue("The routes have conflated destinations", routes.hasConflated());
+		Assert.assertFalse("The raw destination is not conflated", routes.isConflated(0));
+		Assert.assertTrue("The conflating destination is conflated", routes.isConflated(1));
+		IMetric a = metric(1, "a/x"), b = metric(2, "b/x");
+		List<IMetric> conflate = new ArrayList<IMetric>();
+		List<IMetric>[] lists = routes.partition(Arrays.asList(a, b, a), conflate);
+		Assert.assertEquals("The raw destination's metrics", Arrays.asList(a, b, a), lists[0]);
+		Assert.assertNull("The first conflating destination's raw metrics", lists[1]);
+		Assert.assertNull("The second conflating destination's raw metrics", lists[2]);
+		Assert.assertEquals("The metrics to conflate", Arrays.asList(a, b, a), conflate);
+		lists = routes.partitionConflated(Arrays.asList(a, b));
+		Assert.assertNull("The raw destination's conflated metrics", lists[0]);
+		Assert.assertEquals("The first conflating destination's conflated metrics", Arrays.asList(a), lists[1]);
+		Assert.assertEquals("The second conflating destination's conflated metrics", Arrays.asList(a, b), lists[2]);
+		lists = routes.partition(Arrays.asList(a, b));
+		Assert.assertEquals("The unsplit partition", Arrays.asList(a), lists[1]);
+	}
+	
+	/**
+	 * Tests that the table is bounded by two generations, that a looked up entry survives a rotation 
+	 * and that entries not looked up for two generations are evicted
+	 */
+	@Test
+	public void testGenerationsBoundTable() {
+		RouteTable table = new RouteTable(8);
+		RouteTable.Routes routes = table.getRoutes();
+		for(long token = 0; token < 4; token++) routes.lookup(metric(token, "a/" + token));
+		Assert.assertEquals("The size after the first rotation", 4, table.size());
+		Assert.assertEquals("The evictions after the first rotation", 0, table.getEvictions());
+		routes.lookup(metric(0, "a/0"));
+		Assert.assertEquals("The promoted entry hit", 1, table.getHits());
+		for(long token = 10; token < 13; token++) routes.lookup(metric(token, "a/" + token));
+		Assert.assertEquals("The evictions after the second rotation", 3, table.getEvictions());
+		Assert.assertEquals("The size after the second rotation", 4, table.size());
+		routes.lookup(metric(0, "a/0"));
+		Assert.assertEquals("The promoted entry hit after the second rotation", 2, table.getHits());
+		routes.lookup(metric(1, "a/1"));
+		Assert.assertEquals("The evicted entry miss", 8, table.getMisses());
+		for(long token = 100; token < 1000; token++) routes.lookup(metric(token, "a/" + token));
+		Assert.assertTrue("The table is bounded [" + table.size() + "]", table.size() <= 8);
+	}
+	
+	/**
+	 * Tests that invalidating the table discards all computed routes
+	 */
+	@Test
+	public void testInvalidate() {
+		RouteTable table = new RouteTable(64);
+		table.getRoutes().lookup(metric(1, "a/x"));
+		table.invalidate();
+		Assert.assertEquals("The table size", 0, table.size());
+		Assert.assertEquals("The invalidations", 1, table.getInvalidations());
+		table.getRoutes().lookup(metric(1, "a/x"));
+		Assert.assertEquals("The misses", 2, table.getMisses());
+	}
+	
+	/**
+	 * Tests that an invalid capacity is rejected
+	 */
+	@Test(expected=IllegalArgumentException.class)
+	public void testInvalidCapacity() {
+		new RouteTable(1);
+	}
+}
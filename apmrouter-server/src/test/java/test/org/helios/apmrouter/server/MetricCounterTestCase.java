@@ -0,0 +1,137 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package test.org.helios.apmrouter.server;
+
+import org.helios.apmrouter.server.MetricCounter;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestName;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Title: MetricCounterTestCase</p>
+ * <p>Description: Test cases for {@link MetricCounter}</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>test.org.helios.apmrouter.server.MetricCounterTestCase</code></p>
+ */
+
+public class MetricCounterTestCase {
+	
+	/**
+	 * StdOut log
+	 * @param obj The message to log
+	 */
+	protected static void log(Object obj) {
+		System.out.println(obj);
+	}
+	/**
+	 * StdErr log
+	 * @param obj The message to log
+	 */
+	protected static void loge(Object obj) {
+		System.err.println(obj);
+	}
+	/** The currently executing test name */
+	@Rule public final TestName name = new TestName();
+
+	/**
+	 * Prints the test name about to be executed
+	 */
+	@Before
+	public void printTestName() {
+		log("\n\t==================================\n\tRunning Test [" + name.getMethodName() + "]\n\t==================================\n");
+	}
+	
+	/**
+	 * Tests single threaded increments, decrements, adds and sets
+	 */
+	@Test
+	public void testOperations() {
+		MetricCounter counter = new MetricCounter(name.getMethodName());
+		Assert.assertEquals("Name", name.getMethodName(), counter.getName());
+		Assert.assertEquals("Initial", 0L, counter.get());
+		counter.increment();
+		counter.increment();
+		counter.decrement();
+		Assert.assertEquals("Increments", 1L, counter.get());
+		counter.add(41L);
+		Assert.assertEquals("Add", 42L, counter.get());
+		counter.add(-50L);
+		Assert.assertEquals("Negative add", -8L, counter.get());
+		counter.set(100L);
+		Assert.assertEquals("Set", 100L, counter.get());
+		Assert.assertEquals("toString", name.getMethodName() + ":100", counter.toString());
+	}
+	
+	/**
+	 * Tests that increments from many threads spread across the cells all add up, and that a set replaces the value of every cell
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testConcurrentIncrements() throws Exception {
+		final int threads = MetricCounter.CELL_COUNT * 2 + 1, loops = 100000;
+		final MetricCounter counter = new MetricCounter(name.getMethodName());
+		final CountDownLatch start = new CountDownLatch(1);
+		final CountDownLatch done = new CountDownLatch(threads);
+		for(int t = 0; t < threads; t++) {
+			new Thread("CounterIncrementer#" + t) {
+				@Override
+				public void run() {
+					try {
+						start.await();
+						for(int i = 0; i < loops; i++) {
+							counter.increment();
+							counter.add(2L);
+							counter.decrement();
+						}
+					} catch (Exception ex) {
+						ex.printStackTrace(System.err);
+					} finally {
+						done.countDown();
+					}
+				}
+			}.start();
+		}
+		start.countDown();
+		Assert.assertTrue("Incrementers finished", done.await(60, TimeUnit.SECONDS));
+		Assert.assertEquals("Total", 2L * threads * loops, counter.get());
+		counter.set(5L);
+		Assert.assertEquals("Set clears every cell", 5L, counter.get());
+	}
+	
+	/**
+	 * Tests that a null name is rejected
+	 */
+	@Test(expected=IllegalArgumentException.class)
+	public void testNullName() {
+		new MetricCounter(null);
+	}
+	
+}